@@ -14,6 +14,7 @@ import br.ufsc.lapesd.freqel.federation.decomp.FilterAssigner;
 import br.ufsc.lapesd.freqel.federation.decomp.agglutinator.Agglutinator;
 import br.ufsc.lapesd.freqel.federation.decomp.match.MatchingStrategy;
 import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfiler;
 import br.ufsc.lapesd.freqel.federation.performance.metrics.Metrics;
 import br.ufsc.lapesd.freqel.federation.performance.metrics.TimeSampler;
 import br.ufsc.lapesd.freqel.federation.planner.ConjunctivePlanner;
@@ -68,6 +69,7 @@ public class Federation extends AbstractTPEndpoint implements CQEndpoint {
     private final @Nonnull ResultsExecutor resultsExecutor;
     private final @Nonnull PlanningExecutorService executorService;
     private final @Nonnull SourceCache sourceCache;
+    private final @Nonnull EndpointProfiler endpointProfiler;
     private final @Nonnull TBox tBox;
     private @Nonnull TemplateExpander templateExpander;
 
@@ -84,6 +86,7 @@ public class Federation extends AbstractTPEndpoint implements CQEndpoint {
                       @Nonnull ResultsExecutor resultsExecutor,
                       @Nonnull PlanningExecutorService executorService,
                       @Nonnull SourceCache sourceCache,
+                      @Nonnull EndpointProfiler endpointProfiler,
                       @Nonnull TBox tBox) {
         this.freqelConfig = freqelConfig;
         this.prePlanner = prePlanner;
@@ -92,6 +95,7 @@ public class Federation extends AbstractTPEndpoint implements CQEndpoint {
         this.matchingStrategy = matchingStrategy;
         this.agglutinator = agglutinator;
         this.sourceCache = sourceCache;
+        this.endpointProfiler = endpointProfiler;
         this.tBox = tBox;
         agglutinator.setMatchingStrategy(matchingStrategy);
         this.executor = executor;
@@ -116,6 +120,10 @@ public class Federation extends AbstractTPEndpoint implements CQEndpoint {
         return sourceCache;
     }
 
+    public @Nonnull EndpointProfiler getEndpointProfiler() {
+        return endpointProfiler;
+    }
+
     public @Nonnull TBox getTBox() {
         return tBox;
     }
@@ -315,6 +323,7 @@ public class Federation extends AbstractTPEndpoint implements CQEndpoint {
             }
         }
         resultsExecutor.close();
+        endpointProfiler.save();
         performance.close();
     }
 }
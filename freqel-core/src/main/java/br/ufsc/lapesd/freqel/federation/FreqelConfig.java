@@ -2,6 +2,7 @@ package br.ufsc.lapesd.freqel.federation;
 
 import br.ufsc.lapesd.freqel.algebra.util.RelativeCardinalityAdder;
 import br.ufsc.lapesd.freqel.cardinality.impl.*;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
 import br.ufsc.lapesd.freqel.federation.concurrent.PoolPlanningExecutorService;
 import br.ufsc.lapesd.freqel.federation.decomp.agglutinator.StandardAgglutinator;
 import br.ufsc.lapesd.freqel.federation.decomp.match.SourcesListMatchingStrategy;
@@ -10,8 +11,14 @@ import br.ufsc.lapesd.freqel.federation.execution.tree.impl.LazyCartesianOpExecu
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.SimpleEmptyOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.SimplePipeOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.SimpleQueryOpExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.AdaptiveJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.DefaultJoinOpExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.BindJoinCache;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.BindJoinEndpointLimiter;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.ParallelValuesBindJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.SimpleBindJoinResults;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.ValuesBatchSizeController;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.GraceHashJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.ParallelInMemoryHashJoinResults;
 import br.ufsc.lapesd.freqel.federation.performance.NoOpPerformanceListener;
 import br.ufsc.lapesd.freqel.federation.planner.conjunctive.GreedyJoinOrderPlanner;
@@ -181,6 +188,21 @@ public class FreqelConfig {
                 return parseInteger(value);
             }
         },
+        VIRTUAL_THREADS {
+            @Override public @Nonnull Boolean parse(@Nullable Object value) throws InvalidValueException {
+                return parseBool(value);
+            }
+        },
+        SERVER_MAX_CONCURRENT_QUERIES {
+            @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
+                return parseInteger(value);
+            }
+        },
+        SERVER_QUERY_QUEUE_SIZE {
+            @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
+                return parseInteger(value);
+            }
+        },
         ESTIMATE_LIMIT {
             @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
                 return parseInteger(value);
@@ -356,6 +378,16 @@ public class FreqelConfig {
                 return parseBool(value, true);
             }
         },
+        POSTPLANNER_PUSH_ORDER {
+            @Override public @Nonnull Boolean parse(@Nullable Object value) throws InvalidValueException {
+                return parseBool(value, true);
+            }
+        },
+        POSTPLANNER_PUSH_AGGREGATION {
+            @Override public @Nonnull Boolean parse(@Nullable Object value) throws InvalidValueException {
+                return parseBool(value, true);
+            }
+        },
         POSTPLANNER_PIPE_CLEANER {
             @Override public @Nonnull Boolean parse(@Nullable Object value) throws InvalidValueException {
                 return parseBool(value, true);
@@ -371,11 +403,66 @@ public class FreqelConfig {
                 return parseClassName(value);
             }
         },
+        BIND_JOIN_MAX_IN_FLIGHT {
+            @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
+                return parseInteger(value);
+            }
+        },
+        BIND_JOIN_MAX_IN_FLIGHT_PER_ENDPOINT {
+            @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
+                return parseInteger(value);
+            }
+        },
+        BIND_JOIN_VALUES_TARGET_MS {
+            @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
+                return parseInteger(value);
+            }
+        },
+        BIND_JOIN_VALUES_MAX_ROWS {
+            @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
+                return parseInteger(value);
+            }
+        },
+        BIND_JOIN_CACHE_SIZE {
+            @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
+                return parseInteger(value);
+            }
+        },
+        BIND_JOIN_CACHE_TTL_SECONDS {
+            @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
+                return parseInteger(value);
+            }
+        },
         HASH_JOIN_RESULTS_FACTORY {
             @Override public @Nonnull String parse(@Nullable Object value) throws InvalidValueException {
                 return parseClassName(value);
             }
         },
+        HASH_JOIN_MEMORY_BUDGET_MB {
+            @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
+                return parseInteger(value);
+            }
+        },
+        JOIN_EXECUTOR {
+            @Override public @Nonnull String parse(@Nullable Object value) throws InvalidValueException {
+                return parseClassName(value);
+            }
+        },
+        JOIN_MAX_THREADS {
+            @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
+                return parseInteger(value);
+            }
+        },
+        ADAPTIVE_JOIN_THRESHOLD {
+            @Override public @Nonnull Integer parse(@Nullable Object value) throws InvalidValueException {
+                return parseInteger(value);
+            }
+        },
+        MERGE_JOIN {
+            @Override public @Nonnull Boolean parse(@Nullable Object value) throws InvalidValueException {
+                return parseBool(value);
+            }
+        },
         JOIN_OP_EXECUTOR {
             @Override public @Nonnull String parse(@Nullable Object value) throws InvalidValueException {
                 return parseClassName(value);
@@ -559,8 +646,19 @@ public class FreqelConfig {
                     return Double.class;
                 case ESTIMATE_LIMIT:
                 case RESULTS_EXECUTOR_BUFFER_SIZE:
+                case SERVER_MAX_CONCURRENT_QUERIES:
+                case SERVER_QUERY_QUEUE_SIZE:
                 case PLANNING_CORE_THREADS:
                 case PLANNING_MAX_THREADS:
+                case JOIN_MAX_THREADS:
+                case HASH_JOIN_MEMORY_BUDGET_MB:
+                case ADAPTIVE_JOIN_THRESHOLD:
+                case BIND_JOIN_MAX_IN_FLIGHT:
+                case BIND_JOIN_MAX_IN_FLIGHT_PER_ENDPOINT:
+                case BIND_JOIN_VALUES_TARGET_MS:
+                case BIND_JOIN_VALUES_MAX_ROWS:
+                case BIND_JOIN_CACHE_SIZE:
+                case BIND_JOIN_CACHE_TTL_SECONDS:
                 case LARGE_CARDINALITY_THRESHOLD:
                 case HUGE_CARDINALITY_THRESHOLD:
                 case REL_CARDINALITY_ADDER_NONEMPTY_MIN:
@@ -581,9 +679,13 @@ public class FreqelConfig {
                 case POSTPLANNER_FILTER2BIND:
                 case POSTPLANNER_PUSH_DISTINCT:
                 case POSTPLANNER_PUSH_LIMIT:
+                case POSTPLANNER_PUSH_ORDER:
+                case POSTPLANNER_PUSH_AGGREGATION:
                 case POSTPLANNER_PIPE_CLEANER:
                 case POSTPLANNER_PUSH_DISJUNCTIVE:
                 case TRUST_SOURCE_CACHE:
+                case VIRTUAL_THREADS:
+                case MERGE_JOIN:
                     return Boolean.class;
                 case ADVERTISED_REASONING:
                     return SourcedEntailmentRegime.class;
@@ -607,6 +709,7 @@ public class FreqelConfig {
                 case PLANNING_EXECUTOR:
                 case BIND_JOIN_RESULTS_FACTORY:
                 case HASH_JOIN_RESULTS_FACTORY:
+                case JOIN_EXECUTOR:
                 case JOIN_OP_EXECUTOR:
                 case PLAN_EXECUTOR:
                 case QUERY_OP_EXECUTOR:
@@ -635,7 +738,7 @@ public class FreqelConfig {
                 case RESULTS_EXECUTOR_CONCURRENCY_FACTOR:
                     return -1.0;
                 case RESULTS_EXECUTOR_BUFFER_SIZE:
-                    return 10;
+                    return 256;
                 case ESTIMATE_LIMIT:
                     return 100;
                 case LARGE_CARDINALITY_THRESHOLD:
@@ -653,8 +756,32 @@ public class FreqelConfig {
                 case PLANNING_MAX_THREADS:
                     return getRuntime().availableProcessors()
                             + (getRuntime().availableProcessors()/3 + 1);
+                case JOIN_MAX_THREADS:
+                    return 4 * getRuntime().availableProcessors();
+                case SERVER_MAX_CONCURRENT_QUERIES:
+                    return 2 * getRuntime().availableProcessors();
+                case SERVER_QUERY_QUEUE_SIZE:
+                    return 128;
+                case HASH_JOIN_MEMORY_BUDGET_MB:
+                    return GraceHashJoinResults.DEFAULT_MEMORY_BUDGET_MB;
+                case ADAPTIVE_JOIN_THRESHOLD:
+                    return AdaptiveJoinOpExecutor.DEFAULT_THRESHOLD;
+                case BIND_JOIN_MAX_IN_FLIGHT:
+                    return ParallelValuesBindJoinResults.DEFAULT_MAX_IN_FLIGHT;
+                case BIND_JOIN_MAX_IN_FLIGHT_PER_ENDPOINT:
+                    return BindJoinEndpointLimiter.DEFAULT_MAX_PER_ENDPOINT;
+                case BIND_JOIN_VALUES_TARGET_MS:
+                    return ValuesBatchSizeController.DEFAULT_TARGET_MS;
+                case BIND_JOIN_VALUES_MAX_ROWS:
+                    return ValuesBatchSizeController.DEFAULT_MAX_ROWS;
+                case BIND_JOIN_CACHE_SIZE:
+                    return BindJoinCache.DEFAULT_MAX_SOLUTIONS;
+                case BIND_JOIN_CACHE_TTL_SECONDS:
+                    return BindJoinCache.DEFAULT_TTL_SECONDS;
                 case ESTIMATE_ASK_REMOTE:
                 case ESTIMATE_QUERY_REMOTE:
+                case VIRTUAL_THREADS:
+                case MERGE_JOIN:
                     return false;
                 case ESTIMATE_ASK_LOCAL:
                 case ESTIMATE_QUERY_LOCAL:
@@ -668,6 +795,8 @@ public class FreqelConfig {
                 case POSTPLANNER_FILTER2BIND:
                 case POSTPLANNER_PUSH_DISTINCT:
                 case POSTPLANNER_PUSH_LIMIT:
+                case POSTPLANNER_PUSH_ORDER:
+                case POSTPLANNER_PUSH_AGGREGATION:
                 case POSTPLANNER_PIPE_CLEANER:
                 case POSTPLANNER_PUSH_DISJUNCTIVE:
                 case TRUST_SOURCE_CACHE:
@@ -708,6 +837,8 @@ public class FreqelConfig {
                     return SimpleBindJoinResults.Factory.class.getName();
                 case HASH_JOIN_RESULTS_FACTORY:
                     return ParallelInMemoryHashJoinResults.Factory.class.getName();
+                case JOIN_EXECUTOR:
+                    return PoolJoinExecutorService.class.getName();
                 case JOIN_OP_EXECUTOR:
                     return DefaultJoinOpExecutor.class.getName();
                 case PERFORMANCE_LISTENER:
@@ -0,0 +1,70 @@
+package br.ufsc.lapesd.freqel.federation.concurrent;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.Future;
+
+/**
+ * Executor shared by all hash joins of a federation for consuming their operands.
+ *
+ * Tasks are submitted to a <i>lane</i>. Tasks within a lane run in submission order, while
+ * lanes are served in round-robin. Since a plan is instantiated by the thread that issued
+ * the query, using that thread as the lane gives every query a fair share of the workers.
+ *
+ * Tasks may block consuming joins whose own tasks were submitted to the same executor.
+ * Implementations must not let such nested tasks wait for workers held by the tasks
+ * that depend on them.
+ */
+public interface JoinExecutorService {
+    /**
+     * Schedule a task on the given lane.
+     *
+     * @param lane object identifying the lane. Tasks of a same lane are started in
+     *             submission order
+     * @param task the task to run
+     * @return A {@link Future} that completes when task finishes. Cancelling a task that has
+     *         not yet started will prevent it from running.
+     */
+    @Nonnull Future<?> submit(@Nonnull Object lane, @Nonnull Runnable task);
+
+    /**
+     * Same as {@link #submit(Object, Runnable)} using the current thread as the lane.
+     */
+    default @Nonnull Future<?> submit(@Nonnull Runnable task) {
+        return submit(Thread.currentThread(), task);
+    }
+
+    /**
+     * Maximum number of tasks submitted from outside this executor that may run concurrently.
+     */
+    int getMaxConcurrency();
+
+    /**
+     * Number of tasks currently running.
+     */
+    int getActiveTasks();
+
+    /**
+     * Number of tasks submitted that are waiting for a worker.
+     */
+    int getQueuedTasks();
+
+    /**
+     * Largest value observed for {@link #getQueuedTasks()} since creation.
+     */
+    int getPeakQueuedTasks();
+
+    /**
+     * Number of lanes that have at least one queued task.
+     */
+    int getQueuedLanes();
+
+    /**
+     * Number of tasks that finished execution since creation (approximate).
+     */
+    long getCompletedTasks();
+
+    /**
+     * Number of tasks whose {@link #submit(Object, Runnable)} failed since creation.
+     */
+    long getRejectedTasks();
+}
@@ -0,0 +1,383 @@
+package br.ufsc.lapesd.freqel.federation.concurrent;
+
+import br.ufsc.lapesd.freqel.federation.PerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.NoOpPerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.metrics.Metrics;
+import br.ufsc.lapesd.freqel.util.VirtualThreads;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.System.getSecurityManager;
+import static java.lang.Thread.currentThread;
+
+/**
+ * A {@link JoinExecutorService} backed by a bounded pool of daemon threads.
+ *
+ * Threads are created on demand up to maxThreads and die after 30 seconds idle, so that
+ * there is no per-join thread creation. Once all threads are busy, tasks wait in a queue
+ * that serves lanes in round-robin. If virtualThreads is enabled and supported, the workers
+ * are virtual threads, which keeps lanes and the maxThreads bound while making blocked
+ * workers cheap.
+ *
+ * Tasks submitted from within a task of this pool (e.g., a join that is an input of another
+ * join) do not go to the queue. Such a task usually blocks its worker until the nested task
+ * produces results, thus if all workers did that while the nested tasks sat in the queue, the
+ * pool would deadlock. Instead, nested tasks run on spare threads created on demand, which
+ * also die after 30 seconds idle. The number of spare threads is bounded by how many joins
+ * are nested in the plans being executed, not by maxThreads.
+ *
+ * Submissions that have to wait in the queue sample its size into
+ * {@link Metrics#JOIN_POOL_QUEUED_TASKS} and rejected submissions sample the total number of
+ * rejections into {@link Metrics#JOIN_POOL_REJECTED_TASKS}.
+ */
+public class PoolJoinExecutorService implements JoinExecutorService {
+    private static final @Nonnull AtomicInteger nextPoolId = new AtomicInteger(0);
+    private static final @Nonnull Object DEFAULT_LANE = new Object();
+    private static final @Nonnull ThreadLocal<PoolJoinExecutorService> runningPool
+            = new ThreadLocal<>();
+
+    private final int maxThreads;
+    private final @Nonnull LaneQueue queue = new LaneQueue();
+    private final @Nonnull ThreadPoolExecutor executor, spareExecutor;
+    private final @Nonnull PerformanceListener performance;
+    private final @Nonnull AtomicLong rejectedTasks = new AtomicLong(0);
+
+    private static class DefaultHolder {
+        private static final @Nonnull PoolJoinExecutorService INSTANCE
+                = new PoolJoinExecutorService();
+    }
+
+    /**
+     * Get a process-wide instance, for use where no {@link JoinExecutorService} is injected.
+     */
+    public static @Nonnull PoolJoinExecutorService getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public PoolJoinExecutorService() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public PoolJoinExecutorService(int maxThreads) {
+        this(maxThreads, false);
+    }
+
+    public PoolJoinExecutorService(int maxThreads, boolean virtualThreads) {
+        this(maxThreads, virtualThreads, NoOpPerformanceListener.INSTANCE);
+    }
+
+    @Inject public PoolJoinExecutorService(@Named("joinMaxThreads") int maxThreads,
+                                           @Named("virtualThreads") boolean virtualThreads,
+                                           @Nonnull PerformanceListener performance) {
+        if (maxThreads < 1)
+            throw new IllegalArgumentException("maxThreads="+maxThreads+" < 1");
+        this.maxThreads = maxThreads;
+        this.performance = performance;
+        ThreadFactory threadFactory = null;
+        if (virtualThreads) {
+            String prefix = PoolJoinExecutorService.class.getSimpleName() + "-virtual-"
+                          + nextPoolId.getAndIncrement() + "-";
+            threadFactory = VirtualThreads.factory(prefix);
+        }
+        if (threadFactory == null)
+            threadFactory = newPlatformThreadFactory();
+        // core == max: with an unbounded queue, TPE never grows beyond core
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 30, TimeUnit.SECONDS,
+                                          queue, threadFactory, this::reject);
+        executor.allowCoreThreadTimeOut(true);
+        spareExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+                                               new SynchronousQueue<>(), threadFactory,
+                                               this::reject);
+    }
+
+    private void reject(@Nonnull Runnable task, @Nonnull ThreadPoolExecutor executor) {
+        performance.sample(Metrics.JOIN_POOL_REJECTED_TASKS, rejectedTasks.incrementAndGet());
+        throw new RejectedExecutionException("Task "+task+" rejected from "+this);
+    }
+
+    private static @Nonnull ThreadFactory newPlatformThreadFactory() {
+        return new ThreadFactory() {
+            private final @Nonnull AtomicInteger nextThreadId = new AtomicInteger(0);
+            private final @Nonnull ThreadGroup group = getSecurityManager() == null
+                                                     ? currentThread().getThreadGroup()
+                                                     : getSecurityManager().getThreadGroup();
+            private final @Nonnull String namePrefix = PoolJoinExecutorService.class.getSimpleName()
+                                                     + "-" + nextPoolId.getAndIncrement();
+
+            @Override public Thread newThread(@Nonnull Runnable r) {
+                String name = namePrefix + "-" + nextThreadId.getAndIncrement();
+                Thread thread = new Thread(group, r, name, 0);
+                if (!thread.isDaemon())
+                    thread.setDaemon(true);
+                if (thread.getPriority() != Thread.NORM_PRIORITY)
+                    thread.setPriority(Thread.NORM_PRIORITY);
+                return thread;
+            }
+        };
+    }
+
+    private class LaneTask extends FutureTask<Void> {
+        private final @Nonnull Object lane;
+
+        public LaneTask(@Nonnull Object lane, @Nonnull Runnable runnable) {
+            super(runnable, null);
+            this.lane = lane;
+        }
+
+        @Override public void run() {
+            PoolJoinExecutorService old = runningPool.get();
+            runningPool.set(PoolJoinExecutorService.this);
+            try {
+                super.run();
+            } finally {
+                runningPool.set(old);
+            }
+        }
+    }
+
+    @Override public @Nonnull Future<?> submit(@Nonnull Object lane, @Nonnull Runnable task) {
+        LaneTask laneTask = new LaneTask(lane, task);
+        if (runningPool.get() == this) {
+            spareExecutor.execute(laneTask); // nested, see class doc
+            return laneTask;
+        }
+        executor.execute(laneTask);
+        int queued = queue.size();
+        if (queued > 0)
+            performance.sample(Metrics.JOIN_POOL_QUEUED_TASKS, queued);
+        return laneTask;
+    }
+
+    @Override public int getMaxConcurrency() {
+        return maxThreads;
+    }
+
+    @Override public int getActiveTasks() {
+        return executor.getActiveCount() + spareExecutor.getActiveCount();
+    }
+
+    @Override public int getQueuedTasks() {
+        return queue.size();
+    }
+
+    @Override public int getPeakQueuedTasks() {
+        return queue.getPeakSize();
+    }
+
+    @Override public int getQueuedLanes() {
+        return queue.getLaneCount();
+    }
+
+    @Override public long getCompletedTasks() {
+        return executor.getCompletedTaskCount() + spareExecutor.getCompletedTaskCount();
+    }
+
+    @Override public long getRejectedTasks() {
+        return rejectedTasks.get();
+    }
+
+    @Override public @Nonnull String toString() {
+        return String.format("%s@%x{max=%d, active=%d, queued=%d}",
+                             getClass().getSimpleName(), System.identityHashCode(this),
+                             maxThreads, getActiveTasks(), getQueuedTasks());
+    }
+
+    /**
+     * Unbounded {@link BlockingQueue} that is FIFO within a lane and round-robin across lanes.
+     */
+    private static class LaneQueue extends AbstractQueue<Runnable>
+            implements BlockingQueue<Runnable> {
+        private final @Nonnull ReentrantLock lock = new ReentrantLock();
+        private final @Nonnull Condition notEmpty = lock.newCondition();
+        private final @Nonnull Map<Object, ArrayDeque<Runnable>> lanes = new HashMap<>();
+        private final @Nonnull ArrayDeque<Object> turns = new ArrayDeque<>();
+        private int size = 0, peakSize = 0;
+
+        private static @Nonnull Object laneOf(@Nonnull Runnable r) {
+            return r instanceof LaneTask ? ((LaneTask) r).lane : DEFAULT_LANE;
+        }
+
+        public int getPeakSize() {
+            lock.lock();
+            try {
+                return peakSize;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int getLaneCount() {
+            lock.lock();
+            try {
+                return lanes.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /* --- --- --- must be called with lock held --- --- --- */
+
+        private void enqueue(@Nonnull Runnable r) {
+            Object lane = laneOf(r);
+            ArrayDeque<Runnable> deque = lanes.computeIfAbsent(lane, k -> new ArrayDeque<>());
+            if (deque.isEmpty())
+                turns.addLast(lane);
+            deque.addLast(r);
+            peakSize = Math.max(peakSize, ++size);
+            notEmpty.signal();
+        }
+
+        private @Nullable Runnable dequeue() {
+            Object lane = turns.pollFirst();
+            if (lane == null)
+                return null;
+            ArrayDeque<Runnable> deque = lanes.get(lane);
+            Runnable r = deque.pollFirst();
+            assert r != null : "empty lane in turns";
+            if (deque.isEmpty())
+                lanes.remove(lane);
+            else
+                turns.addLast(lane); // go to the end of the line
+            --size;
+            return r;
+        }
+
+        /* --- --- --- BlockingQueue implementation --- --- --- */
+
+        @Override public boolean offer(@Nonnull Runnable r) {
+            lock.lock();
+            try {
+                enqueue(r);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override public void put(@Nonnull Runnable r) {
+            offer(r);
+        }
+
+        @Override public boolean offer(@Nonnull Runnable r, long timeout, @Nonnull TimeUnit unit) {
+            return offer(r);
+        }
+
+        @Override public @Nullable Runnable poll() {
+            lock.lock();
+            try {
+                return dequeue();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override public @Nonnull Runnable take() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (size == 0)
+                    notEmpty.await();
+                Runnable r = dequeue();
+                assert r != null;
+                return r;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override public @Nullable Runnable poll(long timeout,
+                                                 @Nonnull TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lockInterruptibly();
+            try {
+                while (size == 0) {
+                    if (nanos <= 0)
+                        return null;
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+                return dequeue();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override public @Nullable Runnable peek() {
+            lock.lock();
+            try {
+                Object lane = turns.peekFirst();
+                return lane == null ? null : lanes.get(lane).peekFirst();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override public boolean remove(Object o) {
+            if (!(o instanceof Runnable))
+                return false;
+            lock.lock();
+            try {
+                Object lane = laneOf((Runnable) o);
+                ArrayDeque<Runnable> deque = lanes.get(lane);
+                if (deque == null || !deque.remove(o))
+                    return false;
+                if (deque.isEmpty()) {
+                    lanes.remove(lane);
+                    turns.remove(lane);
+                }
+                --size;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override public int remainingCapacity() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override public int drainTo(@Nonnull Collection<? super Runnable> c) {
+            return drainTo(c, Integer.MAX_VALUE);
+        }
+
+        @Override public int drainTo(@Nonnull Collection<? super Runnable> c, int maxElements) {
+            lock.lock();
+            try {
+                int count = 0;
+                for (Runnable r; count < maxElements && (r = dequeue()) != null; ++count)
+                    c.add(r);
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override public @Nonnull Iterator<Runnable> iterator() {
+            lock.lock();
+            try { // snapshot, in no particular order
+                List<Runnable> list = new ArrayList<>(size);
+                for (ArrayDeque<Runnable> deque : lanes.values())
+                    list.addAll(deque);
+                return Collections.unmodifiableList(list).iterator();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override public int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package br.ufsc.lapesd.freqel.federation.concurrent;
 
+import br.ufsc.lapesd.freqel.util.VirtualThreads;
 import com.google.common.util.concurrent.ForwardingExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,14 +16,22 @@ import static java.lang.String.format;
 import static java.lang.System.getSecurityManager;
 import static java.lang.Thread.currentThread;
 
+/**
+ * A {@link PlanningExecutorService} that creates a pool of daemon threads on the first
+ * {@link #bind()} and shuts it down on the last {@link #release()}.
+ *
+ * If virtualThreads is enabled and supported, the pool is replaced with an executor that
+ * starts a virtual thread per task.
+ */
 public class PoolPlanningExecutorService extends ForwardingExecutorService
         implements PlanningExecutorService {
     private static final @Nonnull Logger logger =
             LoggerFactory.getLogger(PoolPlanningExecutorService.class);
     private static final @Nonnull AtomicInteger nextPoolId = new AtomicInteger(0);
 
-    private ThreadPoolExecutor executor;
+    private ExecutorService executor;
     private final int core, max;
+    private final boolean virtualThreads;
     private int references;
     private final @Nonnull ThreadFactory threadFactory = new ThreadFactory() {
         private final @Nonnull AtomicInteger nextThreadId = new AtomicInteger(0);
@@ -52,10 +61,16 @@ public class PoolPlanningExecutorService extends ForwardingExecutorService
         this(core, core + (core/3 + 1));
     }
 
+    public PoolPlanningExecutorService(int core, int max) {
+        this(core, max, false);
+    }
+
     @Inject public PoolPlanningExecutorService(@Named("planningCoreThreads") int core,
-                                               @Named("planningMaxThreads") int max) {
+                                               @Named("planningMaxThreads") int max,
+                                               @Named("virtualThreads") boolean virtualThreads) {
         this.core = core;
         this.max = max;
+        this.virtualThreads = virtualThreads;
         this.references  = 0;
     }
 
@@ -69,14 +84,20 @@ public class PoolPlanningExecutorService extends ForwardingExecutorService
         if (executor == null) {
             assert references > 0;
             assert references == 1;
-            executor = new ThreadPoolExecutor(core, max, 30, TimeUnit.SECONDS,
-                                              new ArrayBlockingQueue<>(core), threadFactory,
-                                              new ThreadPoolExecutor.CallerRunsPolicy());
+            if (virtualThreads) {
+                String prefix = PoolPlanningExecutorService.class.getSimpleName() + "-virtual-";
+                executor = VirtualThreads.newPerTaskExecutor(prefix);
+            }
+            if (executor == null) {
+                executor = new ThreadPoolExecutor(core, max, 30, TimeUnit.SECONDS,
+                                                  new ArrayBlockingQueue<>(core), threadFactory,
+                                                  new ThreadPoolExecutor.CallerRunsPolicy());
+            }
         }
     }
 
     @Override public void release() {
-        ThreadPoolExecutor old;
+        ExecutorService old;
         synchronized (this) {
             if (references > 0) {
                 --references;
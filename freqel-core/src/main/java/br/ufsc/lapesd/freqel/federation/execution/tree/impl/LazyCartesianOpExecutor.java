@@ -19,7 +19,6 @@ import javax.inject.Provider;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 public class LazyCartesianOpExecutor extends SimpleOpExecutor implements CartesianOpExecutor {
     private final  @Nonnull CardinalityComparator comp;
@@ -52,14 +51,23 @@ public class LazyCartesianOpExecutor extends SimpleOpExecutor implements Cartesi
                 cs.add(0, cs.remove(maxIdx));
             for (Op child : cs)
                 list.add(planExecutor.executeNode(child));
-            Set<String> varNames = node.getResultVars();
-            // parallelizing the inputs provides no significant improvement
-            // the parallelization provided by lazyness is enough and is significant
-            Results r = new LazyCartesianResults(list.steal(), varNames);
+            Results r = createResults(list.steal(), node);
             return ResultsUtils.applyModifiers(r, node.modifiers());
         }
     }
 
+    /**
+     * Creates the product of the given inputs, the first of which has the largest cardinality.
+     *
+     * Modifiers of node will be applied by the caller on the returned {@link Results}.
+     */
+    protected @Nonnull Results createResults(@Nonnull List<Results> inputs,
+                                             @Nonnull CartesianOp node) {
+        // parallelizing the inputs provides no significant improvement
+        // the parallelization provided by lazyness is enough and is significant
+        return new LazyCartesianResults(inputs, node.getResultVars());
+    }
+
     @Override
     public boolean canExecute(@Nonnull Class<? extends Op> nodeClass) {
         return CartesianOp.class.isAssignableFrom(nodeClass);
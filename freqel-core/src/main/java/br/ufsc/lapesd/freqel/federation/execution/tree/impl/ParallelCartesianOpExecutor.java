@@ -0,0 +1,46 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl;
+
+import br.ufsc.lapesd.freqel.algebra.inner.CartesianOp;
+import br.ufsc.lapesd.freqel.cardinality.CardinalityComparator;
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.planner.post.steps.PushLimitStep;
+import br.ufsc.lapesd.freqel.query.modifiers.Limit;
+import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
+import br.ufsc.lapesd.freqel.query.results.Results;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.List;
+
+/**
+ * {@link LazyCartesianOpExecutor} variant that uses {@link ParallelCartesianResults}.
+ *
+ * A LIMIT on the {@link CartesianOp} is pushed into the product when no FILTER or DISTINCT
+ * would be applied before it, following {@link PushLimitStep#pushedLimit(ModifiersSet)}:
+ * the product stops at LIMIT+OFFSET solutions and is not capped if there is an ORDER BY.
+ */
+public class ParallelCartesianOpExecutor extends LazyCartesianOpExecutor {
+    private final @Nonnull JoinExecutorService executorService;
+
+    @Inject
+    public ParallelCartesianOpExecutor(@Nonnull Provider<PlanExecutor> planExecutorProvider,
+                                       @Nonnull CardinalityComparator comparator,
+                                       @Nonnull JoinExecutorService executorService) {
+        super(planExecutorProvider, comparator);
+        this.executorService = executorService;
+    }
+
+    @Override
+    protected @Nonnull Results createResults(@Nonnull List<Results> inputs,
+                                             @Nonnull CartesianOp node) {
+        ModifiersSet modifiers = node.modifiers();
+        Limit limit = PushLimitStep.pushedLimit(modifiers);
+        long limitValue = -1;
+        if (limit != null && modifiers.filters().isEmpty() && modifiers.distinct() == null)
+            limitValue = limit.getValue();
+        return new ParallelCartesianResults(inputs, node.getResultVars(), limitValue,
+                                            executorService);
+    }
+}
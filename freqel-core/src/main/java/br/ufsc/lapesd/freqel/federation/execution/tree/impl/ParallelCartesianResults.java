@@ -0,0 +1,344 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl;
+
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.query.results.*;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.util.indexed.IndexSet;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+/**
+ * Cartesian product that streams its first input and buffers the others column-wise.
+ *
+ * All inputs but the first are consumed concurrently by tasks in the
+ * {@link JoinExecutorService} into growing <code>Term[]</code> columns (no {@link Solution}
+ * object is kept per buffered row). The first input is consumed by the consumer thread, one
+ * {@link SolutionBlock} at a time. When a batch of output solutions is large enough, it is
+ * assembled in slices by the {@link ForkJoinPool#commonPool()}.
+ *
+ * If a limit is given, no buffered input holds more than limit rows, rows of the first input
+ * are only fetched while needed and no more than limit solutions are ever assembled.
+ */
+public class ParallelCartesianResults extends AbstractResults implements Results {
+    private static final @Nonnull Logger logger =
+            LoggerFactory.getLogger(ParallelCartesianResults.class);
+    public static final int PARALLEL_THRESHOLD = 8192;
+    private static final int MAX_BATCH = 65536;
+    private static final int MIN_SLICE = 2048;
+
+    private final @Nonnull Results first;
+    private final @Nonnull Operand[] operands;
+    private final @Nonnull IndexSet<String> outVars;
+    private final @Nonnull int[] firstOutColumns;
+    private final long limit;
+    private final int parallelism;
+    private @Nullable SolutionBlock firstBlock;
+    private long product = -1, produced = 0, position = 0;
+    private @Nonnull Solution[] batch = new Solution[0];
+    private int batchPos = 0, batchSize = 0;
+    private boolean exhausted = false, firstEmpty = true;
+    private volatile boolean stop = false;
+
+    /**
+     * A buffered input, kept as columns.
+     */
+    private final class Operand {
+        final @Nonnull Results results;
+        final @Nonnull SolutionBlock block;
+        final @Nonnull int[] outColumns;
+        final long cap;
+        @Nonnull Term[][] columns;
+        int rows = 0;
+        @Nullable Future<?> task;
+
+        Operand(@Nonnull Results results, long cap) {
+            this.results = results;
+            this.block = new SolutionBlock(results.getVarNames());
+            this.cap = cap;
+            IndexSet<String> vars = block.getVarNames();
+            this.outColumns = new int[vars.size()];
+            for (int i = 0; i < outColumns.length; i++)
+                outColumns[i] = outVars.indexOf(vars.get(i));
+            this.columns = new Term[vars.size()][16];
+        }
+
+        void fill() {
+            while (!stop && rows < cap) {
+                block.clear();
+                int n = results.nextBatch(block, (int)Math.min(block.capacity(), cap - rows));
+                if (n == 0)
+                    break;
+                if (columns.length > 0 && rows + n > columns[0].length)
+                    grow(rows + n);
+                for (int i = 0; i < columns.length; i++)
+                    System.arraycopy(block.getColumn(i), 0, columns[i], rows, n);
+                rows += n;
+            }
+            if (rows == 0 && results.isOptional())
+                rows = 1; // a single row with all columns unbound
+        }
+
+        private void grow(int required) {
+            if (columns.length == 0)
+                return;
+            int capacity = Math.max(required, columns[0].length * 2);
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = Arrays.copyOf(columns[i], capacity);
+        }
+
+        void await() {
+            Future<?> task = this.task;
+            if (task == null)
+                return;
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while buffering cartesian operand", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to buffer cartesian operand", e.getCause());
+            }
+            this.task = null;
+        }
+    }
+
+    public ParallelCartesianResults(@Nonnull List<? extends Results> inputs,
+                                    @Nonnull Set<String> varNames) {
+        this(inputs, varNames, -1, PoolJoinExecutorService.getDefault());
+    }
+
+    /**
+     * Creates the product and immediately starts buffering all inputs but the first.
+     *
+     * @param inputs the inputs, which must not share variables. The first one is streamed
+     *               (ideally, it should be the largest)
+     * @param limit maximum number of solutions to output, or -1 for no limit
+     * @param executorService where the tasks that buffer inputs will run
+     */
+    public ParallelCartesianResults(@Nonnull List<? extends Results> inputs,
+                                    @Nonnull Set<String> varNames, long limit,
+                                    @Nonnull JoinExecutorService executorService) {
+        super(varNames);
+        Preconditions.checkArgument(!inputs.isEmpty(), "No inputs");
+        this.outVars = ArraySolution.forVars(varNames).getVarNames();
+        this.limit = limit < 0 ? Long.MAX_VALUE : limit;
+        this.parallelism = ForkJoinPool.getCommonPoolParallelism();
+        this.first = inputs.get(0);
+        this.operands = new Operand[inputs.size()-1];
+        for (int i = 1; i < inputs.size(); i++)
+            operands[i-1] = new Operand(inputs.get(i), this.limit);
+        IndexSet<String> firstVars = new SolutionBlock(first.getVarNames(), 1).getVarNames();
+        this.firstOutColumns = new int[firstVars.size()];
+        for (int i = 0; i < firstOutColumns.length; i++)
+            firstOutColumns[i] = outVars.indexOf(firstVars.get(i));
+        for (Operand operand : operands) // one lane per operand: fill them concurrently
+            operand.task = executorService.submit(operand, operand::fill);
+    }
+
+    /* --- --- --- internals --- --- --- */
+
+    private boolean awaitOperands() {
+        product = 1;
+        for (Operand operand : operands) {
+            operand.await();
+            product = Math.multiplyExact(product, operand.rows);
+        }
+        return product > 0;
+    }
+
+    /**
+     * Fetches the next block of the first input, with at most as many rows as needed to
+     * reach the limit.
+     */
+    private boolean fetchFirst() {
+        long remaining = limit - produced;
+        long needed = remaining / product + (remaining % product == 0 ? 0 : 1);
+        if (firstBlock == null)
+            firstBlock = new SolutionBlock(first.getVarNames());
+        firstBlock.clear();
+        int n = first.nextBatch(firstBlock, (int)Math.min(firstBlock.capacity(), needed));
+        if (n == 0 && firstEmpty && first.isOptional()) {
+            firstBlock.add(ArraySolution.EMPTY); // a single row with all columns unbound
+            n = 1;
+        }
+        firstEmpty = false;
+        position = 0;
+        return n > 0;
+    }
+
+    /**
+     * Assembles the output solutions of firstBlock at positions [begin, end).
+     *
+     * Positions enumerate rows of firstBlock in the most significant digit and rows of the
+     * last operand in the least significant digit.
+     */
+    private void assemble(@Nonnull SolutionBlock block, long begin, long end,
+                          @Nonnull Solution[] out, int outOffset) {
+        int nOperands = operands.length;
+        int[] digits = new int[nOperands];
+        long rest = begin % product;
+        for (int i = nOperands-1; i >= 0; i--) {
+            digits[i] = (int)(rest % operands[i].rows);
+            rest /= operands[i].rows;
+        }
+        int firstRow = (int)(begin / product);
+        for (long p = begin; p < end; p++) {
+            Term[] values = new Term[outVars.size()];
+            for (int i = 0; i < firstOutColumns.length; i++) {
+                int c = firstOutColumns[i];
+                if (c >= 0) values[c] = block.getColumn(i)[firstRow];
+            }
+            for (int i = 0; i < nOperands; i++) {
+                Operand operand = operands[i];
+                int row = digits[i];
+                for (int j = 0; j < operand.outColumns.length; j++) {
+                    int c = operand.outColumns[j];
+                    if (c >= 0 && row < operand.columns[j].length)
+                        values[c] = operand.columns[j][row];
+                }
+            }
+            out[outOffset++] = new ArraySolution(outVars, values);
+            // increment digits, carrying into the first input row
+            int i = nOperands-1;
+            for (; i >= 0 && ++digits[i] == operands[i].rows; i--)
+                digits[i] = 0;
+            if (i < 0)
+                ++firstRow;
+        }
+    }
+
+    private boolean fillBatch() {
+        assert firstBlock != null;
+        long available = firstBlock.size() * product - position;
+        if (available == 0) {
+            if (!fetchFirst())
+                return false;
+            available = firstBlock.size() * product;
+        }
+        int size = (int)Math.min(Math.min(available, limit - produced), MAX_BATCH);
+        if (batch.length < size)
+            batch = new Solution[Math.max(size, Math.min(MAX_BATCH, batch.length*2))];
+        SolutionBlock block = firstBlock;
+        long begin = position;
+        int slices = size < PARALLEL_THRESHOLD ? 1
+                   : Math.min(parallelism + 1, size / MIN_SLICE);
+        if (slices <= 1) {
+            assemble(block, begin, begin+size, batch, 0);
+        } else {
+            Solution[] out = batch;
+            int sliceSize = (size + slices - 1) / slices;
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(slices-1);
+            for (int s = 1; s < slices; s++) {
+                int offset = s * sliceSize, end = Math.min(size, offset + sliceSize);
+                if (offset >= end)
+                    break;
+                tasks.add(ForkJoinPool.commonPool().submit(
+                        () -> assemble(block, begin+offset, begin+end, out, offset)));
+            }
+            assemble(block, begin, begin+Math.min(size, sliceSize), out, 0);
+            for (ForkJoinTask<?> task : tasks)
+                task.join();
+        }
+        position += size;
+        produced += size;
+        batchPos = 0;
+        batchSize = size;
+        return true;
+    }
+
+    private boolean advance() {
+        if (exhausted)
+            return false;
+        if (product < 0) {
+            if (!awaitOperands() || !fetchFirst()) {
+                exhausted = true;
+                return false;
+            }
+        }
+        if (produced >= limit || !fillBatch()) {
+            exhausted = true;
+            return false;
+        }
+        return true;
+    }
+
+    /* --- --- --- interface implementation --- --- --- */
+
+    @Override
+    public int getReadyCount() {
+        return batchSize - batchPos;
+    }
+
+    @Override
+    public boolean isDistinct() {
+        if (!first.isDistinct())
+            return false;
+        for (Operand operand : operands) {
+            if (!operand.results.isDistinct()) return false;
+        }
+        return true; // distinct inputs share no variables
+    }
+
+    @Override
+    public int getLimit() {
+        return limit == Long.MAX_VALUE ? -1 : (int)limit;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return batchPos < batchSize || advance();
+    }
+
+    @Override
+    public @Nonnull Solution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Solution solution = batch[batchPos];
+        batch[batchPos++] = null;
+        return solution;
+    }
+
+    @Override
+    public void close() throws ResultsCloseException {
+        stop = true;
+        exhausted = true;
+        batch = new Solution[0];
+        batchPos = batchSize = 0;
+        List<ResultsCloseException> exceptions = new ArrayList<>();
+        for (Operand operand : operands) {
+            if (operand.task != null)
+                operand.task.cancel(false);
+            try {
+                operand.results.close();
+            } catch (ResultsCloseException e) {
+                exceptions.add(e);
+            }
+        }
+        try {
+            first.close();
+        } catch (ResultsCloseException e) {
+            exceptions.add(e);
+        }
+        if (!exceptions.isEmpty()) {
+            for (int i = 1; i < exceptions.size(); i++)
+                logger.error("Suppressing additional exception on close()", exceptions.get(i));
+            throw exceptions.get(0);
+        }
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return String.format("ParallelCartesianResults@%x", System.identityHashCode(this));
+    }
+}
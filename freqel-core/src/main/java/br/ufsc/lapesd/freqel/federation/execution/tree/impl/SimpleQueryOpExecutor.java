@@ -7,23 +7,29 @@ import br.ufsc.lapesd.freqel.algebra.leaf.*;
 import br.ufsc.lapesd.freqel.algebra.util.DQPushChecker;
 import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.*;
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfiler;
 import br.ufsc.lapesd.freqel.model.SPARQLString;
 import br.ufsc.lapesd.freqel.query.CQuery;
 import br.ufsc.lapesd.freqel.query.endpoint.CQEndpoint;
 import br.ufsc.lapesd.freqel.query.endpoint.Capability;
 import br.ufsc.lapesd.freqel.query.endpoint.DQEndpoint;
 import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.EndpointRejectedException;
 import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
 import br.ufsc.lapesd.freqel.query.modifiers.Modifier;
 import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
+import br.ufsc.lapesd.freqel.query.modifiers.OrderBy;
 import br.ufsc.lapesd.freqel.query.modifiers.filter.SPARQLFilter;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.ResultsExecutor;
 import br.ufsc.lapesd.freqel.query.results.ResultsUtils;
 import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import br.ufsc.lapesd.freqel.query.results.impl.FluxResults;
+import br.ufsc.lapesd.freqel.query.results.impl.MergeSortedResults;
 import br.ufsc.lapesd.freqel.reason.tbox.EndpointReasoner;
 import br.ufsc.lapesd.freqel.reason.tbox.NoEndpointReasoner;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,16 +47,21 @@ public class SimpleQueryOpExecutor extends SimpleOpExecutor
         implements QueryOpExecutor, UnionOpExecutor, DQueryOpExecutor, CartesianOpExecutor,
         SPARQLValuesTemplateOpExecutor {
     private static final Logger logger = LoggerFactory.getLogger(SimpleQueryOpExecutor.class);
+    private static final @Nonnull ThreadLocal<int[]> fallbacks
+            = ThreadLocal.withInitial(() -> new int[1]);
     private final @Nonnull ResultsExecutor resultsExecutor;
     private final @Nonnull EndpointReasoner endpointReasoner;
+    private final @Nonnull EndpointProfiler profiler;
 
     @Inject
     public SimpleQueryOpExecutor(@Nonnull Provider<PlanExecutor> planExecutorProvider,
                                  @Nonnull ResultsExecutor resultsExecutor,
-                                 @Nonnull EndpointReasoner endpointReasoner) {
+                                 @Nonnull EndpointReasoner endpointReasoner,
+                                 @Nonnull EndpointProfiler profiler) {
         super(planExecutorProvider);
         this.resultsExecutor = resultsExecutor;
         this.endpointReasoner = endpointReasoner;
+        this.profiler = profiler;
     }
 
     @VisibleForTesting
@@ -59,6 +70,22 @@ public class SimpleQueryOpExecutor extends SimpleOpExecutor
         super(planExecutor);
         this.resultsExecutor = resultsExecutor;
         this.endpointReasoner = NoEndpointReasoner.INSTANCE;
+        this.profiler = EndpointProfiler.getDefault();
+    }
+
+    /**
+     * Number of failed queries that this thread replaced with empty results.
+     *
+     * Such results are indistinguishable from a true empty answer. Callers that must not
+     * take them as such (e.g., caches) compare this before and after executing a node.
+     */
+    public static int getFallbackCount() {
+        return fallbacks.get()[0];
+    }
+
+    private static @Nonnull Results fallback(@Nonnull Op node) {
+        ++fallbacks.get()[0];
+        return CollectionResults.empty(node.getResultVars());
     }
 
     @Override
@@ -85,8 +112,9 @@ public class SimpleQueryOpExecutor extends SimpleOpExecutor
             throw new IllegalArgumentException("Unexpected node class "+node.getClass());
 
         assert node.modifiers().optional() == null || results.isOptional();
-        assert results.getVarNames().containsAll(node.getResultVars());
-        assert node.getPublicVars().containsAll(results.getVarNames());
+        boolean aggregated = node.modifiers().aggregation() != null; // changes the vars
+        assert aggregated || results.getVarNames().containsAll(node.getResultVars());
+        assert aggregated || node.getPublicVars().containsAll(results.getVarNames());
         return results;
     }
 
@@ -95,25 +123,33 @@ public class SimpleQueryOpExecutor extends SimpleOpExecutor
         CQEndpoint endpoint = (CQEndpoint) node.getEndpoint();
         assert endpoint.canQuerySPARQL();
         try {
+            Stopwatch sw = Stopwatch.createStarted();
             Results results = endpoint.querySPARQL(node.createSPARQL(), node.isAsk(),
                                                    node.getResultVars());
+            results = profiler.monitor(results, endpoint, sw);
             results.setOptional(node.modifiers().optional() != null);
             return results;
+        } catch (EndpointRejectedException e) {
+            throw e; // an empty result would pass as the correct answer
         } catch (QueryExecutionException e) {
+            profiler.onFailure(endpoint, e);
             logger.error("Failed to execute SPARQL query against {}. Will return an Empty result",
                          node.getEndpoint(), e);
-            return CollectionResults.empty(node.getResultVars());
+            return fallback(node);
         }
     }
 
     @Override public @Nonnull Results execute(@Nonnull DQueryOp node) {
         try {
             return doExecute(node);
+        } catch (EndpointRejectedException e) {
+            throw e; // an empty result would pass as the correct answer
         } catch (QueryExecutionException e) {
+            profiler.onFailure(node.getEndpoint(), e);
             logger.error("Failed execute query against endpoint {}. Cause: {}.\n  Query:\n    {}",
                          node.getEndpoint(), e.getMessage(),
                          node.getQuery().prettyPrint(new StringBuilder(), "    "));
-            return CollectionResults.empty(node.getResultVars());
+            return fallback(node);
         }
     }
 
@@ -174,6 +210,24 @@ public class SimpleQueryOpExecutor extends SimpleOpExecutor
                 if (pending.add(modifiers.limit())) modifiers.remove(modifiers.limit());
                 if (pending.add(modifiers.ask()  )) modifiers.remove(modifiers.ask()  );
             }
+            if (pending != null && modifiers.aggregation() != null
+                    && (pending.aggregation() != null || !pending.filters().isEmpty())) {
+                // the aggregation consumes the filtered solutions and DISTINCT and ORDER BY
+                // apply to its output
+                copy();
+                if (pending.add(modifiers.aggregation())) modifiers.remove(modifiers.aggregation());
+                if (pending.add(modifiers.distinct()))    modifiers.remove(modifiers.distinct());
+                if (pending.add(modifiers.orderBy()))     modifiers.remove(modifiers.orderBy());
+            }
+            if (pending != null && (pending.orderBy() != null || pending.offset() != null
+                                    || pending.distinct() != null
+                                    || pending.aggregation() != null
+                                    || !pending.filters().isEmpty())) {
+                // OFFSET and LIMIT select a window of the ordered and filtered solutions
+                copy();
+                if (pending.add(modifiers.limit()))  modifiers.remove(modifiers.limit());
+                if (pending.add(modifiers.offset())) modifiers.remove(modifiers.offset());
+            }
             if (pending != null) {
                 assert !pending.isEmpty();
                 copy();
@@ -199,7 +253,9 @@ public class SimpleQueryOpExecutor extends SimpleOpExecutor
             Op query = data.dqOp().getQuery();
             assert new DQPushChecker(ep.getDisjunctiveProfile()).setEndpoint(ep).canPush(query)
                     : "Why did a non-executable plan got to this point!?";
-            return ResultsUtils.applyModifiers(ep.query(query), data.pending);
+            Stopwatch sw = Stopwatch.createStarted();
+            Results results = profiler.monitor(ep.query(query), ep, sw);
+            return ResultsUtils.applyModifiers(results, data.pending);
         }
     }
 
@@ -207,10 +263,13 @@ public class SimpleQueryOpExecutor extends SimpleOpExecutor
     public @Nonnull Results execute(@Nonnull EndpointQueryOp node) {
         try {
             return doExecute(node);
+        } catch (EndpointRejectedException e) {
+            throw e; // an empty result would pass as the correct answer
         } catch (QueryExecutionException e) {
+            profiler.onFailure(node.getEndpoint(), e);
             logger.error("Failed to execute query against {}. Will return an Empty result",
                     node.getEndpoint(), e);
-            return CollectionResults.empty(node.getResultVars());
+            return fallback(node);
         }
     }
 
@@ -220,7 +279,9 @@ public class SimpleQueryOpExecutor extends SimpleOpExecutor
         if (data.pending != null && data.pending.reasoning() != null)
             return endpointReasoner.apply(data.eqOp(), this::execute);
         CQuery q = data.eqOp().getQuery();
-        return ResultsUtils.applyModifiers(ep.query(q), data.pending);
+        Stopwatch sw = Stopwatch.createStarted();
+        Results results = profiler.monitor(ep.query(q), ep, sw);
+        return ResultsUtils.applyModifiers(results, data.pending);
     }
 
     @CheckReturnValue
@@ -233,11 +294,34 @@ public class SimpleQueryOpExecutor extends SimpleOpExecutor
         Set<SPARQLFilter> unionFilters = node.modifiers().filters();
         for (Op child : node.getChildren())
             resultList.add(executor.executeNode(pushingFilters(child, unionFilters)));
-        Results results = size > 1 ? resultsExecutor.async(resultList, node.getResultVars())
-                                   : resultList.get(0);
+        Results results;
+        OrderBy orderBy = node.modifiers().orderBy();
+        Set<String> vars = node.getResultVars();
+        if (node.modifiers().aggregation() != null) {
+            // children may output partial aggregates instead of the aggregation inputs
+            vars = new LinkedHashSet<>();
+            for (Results r : resultList)
+                vars.addAll(r.getVarNames());
+        }
+        if (size == 1)
+            results = resultList.get(0);
+        else if (orderBy != null && isOrderedByChildren(node, orderBy))
+            results = new MergeSortedResults(resultList, vars, orderBy);
+        else if (resultList.stream().allMatch(Results::isReactive))
+            results = FluxResults.merge(resultList, vars);
+        else
+            results = resultsExecutor.async(resultList, vars);
         return ResultsUtils.applyNonFilterModifiers(results, node.modifiers());
     }
 
+    private static boolean isOrderedByChildren(@Nonnull Op node, @Nonnull OrderBy orderBy) {
+        for (Op child : node.getChildren()) {
+            if (!orderBy.equals(child.modifiers().orderBy()) || child.modifiers().ask() != null)
+                return false;
+        }
+        return true;
+    }
+
     private @Nonnull Op pushingFilters(@Nonnull Op original,
                                        @Nonnull Collection<SPARQLFilter> filters) {
         if (original.modifiers().filters().containsAll(filters))
@@ -0,0 +1,265 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins;
+
+import br.ufsc.lapesd.freqel.algebra.Cardinality;
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.inner.JoinOp;
+import br.ufsc.lapesd.freqel.cardinality.CardinalityComparator;
+import br.ufsc.lapesd.freqel.cardinality.impl.ThresholdCardinalityComparator;
+import br.ufsc.lapesd.freqel.federation.PerformanceListener;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.BindJoinResultsFactory;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.HashJoinResultsFactory;
+import br.ufsc.lapesd.freqel.federation.performance.NoOpPerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.metrics.Metrics;
+import br.ufsc.lapesd.freqel.query.results.*;
+import com.google.common.base.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static br.ufsc.lapesd.freqel.algebra.Cardinality.Reliability.UPPER_BOUND;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * A {@link JoinOpExecutor} that decides between bind and hash joins from the number of
+ * solutions actually produced by the smaller operand, instead of trusting plan-time
+ * cardinality estimates.
+ *
+ * Execution starts as a bind join (using the {@link BindJoinResultsFactory}) fed by the
+ * operand estimated to be smaller. Once that operand produces more than
+ * <code>threshold</code> solutions, no more bind queries are issued: the other operand is
+ * executed without bindings and the remaining solutions of the smaller operand are
+ * hash-joined (using the {@link HashJoinResultsFactory}) against it. Solutions already
+ * joined by the bind phase are not fetched again.
+ *
+ * Every join reports the strategy taken, how many solutions of the smaller operand were
+ * observed before the decision was final and their arrival rate to the
+ * {@link PerformanceListener} (see {@link Metrics#ADAPTIVE_JOIN_STRATEGY}).
+ */
+public class AdaptiveJoinOpExecutor extends AbstractBindJoinOpExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveJoinOpExecutor.class);
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    public enum Strategy {
+        BIND,
+        HASH,
+        BIND_THEN_HASH
+    }
+
+    private final @Nonnull BindJoinResultsFactory bindFactory;
+    private final @Nonnull HashJoinResultsFactory hashFactory;
+    private final @Nonnull CardinalityComparator comparator;
+    private final @Nonnull PerformanceListener performance;
+    private final int threshold;
+
+    @Inject
+    public AdaptiveJoinOpExecutor(@Nonnull Provider<PlanExecutor> planExecutorProvider,
+                                  @Nonnull BindJoinResultsFactory bindFactory,
+                                  @Nonnull HashJoinResultsFactory hashFactory,
+                                  @Nonnull CardinalityComparator comparator,
+                                  @Nonnull PerformanceListener performance,
+                                  @Named("adaptiveJoinThreshold") int threshold) {
+        super(planExecutorProvider);
+        this.bindFactory = bindFactory;
+        this.hashFactory = hashFactory;
+        this.comparator = comparator;
+        this.performance = performance;
+        this.threshold = threshold;
+    }
+
+    public AdaptiveJoinOpExecutor(@Nonnull PlanExecutor planExecutor,
+                                  @Nonnull BindJoinResultsFactory bindFactory,
+                                  @Nonnull HashJoinResultsFactory hashFactory,
+                                  int threshold) {
+        super(planExecutor);
+        this.bindFactory = bindFactory;
+        this.hashFactory = hashFactory;
+        this.comparator = ThresholdCardinalityComparator.DEFAULT;
+        this.performance = NoOpPerformanceListener.INSTANCE;
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    protected @Nonnull Results innerExecute(@Nonnull JoinOp node) {
+        Op l = node.getLeft(), r = node.getRight();
+        boolean leftOptional = l.modifiers().optional() != null;
+        boolean rightOptional = r.modifiers().optional() != null;
+        if (leftOptional && rightOptional && !l.hasRequiredInputs() && !r.hasRequiredInputs())
+            return executeHash(node);
+        if (l.hasInputs() || r.hasInputs())
+            return super.innerExecute(node); // only a bind join can satisfy inputs
+        Cardinality lc = l.getCardinality(), rc = r.getCardinality();
+        if (lc.getReliability().isAtLeast(UPPER_BOUND)
+                && rc.getReliability().isAtLeast(UPPER_BOUND)
+                && comparator.min(lc, rc).getValue(Integer.MAX_VALUE) < threshold) {
+            return executeHash(node); // the estimate is a promise: hash will be cheap
+        }
+
+        Op[] nodes = orderForBind(node);
+        if (nodes[1].modifiers().optional() == null
+                && comparator.compare(nodes[1].getCardinality(), nodes[0].getCardinality()) < 0) {
+            Op tmp = nodes[0];
+            nodes[0] = nodes[1];
+            nodes[1] = tmp;
+        }
+        Results smaller = getPlanExecutor().executeNode(nodes[0]);
+        return new AdaptiveResults(smaller, nodes[1], node);
+    }
+
+    private @Nonnull Results executeHash(@Nonnull JoinOp node) {
+        PlanExecutor exec = getPlanExecutor();
+        try (ResultsList<Results> list = new ResultsList<>()) {
+            list.add(exec.executeNode(node.getLeft()));
+            list.add(exec.executeNode(node.getRight()));
+            Results results = hashFactory.createResults(list.get(0), list.get(1),
+                                                        node.getJoinVars(), node.getResultVars());
+            list.clear();
+            sample(Strategy.HASH, -1, 0);
+            return results;
+        }
+    }
+
+    @Override
+    protected @Nonnull Results createResults(@Nonnull Results left, @Nonnull Op right,
+                                             @Nonnull JoinOp node) {
+        sample(Strategy.BIND, -1, 0);
+        return bindFactory.createResults(left, right, node.getJoinVars(), node.getResultVars());
+    }
+
+    private void sample(@Nonnull Strategy strategy, int smallerRows, double rowsPerSecond) {
+        performance.sample(Metrics.ADAPTIVE_JOIN_STRATEGY, strategy.name());
+        if (smallerRows >= 0) {
+            performance.sample(Metrics.ADAPTIVE_JOIN_SMALLER_ROWS, smallerRows);
+            performance.sample(Metrics.ADAPTIVE_JOIN_SMALLER_ROWS_PER_SEC, rowsPerSecond);
+        }
+    }
+
+    /**
+     * Lets at most threshold solutions of the smaller operand into the bind join.
+     *
+     * Closing this does not close the smaller operand, since it may still be hash-joined.
+     */
+    private class Gate extends DelegatingResults {
+        private final @Nonnull Stopwatch sw = Stopwatch.createUnstarted();
+        private volatile int passed = 0;
+        private volatile boolean tripped = false;
+
+        Gate(@Nonnull Results in) {
+            super(in.getVarNames(), in);
+        }
+
+        private boolean checkOpen(boolean inHasNext) {
+            if (!inHasNext)
+                return false;
+            if (passed < threshold)
+                return true;
+            tripped = true;
+            return false;
+        }
+
+        @Override public int getReadyCount() {
+            return passed < threshold ? in.getReadyCount() : 0;
+        }
+
+        @Override public boolean hasNext() {
+            if (!sw.isRunning() && passed == 0) sw.start();
+            return checkOpen(in.hasNext());
+        }
+
+        @Override public boolean hasNext(int millisecondsTimeout) {
+            if (!sw.isRunning() && passed == 0) sw.start();
+            return checkOpen(in.hasNext(millisecondsTimeout));
+        }
+
+        @Override public @Nonnull Solution next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            ++passed;
+            return in.next();
+        }
+
+        double getRowsPerSecond() {
+            double seconds = sw.elapsed(MICROSECONDS) / 1000000.0;
+            return seconds > 0 ? passed / seconds : 0;
+        }
+
+        @Override public void close() { }
+    }
+
+    private class AdaptiveResults extends AbstractResults {
+        private final @Nonnull Results smaller;
+        private final @Nonnull Op other;
+        private final @Nonnull JoinOp node;
+        private final @Nonnull Gate gate;
+        private @Nonnull Results current;
+        private @Nullable Strategy strategy = null;
+
+        AdaptiveResults(@Nonnull Results smaller, @Nonnull Op other, @Nonnull JoinOp node) {
+            super(node.getResultVars());
+            this.smaller = smaller;
+            this.other = other;
+            this.node = node;
+            this.gate = new Gate(smaller);
+            Set<String> joinVars = node.getJoinVars();
+            this.current = bindFactory.createResults(gate, other, joinVars, node.getResultVars());
+        }
+
+        @Override public int getReadyCount() {
+            return current.getReadyCount();
+        }
+
+        private void switchToHash() {
+            try {
+                current.close();
+            } catch (ResultsCloseException e) {
+                logger.error("Problem closing bind join results of {}", node, e);
+            }
+            logger.debug("{} produced more than {} solutions, switching to hash join for {}",
+                         smaller, threshold, node);
+            Results otherResults = getPlanExecutor().executeNode(other);
+            current = hashFactory.createResults(smaller, otherResults, node.getJoinVars(),
+                                                node.getResultVars());
+            strategy = Strategy.BIND_THEN_HASH;
+            sample(strategy, gate.passed, gate.getRowsPerSecond());
+        }
+
+        @Override public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (strategy != null)
+                    return false; // decision already made and current is exhausted
+                if (gate.tripped) {
+                    switchToHash();
+                } else {
+                    strategy = Strategy.BIND;
+                    sample(strategy, gate.passed, gate.getRowsPerSecond());
+                }
+            }
+            return true;
+        }
+
+        @Override public @Nonnull Solution next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return current.next();
+        }
+
+        @Override public void close() throws ResultsCloseException {
+            try {
+                current.close();
+            } finally {
+                smaller.close();
+            }
+        }
+    }
+}
@@ -4,6 +4,8 @@ import br.ufsc.lapesd.freqel.algebra.Cardinality;
 import br.ufsc.lapesd.freqel.algebra.Op;
 import br.ufsc.lapesd.freqel.algebra.inner.JoinOp;
 import br.ufsc.lapesd.freqel.cardinality.CardinalityComparator;
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
 import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.InMemoryHashJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.ParallelInMemoryHashJoinResults;
@@ -17,18 +19,33 @@ import java.util.Set;
 
 public class DefaultHashJoinOpExecutor extends AbstractSimpleJoinOpExecutor {
     private final @Nonnull CardinalityComparator comparator;
+    private final @Nonnull JoinExecutorService joinExecutorService;
 
     @Inject
     public DefaultHashJoinOpExecutor(@Nonnull Provider<PlanExecutor> planExecutorProvider,
-                                     @Nonnull CardinalityComparator comparator) {
+                                     @Nonnull CardinalityComparator comparator,
+                                     @Nonnull JoinExecutorService joinExecutorService) {
         super(planExecutorProvider);
         this.comparator = comparator;
+        this.joinExecutorService = joinExecutorService;
     }
 
-    public DefaultHashJoinOpExecutor(@Nonnull PlanExecutor planExecutor,
+    public DefaultHashJoinOpExecutor(@Nonnull Provider<PlanExecutor> planExecutorProvider,
                                      @Nonnull CardinalityComparator comparator) {
+        this(planExecutorProvider, comparator, PoolJoinExecutorService.getDefault());
+    }
+
+    public DefaultHashJoinOpExecutor(@Nonnull PlanExecutor planExecutor,
+                                     @Nonnull CardinalityComparator comparator,
+                                     @Nonnull JoinExecutorService joinExecutorService) {
         super(planExecutor);
         this.comparator = comparator;
+        this.joinExecutorService = joinExecutorService;
+    }
+
+    public DefaultHashJoinOpExecutor(@Nonnull PlanExecutor planExecutor,
+                                     @Nonnull CardinalityComparator comparator) {
+        this(planExecutor, comparator, PoolJoinExecutorService.getDefault());
     }
 
     @Override
@@ -44,11 +61,13 @@ public class DefaultHashJoinOpExecutor extends AbstractSimpleJoinOpExecutor {
             int diff = comparator.compare(lc, rc);
             if (diff == 0) {
                 results = new ParallelInMemoryHashJoinResults(list.get(0), list.get(1),
-                                                              joinVars, resultVars);
+                                                              joinVars, resultVars,
+                                                              joinExecutorService);
             } else {
                 int i = diff <= 0 ? 0 : 1;
                 results = new InMemoryHashJoinResults(list.get(i), list.get((i+1) % 2),
-                                                      joinVars, resultVars);
+                                                      joinVars, resultVars,
+                                                      joinExecutorService);
             }
             list.clear();
             return results;
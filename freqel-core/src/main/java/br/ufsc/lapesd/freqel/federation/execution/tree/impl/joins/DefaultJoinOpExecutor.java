@@ -5,43 +5,94 @@ import br.ufsc.lapesd.freqel.algebra.Op;
 import br.ufsc.lapesd.freqel.algebra.inner.JoinOp;
 import br.ufsc.lapesd.freqel.cardinality.CardinalityComparator;
 import br.ufsc.lapesd.freqel.cardinality.impl.ThresholdCardinalityComparator;
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
 import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.BindJoinResultsFactory;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.SimpleBindJoinResults;
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfiler;
+import br.ufsc.lapesd.freqel.query.endpoint.Capability;
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
 import br.ufsc.lapesd.freqel.query.results.Results;
+import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Provider;
+import java.util.List;
 
+import static br.ufsc.lapesd.freqel.algebra.Cardinality.Reliability.GUESS;
 import static br.ufsc.lapesd.freqel.algebra.Cardinality.Reliability.UPPER_BOUND;
 import static br.ufsc.lapesd.freqel.cardinality.CardinalityUtils.multiply;
 
 public class DefaultJoinOpExecutor extends AbstractSimpleJoinOpExecutor {
     private static final Logger logger = LoggerFactory.getLogger(DefaultJoinOpExecutor.class);
+    /**
+     * Merge joins are only considered if both operands are estimated to have at least this
+     * many solutions...
+     */
+    public static final int MERGE_MIN_CARDINALITY = 1024;
+    /**
+     * ... and if the larger operand is estimated to have at most this many times the
+     * solutions of the smaller operand. Else, bind joins will issue few requests.
+     */
+    public static final int MERGE_MAX_RATIO = 8;
+    /**
+     * When profiles of the endpoints are known, a hash join replaces a bind join if the
+     * estimated bind join duration is at least this many times the hash join duration.
+     */
+    public static final double HASH_MIN_SPEEDUP = 2;
 
     private @Nonnull final DefaultHashJoinOpExecutor hashExecutor;
     private @Nonnull final FixedBindJoinOpExecutor bindExecutor;
+    private @Nonnull final MergeJoinOpExecutor mergeExecutor;
     private @Nonnull final CardinalityComparator comparator;
+    private @Nonnull final EndpointProfiler profiler;
+    private final boolean mergeJoin;
 
+    /**
+     * Constructor.
+     *
+     * @param mergeJoin whether to use {@link MergeJoinOpExecutor} for large joins of ordered
+     *                  sources. A merge join fails if a source does not honor ORDER BY.
+     */
     @Inject
     public DefaultJoinOpExecutor(@Nonnull Provider<PlanExecutor> planExecutorProvider,
                                  @Nonnull BindJoinResultsFactory bindJoinResultsFactory,
-                                 @Nonnull CardinalityComparator cardinalityComparator) {
+                                 @Nonnull CardinalityComparator cardinalityComparator,
+                                 @Nonnull JoinExecutorService joinExecutorService,
+                                 @Nonnull EndpointProfiler profiler,
+                                 @Named("mergeJoin") boolean mergeJoin) {
         super(planExecutorProvider);
         this.comparator = cardinalityComparator;
-        this.hashExecutor = new DefaultHashJoinOpExecutor(planExecutorProvider, comparator);
+        this.profiler = profiler;
+        this.mergeJoin = mergeJoin;
+        this.hashExecutor = new DefaultHashJoinOpExecutor(planExecutorProvider, comparator,
+                                                          joinExecutorService);
         this.bindExecutor = new FixedBindJoinOpExecutor(planExecutorProvider,
                                                           bindJoinResultsFactory);
+        this.mergeExecutor = new MergeJoinOpExecutor(planExecutorProvider);
     }
 
     public DefaultJoinOpExecutor(@Nonnull PlanExecutor planExecutor,
                                  @Nonnull BindJoinResultsFactory bindJoinResultsFactory) {
+        this(planExecutor, bindJoinResultsFactory, false);
+    }
+
+    public DefaultJoinOpExecutor(@Nonnull PlanExecutor planExecutor,
+                                 @Nonnull BindJoinResultsFactory bindJoinResultsFactory,
+                                 boolean mergeJoin) {
         super(planExecutor);
         this.comparator = ThresholdCardinalityComparator.DEFAULT;
-        this.hashExecutor = new DefaultHashJoinOpExecutor(planExecutor, this.comparator);
+        this.profiler = EndpointProfiler.getDefault();
+        this.mergeJoin = mergeJoin;
+        this.hashExecutor = new DefaultHashJoinOpExecutor(planExecutor, this.comparator,
+                                                          PoolJoinExecutorService.getDefault());
         this.bindExecutor = new FixedBindJoinOpExecutor(planExecutor, bindJoinResultsFactory);
+        this.mergeExecutor = new MergeJoinOpExecutor(planExecutor);
     }
 
     @Override
@@ -73,8 +124,53 @@ public class DefaultJoinOpExecutor extends AbstractSimpleJoinOpExecutor {
                                                       multiply(minC, 2));
             if (askDegenerate && comparator.compare(m.getCardinality(), askDegenCeil) <= 0)
                 return hashExecutor.innerExecute(node);
+            if (mergeJoin && isMergeWorthy(lc, rc) && MergeJoinOpExecutor.canMergeJoin(node))
+                return mergeExecutor.innerExecute(node);
+            if (isHashFaster(node.getLeft(), node.getRight(), profiler))
+                return hashExecutor.innerExecute(node);
 
             return bindExecutor.innerExecute(node);
         }
     }
+
+    /**
+     * Estimates, from the {@link EndpointProfiler}, whether a hash join would be
+     * significantly faster than a bind join where left drives the requests to right.
+     *
+     * A hash join fetches both sides in parallel, each taking its first-row latency plus
+     * its cardinality over its throughput. A bind join fetches left and then sends one
+     * request to right for every batch of left solutions. If the cardinalities are not at
+     * least {@link Cardinality.Reliability#GUESS}es or if any endpoint profile is unknown,
+     * returns false.
+     */
+    @VisibleForTesting
+    static boolean isHashFaster(@Nonnull Op left, @Nonnull Op right,
+                                @Nonnull EndpointProfiler profiler) {
+        Cardinality lc = left.getCardinality(), rc = right.getCardinality();
+        if (!lc.getReliability().isAtLeast(GUESS) || !rc.getReliability().isAtLeast(GUESS))
+            return false;
+        List<TPEndpoint> rightEndpoints = EndpointProfiler.getEndpoints(right);
+        double lLatency = profiler.getFirstRowMs(left), rLatency = profiler.getFirstRowMs(right);
+        double lRate = profiler.getRowsPerSecond(left), rRate = profiler.getRowsPerSecond(right);
+        if (rightEndpoints == null || Double.isNaN(lLatency) || Double.isNaN(rLatency)
+                || Double.isNaN(lRate) || Double.isNaN(rRate)) {
+            return false;
+        }
+        long l = lc.getValue(0), r = rc.getValue(0);
+        double lMs = lLatency + l * 1000.0 / lRate, rMs = rLatency + r * 1000.0 / rRate;
+        double hashMs = Math.max(lMs, rMs);
+
+        boolean values = rightEndpoints.stream().allMatch(e -> e.hasCapability(Capability.VALUES));
+        int batch = values ? SimpleBindJoinResults.DEF_VALUES_ROWS : 1;
+        double bindMs = lMs + Math.ceil(l / (double)batch) * rLatency;
+        return bindMs >= hashMs * HASH_MIN_SPEEDUP;
+    }
+
+    private static boolean isMergeWorthy(@Nonnull Cardinality lc, @Nonnull Cardinality rc) {
+        if (!lc.getReliability().isAtLeast(GUESS) || !rc.getReliability().isAtLeast(GUESS))
+            return false;
+        long l = lc.getValue(0), r = rc.getValue(0);
+        long min = Math.min(l, r), max = Math.max(l, r);
+        return min >= MERGE_MIN_CARDINALITY && max <= min * MERGE_MAX_RATIO;
+    }
 }
@@ -0,0 +1,101 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins;
+
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.inner.JoinOp;
+import br.ufsc.lapesd.freqel.algebra.leaf.EndpointQueryOp;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.merge.MergeJoinResults;
+import br.ufsc.lapesd.freqel.model.Triple;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.query.endpoint.Capability;
+import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
+import br.ufsc.lapesd.freqel.query.modifiers.OrderBy;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsList;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Executes a {@link JoinOp} by asking both operands to ORDER BY the join variables and then
+ * merging them with {@link MergeJoinResults}.
+ *
+ * Only joins for which {@link #canMergeJoin(JoinOp)} holds can be executed.
+ */
+public class MergeJoinOpExecutor extends AbstractSimpleJoinOpExecutor {
+    @Inject
+    public MergeJoinOpExecutor(@Nonnull Provider<PlanExecutor> planExecutorProvider) {
+        super(planExecutorProvider);
+    }
+
+    public MergeJoinOpExecutor(@Nonnull PlanExecutor planExecutor) {
+        super(planExecutor);
+    }
+
+    /**
+     * Tells whether node can be merge joined.
+     *
+     * This requires both operands to be queries to endpoints with {@link Capability#ORDER_BY}
+     * that have no inputs nor modifiers whose result would change if the query were ordered
+     * (LIMIT, ASK and a previous ORDER BY). In addition, all join variables must appear as
+     * subject or predicate in both operands. Thus their values are IRIs (or blank nodes),
+     * which all SPARQL engines order in the same way as {@link MergeJoinResults}.
+     */
+    public static boolean canMergeJoin(@Nonnull JoinOp node) {
+        Set<String> joinVars = node.getJoinVars();
+        if (joinVars.isEmpty())
+            return false;
+        for (Op child : node.getChildren()) {
+            if (!(child instanceof EndpointQueryOp) || child.hasInputs())
+                return false;
+            if (!((EndpointQueryOp) child).getEndpoint().hasCapability(Capability.ORDER_BY))
+                return false;
+            ModifiersSet modifiers = child.modifiers();
+            if (modifiers.optional() != null || modifiers.limit() != null
+                    || modifiers.ask() != null || modifiers.orderBy() != null) {
+                return false;
+            }
+            if (!getResourceVars(((EndpointQueryOp) child).getQuery()).containsAll(joinVars))
+                return false;
+        }
+        return true;
+    }
+
+    private static @Nonnull Set<String> getResourceVars(@Nonnull Collection<Triple> triples) {
+        Set<String> set = new HashSet<>();
+        for (Triple triple : triples) {
+            for (Term term : new Term[]{triple.getSubject(), triple.getPredicate()}) {
+                if (term.isVar())
+                    set.add(term.asVar().getName());
+            }
+        }
+        return set;
+    }
+
+    @Override
+    protected @Nonnull Results innerExecute(@Nonnull JoinOp node) {
+        Preconditions.checkArgument(canMergeJoin(node), "Cannot merge join "+node);
+        List<String> keys = new ArrayList<>(node.getJoinVars());
+        keys.sort(String::compareTo);
+        OrderBy orderBy = OrderBy.asc(keys);
+        PlanExecutor exec = getPlanExecutor();
+        try (ResultsList<Results> list = new ResultsList<>()) {
+            for (Op child : node.getChildren()) {
+                Op ordered = child.flatCopy();
+                ordered.modifiers().add(orderBy);
+                list.add(exec.executeNode(ordered));
+            }
+            Results results = new MergeJoinResults(list.get(0), list.get(1), keys,
+                                                   node.getResultVars());
+            list.clear(); // ownership transferred
+            return results;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind;
+
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.federation.PerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.NoOpPerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.metrics.Metrics;
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the solutions of the right operand of bind joins for each bound tuple of values.
+ *
+ * Entries are keyed by the endpoints and the query of the right operand (see
+ * {@link #createRightKey(Op)}) and by the values bound to the join variables. The cache
+ * is bounded by the total number of right-side solutions held (an empty answer counts
+ * as one) and entries expire ttlSeconds after being stored. Eviction is LRU.
+ *
+ * After each lookup of a batch, the number of hits and the cumulative hit rate are
+ * reported to the {@link PerformanceListener} as {@link Metrics#BIND_JOIN_CACHE_HITS}
+ * and {@link Metrics#BIND_JOIN_CACHE_HIT_RATE}.
+ */
+@Singleton
+public class BindJoinCache {
+    public static final int DEFAULT_MAX_SOLUTIONS = 0;
+    public static final int DEFAULT_TTL_SECONDS = 300;
+
+    private final @Nullable Cache<Key, List<Solution>> cache;
+    private final @Nonnull PerformanceListener performance;
+    private final int maxSolutions;
+    private final @Nonnull AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    private static class DefaultHolder {
+        private static final @Nonnull BindJoinCache INSTANCE
+                = new BindJoinCache(NoOpPerformanceListener.INSTANCE, DEFAULT_MAX_SOLUTIONS,
+                                    DEFAULT_TTL_SECONDS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param performance where to report hit metrics
+     * @param maxSolutions maximum number of right-side solutions cached. If zero or
+     *                     negative, the cache is disabled.
+     * @param ttlSeconds how long an entry is valid after stored.
+     */
+    @Inject
+    public BindJoinCache(@Nonnull PerformanceListener performance,
+                         @Named("bindJoinCacheSize") int maxSolutions,
+                         @Named("bindJoinCacheTtlSeconds") int ttlSeconds) {
+        this.performance = performance;
+        this.maxSolutions = maxSolutions;
+        if (maxSolutions > 0) {
+            CacheBuilder<Key, List<Solution>> builder = CacheBuilder.newBuilder()
+                    .maximumWeight(maxSolutions)
+                    .weigher((Key k, List<Solution> v) -> Math.max(1, v.size()));
+            if (ttlSeconds > 0)
+                builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+            cache = builder.build();
+        } else {
+            cache = null;
+        }
+    }
+
+    public static @Nonnull BindJoinCache getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    public int getMaxSolutions() {
+        return maxSolutions;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long h = hits.get(), total = h + misses.get();
+        return total == 0 ? 0 : h / (double)total;
+    }
+
+    public void invalidateAll() {
+        if (cache != null)
+            cache.invalidateAll();
+    }
+
+    /**
+     * Identifies a right operand of a bind join. Two operands with equal keys yield the same
+     * solutions for the same bound values.
+     */
+    public static final class RightKey {
+        private final @Nonnull Set<TPEndpoint> endpoints;
+        private final @Nonnull String op;
+        private final int hash;
+
+        private RightKey(@Nonnull Set<TPEndpoint> endpoints, @Nonnull String op) {
+            this.endpoints = endpoints;
+            this.op = op;
+            this.hash = 31*endpoints.hashCode() + op.hashCode();
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RightKey)) return false;
+            RightKey rhs = (RightKey) o;
+            return hash == rhs.hash && op.equals(rhs.op) && endpoints.equals(rhs.endpoints);
+        }
+
+        @Override public int hashCode() {
+            return hash;
+        }
+
+        @Override public @Nonnull String toString() {
+            return op;
+        }
+    }
+
+    /**
+     * Create the key for the right operand of a VALUES bind join. This must be called
+     * before rightTree is bound, as binding may add modifiers to it.
+     *
+     * @param rightTree an {@link Op} satisfying {@link SimpleBindJoinResults#canValuesBind(Op)}
+     */
+    public static @Nonnull RightKey createRightKey(@Nonnull Op rightTree) {
+        return new RightKey(SimpleBindJoinResults.getEndpoints(rightTree), rightTree.toString());
+    }
+
+    private static final class Key {
+        private final @Nonnull RightKey right;
+        private final @Nonnull Solution bound;
+        private final int hash;
+
+        Key(@Nonnull RightKey right, @Nonnull Solution bound) {
+            this.right = right;
+            this.bound = bound;
+            this.hash = 31*right.hashCode() + bound.hashCode();
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key rhs = (Key) o;
+            return hash == rhs.hash && bound.equals(rhs.bound) && right.equals(rhs.right);
+        }
+
+        @Override public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Removes from bound the tuples with cached answers.
+     *
+     * @param right key of the right operand
+     * @param bound the tuples of values that would be bound to right. Hits are removed
+     * @return map from each removed tuple to the (possibly empty) list of right-side
+     *         solutions it yields.
+     */
+    public @Nonnull Map<Solution, List<Solution>> lookup(@Nonnull RightKey right,
+                                                         @Nonnull Collection<Solution> bound) {
+        if (cache == null)
+            return Collections.emptyMap();
+        Map<Solution, List<Solution>> map = null;
+        for (Iterator<Solution> it = bound.iterator(); it.hasNext(); ) {
+            Solution tuple = it.next();
+            List<Solution> list = cache.getIfPresent(new Key(right, tuple));
+            if (list != null) {
+                if (map == null)
+                    map = new HashMap<>();
+                map.put(tuple, list);
+                it.remove();
+            }
+        }
+        int batchHits = map == null ? 0 : map.size();
+        hits.addAndGet(batchHits);
+        misses.addAndGet(bound.size());
+        performance.sample(Metrics.BIND_JOIN_CACHE_HITS, batchHits);
+        performance.sample(Metrics.BIND_JOIN_CACHE_HIT_RATE, getHitRate());
+        return map == null ? Collections.emptyMap() : map;
+    }
+
+    /**
+     * Collects the answers for a batch of bound tuples. Nothing is stored in the cache
+     * until {@link #commit()}, which should only be called after all right-side solutions
+     * were received, as partial answers would be wrong.
+     */
+    public class Recorder {
+        private final @Nonnull RightKey right;
+        private final @Nonnull ArraySolution.ValueFactory boundFactory;
+        private final @Nonnull Map<Solution, List<Solution>> answers;
+        private int size = 0;
+        private boolean overflow = false;
+
+        private Recorder(@Nonnull RightKey right, @Nonnull Collection<String> joinVars,
+                         @Nonnull Collection<Solution> bound) {
+            this.right = right;
+            this.boundFactory = ArraySolution.forVars(joinVars);
+            this.answers = new HashMap<>((int)Math.ceil(bound.size()/0.75)+1);
+            for (Solution solution : bound)
+                answers.put(solution, new ArrayList<>());
+        }
+
+        public void add(@Nonnull Solution rightSolution) {
+            if (overflow)
+                return;
+            if (++size > maxSolutions) { // too large to be cached
+                overflow = true;
+                answers.clear();
+                return;
+            }
+            List<Solution> list = answers.get(boundFactory.fromFunction(rightSolution::get));
+            if (list != null)
+                list.add(rightSolution);
+        }
+
+        public void commit() {
+            assert cache != null;
+            if (overflow)
+                return;
+            for (Map.Entry<Solution, List<Solution>> e : answers.entrySet())
+                cache.put(new Key(right, e.getKey()), e.getValue());
+        }
+    }
+
+    /**
+     * Create a {@link Recorder} for the answers of the given bound tuples.
+     *
+     * @return a {@link Recorder} or null if this cache is disabled
+     */
+    public @Nullable Recorder createRecorder(@Nonnull RightKey right,
+                                             @Nonnull Collection<String> joinVars,
+                                             @Nonnull Collection<Solution> bound) {
+        return cache == null ? null : new Recorder(right, joinVars, bound);
+    }
+
+    /**
+     * Wraps the right-side results of a VALUES bind with the given bound tuples, so that
+     * their answers are stored in this cache once results is exhausted.
+     *
+     * Answers are only stored if results end cleanly: if hasNext() or next() throw, or if
+     * the wrapper is closed before hasNext() returns false, nothing is stored, since the
+     * answers received may be incomplete.
+     */
+    public @Nonnull Results record(@Nonnull Results results, @Nonnull RightKey right,
+                                   @Nonnull Collection<String> joinVars,
+                                   @Nonnull Collection<Solution> bound) {
+        Recorder recorder = createRecorder(right, joinVars, bound);
+        if (recorder == null)
+            return results;
+        return new DelegatingResults(results.getVarNames(), results) {
+            private boolean done = false;
+
+            @Override public boolean hasNext() {
+                boolean hasNext;
+                try {
+                    hasNext = in.hasNext();
+                } catch (Throwable t) {
+                    done = true;
+                    throw t;
+                }
+                if (!hasNext && !done) {
+                    done = true;
+                    recorder.commit();
+                }
+                return hasNext;
+            }
+
+            @Override public @Nonnull Solution next() {
+                Solution solution;
+                try {
+                    solution = in.next();
+                } catch (Throwable t) {
+                    done = true;
+                    throw t;
+                }
+                recorder.add(solution);
+                return solution;
+            }
+
+            @Override public void close() throws ResultsCloseException {
+                done = true; // closed before exhaustion: answers may be partial
+                super.close();
+            }
+        };
+    }
+}
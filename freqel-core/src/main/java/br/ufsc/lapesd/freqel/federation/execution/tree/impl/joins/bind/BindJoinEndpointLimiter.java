@@ -0,0 +1,99 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind;
+
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds how many bind-join requests may be in flight against a single {@link TPEndpoint},
+ * summing over all joins of all queries that share this instance.
+ */
+@Singleton
+public class BindJoinEndpointLimiter {
+    public static final int DEFAULT_MAX_PER_ENDPOINT = 8;
+
+    private final @Nonnull Map<TPEndpoint, Semaphore> semaphores
+            = Collections.synchronizedMap(new WeakHashMap<>());
+    private final int maxPerEndpoint;
+
+    private static class DefaultHolder {
+        private static final @Nonnull BindJoinEndpointLimiter INSTANCE
+                = new BindJoinEndpointLimiter(DEFAULT_MAX_PER_ENDPOINT);
+    }
+
+    @Inject
+    public BindJoinEndpointLimiter(@Named("bindJoinMaxInFlightPerEndpoint") int maxPerEndpoint) {
+        this.maxPerEndpoint = Math.max(1, maxPerEndpoint);
+    }
+
+    public static @Nonnull BindJoinEndpointLimiter getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public int getMaxPerEndpoint() {
+        return maxPerEndpoint;
+    }
+
+    private @Nonnull Semaphore get(@Nonnull TPEndpoint endpoint) {
+        return semaphores.computeIfAbsent(endpoint, k -> new Semaphore(maxPerEndpoint));
+    }
+
+    /**
+     * Number of requests that could still be started against endpoint right now.
+     */
+    public int getAvailable(@Nonnull TPEndpoint endpoint) {
+        return get(endpoint).availablePermits();
+    }
+
+    /**
+     * Try to get a permit for each of the endpoints, without blocking.
+     *
+     * @return true iff all permits were acquired. If false, no permit is held.
+     */
+    public boolean tryAcquire(@Nonnull Collection<? extends TPEndpoint> endpoints) {
+        int acquired = 0;
+        for (TPEndpoint ep : endpoints) {
+            if (!get(ep).tryAcquire())
+                break;
+            ++acquired;
+        }
+        if (acquired == endpoints.size())
+            return true;
+        for (TPEndpoint ep : endpoints) {
+            if (acquired-- == 0)
+                break;
+            get(ep).release();
+        }
+        return false;
+    }
+
+    /**
+     * Get a permit for each of the endpoints, waiting until some other holder
+     * {@link #release(Collection)}s permits if they are not all available.
+     *
+     * @throws InterruptedException if interrupted while waiting. No permit is held.
+     */
+    public void acquire(@Nonnull Collection<? extends TPEndpoint> endpoints)
+            throws InterruptedException {
+        synchronized (this) {
+            while (!tryAcquire(endpoints))
+                wait();
+        }
+    }
+
+    public void release(@Nonnull Collection<? extends TPEndpoint> endpoints) {
+        for (TPEndpoint ep : endpoints)
+            get(ep).release();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind;
+
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.leaf.SPARQLValuesTemplateOp;
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.SimpleQueryOpExecutor;
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
+import br.ufsc.lapesd.freqel.query.results.*;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.query.results.impl.SolutionHashTable;
+import com.google.common.base.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.SimpleBindJoinResults.*;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Collections.singleton;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * A VALUES bind join that keeps up to maxInFlight batches being evaluated concurrently.
+ *
+ * Batches are built from the smaller operand by the consumer thread and evaluated at a
+ * {@link JoinExecutorService} reserved for bind-join batches, so that they never queue behind
+ * hash join tasks that may be blocked consuming this join. Results are delivered in the order batches complete. No new
+ * batch is started while maxInFlight batches are either running or waiting to be consumed,
+ * which bounds memory usage and applies back-pressure from a slow consumer. Additionally,
+ * a {@link BindJoinEndpointLimiter} bounds the number of concurrent requests to each
+ * endpoint across all joins.
+ *
+ * If any batch fails, hasNext() throws its exception, since silently ending would deliver
+ * a truncated join.
+ *
+ * If the right operand cannot be VALUES-bound, {@link Factory} falls back to
+ * {@link SimpleBindJoinResults}.
+ */
+public class ParallelValuesBindJoinResults extends AbstractResults implements Results {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelValuesBindJoinResults.class);
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final int TOP_UP_POLL_MS = 5;
+
+    private final @Nonnull PlanExecutor planExecutor;
+    private final @Nonnull Results smaller;
+    private final @Nonnull Op rightTree;
+    private final @Nonnull Collection<String> joinVars;
+    private final @Nonnull ArraySolution.ValueFactory solutionFactory;
+    private final @Nonnull ArraySolution.ValueFactory bindSolutionFactory;
+    private final @Nonnull SPARQLValuesTemplateOp template;
+    private final @Nonnull Set<TPEndpoint> endpoints;
+    private final @Nonnull JoinExecutorService executorService;
+    private final @Nonnull BindJoinEndpointLimiter limiter;
+    private final @Nullable ValuesBatchSizeController batchSizes;
+    private final @Nullable BindJoinCache cache;
+    private final @Nullable BindJoinCache.RightKey rightKey;
+    private final @Nonnull Object lane;
+    private final int maxInFlight, valuesRows;
+    private final @Nonnull int[][] valuesShortcuts;
+    private final boolean rightOptional;
+
+    private final @Nonnull BlockingQueue<Batch> completed = new LinkedBlockingQueue<>();
+    private final @Nonnull Set<Batch> running = Collections.synchronizedSet(new HashSet<>());
+    private @Nonnull List<Solution> pending = new ArrayList<>();
+    private @Nonnull Iterator<Solution> current = Collections.emptyIterator();
+    private int outstanding = 0, batches = 0;
+    private boolean leftExhausted = false, closed = false;
+    private @Nullable RuntimeException failure = null;
+
+    private static class DefaultExecutorHolder {
+        private static final @Nonnull PoolJoinExecutorService INSTANCE
+                = new PoolJoinExecutorService();
+    }
+
+    public static class Factory implements BindJoinResultsFactory {
+        private final @Nonnull Provider<PlanExecutor> planExecutorProvider;
+        private final @Nonnull ResultsExecutor resultsExecutor;
+        private final @Nonnull JoinExecutorService executorService;
+        private final @Nonnull BindJoinEndpointLimiter limiter;
+        private final @Nonnull ValuesBatchSizeController batchSizes;
+        private final @Nonnull BindJoinCache cache;
+        private final int maxInFlight;
+        private int valuesRows = DEF_VALUES_ROWS;
+        private boolean fixedValuesRows = false;
+
+        @Inject
+        public Factory(@Nonnull Provider<PlanExecutor> planExecutorProvider,
+                       @Nonnull ResultsExecutor resultsExecutor,
+                       @Named("bindJoin") @Nonnull JoinExecutorService executorService,
+                       @Nonnull BindJoinEndpointLimiter limiter,
+                       @Nonnull ValuesBatchSizeController batchSizes,
+                       @Nonnull BindJoinCache cache,
+                       @Named("bindJoinMaxInFlight") int maxInFlight) {
+            this.planExecutorProvider = planExecutorProvider;
+            this.resultsExecutor = resultsExecutor;
+            this.executorService = executorService;
+            this.limiter = limiter;
+            this.batchSizes = batchSizes;
+            this.cache = cache;
+            this.maxInFlight = maxInFlight;
+        }
+
+        public Factory(@Nonnull Provider<PlanExecutor> planExecutorProvider,
+                       @Nonnull ResultsExecutor resultsExecutor) {
+            this(planExecutorProvider, resultsExecutor, DefaultExecutorHolder.INSTANCE,
+                 BindJoinEndpointLimiter.getDefault(), ValuesBatchSizeController.getDefault(),
+                 BindJoinCache.getDefault(), DEFAULT_MAX_IN_FLIGHT);
+        }
+
+        /**
+         * Use a fixed number of rows in every VALUES batch instead of the sizes learned
+         * by the {@link ValuesBatchSizeController}.
+         */
+        public void setValuesRows(int valuesRows) {
+            this.valuesRows = valuesRows;
+            this.fixedValuesRows = true;
+        }
+
+        @Override
+        public @Nonnull Results createResults(@Nonnull Results smaller, @Nonnull Op rightTree,
+                                              @Nonnull Collection<String> joinVars,
+                                              @Nonnull Collection<String> resultVars) {
+            PlanExecutor executor = planExecutorProvider.get();
+            ValuesBatchSizeController sizes = fixedValuesRows ? null : batchSizes;
+            if (!canValuesBind(rightTree)) {
+                return new SimpleBindJoinResults(executor, smaller, rightTree, joinVars,
+                                                 resultVars, resultsExecutor, valuesRows, sizes,
+                                                 cache);
+            }
+            return new ParallelValuesBindJoinResults(executor, smaller, rightTree, joinVars,
+                                                     resultVars, resultsExecutor,
+                                                     executorService, limiter, maxInFlight,
+                                                     valuesRows, sizes, cache);
+        }
+    }
+
+    public ParallelValuesBindJoinResults(@Nonnull PlanExecutor planExecutor,
+                                         @Nonnull Results smaller, @Nonnull Op rightTree,
+                                         @Nonnull Collection<String> joinVars,
+                                         @Nonnull Collection<String> resultVars,
+                                         @Nullable ResultsExecutor resultsExecutor,
+                                         @Nonnull JoinExecutorService executorService,
+                                         @Nonnull BindJoinEndpointLimiter limiter,
+                                         int maxInFlight, int valuesRows) {
+        this(planExecutor, smaller, rightTree, joinVars, resultVars, resultsExecutor,
+             executorService, limiter, maxInFlight, valuesRows, null, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param valuesRows number of rows in VALUES batches. Ignored if batchSizes is non-null
+     * @param batchSizes if non-null, the number of rows in each VALUES batch will be
+     *                   obtained from it and it will be notified of the outcome of each batch.
+     * @param cache if non-null and enabled, bound values with cached answers are not sent
+     *              to the endpoints and answers received for VALUES batches are cached.
+     */
+    public ParallelValuesBindJoinResults(@Nonnull PlanExecutor planExecutor,
+                                         @Nonnull Results smaller, @Nonnull Op rightTree,
+                                         @Nonnull Collection<String> joinVars,
+                                         @Nonnull Collection<String> resultVars,
+                                         @Nullable ResultsExecutor resultsExecutor,
+                                         @Nonnull JoinExecutorService executorService,
+                                         @Nonnull BindJoinEndpointLimiter limiter,
+                                         int maxInFlight, int valuesRows,
+                                         @Nullable ValuesBatchSizeController batchSizes,
+                                         @Nullable BindJoinCache cache) {
+        super(resultVars);
+        checkArgument(rightTree.getPublicVars().containsAll(joinVars),
+                      "There are joinVars missing on rightTree");
+        checkArgument(!smaller.isOptional(), "Cannot provide OPTIONAL semantics for left operand");
+        checkArgument(canValuesBind(rightTree), "rightTree cannot be VALUES-bound");
+        this.planExecutor = planExecutor;
+        this.rightTree = rightTree;
+        this.joinVars = joinVars;
+        this.solutionFactory = ArraySolution.forVars(resultVars);
+        this.bindSolutionFactory = ArraySolution.forVars(joinVars);
+        this.template = createValuesTemplate(rightTree, joinVars);
+        this.endpoints = getEndpoints(rightTree);
+        this.executorService = executorService;
+        this.limiter = limiter;
+        this.batchSizes = batchSizes;
+        this.cache = cache != null && cache.isEnabled() ? cache : null;
+        this.rightKey = this.cache == null ? null : BindJoinCache.createRightKey(rightTree);
+        this.lane = Thread.currentThread();
+        this.maxInFlight = Math.max(1, maxInFlight);
+        if (batchSizes != null)
+            valuesRows = batchSizes.getBatchSize(endpoints);
+        this.valuesRows = valuesRows;
+        this.rightOptional = rightTree.modifiers().optional() != null;
+        if (!smaller.isAsync() && resultsExecutor != null)
+            smaller = resultsExecutor.async(singleton(smaller), smaller.getVarNames(), valuesRows*2);
+        this.valuesShortcuts = smaller.isAsync() ? DEF_VALUES_SHORTCUTS : DEF_VALUES_NO_SHORTCUTS;
+        this.smaller = smaller;
+    }
+
+    private class Batch implements Runnable {
+        private final int number;
+        private final @Nonnull SolutionHashTable table;
+        private final @Nonnull SolutionHashTable.Cursor cursor;
+        private final @Nonnull List<Solution> bindValues;
+        private final @Nonnull AtomicBoolean started = new AtomicBoolean();
+        private final @Nonnull List<Solution> output = new ArrayList<>();
+        private @Nullable Future<?> future;
+        private @Nullable RuntimeException failure;
+
+        Batch(@Nonnull List<Solution> left) {
+            this.number = ++batches;
+            this.table = new SolutionHashTable(joinVars, left.size());
+            this.cursor = table.cursor();
+            Set<Solution> set = new LinkedHashSet<>(left.size()*2);
+            if (rightOptional)
+                table.recordFetches();
+            for (Solution solution : left) {
+                table.add(solution);
+                set.add(bindSolutionFactory.fromFunction(solution::get));
+            }
+            this.bindValues = new ArrayList<>(set);
+        }
+
+        /**
+         * Prevents the batch from running.
+         *
+         * @return true iff run() will never execute
+         */
+        boolean cancel() {
+            if (!started.compareAndSet(false, true))
+                return false;
+            limiter.release(endpoints);
+            if (future != null)
+                future.cancel(false);
+            return true;
+        }
+
+        @Override public void run() {
+            if (!started.compareAndSet(false, true))
+                return; // cancelled
+            try {
+                List<Solution> values = bindValues;
+                if (cache != null) {
+                    assert rightKey != null;
+                    values = new ArrayList<>(bindValues);
+                    for (List<Solution> rights : cache.lookup(rightKey, values).values()) {
+                        for (Solution right : rights) {
+                            for (cursor.reset(right); cursor.hasNext(); )
+                                output.add(solutionFactory.fromSolutions(cursor.next(), right));
+                        }
+                    }
+                }
+                if (!values.isEmpty())
+                    evaluate(values);
+                if (rightOptional)
+                    table.forEachNotFetched(s -> output.add(solutionFactory.fromSolution(s)));
+            } catch (Throwable t) {
+                logger.debug("Failed to execute bind-join batch {} of {}", number, this, t);
+                output.clear();
+                failure = t instanceof RuntimeException ? (RuntimeException) t
+                                                        : new QueryExecutionException(t);
+            } finally {
+                limiter.release(endpoints);
+                running.remove(this);
+                completed.add(this);
+            }
+        }
+
+        /**
+         * Evaluate rightTree bound to the given values. If the request fails due to its size,
+         * split values according to the {@link ValuesBatchSizeController} and evaluate
+         * each part.
+         */
+        private void evaluate(@Nonnull List<Solution> values) {
+            Stopwatch sw = Stopwatch.createStarted();
+            int outputSize = output.size();
+            try {
+                Op bound = bindValues(rightTree, template, joinVars, values, true);
+                BindJoinCache.Recorder recorder = cache == null ? null
+                        : cache.createRecorder(requireNonNull(rightKey), joinVars, values);
+                int fallbacks = SimpleQueryOpExecutor.getFallbackCount();
+                try (Results rightResults = planExecutor.executeNode(bound)) {
+                    // a failed query replaced with empty results is not the actual answer
+                    if (SimpleQueryOpExecutor.getFallbackCount() != fallbacks)
+                        recorder = null;
+                    while (rightResults.hasNext()) {
+                        Solution right = rightResults.next();
+                        if (recorder != null)
+                            recorder.add(right);
+                        for (cursor.reset(right); cursor.hasNext(); )
+                            output.add(solutionFactory.fromSolutions(cursor.next(), right));
+                    }
+                }
+                if (recorder != null)
+                    recorder.commit();
+            } catch (RuntimeException e) {
+                if (batchSizes == null || values.size() < 2
+                        || !batchSizes.onFailure(endpoints, values.size(), e)) {
+                    throw e;
+                }
+                while (output.size() > outputSize) // discard partial results
+                    output.remove(output.size()-1);
+                int rows = Math.max(1, batchSizes.getBatchSize(endpoints));
+                logger.info("{}: request with {} VALUES rows was too large, retrying with {}",
+                            this, values.size(), rows);
+                for (int i = 0; i < values.size(); i += rows)
+                    evaluate(values.subList(i, Math.min(values.size(), i + rows)));
+                return;
+            }
+            if (batchSizes != null) {
+                batchSizes.onSuccess(endpoints, values.size(), sw.elapsed(MICROSECONDS)/1000.0,
+                                     output.size() - outputSize);
+            }
+        }
+
+        @Override public @Nonnull String toString() {
+            return String.format("%s.Batch[%d]", getNodeName(), number);
+        }
+    }
+
+    @Override
+    public int getReadyCount() {
+        return current.hasNext() ? 1 : 0;
+    }
+
+    private int getShortcut() {
+        for (int[] spec : valuesShortcuts) {
+            if (pending.size() >= spec[0])
+                return spec[1];
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private int getBatchSize() {
+        return batchSizes != null ? batchSizes.getBatchSize(endpoints) : valuesRows;
+    }
+
+    /**
+     * Fill pending without blocking if there are batches outstanding and start batches
+     * while there are free slots.
+     */
+    private void dispatch() {
+        while (!leftExhausted && outstanding < maxInFlight) {
+            boolean idle = outstanding == 0;
+            int valuesRows = getBatchSize();
+            if (idle) {
+                for (int s = Integer.MAX_VALUE; pending.size() < valuesRows
+                                                && smaller.hasNext(s); s = getShortcut()) {
+                    pending.add(smaller.next());
+                }
+                if (pending.isEmpty() && !smaller.hasNext()) {
+                    leftExhausted = true;
+                    return;
+                }
+            } else {
+                while (pending.size() < valuesRows && smaller.getReadyCount() > 0
+                                                   && smaller.hasNext()) {
+                    pending.add(smaller.next());
+                }
+                if (pending.size() < valuesRows)
+                    return; // wait for more left solutions or for a batch to complete
+            }
+            if (!limiter.tryAcquire(endpoints)) {
+                if (!idle)
+                    return; // wait for our own batches to release permits
+                try {
+                    limiter.acquire(endpoints); // other joins hold the permits
+                } catch (InterruptedException e) {
+                    fail("Interrupted while waiting for endpoint permits", e);
+                    return;
+                }
+            }
+            Batch batch;
+            if (pending.size() > valuesRows) { // batch size shrank while filling pending
+                batch = new Batch(pending.subList(0, valuesRows));
+                pending = new ArrayList<>(pending.subList(valuesRows, pending.size()));
+            } else {
+                batch = new Batch(pending);
+                pending = new ArrayList<>();
+            }
+            ++outstanding;
+            running.add(batch);
+            try {
+                batch.future = executorService.submit(lane, batch);
+            } catch (RuntimeException e) {
+                batch.cancel(); // gives back the permits
+                running.remove(batch);
+                --outstanding;
+                failure = e;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Restores the interrupt flag and makes all subsequent hasNext() calls throw, since
+     * silently ending would deliver a truncated join.
+     */
+    private void fail(@Nonnull String message, @Nonnull InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failure = new RuntimeException(message + " in " + this, e);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed)
+            return false;
+        while (!current.hasNext()) {
+            if (failure != null)
+                throw failure;
+            dispatch();
+            if (failure != null)
+                throw failure;
+            if (outstanding == 0) {
+                assert leftExhausted;
+                return false;
+            }
+            Batch batch;
+            try {
+                if (!leftExhausted && outstanding < maxInFlight) // may start more batches
+                    batch = completed.poll(TOP_UP_POLL_MS, TimeUnit.MILLISECONDS);
+                else
+                    batch = completed.take();
+            } catch (InterruptedException e) {
+                fail("Interrupted while waiting for bind-join batches", e);
+                throw failure;
+            }
+            if (batch != null) {
+                --outstanding;
+                if (batch.failure != null)
+                    throw failure = batch.failure;
+                current = batch.output.iterator();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public @Nonnull Solution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return current.next();
+    }
+
+    @Override
+    public void close() throws ResultsCloseException {
+        if (closed)
+            return;
+        closed = true;
+        current = Collections.emptyIterator();
+        List<Batch> copy;
+        synchronized (running) {
+            copy = new ArrayList<>(running);
+        }
+        for (Batch batch : copy)
+            batch.cancel();
+        smaller.close();
+    }
+}
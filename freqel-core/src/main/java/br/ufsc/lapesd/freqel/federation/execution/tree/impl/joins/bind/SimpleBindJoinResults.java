@@ -5,11 +5,10 @@ import br.ufsc.lapesd.freqel.algebra.inner.UnionOp;
 import br.ufsc.lapesd.freqel.algebra.leaf.EndpointQueryOp;
 import br.ufsc.lapesd.freqel.algebra.leaf.SPARQLValuesTemplateOp;
 import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
-import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.CrudeSolutionHashTable;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.SimpleQueryOpExecutor;
 import br.ufsc.lapesd.freqel.query.MutableCQuery;
 import br.ufsc.lapesd.freqel.query.endpoint.CQEndpoint;
 import br.ufsc.lapesd.freqel.query.endpoint.Capability;
-import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
 import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
 import br.ufsc.lapesd.freqel.query.modifiers.Projection;
 import br.ufsc.lapesd.freqel.query.modifiers.ValuesModifier;
@@ -49,6 +48,9 @@ public class SimpleBindJoinResults extends AbstractResults implements Results {
     private Solution next = null;
     private final int valuesRows;
     private final @Nonnull int[][] valuesShortcuts;
+    private final @Nullable ValuesBatchSizeController batchSizes;
+    private final @Nullable BindJoinCache cache;
+    private final @Nullable ValuesBind valuesBind;
 
     private final @Nonnull ArraySolution.ValueFactory solutionFactory;
     private final @Nonnull ArraySolution.ValueFactory bindSolutionFactory;
@@ -63,17 +65,35 @@ public class SimpleBindJoinResults extends AbstractResults implements Results {
     public static class Factory implements BindJoinResultsFactory {
         private final @Nonnull Provider<PlanExecutor> planExecutorProvider;
         private final @Nonnull ResultsExecutor resultsExecutor;
+        private final @Nonnull ValuesBatchSizeController batchSizes;
+        private final @Nonnull BindJoinCache cache;
         private int valuesRows = DEF_VALUES_ROWS;
+        private boolean fixedValuesRows = false;
 
         @Inject
         public Factory(@Nonnull Provider<PlanExecutor> planExecutorProvider,
-                       @Nonnull ResultsExecutor resultsExecutor) {
+                       @Nonnull ResultsExecutor resultsExecutor,
+                       @Nonnull ValuesBatchSizeController batchSizes,
+                       @Nonnull BindJoinCache cache) {
             this.planExecutorProvider = planExecutorProvider;
             this.resultsExecutor = resultsExecutor;
+            this.batchSizes = batchSizes;
+            this.cache = cache;
+        }
+
+        public Factory(@Nonnull Provider<PlanExecutor> planExecutorProvider,
+                       @Nonnull ResultsExecutor resultsExecutor) {
+            this(planExecutorProvider, resultsExecutor, ValuesBatchSizeController.getDefault(),
+                 BindJoinCache.getDefault());
         }
 
+        /**
+         * Use a fixed number of rows in every VALUES batch instead of the sizes learned
+         * by the {@link ValuesBatchSizeController}.
+         */
         public void setValuesRows(int valuesRows) {
             this.valuesRows = valuesRows;
+            this.fixedValuesRows = true;
         }
 
         @Override
@@ -82,7 +102,8 @@ public class SimpleBindJoinResults extends AbstractResults implements Results {
                                               @Nonnull Collection<String> resultVars) {
             PlanExecutor executor = planExecutorProvider.get();
             return new SimpleBindJoinResults(executor, smaller, rightTree, joinVars,
-                                             resultVars, resultsExecutor, valuesRows);
+                                             resultVars, resultsExecutor, valuesRows,
+                                             fixedValuesRows ? null : batchSizes, cache);
         }
     }
 
@@ -91,6 +112,25 @@ public class SimpleBindJoinResults extends AbstractResults implements Results {
                                  @Nonnull Op rightTree, @Nonnull Collection<String> joinVars,
                                  @Nonnull Collection<String> resultVars,
                                  @Nullable ResultsExecutor resultsExecutor, int valuesRows) {
+        this(planExecutor, smaller, rightTree, joinVars, resultVars, resultsExecutor,
+             valuesRows, null, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param valuesRows number of rows in VALUES batches. Ignored if batchSizes is non-null
+     * @param batchSizes if non-null, the number of rows in each VALUES batch will be
+     *                   obtained from it and it will be notified of the outcome of each batch.
+     * @param cache if non-null and enabled, bound values with cached answers are not sent
+     *              to the endpoints and answers received for VALUES batches are cached.
+     */
+    public SimpleBindJoinResults(@Nonnull PlanExecutor planExecutor, @Nonnull Results smaller,
+                                 @Nonnull Op rightTree, @Nonnull Collection<String> joinVars,
+                                 @Nonnull Collection<String> resultVars,
+                                 @Nullable ResultsExecutor resultsExecutor, int valuesRows,
+                                 @Nullable ValuesBatchSizeController batchSizes,
+                                 @Nullable BindJoinCache cache) {
         super(resultVars);
         checkArgument(rightTree.getPublicVars().containsAll(joinVars),
                       "There are joinVars missing on rightTree");
@@ -98,19 +138,28 @@ public class SimpleBindJoinResults extends AbstractResults implements Results {
         this.planExecutor = planExecutor;
         this.rightTree = rightTree;
         this.joinVars = joinVars;
-        this.valuesRows = valuesRows;
         this.solutionFactory = ArraySolution.forVars(resultVars);
         this.bindSolutionFactory = ArraySolution.forVars(joinVars);
         if (canValuesBind(rightTree)) {
+            this.batchSizes = batchSizes;
+            this.cache = cache != null && cache.isEnabled() ? cache : null;
+            if (batchSizes != null)
+                valuesRows = batchSizes.getBatchSize(getEndpoints(rightTree));
+            this.valuesRows = valuesRows;
             if (!smaller.isAsync() && resultsExecutor != null)
                 smaller = resultsExecutor.async(singleton(smaller), smaller.getVarNames(),valuesRows*2);
             valuesShortcuts = smaller.isAsync() ? DEF_VALUES_SHORTCUTS : DEF_VALUES_NO_SHORTCUTS;
-            resultsSupplier = new ValuesBind();
+            this.smaller = smaller;
+            resultsSupplier = valuesBind = new ValuesBind();
         } else {
+            this.batchSizes = null;
+            this.cache = null;
+            this.valuesRows = valuesRows;
+            this.smaller = smaller;
             resultsSupplier = new NaiveBind();
+            valuesBind = null;
             valuesShortcuts = DEF_VALUES_NO_SHORTCUTS;
         }
-        this.smaller = smaller;
     }
 
     @Override
@@ -167,7 +216,7 @@ public class SimpleBindJoinResults extends AbstractResults implements Results {
                 : node.getChildren().stream().map(n -> (EndpointQueryOp)n);
     }
 
-    private static boolean canValuesBind(Op node) {
+    static boolean canValuesBind(Op node) {
         // require a QN or a MQ of QN
         boolean ok = node instanceof EndpointQueryOp ||
                 ( node instanceof UnionOp
@@ -179,33 +228,213 @@ public class SimpleBindJoinResults extends AbstractResults implements Results {
         return qns.map(EndpointQueryOp::getEndpoint).allMatch(e -> e.hasCapability(Capability.VALUES));
     }
 
+    /**
+     * Get the endpoints that will receive the VALUES-bound queries of rightTree, which
+     * must satisfy {@link #canValuesBind(Op)}.
+     */
+    static @Nonnull Set<TPEndpoint> getEndpoints(@Nonnull Op rightTree) {
+        Set<TPEndpoint> set = new LinkedHashSet<>();
+        streamQNs(rightTree).forEach(qn -> set.add(qn.getEndpoint()));
+        return set;
+    }
+
+    /**
+     * Create the template used to VALUES-bind rightTree, which must satisfy
+     * {@link #canValuesBind(Op)}.
+     */
+    static @Nonnull SPARQLValuesTemplateOp createValuesTemplate(@Nonnull Op rightTree,
+                                                                @Nonnull Collection<String> joinVars) {
+        EndpointQueryOp qn;
+        if (rightTree instanceof EndpointQueryOp)
+            qn = (EndpointQueryOp) rightTree;
+        else
+            qn = (EndpointQueryOp) rightTree.getChildren().iterator().next();
+        TPEndpoint ep = qn.getEndpoint();
+        MutableCQuery query = qn.getQuery();
+        Set<String> old = query.attr().publicVarNames();
+        if (!old.containsAll(joinVars)) {
+            query = new MutableCQuery(query);
+            query.mutateModifiers().add(Projection.of(union(old, joinVars)));
+        }
+        SPARQLValuesTemplateOp template = new SPARQLValuesTemplateOp(ep, query);
+        assert template.getResultVars().containsAll(joinVars);
+        return template;
+    }
+
+    /**
+     * Get an {@link Op} that evaluates rightTree with the given VALUES assignments.
+     *
+     * @param copy if true, never mutate template nor rightTree, making the returned
+     *             {@link Op} independent from any other returned by this method.
+     */
+    static @Nonnull Op bindValues(@Nonnull Op rightTree, @Nonnull SPARQLValuesTemplateOp template,
+                                  @Nonnull Collection<String> varNames,
+                                  @Nonnull Collection<Solution> assignments, boolean copy) {
+        if (rightTree instanceof EndpointQueryOp) {
+            CQEndpoint ep = (CQEndpoint) ((EndpointQueryOp) rightTree).getEndpoint();
+            if (ep.canQuerySPARQL()) {
+                if (copy)
+                    template = template.withEndpoint(ep);
+                template.setValues(varNames, assignments);
+                return template;
+            } else {
+                Op op = copy ? rightTree.flatCopy() : rightTree;
+                op.modifiers().add(new ValuesModifier(varNames, assignments));
+                return op;
+            }
+        } else {
+            UnionOp.Builder b = UnionOp.builder();
+            ValuesModifier modifier = null;
+            for (Op child : rightTree.getChildren()) {
+                CQEndpoint endpoint = (CQEndpoint) ((EndpointQueryOp) child).getEndpoint();
+                if (endpoint.canQuerySPARQL()) {
+                    SPARQLValuesTemplateOp node = template.withEndpoint(endpoint);
+                    node.setValues(varNames, assignments);
+                    b.add(node);
+                } else {
+                    if (modifier == null)
+                        modifier = new ValuesModifier(varNames, assignments);
+                    Op op = copy ? child.flatCopy() : child;
+                    op.modifiers().add(modifier);
+                    b.add(op);
+                }
+            }
+            return b.build();
+        }
+    }
+
     private class ValuesBind implements Supplier<Results> {
-        @Nonnull final CrudeSolutionHashTable table;
+        @Nonnull final SolutionHashTable table;
+        @Nonnull final SolutionHashTable.Cursor cursor;
         Set<Solution> bindValues = new HashSet<>(valuesRows);
+        @Nonnull final List<Solution> batch = new ArrayList<>();
+        @Nonnull final ArrayDeque<Solution> carry = new ArrayDeque<>();
+        @Nonnull final Set<TPEndpoint> endpoints = getEndpoints(rightTree);
+        @Nullable final BindJoinCache.RightKey rightKey
+                = cache == null ? null : BindJoinCache.createRightKey(rightTree);
         SPARQLValuesTemplateOp template = null;
 
         public ValuesBind() {
-            table = new CrudeSolutionHashTable(joinVars, valuesRows*10);
+            table = new SolutionHashTable(joinVars, valuesRows*10);
+            cursor = table.cursor();
             if (rightTree.modifiers().optional() != null)
                 table.recordFetches();
         }
 
+        boolean hasCarry() {
+            return !carry.isEmpty();
+        }
+
         @Override
         public Results get() {
             table.clear();
             bindValues.clear();
+            batch.clear();
             initTemplate();
+            int rows = batchSizes != null ? batchSizes.getBatchSize(endpoints) : valuesRows;
+            while (bindValues.size() < rows && !carry.isEmpty())
+                addLeftSolution(carry.remove());
             int shortcut = Integer.MAX_VALUE;
-            while (bindValues.size() < valuesRows && smaller.hasNext(shortcut)) {
+            while (bindValues.size() < rows && smaller.hasNext(shortcut)) {
                 addLeftSolution(smaller.next());
                 shortcut = getShortcut();
             }
-            Stopwatch sw = Stopwatch.createStarted();
-            Op rewritten = bind(joinVars, bindValues);
-            callBindMs += sw.elapsed(MICROSECONDS)/1000.0;
-            Results rightResults = planExecutor.executeNode(rewritten);
-            Results results = new FlatMapResults(rightResults, varNames, this::expand);
-            return scheduleForOptionalRight(results);
+            List<Solution> cached = answerFromCache();
+            if (bindValues.isEmpty())
+                return new CollectionResults(cached, varNames);
+            while (true) {
+                Stopwatch sw = Stopwatch.createStarted();
+                Op rewritten = bind(joinVars, bindValues);
+                callBindMs += sw.elapsed(MICROSECONDS)/1000.0;
+                Results rightResults = null;
+                int fallbacks = SimpleQueryOpExecutor.getFallbackCount();
+                try {
+                    rightResults = planExecutor.executeNode(rewritten);
+                    // endpoints report 413/414 from hasNext(), before the first solution
+                    rightResults.hasNext();
+                } catch (RuntimeException e) {
+                    if (rightResults != null) {
+                        try {
+                            rightResults.close();
+                        } catch (ResultsCloseException ce) { e.addSuppressed(ce); }
+                    }
+                    if (!retrySmaller(e))
+                        throw e;
+                    continue;
+                }
+                if (batchSizes != null)
+                    rightResults = batchSizes.monitor(rightResults, endpoints, bindValues.size(), sw);
+                // a failed query replaced with empty results is not the actual answer
+                if (cache != null && SimpleQueryOpExecutor.getFallbackCount() == fallbacks) {
+                    assert rightKey != null;
+                    rightResults = cache.record(rightResults, rightKey, joinVars, bindValues);
+                }
+                Results results = new FlatMapResults(rightResults, varNames, this::expand);
+                results = scheduleForOptionalRight(results);
+                if (cached.isEmpty())
+                    return results;
+                return new SequentialResults(Arrays.asList(
+                        new CollectionResults(cached, varNames), results), varNames);
+            }
+        }
+
+        /**
+         * Answer the left solutions whose bound values are cached, removing them from
+         * {@link #batch}, {@link #table} and {@link #bindValues}.
+         *
+         * @return join solutions (and, for OPTIONAL right operands, orphan left solutions)
+         *         for the left solutions answered from cache.
+         */
+        private @Nonnull List<Solution> answerFromCache() {
+            if (cache == null)
+                return Collections.emptyList();
+            assert rightKey != null;
+            Map<Solution, List<Solution>> hits = cache.lookup(rightKey, bindValues);
+            if (hits.isEmpty())
+                return Collections.emptyList();
+            List<Solution> output = new ArrayList<>(), misses = new ArrayList<>(batch.size());
+            boolean optional = rightTree.modifiers().optional() != null;
+            for (Solution left : batch) {
+                List<Solution> rights = hits.get(bindSolutionFactory.fromFunction(left::get));
+                if (rights == null) {
+                    misses.add(left);
+                } else if (rights.isEmpty()) {
+                    if (optional)
+                        output.add(solutionFactory.fromSolution(left));
+                } else {
+                    for (Solution right : rights)
+                        output.add(solutionFactory.fromSolutions(left, right));
+                }
+            }
+            table.clear();
+            bindValues.clear();
+            batch.clear();
+            misses.forEach(this::addLeftSolution);
+            return output;
+        }
+
+        /**
+         * If the failure was caused by the batch size, keep only as many left solutions as
+         * the new batch size, moving the remainder to the front of {@link #carry}.
+         */
+        private boolean retrySmaller(@Nonnull RuntimeException e) {
+            if (batchSizes == null || batch.size() < 2)
+                return false;
+            if (!batchSizes.onFailure(endpoints, bindValues.size(), e))
+                return false;
+            int rows = Math.max(1, batchSizes.getBatchSize(endpoints));
+            logger.info("{}: request with {} VALUES rows was too large, retrying with {}",
+                        this, bindValues.size(), rows);
+            List<Solution> copy = new ArrayList<>(batch);
+            table.clear();
+            bindValues.clear();
+            batch.clear();
+            int i = 0;
+            while (i < copy.size() && bindValues.size() < rows)
+                addLeftSolution(copy.get(i++));
+            for (int j = copy.size()-1; j >= i; --j)
+                carry.addFirst(copy.get(j));
+            return true;
         }
 
         private Results scheduleForOptionalRight(@Nonnull Results results) {
@@ -239,66 +468,26 @@ public class SimpleBindJoinResults extends AbstractResults implements Results {
         }
 
         private void addLeftSolution(@Nonnull Solution solution) {
+            batch.add(solution);
             table.add(solution);
             bindValues.add(bindSolutionFactory.fromFunction(solution::get));
         }
 
         private @Nonnull Results expand(@Nonnull Solution right) {
             List<Solution> list = new ArrayList<>(valuesRows*2);
-            for (Solution left : table.getAll(right))
-                list.add(solutionFactory.fromSolutions(left, right));
+            for (cursor.reset(right); cursor.hasNext(); )
+                list.add(solutionFactory.fromSolutions(cursor.next(), right));
             return new CollectionResults(list, varNames);
         }
 
         private void initTemplate() {
-            if (template != null) return;
-
-            EndpointQueryOp qn;
-            if (rightTree instanceof EndpointQueryOp)
-                qn = (EndpointQueryOp) SimpleBindJoinResults.this.rightTree;
-            else
-                qn = (EndpointQueryOp) rightTree.getChildren().iterator().next();
-            TPEndpoint ep = qn.getEndpoint();
-            MutableCQuery query = qn.getQuery();
-            Set<String> old = query.attr().publicVarNames();
-            if (!old.containsAll(joinVars)) {
-                query = new MutableCQuery(query);
-                query.mutateModifiers().add(Projection.of(union(old, joinVars)));
-            }
-            template = new SPARQLValuesTemplateOp(ep, query);
-            assert template.getResultVars().containsAll(joinVars);
+            if (template == null)
+                template = createValuesTemplate(rightTree, joinVars);
         }
 
         private @Nonnull Op bind(@Nonnull Collection<String> varNames,
                                  @Nonnull Collection<Solution> assignments) {
-            if (rightTree instanceof EndpointQueryOp) {
-                CQEndpoint ep = (CQEndpoint) ((EndpointQueryOp) rightTree).getEndpoint();
-                if (ep.canQuerySPARQL()) {
-                    template.setValues(varNames, assignments);
-                    return template;
-                } else {
-                    ValuesModifier modifier = new ValuesModifier(varNames, assignments);
-                    rightTree.modifiers().add(modifier);
-                    return rightTree;
-                }
-            } else {
-                UnionOp.Builder b = UnionOp.builder();
-                ValuesModifier modifier = null;
-                for (Op child : rightTree.getChildren()) {
-                    CQEndpoint endpoint = (CQEndpoint) ((EndpointQueryOp) child).getEndpoint();
-                    if (endpoint.canQuerySPARQL()) {
-                        SPARQLValuesTemplateOp node = template.withEndpoint(endpoint);
-                        node.setValues(varNames, assignments);
-                        b.add(node);
-                    } else {
-                        if (modifier == null)
-                            modifier = new ValuesModifier(varNames, assignments);
-                        child.modifiers().add(modifier);
-                        b.add(child);
-                    }
-                }
-                return b.build();
-            }
+            return bindValues(rightTree, template, varNames, assignments, false);
         }
 
         @Override
@@ -308,12 +497,16 @@ public class SimpleBindJoinResults extends AbstractResults implements Results {
         }
     }
 
+    private boolean hasMoreLeft() {
+        return (valuesBind != null && valuesBind.hasCarry()) || smaller.hasNext();
+    }
+
     private void advance() {
         assert next == null;
         if (!age.isRunning()) age.start();
         while (next == null) {
             while (currentResults == null || !currentResults.hasNext()) {
-                if (!smaller.hasNext()) {
+                if (!hasMoreLeft()) {
                     logStatus(true);
                     return;
                 }
@@ -324,12 +517,8 @@ public class SimpleBindJoinResults extends AbstractResults implements Results {
                         logger.error("Problem closing rightResults of bound plan tree", e);
                     }
                 }
-                try {
-                    currentResults = resultsSupplier.get();
-                } catch (QueryExecutionException e) {
-                    logger.error("Failed to execute bind-join query. Will ignore and " +
-                            "continue joining", e);
-                }
+                currentResults = null; // closed above, must not be reused if get() throws
+                currentResults = resultsSupplier.get();
                 ++binds;
             }
             next = currentResults.next();
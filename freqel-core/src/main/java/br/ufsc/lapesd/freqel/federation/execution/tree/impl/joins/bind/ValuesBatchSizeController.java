@@ -0,0 +1,269 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind;
+
+import br.ufsc.lapesd.freqel.federation.PerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.NoOpPerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.metrics.Metrics;
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.HTTPStatusException;
+import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import com.google.common.base.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Learns, for each {@link TPEndpoint}, how many rows a VALUES bind-join batch should have.
+ *
+ * Every endpoint starts at {@link SimpleBindJoinResults#DEF_VALUES_ROWS}. Batches that
+ * complete within half of targetMs grow the size by 50% (up to maxRows), batches slower
+ * than twice targetMs or yielding more than {@link #MAX_BATCH_RESULTS} solutions halve it.
+ * A failure attributed to the request size (an {@link HTTPStatusException} with status 413
+ * or 414) halves the size and makes it a ceiling that is never grown past for that endpoint.
+ *
+ * Adaptation is opt-in: with the default targetMs ({@link #DEFAULT_TARGET_MS}), sizes are
+ * never adjusted and every batch has {@link SimpleBindJoinResults#DEF_VALUES_ROWS} rows.
+ *
+ * The learned sizes are kept for as long as the endpoint objects are alive, thus they are
+ * shared by all joins of all queries. Every change is reported to the
+ * {@link PerformanceListener} as {@link Metrics#VALUES_BATCH_SIZE}.
+ */
+@Singleton
+public class ValuesBatchSizeController {
+    private static final Logger logger = LoggerFactory.getLogger(ValuesBatchSizeController.class);
+    public static final int DEFAULT_TARGET_MS = 0;
+    public static final int DEFAULT_MAX_ROWS = 400;
+    public static final int MAX_BATCH_RESULTS = 16384;
+
+    private final @Nonnull Map<TPEndpoint, State> states
+            = Collections.synchronizedMap(new WeakHashMap<>());
+    private final @Nonnull PerformanceListener performance;
+    private final int targetMs, maxRows;
+
+    private static class State {
+        int size = SimpleBindJoinResults.DEF_VALUES_ROWS;
+        int ceiling;
+
+        State(int ceiling) {
+            this.ceiling = ceiling;
+            this.size = Math.min(size, ceiling);
+        }
+    }
+
+    private static class DefaultHolder {
+        private static final @Nonnull ValuesBatchSizeController INSTANCE
+                = new ValuesBatchSizeController(NoOpPerformanceListener.INSTANCE,
+                                                DEFAULT_TARGET_MS, DEFAULT_MAX_ROWS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param performance where to report {@link Metrics#VALUES_BATCH_SIZE}
+     * @param targetMs desired duration of a batch, from request to last solution.
+     *                 If zero or negative, sizes are never adjusted.
+     * @param maxRows upper bound for any learned batch size
+     */
+    @Inject
+    public ValuesBatchSizeController(@Nonnull PerformanceListener performance,
+                                     @Named("bindJoinValuesTargetMs") int targetMs,
+                                     @Named("bindJoinValuesMaxRows") int maxRows) {
+        this.performance = performance;
+        this.targetMs = targetMs;
+        this.maxRows = Math.max(1, maxRows);
+    }
+
+    public static @Nonnull ValuesBatchSizeController getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public boolean isAdaptive() {
+        return targetMs > 0;
+    }
+
+    public int getTargetMs() {
+        return targetMs;
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    private @Nonnull State get(@Nonnull TPEndpoint endpoint) {
+        return states.computeIfAbsent(endpoint, k -> new State(maxRows));
+    }
+
+    /**
+     * Current batch size for the given endpoint.
+     */
+    public int getBatchSize(@Nonnull TPEndpoint endpoint) {
+        State state = get(endpoint);
+        synchronized (state) {
+            return state.size;
+        }
+    }
+
+    /**
+     * Batch size for a request sent to all given endpoints, i.e., the smallest among them.
+     */
+    public int getBatchSize(@Nonnull Collection<? extends TPEndpoint> endpoints) {
+        int size = Integer.MAX_VALUE;
+        for (TPEndpoint ep : endpoints)
+            size = Math.min(size, getBatchSize(ep));
+        return size == Integer.MAX_VALUE ? Math.min(maxRows, SimpleBindJoinResults.DEF_VALUES_ROWS)
+                                         : size;
+    }
+
+    /**
+     * Check whether a failure is due to the request (or its URI) being too large.
+     */
+    public static boolean isRequestTooLarge(@Nonnull Throwable t) {
+        HTTPStatusException e = HTTPStatusException.find(t);
+        return e != null && e.isRequestTooLarge();
+    }
+
+    /**
+     * Record that a batch of rows VALUES rows was fully consumed after elapsedMs,
+     * yielding results solutions.
+     */
+    public void onSuccess(@Nonnull Collection<? extends TPEndpoint> endpoints, int rows,
+                          double elapsedMs, int results) {
+        performance.sample(Metrics.VALUES_BATCH_MS, elapsedMs);
+        if (!isAdaptive())
+            return;
+        boolean shrink = elapsedMs > targetMs*2 || results > MAX_BATCH_RESULTS;
+        boolean grow = !shrink && elapsedMs < targetMs/2.0;
+        for (TPEndpoint ep : endpoints) {
+            State state = get(ep);
+            int old, size;
+            synchronized (state) {
+                old = state.size;
+                if (shrink)
+                    state.size = Math.max(1, Math.min(state.size, rows) / 2);
+                else if (grow && rows >= state.size) // partial batches tell nothing
+                    state.size = Math.min(state.ceiling, state.size + (state.size+1)/2);
+                size = state.size;
+            }
+            report(ep, old, size);
+        }
+    }
+
+    /**
+     * Record that a batch with the given number of rows failed.
+     *
+     * @return true iff the failure was attributed to the batch size, in which case
+     *         the batch size for all endpoints is already smaller than rows.
+     */
+    public boolean onFailure(@Nonnull Collection<? extends TPEndpoint> endpoints, int rows,
+                             @Nonnull Throwable cause) {
+        if (!isAdaptive() || !isRequestTooLarge(cause))
+            return false;
+        boolean smaller = true;
+        for (TPEndpoint ep : endpoints) {
+            State state = get(ep);
+            int old, size;
+            synchronized (state) {
+                old = state.size;
+                state.ceiling = Math.max(1, Math.min(state.ceiling, rows / 2));
+                state.size = Math.min(state.size, state.ceiling);
+                size = state.size;
+            }
+            smaller &= size < rows;
+            report(ep, old, size);
+        }
+        return smaller;
+    }
+
+    private void report(@Nonnull TPEndpoint endpoint, int old, int size) {
+        if (old == size)
+            return;
+        logger.debug("VALUES batch size for {} changed from {} to {}", endpoint, old, size);
+        performance.sample(Metrics.VALUES_BATCH_SIZE, size);
+    }
+
+    /**
+     * Wraps the results of a batch so that {@link #onSuccess(Collection, int, double, int)}
+     * or {@link #onFailure(Collection, int, Throwable)} are called once it is exhausted
+     * or fails. Results closed before exhaustion are not reported.
+     */
+    public @Nonnull Results monitor(@Nonnull Results results,
+                                    @Nonnull Collection<? extends TPEndpoint> endpoints,
+                                    int rows, @Nonnull Stopwatch sw) {
+        return new MonitoredResults(results, endpoints, rows, sw);
+    }
+
+    private class MonitoredResults extends DelegatingResults {
+        private final @Nonnull Collection<? extends TPEndpoint> endpoints;
+        private final @Nonnull Stopwatch sw;
+        private final int rows;
+        private int count = 0;
+        private boolean reported = false;
+
+        MonitoredResults(@Nonnull Results in, @Nonnull Collection<? extends TPEndpoint> endpoints,
+                         int rows, @Nonnull Stopwatch sw) {
+            super(in.getVarNames(), in);
+            this.endpoints = endpoints;
+            this.rows = rows;
+            this.sw = sw;
+        }
+
+        private boolean check(boolean hasNext) {
+            if (!hasNext && !reported) {
+                reported = true;
+                onSuccess(endpoints, rows, sw.elapsed(MICROSECONDS)/1000.0, count);
+            }
+            return hasNext;
+        }
+
+        private @Nonnull RuntimeException fail(@Nonnull RuntimeException e) {
+            if (!reported) {
+                reported = true;
+                onFailure(endpoints, rows, e);
+            }
+            return e;
+        }
+
+        @Override public boolean hasNext() {
+            try {
+                return check(in.hasNext());
+            } catch (RuntimeException e) {
+                throw fail(e);
+            }
+        }
+
+        @Override public boolean hasNext(int millisecondsTimeout) {
+            try {
+                return in.hasNext(millisecondsTimeout); // false may just be a timeout
+            } catch (RuntimeException e) {
+                throw fail(e);
+            }
+        }
+
+        @Override public @Nonnull Solution next() {
+            try {
+                Solution solution = in.next();
+                ++count;
+                return solution;
+            } catch (RuntimeException e) {
+                throw fail(e);
+            }
+        }
+
+        @Override public void close() throws ResultsCloseException {
+            reported = true;
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash;
+
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.query.results.AbstractResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
+import br.ufsc.lapesd.freqel.query.results.ResultsUtils;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.codec.BlankTable;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.query.results.impl.SolutionHashTable;
+import com.google.common.base.Preconditions;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * A hash join that keeps at most a memory budget worth of solutions on the heap.
+ *
+ * The left operand is loaded into memory. If it fits the budget, the right operand is
+ * streamed against it, as in {@link InMemoryHashJoinResults}. Else, both operands are
+ * partitioned by the hash of the join variables into files under a temporary directory and
+ * each pair of partitions is joined in memory. Partitions that still exceed the budget are
+ * re-partitioned with a different hash function (up to a few times, since no hash can split
+ * a single heavy key).
+ *
+ * All work is done by the consumer thread in {@link #hasNext()}.
+ */
+public class GraceHashJoinResults extends AbstractResults implements Results {
+    private static final @Nonnull Logger logger = LoggerFactory.getLogger(GraceHashJoinResults.class);
+    public static final int DEFAULT_MEMORY_BUDGET_MB = 256;
+    private static final int FANOUT = 32;
+    private static final int MAX_LEVEL = 3;
+
+    private final @Nonnull Results left, right;
+    private final @Nonnull String[] joinVars;
+    private final @Nonnull List<String> leftVars, rightVars;
+    private final long budgetBytes;
+    private final @Nonnull File parentDir;
+    private final @Nonnull ArraySolution.ValueFactory factory;
+    private final @Nonnull BlankTable blanks = new BlankTable();
+    private final @Nonnull ArrayDeque<Solution> queue = new ArrayDeque<>();
+    private final @Nonnull ArrayDeque<Partition> pending = new ArrayDeque<>();
+    private @Nullable File spillDir = null;
+    private int nextFileId = 0, spilledPartitions = 0;
+    private boolean started = false;
+    private @Nullable Pass pass = null;
+
+    public static class Factory implements HashJoinResultsFactory {
+        private final @Nonnull File tempDir;
+        private final int memoryBudgetMB;
+
+        @Inject public Factory(@Named("tempDir") @Nonnull File tempDir,
+                               @Named("hashJoinMemoryBudgetMB") int memoryBudgetMB) {
+            this.tempDir = tempDir;
+            this.memoryBudgetMB = memoryBudgetMB;
+        }
+
+        public Factory() {
+            this(new File(System.getProperty("java.io.tmpdir")), DEFAULT_MEMORY_BUDGET_MB);
+        }
+
+        @Override
+        public @Nonnull Results createResults(@Nonnull Results left, @Nonnull Results right,
+                                              @Nonnull Collection<String> joinVars,
+                                              @Nonnull Collection<String> resultVars) {
+            return new GraceHashJoinResults(left, right, joinVars, resultVars, tempDir,
+                                            memoryBudgetMB * 1024L * 1024L);
+        }
+    }
+    public static final @Nonnull Factory FACTORY = new Factory();
+
+    /**
+     * Pair of spilled partitions to be joined.
+     */
+    private static class Partition {
+        final @Nonnull SpillFile left, right;
+        final int level;
+
+        Partition(@Nonnull SpillFile left, @Nonnull SpillFile right, int level) {
+            this.left = left;
+            this.right = right;
+            this.level = level;
+        }
+    }
+
+    /**
+     * Joins an in-memory table of left solutions against a stream of right solutions.
+     */
+    private class Pass {
+        final @Nonnull SolutionHashTable table;
+        final @Nonnull SolutionHashTable.Cursor cursor;
+        final @Nonnull Iterator<? extends Solution> probe;
+        final @Nullable Partition partition;
+        boolean flushedNotFetched = false;
+
+        Pass(@Nonnull Collection<Solution> build, @Nonnull Iterator<? extends Solution> probe,
+             @Nullable Partition partition) {
+            this.table = new SolutionHashTable(Arrays.asList(joinVars),
+                                               Math.max(build.size(), 512));
+            this.cursor = table.cursor();
+            for (Solution solution : build)
+                table.add(solution);
+            this.table.recordFetches();
+            this.probe = probe;
+            this.partition = partition;
+        }
+
+        /**
+         * Fills queue with some solutions. Returns false iff this pass is exhausted.
+         */
+        boolean advance() {
+            while (probe.hasNext()) {
+                Solution fromRight = probe.next();
+                boolean matched = false;
+                for (cursor.reset(fromRight); cursor.hasNext(); matched = true)
+                    queue.add(factory.fromSolutions(cursor.next(), fromRight));
+                if (!matched && left.isOptional())
+                    queue.add(factory.fromSolution(fromRight));
+                if (!queue.isEmpty())
+                    return true;
+            }
+            if (!flushedNotFetched && right.isOptional()) {
+                flushedNotFetched = true;
+                table.forEachNotFetched(s -> queue.add(factory.fromSolution(s)));
+                if (!queue.isEmpty())
+                    return true;
+            }
+            return false;
+        }
+
+        void close() {
+            table.clear();
+            if (partition != null) {
+                closeSpill(partition.left);
+                closeSpill(partition.right);
+            }
+        }
+    }
+
+    public GraceHashJoinResults(@Nonnull Results left, @Nonnull Results right,
+                                @Nonnull Collection<String> joinVars,
+                                @Nonnull Collection<String> resultVars) {
+        this(left, right, joinVars, resultVars,
+             new File(System.getProperty("java.io.tmpdir")),
+             DEFAULT_MEMORY_BUDGET_MB * 1024L * 1024L);
+    }
+
+    /**
+     * Creates the join. No solution is consumed until {@link #hasNext()} is called.
+     *
+     * @param tempDir directory under which a directory for spilled partitions will be created
+     *                if needed
+     * @param budgetBytes estimated heap size of left solutions above which operands will be
+     *                    spilled into tempDir
+     */
+    public GraceHashJoinResults(@Nonnull Results left, @Nonnull Results right,
+                                @Nonnull Collection<String> joinVars,
+                                @Nonnull Collection<String> resultVars,
+                                @Nonnull File tempDir, long budgetBytes) {
+        super(resultVars);
+        Set<String> allVars = Stream.concat(left.getVarNames().stream(),
+                                            right.getVarNames().stream()).collect(toSet());
+        Preconditions.checkArgument(allVars.containsAll(joinVars));
+        Preconditions.checkArgument(budgetBytes > 0, "budgetBytes must be positive");
+        this.left = left;
+        this.right = right;
+        this.joinVars = joinVars.toArray(new String[0]);
+        this.leftVars = new ArrayList<>(left.getVarNames());
+        this.rightVars = new ArrayList<>(right.getVarNames());
+        this.factory = ArraySolution.forVars(resultVars);
+        this.parentDir = tempDir;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Number of partition pairs that were written to disk. Zero if the left operand fit in
+     * the memory budget.
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    private int partitionOf(@Nonnull Solution solution, int level) {
+        int hash = 17;
+        for (String name : joinVars) {
+            Term term = solution.get(name);
+            hash = 37*hash + (term == null ? 17 : term.hashCode());
+        }
+        hash ^= (level + 1) * 0x9E3779B9;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, FANOUT);
+    }
+
+    private @Nonnull SpillFile createSpill(@Nonnull List<String> vars) throws IOException {
+        // SpillFile only creates the file on first add()
+        if (spillDir == null)
+            spillDir = Files.createTempDirectory(parentDir.toPath(), "freqel-hashjoin").toFile();
+        return new SpillFile(new File(spillDir, (nextFileId++) + ".bin"), vars, blanks);
+    }
+
+    private void closeSpill(@Nonnull SpillFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close/delete spill file {}", file.getFile(), e);
+        }
+    }
+
+    private @Nonnull SpillFile[] createSpills(@Nonnull List<String> vars) throws IOException {
+        SpillFile[] files = new SpillFile[FANOUT];
+        for (int i = 0; i < FANOUT; i++)
+            files[i] = createSpill(vars);
+        return files;
+    }
+
+    private void start() throws IOException {
+        long bytes = 0;
+        List<Solution> build = new ArrayList<>();
+        while (left.hasNext()) {
+            Solution solution = left.next();
+            build.add(solution);
+            bytes += ResultsUtils.estimateBytes(solution, leftVars);
+            if (bytes > budgetBytes && joinVars.length > 0)
+                break;
+        }
+        if (!left.hasNext()) {
+            pass = new Pass(build, right, null);
+            return;
+        }
+        logger.debug("{}: left operand exceeded {} bytes, spilling to disk", this, budgetBytes);
+        SpillFile[] leftFiles = createSpills(leftVars), rightFiles = createSpills(rightVars);
+        for (Solution solution : build)
+            leftFiles[partitionOf(solution, 0)].add(solution);
+        build.clear();
+        while (left.hasNext()) {
+            Solution solution = left.next();
+            leftFiles[partitionOf(solution, 0)].add(solution);
+        }
+        while (right.hasNext()) {
+            Solution solution = right.next();
+            rightFiles[partitionOf(solution, 0)].add(solution);
+        }
+        for (int i = 0; i < FANOUT; i++)
+            pending.add(new Partition(leftFiles[i], rightFiles[i], 0));
+        spilledPartitions += FANOUT;
+    }
+
+    private void repartition(@Nonnull Partition partition) throws IOException {
+        int level = partition.level + 1;
+        SpillFile[] leftFiles = createSpills(leftVars), rightFiles = createSpills(rightVars);
+        for (Iterator<? extends Solution> it = partition.left.read(); it.hasNext(); ) {
+            Solution solution = it.next();
+            leftFiles[partitionOf(solution, level)].add(solution);
+        }
+        closeSpill(partition.left);
+        for (Iterator<? extends Solution> it = partition.right.read(); it.hasNext(); ) {
+            Solution solution = it.next();
+            rightFiles[partitionOf(solution, level)].add(solution);
+        }
+        closeSpill(partition.right);
+        for (int i = 0; i < FANOUT; i++)
+            pending.addFirst(new Partition(leftFiles[i], rightFiles[i], level));
+        spilledPartitions += FANOUT;
+    }
+
+    private boolean nextPass() throws IOException {
+        while (!pending.isEmpty()) {
+            Partition p = pending.remove();
+            int leftRows = p.left.getRows(), rightRows = p.right.getRows();
+            boolean skip = (leftRows == 0 || rightRows == 0)
+                        && (leftRows == 0 || !right.isOptional())
+                        && (rightRows == 0 || !left.isOptional());
+            if (skip) {
+                closeSpill(p.left);
+                closeSpill(p.right);
+            } else if (p.left.getEstimatedBytes() > budgetBytes && p.level < MAX_LEVEL) {
+                repartition(p);
+            } else {
+                List<Solution> build = new ArrayList<>(p.left.getRows());
+                p.left.read().forEachRemaining(build::add);
+                pass = new Pass(build, p.right.read(), p);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean advance() {
+        try {
+            if (!started) {
+                started = true;
+                start();
+                if (pass == null)
+                    nextPass();
+            }
+            while (pass != null) {
+                if (pass.advance())
+                    return true;
+                pass.close();
+                pass = null;
+                nextPass();
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int getReadyCount() {
+        return queue.size();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty() || advance();
+    }
+
+    @Override
+    public @Nonnull Solution next() {
+        if (!hasNext())
+            throw new NoSuchElementException("Results exhausted");
+        return queue.remove();
+    }
+
+    @Override
+    public void close() throws ResultsCloseException {
+        try {
+            if (pass != null) {
+                pass.close();
+                pass = null;
+            }
+            for (Partition p : pending) {
+                closeSpill(p.left);
+                closeSpill(p.right);
+            }
+            pending.clear();
+            if (spillDir != null) {
+                try {
+                    FileUtils.deleteDirectory(spillDir);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete spill dir {}", spillDir, e);
+                }
+            }
+        } finally {
+            try {
+                right.close();
+            } finally {
+                left.close();
+            }
+        }
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return String.format("GraceHashJoinResults@%x", System.identityHashCode(this));
+    }
+}
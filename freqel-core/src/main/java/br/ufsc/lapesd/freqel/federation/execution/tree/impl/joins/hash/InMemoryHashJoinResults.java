@@ -1,17 +1,22 @@
 package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash;
 
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.DefaultHashJoinOpExecutor;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
 import br.ufsc.lapesd.freqel.query.results.AbstractResults;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
 import br.ufsc.lapesd.freqel.query.results.Solution;
 import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.query.results.impl.SolutionHashTable;
 import com.google.common.base.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.inject.Inject;
 import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.NoSuchElementException;
@@ -25,16 +30,27 @@ public class InMemoryHashJoinResults extends AbstractResults implements Results
     private static final @Nonnull Logger logger = LoggerFactory.getLogger(DefaultHashJoinOpExecutor.class);
 
     private final @Nonnull Results smaller, larger;
-    private final @Nonnull CrudeSolutionHashTable hashTable;
-    private boolean stop = false, fetchedNonFetched = false;
-    private final  @Nullable ExecutorService executorService;
+    private final @Nonnull SolutionHashTable hashTable;
+    private final @Nonnull SolutionHashTable.Cursor cursor;
+    private volatile boolean stop = false;
+    private volatile @Nullable RuntimeException failure = null;
+    private boolean fetchedNonFetched = false;
     private final  @Nonnull Future<?> fetchTask;
     private final  @Nonnull ArrayDeque<Solution> queue;
     private final ArraySolution.ValueFactory factory;
 
     public static class Factory implements HashJoinResultsFactory {
+        private final @Nonnull JoinExecutorService executorService;
         private boolean useThread = true;
 
+        @Inject public Factory(@Nonnull JoinExecutorService executorService) {
+            this.executorService = executorService;
+        }
+
+        public Factory() {
+            this(PoolJoinExecutorService.getDefault());
+        }
+
         public @Nonnull Factory setUseThread(boolean useThread) {
             this.useThread = useThread;
             return this;
@@ -44,7 +60,8 @@ public class InMemoryHashJoinResults extends AbstractResults implements Results
         public @Nonnull Results createResults(@Nonnull Results left, @Nonnull Results right,
                                               @Nonnull Collection<String> joinVars,
                                               @Nonnull Collection<String> resultVars) {
-            return new InMemoryHashJoinResults(left, right, joinVars, resultVars, useThread);
+            return new InMemoryHashJoinResults(left, right, joinVars, resultVars,
+                                               useThread ? executorService : null);
         }
     }
     public static final @Nonnull Factory FACTORY = new Factory();
@@ -59,21 +76,34 @@ public class InMemoryHashJoinResults extends AbstractResults implements Results
                                    @Nonnull Collection<String> joinVars,
                                    @Nonnull Collection<String> resultVars,
                                    boolean useThread) {
+        this(smaller, larger, joinVars, resultVars,
+             useThread ? PoolJoinExecutorService.getDefault() : null);
+    }
+
+    /**
+     * Create a hash join that fetches all of smaller into memory before iterating larger.
+     *
+     * @param executorService where to fetch smaller. If null, smaller will be fully fetched
+     *                        from within this constructor.
+     */
+    public InMemoryHashJoinResults(@Nonnull Results smaller, @Nonnull Results larger,
+                                   @Nonnull Collection<String> joinVars,
+                                   @Nonnull Collection<String> resultVars,
+                                   @Nullable JoinExecutorService executorService) {
         super(resultVars);
         Set<String> allVars = Stream.concat(smaller.getVarNames().stream(),
                                             larger.getVarNames().stream()).collect(toSet());
         Preconditions.checkArgument(allVars.containsAll(joinVars));
 
-        this.hashTable = new CrudeSolutionHashTable(joinVars, 512);
+        this.hashTable = new SolutionHashTable(joinVars, 512);
+        this.cursor = hashTable.cursor();
         this.smaller = smaller;
         this.larger = larger;
         this.queue = new ArrayDeque<>();
         this.factory = ArraySolution.forVars(getVarNames());
-        if (useThread) {
-            this.executorService = Executors.newSingleThreadExecutor();
+        if (executorService != null) {
             this.fetchTask = executorService.submit(this::fetchAll);
         } else {
-            this.executorService = null;
             CompletableFuture<Void> future = new CompletableFuture<>();
             this.fetchTask = future;
             fetchAll();
@@ -87,8 +117,10 @@ public class InMemoryHashJoinResults extends AbstractResults implements Results
                 hashTable.add(smaller.next());
             }
             hashTable.recordFetches();
-        } catch (Exception e) {
-            logger.error("Fetch Task for {} dying with exception", smaller, e);
+        } catch (Throwable t) {
+            logger.debug("Fetch Task for {} dying with exception", smaller, t);
+            failure = t instanceof RuntimeException ? (RuntimeException) t
+                                                    : new QueryExecutionException(t);
         }
     }
 
@@ -103,6 +135,12 @@ public class InMemoryHashJoinResults extends AbstractResults implements Results
                 interrupted = true;
             } catch (ExecutionException ignored) {}
         }
+        RuntimeException failure = this.failure;
+        if (failure != null) {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            throw failure; // a partial hash table would silently truncate the join
+        }
         /* consume larger until we get some matches */
         try {
             while (larger.hasNext()) {
@@ -122,14 +160,13 @@ public class InMemoryHashJoinResults extends AbstractResults implements Results
     }
 
     private boolean tryJoin(@Nonnull Solution fromLarger) {
-        Collection<Solution> leftSolutions = hashTable.getAll(fromLarger);
-        boolean joined = !leftSolutions.isEmpty();
+        boolean joined = false;
+        for (cursor.reset(fromLarger); cursor.hasNext(); joined = true)
+            queue.add(factory.fromSolutions(cursor.next(), fromLarger));
         if (!joined && smaller.isOptional()) {
             queue.add(factory.fromSolution(fromLarger));
             joined = true;
         }
-        for (Solution fromSmaller : leftSolutions)
-            queue.add(factory.fromSolutions(fromSmaller, fromLarger));
         return joined;
     }
 
@@ -164,7 +201,9 @@ public class InMemoryHashJoinResults extends AbstractResults implements Results
     public void close() throws ResultsCloseException {
         stop = true;
         try {
-            fetchTask.get(30, TimeUnit.SECONDS);
+            if (!fetchTask.cancel(false)) // cancel only if not yet started
+                fetchTask.get(30, TimeUnit.SECONDS);
+        } catch (CancellationException ignored) {
         } catch (TimeoutException e) {
             logger.error("Fetch task is stuck, giving up on it");
         } catch (InterruptedException e) {
@@ -172,8 +211,6 @@ public class InMemoryHashJoinResults extends AbstractResults implements Results
         } catch (ExecutionException e) {
             logger.error("Fetch task threw. Will proceed with close()", e);
         }
-        if (executorService != null)
-            executorService.shutdown();
         try {
             larger.close();
         } finally {
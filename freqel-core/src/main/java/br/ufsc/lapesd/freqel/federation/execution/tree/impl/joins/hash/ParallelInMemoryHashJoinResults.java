@@ -1,15 +1,27 @@
 package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash;
 
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
 import br.ufsc.lapesd.freqel.query.results.AbstractResults;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
+import br.ufsc.lapesd.freqel.query.results.ResultsUtils;
 import br.ufsc.lapesd.freqel.query.results.Solution;
 import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.query.results.impl.QueueDrainer;
+import br.ufsc.lapesd.freqel.query.results.impl.QueueResults;
+import br.ufsc.lapesd.freqel.query.results.impl.SolutionHashTable;
 import com.google.common.base.Preconditions;
+import org.reactivestreams.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
 import java.util.Collection;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -18,19 +30,39 @@ import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toSet;
 
+/**
+ * Symmetric hash join that consumes both inputs concurrently.
+ *
+ * If both inputs are {@link Results#isReactive()}, their {@link Results#flux()} are
+ * consumed without any thread from the {@link JoinExecutorService}: solutions are joined from
+ * within the threads that emit them and inputs are only requested more solutions while
+ * fewer than {@link #MAX_QUEUED} joined solutions await consumption.
+ *
+ * If any input fails, the join stops and the failure is thrown from {@link #hasNext()}
+ * (or delivered as an error to the {@link #flux()} subscriber).
+ */
 public class ParallelInMemoryHashJoinResults extends AbstractResults implements Results {
     private static final @Nonnull Logger logger =
             LoggerFactory.getLogger(ParallelInMemoryHashJoinResults.class);
+    private static final int REQUEST_SIZE = 64;
+    private static final int MAX_QUEUED = 1024;
 
     private final @Nonnull Side[] sides;
-    private boolean stop = false;
-    private final @Nonnull ExecutorService executorService;
-    private final @Nonnull BlockingQueue<Solution> queue = new ArrayBlockingQueue<>(1024);
+    private volatile boolean stop = false;
+    private volatile @Nullable RuntimeException failure = null;
+    private final @Nonnull JoinExecutorService executorService;
+    private final @Nonnull Object lane;
+    /* Unbounded: a fetchTask must never block on a full queue while holding a pool thread */
+    private final @Nonnull BlockingQueue<Solution> queue = new LinkedBlockingQueue<>();
     private final @Nonnull ArraySolution.ValueFactory solFac;
+    private final boolean reactive;
+    private @Nullable QueueDrainer drainer;
 
     private class Side {
         private Future<?> task = null;
-        private final @Nonnull CrudeSolutionHashTable table;
+        private @Nullable SideSubscriber subscriber = null;
+        private final @Nonnull SolutionHashTable table;
+        private SolutionHashTable.Cursor cursor;
         private final @Nonnull Results results;
         private boolean complete = false;
         private final boolean optional;
@@ -39,63 +71,95 @@ public class ParallelInMemoryHashJoinResults extends AbstractResults implements
         public Side(@Nonnull Collection<String> joinVars, @Nonnull Results results, int idx) {
             this.results = results;
             this.idx = idx;
-            this.table = new CrudeSolutionHashTable(joinVars,  512);
+            this.table = new SolutionHashTable(joinVars,  512);
             this.table.recordFetches();
             this.optional = results.isOptional();
         }
 
         public void start() {
-            this.task = executorService.submit(this::fetchTask);
+            this.cursor = sides[(idx + 1) % 2].table.cursor();
+            if (reactive)
+                results.flux().subscribe(this.subscriber = new SideSubscriber(this));
+            else
+                this.task = executorService.submit(lane, this::fetchTask);
         }
 
         protected void fetchTask() {
-            int otherIdx = (idx + 1) % 2;
             try {
-                Side otherSide = sides[otherIdx];
-                while (!stop && results.hasNext()) {
-                    Solution next = results.next();
-                    synchronized (ParallelInMemoryHashJoinResults.this) {
-                        CrudeSolutionHashTable.AddedHandle handle = null;
-                        if (!otherSide.complete || otherSide.optional)
-                            handle = table.add(next);
-                        Collection<Solution> otherSolutions = otherSide.table.getAll(next);
-                        for (Solution otherSolution : otherSolutions)
-                            queue.add(solFac.fromSolutions(next, otherSolution));
-                        if (!otherSolutions.isEmpty()) {
-                            ParallelInMemoryHashJoinResults.this.notify();
-                            if (handle != null)
-                                handle.markFetched();
-                        }
-                    }
+                while (!stop && results.hasNext())
+                    add(results.next());
+                if (!stop)
+                    complete();
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        private void fail(@Nonnull Throwable t) {
+            logger.debug("Input {} of {} failed.", idx, ParallelInMemoryHashJoinResults.this, t);
+            synchronized (ParallelInMemoryHashJoinResults.this) {
+                if (failure == null) {
+                    failure = t instanceof RuntimeException ? (RuntimeException) t
+                            : new QueryExecutionException(t);
+                    if (drainer != null && !(sides[0].complete && sides[1].complete))
+                        queue.add(QueueResults.DEFAULT_END);
                 }
-                if (!stop) {
-                    synchronized (ParallelInMemoryHashJoinResults.this) {
-                        complete = true;
-                        if (otherSide.complete) { //add optional solutions
-                            if (otherSide.optional)
-                                table.forEachNotFetched(s -> queue.add(solFac.fromSolution(s)));
-                            if (optional) {
-                                otherSide.table.forEachNotFetched(
-                                        s -> queue.add(solFac.fromSolution(s)));
-                            }
-                            table.clear();
-                            otherSide.table.clear();
-                        }
-                        // clear tables early if not OPTIONAL
-                        if (!optional)
-                            otherSide.table.clear();
-                        ParallelInMemoryHashJoinResults.this.notifyAll();
+                stop = true;
+                ParallelInMemoryHashJoinResults.this.notifyAll();
+            }
+            drain();
+        }
+
+        private void add(@Nonnull Solution next) {
+            Side otherSide = sides[(idx + 1) % 2];
+            boolean matched = false;
+            synchronized (ParallelInMemoryHashJoinResults.this) {
+                int index = -1;
+                if (!otherSide.complete || otherSide.optional)
+                    index = table.add(next);
+                for (cursor.reset(next); cursor.hasNext(); matched = true)
+                    queue.add(solFac.fromSolutions(next, cursor.next()));
+                if (matched) {
+                    ParallelInMemoryHashJoinResults.this.notify();
+                    if (index >= 0)
+                        table.markFetched(index);
+                }
+            }
+            if (matched)
+                drain();
+        }
+
+        private void complete() {
+            Side otherSide = sides[(idx + 1) % 2];
+            synchronized (ParallelInMemoryHashJoinResults.this) {
+                complete = true;
+                if (failure != null)
+                    return; // END already queued by fail()
+                if (otherSide.complete) { //add optional solutions
+                    if (otherSide.optional)
+                        table.forEachNotFetched(s -> queue.add(solFac.fromSolution(s)));
+                    if (optional) {
+                        otherSide.table.forEachNotFetched(
+                                s -> queue.add(solFac.fromSolution(s)));
                     }
+                    table.clear();
+                    otherSide.table.clear();
+                    if (drainer != null)
+                        queue.add(QueueResults.DEFAULT_END);
                 }
-            } catch (Exception e) {
-                logger.error("fetchTask {} failed with exception.", idx, e);
+                // clear tables early if not OPTIONAL
+                if (!optional)
+                    otherSide.table.clear();
+                ParallelInMemoryHashJoinResults.this.notifyAll();
             }
+            drain();
         }
 
         public void close(boolean keepInterrupt) throws ResultsCloseException {
             try {
-                if (task != null)
+                if (task != null && !task.cancel(false)) // cancel only if not yet started
                     task.get(30, TimeUnit.SECONDS);
+            } catch (CancellationException ignored) {
             } catch (InterruptedException e) {
                 logger.warn("Interrupted before fetchTask {} could finish", idx);
                 if (keepInterrupt)
@@ -105,16 +169,85 @@ public class ParallelInMemoryHashJoinResults extends AbstractResults implements
             } catch (TimeoutException e) {
                 logger.error("fetchTask {} is stuck. Will proceed with close()", idx);
             }
+            if (subscriber != null)
+                subscriber.dispose();
             results.close();
         }
     }
 
+    private class SideSubscriber extends BaseSubscriber<Solution> {
+        private final @Nonnull Side side;
+        private int pending = 0;
+        private boolean paused = false;
+
+        public SideSubscriber(@Nonnull Side side) {
+            this.side = side;
+        }
+
+        private void requestMore() {
+            synchronized (ParallelInMemoryHashJoinResults.this) {
+                if (stop || isDisposed()) {
+                    return;
+                } else if (queue.size() >= MAX_QUEUED) {
+                    paused = true;
+                    return;
+                }
+                pending = REQUEST_SIZE;
+            }
+            request(REQUEST_SIZE);
+        }
+
+        /**
+         * Called with the lock held, after the consumer took solutions from the queue.
+         *
+         * @return true iff the caller must call {@link #requestMore()} after releasing the lock
+         */
+        private boolean unpause() {
+            if (!paused || queue.size() > MAX_QUEUED/2)
+                return false;
+            paused = false;
+            return true;
+        }
+
+        @Override protected void hookOnSubscribe(@Nonnull Subscription subscription) {
+            requestMore();
+        }
+
+        @Override protected void hookOnNext(@Nonnull Solution solution) {
+            if (stop)
+                return;
+            side.add(solution);
+            if (--pending == 0)
+                requestMore();
+        }
+
+        @Override protected void hookOnError(@Nonnull Throwable throwable) {
+            side.fail(throwable);
+        }
+
+        @Override protected void hookOnComplete() {
+            if (!stop)
+                side.complete();
+        }
+    }
+
     public static class Factory implements HashJoinResultsFactory {
+        private final @Nonnull JoinExecutorService executorService;
+
+        @Inject public Factory(@Nonnull JoinExecutorService executorService) {
+            this.executorService = executorService;
+        }
+
+        public Factory() {
+            this(PoolJoinExecutorService.getDefault());
+        }
+
         @Override
         public @Nonnull Results createResults(@Nonnull Results left, @Nonnull Results right,
                                               @Nonnull Collection<String> joinVars,
                                               @Nonnull Collection<String> resultVars) {
-            return new ParallelInMemoryHashJoinResults(left, right, joinVars, resultVars);
+            return new ParallelInMemoryHashJoinResults(left, right, joinVars, resultVars,
+                                                       executorService);
         }
     }
     public static final @Nonnull Factory FACTORY = new Factory();
@@ -122,14 +255,22 @@ public class ParallelInMemoryHashJoinResults extends AbstractResults implements
     public ParallelInMemoryHashJoinResults(@Nonnull Results left, @Nonnull Results right,
                                            @Nonnull Collection<String> joinVars,
                                            @Nonnull Collection<String> resultVars) {
+        this(left, right, joinVars, resultVars, PoolJoinExecutorService.getDefault());
+    }
+
+    public ParallelInMemoryHashJoinResults(@Nonnull Results left, @Nonnull Results right,
+                                           @Nonnull Collection<String> joinVars,
+                                           @Nonnull Collection<String> resultVars,
+                                           @Nonnull JoinExecutorService executorService) {
         super(resultVars);
         Set<String> allVars = Stream.concat(left.getVarNames().stream(),
                                             right.getVarNames().stream()).collect(toSet());
         Preconditions.checkArgument(allVars.containsAll(joinVars));
         solFac = ArraySolution.forVars(resultVars);
 
-        executorService = new ThreadPoolExecutor(0, 2,
-                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(8));
+        this.executorService = executorService;
+        this.lane = Thread.currentThread();
+        this.reactive = left.isReactive() && right.isReactive();
         sides = new Side[] {new Side(joinVars, left, 0), new Side(joinVars, right, 1)};
         sides[0].start();
         sides[1].start();
@@ -140,6 +281,55 @@ public class ParallelInMemoryHashJoinResults extends AbstractResults implements
         return true;
     }
 
+    @Override
+    public boolean isReactive() {
+        return reactive;
+    }
+
+    @Override
+    public @Nonnull Flux<Solution> flux() {
+        if (!reactive)
+            return ResultsUtils.iteratingFlux(this);
+        QueueDrainer drainer;
+        synchronized (this) {
+            if (this.drainer != null)
+                throw new IllegalStateException("flux() already called");
+            drainer = this.drainer = new QueueDrainer(queue, QueueResults.DEFAULT_END, s -> {
+                afterTake();
+                return s;
+            }, () -> failure);
+            if (failure != null || (sides[0].complete && sides[1].complete))
+                queue.add(QueueResults.DEFAULT_END);
+        }
+        return drainer.flux(this::close);
+    }
+
+    private void drain() {
+        QueueDrainer drainer;
+        synchronized (this) {
+            drainer = this.drainer;
+        }
+        if (drainer != null)
+            drainer.drain();
+    }
+
+    /**
+     * Resume reactive inputs paused due to a full queue.
+     */
+    private void afterTake() {
+        if (!reactive)
+            return;
+        SideSubscriber resume0 = null, resume1 = null;
+        synchronized (this) {
+            if (sides[0].subscriber != null && sides[0].subscriber.unpause())
+                resume0 = sides[0].subscriber;
+            if (sides[1].subscriber != null && sides[1].subscriber.unpause())
+                resume1 = sides[1].subscriber;
+        }
+        if (resume0 != null) resume0.requestMore();
+        if (resume1 != null) resume1.requestMore();
+    }
+
     @Override
     public int getReadyCount() {
         return queue.size();
@@ -148,7 +338,8 @@ public class ParallelInMemoryHashJoinResults extends AbstractResults implements
     @Override
     public synchronized boolean hasNext() {
         boolean interrupted = false;
-        while (queue.isEmpty() && (!sides[0].complete || !sides[1].complete)) {
+        while (failure == null && queue.isEmpty()
+                && (!sides[0].complete || !sides[1].complete)) {
             try {
                 wait();
             } catch (InterruptedException e) {
@@ -157,6 +348,9 @@ public class ParallelInMemoryHashJoinResults extends AbstractResults implements
         }
         if (interrupted)
             Thread.currentThread().interrupt();
+        RuntimeException failure = this.failure;
+        if (failure != null)
+            throw failure;
         return !queue.isEmpty();
     }
 
@@ -176,13 +370,13 @@ public class ParallelInMemoryHashJoinResults extends AbstractResults implements
         } finally {
             if (interrupted)
                 Thread.currentThread().interrupt();
+            afterTake();
         }
     }
 
     @Override
     public void close() throws ResultsCloseException {
         stop = true;
-        executorService.shutdown();
         try {
             sides[0].close(true);
         } finally {
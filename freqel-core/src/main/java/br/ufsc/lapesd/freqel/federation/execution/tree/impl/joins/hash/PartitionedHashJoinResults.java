@@ -0,0 +1,355 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash;
+
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
+import br.ufsc.lapesd.freqel.query.results.AbstractResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.query.results.impl.SolutionHashTable;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Symmetric hash join that consumes both operands in parallel, like
+ * {@link ParallelInMemoryHashJoinResults}, but splits both hash tables into partitions
+ * by the hash of the join variables.
+ *
+ * Each partition has its own lock, which is held only while inserting a solution and
+ * probing the other side. Join results are handed to the consumer in chunks through a
+ * queue, thus the consumer never contends with the producers for a partition.
+ *
+ * If an operand fails, both operands stop and the failure is thrown from {@link #hasNext()}.
+ */
+public class PartitionedHashJoinResults extends AbstractResults implements Results {
+    private static final @Nonnull Logger logger =
+            LoggerFactory.getLogger(PartitionedHashJoinResults.class);
+    public static final int DEFAULT_PARTITIONS = 16;
+    private static final int CHUNK_SIZE = 64;
+    private static final @Nonnull List<Solution> END = Collections.emptyList();
+
+    private final @Nonnull String[] joinVars;
+    private final @Nonnull Partition[] partitions;
+    private final int partitionShift;
+    private final @Nonnull Side[] sides;
+    private final @Nonnull ArraySolution.ValueFactory solFac;
+    private final @Nonnull JoinExecutorService executorService;
+    private final @Nonnull Object lane;
+    private final @Nonnull BlockingQueue<List<Solution>> queue = new LinkedBlockingQueue<>();
+    private final @Nonnull AtomicInteger readyCount = new AtomicInteger();
+    private final @Nonnull AtomicInteger completeSides = new AtomicInteger();
+    private volatile boolean stop = false;
+    private volatile @Nullable RuntimeException failure = null;
+    private @Nullable Iterator<Solution> chunk = null;
+    private boolean exhausted = false;
+
+    private static class Partition {
+        final @Nonnull SolutionHashTable[] tables;
+        /* cursors[i] probes tables[i] and is only used by the other side */
+        final @Nonnull SolutionHashTable.Cursor[] cursors;
+
+        Partition(@Nonnull Collection<String> joinVars) {
+            tables = new SolutionHashTable[2];
+            cursors = new SolutionHashTable.Cursor[2];
+            for (int i = 0; i < 2; i++) {
+                tables[i] = new SolutionHashTable(joinVars, 256);
+                tables[i].recordFetches();
+                cursors[i] = tables[i].cursor();
+            }
+        }
+    }
+
+    private class Side {
+        private @Nullable Future<?> task = null;
+        private final @Nonnull Results results;
+        private volatile boolean complete = false;
+        private final boolean optional;
+        private final int idx;
+        private @Nonnull List<Solution> out = new ArrayList<>(CHUNK_SIZE);
+
+        public Side(@Nonnull Results results, int idx) {
+            this.results = results;
+            this.idx = idx;
+            this.optional = results.isOptional();
+        }
+
+        public void start() {
+            this.task = executorService.submit(lane, this::fetchTask);
+        }
+
+        private void flush() {
+            if (out.isEmpty())
+                return;
+            readyCount.addAndGet(out.size());
+            queue.add(out);
+            out = new ArrayList<>(CHUNK_SIZE);
+        }
+
+        private void emit(@Nonnull Solution solution) {
+            out.add(solution);
+            if (out.size() >= CHUNK_SIZE)
+                flush();
+        }
+
+        protected void fetchTask() {
+            Side other = sides[(idx + 1) % 2];
+            try {
+                while (!stop && results.hasNext()) {
+                    Solution next = results.next();
+                    Partition partition = partitions[getPartitionIndex(next)];
+                    SolutionHashTable table = partition.tables[idx];
+                    SolutionHashTable.Cursor cursor = partition.cursors[other.idx];
+                    synchronized (partition) {
+                        int index = -1;
+                        if (!other.complete || other.optional)
+                            index = table.add(next);
+                        boolean matched = false;
+                        for (cursor.reset(next); cursor.hasNext(); matched = true)
+                            emit(solFac.fromSolutions(next, cursor.next()));
+                        if (index >= 0 && matched)
+                            table.markFetched(index);
+                    }
+                    if (results.getReadyCount() == 0)
+                        flush(); // do not hold solutions while we block on hasNext()
+                }
+            } catch (Throwable t) {
+                fail(t);
+            } finally {
+                complete();
+            }
+        }
+
+        private void fail(@Nonnull Throwable t) {
+            logger.debug("fetchTask {} of {} failed.", idx, PartitionedHashJoinResults.this, t);
+            synchronized (PartitionedHashJoinResults.this) {
+                if (failure == null) {
+                    failure = t instanceof RuntimeException ? (RuntimeException) t
+                                                            : new QueryExecutionException(t);
+                }
+            }
+            stop = true;
+            queue.add(END); // wake the consumer, which will see failure
+        }
+
+        private void complete() {
+            complete = true;
+            if (!stop && !optional) {
+                // no one will probe the other tables nor ask for non-fetched solutions
+                for (Partition p : partitions) {
+                    synchronized (p) {
+                        p.tables[(idx + 1) % 2].clear();
+                    }
+                }
+            }
+            // publish our chunk before the other side may see 2 and enqueue END
+            flush();
+            if (completeSides.incrementAndGet() == 2) {
+                if (!stop) {
+                    for (Side side : sides) {
+                        if (!sides[(side.idx + 1) % 2].optional) continue;
+                        for (Partition p : partitions) {
+                            synchronized (p) {
+                                p.tables[side.idx].forEachNotFetched(
+                                        s -> emit(solFac.fromSolution(s)));
+                            }
+                        }
+                    }
+                }
+                for (Partition p : partitions) {
+                    synchronized (p) {
+                        p.tables[0].clear();
+                        p.tables[1].clear();
+                    }
+                }
+                flush();
+                queue.add(END);
+            }
+        }
+
+        public void close() throws ResultsCloseException {
+            try {
+                if (task != null) {
+                    if (task.cancel(false)) // never started: count it as complete for END
+                        complete();
+                    else
+                        task.get(30, TimeUnit.SECONDS);
+                }
+            } catch (CancellationException ignored) {
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted before fetchTask {} could finish", idx);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                logger.error("fetchTask {} threw. Will proceed with close()", idx, e);
+            } catch (TimeoutException e) {
+                logger.error("fetchTask {} is stuck. Will proceed with close()", idx);
+            }
+            results.close();
+        }
+    }
+
+    public static class Factory implements HashJoinResultsFactory {
+        private final @Nonnull JoinExecutorService executorService;
+        private final int partitions;
+
+        @Inject public Factory(@Nonnull JoinExecutorService executorService) {
+            this(executorService, DEFAULT_PARTITIONS);
+        }
+
+        public Factory(@Nonnull JoinExecutorService executorService, int partitions) {
+            this.executorService = executorService;
+            this.partitions = partitions;
+        }
+
+        public Factory() {
+            this(PoolJoinExecutorService.getDefault());
+        }
+
+        @Override
+        public @Nonnull Results createResults(@Nonnull Results left, @Nonnull Results right,
+                                              @Nonnull Collection<String> joinVars,
+                                              @Nonnull Collection<String> resultVars) {
+            return new PartitionedHashJoinResults(left, right, joinVars, resultVars,
+                                                  executorService, partitions);
+        }
+    }
+    public static final @Nonnull Factory FACTORY = new Factory();
+
+    public PartitionedHashJoinResults(@Nonnull Results left, @Nonnull Results right,
+                                      @Nonnull Collection<String> joinVars,
+                                      @Nonnull Collection<String> resultVars) {
+        this(left, right, joinVars, resultVars, PoolJoinExecutorService.getDefault(),
+             DEFAULT_PARTITIONS);
+    }
+
+    /**
+     * Create and start the join.
+     *
+     * @param partitions number of partitions. Will be rounded up to a power of two. Joins with no
+     *                   join variables always use a single partition.
+     */
+    public PartitionedHashJoinResults(@Nonnull Results left, @Nonnull Results right,
+                                      @Nonnull Collection<String> joinVars,
+                                      @Nonnull Collection<String> resultVars,
+                                      @Nonnull JoinExecutorService executorService,
+                                      int partitions) {
+        super(resultVars);
+        Preconditions.checkArgument(partitions > 0, "partitions must be positive");
+        Set<String> allVars = Stream.concat(left.getVarNames().stream(),
+                                            right.getVarNames().stream()).collect(toSet());
+        Preconditions.checkArgument(allVars.containsAll(joinVars));
+        this.solFac = ArraySolution.forVars(resultVars);
+        this.joinVars = joinVars.toArray(new String[0]);
+        int bits = joinVars.isEmpty() ? 0 : 32 - Integer.numberOfLeadingZeros(partitions - 1);
+        this.partitionShift = 32 - bits;
+        this.partitions = new Partition[1 << bits];
+        for (int i = 0; i < this.partitions.length; i++)
+            this.partitions[i] = new Partition(joinVars);
+        this.executorService = executorService;
+        this.lane = Thread.currentThread();
+        this.sides = new Side[] {new Side(left, 0), new Side(right, 1)};
+        sides[0].start();
+        sides[1].start();
+    }
+
+    /**
+     * Uses the high bits of a mixed hash, so that the partition index does not correlate with
+     * the (low-bits) slot index inside {@link SolutionHashTable}.
+     */
+    private int getPartitionIndex(@Nonnull Solution solution) {
+        if (partitionShift == 32)
+            return 0;
+        int hash = 17;
+        for (String name : joinVars) {
+            Term term = solution.get(name);
+            hash = 37*hash + (term == null ? 17 : term.hashCode());
+        }
+        hash *= 0x9E3779B9;
+        return hash >>> partitionShift;
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+    @Override
+    public int getReadyCount() {
+        return readyCount.get();
+    }
+
+    @Override
+    public boolean hasNext() {
+        RuntimeException failure = this.failure;
+        if (failure != null)
+            throw failure;
+        if (exhausted)
+            return false;
+        boolean interrupted = false;
+        try {
+            while (chunk == null || !chunk.hasNext()) {
+                List<Solution> list;
+                try {
+                    list = queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    continue;
+                }
+                if (list == END) {
+                    if ((failure = this.failure) != null)
+                        throw failure;
+                    exhausted = true;
+                    chunk = null;
+                    return false;
+                }
+                chunk = list.iterator();
+            }
+            return true;
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public @Nonnull Solution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        assert chunk != null;
+        readyCount.decrementAndGet();
+        return chunk.next();
+    }
+
+    @Override
+    public void close() throws ResultsCloseException {
+        stop = true;
+        try {
+            sides[0].close();
+        } finally {
+            sides[1].close();
+        }
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return String.format("PartitionedHashJoinResults@%x{partitions=%d}",
+                             System.identityHashCode(this), partitions.length);
+    }
+}
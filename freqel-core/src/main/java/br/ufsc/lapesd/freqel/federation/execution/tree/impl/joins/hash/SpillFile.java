@@ -0,0 +1,106 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash;
+
+import br.ufsc.lapesd.freqel.query.results.ResultsUtils;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.codec.BlankTable;
+import br.ufsc.lapesd.freqel.query.results.codec.SolutionReader;
+import br.ufsc.lapesd.freqel.query.results.codec.SolutionWriter;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A temporary file holding solutions spilled by {@link GraceHashJoinResults}.
+ *
+ * Solutions are appended and later read back once, in the same order, using the
+ * dictionary-encoded format of {@link SolutionWriter}. Blank nodes are not serialized:
+ * they are kept in a {@link BlankTable} shared by all files of a join, so that identity
+ * is preserved on reload.
+ */
+class SpillFile implements Closeable {
+    private static final int BUFFER_SIZE = 8192; // there may be 2*FANOUT files open
+
+    private final @Nonnull File file;
+    private final @Nonnull Collection<String> vars;
+    private final @Nonnull BlankTable blanks;
+    private @Nullable SolutionWriter out;
+    private @Nullable SolutionReader in;
+    private boolean reading = false;
+    private int rows = 0;
+    private long estimatedBytes = 0;
+
+    SpillFile(@Nonnull File file, @Nonnull Collection<String> vars,
+              @Nonnull BlankTable blanks) {
+        this.file = file;
+        this.vars = vars;
+        this.blanks = blanks;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    @Nonnull File getFile() {
+        return file;
+    }
+
+    void add(@Nonnull Solution solution) throws IOException {
+        Preconditions.checkState(!reading, "Already reading from "+file);
+        if (out == null) { // only touch the filesystem if there is something to write
+            FileChannel channel = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING);
+            out = new SolutionWriter(channel, vars, blanks,
+                                     SolutionWriter.DEFAULT_MAX_DICTIONARY_SIZE, BUFFER_SIZE);
+        }
+        out.write(solution);
+        ++rows;
+        estimatedBytes += ResultsUtils.estimateBytes(solution, vars);
+    }
+
+    /**
+     * Stop writing and iterate over all solutions added to this file.
+     *
+     * The iterator throws {@link UncheckedIOException} on read failures.
+     */
+    @Nonnull Iterator<? extends Solution> read() throws IOException {
+        Preconditions.checkState(!reading, "Can only read once from "+file);
+        reading = true;
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        if (rows == 0)
+            return Collections.emptyIterator();
+        in = new SolutionReader(FileChannel.open(file.toPath(), READ), vars, blanks, BUFFER_SIZE);
+        return in;
+    }
+
+    /**
+     * Closes any open stream and deletes the file.
+     */
+    @Override public void close() throws IOException {
+        try {
+            if (out != null) out.close();
+            if (in != null) in.close();
+        } finally {
+            out = null;
+            in = null;
+            if (file.exists() && !file.delete())
+                throw new IOException("Could not delete spill file "+file);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.merge;
+
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.TermOrder;
+import br.ufsc.lapesd.freqel.query.results.AbstractResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Inner join of two {@link Results} that are ordered by ascending values of the join
+ * variables (in the order given by the keys list), according to {@link TermOrder}.
+ *
+ * Only the solutions of right that share the current join key are kept in memory. Blank
+ * nodes are compared as equal among themselves, since their labels need not follow the
+ * order of the source. If an input is found not to be ordered, an
+ * {@link IllegalStateException} will be thrown from {@link #hasNext()}.
+ */
+public class MergeJoinResults extends AbstractResults implements Results {
+    private static final @Nonnull Logger logger = LoggerFactory.getLogger(MergeJoinResults.class);
+
+    private final @Nonnull Results left, right;
+    private final @Nonnull String[] keys;
+    private final @Nonnull ArraySolution.ValueFactory factory;
+    private final @Nonnull ArrayDeque<Solution> queue = new ArrayDeque<>();
+    private final @Nonnull List<Solution> group = new ArrayList<>();
+    private @Nullable Term[] groupKey, lastLeftKey, lastRightKey;
+    private @Nullable Solution leftHead, rightHead;
+
+    /**
+     * Create a merge join.
+     *
+     * @param left input ordered by keys. This is streamed
+     * @param right input ordered by keys. Solutions sharing a key are buffered
+     * @param keys the join variables, in the order by which inputs are sorted
+     * @param resultVars variables exposed by this {@link Results}
+     */
+    public MergeJoinResults(@Nonnull Results left, @Nonnull Results right,
+                            @Nonnull List<String> keys, @Nonnull Collection<String> resultVars) {
+        super(resultVars);
+        Preconditions.checkArgument(!keys.isEmpty(), "No join keys");
+        Preconditions.checkArgument(left.getVarNames().containsAll(keys),
+                                    "left does not expose all join keys");
+        Preconditions.checkArgument(right.getVarNames().containsAll(keys),
+                                    "right does not expose all join keys");
+        this.left = left;
+        this.right = right;
+        this.keys = keys.toArray(new String[0]);
+        this.factory = ArraySolution.forVars(getVarNames());
+    }
+
+    /* --- --- --- internals --- --- --- */
+
+    private @Nonnull Term[] key(@Nonnull Solution solution) {
+        Term[] key = new Term[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            key[i] = solution.get(keys[i]);
+        return key;
+    }
+
+    private static int compareKeys(@Nonnull Term[] l, @Nonnull Term[] r) {
+        for (int i = 0; i < l.length; i++) {
+            Term lt = l[i], rt = r[i];
+            if (lt != null && rt != null && lt.isBlank() && rt.isBlank())
+                continue;
+            int diff = TermOrder.INSTANCE.compare(lt, rt);
+            if (diff != 0)
+                return diff;
+        }
+        return 0;
+    }
+
+    private @Nullable Solution fetch(@Nonnull Results in, boolean isLeft) {
+        if (!in.hasNext())
+            return null;
+        Solution solution = in.next();
+        Term[] key = key(solution), last = isLeft ? lastLeftKey : lastRightKey;
+        if (last != null && compareKeys(last, key) > 0) {
+            throw new IllegalStateException((isLeft ? "left" : "right") + " input " + in
+                    + " is not ordered by " + Arrays.toString(keys) + ": "
+                    + Arrays.toString(key) + " came after " + Arrays.toString(last));
+        }
+        if (isLeft) lastLeftKey = key;
+        else        lastRightKey = key;
+        return solution;
+    }
+
+    private void joinWithGroup(@Nonnull Solution fromLeft, @Nonnull Term[] leftKey) {
+        for (Solution fromRight : group) {
+            if (!Arrays.equals(leftKey, key(fromRight)))
+                continue; // distinct blank nodes
+            queue.add(factory.fromSolutions(fromLeft, fromRight));
+        }
+    }
+
+    private boolean advance() {
+        while (queue.isEmpty()) {
+            if (leftHead == null && (leftHead = fetch(left, true)) == null)
+                return false;
+            Term[] leftKey = key(leftHead);
+            if (groupKey != null) {
+                if (compareKeys(leftKey, groupKey) == 0) {
+                    joinWithGroup(leftHead, leftKey);
+                    leftHead = null;
+                    continue;
+                }
+                group.clear();
+                groupKey = null;
+            }
+            if (rightHead == null && (rightHead = fetch(right, false)) == null)
+                return false;
+            int diff = compareKeys(leftKey, key(rightHead));
+            if (diff < 0) {
+                leftHead = null;
+            } else if (diff > 0) {
+                rightHead = null;
+            } else {
+                groupKey = key(rightHead);
+                group.add(rightHead);
+                while ((rightHead = fetch(right, false)) != null
+                        && compareKeys(key(rightHead), groupKey) == 0) {
+                    group.add(rightHead);
+                }
+            }
+        }
+        return true;
+    }
+
+    /* --- --- --- interface implementation --- --- --- */
+
+    @Override
+    public int getReadyCount() {
+        return queue.size();
+    }
+
+    @Override
+    public boolean isDistinct() {
+        return left.isDistinct() && right.isDistinct();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty() || advance();
+    }
+
+    @Override
+    public @Nonnull Solution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return queue.remove();
+    }
+
+    @Override
+    public void close() throws ResultsCloseException {
+        queue.clear();
+        group.clear();
+        ResultsCloseException exception = null;
+        for (Results results : Arrays.asList(left, right)) {
+            try {
+                results.close();
+            } catch (ResultsCloseException e) {
+                if (exception == null) exception = e;
+                else logger.error("Suppressing additional exception on close()", e);
+            }
+        }
+        if (exception != null)
+            throw exception;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return String.format("MergeJoinResults(%s, %s)", left, right);
+    }
+}
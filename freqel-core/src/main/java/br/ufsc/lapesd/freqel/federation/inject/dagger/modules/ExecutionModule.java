@@ -1,28 +1,42 @@
 package br.ufsc.lapesd.freqel.federation.inject.dagger.modules;
 
 import br.ufsc.lapesd.freqel.federation.FreqelConfig;
+import br.ufsc.lapesd.freqel.federation.PerformanceListener;
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
 import br.ufsc.lapesd.freqel.federation.execution.InjectedExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.*;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.LazyCartesianOpExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.ParallelCartesianOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.SimplePipeOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.SimpleQueryOpExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.AdaptiveJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.DefaultHashJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.DefaultJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.FixedBindJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.FixedHashJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.BindJoinResultsFactory;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.ParallelValuesBindJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.SimpleBindJoinResults;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.GraceHashJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.HashJoinResultsFactory;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.InMemoryHashJoinResults;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.ParallelInMemoryHashJoinResults;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.PartitionedHashJoinResults;
 import br.ufsc.lapesd.freqel.query.results.ResultsExecutor;
-import br.ufsc.lapesd.freqel.query.results.impl.BufferedResultsExecutor;
+import br.ufsc.lapesd.freqel.query.results.impl.ChunkedResultsExecutor;
 import br.ufsc.lapesd.freqel.query.results.impl.SequentialResultsExecutor;
+import br.ufsc.lapesd.freqel.util.VirtualThreads;
 import dagger.Module;
 import dagger.Provides;
 import dagger.Reusable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -32,6 +46,7 @@ import static java.util.Objects.requireNonNull;
 
 @Module
 public abstract class ExecutionModule {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionModule.class);
     private static final AtomicInteger threadCounter = new AtomicInteger(0);
 
     @Provides @Reusable public static PlanExecutor
@@ -80,11 +95,12 @@ public abstract class ExecutionModule {
     }
     @Provides @Reusable public static CartesianOpExecutor
     cartesianExecutor(@Nullable @Named("override") CartesianOpExecutor override,
-                      FreqelConfig config, LazyCartesianOpExecutor def) {
+                      FreqelConfig config, LazyCartesianOpExecutor def,
+                      ParallelCartesianOpExecutor parallel) {
         if (override != null)
             return override;
         String name = requireNonNull(config.get(CARTESIAN_OP_EXECUTOR, String.class));
-        return ModuleHelper.get(CartesianOpExecutor.class, name, def);
+        return ModuleHelper.get(CartesianOpExecutor.class, name, def, parallel);
 
     }
     @Provides @Reusable public static EmptyOpExecutor
@@ -105,14 +121,31 @@ public abstract class ExecutionModule {
         return ModuleHelper.get(PipeOpExecutor.class, name, def);
     }
 
+    @Provides @Reusable public static @Named("virtualThreads") boolean
+    virtualThreads(@Named("virtualThreadsOverride") @Nullable Boolean override,
+                   FreqelConfig config) {
+        boolean enabled = override != null ? override : config.get(VIRTUAL_THREADS, Boolean.class);
+        if (enabled && !VirtualThreads.isSupported()) {
+            logger.warn("VIRTUAL_THREADS enabled, but Java {} has no virtual threads. " +
+                        "Will use platform threads", System.getProperty("java.version"));
+            return false;
+        }
+        return enabled;
+    }
+
     @Provides @Singleton public static ResultsExecutor
-    resultsExecutor(@Named("override") @Nullable ResultsExecutor override, FreqelConfig config) {
+    resultsExecutor(@Named("override") @Nullable ResultsExecutor override, FreqelConfig config,
+                    @Named("virtualThreads") boolean virtualThreads) {
         if (override != null)
             return override;
         double factor = config.get(RESULTS_EXECUTOR_CONCURRENCY_FACTOR, Double.class);
         int cores = Runtime.getRuntime().availableProcessors();
         int max = factor == -1 ? Integer.MAX_VALUE : (int)Math.ceil(cores * factor);
-        if (max > 1) {
+        if (max > 1 && virtualThreads) {
+            int bufferSize = config.get(RESULTS_EXECUTOR_BUFFER_SIZE, Integer.class);
+            ExecutorService executor = VirtualThreads.newPerTaskExecutor("ResultsExecutor-");
+            return new ChunkedResultsExecutor(requireNonNull(executor), bufferSize);
+        } else if (max > 1) {
             assert max > 100 : "max threads too low, may cause starvation";
             BlockingQueue<Runnable> queue = factor == -1 ? new SynchronousQueue<>()
                     : new LinkedBlockingQueue<>();
@@ -124,39 +157,135 @@ public abstract class ExecutionModule {
                 return t;
             });
             int bufferSize = config.get(RESULTS_EXECUTOR_BUFFER_SIZE, Integer.class);
-            return new BufferedResultsExecutor(executor, bufferSize);
+            return new ChunkedResultsExecutor(executor, bufferSize);
         } else {
             return new SequentialResultsExecutor();
         }
     }
 
+    @Provides @Reusable public static @Named("joinMaxThreads") int
+    joinMaxThreads(@Named("joinMaxThreadsOverride") @Nullable Integer override,
+                   FreqelConfig config) {
+        return override != null ? override : config.get(JOIN_MAX_THREADS, Integer.class);
+    }
+
+    @Provides @Singleton public static JoinExecutorService
+    joinExecutorService(@Named("override") @Nullable JoinExecutorService override,
+                        FreqelConfig config, Provider<PoolJoinExecutorService> poolProvider) {
+        if (override != null)
+            return override;
+        String poolName = PoolJoinExecutorService.class.getName();
+        String name = requireNonNull(config.get(JOIN_EXECUTOR, String.class));
+        if (name.equals(poolName) || poolName.endsWith(name))
+            return poolProvider.get();
+        return ModuleHelper.get(JoinExecutorService.class, name);
+    }
+
+    /**
+     * Pool for {@link ParallelValuesBindJoinResults} batches. It is not shared with hash
+     * joins, whose tasks may block consuming a bind join that waits for its batches.
+     */
+    @Provides @Singleton public static @Named("bindJoin") JoinExecutorService
+    bindJoinExecutorService(@Named("joinMaxThreads") int maxThreads,
+                            @Named("virtualThreads") boolean virtualThreads,
+                            PerformanceListener performance) {
+        return new PoolJoinExecutorService(maxThreads, virtualThreads, performance);
+    }
+
+    @Provides @Reusable public static @Named("hashJoinMemoryBudgetMB") int
+    hashJoinMemoryBudgetMB(@Named("hashJoinMemoryBudgetMBOverride") @Nullable Integer override,
+                           FreqelConfig config) {
+        return override != null ? override
+                                : config.get(HASH_JOIN_MEMORY_BUDGET_MB, Integer.class);
+    }
+
     @Provides @Reusable public static HashJoinResultsFactory
     hashJoinResultsFactory(@Nullable @Named("override") HashJoinResultsFactory override,
-                           FreqelConfig config) {
+                           FreqelConfig config,
+                           ParallelInMemoryHashJoinResults.Factory parallelFac,
+                           PartitionedHashJoinResults.Factory partitionedFac,
+                           InMemoryHashJoinResults.Factory inMemoryFac,
+                           GraceHashJoinResults.Factory graceFac) {
         if (override != null)
             return override;
         String name = requireNonNull(config.get(HASH_JOIN_RESULTS_FACTORY, String.class));
-        return ModuleHelper.get(HashJoinResultsFactory.class, name);
+        return ModuleHelper.get(HashJoinResultsFactory.class, name, parallelFac,
+                                 partitionedFac, inMemoryFac, graceFac);
+    }
+
+    @Provides @Reusable public static @Named("bindJoinMaxInFlight") int
+    bindJoinMaxInFlight(@Named("bindJoinMaxInFlightOverride") @Nullable Integer override,
+                        FreqelConfig config) {
+        return override != null ? override : config.get(BIND_JOIN_MAX_IN_FLIGHT, Integer.class);
+    }
+
+    @Provides @Reusable public static @Named("bindJoinMaxInFlightPerEndpoint") int
+    bindJoinMaxInFlightPerEndpoint(@Named("bindJoinMaxInFlightPerEndpointOverride")
+                                   @Nullable Integer override, FreqelConfig config) {
+        return override != null ? override
+                                : config.get(BIND_JOIN_MAX_IN_FLIGHT_PER_ENDPOINT, Integer.class);
+    }
+
+    @Provides @Reusable public static @Named("bindJoinValuesTargetMs") int
+    bindJoinValuesTargetMs(@Named("bindJoinValuesTargetMsOverride") @Nullable Integer override,
+                           FreqelConfig config) {
+        return override != null ? override
+                                : config.get(BIND_JOIN_VALUES_TARGET_MS, Integer.class);
+    }
+
+    @Provides @Reusable public static @Named("bindJoinValuesMaxRows") int
+    bindJoinValuesMaxRows(@Named("bindJoinValuesMaxRowsOverride") @Nullable Integer override,
+                          FreqelConfig config) {
+        return override != null ? override
+                                : config.get(BIND_JOIN_VALUES_MAX_ROWS, Integer.class);
+    }
+
+    @Provides @Reusable public static @Named("bindJoinCacheSize") int
+    bindJoinCacheSize(@Named("bindJoinCacheSizeOverride") @Nullable Integer override,
+                      FreqelConfig config) {
+        return override != null ? override : config.get(BIND_JOIN_CACHE_SIZE, Integer.class);
+    }
+
+    @Provides @Reusable public static @Named("bindJoinCacheTtlSeconds") int
+    bindJoinCacheTtlSeconds(@Named("bindJoinCacheTtlSecondsOverride") @Nullable Integer override,
+                            FreqelConfig config) {
+        return override != null ? override
+                                : config.get(BIND_JOIN_CACHE_TTL_SECONDS, Integer.class);
     }
 
     @Provides @Reusable public static BindJoinResultsFactory
     bindJoinResultsFactory(@Nullable @Named("override") BindJoinResultsFactory override,
                            FreqelConfig config,
-                           SimpleBindJoinResults.Factory simpleFac) {
+                           SimpleBindJoinResults.Factory simpleFac,
+                           ParallelValuesBindJoinResults.Factory parallelFac) {
         if (override != null)
             return override;
         String name = requireNonNull(config.get(BIND_JOIN_RESULTS_FACTORY, String.class));
-        return ModuleHelper.get(BindJoinResultsFactory.class, name, simpleFac);
+        return ModuleHelper.get(BindJoinResultsFactory.class, name, simpleFac, parallelFac);
+    }
+
+    @Provides @Reusable public static @Named("adaptiveJoinThreshold") int
+    adaptiveJoinThreshold(@Named("adaptiveJoinThresholdOverride") @Nullable Integer override,
+                          FreqelConfig config) {
+        return override != null ? override
+                                : config.get(ADAPTIVE_JOIN_THRESHOLD, Integer.class);
+    }
+
+    @Provides @Reusable public static @Named("mergeJoin") boolean
+    mergeJoin(@Named("mergeJoinOverride") @Nullable Boolean override, FreqelConfig config) {
+        return override != null ? override : config.get(MERGE_JOIN, Boolean.class);
     }
 
     @Provides @Reusable public static JoinOpExecutor
     joinExecutor(@Nullable @Named("override") JoinOpExecutor override,
                  FreqelConfig config,
                  FixedHashJoinOpExecutor fixedHash, FixedBindJoinOpExecutor fixedBind,
-                 DefaultHashJoinOpExecutor defHash, DefaultJoinOpExecutor def) {
+                 DefaultHashJoinOpExecutor defHash, DefaultJoinOpExecutor def,
+                 AdaptiveJoinOpExecutor adaptive) {
         if (override != null)
             return override;
         String name = requireNonNull(config.get(JOIN_OP_EXECUTOR, String.class));
-        return ModuleHelper.get(JoinOpExecutor.class, name, fixedHash, defHash, fixedBind, def);
+        return ModuleHelper.get(JoinOpExecutor.class, name, fixedHash, defHash, fixedBind, def,
+                                 adaptive);
     }
 }
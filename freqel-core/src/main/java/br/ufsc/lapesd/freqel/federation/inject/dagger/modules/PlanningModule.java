@@ -177,6 +177,10 @@ public abstract class PlanningModule {
             deepSteps.add(new PushDistinctStep());
         if (config.get(POSTPLANNER_PUSH_LIMIT, Boolean.class))
             deepSteps.add(new PushLimitStep());
+        if (config.get(POSTPLANNER_PUSH_ORDER, Boolean.class))
+            deepSteps.add(new PushOrderStep());
+        if (config.get(POSTPLANNER_PUSH_AGGREGATION, Boolean.class))
+            deepSteps.add(new PushAggregationStep());
         if (config.get(POSTPLANNER_PIPE_CLEANER, Boolean.class))
             deepSteps.add(new PipeCleanerStep());
         if (config.get(POSTPLANNER_PUSH_DISJUNCTIVE, Boolean.class))
@@ -1,6 +1,7 @@
 package br.ufsc.lapesd.freqel.federation.inject.dagger.modules;
 
 import br.ufsc.lapesd.freqel.federation.FreqelConfig;
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfiler;
 import br.ufsc.lapesd.freqel.federation.spec.source.SourceCache;
 import br.ufsc.lapesd.freqel.federation.spec.source.SourceLoader;
 import br.ufsc.lapesd.freqel.federation.spec.source.SourceLoaderRegistry;
@@ -27,12 +28,16 @@ public abstract class SourcesModule {
     @Provides @Singleton public static SourceLoaderRegistry
     sourceLoaderRegistry(@Named("tempDir") File tempDir,
                          SourceCache sourceCache,
-                         @Named("indexing") BackoffStrategy indexingBackoffStrategy) {
+                         @Named("indexing") BackoffStrategy indexingBackoffStrategy,
+                         @Named("virtualThreads") boolean virtualThreads,
+                         EndpointProfiler endpointProfiler) {
         SourceLoaderRegistry registry = new SourceLoaderRegistry().registerAllSPIs();
         for (SourceLoader loader : registry.getSourceLoaders()) {
             loader.setTempDir(tempDir);
             loader.setSourceCache(sourceCache);
             loader.setIndexingBackoffStrategy(indexingBackoffStrategy);
+            loader.setVirtualThreads(virtualThreads);
+            loader.setEndpointProfiler(endpointProfiler);
         }
         return registry;
     }
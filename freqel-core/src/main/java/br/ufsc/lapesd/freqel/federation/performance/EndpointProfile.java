@@ -0,0 +1,123 @@
+package br.ufsc.lapesd.freqel.federation.performance;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Runtime behaviour observed for a single endpoint: exponentially weighted moving averages
+ * (EWMA) of the latency until the first solution, of the solutions per second received after
+ * the first and of the fraction of failed requests.
+ *
+ * Averages with less than {@link #MIN_SAMPLES} samples are considered unknown and
+ * reported as {@link Double#NaN}.
+ */
+@ThreadSafe
+public class EndpointProfile {
+    /**
+     * Weight of a new sample in the averages.
+     */
+    public static final double ALPHA = 0.2;
+    public static final int MIN_SAMPLES = 3;
+
+    private double firstRowMs = Double.NaN, rowsPerSecond = Double.NaN, failureRate = 0;
+    private long latencySamples = 0, throughputSamples = 0, requests = 0;
+    private boolean dirty = false;
+
+    /**
+     * Serialization format used by {@link EndpointProfiler} to persist a profile.
+     */
+    public static class State {
+        public double firstRowMs = Double.NaN;
+        public double rowsPerSecond = Double.NaN;
+        public double failureRate = 0;
+        public long latencySamples = 0;
+        public long throughputSamples = 0;
+        public long requests = 0;
+    }
+
+    public EndpointProfile() { }
+
+    public EndpointProfile(@Nonnull State state) {
+        this.firstRowMs = state.firstRowMs;
+        this.rowsPerSecond = state.rowsPerSecond;
+        this.failureRate = state.failureRate;
+        this.latencySamples = state.latencySamples;
+        this.throughputSamples = state.throughputSamples;
+        this.requests = state.requests;
+    }
+
+    public synchronized @Nonnull State toState() {
+        State state = new State();
+        state.firstRowMs = firstRowMs;
+        state.rowsPerSecond = rowsPerSecond;
+        state.failureRate = failureRate;
+        state.latencySamples = latencySamples;
+        state.throughputSamples = throughputSamples;
+        state.requests = requests;
+        return state;
+    }
+
+    private static double update(double average, long samples, double value) {
+        return samples == 0 || Double.isNaN(average) ? value : average + ALPHA*(value - average);
+    }
+
+    public synchronized void sampleFirstRow(double ms) {
+        firstRowMs = update(firstRowMs, latencySamples++, Math.max(0, ms));
+        dirty = true;
+    }
+
+    public synchronized void sampleRowsPerSecond(double rowsPerSecond) {
+        this.rowsPerSecond = update(this.rowsPerSecond, throughputSamples++, rowsPerSecond);
+        dirty = true;
+    }
+
+    /**
+     * Record whether a request completed or failed.
+     */
+    public synchronized void sampleOutcome(boolean failed) {
+        failureRate = update(failureRate, requests++, failed ? 1 : 0);
+        dirty = true;
+    }
+
+    /**
+     * Average milliseconds until the first solution or {@link Double#NaN} if unknown.
+     */
+    public synchronized double getFirstRowMs() {
+        return latencySamples < MIN_SAMPLES ? Double.NaN : firstRowMs;
+    }
+
+    /**
+     * Average solutions per second after the first solution or {@link Double#NaN} if unknown.
+     */
+    public synchronized double getRowsPerSecond() {
+        return throughputSamples < MIN_SAMPLES ? Double.NaN : rowsPerSecond;
+    }
+
+    /**
+     * Average fraction, in [0, 1], of failed requests or {@link Double#NaN} if unknown.
+     */
+    public synchronized double getFailureRate() {
+        return requests < MIN_SAMPLES ? Double.NaN : failureRate;
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Whether there are samples not yet seen by {@link #clearDirty()}.
+     */
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    public synchronized void clearDirty() {
+        dirty = false;
+    }
+
+    @Override public synchronized @Nonnull String toString() {
+        return String.format("EndpointProfile{firstRowMs=%.3f, rowsPerSecond=%.3f, " +
+                             "failureRate=%.3f, requests=%d}",
+                             firstRowMs, rowsPerSecond, failureRate, requests);
+    }
+}
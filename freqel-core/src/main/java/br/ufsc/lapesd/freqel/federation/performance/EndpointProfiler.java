@@ -0,0 +1,437 @@
+package br.ufsc.lapesd.freqel.federation.performance;
+
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.leaf.EndpointOp;
+import br.ufsc.lapesd.freqel.algebra.util.TreeUtils;
+import br.ufsc.lapesd.freqel.federation.PerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.metrics.Metrics;
+import br.ufsc.lapesd.freqel.federation.spec.source.SourceCache;
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.EndpointRejectedException;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.HTTPStatusException;
+import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import com.esotericsoftware.yamlbeans.YamlReader;
+import com.esotericsoftware.yamlbeans.YamlWriter;
+import com.google.common.base.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.*;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Keeps an {@link EndpointProfile} for each {@link TPEndpoint} queried by the plan executors.
+ *
+ * Profiles are keyed by {@link TPEndpoint#getEffective()}, thus decorators share the
+ * profile of the decorated endpoint. Profiles live for as long as the endpoint objects
+ * are alive. Endpoints registered with {@link #bind(TPEndpoint, SourceCache, String)}
+ * start from the profile saved in the {@link SourceCache} and have their profile written
+ * back by {@link #save()}.
+ *
+ * Planners and executors should only act on differences deemed significant by
+ * {@link #compareLatency(double, double)}, since in-memory or local endpoints have
+ * latencies dominated by noise.
+ *
+ * Observations are made as the consumer iterates the {@link Results}, which may happen
+ * long after the endpoint answered (e.g., union children drained one after the other).
+ * See {@link #monitor(Results, TPEndpoint, Stopwatch)} for how idle consumers are handled.
+ */
+@Singleton
+public class EndpointProfiler {
+    private static final Logger logger = LoggerFactory.getLogger(EndpointProfiler.class);
+    public static final @Nonnull String FILE_TYPE = "endpoint-profile";
+    /**
+     * Latencies below this many milliseconds are all equivalent. Above it, latencies are
+     * only different if they fall in different doublings of this value, see
+     * {@link #latencyBucket(double)}.
+     */
+    public static final double LATENCY_FLOOR_MS = 50;
+    /**
+     * A consumer that waited less than this for the first solution did not wait for the
+     * endpoint: the solution was already available.
+     */
+    private static final double WAITED_MS = 1;
+    /**
+     * Results with fewer solutions than this are not used to estimate throughput.
+     */
+    public static final int MIN_THROUGHPUT_ROWS = 32;
+    /**
+     * Failure rates are capped at this value when penalizing latencies.
+     */
+    private static final double MAX_FAILURE_RATE = 0.9;
+
+    private final @Nonnull Map<TPEndpoint, EndpointProfile> profiles
+            = Collections.synchronizedMap(new WeakHashMap<>());
+    private final @Nonnull Map<TPEndpoint, Binding> bindings
+            = Collections.synchronizedMap(new WeakHashMap<>());
+    private final @Nonnull PerformanceListener performance;
+
+    private static class Binding {
+        final @Nonnull SourceCache cache;
+        final @Nonnull String sourceId;
+
+        Binding(@Nonnull SourceCache cache, @Nonnull String sourceId) {
+            this.cache = cache;
+            this.sourceId = sourceId;
+        }
+    }
+
+    private static class DefaultHolder {
+        private static final @Nonnull EndpointProfiler INSTANCE
+                = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+    }
+
+    @Inject
+    public EndpointProfiler(@Nonnull PerformanceListener performance) {
+        this.performance = performance;
+    }
+
+    public static @Nonnull EndpointProfiler getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /* --- --- --- profiles --- --- --- */
+
+    /**
+     * Get the profile of the endpoint, or null if nothing was observed for it.
+     */
+    public @Nullable EndpointProfile getProfile(@Nonnull TPEndpoint endpoint) {
+        return profiles.get(endpoint.getEffective());
+    }
+
+    private @Nonnull EndpointProfile get(@Nonnull TPEndpoint endpoint) {
+        return profiles.computeIfAbsent(endpoint.getEffective(), k -> new EndpointProfile());
+    }
+
+    /**
+     * Get the endpoints that will be queried to execute node, or null if node is not an
+     * {@link EndpointOp} nor a union of {@link EndpointOp}s.
+     */
+    public static @Nullable List<TPEndpoint> getEndpoints(@Nonnull Op node) {
+        List<Op> children = TreeUtils.childrenIfUnion(node);
+        List<TPEndpoint> list = new ArrayList<>(children.size());
+        for (Op child : children) {
+            if (!(child instanceof EndpointOp))
+                return null;
+            list.add(((EndpointOp) child).getEndpoint());
+        }
+        return list.isEmpty() ? null : list;
+    }
+
+    /**
+     * Average milliseconds until the first solution of the endpoint, divided by the
+     * probability of the request not failing.
+     *
+     * @return the latency or {@link Double#NaN} if unknown
+     */
+    public double getFirstRowMs(@Nonnull TPEndpoint endpoint) {
+        EndpointProfile profile = getProfile(endpoint);
+        if (profile == null)
+            return Double.NaN;
+        double ms = profile.getFirstRowMs(), failureRate = profile.getFailureRate();
+        if (Double.isNaN(failureRate))
+            return ms;
+        return ms / (1 - Math.min(MAX_FAILURE_RATE, failureRate));
+    }
+
+    /**
+     * Average solutions per second of the endpoint after the first solution.
+     *
+     * @return the throughput or {@link Double#NaN} if unknown
+     */
+    public double getRowsPerSecond(@Nonnull TPEndpoint endpoint) {
+        EndpointProfile profile = getProfile(endpoint);
+        return profile == null ? Double.NaN : profile.getRowsPerSecond();
+    }
+
+    /**
+     * Get the {@link #getFirstRowMs(TPEndpoint)} of the slowest endpoint queried by node.
+     *
+     * @return the latency or {@link Double#NaN} if unknown for some endpoint
+     */
+    public double getFirstRowMs(@Nonnull Op node) {
+        List<TPEndpoint> endpoints = getEndpoints(node);
+        if (endpoints == null)
+            return Double.NaN;
+        double max = 0;
+        for (TPEndpoint ep : endpoints)
+            max = Math.max(max, getFirstRowMs(ep)); // NaN propagates
+        return max;
+    }
+
+    /**
+     * Get the {@link #getRowsPerSecond(TPEndpoint)} of the slowest endpoint queried by node.
+     *
+     * @return the throughput or {@link Double#NaN} if unknown for some endpoint
+     */
+    public double getRowsPerSecond(@Nonnull Op node) {
+        List<TPEndpoint> endpoints = getEndpoints(node);
+        if (endpoints == null)
+            return Double.NaN;
+        double min = Double.MAX_VALUE;
+        for (TPEndpoint ep : endpoints)
+            min = Math.min(min, getRowsPerSecond(ep)); // NaN propagates
+        return min;
+    }
+
+    /**
+     * Compares two latencies by their {@link #latencyBucket(double)}, ignoring unknown
+     * ({@link Double#NaN}) latencies.
+     *
+     * Among known latencies, this is transitive. An unknown latency is equivalent to any
+     * other, thus sorting a mix of known and unknown latencies may yield any order.
+     *
+     * @return negative if l is significantly smaller than r, positive if r is significantly
+     *         smaller than l and zero otherwise.
+     */
+    public static int compareLatency(double l, double r) {
+        if (Double.isNaN(l) || Double.isNaN(r))
+            return 0;
+        return Integer.compare(latencyBucket(l), latencyBucket(r));
+    }
+
+    /**
+     * Bucket of a latency: 0 for latencies below {@link #LATENCY_FLOOR_MS}, then 1 for
+     * [1, 2) times the floor, 2 for [2, 4) times the floor, and so on.
+     */
+    public static int latencyBucket(double ms) {
+        if (!(ms >= LATENCY_FLOOR_MS))
+            return 0;
+        return 1 + Math.getExponent(ms / LATENCY_FLOOR_MS);
+    }
+
+    /* --- --- --- observations --- --- --- */
+
+    /**
+     * Record that a query to the endpoint failed before returning a {@link Results}.
+     *
+     * {@link EndpointRejectedException}s are ignored, since the endpoint never saw
+     * the query. So are {@link HTTPStatusException}s for too large requests, since the
+     * endpoint would have answered a smaller request.
+     */
+    public void onFailure(@Nonnull TPEndpoint endpoint, @Nonnull Throwable cause) {
+        if (isEndpointFailure(cause))
+            get(endpoint).sampleOutcome(true);
+    }
+
+    private static boolean isEndpointFailure(@Nonnull Throwable cause) {
+        if (cause instanceof EndpointRejectedException)
+            return false;
+        HTTPStatusException status = HTTPStatusException.find(cause);
+        return status == null || !status.isRequestTooLarge();
+    }
+
+    /**
+     * Wraps the results of a query sent to the endpoint when sw was started, recording
+     * the latency until the first solution, the throughput after it and whether the
+     * results were exhausted or failed. Results closed before exhaustion only contribute
+     * the latency, if already observed.
+     *
+     * The latency is not measured from when sw started but from the first time the
+     * consumer asks for a solution if the results are neither {@link Results#isAsync()}
+     * nor {@link Results#isReactive()}, since such results only do work when asked.
+     * For the other results, the latency is only recorded if the consumer had to wait
+     * for the first solution or if it asked for it within {@link #LATENCY_FLOOR_MS}.
+     * Else, the endpoint answered at some unknown point while the consumer was idle.
+     */
+    public @Nonnull Results monitor(@Nonnull Results results, @Nonnull TPEndpoint endpoint,
+                                    @Nonnull Stopwatch sw) {
+        return new ProfiledResults(results, get(endpoint), sw);
+    }
+
+    private class ProfiledResults extends DelegatingResults {
+        private final @Nonnull EndpointProfile profile;
+        private final @Nonnull Stopwatch sw;
+        private final boolean eager;
+        private double askedMs = -1, firstRowMs = -1;
+        private int count = 0;
+        private boolean reported = false;
+
+        ProfiledResults(@Nonnull Results in, @Nonnull EndpointProfile profile,
+                        @Nonnull Stopwatch sw) {
+            super(in.getVarNames(), in);
+            this.profile = profile;
+            this.sw = sw;
+            this.eager = in.isAsync() || in.isReactive();
+        }
+
+        private double elapsedMs() {
+            return sw.elapsed(MICROSECONDS)/1000.0;
+        }
+
+        private void asked() {
+            if (askedMs < 0)
+                askedMs = elapsedMs();
+        }
+
+        private void answered() {
+            if (firstRowMs >= 0)
+                return;
+            firstRowMs = elapsedMs();
+            double ms;
+            if (!eager)
+                ms = firstRowMs - askedMs;
+            else if (firstRowMs - askedMs >= WAITED_MS || askedMs < LATENCY_FLOOR_MS)
+                ms = firstRowMs;
+            else
+                return; // answered while the consumer was idle
+            profile.sampleFirstRow(ms);
+            performance.sample(Metrics.ENDPOINT_FIRST_ROW_MS, ms);
+        }
+
+        private void exhausted() {
+            answered();
+            if (reported)
+                return;
+            reported = true;
+            double transferMs = elapsedMs() - firstRowMs;
+            if (count >= MIN_THROUGHPUT_ROWS && transferMs > 0)
+                profile.sampleRowsPerSecond((count - 1) * 1000.0 / transferMs);
+            profile.sampleOutcome(false);
+        }
+
+        private void fail(@Nonnull Throwable e) {
+            if (!reported) {
+                reported = true;
+                if (isEndpointFailure(e))
+                    profile.sampleOutcome(true);
+            }
+        }
+
+        @Override public boolean isReactive() {
+            return in.isReactive();
+        }
+
+        @Override public @Nonnull Flux<Solution> flux() {
+            return in.flux().doOnSubscribe(s -> asked())
+                            .doOnNext(s -> {
+                                answered();
+                                ++count;
+                            })
+                            .doOnComplete(this::exhausted)
+                            .doOnError(this::fail);
+        }
+
+        @Override public boolean hasNext() {
+            asked();
+            try {
+                boolean hasNext = in.hasNext();
+                if (hasNext)
+                    answered();
+                else
+                    exhausted();
+                return hasNext;
+            } catch (RuntimeException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        @Override public boolean hasNext(int millisecondsTimeout) {
+            asked();
+            try {
+                boolean hasNext = in.hasNext(millisecondsTimeout);
+                if (hasNext) // false may just be a timeout
+                    answered();
+                return hasNext;
+            } catch (RuntimeException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        @Override public @Nonnull Solution next() {
+            asked();
+            try {
+                Solution solution = in.next();
+                answered();
+                ++count;
+                return solution;
+            } catch (RuntimeException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        @Override public void close() throws ResultsCloseException {
+            reported = true;
+            super.close();
+        }
+    }
+
+    /* --- --- --- persistence --- --- --- */
+
+    /**
+     * Persist the profile of the endpoint in cache under the given sourceId. If there is a
+     * profile saved for sourceId, it replaces any profile in memory for the endpoint.
+     */
+    public void bind(@Nonnull TPEndpoint endpoint, @Nonnull SourceCache cache,
+                     @Nonnull String sourceId) {
+        TPEndpoint effective = endpoint.getEffective();
+        bindings.put(effective, new Binding(cache, sourceId));
+        try {
+            File file = cache.getFile(FILE_TYPE, sourceId);
+            if (file == null)
+                return;
+            try (FileInputStream stream = new FileInputStream(file);
+                 InputStreamReader reader = new InputStreamReader(stream, UTF_8)) {
+                EndpointProfile.State state = new YamlReader(reader).read(EndpointProfile.State.class);
+                if (state != null) {
+                    profiles.put(effective, new EndpointProfile(state));
+                    logger.debug("Loaded profile of {} from {}", sourceId, file);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to load the profile of {} from cache dir {}",
+                         sourceId, cache.getDir(), e);
+        }
+    }
+
+    /**
+     * Writes the profiles of bound endpoints that changed since loaded or last saved.
+     */
+    public void save() {
+        List<Map.Entry<TPEndpoint, Binding>> entries;
+        synchronized (bindings) {
+            entries = new ArrayList<>(bindings.entrySet());
+        }
+        for (Map.Entry<TPEndpoint, Binding> e : entries) {
+            EndpointProfile profile = profiles.get(e.getKey());
+            if (profile == null || !profile.isDirty())
+                continue;
+            Binding binding = e.getValue();
+            try {
+                save(profile, binding);
+            } catch (IOException ex) {
+                logger.error("Failed to save the profile of {} at cache dir {}",
+                             binding.sourceId, binding.cache.getDir(), ex);
+            }
+        }
+    }
+
+    private void save(@Nonnull EndpointProfile profile,
+                      @Nonnull Binding binding) throws IOException {
+        binding.cache.reloadIndex();
+        File file = binding.cache.createFile(FILE_TYPE, "yaml", binding.sourceId);
+        EndpointProfile.State state = profile.toState();
+        profile.clearDirty();
+        try (FileOutputStream stream = new FileOutputStream(file);
+             OutputStreamWriter writer = new OutputStreamWriter(stream, UTF_8)) {
+            YamlWriter yamlWriter = new YamlWriter(writer);
+            yamlWriter.write(state);
+            yamlWriter.close();
+        }
+        logger.debug("Saved profile of {} at {}", binding.sourceId, file);
+    }
+}
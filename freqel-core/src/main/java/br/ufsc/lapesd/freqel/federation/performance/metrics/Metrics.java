@@ -4,6 +4,11 @@ import br.ufsc.lapesd.freqel.algebra.Op;
 import br.ufsc.lapesd.freqel.util.BenchmarkUtils;
 import br.ufsc.lapesd.freqel.description.Description;
 import br.ufsc.lapesd.freqel.federation.Federation;
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.AdaptiveJoinOpExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.BindJoinCache;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.ValuesBatchSizeController;
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfiler;
 import br.ufsc.lapesd.freqel.federation.performance.metrics.impl.SimpleMetric;
 import br.ufsc.lapesd.freqel.federation.performance.metrics.impl.SimpleTimeMetric;
 import br.ufsc.lapesd.freqel.federation.planner.PostPlanner;
@@ -100,4 +105,72 @@ public class Metrics {
      */
     public static @Nonnull SimpleTimeMetric COOLDOWN_MS
             = new SimpleTimeMetric("PREHEAT_COOLDOWN_MS");
+
+    /**
+     * Strategy (a name from {@link AdaptiveJoinOpExecutor.Strategy}) taken by each join
+     * executed by {@link AdaptiveJoinOpExecutor}.
+     */
+    public static final @Nonnull SimpleMetric<String> ADAPTIVE_JOIN_STRATEGY
+            = SimpleMetric.builder("ADAPTIVE_JOIN_STRATEGY").create(String.class);
+
+    /**
+     * Number of solutions of the smaller operand consumed by the bind phase of an
+     * {@link AdaptiveJoinOpExecutor} join before its strategy became final.
+     */
+    public static final @Nonnull SimpleMetric<Integer> ADAPTIVE_JOIN_SMALLER_ROWS
+            = SimpleMetric.builder("ADAPTIVE_JOIN_SMALLER_ROWS").create(Integer.class);
+
+    /**
+     * Arrival rate (solutions per second) of the solutions counted in
+     * {@link Metrics#ADAPTIVE_JOIN_SMALLER_ROWS}.
+     */
+    public static final @Nonnull SimpleMetric<Double> ADAPTIVE_JOIN_SMALLER_ROWS_PER_SEC
+            = SimpleMetric.builder("ADAPTIVE_JOIN_SMALLER_ROWS_PER_SEC").create(Double.class);
+
+    /**
+     * New VALUES batch size learned by {@link ValuesBatchSizeController} for some endpoint.
+     * A sample is only taken when the size changes.
+     */
+    public static final @Nonnull SimpleMetric<Integer> VALUES_BATCH_SIZE
+            = SimpleMetric.builder("VALUES_BATCH_SIZE").create(Integer.class);
+
+    /**
+     * Milliseconds from request to last solution of each successful VALUES batch whose
+     * outcome was reported to the {@link ValuesBatchSizeController}.
+     */
+    public static final @Nonnull SimpleMetric<Double> VALUES_BATCH_MS
+            = SimpleMetric.builder("VALUES_BATCH_MS").create(Double.class);
+
+    /**
+     * Number of bound tuples of a VALUES bind-join batch answered by the {@link BindJoinCache}.
+     */
+    public static final @Nonnull SimpleMetric<Integer> BIND_JOIN_CACHE_HITS
+            = SimpleMetric.builder("BIND_JOIN_CACHE_HITS").create(Integer.class);
+
+    /**
+     * Fraction of all bound tuples looked up in the {@link BindJoinCache} that were hits.
+     */
+    public static final @Nonnull SimpleMetric<Double> BIND_JOIN_CACHE_HIT_RATE
+            = SimpleMetric.builder("BIND_JOIN_CACHE_HIT_RATE").create(Double.class);
+
+    /**
+     * Milliseconds from sending a query to an endpoint until its first solution (or the end
+     * of its results), as observed by the {@link EndpointProfiler}.
+     */
+    public static final @Nonnull SimpleMetric<Double> ENDPOINT_FIRST_ROW_MS
+            = SimpleMetric.builder("ENDPOINT_FIRST_ROW_MS").create(Double.class);
+
+    /**
+     * Number of tasks waiting in the {@link JoinExecutorService} queue, sampled whenever a
+     * submitted task could not start immediately.
+     */
+    public static final @Nonnull SimpleMetric<Integer> JOIN_POOL_QUEUED_TASKS
+            = SimpleMetric.builder("JOIN_POOL_QUEUED_TASKS").create(Integer.class);
+
+    /**
+     * Total number of tasks rejected by the {@link JoinExecutorService}, sampled on
+     * every rejection.
+     */
+    public static final @Nonnull SimpleMetric<Long> JOIN_POOL_REJECTED_TASKS
+            = SimpleMetric.builder("JOIN_POOL_REJECTED_TASKS").create(Long.class);
 }
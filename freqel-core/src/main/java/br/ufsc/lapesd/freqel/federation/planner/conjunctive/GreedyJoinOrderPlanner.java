@@ -10,6 +10,7 @@ import br.ufsc.lapesd.freqel.algebra.util.TreeUtils;
 import br.ufsc.lapesd.freqel.cardinality.CardinalityEnsemble;
 import br.ufsc.lapesd.freqel.cardinality.JoinCardinalityEstimator;
 import br.ufsc.lapesd.freqel.federation.PerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfiler;
 import br.ufsc.lapesd.freqel.federation.performance.metrics.Metrics;
 import br.ufsc.lapesd.freqel.federation.performance.metrics.TimeSampler;
 import br.ufsc.lapesd.freqel.federation.planner.EquivCleaner;
@@ -37,18 +38,30 @@ public class GreedyJoinOrderPlanner implements JoinOrderPlanner {
     private final @Nonnull CardinalityAdder cardAdder;
     private final @Nonnull JoinCardinalityEstimator joinCardinalityEstimator;
     private final @Nonnull EquivCleaner equivCleaner;
+    private final @Nonnull EndpointProfiler profiler;
 
     @Inject
     public GreedyJoinOrderPlanner(@Nonnull PerformanceListener performance,
                                   @Nonnull CardinalityEnsemble cardEnsemble,
                                   @Nonnull CardinalityAdder cardinalityAdder,
                                   @Nonnull JoinCardinalityEstimator joinCardinalityEstimator,
-                                  @Nonnull EquivCleaner equivCleaner) {
+                                  @Nonnull EquivCleaner equivCleaner,
+                                  @Nonnull EndpointProfiler profiler) {
         this.performance = performance;
         this.cardEnsemble = cardEnsemble;
         this.cardAdder = cardinalityAdder;
         this.joinCardinalityEstimator = joinCardinalityEstimator;
         this.equivCleaner = equivCleaner;
+        this.profiler = profiler;
+    }
+
+    public GreedyJoinOrderPlanner(@Nonnull PerformanceListener performance,
+                                  @Nonnull CardinalityEnsemble cardEnsemble,
+                                  @Nonnull CardinalityAdder cardinalityAdder,
+                                  @Nonnull JoinCardinalityEstimator joinCardinalityEstimator,
+                                  @Nonnull EquivCleaner equivCleaner) {
+        this(performance, cardEnsemble, cardinalityAdder, joinCardinalityEstimator,
+             equivCleaner, EndpointProfiler.getDefault());
     }
 
     @VisibleForTesting
@@ -57,12 +70,14 @@ public class GreedyJoinOrderPlanner implements JoinOrderPlanner {
         public @Nonnull final RefIndexSet<Op> clean;
         public @Nonnull final IndexSubset<Op> pending;
         public @Nonnull final IndexSubset<Op> webApi;
+        public @Nonnull final Comparator<Op> nodeComparator
+                = Comparator.comparing(n -> new OrderTuple(n, profiler));
 
         public Data(@Nonnull JoinGraph graph, @Nonnull Collection<Op> nodesCollection) {
             this.graph = graph;
             List<Op> cleanList = new ArrayList<>();
             for (Op node : nodesCollection) {
-                Op c = equivCleaner.cleanEquivalents(node, OrderTuple.NODE_COMPARATOR);
+                Op c = equivCleaner.cleanEquivalents(node, nodeComparator);
                 c.setCardinality(TreeUtils.estimate(c, cardEnsemble, cardAdder));
                 cleanList.add(c);
             }
@@ -79,6 +94,10 @@ public class GreedyJoinOrderPlanner implements JoinOrderPlanner {
             return JoinInfo.getJoinability(a, b);
         }
 
+        @Nonnull EndpointProfiler profiler() {
+            return profiler;
+        }
+
         @Nonnull Op take(@Nonnull Op node) {
             assert clean.contains(node);
             assert pending.contains(node);
@@ -98,7 +117,8 @@ public class GreedyJoinOrderPlanner implements JoinOrderPlanner {
             checkArgument(!nodesCollection.isEmpty(),
                           "Cannot optimize joins without nodes to join!");
             Data d = new Data(joinGraph, nodesCollection);
-            Weigher weigher = new Weigher(takeInitialJoin(d, joinCardinalityEstimator));
+            Weigher weigher = new Weigher(takeInitialJoin(d, joinCardinalityEstimator),
+                                          profiler);
             boolean optional = weigher.root.modifiers().optional() != null;
             while (!d.pending.isEmpty()) {
                 Op best = d.pending.stream().min(weigher.comparator).orElse(null);
@@ -138,7 +158,9 @@ public class GreedyJoinOrderPlanner implements JoinOrderPlanner {
                 // Build OrderTuple for this hypothetical join and compare to best
                 boolean isWebApi = d.webApi.contains(outer) || d.webApi.contains(inner);
                 int pendingInputs = info.getPendingRequiredInputs().size();
-                OrderTuple tuple = new OrderTuple(joinCard, pendingInputs, isWebApi);
+                double latencyMs = Math.max(d.profiler().getFirstRowMs(outer),
+                                            d.profiler().getFirstRowMs(inner));
+                OrderTuple tuple = new OrderTuple(joinCard, pendingInputs, isWebApi, latencyMs);
                 if (tuple.compareTo(best) < 0) {
                     bestOuter = outer;
                     bestInner = inner;
@@ -149,7 +171,7 @@ public class GreedyJoinOrderPlanner implements JoinOrderPlanner {
 
         checkArgument(bestOuter != null,
                       "Found no joins in JoinGraph (with "+size+" nodes)!");
-        int diff = OrderTuple.NODE_COMPARATOR.compare(bestOuter, bestInner);
+        int diff = d.nodeComparator.compare(bestOuter, bestInner);
         if (diff > 0) { // swap so that the best node is the left node
             Op tmp = bestOuter;
             bestOuter = bestInner;
@@ -168,9 +190,11 @@ public class GreedyJoinOrderPlanner implements JoinOrderPlanner {
     private static class Weigher implements Function<Op, OrderTuple> {
         public @Nonnull Op root;
         public Comparator<Op> comparator;
+        private final @Nonnull EndpointProfiler profiler;
 
-        public Weigher(@Nonnull Op root) {
+        public Weigher(@Nonnull Op root, @Nonnull EndpointProfiler profiler) {
             this.root = root;
+            this.profiler = profiler;
             comparator = Comparator.comparing(this);
         }
 
@@ -191,15 +215,14 @@ public class GreedyJoinOrderPlanner implements JoinOrderPlanner {
             if (pendingInputs > 0 && cardinality.getReliability().ordinal() > LOWER_BOUND.ordinal())
                 cardinality = Cardinality.lowerBound(cardinality.getValue(MAX_VALUE)*2);
 
-            return new OrderTuple(cardinality, pendingInputs, hasWebApi);
+            return new OrderTuple(cardinality, pendingInputs, hasWebApi,
+                                  profiler.getFirstRowMs(node));
         }
     }
 
     static class OrderTuple implements Comparable<OrderTuple> {
         public static final @Nonnull OrderTuple MAX =
                 new OrderTuple(Cardinality.lowerBound(MAX_VALUE), Integer.MAX_VALUE, false);
-        public static final @Nonnull Comparator<Op> NODE_COMPARATOR
-                = Comparator.comparing(OrderTuple::new);
 
         private static final int SMALL = 8;
         private static final int BIG   = 64;
@@ -207,19 +230,35 @@ public class GreedyJoinOrderPlanner implements JoinOrderPlanner {
         public @Nonnull Cardinality cardinality;
         public int pendingInputs;
         public boolean isWebApi;
+        /**
+         * Expected milliseconds until the first solution, {@link Double#NaN} if unknown.
+         * Only significant differences (see {@link EndpointProfiler#compareLatency(double, double)})
+         * affect the order.
+         */
+        public double latencyMs;
 
         public OrderTuple(@Nonnull Cardinality cardinality, int pendingInputs, boolean isWebApi) {
+            this(cardinality, pendingInputs, isWebApi, Double.NaN);
+        }
+
+        public OrderTuple(@Nonnull Cardinality cardinality, int pendingInputs, boolean isWebApi,
+                          double latencyMs) {
             if (pendingInputs < 0)
                 throw new IllegalArgumentException("pendingInputs "+pendingInputs+" must be >= 0");
             this.cardinality = cardinality;
             this.pendingInputs = pendingInputs;
             this.isWebApi = isWebApi;
+            this.latencyMs = latencyMs;
         }
 
         public OrderTuple(@Nonnull Op node) {
             this(node.getCardinality(), 0, hasWebApi(node));
         }
 
+        public OrderTuple(@Nonnull Op node, @Nonnull EndpointProfiler profiler) {
+            this(node.getCardinality(), 0, hasWebApi(node), profiler.getFirstRowMs(node));
+        }
+
         public static boolean hasWebApi(@Nonnull Op node) {
             for (Op op : TreeUtils.childrenIfUnion(node)) {
                 if (!(op instanceof EndpointQueryOp))                    continue;
@@ -235,18 +274,20 @@ public class GreedyJoinOrderPlanner implements JoinOrderPlanner {
             OrderTuple that = (OrderTuple) o;
             return pendingInputs == that.pendingInputs &&
                     isWebApi == that.isWebApi &&
+                    Double.compare(latencyMs, that.latencyMs) == 0 &&
                     cardinality.equals(that.cardinality);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(cardinality, pendingInputs, isWebApi);
+            return Objects.hash(cardinality, pendingInputs, isWebApi, latencyMs);
         }
 
         @Override
         public @Nonnull String toString() {
-            return String.format("(%s, %s, %s)", cardinality, pendingInputs,
-                                                 (isWebApi ? "" : '¬')+"WebAPI");
+            String latency = Double.isNaN(latencyMs) ? "" : String.format(", %.1fms", latencyMs);
+            return String.format("(%s, %s, %s%s)", cardinality, pendingInputs,
+                                                   (isWebApi ? "" : '¬')+"WebAPI", latency);
         }
 
         @Override
@@ -257,6 +298,10 @@ public class GreedyJoinOrderPlanner implements JoinOrderPlanner {
             diff = Integer.compare(pendingInputs, o.pendingInputs);
             if (diff != 0) return diff;
 
+            // among equivalent cardinalities, faster sources come first (and drive bind joins)
+            diff = EndpointProfiler.compareLatency(latencyMs, o.latencyMs);
+            if (diff != 0) return diff;
+
             // web apis take priority (ordered first)
             return isWebApi == o.isWebApi ? 0 : (isWebApi ? -1 : 1);
         }
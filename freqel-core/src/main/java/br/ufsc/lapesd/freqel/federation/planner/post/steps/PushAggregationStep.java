@@ -0,0 +1,64 @@
+package br.ufsc.lapesd.freqel.federation.planner.post.steps;
+
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.TakenChildren;
+import br.ufsc.lapesd.freqel.algebra.inner.PipeOp;
+import br.ufsc.lapesd.freqel.algebra.inner.UnionOp;
+import br.ufsc.lapesd.freqel.algebra.leaf.EndpointOp;
+import br.ufsc.lapesd.freqel.federation.planner.phased.PlannerShallowStep;
+import br.ufsc.lapesd.freqel.federation.planner.phased.PlannerStep;
+import br.ufsc.lapesd.freqel.query.endpoint.Capability;
+import br.ufsc.lapesd.freqel.query.modifiers.Aggregation;
+import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
+import br.ufsc.lapesd.freqel.util.ref.RefSet;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Splits an {@link Aggregation} on a {@link UnionOp} into partial aggregations on each
+ * child and a combining aggregation on the {@link UnionOp}.
+ *
+ * The step only applies if the aggregation {@link Aggregation#isDecomposable()} and at least
+ * one child is evaluated by an endpoint with the AGGREGATION {@link Capability}. Such
+ * children will send only one solution per group instead of all solutions. Other
+ * children will compute their partial aggregates locally.
+ */
+public class PushAggregationStep implements PlannerStep, PlannerShallowStep {
+    @Override
+    public @Nonnull Op plan(@Nonnull Op root, @Nonnull RefSet<Op> shared) {
+        return visit(root, shared);
+    }
+
+    @Override public @Nonnull Op visit(@Nonnull Op op, @Nonnull RefSet<Op> shared) {
+        if (!(op instanceof UnionOp))
+            return op;
+        ModifiersSet modifiers = op.modifiers();
+        Aggregation aggregation = modifiers.aggregation();
+        if (aggregation == null || !aggregation.isDecomposable())
+            return op;
+        if (!modifiers.filters().isEmpty() || modifiers.ask() != null)
+            return op; // FILTERs must be evaluated before the aggregation
+        boolean capable = false;
+        for (Op child : op.getChildren()) {
+            if (child.modifiers().aggregation() != null)
+                return op;
+            if (child instanceof EndpointOp) {
+                EndpointOp endpointOp = (EndpointOp) child;
+                capable |= endpointOp.getEndpoint().hasCapability(Capability.AGGREGATION);
+            }
+        }
+        if (!capable)
+            return op; // no benefit
+        try (TakenChildren children = ((UnionOp) op).takeChildren().setNoContentChange()) {
+            for (int i = 0, size = children.size(); i < size; i++) {
+                Op child = children.get(i);
+                if (shared.contains(child))
+                    child = new PipeOp(child);
+                child.modifiers().add(aggregation);
+                children.set(i, child);
+            }
+        }
+        modifiers.add(aggregation.getCombiner());
+        return op;
+    }
+}
@@ -23,6 +23,8 @@ public class PushDistinctStep implements PlannerStep {
 
     private static @Nonnull Op visit(@Nonnull Op op, @Nonnull RefSet<Op> shared,
                                      boolean makeDistinct) {
+        if (op.modifiers().aggregation() != null)
+            return op; // DISTINCT does not commute with an aggregation
         boolean distinct = op.modifiers().distinct() != null;
         if (op instanceof InnerOp) {
             boolean effMakeDistinct = makeDistinct || distinct;
@@ -9,14 +9,35 @@ import br.ufsc.lapesd.freqel.algebra.inner.UnionOp;
 import br.ufsc.lapesd.freqel.federation.planner.phased.PlannerShallowStep;
 import br.ufsc.lapesd.freqel.federation.planner.phased.PlannerStep;
 import br.ufsc.lapesd.freqel.query.modifiers.Limit;
+import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
+import br.ufsc.lapesd.freqel.query.modifiers.Offset;
+import br.ufsc.lapesd.freqel.query.modifiers.OrderBy;
 import br.ufsc.lapesd.freqel.util.ref.RefSet;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 public class PushLimitStep implements PlannerStep, PlannerShallowStep {
+    /**
+     * The {@link Limit} to be added to children of a node with the given modifiers, or null
+     * if nothing should be pushed. If there is an {@link Offset}, children must produce
+     * LIMIT+OFFSET solutions. If there is an {@link OrderBy}, the LIMIT does not apply to
+     * arbitrary solutions of the children (see {@link PushOrderStep}).
+     */
+    public static @Nullable Limit pushedLimit(@Nonnull ModifiersSet modifiers) {
+        Limit limit = modifiers.limit();
+        if (limit == null || modifiers.orderBy() != null || modifiers.aggregation() != null)
+            return null;
+        Offset offset = modifiers.offset();
+        if (offset == null)
+            return limit;
+        return Limit.of((int)Math.min((long)limit.getValue() + offset.getValue(),
+                                      Integer.MAX_VALUE));
+    }
+
     @Override
     public @Nonnull Op plan(@Nonnull Op root, @Nonnull RefSet<Op> shared) {
-        Limit limit = root.modifiers().limit();
+        Limit limit = pushedLimit(root.modifiers());
         if (limit == null)
             return root;
         if (!(root instanceof UnionOp) && !(root instanceof CartesianOp))
@@ -36,7 +57,7 @@ public class PushLimitStep implements PlannerStep, PlannerShallowStep {
     }
 
     @Override public @Nonnull Op visit(@Nonnull Op op, @Nonnull RefSet<Op> shared) {
-        Limit limit = op.modifiers().limit();
+        Limit limit = pushedLimit(op.modifiers());
         if (limit == null)
             return op;
         if (!(op instanceof UnionOp) && !(op instanceof CartesianOp))
@@ -0,0 +1,63 @@
+package br.ufsc.lapesd.freqel.federation.planner.post.steps;
+
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.TakenChildren;
+import br.ufsc.lapesd.freqel.algebra.inner.PipeOp;
+import br.ufsc.lapesd.freqel.algebra.inner.UnionOp;
+import br.ufsc.lapesd.freqel.federation.planner.phased.PlannerShallowStep;
+import br.ufsc.lapesd.freqel.federation.planner.phased.PlannerStep;
+import br.ufsc.lapesd.freqel.query.modifiers.Limit;
+import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
+import br.ufsc.lapesd.freqel.query.modifiers.Offset;
+import br.ufsc.lapesd.freqel.query.modifiers.OrderBy;
+import br.ufsc.lapesd.freqel.util.ref.RefSet;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Pushes an ORDER BY with a LIMIT (a top-K) from a {@link UnionOp} into its children.
+ *
+ * Each child will produce only its first LIMIT+OFFSET solutions in the required order.
+ * Children whose endpoints have the {@link br.ufsc.lapesd.freqel.query.endpoint.Capability}
+ * ORDER_BY will sort remotely, others will keep a top-K locally. The
+ * {@link UnionOp} will then merge the sorted streams of its children.
+ */
+public class PushOrderStep implements PlannerStep, PlannerShallowStep {
+    @Override
+    public @Nonnull Op plan(@Nonnull Op root, @Nonnull RefSet<Op> shared) {
+        return visit(root, shared);
+    }
+
+    @Override public @Nonnull Op visit(@Nonnull Op op, @Nonnull RefSet<Op> shared) {
+        if (!(op instanceof UnionOp))
+            return op;
+        ModifiersSet modifiers = op.modifiers();
+        OrderBy orderBy = modifiers.orderBy();
+        Limit limit = modifiers.limit();
+        if (orderBy == null || limit == null || !modifiers.filters().isEmpty())
+            return op;
+        if (modifiers.distinct() != null || modifiers.ask() != null)
+            return op; // duplicates among children could leave less than LIMIT solutions
+        if (modifiers.aggregation() != null)
+            return op; // ORDER BY applies to the aggregated solutions
+        for (Op child : op.getChildren()) {
+            OrderBy childOrderBy = child.modifiers().orderBy();
+            if (childOrderBy != null && !childOrderBy.equals(orderBy))
+                return op;
+        }
+        Offset offset = modifiers.offset();
+        long k = limit.getValue() + (offset == null ? 0L : offset.getValue());
+        Limit childLimit = Limit.of((int)Math.min(k, Integer.MAX_VALUE));
+        try (TakenChildren children = ((UnionOp) op).takeChildren().setNoContentChange()) {
+            for (int i = 0, size = children.size(); i < size; i++) {
+                Op child = children.get(i);
+                if (shared.contains(child))
+                    child = new PipeOp(child);
+                child.modifiers().add(orderBy);
+                child.modifiers().add(childLimit);
+                children.set(i, child);
+            }
+        }
+        return op;
+    }
+}
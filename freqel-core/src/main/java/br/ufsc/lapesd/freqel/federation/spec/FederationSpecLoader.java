@@ -6,6 +6,11 @@ import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerFederationComponent;
 import br.ufsc.lapesd.freqel.federation.inject.dagger.FederationComponent;
 import br.ufsc.lapesd.freqel.federation.spec.source.SourceLoader;
 import br.ufsc.lapesd.freqel.federation.spec.source.SourceLoaderRegistry;
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.decorators.AdaptiveConcurrencyLimit;
+import br.ufsc.lapesd.freqel.query.endpoint.decorators.CircuitBreaker;
+import br.ufsc.lapesd.freqel.query.endpoint.decorators.EndpointDecorators;
+import br.ufsc.lapesd.freqel.query.endpoint.decorators.EndpointGuard;
 import br.ufsc.lapesd.freqel.util.DictTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +22,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import static br.ufsc.lapesd.freqel.query.endpoint.decorators.AdaptiveConcurrencyLimit.*;
+import static br.ufsc.lapesd.freqel.query.endpoint.decorators.CircuitBreaker.DEF_FAILURE_THRESHOLD;
+import static br.ufsc.lapesd.freqel.query.endpoint.decorators.CircuitBreaker.DEF_OPEN_MS;
+import static br.ufsc.lapesd.freqel.query.endpoint.decorators.EndpointGuard.DEF_QUEUE_TIMEOUT_MS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 public class FederationSpecLoader {
     private static final Logger logger = LoggerFactory.getLogger(FederationSpecLoader.class);
     private @Nullable List<FreqelConfig> layers = null;
@@ -53,11 +64,44 @@ public class FederationSpecLoader {
             }
             DictTree srcSpec = (DictTree) obj;
             SourceLoader loader = loaders.getLoaderFor(srcSpec);
-            loader.load(srcSpec, reference).forEach(federation::addSource);
+            DictTree guardSpec = srcSpec.getMap("guard");
+            for (TPEndpoint ep : loader.load(srcSpec, reference)) {
+                if (guardSpec != null) // each endpoint gets its own limits
+                    ep = EndpointDecorators.guarded(ep, createGuard(guardSpec));
+                federation.addSource(ep);
+            }
         }
         return federation;
     }
 
+    /**
+     * Creates an {@link EndpointGuard} from the "guard" object of a source spec.
+     *
+     * The breaker is disabled with <code>failureThreshold: 0</code> and the concurrency
+     * limit is fixed if minLimit == maxLimit.
+     */
+    private @Nonnull EndpointGuard
+    createGuard(@Nonnull DictTree spec) throws FederationSpecException {
+        try {
+            int initial = (int) spec.getLong("initialLimit", DEF_INITIAL_LIMIT);
+            int min = (int) spec.getLong("minLimit", Math.min(DEF_MIN_LIMIT, initial));
+            int max = (int) spec.getLong("maxLimit", Math.max(DEF_MAX_LIMIT, initial));
+            int maxQueued = (int) spec.getLong("maxQueued", DEF_MAX_QUEUED);
+            AdaptiveConcurrencyLimit limit
+                    = new AdaptiveConcurrencyLimit(initial, min, max, maxQueued);
+            int failureThreshold = (int) spec.getLong("failureThreshold", DEF_FAILURE_THRESHOLD);
+            CircuitBreaker breaker = null;
+            if (failureThreshold > 0) {
+                long openMs = spec.getLong("openMs", DEF_OPEN_MS);
+                breaker = new CircuitBreaker(failureThreshold, openMs, MILLISECONDS);
+            }
+            long queueTimeoutMs = spec.getLong("queueTimeoutMs", DEF_QUEUE_TIMEOUT_MS);
+            return new EndpointGuard(limit, breaker, queueTimeoutMs, MILLISECONDS);
+        } catch (IllegalArgumentException e) {
+            throw new FederationSpecException("Bad guard spec: "+e.getMessage(), e, spec);
+        }
+    }
+
     private @Nonnull FederationComponent
     createComponent(@Nonnull DictTree spec, @Nonnull File refDir) throws FederationSpecException {
         FederationComponent.Builder b = DaggerFederationComponent.builder();
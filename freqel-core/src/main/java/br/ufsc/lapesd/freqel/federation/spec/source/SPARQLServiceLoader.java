@@ -3,10 +3,13 @@ package br.ufsc.lapesd.freqel.federation.spec.source;
 import br.ufsc.lapesd.freqel.description.AskDescription;
 import br.ufsc.lapesd.freqel.description.Description;
 import br.ufsc.lapesd.freqel.description.SelectDescription;
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfiler;
 import br.ufsc.lapesd.freqel.query.endpoint.AbstractTPEndpoint;
 import br.ufsc.lapesd.freqel.query.endpoint.CQEndpoint;
 import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
 import br.ufsc.lapesd.freqel.query.endpoint.impl.CompliantTSVSPARQLClient;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.NettyCompliantTSVSPARQLClient;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.NettyHttpClient;
 import br.ufsc.lapesd.freqel.query.endpoint.impl.SPARQLClient;
 import br.ufsc.lapesd.freqel.util.BackoffStrategy;
 import br.ufsc.lapesd.freqel.util.DictTree;
@@ -32,6 +35,8 @@ public class SPARQLServiceLoader implements SourceLoader {
 
     private @Nullable SourceCache sourceCache;
     private @Nonnull BackoffStrategy backoffStrategy = ExponentialBackoff.neverRetry();
+    private boolean virtualThreads = false;
+    private @Nullable EndpointProfiler profiler;
 
     @Override
     public @Nonnull Set<String> names() {
@@ -48,6 +53,14 @@ public class SPARQLServiceLoader implements SourceLoader {
         this.backoffStrategy = strategy;
     }
 
+    @Override public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    @Override public void setEndpointProfiler(@Nonnull EndpointProfiler profiler) {
+        this.profiler = profiler;
+    }
+
     @Override
     public @Nonnull Set<TPEndpoint> load(@Nonnull DictTree spec,
                                          @Nonnull File reference) throws SourceLoadException {
@@ -56,11 +69,21 @@ public class SPARQLServiceLoader implements SourceLoader {
             throw new IllegalArgumentException(this+" does not support loader="+loader);
         String uri = getURI(spec);
         CQEndpoint ep;
-        if ("compliantTSV".equals(spec.getString("client")))
+        String client = spec.getString("client", "");
+        if ("compliantTSV".equals(client)) {
             ep = new CompliantTSVSPARQLClient(uri);
-        else
-            ep = new SPARQLClient(uri);
+        } else if ("netty".equals(client)) {
+            NettyCompliantTSVSPARQLClient netty = new NettyCompliantTSVSPARQLClient(uri);
+            if (spec.getBoolean("http2", false))
+                netty.setProtocol(NettyHttpClient.Protocol.HTTP_2);
+            netty.setMaxConcurrency((int)spec.getLong("maxConcurrency", 0));
+            ep = netty;
+        } else {
+            ep = new SPARQLClient(uri).setVirtualThreads(virtualThreads);
+        }
         ((AbstractTPEndpoint)ep).setDescription(setupDescription(spec, sourceCache, ep, uri));
+        if (profiler != null && sourceCache != null)
+            profiler.bind(ep, sourceCache, uri);
         return singleton(ep);
     }
 
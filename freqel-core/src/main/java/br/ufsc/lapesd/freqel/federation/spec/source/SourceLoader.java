@@ -1,5 +1,6 @@
 package br.ufsc.lapesd.freqel.federation.spec.source;
 
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfiler;
 import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
 import br.ufsc.lapesd.freqel.util.BackoffStrategy;
 import br.ufsc.lapesd.freqel.util.DictTree;
@@ -35,6 +36,25 @@ public interface SourceLoader {
      */
     void setIndexingBackoffStrategy(@Nonnull BackoffStrategy strategy);
 
+    /**
+     * Whether loaded sources should do blocking I/O on virtual threads instead of on
+     * platform thread pools. Loaders of sources that do not manage their own threads
+     * may ignore this.
+     *
+     * @param virtualThreads true if virtual threads are enabled and supported
+     */
+    default void setVirtualThreads(boolean virtualThreads) { }
+
+    /**
+     * Sets the {@link EndpointProfiler} of the federation. Loaders that identify their
+     * sources within the {@link SourceCache} may use
+     * {@link EndpointProfiler#bind(TPEndpoint, SourceCache, String)} so that endpoint
+     * profiles persist across executions.
+     *
+     * @param profiler the profiler used by the federation
+     */
+    default void setEndpointProfiler(@Nonnull EndpointProfiler profiler) { }
+
     /**
      * Loads the source described by the given sourceSpec.
      * @param sourceSpec Source specification
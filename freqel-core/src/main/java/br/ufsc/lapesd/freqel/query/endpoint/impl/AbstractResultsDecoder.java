@@ -0,0 +1,203 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import br.ufsc.lapesd.freqel.model.NTParseException;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.URI;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Handles the projection of columns into rows, charset transcoding and IRI caching for
+ * {@link ResultsDecoder} implementations.
+ *
+ * Subclasses call {@link #header(List)} once and then, for each row,
+ * {@link #beginRow()}, {@link #set(int, Term)} and {@link #endRow()}.
+ */
+@NotThreadSafe
+public abstract class AbstractResultsDecoder implements ResultsDecoder {
+    private static final byte[] ASCII_PROBE = "\t\n\r\"<>?{}[]:,&;/=".getBytes(US_ASCII);
+
+    protected final @Nonnull Listener listener;
+    private @Nonnull Charset charset = UTF_8;
+    private boolean transcode = false;
+    private boolean headerDone = false, discardRow = false;
+    private @Nullable int[] outputOf;
+    private @Nonnull Term[] row = new Term[0];
+    private final @Nonnull URICache uriCache = new URICache();
+
+    protected AbstractResultsDecoder(@Nonnull Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Set the charset of the response. Charsets where ASCII characters are not encoded
+     * as single bytes (e.g., UTF-16) are transcoded to UTF-8, chunk by chunk.
+     */
+    @Override public @Nonnull AbstractResultsDecoder setCharset(@Nonnull Charset charset) {
+        this.charset = charset;
+        this.transcode = needsTranscoding(charset);
+        return this;
+    }
+
+    /**
+     * Whether chunks in the given charset must be transcoded to UTF-8 before being
+     * given to {@link #feedBytes(ByteBuf)}.
+     */
+    protected boolean needsTranscoding(@Nonnull Charset charset) {
+        return !Arrays.equals(new String(ASCII_PROBE, US_ASCII).getBytes(charset), ASCII_PROBE);
+    }
+
+    @Override public void feed(@Nonnull ByteBuf chunk) {
+        if (!chunk.isReadable())
+            return;
+        if (transcode) {
+            ByteBuf utf8 = Unpooled.wrappedBuffer(chunk.toString(charset).getBytes(UTF_8));
+            chunk.skipBytes(chunk.readableBytes());
+            try {
+                feedBytes(utf8);
+            } finally {
+                utf8.release();
+            }
+        } else {
+            feedBytes(chunk);
+        }
+    }
+
+    /**
+     * Parses the chunk, already in an ASCII-compatible charset ({@link #charset()}).
+     */
+    protected abstract void feedBytes(@Nonnull ByteBuf chunk);
+
+    @Override public void reset() {
+        charset = UTF_8;
+        transcode = false;
+        headerDone = false;
+        discardRow = false;
+        outputOf = null;
+    }
+
+    /**
+     * The charset of the bytes given to {@link #feedBytes(ByteBuf)}.
+     */
+    protected @Nonnull Charset charset() {
+        return transcode ? UTF_8 : charset;
+    }
+
+    protected @Nonnull String string(@Nonnull byte[] bytes, int begin, int end) {
+        return new String(bytes, begin, end-begin, charset());
+    }
+
+    protected @Nonnull URI uri(@Nonnull byte[] bytes, int begin, int end) {
+        return uriCache.get(bytes, begin, end, charset());
+    }
+
+    protected @Nonnull URI uri(@Nonnull char[] chars, int begin, int end) {
+        return uriCache.get(chars, begin, end);
+    }
+
+    protected @Nonnull URI uri(@Nonnull String uri) {
+        return uriCache.get(uri);
+    }
+
+    protected boolean isHeaderDone() {
+        return headerDone;
+    }
+
+    /**
+     * Delivers the result variables to the listener.
+     *
+     * @param columns variable names, prefixed with '?'
+     */
+    protected void header(@Nonnull List<String> columns) {
+        headerDone = true;
+        int[] projection = listener.header(columns);
+        if (projection == null) {
+            outputOf = null;
+            row = new Term[columns.size()];
+        } else {
+            outputOf = new int[columns.size()];
+            Arrays.fill(outputOf, -1);
+            for (int i = 0; i < projection.length; i++) {
+                if (projection[i] >= 0 && projection[i] < outputOf.length)
+                    outputOf[projection[i]] = i;
+            }
+            row = new Term[projection.length];
+        }
+    }
+
+    /**
+     * Index in the row given to the listener of the given column, or -1 if the column is
+     * not projected. Terms of unprojected columns need not be parsed.
+     */
+    protected int output(int column) {
+        int out = outputOf == null ? column : (column < outputOf.length ? outputOf[column] : -1);
+        return out < row.length ? out : -1;
+    }
+
+    protected void beginRow() {
+        Arrays.fill(row, null);
+        discardRow = false;
+    }
+
+    protected boolean isDiscardingRow() {
+        return discardRow;
+    }
+
+    /**
+     * Sets the term of an output position, as given by {@link #output(int)}.
+     */
+    protected void set(int output, @Nullable Term term) {
+        if (output >= 0)
+            row[output] = term;
+    }
+
+    protected void endRow() {
+        if (!discardRow)
+            listener.row(row);
+        discardRow = false;
+    }
+
+    /**
+     * Delivers the result of an ASK query: true is a single row with no columns.
+     */
+    protected void askResult(boolean value) {
+        if (!headerDone)
+            header(Collections.emptyList());
+        if (value) {
+            beginRow();
+            endRow();
+        }
+    }
+
+    /**
+     * Parses a N-Triples term using {@link Listener#parseTerm(String)}.
+     */
+    protected @Nullable Term parseTerm(@Nonnull String nt) {
+        try {
+            return listener.parseTerm(nt);
+        } catch (NTParseException e) {
+            badTerm(nt, e);
+            return null;
+        }
+    }
+
+    /**
+     * Reports a term that could not be parsed to the listener, which may choose to discard
+     * the current row.
+     */
+    protected void badTerm(@Nonnull String term, @Nonnull NTParseException e) {
+        if (!listener.badTerm(term, e))
+            discardRow = true;
+    }
+}
@@ -8,7 +8,6 @@ import br.ufsc.lapesd.freqel.description.Description;
 import br.ufsc.lapesd.freqel.model.NTParseException;
 import br.ufsc.lapesd.freqel.model.SPARQLString;
 import br.ufsc.lapesd.freqel.model.term.Term;
-import br.ufsc.lapesd.freqel.model.term.std.StdTermFactory;
 import br.ufsc.lapesd.freqel.query.CQuery;
 import br.ufsc.lapesd.freqel.query.MutableCQuery;
 import br.ufsc.lapesd.freqel.query.endpoint.*;
@@ -50,7 +49,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static br.ufsc.lapesd.freqel.algebra.Cardinality.*;
-import static br.ufsc.lapesd.freqel.model.RDFUtils.fromNT;
 import static java.util.Collections.synchronizedSet;
 
 public class CompliantTSVSPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
@@ -233,6 +231,9 @@ public class CompliantTSVSPARQLClient extends AbstractTPEndpoint implements DQEn
             case VALUES:
             case OPTIONAL:
             case ASK:
+            case ORDER_BY:
+            case OFFSET:
+            case AGGREGATION:
                 return true;
             default:
                 return false;
@@ -275,7 +276,9 @@ public class CompliantTSVSPARQLClient extends AbstractTPEndpoint implements DQEn
                         String ct = getContentType(resp);
                         if (!ct.startsWith(TSV) && !ct.startsWith(TSV_SHORT))
                             throw new QueryExecutionException(this, "Bad Content-Type=\""+ct+"\"");
-                        return bbFlux.concatMap(new TSVParser(vars, getCharset(ct)));
+                        TSVParser parser = new TSVParser(vars, getCharset(ct));
+                        return bbFlux.concatMap(parser).concatWith(Flux.defer(parser::finish))
+                                     .doFinally(s -> parser.close());
                     } catch (Throwable t) {
                         return Mono.error(QueryExecutionException.wrap(t, this));
                     }
@@ -351,114 +354,79 @@ public class CompliantTSVSPARQLClient extends AbstractTPEndpoint implements DQEn
         }
     }
 
-    class TSVParser implements Function<ByteBuf, Publisher<Solution>> {
+    class TSVParser implements Function<ByteBuf, Publisher<Solution>>, ResultsDecoder.Listener {
         private final IndexSet<String> vars;
-        private final Charset charset;
         private final ArraySolution.ValueFactory factory;
-        private boolean header;
-        private @Nullable int[] projection;
-        private @Nullable String carry;
+        private final TSVDecoder decoder;
+        private final List<Solution> parsed = new ArrayList<>();
 
         public TSVParser(IndexSet<String> vars, Charset charset) {
             this.vars = vars;
-            this.charset = charset;
             factory = ArraySolution.forVars(vars);
+            decoder = new TSVDecoder(this).setCharset(charset);
         }
 
-        @Override public Publisher<Solution> apply(ByteBuf bb) {
+        @Override public synchronized Publisher<Solution> apply(ByteBuf bb) {
             try {
-                String str = bb.toString(charset);
-                if (carry != null) {
-                    str = carry + str;
-                    carry = null;
-                }
-                int firstEnd = str.indexOf('\n');
-                if (firstEnd == str.length()-1) {
-                    return parseSingleRow(str);
-                } else {
-                    return parseMultiRow(str, firstEnd);
-                }
+                decoder.feed(bb);
+                return drain();
             } catch (Throwable t) {
                 return Mono.error(new QueryExecutionException(CompliantTSVSPARQLClient.this, t));
             }
         }
 
-        private @Nonnull Flux<Solution> parseMultiRow(String str, int firstEnd) {
-            List<Solution> list = new ArrayList<>();
-            int begin = 0, end = firstEnd;
-            while (end >= begin) {
-                if (!header)
-                    parseHeader(str, begin, end);
-                else {
-                    list.add(parseSolution(str, begin, end));
-                }
-                end = str.indexOf('\n', begin = end + 1);
+        public synchronized @Nonnull Publisher<Solution> finish() {
+            try {
+                decoder.finish();
+                return drain();
+            } catch (Throwable t) {
+                return Mono.error(new QueryExecutionException(CompliantTSVSPARQLClient.this, t));
             }
-            if (begin < str.length())
-                carry = str.substring(begin);
-            return Flux.fromIterable(list);
         }
 
-        private @Nonnull Mono<Solution> parseSingleRow(String str) {
-            if (!header) {
-                parseHeader(str, 0, str.length()-1);
-                return Mono.empty();
-            } else {
-                return Mono.just(parseSolution(str, 0, str.length()-1));
-            }
+        public synchronized void close() {
+            decoder.close();
         }
 
-        private @Nonnull Solution parseSolution(@Nonnull String str, int begin, int end) {
-            assert header;
-            assert end == str.length() || str.charAt(end) == '\n';
-            Term[] terms = new Term[vars.size()];
-            for (int i = 0, pos = begin, nVars = vars.size(); i < nVars; i++) {
-                int termEnd = str.indexOf('\t', pos);
-                termEnd = termEnd == -1 ? end : termEnd;
-                try {
-                    terms[i] = fromNT(str.substring(pos, termEnd), StdTermFactory.INSTANCE);
-                } catch (NTParseException e) {
-                    logger.error("{}: Discarding invalid NT term: {}",
-                                 CompliantTSVSPARQLClient.this, e);
-                }
-                pos = termEnd+1;
+        private @Nonnull Publisher<Solution> drain() {
+            switch (parsed.size()) {
+                case 0:
+                    return Mono.empty();
+                case 1:
+                    return Mono.just(parsed.remove(0));
+                default:
+                    List<Solution> list = new ArrayList<>(parsed);
+                    parsed.clear();
+                    return Flux.fromIterable(list);
             }
-            if (projection != null) {
-                Term[] projected = new Term[projection.length];
-                for (int i = 0; i < projected.length; i++)
-                    projected[i] = projection[i] >= 0 ? terms[projection[i]] : null;
-                terms = projected;
-            }
-            return factory.fromValues(terms);
         }
 
-        private void parseHeader(@Nonnull String str, int begin, int end) {
-            assert !header;
-            assert str.charAt(end) == '\n';
-            header = true;
-            if (begin == end)
-                return; // ASK response
-            if (str.charAt(begin) != '?')
-                throw new BadTSVException("Variables must start with ?, got " + str.charAt(begin) + "");
-            if (str.charAt(end) != '\n')
-                throw new BadTSVException("TSV header row does not end in \\n");
+        @Override public void row(@Nonnull Term[] row) {
+            parsed.add(factory.fromValues(row));
+        }
+
+        @Override public boolean badTerm(@Nonnull String nt, @Nonnull NTParseException e) {
+            logger.error("{}: Discarding invalid NT term: {}", CompliantTSVSPARQLClient.this, e);
+            return true;
+        }
+
+        @Override public @Nullable int[] header(@Nonnull List<String> columns) {
             List<String> actualVars = new ArrayList<>();
-            int i = begin+1, sepIdx = str.indexOf('\t', begin);
-            while (sepIdx >= 0 && sepIdx < end) {
-                actualVars.add(str.substring(i, sepIdx));
-                if (str.charAt(sepIdx+1) != '?')
-                    throw new BadTSVException("Variables must start with '?'");
-                sepIdx = str.indexOf('\t', i = sepIdx + 2);
+            for (String column : columns) {
+                if (column.isEmpty() || column.charAt(0) != '?')
+                    throw new BadTSVException("Variables must start with '?', got " + column);
+                actualVars.add(column.substring(1));
             }
-            if (i < end)
-                actualVars.add(str.substring(i, end));
-            if (!actualVars.equals(vars)) {
+            if (actualVars.equals(vars))
+                return null;
+            if (!actualVars.isEmpty()) {
                 logger.warn("Remote endpoint {} changed projection from {} to {}! " +
                             "Will compensate", uri, vars, actualVars);
-                projection = new int[vars.size()];
-                for (int j = 0, size = vars.size(); j < size; j++)
-                    projection[j] = actualVars.indexOf(vars.get(j));
             }
+            int[] projection = new int[vars.size()];
+            for (int j = 0, size = vars.size(); j < size; j++)
+                projection[j] = actualVars.indexOf(vars.get(j));
+            return projection;
         }
     }
 }
@@ -0,0 +1,333 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import br.ufsc.lapesd.freqel.V;
+import br.ufsc.lapesd.freqel.model.NTParseException;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.URI;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdTermFactory;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Incremental parser of application/sparql-results+json.
+ *
+ * Uses the non-blocking Jackson parser, which is fed the chunks as they arrive, and walks the
+ * tokens with a small state machine, skipping any member not defined in the SPARQL 1.1
+ * Query Results JSON Format. The "head" member must come before "results", as done by
+ * every known server.
+ */
+@NotThreadSafe
+public class JSONResultsDecoder extends AbstractResultsDecoder {
+    private static final @Nonnull JsonFactory FACTORY = new JsonFactory();
+
+    /* states */
+    private static final int ROOT = 0, TOP = 1, HEAD = 2, VARS = 3, RESULTS = 4, BINDINGS = 5,
+                             ROW = 6, TERM = 7, SKIP = 8, DONE = 9;
+    /* members whose value is pending */
+    private static final int NONE = 0, M_HEAD = 1, M_VARS = 2, M_RESULTS = 3, M_BINDINGS = 4,
+                             M_BOOLEAN = 5, M_BINDING = 6, M_TYPE = 7, M_VALUE = 8,
+                             M_DATATYPE = 9, M_LANG = 10;
+    /* term types */
+    private static final int T_UNKNOWN = 0, T_URI = 1, T_LITERAL = 2, T_BNODE = 3;
+
+    private @Nullable JsonParser parser;
+    private int state = ROOT, member = NONE, skipDepth, skipReturn;
+    private final @Nonnull List<String> vars = new ArrayList<>();
+    private final @Nonnull Map<String, Integer> var2column = new HashMap<>();
+    private @Nonnull byte[] scratch = new byte[0];
+
+    /* term being parsed */
+    private int termOutput, termType;
+    private @Nullable URI termURI, termDatatype;
+    private @Nullable String termValue, termLang, termTypeName;
+
+    public JSONResultsDecoder(@Nonnull Listener listener) {
+        super(listener);
+    }
+
+    @Override public @Nonnull JSONResultsDecoder setCharset(@Nonnull Charset charset) {
+        super.setCharset(charset);
+        return this;
+    }
+
+    @Override protected boolean needsTranscoding(@Nonnull Charset charset) {
+        return !charset.equals(UTF_8) && !charset.name().equals("US-ASCII");
+    }
+
+    @Override public void reset() {
+        super.reset();
+        closeParser();
+        state = ROOT;
+        member = NONE;
+        vars.clear();
+        var2column.clear();
+    }
+
+    @Override public void close() {
+        closeParser();
+    }
+
+    private void closeParser() {
+        if (parser != null) {
+            try {
+                parser.close();
+            } catch (IOException ignored) { }
+            parser = null;
+        }
+    }
+
+    @Override protected void feedBytes(@Nonnull ByteBuf chunk) {
+        int len = chunk.readableBytes(), off;
+        byte[] bytes;
+        if (chunk.hasArray()) {
+            bytes = chunk.array();
+            off = chunk.arrayOffset() + chunk.readerIndex();
+        } else {
+            if (scratch.length < len)
+                scratch = new byte[Math.max(len, scratch.length*2)];
+            chunk.getBytes(chunk.readerIndex(), scratch, 0, len);
+            bytes = scratch;
+            off = 0;
+        }
+        chunk.skipBytes(len);
+        try {
+            if (parser == null)
+                parser = FACTORY.createNonBlockingByteArrayParser();
+            ((ByteArrayFeeder)parser.getNonBlockingInputFeeder()).feedInput(bytes, off, off+len);
+            drain();
+        } catch (IOException e) {
+            throw new DecodeException("Malformed SPARQL results JSON: "+e.getMessage(), e);
+        }
+    }
+
+    @Override public void finish() {
+        if (parser != null) {
+            try {
+                ((ByteArrayFeeder)parser.getNonBlockingInputFeeder()).endOfInput();
+                drain();
+            } catch (IOException e) {
+                throw new DecodeException("Malformed SPARQL results JSON: "+e.getMessage(), e);
+            } finally {
+                closeParser();
+            }
+        }
+        if (!isHeaderDone())
+            header(vars); // empty response or no "head"
+    }
+
+    private void drain() throws IOException {
+        assert parser != null;
+        for (JsonToken t; (t = parser.nextToken()) != null && t != JsonToken.NOT_AVAILABLE; )
+            token(t);
+    }
+
+    private void skip(@Nonnull JsonToken token, int returnState) {
+        member = NONE;
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            skipDepth = 1;
+            skipReturn = returnState;
+            state = SKIP;
+        }
+    }
+
+    private void unexpected(@Nonnull JsonToken token) {
+        throw new DecodeException("Unexpected "+token+" in SPARQL results JSON");
+    }
+
+    private void token(@Nonnull JsonToken t) throws IOException {
+        assert parser != null;
+        switch (state) {
+            case ROOT:
+                if (t != JsonToken.START_OBJECT)
+                    unexpected(t);
+                state = TOP;
+                break;
+            case TOP:
+                if (t == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    member = name.equals("head") ? M_HEAD : name.equals("results") ? M_RESULTS
+                           : name.equals("boolean") ? M_BOOLEAN : NONE;
+                } else if (t == JsonToken.END_OBJECT) {
+                    state = DONE;
+                } else if (member == M_HEAD && t == JsonToken.START_OBJECT) {
+                    state = HEAD;
+                    member = NONE;
+                } else if (member == M_RESULTS && t == JsonToken.START_OBJECT) {
+                    if (!isHeaderDone())
+                        header(vars);
+                    state = RESULTS;
+                    member = NONE;
+                } else if (member == M_BOOLEAN && t.isBoolean()) {
+                    member = NONE;
+                    askResult(t == JsonToken.VALUE_TRUE);
+                } else {
+                    skip(t, TOP);
+                }
+                break;
+            case HEAD:
+                if (t == JsonToken.FIELD_NAME) {
+                    member = parser.getCurrentName().equals("vars") ? M_VARS : NONE;
+                } else if (t == JsonToken.END_OBJECT) {
+                    state = TOP;
+                } else if (member == M_VARS && t == JsonToken.START_ARRAY) {
+                    state = VARS;
+                    member = NONE;
+                } else {
+                    skip(t, HEAD);
+                }
+                break;
+            case VARS:
+                if (t == JsonToken.VALUE_STRING) {
+                    String name = parser.getText();
+                    var2column.put(name, vars.size());
+                    vars.add("?"+name);
+                } else if (t == JsonToken.END_ARRAY) {
+                    state = HEAD;
+                } else {
+                    unexpected(t);
+                }
+                break;
+            case RESULTS:
+                if (t == JsonToken.FIELD_NAME) {
+                    member = parser.getCurrentName().equals("bindings") ? M_BINDINGS : NONE;
+                } else if (t == JsonToken.END_OBJECT) {
+                    state = TOP;
+                } else if (member == M_BINDINGS && t == JsonToken.START_ARRAY) {
+                    state = BINDINGS;
+                    member = NONE;
+                } else {
+                    skip(t, RESULTS);
+                }
+                break;
+            case BINDINGS:
+                if (t == JsonToken.START_OBJECT) {
+                    beginRow();
+                    state = ROW;
+                } else if (t == JsonToken.END_ARRAY) {
+                    state = RESULTS;
+                } else {
+                    unexpected(t);
+                }
+                break;
+            case ROW:
+                if (t == JsonToken.FIELD_NAME) {
+                    Integer column = var2column.get(parser.getCurrentName());
+                    termOutput = column == null ? -1 : output(column);
+                    member = M_BINDING;
+                } else if (t == JsonToken.END_OBJECT) {
+                    endRow();
+                    state = BINDINGS;
+                } else if (member == M_BINDING && t == JsonToken.START_OBJECT
+                                                && termOutput >= 0) {
+                    termType = T_UNKNOWN;
+                    termURI = termDatatype = null;
+                    termValue = termLang = termTypeName = null;
+                    state = TERM;
+                    member = NONE;
+                } else {
+                    skip(t, ROW);
+                }
+                break;
+            case TERM:
+                if (t == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    switch (name) {
+                        case "type":     member = M_TYPE;     break;
+                        case "value":    member = M_VALUE;    break;
+                        case "datatype": member = M_DATATYPE; break;
+                        case "xml:lang": member = M_LANG;     break;
+                        default:         member = NONE;       break;
+                    }
+                } else if (t == JsonToken.END_OBJECT) {
+                    set(termOutput, term());
+                    state = ROW;
+                } else if (t == JsonToken.VALUE_STRING && member != NONE) {
+                    termValue(member);
+                    member = NONE;
+                } else {
+                    skip(t, TERM);
+                }
+                break;
+            case SKIP:
+                if (t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY)
+                    ++skipDepth;
+                else if (t == JsonToken.END_OBJECT || t == JsonToken.END_ARRAY)
+                    state = --skipDepth == 0 ? skipReturn : SKIP;
+                break;
+            case DONE:
+                break;
+        }
+    }
+
+    private void termValue(int member) throws IOException {
+        assert parser != null;
+        switch (member) {
+            case M_TYPE:
+                termTypeName = parser.getText();
+                switch (termTypeName) {
+                    case "uri":           termType = T_URI;     break;
+                    case "literal":
+                    case "typed-literal": termType = T_LITERAL; break;
+                    case "bnode":         termType = T_BNODE;   break;
+                    default:              termType = T_UNKNOWN; break;
+                }
+                break;
+            case M_VALUE:
+                if (termType == T_URI) {
+                    char[] chars = parser.getTextCharacters();
+                    int off = parser.getTextOffset();
+                    termURI = uri(chars, off, off + parser.getTextLength());
+                } else {
+                    termValue = parser.getText();
+                }
+                break;
+            case M_DATATYPE:
+                char[] chars = parser.getTextCharacters();
+                int off = parser.getTextOffset();
+                termDatatype = uri(chars, off, off + parser.getTextLength());
+                break;
+            case M_LANG:
+                termLang = parser.getText();
+                break;
+        }
+    }
+
+    private @Nullable Term term() {
+        switch (termType) {
+            case T_URI:
+                if (termURI == null && termValue != null) // "value" came before "type"
+                    termURI = uri(termValue);
+                return termURI;
+            case T_BNODE:
+                return termValue == null ? null : StdTermFactory.INSTANCE.createBlank(termValue);
+            case T_LITERAL:
+                if (termValue == null)
+                    return null;
+                if (termLang != null && !termLang.isEmpty())
+                    return StdLit.fromUnescaped(termValue, termLang);
+                return StdLit.fromUnescaped(termValue,
+                                            termDatatype == null ? V.XSD.xstring : termDatatype);
+            default:
+                String type = termTypeName == null ? "missing type" : termTypeName;
+                badTerm(String.valueOf(termValue),
+                        new NTParseException("Unsupported binding type in JSON: "+type));
+                return null;
+        }
+    }
+}
@@ -8,11 +8,11 @@ import br.ufsc.lapesd.freqel.description.Description;
 import br.ufsc.lapesd.freqel.model.NTParseException;
 import br.ufsc.lapesd.freqel.model.SPARQLString;
 import br.ufsc.lapesd.freqel.model.term.Term;
-import br.ufsc.lapesd.freqel.model.term.std.StdTermFactory;
 import br.ufsc.lapesd.freqel.query.CQuery;
 import br.ufsc.lapesd.freqel.query.MutableCQuery;
 import br.ufsc.lapesd.freqel.query.endpoint.*;
 import br.ufsc.lapesd.freqel.query.endpoint.exceptions.DQEndpointException;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.HTTPStatusException;
 import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
 import br.ufsc.lapesd.freqel.query.modifiers.Ask;
 import br.ufsc.lapesd.freqel.query.results.Results;
@@ -25,8 +25,6 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.pool.ChannelPool;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.*;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryFactory;
@@ -38,15 +36,15 @@ import javax.annotation.Nullable;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static br.ufsc.lapesd.freqel.algebra.Cardinality.*;
-import static br.ufsc.lapesd.freqel.model.RDFUtils.fromNT;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 @SuppressWarnings("UnusedReturnValue")
@@ -54,14 +52,13 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
     private static final @Nonnull Logger logger = LoggerFactory.getLogger(NettyCompliantTSVSPARQLClient.class);
     private static final byte[] URI_NEEDS_ESCAPE;
     private static final char[] HEX = "0123456789ABCDEF".toCharArray();
-    private static final @Nonnull String HANDLER_NAME = "tsvParser";
+    private static final @Nonnull String HANDLER_NAME = "resultsParser";
     private static final String SPARQL_QUERY = "application/sparql-query";
-    private static final String TSV = "text/tab-separated-values";
-    private static final String TSV_SHORT = "text/tsv";
     private static final Pattern CHARSET_RX = Pattern.compile("charset\\s*=\\s*([^ \n\r\t;]+)");
 
     public static final String DEF_ACCEPT = "text/tab-separated-values; charset=utf-8, text/tab-separated-values; q=0.9";
     public static final int DEF_QUEUE_CAPACITY = 2048;
+    public static final int DEF_MAX_GET_PATH_LENGTH = 2048;
 
     static {
         // As per RFC 2396 the following scharacters are subject to percent-escaping (except in
@@ -79,15 +76,17 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
     }
 
     private static final @Nonnull NettyHttpClient nettyHttpClient
-            = new NettyHttpClient(TSVParser.SUPPLIER, HANDLER_NAME);
+            = new NettyHttpClient(ResultsParser.SUPPLIER, HANDLER_NAME);
 
     private final @Nonnull String uri;
     private final char paramChar;
     private int queueCapacity = DEF_QUEUE_CAPACITY;
+    private int maxGETPathLength = DEF_MAX_GET_PATH_LENGTH;
     private HttpMethod method = HttpMethod.GET;
     private final @Nonnull Map<String, String> headerValues = new HashMap<>();
     private final @Nonnull Map<String, String> queryParams = new HashMap<>();
     private final @Nonnull NettyHttpClient.Targeted targeted;
+    private @Nonnull ResultsFormatNegotiator negotiator = new ResultsFormatNegotiator();
 
     private boolean closed = false;
 
@@ -100,7 +99,6 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
         super(factory);
         this.uri = uri;
         this.paramChar = uri.indexOf('?') > uri.indexOf('@') ? '&' : '?';
-        headerValues.put("accept", DEF_ACCEPT);
         targeted = nettyHttpClient.acquire(uri);
     }
 
@@ -110,8 +108,8 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
      * Set a value for a HTTP request header to be sent on subsequent requests.
      *
      * @param header the header name. Internally all header names canonized to lower case.
-     *               The Accept header cannot be set via this method, since its value will
-     *               depend on whether the query is an ASK or SELECT query.
+     *               The Accept header cannot be set via this method, since its value is
+     *               chosen for each query by a {@link ResultsFormatNegotiator}.
      * @param value The value for the HTTP request header. This value will be sent as-is and
      *              no validation is performed. If value is null, the given header will not
      *              be set in future requests.
@@ -120,17 +118,40 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
      */
     public @Nullable String setHeader(@Nonnull String header, @Nullable String value) {
         header = header.trim().toLowerCase();
-        if (value == null) {
-            if (header.equals("accept"))
-                headerValues.put(header, DEF_ACCEPT);
-            else
-                return headerValues.remove(header);
-        }
         if (header.equals("accept"))
-            throw new IllegalArgumentException("Cannot set the accept header, use set(Ask)Accept.");
+            throw new IllegalArgumentException("Cannot set accept, use setResultsFormats().");
+        if (value == null)
+            return headerValues.remove(header);
         return headerValues.put(header, value);
     }
 
+    /**
+     * Restrict the results formats that will be requested to the endpoint. Among those, the
+     * format that is fastest to decode will be learned from the responses.
+     *
+     * This discards anything learned by the previous {@link ResultsFormatNegotiator}.
+     *
+     * @param formats non-empty collection of formats
+     * @return this {@link NettyCompliantTSVSPARQLClient}.
+     */
+    public @Nonnull NettyCompliantTSVSPARQLClient
+    setResultsFormats(@Nonnull Collection<ResultsFormat> formats) {
+        negotiator = new ResultsFormatNegotiator(formats);
+        return this;
+    }
+
+    public @Nonnull NettyCompliantTSVSPARQLClient setResultsFormats(ResultsFormat... formats) {
+        return setResultsFormats(Arrays.asList(formats));
+    }
+
+    /**
+     * Get the {@link ResultsFormatNegotiator} that chooses the results format requested
+     * in each query.
+     */
+    public @Nonnull ResultsFormatNegotiator getNegotiator() {
+        return negotiator;
+    }
+
     /**
      * Use HTTP POST requests sending the query as application/sparql-query in the request body.
      *
@@ -153,6 +174,56 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
         return this;
     }
 
+    /**
+     * Maximum length of the request path (which includes the percent-encoded query) of a
+     * GET request. Queries that would exceed this are sent as POST requests instead.
+     *
+     * The default is {@link NettyCompliantTSVSPARQLClient#DEF_MAX_GET_PATH_LENGTH}.
+     * Use {@link Integer#MAX_VALUE} to never fall back to POST.
+     *
+     * @return this {@link NettyCompliantTSVSPARQLClient}.
+     */
+    public @Nonnull NettyCompliantTSVSPARQLClient setMaxGETPathLength(int maxLength) {
+        maxGETPathLength = maxLength;
+        return this;
+    }
+
+    /**
+     * Choose between HTTP/1.1 (default) and HTTP/2 for subsequent requests.
+     *
+     * With HTTP/2, concurrent queries are multiplexed as streams over a few connections,
+     * avoiding the connection (and TLS handshake) per concurrent request of HTTP/1.1. For
+     * http URIs, h2c is used with prior knowledge. If the server does not speak HTTP/2, the
+     * client falls back to HTTP/1.1.
+     *
+     * @return this {@link NettyCompliantTSVSPARQLClient}.
+     */
+    public @Nonnull NettyCompliantTSVSPARQLClient
+    setProtocol(@Nonnull NettyHttpClient.Protocol protocol) {
+        targeted.setProtocol(protocol);
+        return this;
+    }
+
+    public @Nonnull NettyHttpClient.Protocol getProtocol() {
+        return targeted.getProtocol();
+    }
+
+    /**
+     * Maximum number of queries running concurrently against this endpoint. Further queries
+     * will only be sent once the response to a previous query has been completely received
+     * (or its {@link Results} closed). Values {@code <= 0} remove the limit (the default).
+     *
+     * @return this {@link NettyCompliantTSVSPARQLClient}.
+     */
+    public @Nonnull NettyCompliantTSVSPARQLClient setMaxConcurrency(int maxConcurrency) {
+        targeted.setMaxConcurrency(maxConcurrency);
+        return this;
+    }
+
+    public int getMaxConcurrency() {
+        return targeted.getMaxConcurrency();
+    }
+
     /**
      * Desired maximum number of queued solutions not yet consumed by {@link Results}
      * instances produced by this {@link NettyCompliantTSVSPARQLClient}.
@@ -253,6 +324,9 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
             case VALUES:
             case OPTIONAL:
             case ASK:
+            case ORDER_BY:
+            case OFFSET:
+            case AGGREGATION:
                 return true;
             default:
                 return false;
@@ -285,29 +359,46 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
         if (closed)
             throw new IllegalStateException(this+" is close()d");
         IndexSet<String> vars = FullIndexSet.fromDistinct(varNames);
-        BlockingQueue<Solution> queue = new ArrayBlockingQueue<>(queueCapacity+2);
+        // queueCapacity is only a soft limit: a single chunk may decode into several rows
+        BlockingQueue<Solution> queue = new LinkedBlockingQueue<>();
         QueueResults results = new QueueResults(varNames, queue);
-        targeted.request(method, buildPath(sparqlQuery),
-                method == HttpMethod.GET ? null : a -> {
+        Runnable notifier = results.getEnqueueNotifier();
+        ResultsFormatNegotiator negotiator = this.negotiator;
+        ResultsFormat format = negotiator.choose(isAsk);
+        String accept = negotiator.accept(format, isAsk);
+        String path = buildPath(sparqlQuery, method == HttpMethod.GET);
+        HttpMethod method = this.method;
+        if (method == HttpMethod.GET && path.length() > maxGETPathLength) {
+            method = HttpMethod.POST; // long queries may hit request line limits on servers
+            path = buildPath(sparqlQuery, false);
+        }
+        boolean post = method == HttpMethod.POST;
+        targeted.request(method, path,
+                !post ? null : a -> {
                     ByteBuf bb = a.buffer(sparqlQuery.length() + 32);
                     bb.writeCharSequence(sparqlQuery, UTF_8);
                     return bb;
                 },
                 (ch, request) -> {
-                    TSVParser p = (TSVParser) ch.pipeline().get(HANDLER_NAME);
-                    results.onClose(p.setup(vars, queue, queueCapacity, QueueResults.DEFAULT_END,
-                                            targeted.getPool(), ch, uri));
+                    ResultsParser p = (ResultsParser) ch.pipeline().get(HANDLER_NAME);
+                    results.onClose(p.setup(vars, queue, notifier, results::fail,
+                                            queueCapacity, QueueResults.DEFAULT_END,
+                                            targeted, ch, uri, negotiator, format));
                     results.afterConsume(p.getOnConsume());
                     ch.config().setAutoRead(true);
                     for (Map.Entry<String, String> e : headerValues.entrySet())
                         request.headers().set(e.getKey(), e.getValue());
-                    if (method == HttpMethod.POST)
+                    request.headers().set(HttpHeaderNames.ACCEPT, accept);
+                    if (post)
                         request.headers().set(HttpHeaderNames.CONTENT_TYPE, SPARQL_QUERY);
                 }
         ).addListener(f -> {
             if (!f.isSuccess()) {
-                logger.info("Couldn't connect to {}, no results for {}", uri, sparqlQuery);
+                logger.info("Couldn't connect to {} for {}", uri, sparqlQuery);
+                results.fail(new QueryExecutionException(this, "Couldn't connect: "
+                                                               + f.cause()));
                 queue.add(QueueResults.DEFAULT_END);
+                notifier.run();
             }
         });
         return results;
@@ -334,8 +425,7 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
         return b.toString();
     }
 
-    private @Nonnull String buildPath(@Nonnull String sparql) {
-        boolean get = method == HttpMethod.GET;
+    private @Nonnull String buildPath(@Nonnull String sparql, boolean get) {
         String bp = targeted.basePath();
         int capacity = bp.length() + queryParams.size() * 32 + sparql.length() * (get ? 2 : 0);
         StringBuilder b = new StringBuilder(capacity).append(bp).append(paramChar);
@@ -353,29 +443,34 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
         }
     }
 
-    private static class TSVParser extends SimpleChannelInboundHandler<HttpObject> {
-        private static final Logger logger = LoggerFactory.getLogger(TSVParser.class);
+    private static class ResultsParser extends SimpleChannelInboundHandler<HttpObject>
+                                        implements ResultsDecoder.Listener {
+        private static final Logger logger = LoggerFactory.getLogger(ResultsParser.class);
 
-        private static final @Nonnull Supplier<TSVParser> SUPPLIER = new Supplier<TSVParser>() {
-            @Override public @Nonnull TSVParser get() { return new TSVParser(); }
-            @Override public @Nonnull String toString() { return "TSVParser::new"; }
+        private static final @Nonnull Supplier<ResultsParser> SUPPLIER
+                = new Supplier<ResultsParser>() {
+            @Override public @Nonnull ResultsParser get() { return new ResultsParser(); }
+            @Override public @Nonnull String toString() { return "ResultsParser::new"; }
         };
 
-        private int[] projection = null;
+        private final @Nonnull EnumMap<ResultsFormat, ResultsDecoder> decoders
+                = new EnumMap<>(ResultsFormat.class);
+        private @Nullable ResultsDecoder decoder;
+        private @Nullable ResultsFormatNegotiator negotiator;
+        private @Nullable ResultsFormat requestedFormat, receivedFormat;
+        private long rows, decodeNanos;
         private @Nullable ArraySolution.ValueFactory factory = null;
         private @Nullable Queue<Solution> queue;
-        private @Nullable SocketChannel channel;
+        private @Nullable Runnable enqueueNotifier;
+        private @Nullable Consumer<? super RuntimeException> failureSink;
+        private @Nullable Channel channel;
         private @Nullable Solution endMarker;
-        private @Nullable ChannelPool pool;
+        private @Nullable NettyHttpClient.Targeted targeted;
         private boolean badResponse;
         private @Nullable String baseURI;
-        private @Nonnull Charset charset = UTF_8;
-        private @Nullable String carry;
         private int queueCapacity = DEF_QUEUE_CAPACITY;
         private @Nullable IndexSet<String> expectedVars;
         private final @Nonnull List<String> tmpVars = new ArrayList<>();
-        private final @Nonnull List<Term> tmpTerms = new ArrayList<>();
-        private @Nullable List<Term> tmpProj;
         private @Nullable Closer closer;
         private final @Nonnull Runnable onConsume = new Runnable() {
             private final @Nonnull Runnable unsafe = () -> {
@@ -420,20 +515,37 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
 
         public @Nonnull Runnable setup(@Nonnull IndexSet<String> vars,
                                        @Nonnull Queue<Solution> queue,
+                                       @Nonnull Runnable enqueueNotifier,
+                                       @Nonnull Consumer<? super RuntimeException> failureSink,
                                        int queueCapacity, @Nonnull Solution endMarker,
-                                       @Nullable ChannelPool pool, @Nonnull SocketChannel channel,
-                                       @Nonnull String baseURI) {
+                                       @Nullable NettyHttpClient.Targeted targeted,
+                                       @Nonnull Channel channel,
+                                       @Nonnull String baseURI,
+                                       @Nullable ResultsFormatNegotiator negotiator,
+                                       @Nullable ResultsFormat requestedFormat) {
             this.baseURI = baseURI;
-            this.charset = UTF_8;
+            this.resetDecoder();
+            this.negotiator = negotiator;
+            this.requestedFormat = requestedFormat;
             this.badResponse = false;
             this.expectedVars = vars;
             this.queue = queue;
+            this.enqueueNotifier = enqueueNotifier;
+            this.failureSink = failureSink;
             this.queueCapacity = queueCapacity;
             this.endMarker = endMarker;
-            this.pool = pool;
+            this.targeted = targeted;
             return this.closer = new Closer(this.channel = channel);
         }
 
+        private void resetDecoder() {
+            if (decoder != null)
+                decoder.reset();
+            decoder = null;
+            receivedFormat = null;
+            rows = decodeNanos = 0;
+        }
+
         private void enqueue(@Nullable Solution solution) {
             try {
                 if (queue != null) {
@@ -441,6 +553,8 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
                         logger.error("Unexpected null solution on {}", this);
                     else
                         queue.add(solution);
+                    if (enqueueNotifier != null)
+                        enqueueNotifier.run();
                 } else
                     logger.error("Unexpected null queue on {}", this);
             } catch (Throwable t) {
@@ -449,29 +563,42 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
             }
         }
 
+        /**
+         * Make the consumer see the failure instead of a (possibly truncated) end of results.
+         * Must be called before release().
+         */
+        private void fail(@Nonnull RuntimeException e) {
+            if (failureSink != null)
+                failureSink.accept(e);
+        }
+
         private void release(@Nonnull Channel channel) {
             if (this.channel == null)
                 return;
             logger.trace("{}.release({})", this, channel);
             assert channel.eventLoop().inEventLoop();
-            assert this.channel == channel : "TSVParser sharing or missed setup()/release()";
+            assert this.channel == channel : "ResultsParser sharing or missed setup()/release()";
             enqueue(endMarker);
             queue = null;
-            // do not close a channel being returned to the pool
+            enqueueNotifier = null;
+            failureSink = null;
+            // do not close a channel being returned to the pool (or a finished stream)
             if (closer != null)
                 closer.enableAbortingClose = false;
             closer = null;
             factory = null;
+            resetDecoder();
+            negotiator = null;
             this.channel = null;
-            if (pool != null)
-                pool.release(channel);
-            pool = null;
+            if (targeted != null)
+                targeted.release(channel);
+            targeted = null;
             badResponse = false;
         }
 
         @Override public String toString() {
-            StringBuilder b = new StringBuilder("TSVParser");
-            if (channel != null && !channel.remoteAddress().isUnresolved())
+            StringBuilder b = new StringBuilder("ResultsParser");
+            if (channel != null && baseURI != null)
                 b.append('[').append(baseURI).append(']');
             b.append("{ch=").append(channel);
             if (queueCapacity != DEF_QUEUE_CAPACITY)
@@ -483,6 +610,7 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
 
         @Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
             logger.warn("Exception when handling channel {}", ctx.channel(), cause);
+            fail(new QueryExecutionException("Failed to handle response from "+baseURI, cause));
             ctx.close();
         }
 
@@ -494,16 +622,22 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
         @Override protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
             if (queue == null)
                 throw new IllegalStateException("setup() not called!");
-            assert ctx.channel() == channel : "setup() not called or TSVParser is being shared";
+            assert ctx.channel() == channel : "setup() not called or ResultsParser is being shared";
             if (msg instanceof HttpResponse) {
                 handleResponse(ctx, (HttpResponse)msg);
             }
             if (msg instanceof HttpContent) {
-                if (badResponse) {
-                    String string = ((HttpContent) msg).content().toString(UTF_8);
-                    logger.info("Body chunk of bad response on {}: {}", this, string);
-                } else {
-                    handleChunk(ctx, (HttpContent) msg);
+                try {
+                    if (badResponse) {
+                        String string = ((HttpContent) msg).content().toString(UTF_8);
+                        logger.info("Body chunk of bad response on {}: {}", this, string);
+                    } else {
+                        handleChunk(ctx, (HttpContent) msg);
+                        if (msg instanceof LastHttpContent)
+                            finishResponse();
+                    }
+                } finally {
+                    // the consumer must see the end marker even after a bad or malformed response
                     if (msg instanceof LastHttpContent)
                         release(ctx.channel());
                 }
@@ -512,82 +646,53 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
 
         private void handleChunk(@Nonnull ChannelHandlerContext ctx,
                                  @Nonnull HttpContent httpContent) {
-            assert queue != null;
-            if (httpContent.content().readableBytes() == 0)
-                return;
-            String str = httpContent.content().toString(charset);
-            if (carry != null) {
-                str = carry + str;
-                carry = null;
-            }
-            int b = 0, e = str.indexOf('\n');
-            if (e < 0) {
-                carry = str;
-                return;
-            }
-            if (factory == null) {
-                parseHeader(str, e);
-                e = str.indexOf('\n', b = e+1);
-            }
-            while (e >= 0) {
-                enqueue(parseRow(str, b, e));
-                e = str.indexOf('\n', b = e+1);
-            }
-            if (b < str.length())
-                carry = str.substring(b);
+            assert queue != null && decoder != null;
+            long start = System.nanoTime();
+            decoder.feed(httpContent.content());
+            decodeNanos += System.nanoTime() - start;
             if (queue.size() >= queueCapacity) //backpressure
                 ctx.channel().config().setAutoRead(false);
         }
 
-        private void parseHeader(@Nonnull String str, int end) {
-            if (end == 0) {
+        @Override public @Nullable int[] header(@Nonnull List<String> columns) {
+            if (columns.isEmpty()) {
                 factory = ArraySolution.EMPTY_FACTORY;
-                return;
+                return null;
             }
-            if (str.charAt(end) != '\n')
-                throw new IllegalArgumentException("Header not ending in \\n: "+str);
             tmpVars.clear();
-            for (int varBegin = 0, sep; varBegin < end; varBegin = sep + 1) {
-                if (str.charAt(varBegin) != '?')
-                    throw new BadTSVException("Variables must start with ?, got"+str);
-                sep = Math.min(str.indexOf('\t', varBegin), end);
-                tmpVars.add(str.substring(varBegin+1, sep < 0 ? sep = end : sep));
+            for (String column : columns) {
+                if (column.isEmpty() || column.charAt(0) != '?')
+                    throw new BadTSVException("Variables must start with ?, got"+columns);
+                tmpVars.add(column.substring(1));
             }
             assert expectedVars != null;
-            if (!tmpVars.equals(expectedVars)) {
-                projection = new int[expectedVars.size()];
-                for (int i = 0; i < projection.length; i++)
-                    projection[i] = tmpVars.indexOf(expectedVars.get(i));
-                tmpProj = new ArrayList<>();
-            }
             factory = ArraySolution.forVars(expectedVars);
+            if (tmpVars.equals(expectedVars))
+                return null;
+            int[] projection = new int[expectedVars.size()];
+            for (int i = 0; i < projection.length; i++)
+                projection[i] = tmpVars.indexOf(expectedVars.get(i));
+            return projection;
         }
 
-        private @Nonnull Solution parseRow(@Nonnull String str, int begin, int end) {
+        private void finishResponse() {
+            assert decoder != null;
+            long start = System.nanoTime();
+            decoder.finish();
+            decodeNanos += System.nanoTime() - start;
+            if (negotiator != null && requestedFormat != null && receivedFormat != null)
+                negotiator.report(requestedFormat, receivedFormat, rows, decodeNanos);
+        }
+
+        @Override public void row(@Nonnull Term[] row) {
             assert factory != null;
-            assert queue != null;
-            tmpTerms.clear();
-            if (begin == end)
-                return factory.fromValues(Collections.emptyList());
-            int pos = begin;
-            while (pos <= end) {
-                int sep = Math.min(str.indexOf('\t', pos), end);
-                String nt = str.substring(pos, sep < 0 ? sep = end : sep);
-                try {
-                    tmpTerms.add(nt.isEmpty() ? null : fromNT(nt, StdTermFactory.INSTANCE));
-                } catch (NTParseException e) {
-                    logger.warn("Discarding term {} on {}. Reason: {}", nt, this, e.getMessage());
-                    tmpTerms.add(null);
-                }
-                pos = sep+1;
-            }
-            if (projection != null) {
-                assert tmpProj != null;
-                tmpProj.clear();
-                for (int i : projection) tmpProj.add(tmpTerms.get(i));
-                return factory.fromValues(tmpProj);
-            }
-            return factory.fromValues(tmpTerms);
+            ++rows;
+            enqueue(factory.fromValues(row));
+        }
+
+        @Override public boolean badTerm(@Nonnull String nt, @Nonnull NTParseException e) {
+            logger.warn("Discarding term {} on {}. Reason: {}", nt, this, e.getMessage());
+            return true;
         }
 
         private void handleResponse(@Nonnull ChannelHandlerContext ignoredCtx,
@@ -596,16 +701,25 @@ public class NettyCompliantTSVSPARQLClient extends AbstractTPEndpoint implements
             if (r.status().codeClass() != HttpStatusClass.SUCCESS) {
                 badResponse = true;
                 logger.warn("Bad response status {} on {}", r.status(), this);
+                fail(new HTTPStatusException(r.status().code(),
+                                             r.status().reasonPhrase()+" from "+baseURI));
             } else {
-                String type = r.headers().get(HttpHeaderNames.CONTENT_TYPE, TSV);
-                if (!type.startsWith(TSV) && !type.startsWith(TSV_SHORT)) {
-                    logger.warn("Invalid Content-Type {} on {}, expected {}", type, this, TSV);
+                String type = r.headers().get(HttpHeaderNames.CONTENT_TYPE,
+                                              ResultsFormat.TSV.getMediaType());
+                ResultsFormat format = ResultsFormat.fromContentType(type);
+                if (format == null) {
+                    logger.warn("Invalid Content-Type {} on {}, expected {}",
+                                type, this, requestedFormat);
                     badResponse = true;
+                    fail(new QueryExecutionException("Invalid Content-Type "+type+" from "
+                                                     +baseURI));
                 } else {
+                    receivedFormat = format;
+                    decoder = decoders.computeIfAbsent(format, f -> f.createDecoder(this));
                     Matcher m = CHARSET_RX.matcher(type);
                     if (m.find()) {
                         try {
-                            charset = Charset.forName(m.group(1));
+                            decoder.setCharset(Charset.forName(m.group(1)));
                         } catch (IllegalCharsetNameException e) {
                             logger.warn("Bad charset {} on {}, using UTF-8", m.group(1), this);
                         }
@@ -19,20 +19,24 @@ import io.netty.channel.pool.SimpleChannelPool;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.*;
-import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.codec.http2.*;
+import io.netty.handler.ssl.*;
 import io.netty.incubator.channel.uring.IOUring;
 import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
 import io.netty.incubator.channel.uring.IOUringSocketChannel;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.net.ssl.SSLException;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -46,6 +50,16 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public class NettyHttpClient {
     private static final Logger logger = LoggerFactory.getLogger(NettyHttpClient.class);
+    /**
+     * Default maximum number of HTTP/2 connections kept open by a {@link Targeted}.
+     */
+    public static final int DEF_MAX_H2_CONNECTIONS = 2;
+    /**
+     * A new HTTP/2 connection is only opened when all open connections carry at least this
+     * many streams (or the limit advertised by the server, if lower).
+     */
+    public static final int STREAMS_PER_H2_CONNECTION = 100;
+
     private final @Nonnull String handlerName;
     private final @Nonnull Supplier<? extends SimpleChannelInboundHandler<HttpObject>>
             handlerSupplier;
@@ -53,6 +67,22 @@ public class NettyHttpClient {
     private Transport transport;
     private int references;
     private SslContext sslContext;
+    private SslContext h2SslContext;
+    private boolean h2SslContextFailed;
+
+    public enum Protocol {
+        /**
+         * HTTP/1.1 over a pool of connections, each carrying a single request at a time.
+         */
+        HTTP_1_1,
+        /**
+         * HTTP/2, multiplexing concurrent requests as streams of a few connections. For
+         * https URIs, h2 is negotiated via ALPN. For http URIs, h2c is used with prior
+         * knowledge (no Upgrade: round-trip). If the server does not speak HTTP/2, the
+         * {@link Targeted} falls back to HTTP/1.1.
+         */
+        HTTP_2
+    }
 
     public enum Transport {
         NIO {
@@ -115,45 +145,107 @@ public class NettyHttpClient {
     public class Targeted implements AutoCloseable {
         private final @Nonnull ParsedURI parsedURI;
         private final @Nonnull SimpleChannelPool pool;
-        private final @Nullable SslContext sslContext;
-        private boolean closed = false;
+        private final @Nonnull Bootstrap h2Bootstrap;
+        private final @Nonnull EventLoopGroup group;
+        private final @Nullable SslContext sslContext, h2SslContext;
+        private final @Nonnull String handlerName;
+        private final @Nonnull Supplier<? extends SimpleChannelInboundHandler<HttpObject>>
+                handlerSupplier;
+        private volatile boolean closed = false;
         private long closeTimeout = 0;
         private @Nonnull TimeUnit closeTimeoutTimeUnit = MILLISECONDS;
         private final @Nonnull IdentityHashSet<Channel> channels = new IdentityHashSet<>();
+        private volatile boolean http2;
+        private int maxConcurrency = Integer.MAX_VALUE, active = 0;
+        private int maxH2Connections = DEF_MAX_H2_CONNECTIONS;
+        private final @Nonnull IdentityHashSet<Channel> inFlight = new IdentityHashSet<>();
+        private final @Nonnull ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+        private final @Nonnull List<H2Connection> h2Connections = new ArrayList<>();
+
+        private final class H2Connection {
+            final @Nonnull Promise<Void> ready;
+            @Nullable Channel channel;
+            int streams;
+
+            H2Connection(@Nonnull Promise<Void> ready) {
+                this.ready = ready;
+            }
+
+            int maxStreams() {
+                Http2FrameCodec codec = channel == null ? null
+                                      : channel.pipeline().get(Http2FrameCodec.class);
+                if (codec == null)
+                    return STREAMS_PER_H2_CONNECTION;
+                // the limit on streams we create, as advertised by the server's SETTINGS
+                int allowed = codec.connection().local().maxActiveStreams();
+                return Math.min(STREAMS_PER_H2_CONNECTION, allowed);
+            }
+
+            boolean isDead() {
+                return ready.isDone() && (!ready.isSuccess()
+                                          || (channel != null && !channel.isActive()));
+            }
+        }
 
         public Targeted(@Nonnull String uri,
                         @Nonnull String handlerName,
                         @Nonnull Supplier<? extends SimpleChannelInboundHandler<HttpObject>>
                                 handlerSupplier,
                         @Nullable SslContext sslContext) {
+            this(uri, handlerName, handlerSupplier, sslContext, null, Protocol.HTTP_1_1);
+        }
+
+        public Targeted(@Nonnull String uri,
+                        @Nonnull String handlerName,
+                        @Nonnull Supplier<? extends SimpleChannelInboundHandler<HttpObject>>
+                                handlerSupplier,
+                        @Nullable SslContext sslContext, @Nullable SslContext h2SslContext,
+                        @Nonnull Protocol protocol) {
             this.sslContext = sslContext;
+            this.h2SslContext = h2SslContext;
+            this.handlerName = handlerName;
+            this.handlerSupplier = handlerSupplier;
+            this.group = NettyHttpClient.this.group;
             parsedURI = new ParsedURI(uri, this.sslContext != null);
             Bootstrap bootstrap = new Bootstrap().group(group).channel(transport.channelClass())
                     .remoteAddress(parsedURI.host, parsedURI.port);
+            this.h2Bootstrap = bootstrap.clone();
             this.pool = new SimpleChannelPool(bootstrap, new AbstractChannelPoolHandler() {
                 @Override public void channelCreated(Channel ch) {
-                    synchronized (Targeted.this) {
-                        if (closed) {
-                            logger.debug("Closing channel {} connected after {}.close()",
-                                         ch, Targeted.this);
-                            ch.close();
-                            return;
-                        }
-                        channels.add(ch);
-                    }
+                    if (!track(ch))
+                        return;
                     ChannelPipeline p = ch.pipeline();
                     if (sslContext != null && parsedURI.https)
                         p.addLast(sslContext.newHandler(ch.alloc()));
                     p.addLast("http", new HttpClientCodec());
                     p.addLast("decompressor", new HttpContentDecompressor());
                     p.addLast(handlerName, handlerSupplier.get());
-                    ch.closeFuture().addListener(f -> {
-                        synchronized (Targeted.this) {
-                            channels.remove(ch);
-                        }
-                    });
                 }
             });
+            setProtocol(protocol);
+        }
+
+        /**
+         * Adds ch to {@link #channels} or closes it if this {@link Targeted} is closed.
+         *
+         * @return true iff the channel was not closed.
+         */
+        private boolean track(@Nonnull Channel ch) {
+            synchronized (this) {
+                if (closed) {
+                    logger.debug("Closing channel {} connected after {}.close()", ch, this);
+                    ch.close();
+                    return false;
+                }
+                channels.add(ch);
+            }
+            ch.closeFuture().addListener(f -> {
+                synchronized (Targeted.this) {
+                    channels.remove(ch);
+                }
+                endRequest(ch);
+            });
+            return true;
         }
 
         public @Nonnull String baseURI() {
@@ -168,20 +260,271 @@ public class NettyHttpClient {
             return pool;
         }
 
+        /**
+         * Sets the protocol used for subsequent requests. Already open connections are kept
+         * until {@link #close()}.
+         *
+         * If {@link Protocol#HTTP_2} is requested for an https URI but ALPN is not available,
+         * HTTP/1.1 will be used.
+         *
+         * @return this {@link Targeted}
+         */
+        public @Nonnull Targeted setProtocol(@Nonnull Protocol protocol) {
+            boolean h2 = protocol == Protocol.HTTP_2;
+            if (h2 && parsedURI.https && h2SslContext == null) {
+                logger.info("No ALPN support, {} will use HTTP/1.1", this);
+                h2 = false;
+            }
+            http2 = h2;
+            return this;
+        }
+
+        /**
+         * The protocol currently used for new requests. May differ from the one given to
+         * {@link #setProtocol(Protocol)} if the server does not support HTTP/2.
+         */
+        public @Nonnull Protocol getProtocol() {
+            return http2 ? Protocol.HTTP_2 : Protocol.HTTP_1_1;
+        }
+
+        /**
+         * Maximum number of requests awaiting a response. Subsequent calls to
+         * {@link #request(HttpMethod, String, Function, BiConsumer)} will be queued until
+         * a running request is {@link #release(Channel)}d or its channel is closed.
+         *
+         * @param maxConcurrency the new limit. Values {@code <= 0} remove the limit.
+         * @return this {@link Targeted}
+         */
+        public @Nonnull Targeted setMaxConcurrency(int maxConcurrency) {
+            List<Runnable> starts = new ArrayList<>();
+            synchronized (this) {
+                this.maxConcurrency = maxConcurrency <= 0 ? Integer.MAX_VALUE : maxConcurrency;
+                while (active < this.maxConcurrency && !waiting.isEmpty()) {
+                    ++active;
+                    starts.add(waiting.remove());
+                }
+            }
+            starts.forEach(Runnable::run);
+            return this;
+        }
+
+        public synchronized int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        /**
+         * Maximum number of connections used when the protocol is {@link Protocol#HTTP_2}.
+         *
+         * @return this {@link Targeted}
+         */
+        public synchronized @Nonnull Targeted setMaxH2Connections(int maxH2Connections) {
+            this.maxH2Connections = Math.max(1, maxH2Connections);
+            return this;
+        }
+
+        /**
+         * Signals that the response to the request sent on the given channel has been
+         * completely handled. Pooled HTTP/1.1 channels return to the pool and HTTP/2 stream
+         * channels are closed.
+         */
         public void release(@Nonnull Channel channel) {
-            pool.release(channel);
+            endRequest(channel);
+            if (channel instanceof Http2StreamChannel)
+                channel.close();
+            else
+                pool.release(channel);
+        }
+
+        private void endRequest(@Nonnull Channel channel) {
+            Runnable next;
+            synchronized (this) {
+                if (!inFlight.remove(channel))
+                    return;
+                next = waiting.poll();
+                if (next == null)
+                    --active;
+            }
+            if (next != null)  // inherits the permit of the ended request
+                channel.eventLoop().execute(next);
+        }
+
+        private void abortStart(@Nonnull Promise<Channel> promise, @Nullable Throwable cause) {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null)
+                    --active;
+            }
+            promise.tryFailure(cause == null ? new IOException("Failed to connect") : cause);
+            if (next != null)
+                group.execute(next);
         }
 
         public @Nonnull Future<Channel> connect() {
             if (closed)
                 throw new IllegalStateException(this+" is closed");
-            return pool.acquire();
+            return http2 ? openStream() : pool.acquire();
+        }
+
+        private @Nonnull Future<Channel> openStream() {
+            Promise<Channel> promise = group.next().newPromise();
+            H2Connection conn = chooseH2Connection();
+            conn.ready.addListener(f -> {
+                if (!f.isSuccess()) {
+                    synchronized (this) {
+                        --conn.streams;
+                    }
+                    if (http2) {
+                        promise.tryFailure(f.cause());
+                    } else { // fell back to HTTP/1.1
+                        pool.acquire().addListener(pf -> {
+                            if (pf.isSuccess()) promise.trySuccess((Channel) pf.getNow());
+                            else                promise.tryFailure(pf.cause());
+                        });
+                    }
+                    return;
+                }
+                assert conn.channel != null;
+                new Http2StreamChannelBootstrap(conn.channel)
+                        .handler(new ChannelInitializer<Http2StreamChannel>() {
+                            @Override protected void initChannel(Http2StreamChannel ch) {
+                                ch.closeFuture().addListener(cf -> {
+                                    synchronized (Targeted.this) {
+                                        --conn.streams;
+                                    }
+                                    endRequest(ch);
+                                });
+                                ChannelPipeline p = ch.pipeline();
+                                p.addLast("http", new Http2StreamFrameToHttpObjectCodec(false));
+                                p.addLast("decompressor", new HttpContentDecompressor());
+                                p.addLast(handlerName, handlerSupplier.get());
+                            }
+                        }).open().addListener(sf -> {
+                            if (sf.isSuccess()) {
+                                promise.trySuccess((Channel) sf.getNow());
+                            } else {
+                                synchronized (this) {
+                                    --conn.streams;
+                                }
+                                promise.tryFailure(sf.cause());
+                            }
+                        });
+            });
+            return promise;
+        }
+
+        private synchronized @Nonnull H2Connection chooseH2Connection() {
+            H2Connection best = null;
+            for (int i = h2Connections.size()-1; i >= 0; i--) {
+                H2Connection c = h2Connections.get(i);
+                if (c.isDead())
+                    h2Connections.remove(i);
+                else if (best == null || c.streams < best.streams)
+                    best = c;
+            }
+            if (best == null || (best.streams >= best.maxStreams()
+                                 && h2Connections.size() < maxH2Connections)) {
+                best = connectH2();
+                h2Connections.add(best);
+            }
+            ++best.streams;
+            return best;
+        }
+
+        private @Nonnull H2Connection connectH2() {
+            H2Connection conn = new H2Connection(group.next().newPromise());
+            boolean tls = parsedURI.https;
+            ChannelFuture cf = h2Bootstrap.clone().handler(new ChannelInitializer<Channel>() {
+                @Override protected void initChannel(Channel ch) {
+                    if (!track(ch)) {
+                        conn.ready.tryFailure(
+                                new IllegalStateException(Targeted.this+" is closed"));
+                        return;
+                    }
+                    ChannelPipeline p = ch.pipeline();
+                    if (tls) {
+                        assert h2SslContext != null;
+                        p.addLast(h2SslContext.newHandler(ch.alloc()));
+                        p.addLast(new ApplicationProtocolNegotiationHandler(
+                                ApplicationProtocolNames.HTTP_1_1) {
+                            @Override
+                            protected void configurePipeline(ChannelHandlerContext ctx,
+                                                             String protocol) {
+                                if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                                    addH2Handlers(ctx.pipeline(), conn);
+                                } else {
+                                    fallBackToHTTP1("ALPN selected "+protocol);
+                                    ctx.close();
+                                }
+                            }
+                        });
+                    } else {
+                        addH2Handlers(p, conn);
+                    }
+                    ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                        @Override public void channelInactive(ChannelHandlerContext ctx) {
+                            if (!conn.ready.isDone()) {
+                                // connected, but the server did not speak HTTP/2
+                                fallBackToHTTP1("closed before HTTP/2 SETTINGS");
+                                conn.ready.tryFailure(new IOException("Connection to " +
+                                        parsedURI.uri+" closed before HTTP/2 SETTINGS"));
+                            }
+                            ctx.fireChannelInactive();
+                        }
+
+                        @Override public void exceptionCaught(ChannelHandlerContext ctx,
+                                                              Throwable cause) {
+                            logger.warn("Exception on HTTP/2 connection {}", ctx.channel(),
+                                        cause);
+                            ctx.close();
+                        }
+                    });
+                }
+            }).connect();
+            conn.channel = cf.channel();
+            cf.addListener(f -> {
+                if (!f.isSuccess())
+                    conn.ready.tryFailure(f.cause());
+            });
+            return conn;
+        }
+
+        private void addH2Handlers(@Nonnull ChannelPipeline p, @Nonnull H2Connection conn) {
+            Http2Settings settings = Http2Settings.defaultSettings().pushEnabled(false);
+            p.addLast("h2", Http2FrameCodecBuilder.forClient().initialSettings(settings).build());
+            p.addLast("h2mux", new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()));
+            p.addLast("h2ready", new ChannelInboundHandlerAdapter() {
+                // the codec writes the preface and SETTINGS, but does not flush them
+                @Override public void handlerAdded(ChannelHandlerContext ctx) {
+                    if (ctx.channel().isActive())
+                        ctx.flush();
+                }
+
+                @Override public void channelActive(ChannelHandlerContext ctx) {
+                    ctx.fireChannelActive();
+                    ctx.flush();
+                }
+
+                @Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                    if (msg instanceof Http2SettingsFrame)
+                        conn.ready.trySuccess(null);
+                    ReferenceCountUtil.release(msg);
+                }
+            });
+        }
+
+        private void fallBackToHTTP1(@Nonnull String reason) {
+            if (http2) {
+                logger.warn("{} does not support HTTP/2 ({}), falling back to HTTP/1.1",
+                            parsedURI.uri, reason);
+                http2 = false;
+            }
         }
 
         public @Nonnull Future<Channel>
         request(@Nonnull HttpMethod method, @Nonnull String uriOrPath,
                 @Nullable Function<ByteBufAllocator, ByteBuf> bodyGenerator,
-                @Nullable BiConsumer<SocketChannel, HttpRequest> setup) {
+                @Nullable BiConsumer<Channel, HttpRequest> setup) {
             String host, path;
             if (uriOrPath.startsWith("http")) {
                 ParsedURI p = new ParsedURI(uriOrPath, sslContext != null);
@@ -198,26 +541,61 @@ public class NettyHttpClient {
                 path = uriOrPath;
             }
 
-            return connect().addListener(f -> {
-                SocketChannel ch = (SocketChannel)f.getNow();
+            if (closed)
+                throw new IllegalStateException(this+" is closed");
+            Promise<Channel> promise = group.next().newPromise();
+            Runnable start = () -> start(promise, method, host, path, bodyGenerator, setup);
+            boolean now;
+            synchronized (this) {
+                if ((now = active < maxConcurrency))
+                    ++active;
+                else
+                    waiting.add(start);
+            }
+            if (now)
+                start.run();
+            return promise;
+        }
+
+        private void start(@Nonnull Promise<Channel> promise, @Nonnull HttpMethod method,
+                           @Nonnull String host, @Nonnull String path,
+                           @Nullable Function<ByteBufAllocator, ByteBuf> bodyGenerator,
+                           @Nullable BiConsumer<Channel, HttpRequest> setup) {
+            if (closed) {
+                abortStart(promise, new IllegalStateException(this+" is closed"));
+                return;
+            }
+            connect().addListener(f -> {
+                Channel ch = (Channel)f.getNow();
                 if (ch == null) {
                     logger.error("Failed to open connection, will not send request");
+                    abortStart(promise, f.cause());
                     return;
                 }
-                HttpRequest req;
-                if (bodyGenerator != null) {
-                    ByteBuf bb = bodyGenerator.apply(ch.alloc());
-                    req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, path, bb);
-                    req.headers().set(HttpHeaderNames.CONTENT_LENGTH, bb.readableBytes());
-                } else {
-                    req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, path);
+                synchronized (this) {
+                    inFlight.add(ch);
+                }
+                try {
+                    HttpRequest req;
+                    if (bodyGenerator != null) {
+                        ByteBuf bb = bodyGenerator.apply(ch.alloc());
+                        req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, path, bb);
+                        req.headers().set(HttpHeaderNames.CONTENT_LENGTH, bb.readableBytes());
+                    } else {
+                        req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, path);
+                    }
+                    HttpHeaders headers = req.headers();
+                    headers.set(HttpHeaderNames.HOST, host);
+                    headers.set(HttpHeaderNames.CONNECTION, "keep-alive");
+                    if (setup != null)
+                        setup.accept(ch, req);
+                    ch.writeAndFlush(req);
+                    promise.trySuccess(ch);
+                } catch (Throwable t) {
+                    logger.error("Failed to send request on {}", ch, t);
+                    ch.close(); // ends the request
+                    promise.tryFailure(t);
                 }
-                HttpHeaders headers = req.headers();
-                headers.set(HttpHeaderNames.HOST, host);
-                headers.set(HttpHeaderNames.CONNECTION, "keep-alive");
-                if (setup != null)
-                    setup.accept(ch, req);
-                ch.writeAndFlush(req);
             });
         }
 
@@ -235,9 +613,13 @@ public class NettyHttpClient {
             Stopwatch sw = Stopwatch.createStarted();
             List<ChannelFuture> closeFutures = new ArrayList<>();
             ArrayList<Channel> copy;
+            List<Runnable> queued;
             synchronized (this) {
                 copy = new ArrayList<>(this.channels);
+                queued = new ArrayList<>(waiting);
+                waiting.clear();
             }
+            queued.forEach(Runnable::run); // fail requests that were waiting for a permit
             for (Channel channel : copy) {
                 closeFutures.add(channel.close());
             }
@@ -276,14 +658,20 @@ public class NettyHttpClient {
         this.handlerSupplier = supplier;
     }
 
-    public synchronized @Nonnull Targeted acquire(@Nonnull String uri) {
+    public @Nonnull Targeted acquire(@Nonnull String uri) {
+        return acquire(uri, Protocol.HTTP_1_1);
+    }
+
+    public synchronized @Nonnull Targeted acquire(@Nonnull String uri,
+                                                  @Nonnull Protocol protocol) {
         if (references++ == 0) {
             assert group == null;
             transport = chooseTransport();
             sslContext = getSslContext();
             group = transport.createGroup();
         }
-        return new Targeted(uri, handlerName, handlerSupplier, sslContext);
+        SslContext h2 = protocol == Protocol.HTTP_2 ? getH2SslContext() : null;
+        return new Targeted(uri, handlerName, handlerSupplier, sslContext, h2, protocol);
     }
 
     private @Nonnull Transport chooseTransport() {
@@ -308,6 +696,26 @@ public class NettyHttpClient {
         }
     }
 
+    private @Nullable SslContext getH2SslContext() {
+        if (h2SslContext == null && !h2SslContextFailed) {
+            try {
+                h2SslContext = SslContextBuilder.forClient()
+                        .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                        .applicationProtocolConfig(new ApplicationProtocolConfig(
+                                ApplicationProtocolConfig.Protocol.ALPN,
+                                ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                                ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                                ApplicationProtocolNames.HTTP_2,
+                                ApplicationProtocolNames.HTTP_1_1)).build();
+            } catch (SSLException|RuntimeException e) {
+                logger.warn("Failed to initialize SSL context with ALPN, will not use h2 " +
+                            "for HTTPS requests.", e);
+                h2SslContextFailed = true;
+            }
+        }
+        return h2SslContext;
+    }
+
     private synchronized void release(long closeTimeoutMs) {
         if (--references == 0) {
             assert group != null;
@@ -317,6 +725,7 @@ public class NettyHttpClient {
             }
             group = null;
             sslContext = null;
+            h2SslContext = null;
         }
     }
 
@@ -0,0 +1,100 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import br.ufsc.lapesd.freqel.model.NTParseException;
+import br.ufsc.lapesd.freqel.model.RDFUtils;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdTermFactory;
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Incremental parser of SPARQL results in some {@link ResultsFormat}, fed with chunks of
+ * bytes as they arrive from the network.
+ *
+ * Implementations are not thread-safe.
+ */
+public interface ResultsDecoder extends AutoCloseable {
+    /**
+     * Thrown when the response is not well-formed.
+     */
+    class DecodeException extends IllegalArgumentException {
+        public DecodeException(String message) {
+            super(message);
+        }
+        public DecodeException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    interface Listener {
+        /**
+         * Handles the list of result variables.
+         *
+         * @param columns variables in the order the server sent them, prefixed with '?' as
+         *                in a TSV header. For ASK results this is empty.
+         * @return for each term of the rows given to {@link #row(Term[])}, the index of the
+         *         column in the response that provides it (-1 if it shall always be null).
+         *         If null, rows will have all columns, in order.
+         */
+        @Nullable int[] header(@Nonnull List<String> columns);
+
+        /**
+         * Handles a parsed row. A positive ASK result is a single row with no columns.
+         *
+         * @param row terms of the row, null for unbound. The array is reused for the next
+         *            row, and thus must not be retained.
+         */
+        void row(@Nonnull Term[] row);
+
+        /**
+         * Parses a N-Triples term the decoder could not parse by itself.
+         */
+        default @Nullable Term parseTerm(@Nonnull String nt) throws NTParseException {
+            return RDFUtils.fromNT(nt, StdTermFactory.INSTANCE);
+        }
+
+        /**
+         * Handles a term that could not be parsed.
+         *
+         * @return true if the term should be treated as unbound, false to discard the row.
+         */
+        default boolean badTerm(@Nonnull String term, @Nonnull NTParseException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Set the charset of the response, if it is textual.
+     */
+    @Nonnull ResultsDecoder setCharset(@Nonnull Charset charset);
+
+    /**
+     * Parses as much as possible from the chunk. Incomplete data is retained until the
+     * next {@link #feed(ByteBuf)} or {@link #finish()}.
+     *
+     * @throws DecodeException if the data is not well-formed
+     *
+     * The reader index of chunk is advanced to its writer index, but its reference count
+     * is not changed.
+     */
+    void feed(@Nonnull ByteBuf chunk);
+
+    /**
+     * Handles the end of the response.
+     */
+    void finish();
+
+    /**
+     * Prepares the decoder for a new response, keeping any caches.
+     */
+    void reset();
+
+    /**
+     * Releases buffers retained for incomplete data.
+     */
+    @Override void close();
+}
@@ -0,0 +1,74 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SPARQL results serialization formats that can be parsed incrementally by a
+ * {@link ResultsDecoder}.
+ *
+ * Values are declared in the a priori order of decoding speed: fastest first.
+ */
+public enum ResultsFormat {
+    TSV("text/tab-separated-values", "text/tsv"),
+    THRIFT("application/sparql-results+thrift"),
+    JSON("application/sparql-results+json", "application/json"),
+    XML("application/sparql-results+xml", "application/xml", "text/xml");
+
+    private final @Nonnull List<String> mediaTypes;
+
+    ResultsFormat(@Nonnull String... mediaTypes) {
+        this.mediaTypes = Collections.unmodifiableList(Arrays.asList(mediaTypes));
+    }
+
+    /**
+     * The media type to be used in Accept headers.
+     */
+    public @Nonnull String getMediaType() {
+        return mediaTypes.get(0);
+    }
+
+    /**
+     * All media types that identify this format in a Content-Type header.
+     */
+    public @Nonnull List<String> getMediaTypes() {
+        return mediaTypes;
+    }
+
+    /**
+     * Whether the format can represent the result of an ASK query.
+     */
+    public boolean supportsAsk() {
+        return this == JSON || this == XML;
+    }
+
+    public @Nonnull ResultsDecoder createDecoder(@Nonnull ResultsDecoder.Listener listener) {
+        switch (this) {
+            case TSV:    return new TSVDecoder(listener);
+            case THRIFT: return new ThriftResultsDecoder(listener);
+            case JSON:   return new JSONResultsDecoder(listener);
+            case XML:    return new XMLResultsDecoder(listener);
+        }
+        throw new UnsupportedOperationException("No decoder for "+this);
+    }
+
+    /**
+     * Get the format of a Content-Type header value, ignoring any parameters.
+     *
+     * @return the {@link ResultsFormat} or null if the media type is not recognized.
+     */
+    public static @Nullable ResultsFormat fromContentType(@Nonnull String contentType) {
+        int end = contentType.indexOf(';');
+        String mediaType = (end < 0 ? contentType : contentType.substring(0, end)).trim();
+        for (ResultsFormat format : values()) {
+            for (String candidate : format.mediaTypes) {
+                if (candidate.equalsIgnoreCase(mediaType))
+                    return format;
+            }
+        }
+        return null;
+    }
+}
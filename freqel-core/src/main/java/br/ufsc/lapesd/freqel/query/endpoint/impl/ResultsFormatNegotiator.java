@@ -0,0 +1,158 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Chooses the {@link ResultsFormat} to request from a single endpoint, learning which
+ * format is fastest to decode.
+ *
+ * The decoding cost of each format is an exponentially weighted moving average of the
+ * nanoseconds spent per row, observed on responses with at least {@link #MIN_ROWS} rows.
+ * Until a format has been measured, the a priori order of {@link ResultsFormat} is used.
+ * Every {@link #EXPLORE_INTERVAL} requests, a format with less than {@link #MIN_SAMPLES}
+ * samples is preferred instead of the best known format. A format is no longer requested
+ * once the endpoint answers a request for it with another format.
+ */
+@ThreadSafe
+public class ResultsFormatNegotiator {
+    public static final int MIN_ROWS = 256;
+    public static final int MIN_SAMPLES = 3;
+    public static final int EXPLORE_INTERVAL = 16;
+    public static final double ALPHA = 0.25;
+
+    private final @Nonnull List<ResultsFormat> formats;
+    private final @Nonnull double[] nsPerRow;
+    private final @Nonnull int[] samples;
+    private final @Nonnull boolean[] unsupported;
+    private long selects = 0;
+
+    public ResultsFormatNegotiator(@Nonnull Collection<ResultsFormat> formats) {
+        if (formats.isEmpty())
+            throw new IllegalArgumentException("No ResultsFormat given");
+        this.formats = new ArrayList<>(EnumSet.copyOf(formats));
+        this.nsPerRow = new double[this.formats.size()];
+        this.samples = new int[this.formats.size()];
+        this.unsupported = new boolean[this.formats.size()];
+    }
+
+    public ResultsFormatNegotiator() {
+        this(EnumSet.allOf(ResultsFormat.class));
+    }
+
+    public @Nonnull List<ResultsFormat> getFormats() {
+        return formats;
+    }
+
+    private boolean usable(int i, boolean ask) {
+        return !unsupported[i] && (!ask || formats.get(i).supportsAsk());
+    }
+
+    private int best(boolean ask) {
+        int best = -1;
+        for (int i = 0; i < formats.size(); i++) {
+            if (!usable(i, ask))
+                continue;
+            if (best < 0)
+                best = i;
+            else if (samples[i] > 0 && (samples[best] == 0 || nsPerRow[i] < nsPerRow[best]))
+                best = i;
+        }
+        return best;
+    }
+
+    /**
+     * Chooses the format to be preferred in the next request.
+     */
+    public synchronized @Nonnull ResultsFormat choose(boolean ask) {
+        if (!ask && ++selects % EXPLORE_INTERVAL == 0) {
+            int explore = -1;
+            for (int i = 0; i < formats.size(); i++) {
+                if (usable(i, false) && samples[i] < MIN_SAMPLES
+                        && (explore < 0 || samples[i] < samples[explore])) {
+                    explore = i;
+                }
+            }
+            if (explore >= 0)
+                return formats.get(explore);
+        }
+        int best = best(ask);
+        if (best < 0) // every format was rejected by the server. Insist on something
+            return ask ? ResultsFormat.JSON : formats.get(0);
+        return formats.get(best);
+    }
+
+    /**
+     * Builds the value of an Accept header that prefers the given format, but also accepts
+     * other usable formats with decreasing quality values.
+     */
+    public synchronized @Nonnull String accept(@Nonnull ResultsFormat preferred, boolean ask) {
+        StringBuilder b = new StringBuilder(128).append(preferred.getMediaType());
+        if (preferred == ResultsFormat.TSV)
+            b.append("; charset=utf-8");
+        double q = 0.9;
+        for (int i = 0; i < formats.size(); i++) {
+            ResultsFormat format = formats.get(i);
+            if (format == preferred || !usable(i, ask))
+                continue;
+            b.append(", ").append(format.getMediaType())
+             .append(String.format(Locale.ROOT, "; q=%.1f", q));
+            q = Math.max(0.1, q - 0.1);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Reports the decoding of a response.
+     *
+     * @param requested the format preferred in the request
+     * @param received the format of the response
+     * @param rows number of decoded rows
+     * @param nanos time spent decoding the response
+     */
+    public synchronized void report(@Nonnull ResultsFormat requested,
+                                    @Nonnull ResultsFormat received, long rows, long nanos) {
+        int requestedIdx = formats.indexOf(requested), receivedIdx = formats.indexOf(received);
+        if (requested != received && requestedIdx >= 0)
+            unsupported[requestedIdx] = true;
+        if (receivedIdx < 0 || rows < MIN_ROWS)
+            return;
+        double sample = nanos / (double)rows;
+        if (samples[receivedIdx]++ == 0)
+            nsPerRow[receivedIdx] = sample;
+        else
+            nsPerRow[receivedIdx] = ALPHA * sample + (1 - ALPHA) * nsPerRow[receivedIdx];
+    }
+
+    /**
+     * Current estimate of decoding nanoseconds per row, or NaN if never measured.
+     */
+    public synchronized double getNsPerRow(@Nonnull ResultsFormat format) {
+        int i = formats.indexOf(format);
+        return i < 0 || samples[i] == 0 ? Double.NaN : nsPerRow[i];
+    }
+
+    public synchronized boolean isUnsupported(@Nonnull ResultsFormat format) {
+        int i = formats.indexOf(format);
+        return i < 0 || unsupported[i];
+    }
+
+    @Override public synchronized @Nonnull String toString() {
+        StringBuilder b = new StringBuilder("ResultsFormatNegotiator{");
+        for (int i = 0; i < formats.size(); i++) {
+            b.append(formats.get(i));
+            if (unsupported[i])
+                b.append("=unsupported");
+            else if (samples[i] > 0)
+                b.append(String.format(Locale.ROOT, "=%.1fns/row", nsPerRow[i]));
+            b.append(", ");
+        }
+        b.setLength(b.length()-2);
+        return b.append('}').toString();
+    }
+}
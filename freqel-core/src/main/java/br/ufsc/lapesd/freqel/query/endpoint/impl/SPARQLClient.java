@@ -16,16 +16,19 @@ import br.ufsc.lapesd.freqel.query.CQuery;
 import br.ufsc.lapesd.freqel.query.MutableCQuery;
 import br.ufsc.lapesd.freqel.query.endpoint.*;
 import br.ufsc.lapesd.freqel.query.endpoint.exceptions.DQEndpointException;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.HTTPStatusException;
 import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
+import br.ufsc.lapesd.freqel.query.modifiers.Aggregation;
 import br.ufsc.lapesd.freqel.query.modifiers.Ask;
 import br.ufsc.lapesd.freqel.query.modifiers.Projection;
 import br.ufsc.lapesd.freqel.query.results.AbstractResults;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
 import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SolutionBlock;
 import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
 import br.ufsc.lapesd.freqel.util.CollectionUtils;
-import com.google.common.base.Splitter;
+import br.ufsc.lapesd.freqel.util.VirtualThreads;
 import com.google.common.base.Stopwatch;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.errorprone.annotations.CheckReturnValue;
@@ -33,6 +36,8 @@ import com.google.gson.Gson;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.internal.LinkedTreeMap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import org.apache.http.*;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
@@ -54,6 +59,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URI;
@@ -84,7 +90,7 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
     private static final String XSD_STRING_SUFFIX = "^^<"+ V.XSD.xstring.getURI()+">";
     private static final Pattern CSV_URI_RX = Pattern.compile("^\"?\\w+:");
     private static final Pattern DISTINCT_RX = Pattern.compile("(?i)^SELECT\\W*DISTINCT");
-    private static final String POST_QUOTE = "@^\t\r\n";
+    private static final int READ_CHUNK_SIZE = 64*1024;
 
     private final @Nonnull HttpHost host;
     private final @Nonnull String uri;
@@ -98,7 +104,7 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
             = new PoolingHttpClientConnectionManager();
     private final @Nonnull ConcurrentLinkedQueue<CloseableHttpClient> clientPool
             = new ConcurrentLinkedQueue<>();
-    private final @Nonnull ThreadPoolExecutor connectExecutor;
+    private @Nonnull ExecutorService connectExecutor;
     private boolean warnedCSVFormat = false;
     private int fallbackKeepAliveTimeout = 10;
     private long statsLogMs = 5*60*1000;
@@ -124,10 +130,15 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
         this.host = URIUtils.extractHost(uri);
         connMgr.setDefaultMaxPerRoute(128);
         connMgr.setMaxTotal(128);
-        this.connectExecutor = new ThreadPoolExecutor(0,
+        this.connectExecutor = createPlatformConnectExecutor();
+    }
+
+    private static @Nonnull ExecutorService createPlatformConnectExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0,
                 2, 30, TimeUnit.SECONDS,
                 new LinkedBlockingQueue<>(), new ThreadPoolExecutor.CallerRunsPolicy());
-        connectExecutor.submit(() -> {}); //dummy to keep an initial thread ready
+        executor.submit(() -> {}); //dummy to keep an initial thread ready
+        return executor;
     }
 
     public @Nonnull String getURI() {
@@ -178,6 +189,30 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
         return this;
     }
 
+    /**
+     * Sends requests and waits for responses in a new virtual thread per query, instead of in
+     * a pool of at most two platform threads. Has no effect if the JVM does not support
+     * virtual threads.
+     *
+     * This should be called before the first query.
+     *
+     * @param virtualThreads whether to use virtual threads
+     * @return this {@link SPARQLClient}
+     */
+    @CanIgnoreReturnValue
+    public @Nonnull SPARQLClient setVirtualThreads(boolean virtualThreads) {
+        ExecutorService replacement = null;
+        if (virtualThreads)
+            replacement = VirtualThreads.newPerTaskExecutor("SPARQLClient-" + host.getHostName() + "-");
+        else if (!(connectExecutor instanceof ThreadPoolExecutor))
+            replacement = createPlatformConnectExecutor();
+        if (replacement != null) {
+            connectExecutor.shutdown(); // let queued connections complete
+            connectExecutor = replacement;
+        }
+        return this;
+    }
+
     /**
      * Sets the maximum number of connections to be kept alive (active or idle).
      */
@@ -284,6 +319,9 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
             return execute(query, JSON_ACCEPT, emptySet(), AskResults::new);
         Projection p = query.getModifiers().projection();
         Set<String> vars = p == null ? query.attr().publicTripleVarNames() : p.getVarNames();
+        Aggregation aggregation = query.getModifiers().aggregation();
+        if (aggregation != null)
+            vars = aggregation.getResultVars();
         return execute(query, TSV_ACCEPT, vars, TSVResults::new);
     }
 
@@ -330,6 +368,9 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
             case VALUES:
             case OPTIONAL:
             case ASK:
+            case ORDER_BY:
+            case OFFSET:
+            case AGGREGATION:
                 return true;
             default:
                 return false;
@@ -407,7 +448,9 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
         @Nullable HttpClientContext httpContext;
         @Nullable CloseableHttpResponse httpResponse;
         @Nullable HttpGet httpGet;
+        @Nullable InputStream input;
         @Nullable Reader reader;
+        @Nonnull Charset charset = UTF_8;
         boolean distinct, ask;
         @Nullable Op opQuery;
         @Nullable CQuery query;
@@ -459,14 +502,19 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
                 httpResponse = httpClient.execute(host, httpGet, httpContext);
                 assert httpResponse != null;
                 double responseMs = sw.elapsed(TimeUnit.MICROSECONDS)/1000.0;
-                updateTimes(createSPARQLMs, setupMs, createGetMs, responseMs, httpResponse.getStatusLine().getStatusCode());
+                int status = httpResponse.getStatusLine().getStatusCode();
+                updateTimes(createSPARQLMs, setupMs, createGetMs, responseMs, status);
+                if (status > 299 || status < 200)
+                    throw failStatus(status, httpResponse.getStatusLine().getReasonPhrase());
                 if (!httpResponse.getEntity().isStreaming()) {
                     logger.warn("HttpResponse entity for {} is not streaming. " +
                                 "This will hurt parallelism", httpGet.getURI());
                 }
                 logger.debug("{}ms for GET {} ", responseMs, httpGet.getURI());
-                Charset cs = ask ? UTF_8 : getCharset(httpResponse, httpContext);
-                this.reader = new InputStreamReader(httpResponse.getEntity().getContent(), cs);
+                this.charset = ask ? UTF_8 : getCharset(httpResponse, httpContext);
+                this.input = httpResponse.getEntity().getContent();
+                if (ask)
+                    this.reader = new InputStreamReader(input, charset);
                 return this;
             } catch (IOException e) {
                 throw new QueryExecutionException("IOException while reading from "
@@ -474,6 +522,18 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
             }
         }
 
+        private @Nonnull HTTPStatusException failStatus(int status, @Nullable String reason) {
+            assert httpGet != null;
+            HTTPStatusException ex = new HTTPStatusException(SPARQLClient.this, status,
+                    (reason == null ? "" : reason + " ") + "for GET " + httpGet.getURI());
+            try {
+                close();
+            } catch (Exception e) {
+                ex.addSuppressed(e);
+            }
+            return ex;
+        }
+
         public void close() throws Exception {
             Exception exception = null;
             if (httpResponse != null) {
@@ -485,6 +545,7 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
 
             try {
                 if (reader != null) reader.close();
+                else if (input != null) input.close();
             } catch (IOException e) {
                 if (exception == null) exception = e;
                 exception.addSuppressed(e);
@@ -715,8 +776,13 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
         }
         @Override
         public boolean hasNext(int millisecondsTimeout) {
-            if (!waitForConnection(millisecondsTimeout))
-                return false; // timeout or failed to init: no results
+            if (!waitForConnection(millisecondsTimeout)) {
+                if (connectionFailure instanceof RuntimeException)
+                    throw (RuntimeException) connectionFailure;
+                else if (connectionFailure != null)
+                    throw new QueryExecutionException(SPARQLClient.this, connectionFailure);
+                return false; // timeout
+            }
             if (!queue.isEmpty())
                 return true; // has buffered Solutions
             if (!exhausted)
@@ -732,6 +798,18 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
             return queue.remove();
         }
 
+        @Override
+        public int nextBatch(@Nonnull SolutionBlock block, int max) {
+            int limit = Math.min(max, block.remaining()), count = 0;
+            if (limit <= 0 || !hasNext())
+                return 0;
+            if (!exhausted && queue.size() < limit)
+                parse(limit - queue.size(), 0); // only parses what can be read without blocking
+            for (; count < limit && !queue.isEmpty(); ++count)
+                block.add(queue.remove());
+            return count;
+        }
+
         @Override @OverridingMethodsMustInvokeSuper
         public void close() throws ResultsCloseException {
             if (closed)
@@ -751,14 +829,11 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
         }
     }
 
-    protected class TSVResults extends BaseResults {
+    protected class TSVResults extends BaseResults implements ResultsDecoder.Listener {
         private @Nullable ArraySolution.ValueFactory solutionFac;
-        private final @Nonnull StringBuilder line = new StringBuilder();
-        private final @Nonnull BitSet includedColumns = new BitSet();
-        private int nullColumnsCount = 0;
-        private int records = -1;
-        private boolean csvFormat = false, gotReturn = false, inQuotes = false, inTerm = false;
-        private int innerQuotes = 0;
+        private @Nullable TSVDecoder decoder;
+        private int records = 0;
+        private boolean csvFormat = false;
         private final @Nonnull TermFactory termFactory = new StdTermFactory();
 
         public TSVResults(@Nonnull Collection<String> varNames,
@@ -772,83 +847,20 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
             return connection == null ? null : connection.httpGet.getURI();
         }
 
-        @CanIgnoreReturnValue
-        private boolean parseChar(char c) {
-            if (c == '"') {
-                if (!inTerm) {
-                    inQuotes = true;
-                } else {
-                    ++innerQuotes;
-                    if (innerQuotes == 2)
-                        innerQuotes = 0;
-                    assert innerQuotes < 2;
-                }
-            } else if (inQuotes && innerQuotes == 1) {
-                innerQuotes = 0;
-                if (POST_QUOTE.indexOf(c) < 0) {
-                    logger.error("Bad closing \" mark. Closes a term but is followed by " +
-                                 "'{}' (int value: {}). Current line buffer: {}", c,
-                                 Character.getNumericValue(c), line.toString());
-                } else {
-                    inQuotes = false; //effectively close the quotation
-                }
-            } else {
-                assert innerQuotes == 0;
-            }
-            inTerm = true;
-
-            if (c == '\r' && !inQuotes) {
-                if (gotReturn)
-                    line.append('\r');
-                gotReturn = true;
-            } else if (c == '\n' && !inQuotes) {
-                boolean parsed = parseLine();
-                gotReturn = false;
-                inTerm = false;
-                return parsed; //true if queued a new solution
-            } else {
-                if (c == '\t' && !inQuotes)
-                    inTerm = false;
-                gotReturn = false;
-                line.append(c);
-            }
-            return false; //did not queued a new solution
+        @Override public void row(@Nonnull Term[] row) {
+            assert solutionFac != null;
+            ++records;
+            queue.add(solutionFac.fromValues(row));
         }
 
-        private boolean parseLine() {
-            if (records == -1) {
-                parseHeaders();
-                records = 0;
-            } else {
-                List<Term> terms = new ArrayList<>();
-                int idx = -1;
-                for (String ntString : Splitter.on('\t').split(line.toString())) {
-                    ++idx;
-                    if (!includedColumns.get(idx))
-                        continue; // column is projected-out
-                    try {
-                        terms.add(parseTerm(ntString));
-                    } catch (NTParseException e) {
-                        logger.error("Discarding record {} due to invalid NT string: {}.",
-                                     records, ntString);
-                        ++nDiscardedSolutions;
-                        terms = null;
-                        break;
-                    }
-                }
-                line.setLength(0);
-                ++records;
-                if (terms != null) {
-                    assert solutionFac != null;
-                    for (int i = 0; i < nullColumnsCount; i++) terms.add(null);
-                    queue.add(solutionFac.fromValues(terms));
-                    return true;
-                }
-            }
+        @Override public boolean badTerm(@Nonnull String nt, @Nonnull NTParseException e) {
+            logger.error("Discarding record {} due to invalid NT string: {}.", records, nt);
+            ++records;
+            ++nDiscardedSolutions;
             return false;
         }
 
-        private @Nullable Term parseTerm(@Nonnull String nt) throws NTParseException {
+        @Override public @Nullable Term parseTerm(@Nonnull String nt) throws NTParseException {
             try {
                 return RDFUtils.fromNT(unquote(nt), termFactory);
             } catch (NTParseException e) {
@@ -917,15 +929,16 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
             }
         }
 
-        private void parseHeaders() {
+        @Override public @Nullable int[] header(@Nonnull List<String> columns) {
             List<String> actual = new ArrayList<>();
+            List<Integer> included = new ArrayList<>();
             int idx = -1;
-            for (String var : Splitter.on('\t').split(line.toString())) {
+            for (String var : columns) {
                 ++idx;
                 // both TSV and CSV can quote terms
-                if (var.charAt(0) == '"' && var.charAt(var.length()-1) == '"')
+                if (var.length() > 1 && var.charAt(0) == '"' && var.charAt(var.length()-1) == '"')
                     var = var.substring(1, var.length() - 1);
-                if (var.charAt(0) == '?' || var.charAt(0) == '$') {
+                if (!var.isEmpty() && (var.charAt(0) == '?' || var.charAt(0) == '$')) {
                     var = var.substring(1);
                 } else {
                     // TSV format requires ?, while CSV forbids
@@ -934,7 +947,7 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
                     setCsvFormat();
                 }
                 if (varNames.contains(var)) {
-                    includedColumns.set(idx);
+                    included.add(idx);
                     actual.add(var);
                 }
             }
@@ -942,7 +955,7 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
                 logger.error("{} sent duplicate variables in response: {}. URI: {}",
                              host, actual, getURI());
             }
-            nullColumnsCount = varNames.size() - actual.size();
+            int nullColumnsCount = varNames.size() - actual.size();
             assert nullColumnsCount >= 0;
             if (nullColumnsCount > 0) {
                 Set<String> missing = CollectionUtils.setMinus(varNames, actual);
@@ -951,11 +964,17 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
                 actual.addAll(missing);
             }
             solutionFac = ArraySolution.forVars(actual);
-            line.setLength(0);
+            int[] projection = new int[actual.size()];
+            Arrays.fill(projection, -1);
+            for (int i = 0, size = included.size(); i < size; i++)
+                projection[i] = included.get(i);
+            return projection;
         }
 
         private void setCsvFormat() {
             csvFormat = true;
+            if (decoder != null)
+                decoder.setFastTerms(false); // all terms must go through unquote()
             if (!warnedCSVFormat) {
                 warnedCSVFormat = true;
                 logger.warn("Server {} is using CSV formatting rules in {}. CSV rules for RDF " +
@@ -968,37 +987,53 @@ public class SPARQLClient extends AbstractTPEndpoint implements DQEndpoint {
         protected void parse(int minimumSolutions, int msTimeout) {
             if (exhausted) return; // no work
             assert connection != null;
-            Reader reader = connection.reader;
-            assert reader != null;
+            InputStream input = connection.input;
+            assert input != null;
             assert minimumSolutions >= 0;
+            if (decoder == null) {
+                // quote-aware: some servers apply CSV quoting rules, allowing raw line breaks
+                decoder = new TSVDecoder(this).setCharset(connection.charset)
+                                              .setQuoteAware(true).setFastTerms(!csvFormat);
+            }
             int parsedCount = 0;
 
             Stopwatch sw = Stopwatch.createStarted();
             try {
                 while ((parsedCount < minimumSolutions)) {
-                    if (!reader.ready() && sw.elapsed(TimeUnit.MILLISECONDS) >= msTimeout)
+                    if (input.available() <= 0 && sw.elapsed(TimeUnit.MILLISECONDS) >= msTimeout)
                         break;
-                    int value = reader.read();
-                    if (value >= 0) {
-                        if (parseChar((char) value))
-                            ++parsedCount;
-                    } else {
-                        if (line.length() > 0) { //add missing separator
-                            parseChar('\r');
-                            if (parseChar('\n'))
-                                ++parsedCount;
+                    int before = queue.size();
+                    ByteBuf chunk = PooledByteBufAllocator.DEFAULT.heapBuffer(READ_CHUNK_SIZE);
+                    try {
+                        if (chunk.writeBytes(input, READ_CHUNK_SIZE) < 0) {
+                            decoder.finish(); // last line may lack a line break
+                            decoder.close();
+                            exhausted = true;
+                        } else {
+                            decoder.feed(chunk);
                         }
-                        exhausted = true;
-                        break;
+                    } finally {
+                        chunk.release();
                     }
+                    parsedCount += queue.size() - before;
+                    if (exhausted)
+                        break;
                 }
             } catch (IOException e) {
                 logger.error("IOException reading results from {}. Will stop fetching " +
                              "additional results. {} ready solutions in the queue",
                              getURI(), queue.size(), e);
+                decoder.close();
                 exhausted = true;
             }
         }
+
+        @Override
+        public void close() throws ResultsCloseException {
+            if (decoder != null)
+                decoder.close();
+            super.close();
+        }
     }
 
     protected class AskResults extends BaseResults {
@@ -0,0 +1,266 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import br.ufsc.lapesd.freqel.V;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.URI;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdTermFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.util.ByteProcessor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental parser of SPARQL text/tab-separated-values results that works on the bytes
+ * received from the network.
+ *
+ * Lines are located and split into columns without decoding chunks into {@link String}s.
+ * Only a line that spans more than one chunk is accumulated, as retained slices in a
+ * {@link CompositeByteBuf}. Common N-Triples forms (IRIs, blank nodes and literals
+ * without long quotes) are parsed from the bytes, everything else is delegated to
+ * {@link Listener#parseTerm(String)}. Repeated IRIs (including literal datatypes) are served
+ * from a small cache, avoiding both the decoding and the allocation of a new {@link URI}.
+ */
+@NotThreadSafe
+public class TSVDecoder extends AbstractResultsDecoder {
+    private static final byte LF = '\n', CR = '\r', TAB = '\t', QUOTE = '"';
+
+    private boolean quoteAware = false, fastTerms = true;
+    private @Nullable CompositeByteBuf carry;
+    private @Nonnull byte[] scratch = new byte[256];
+    private final @Nonnull QuotedLineEnd quotedLineEnd = new QuotedLineEnd();
+
+    /**
+     * Finds the end of a line, ignoring line breaks inside quotes. This mimics what servers
+     * that apply CSV rules to TSV results do.
+     */
+    private static class QuotedLineEnd implements ByteProcessor {
+        private static final String POST_QUOTE = "@^\t\r\n";
+        boolean inQuotes, pendingQuote, fieldStart = true;
+
+        void reset() {
+            inQuotes = pendingQuote = false;
+            fieldStart = true;
+        }
+
+        @Override public boolean process(byte value) {
+            if (value == QUOTE) {
+                if (fieldStart)
+                    inQuotes = true;
+                else if (inQuotes)
+                    pendingQuote = !pendingQuote;
+            } else if (pendingQuote) {
+                pendingQuote = false;
+                if (POST_QUOTE.indexOf(value) >= 0)
+                    inQuotes = false;
+            }
+            fieldStart = false;
+            if (!inQuotes) {
+                if (value == LF) {
+                    reset();
+                    return false;
+                }
+                fieldStart = value == TAB;
+            }
+            return true;
+        }
+    }
+
+    public TSVDecoder(@Nonnull Listener listener) {
+        super(listener);
+    }
+
+    @Override public @Nonnull TSVDecoder setCharset(@Nonnull Charset charset) {
+        super.setCharset(charset);
+        return this;
+    }
+
+    /**
+     * If enabled, '\n' inside double quotes do not end a line. Compliant servers escape line
+     * breaks inside literals, but some servers incorrectly apply CSV quoting rules to TSV.
+     */
+    public @Nonnull TSVDecoder setQuoteAware(boolean quoteAware) {
+        this.quoteAware = quoteAware;
+        return this;
+    }
+
+    /**
+     * If disabled, every non-empty term is given to {@link Listener#parseTerm(String)}.
+     */
+    public @Nonnull TSVDecoder setFastTerms(boolean fastTerms) {
+        this.fastTerms = fastTerms;
+        return this;
+    }
+
+    /**
+     * Prepares the decoder for a new response. The IRI cache is kept.
+     */
+    @Override public void reset() {
+        super.reset();
+        releaseCarry();
+        quotedLineEnd.reset();
+    }
+
+    /**
+     * Parses a pending last line that was not terminated by a line break.
+     */
+    @Override public void finish() {
+        if (carry != null) {
+            try {
+                if (carry.isReadable())
+                    line(carry, carry.readerIndex(), carry.writerIndex());
+            } finally {
+                releaseCarry();
+            }
+        }
+        quotedLineEnd.reset();
+    }
+
+    /**
+     * Releases buffers retained for an incomplete line.
+     */
+    @Override public void close() {
+        releaseCarry();
+    }
+
+    private void releaseCarry() {
+        if (carry != null) {
+            carry.release();
+            carry = null;
+        }
+    }
+
+    private int lineEnd(@Nonnull ByteBuf buf, int begin, int end) {
+        if (quoteAware)
+            return buf.forEachByte(begin, end-begin, quotedLineEnd);
+        return buf.indexOf(begin, end, LF);
+    }
+
+    @Override protected void feedBytes(@Nonnull ByteBuf chunk) {
+        int begin = chunk.readerIndex(), end = chunk.writerIndex();
+        if (carry != null) {
+            int lf = lineEnd(chunk, begin, end);
+            carry.addComponent(true, chunk.retainedSlice(begin, (lf < 0 ? end : lf) - begin));
+            if (lf < 0) {
+                chunk.readerIndex(end);
+                return;
+            }
+            try {
+                line(carry, carry.readerIndex(), carry.writerIndex());
+            } finally {
+                releaseCarry();
+            }
+            begin = lf+1;
+        }
+        for (int lf; begin < end && (lf = lineEnd(chunk, begin, end)) >= 0; begin = lf+1)
+            line(chunk, begin, lf);
+        if (begin < end) {
+            carry = chunk.alloc().compositeBuffer();
+            carry.addComponent(true, chunk.retainedSlice(begin, end-begin));
+        }
+        chunk.readerIndex(end);
+    }
+
+    private void line(@Nonnull ByteBuf buf, int begin, int end) {
+        if (end > begin && buf.getByte(end-1) == CR)
+            --end;
+        int len = end - begin, off;
+        byte[] bytes;
+        if (buf.hasArray()) {
+            bytes = buf.array();
+            off = buf.arrayOffset() + begin;
+        } else {
+            if (scratch.length < len)
+                scratch = new byte[Math.max(len, scratch.length*2)];
+            buf.getBytes(begin, scratch, 0, len);
+            bytes = scratch;
+            off = 0;
+        }
+        if (isHeaderDone())
+            row(bytes, off, off+len);
+        else
+            header(bytes, off, off+len);
+    }
+
+    private static int indexOf(@Nonnull byte[] bytes, int begin, int end, byte value) {
+        for (int i = begin; i < end; i++) {
+            if (bytes[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private void header(@Nonnull byte[] bytes, int begin, int end) {
+        List<String> columns = new ArrayList<>();
+        for (int i = begin, sep; i < end; i = sep+1) {
+            if ((sep = indexOf(bytes, i, end, TAB)) < 0) sep = end;
+            columns.add(string(bytes, i, sep));
+        }
+        header(columns);
+    }
+
+    private void row(@Nonnull byte[] bytes, int begin, int end) {
+        beginRow();
+        for (int col = 0, i = begin, sep; i < end && !isDiscardingRow(); ++col, i = sep+1) {
+            if ((sep = indexOf(bytes, i, end, TAB)) < 0) sep = end;
+            int out = output(col);
+            if (out >= 0 && sep > i)
+                set(out, term(bytes, i, sep));
+        }
+        endRow();
+    }
+
+    private @Nullable Term term(@Nonnull byte[] bytes, int begin, int end) {
+        if (fastTerms && end - begin > 2) {
+            byte first = bytes[begin], last = bytes[end-1];
+            if (first == '<' && last == '>')
+                return uri(bytes, begin+1, end-1);
+            if (first == '_' && bytes[begin+1] == ':')
+                return StdTermFactory.INSTANCE.createBlank(string(bytes, begin+2, end));
+            if (first == QUOTE) {
+                Term lit = literal(bytes, begin, end, last);
+                if (lit != null)
+                    return lit;
+            }
+        }
+        return parseTerm(string(bytes, begin, end));
+    }
+
+    private static boolean isLangChar(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                || b == '-' || b == '_';
+    }
+
+    /**
+     * Parses a literal between begin and end, or returns null if the literal should be
+     * parsed by {@link Listener#parseTerm(String)}.
+     */
+    private @Nullable Term literal(@Nonnull byte[] bytes, int begin, int end, byte last) {
+        assert bytes[begin] == QUOTE && end - begin > 2;
+        if (bytes[begin+1] == QUOTE)
+            return null; // """long""" literals, ""@lang and "" wrapping terms
+        if (last == QUOTE) {
+            if (bytes[begin+1] == '<')
+                return null; // may be a quoted IRI from a server applying CSV rules
+            return StdLit.fromEscaped(string(bytes, begin+1, end-1), V.XSD.xstring);
+        } else if (last == '>') {
+            int lt = end-2;
+            while (lt > begin && bytes[lt] != '<') --lt;
+            if (lt-3 <= begin || bytes[lt-1] != '^' || bytes[lt-2] != '^' || bytes[lt-3] != QUOTE)
+                return null;
+            URI datatype = uri(bytes, lt+1, end-1);
+            return StdLit.fromEscaped(string(bytes, begin+1, lt-3), datatype);
+        } else {
+            int at = end-1;
+            while (at > begin && isLangChar(bytes[at])) --at;
+            if (at == end-1 || at-1 <= begin || bytes[at] != '@' || bytes[at-1] != QUOTE)
+                return null;
+            return StdLit.fromEscaped(string(bytes, begin+1, at-1), string(bytes, at+1, end));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import br.ufsc.lapesd.freqel.V;
+import br.ufsc.lapesd.freqel.model.NTParseException;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdTermFactory;
+import io.netty.buffer.ByteBuf;
+import org.apache.jena.riot.thrift.TRDF;
+import org.apache.jena.riot.thrift.wire.*;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental parser of Jena's binary RDF Thrift results (application/sparql-results+thrift).
+ *
+ * The response is a {@link RDF_VarTuple} followed by one {@link RDF_DataTuple} per row.
+ * Tuples are read from an internal buffer with the same compact protocol used by Jena. A
+ * tuple that is not yet complete aborts the read, which is retried from the tuple start once
+ * the next chunk arrives.
+ *
+ * There is no ASK result in this format.
+ */
+@NotThreadSafe
+public class ThriftResultsDecoder extends AbstractResultsDecoder {
+    private static final @Nonnull TTransportException UNDERFLOW =
+            new TTransportException(TTransportException.END_OF_FILE, "incomplete tuple");
+
+    private final @Nonnull Transport transport = new Transport();
+    private final @Nonnull TProtocol protocol = TRDF.protocol(transport);
+    private final @Nonnull RDF_VarTuple varTuple = new RDF_VarTuple();
+    private final @Nonnull RDF_DataTuple dataTuple = new RDF_DataTuple();
+    private @Nonnull Term[] previous = new Term[0];
+
+    private static class Transport extends TTransport {
+        byte[] buf = new byte[8192];
+        int pos, limit;
+
+        void append(@Nonnull ByteBuf chunk) {
+            int len = chunk.readableBytes();
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit-pos);
+                limit -= pos;
+                pos = 0;
+            }
+            if (buf.length - limit < len) {
+                byte[] bigger = new byte[Math.max(limit+len, buf.length*2)];
+                System.arraycopy(buf, 0, bigger, 0, limit);
+                buf = bigger;
+            }
+            chunk.readBytes(buf, limit, len);
+            limit += len;
+        }
+
+        @Override public boolean isOpen() { return true; }
+        @Override public void open() { }
+        @Override public void close() { }
+
+        @Override public int read(byte[] dst, int off, int len) throws TTransportException {
+            if (limit - pos < len)
+                throw UNDERFLOW;
+            System.arraycopy(buf, pos, dst, off, len);
+            pos += len;
+            return len;
+        }
+
+        @Override public void write(byte[] src, int off, int len) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public byte[] getBuffer() { return buf; }
+        @Override public int getBufferPosition() { return pos; }
+        @Override public int getBytesRemainingInBuffer() { return limit - pos; }
+        @Override public void consumeBuffer(int len) { pos += len; }
+    }
+
+    public ThriftResultsDecoder(@Nonnull Listener listener) {
+        super(listener);
+    }
+
+    /**
+     * The format is binary, thus the charset is ignored.
+     */
+    @Override public @Nonnull ThriftResultsDecoder setCharset(@Nonnull Charset charset) {
+        return this;
+    }
+
+    @Override public void reset() {
+        super.reset();
+        transport.pos = transport.limit = 0;
+        if (transport.buf.length > 65536)
+            transport.buf = new byte[8192];
+        protocol.reset();
+    }
+
+    @Override public void close() {
+        transport.pos = transport.limit = 0;
+    }
+
+    @Override protected void feedBytes(@Nonnull ByteBuf chunk) {
+        transport.append(chunk);
+        while (transport.pos < transport.limit) {
+            int mark = transport.pos;
+            try {
+                if (isHeaderDone()) {
+                    dataTuple.clear();
+                    dataTuple.read(protocol);
+                    row(dataTuple.getRow());
+                } else {
+                    varTuple.clear();
+                    varTuple.read(protocol);
+                    varsHeader(varTuple.getVars());
+                }
+            } catch (TTransportException e) {
+                if (e != UNDERFLOW)
+                    throw new DecodeException("Bad Thrift results: "+e.getMessage(), e);
+                transport.pos = mark;
+                protocol.reset();
+                break;
+            } catch (TException e) {
+                throw new DecodeException("Bad Thrift results: "+e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override public void finish() {
+        int remaining = transport.limit - transport.pos;
+        transport.pos = transport.limit = 0;
+        if (!isHeaderDone())
+            varsHeader(null);
+        if (remaining > 0)
+            throw new DecodeException("Truncated Thrift results: "+remaining+" bytes left");
+    }
+
+    private void varsHeader(@Nullable List<RDF_VAR> vars) {
+        List<String> columns = new ArrayList<>(vars == null ? 0 : vars.size());
+        if (vars != null) {
+            for (RDF_VAR var : vars)
+                columns.add("?"+var.getName());
+        }
+        previous = new Term[columns.size()];
+        header(columns);
+    }
+
+    private void row(@Nullable List<RDF_Term> terms) {
+        beginRow();
+        if (terms != null) {
+            for (int i = 0, size = terms.size(); i < size && !isDiscardingRow(); i++) {
+                int out = output(i);
+                if (out < 0)
+                    continue;
+                RDF_Term term = terms.get(i);
+                Term value = term.isSetRepeat() ? (i < previous.length ? previous[i] : null)
+                                                : term(term);
+                if (i < previous.length)
+                    previous[i] = value;
+                set(out, value);
+            }
+        }
+        endRow();
+    }
+
+    private @Nullable Term term(@Nonnull RDF_Term term) {
+        if (term.isSetIri())
+            return uri(term.getIri().getIri());
+        if (term.isSetLiteral()) {
+            RDF_Literal lit = term.getLiteral();
+            String lang = lit.getLangtag();
+            if (lang != null && !lang.isEmpty())
+                return StdLit.fromUnescaped(lit.getLex(), lang);
+            String dt = lit.getDatatype();
+            return StdLit.fromUnescaped(lit.getLex(), dt == null ? V.XSD.xstring : uri(dt));
+        }
+        if (term.isSetBnode())
+            return StdTermFactory.INSTANCE.createBlank(term.getBnode().getLabel());
+        if (term.isSetUndefined())
+            return null;
+        if (term.isSetValInteger())
+            return StdLit.fromUnescaped(Long.toString(term.getValInteger()), V.XSD.integer);
+        if (term.isSetValDouble())
+            return StdLit.fromUnescaped(Double.toString(term.getValDouble()), V.XSD.xdouble);
+        if (term.isSetValDecimal()) {
+            RDF_Decimal d = term.getValDecimal();
+            String lex = BigDecimal.valueOf(d.getValue(), d.getScale()).toPlainString();
+            return StdLit.fromUnescaped(lex, V.XSD.decimal);
+        }
+        badTerm(term.toString(), new NTParseException("Unsupported Thrift term "+term));
+        return null;
+    }
+}
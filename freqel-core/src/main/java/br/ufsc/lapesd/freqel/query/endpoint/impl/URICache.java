@@ -0,0 +1,95 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import br.ufsc.lapesd.freqel.model.term.URI;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Small direct-mapped cache of {@link URI}s keyed by their encoded form.
+ *
+ * A slot is only filled when the same hash is seen twice in a row at it: unique IRIs
+ * (e.g., subjects) would otherwise evict useful entries and allocate a key copy for nothing.
+ */
+@NotThreadSafe
+class URICache {
+    private static final int BITS = 12;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int MAX_LENGTH = 512;
+
+    private final @Nonnull Object[] keys = new Object[MASK+1];
+    private final @Nonnull URI[] values = new URI[MASK+1];
+    private final @Nonnull int[] seen = new int[MASK+1];
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private @Nonnull URI store(int hash, @Nonnull Object key, @Nonnull String uri) {
+        URI value = new StdURI(uri);
+        int slot = hash & MASK;
+        if (seen[slot] == hash) {
+            keys[slot] = key;
+            values[slot] = value;
+        } else {
+            seen[slot] = hash;
+        }
+        return value;
+    }
+
+    @Nonnull URI get(@Nonnull byte[] bytes, int begin, int end, @Nonnull Charset charset) {
+        int len = end - begin;
+        if (len > MAX_LENGTH)
+            return new StdURI(new String(bytes, begin, len, charset));
+        int hash = 0;
+        for (int i = begin; i < end; i++)
+            hash = 31*hash + bytes[i];
+        hash = mix(hash);
+        Object key = keys[hash & MASK];
+        if (key instanceof byte[] && ((byte[]) key).length == len) {
+            byte[] k = (byte[]) key;
+            int i = 0;
+            while (i < len && k[i] == bytes[begin+i]) ++i;
+            if (i == len)
+                return values[hash & MASK];
+        }
+        if (seen[hash & MASK] != hash)
+            return store(hash, bytes, new String(bytes, begin, len, charset));
+        return store(hash, Arrays.copyOfRange(bytes, begin, end),
+                     new String(bytes, begin, len, charset));
+    }
+
+    @Nonnull URI get(@Nonnull char[] chars, int begin, int end) {
+        int len = end - begin;
+        if (len > MAX_LENGTH)
+            return new StdURI(new String(chars, begin, len));
+        int hash = 0;
+        for (int i = begin; i < end; i++)
+            hash = 31*hash + chars[i];
+        hash = mix(hash);
+        Object key = keys[hash & MASK];
+        if (key instanceof char[] && ((char[]) key).length == len) {
+            char[] k = (char[]) key;
+            int i = 0;
+            while (i < len && k[i] == chars[begin+i]) ++i;
+            if (i == len)
+                return values[hash & MASK];
+        }
+        if (seen[hash & MASK] != hash)
+            return store(hash, chars, new String(chars, begin, len));
+        return store(hash, Arrays.copyOfRange(chars, begin, end), new String(chars, begin, len));
+    }
+
+    @Nonnull URI get(@Nonnull String uri) {
+        if (uri.length() > MAX_LENGTH)
+            return new StdURI(uri);
+        int hash = mix(uri.hashCode());
+        Object key = keys[hash & MASK];
+        if (uri.equals(key))
+            return values[hash & MASK];
+        return store(hash, uri, uri);
+    }
+}
@@ -0,0 +1,471 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import br.ufsc.lapesd.freqel.V;
+import br.ufsc.lapesd.freqel.model.term.URI;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdTermFactory;
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Incremental parser of application/sparql-results+xml.
+ *
+ * This is not a general XML parser: it tokenizes the markup directly from the bytes,
+ * recognizing only the elements of the SPARQL Query Results XML Format by their local names
+ * and the predefined and numeric character references. Comments, processing instructions,
+ * DOCTYPE declarations and CDATA sections are handled, but DTDs are not interpreted.
+ *
+ * Bytes that do not yet form a complete tag are kept in an internal buffer until the next
+ * chunk arrives. The content of uri elements is looked up in an IRI cache directly from
+ * the bytes.
+ */
+@NotThreadSafe
+public class XMLResultsDecoder extends AbstractResultsDecoder {
+    private static final int E_OTHER = 0, E_VARIABLE = 1, E_RESULTS = 2, E_RESULT = 3,
+                             E_BINDING = 4, E_URI = 5, E_BNODE = 6, E_LITERAL = 7,
+                             E_BOOLEAN = 8;
+    private static final byte[][] ELEMENTS = {
+            new byte[0], bytes("variable"), bytes("results"), bytes("result"),
+            bytes("binding"), bytes("uri"), bytes("bnode"), bytes("literal"),
+            bytes("boolean")
+    };
+    private static final byte[] A_NAME = bytes("name"), A_DATATYPE = bytes("datatype"),
+                                A_LANG = bytes("xml:lang");
+    private static final byte[] COMMENT = bytes("<!--"), COMMENT_END = bytes("-->"),
+                                CDATA = bytes("<![CDATA["), CDATA_END = bytes("]]>"),
+                                PI_END = bytes("?>");
+    private static final byte[] BOM = {(byte)0xEF, (byte)0xBB, (byte)0xBF};
+
+    private @Nonnull byte[] buf = new byte[8192];
+    private int pos, limit;
+    private boolean started;
+    private @Nonnull byte[] text = new byte[256];
+    private int textLength;
+    private boolean capturing;
+
+    private final @Nonnull List<String> vars = new ArrayList<>();
+    private final @Nonnull Map<String, Integer> var2column = new HashMap<>();
+    private int termOutput = -1, termElement;
+    private @Nullable URI termDatatype;
+    private @Nullable String termLang;
+
+    public XMLResultsDecoder(@Nonnull Listener listener) {
+        super(listener);
+    }
+
+    private static @Nonnull byte[] bytes(@Nonnull String string) {
+        return string.getBytes(US_ASCII);
+    }
+
+    @Override public @Nonnull XMLResultsDecoder setCharset(@Nonnull Charset charset) {
+        super.setCharset(charset);
+        return this;
+    }
+
+    @Override protected boolean needsTranscoding(@Nonnull Charset charset) {
+        return !charset.equals(UTF_8) && !charset.name().equals("US-ASCII");
+    }
+
+    @Override public void reset() {
+        super.reset();
+        pos = limit = 0;
+        started = capturing = false;
+        textLength = 0;
+        vars.clear();
+        var2column.clear();
+        termOutput = -1;
+        if (buf.length > 65536)
+            buf = new byte[8192];
+    }
+
+    @Override public void close() {
+        pos = limit = 0;
+    }
+
+    @Override protected void feedBytes(@Nonnull ByteBuf chunk) {
+        int len = chunk.readableBytes();
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit-pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (buf.length - limit < len) {
+            byte[] bigger = new byte[Math.max(limit+len, buf.length*2)];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+        }
+        chunk.readBytes(buf, limit, len);
+        limit += len;
+        if (!started) {
+            if (limit < BOM.length)
+                return;
+            started = true;
+            if (match(0, BOM) > 0)
+                pos = BOM.length;
+        }
+        parse(false);
+    }
+
+    @Override public void finish() {
+        parse(true);
+        pos = limit = 0;
+        if (!isHeaderDone())
+            header(vars);
+    }
+
+    /* --- --- --- Tokenization --- --- --- */
+
+    private int indexOf(byte value, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buf[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private int indexOf(@Nonnull byte[] seq, int from) {
+        outer:
+        for (int i = from, last = limit - seq.length; i <= last; i++) {
+            for (int j = 0; j < seq.length; j++) {
+                if (buf[i+j] != seq[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 1 if buf has prefix at the given position, 0 if it does not and -1 if more data
+     * is needed to decide.
+     */
+    private int match(int at, @Nonnull byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (at+i >= limit) return -1;
+            if (buf[at+i] != prefix[i]) return 0;
+        }
+        return 1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private void parse(boolean last) {
+        while (pos < limit) {
+            int next;
+            if (buf[pos] == '<') {
+                next = markup(pos);
+            } else {
+                next = indexOf((byte)'<', pos, limit);
+                if (next < 0 && (last || !capturing))
+                    next = limit;
+                if (next >= 0 && capturing)
+                    appendText(pos, next);
+            }
+            if (next < 0) {
+                if (last)
+                    throw new DecodeException("Truncated SPARQL results XML");
+                break;
+            }
+            pos = next;
+        }
+    }
+
+    /**
+     * Handles the markup starting at begin and returns the position after it, or -1 if the
+     * markup is incomplete.
+     */
+    private int markup(int begin) {
+        if (begin+1 >= limit)
+            return -1;
+        byte c = buf[begin+1];
+        if (c == '!') {
+            int comment = match(begin, COMMENT), cdata = match(begin, CDATA);
+            if (comment < 0 || cdata < 0) {
+                return -1;
+            } else if (comment > 0) {
+                int end = indexOf(COMMENT_END, begin+COMMENT.length);
+                return end < 0 ? -1 : end+3;
+            } else if (cdata > 0) {
+                int end = indexOf(CDATA_END, begin+CDATA.length);
+                if (end < 0)
+                    return -1;
+                if (capturing)
+                    appendRaw(begin+CDATA.length, end);
+                return end+3;
+            }
+            int end = indexOf((byte)'>', begin, limit);
+            return end < 0 ? -1 : end+1;
+        } else if (c == '?') {
+            int end = indexOf(PI_END, begin+2);
+            return end < 0 ? -1 : end+2;
+        } else if (c == '/') {
+            int end = indexOf((byte)'>', begin, limit);
+            if (end < 0)
+                return -1;
+            int nameEnd = begin+2;
+            while (nameEnd < end && !isSpace(buf[nameEnd])) ++nameEnd;
+            endElement(element(begin+2, nameEnd));
+            return end+1;
+        }
+        int end = tagEnd(begin+1);
+        if (end < 0)
+            return -1;
+        int nameEnd = begin+1;
+        while (nameEnd < end && !isSpace(buf[nameEnd]) && buf[nameEnd] != '/') ++nameEnd;
+        int element = element(begin+1, nameEnd);
+        startElement(element, nameEnd, end);
+        if (buf[end-1] == '/')
+            endElement(element);
+        return end+1;
+    }
+
+    private int tagEnd(int from) {
+        byte quote = 0;
+        for (int i = from; i < limit; i++) {
+            byte b = buf[i];
+            if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int element(int begin, int end) {
+        for (int i = end-1; i >= begin; i--) {
+            if (buf[i] == ':') {
+                begin = i+1;
+                break;
+            }
+        }
+        int len = end - begin;
+        outer:
+        for (int e = 1; e < ELEMENTS.length; e++) {
+            byte[] name = ELEMENTS[e];
+            if (name.length != len) continue;
+            for (int i = 0; i < len; i++) {
+                if (buf[begin+i] != name[i]) continue outer;
+            }
+            return e;
+        }
+        return E_OTHER;
+    }
+
+    private boolean is(int begin, int end, @Nonnull byte[] name) {
+        if (end - begin != name.length)
+            return false;
+        for (int i = 0; i < name.length; i++) {
+            if (buf[begin+i] != name[i]) return false;
+        }
+        return true;
+    }
+
+    /* --- --- --- Text and character references --- --- --- */
+
+    private void ensureText(int extra) {
+        if (text.length - textLength < extra) {
+            byte[] bigger = new byte[Math.max(textLength+extra, text.length*2)];
+            System.arraycopy(text, 0, bigger, 0, textLength);
+            text = bigger;
+        }
+    }
+
+    private void appendRaw(int begin, int end) {
+        ensureText(end-begin);
+        System.arraycopy(buf, begin, text, textLength, end-begin);
+        textLength += end-begin;
+    }
+
+    private void appendText(int begin, int end) {
+        int amp = indexOf((byte)'&', begin, end);
+        if (amp < 0) {
+            appendRaw(begin, end);
+            return;
+        }
+        appendRaw(begin, amp);
+        int semicolon = indexOf((byte)';', amp, end);
+        if (semicolon < 0) {
+            appendRaw(amp, end);
+            return;
+        }
+        appendCodePoint(reference(amp+1, semicolon));
+        appendText(semicolon+1, end);
+    }
+
+    private void appendCodePoint(int cp) {
+        ensureText(4);
+        if (cp < 0x80) {
+            text[textLength++] = (byte)cp;
+        } else if (cp < 0x800) {
+            text[textLength++] = (byte)(0xC0 | (cp >> 6));
+            text[textLength++] = (byte)(0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            text[textLength++] = (byte)(0xE0 | (cp >> 12));
+            text[textLength++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+            text[textLength++] = (byte)(0x80 | (cp & 0x3F));
+        } else {
+            text[textLength++] = (byte)(0xF0 | (cp >> 18));
+            text[textLength++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+            text[textLength++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+            text[textLength++] = (byte)(0x80 | (cp & 0x3F));
+        }
+    }
+
+    private int reference(int begin, int end) {
+        String name = new String(buf, begin, end-begin, US_ASCII);
+        switch (name) {
+            case "lt":   return '<';
+            case "gt":   return '>';
+            case "amp":  return '&';
+            case "quot": return '"';
+            case "apos": return '\'';
+        }
+        try {
+            if (name.startsWith("#x"))
+                return Integer.parseInt(name.substring(2), 16);
+            if (name.startsWith("#"))
+                return Integer.parseInt(name.substring(1));
+        } catch (NumberFormatException ignored) { }
+        throw new DecodeException("Bad character reference &"+name+"; in SPARQL results XML");
+    }
+
+    private @Nonnull String takeText() {
+        String string = new String(text, 0, textLength, UTF_8);
+        textLength = 0;
+        return string;
+    }
+
+    private @Nonnull String attribute(int begin, int end) {
+        if (indexOf((byte)'&', begin, end) < 0)
+            return new String(buf, begin, end-begin, UTF_8);
+        int oldLength = textLength;
+        appendText(begin, end);
+        String string = new String(text, oldLength, textLength-oldLength, UTF_8);
+        textLength = oldLength;
+        return string;
+    }
+
+    /* --- --- --- Elements --- --- --- */
+
+    private void startElement(int element, int attributesBegin, int end) {
+        switch (element) {
+            case E_RESULTS:
+                if (!isHeaderDone())
+                    header(vars);
+                return;
+            case E_RESULT:
+                if (!isHeaderDone())
+                    header(vars);
+                beginRow();
+                return;
+            case E_BINDING:
+                termOutput = -1;
+                break;
+            case E_LITERAL:
+                termDatatype = null;
+                termLang = null;
+                break;
+            case E_VARIABLE:
+            case E_URI:
+            case E_BNODE:
+            case E_BOOLEAN:
+                break;
+            default:
+                return;
+        }
+        for (int i = attributesBegin; i < end; ) {
+            while (i < end && isSpace(buf[i])) ++i;
+            int nameBegin = i;
+            while (i < end && buf[i] != '=' && !isSpace(buf[i]) && buf[i] != '/') ++i;
+            int nameEnd = i;
+            while (i < end && buf[i] != '"' && buf[i] != '\'') ++i;
+            if (i >= end)
+                break;
+            int valueBegin = i+1, valueEnd = indexOf(buf[i], valueBegin, end);
+            if (valueEnd < 0)
+                break;
+            attribute(element, nameBegin, nameEnd, valueBegin, valueEnd);
+            i = valueEnd+1;
+        }
+        if (element == E_URI || element == E_BNODE || element == E_LITERAL
+                || element == E_BOOLEAN) {
+            termElement = element;
+            capturing = element == E_BOOLEAN || termOutput >= 0;
+            textLength = 0;
+        }
+    }
+
+    private void attribute(int element, int nameBegin, int nameEnd,
+                           int valueBegin, int valueEnd) {
+        if (element == E_VARIABLE || element == E_BINDING) {
+            if (!is(nameBegin, nameEnd, A_NAME))
+                return;
+            String name = attribute(valueBegin, valueEnd);
+            if (element == E_VARIABLE) {
+                var2column.put(name, vars.size());
+                vars.add("?"+name);
+            } else {
+                Integer column = var2column.get(name);
+                termOutput = column == null ? -1 : output(column);
+            }
+        } else if (element == E_LITERAL) {
+            if (is(nameBegin, nameEnd, A_DATATYPE)) {
+                if (indexOf((byte)'&', valueBegin, valueEnd) < 0)
+                    termDatatype = uri(buf, valueBegin, valueEnd);
+                else
+                    termDatatype = uri(attribute(valueBegin, valueEnd));
+            } else if (is(nameBegin, nameEnd, A_LANG)) {
+                termLang = attribute(valueBegin, valueEnd);
+            }
+        }
+    }
+
+    private void endElement(int element) {
+        switch (element) {
+            case E_RESULT:
+                endRow();
+                break;
+            case E_BINDING:
+                termOutput = -1;
+                break;
+            case E_BOOLEAN:
+                if (capturing) {
+                    capturing = false;
+                    askResult(takeText().trim().equals("true"));
+                }
+                break;
+            case E_URI:
+            case E_BNODE:
+            case E_LITERAL:
+                if (!capturing || element != termElement)
+                    break;
+                capturing = false;
+                if (element == E_URI) {
+                    set(termOutput, uri(text, 0, textLength));
+                    textLength = 0;
+                } else if (element == E_BNODE) {
+                    set(termOutput, StdTermFactory.INSTANCE.createBlank(takeText()));
+                } else if (termLang != null && !termLang.isEmpty()) {
+                    set(termOutput, StdLit.fromUnescaped(takeText(), termLang));
+                } else {
+                    URI dt = termDatatype == null ? V.XSD.xstring : termDatatype;
+                    set(termOutput, StdLit.fromUnescaped(takeText(), dt));
+                }
+                break;
+        }
+    }
+}
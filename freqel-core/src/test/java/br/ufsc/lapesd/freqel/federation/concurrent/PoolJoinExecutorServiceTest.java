@@ -0,0 +1,147 @@
+package br.ufsc.lapesd.freqel.federation.concurrent;
+
+import br.ufsc.lapesd.freqel.federation.performance.ThreadedPerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.metrics.Metrics;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class PoolJoinExecutorServiceTest {
+
+    @Test
+    public void testRunsTasks() throws Exception {
+        PoolJoinExecutorService ex = new PoolJoinExecutorService(2);
+        List<Future<?>> futures = new ArrayList<>();
+        List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 16; i++) {
+            int id = i;
+            futures.add(ex.submit(() -> done.add(id)));
+        }
+        for (Future<?> f : futures)
+            f.get(5, TimeUnit.SECONDS);
+        assertEquals(done.size(), 16);
+        assertEquals(ex.getQueuedTasks(), 0);
+        assertEquals(ex.getMaxConcurrency(), 2);
+    }
+
+    private static void nest(@Nonnull PoolJoinExecutorService ex, int depth,
+                             @Nonnull List<Integer> done) {
+        if (depth > 0) {
+            try { // blocks the worker until the nested task completes, like a join
+                ex.submit(() -> nest(ex, depth-1, done)).get(5, TimeUnit.SECONDS);
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        done.add(depth);
+    }
+
+    @Test(timeOut = 20000)
+    public void testNestedDeeperThanMaxThreads() throws Exception {
+        PoolJoinExecutorService ex = new PoolJoinExecutorService(2);
+        List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 2; i++) // occupy all workers with nesting depth 8
+            futures.add(ex.submit(() -> nest(ex, 8, done)));
+        for (Future<?> f : futures)
+            f.get(10, TimeUnit.SECONDS);
+        assertEquals(done.size(), 2*9);
+        assertEquals(ex.getRejectedTasks(), 0);
+    }
+
+    @Test
+    public void testRoundRobinAcrossLanes() throws Exception {
+        checkRoundRobinAcrossLanes(new PoolJoinExecutorService(1));
+    }
+
+    @Test
+    public void testRoundRobinAcrossLanesVirtual() throws Exception {
+        // falls back to platform threads if the JVM has no virtual threads
+        checkRoundRobinAcrossLanes(new PoolJoinExecutorService(1, true));
+    }
+
+    private void checkRoundRobinAcrossLanes(PoolJoinExecutorService ex) throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        Future<?> blocker = ex.submit("blocker", () -> {
+            try {
+                assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> futures = new ArrayList<>();
+        for (String task : asList("a1", "a2", "a3"))
+            futures.add(ex.submit("a", () -> order.add(task)));
+        for (String task : asList("b1", "b2"))
+            futures.add(ex.submit("b", () -> order.add(task)));
+        assertEquals(ex.getQueuedLanes(), 2);
+        assertTrue(ex.getPeakQueuedTasks() >= 5);
+
+        blocked.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        for (Future<?> f : futures)
+            f.get(5, TimeUnit.SECONDS);
+        assertEquals(order, asList("a1", "b1", "a2", "b2", "a3"));
+    }
+
+    @Test
+    public void testCancelQueued() throws Exception {
+        PoolJoinExecutorService ex = new PoolJoinExecutorService(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        Future<?> blocker = ex.submit(() -> {
+            try {
+                assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        Future<?> cancelled = ex.submit(() -> ran.add("cancelled"));
+        Future<?> kept = ex.submit(() -> ran.add("kept"));
+        assertTrue(cancelled.cancel(false));
+
+        blocked.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        kept.get(5, TimeUnit.SECONDS);
+        expectThrows(CancellationException.class, cancelled::get);
+        assertEquals(ran, Collections.singletonList("kept"));
+    }
+
+    @Test
+    public void testSampleQueueDepth() throws Exception {
+        try (ThreadedPerformanceListener perf = new ThreadedPerformanceListener()) {
+            PoolJoinExecutorService ex = new PoolJoinExecutorService(1, false, perf);
+            CountDownLatch blocked = new CountDownLatch(1);
+            Future<?> blocker = ex.submit(() -> {
+                try {
+                    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++)
+                futures.add(ex.submit(() -> {}));
+            blocked.countDown();
+            blocker.get(5, TimeUnit.SECONDS);
+            for (Future<?> f : futures)
+                f.get(5, TimeUnit.SECONDS);
+
+            perf.sync();
+            assertEquals(new ArrayList<>(perf.getValues(Metrics.JOIN_POOL_QUEUED_TASKS)),
+                         asList(1, 2, 3));
+            assertEquals(ex.getRejectedTasks(), 0);
+            assertTrue(perf.getValues(Metrics.JOIN_POOL_REJECTED_TASKS).isEmpty());
+        }
+    }
+}
@@ -55,6 +55,7 @@ import static br.ufsc.lapesd.freqel.query.parse.CQueryContext.createQuery;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
 import static org.apache.jena.rdf.model.ResourceFactory.createTypedLiteral;
 import static org.testng.Assert.*;
 
@@ -178,6 +179,44 @@ public class SPARQLStringTest implements TestContext {
         QueryFactory.create(ss.getSparql()); //throws if invalid syntax
     }
 
+    @Test
+    public void testOrderByBeforeLimit() {
+        OrderBy orderBy = new OrderBy(asList(OrderBy.Key.asc("x"), OrderBy.Key.desc("o")));
+        SPARQLString ss = SPARQLString.create(createQuery(x, knows, o, orderBy, Limit.of(10)));
+        String sparql = ss.getSparql();
+        Pattern pattern = Pattern.compile("} *ORDER BY \\?x DESC\\(\\?o\\) +LIMIT 10");
+        assertTrue(pattern.matcher(sparql).find(), sparql);
+        Query parsed = QueryFactory.create(sparql); //throws if invalid syntax
+        assertEquals(parsed.getOrderBy().size(), 2);
+    }
+
+    @Test
+    public void testOffsetAfterLimit() {
+        SPARQLString ss = SPARQLString.create(createQuery(x, knows, o, OrderBy.asc("x"),
+                                                          Limit.of(10), Offset.of(20)));
+        String sparql = ss.getSparql();
+        Pattern pattern = Pattern.compile("} *ORDER BY \\?x +LIMIT 10 +OFFSET 20");
+        assertTrue(pattern.matcher(sparql).find(), sparql);
+        Query parsed = QueryFactory.create(sparql); //throws if invalid syntax
+        assertEquals(parsed.getOffset(), 20);
+    }
+
+    @Test
+    public void testGroupBy() {
+        Aggregation aggregation = new Aggregation(
+                singletonList("x"), singletonList(Aggregation.Aggregate.count("o", "c")));
+        SPARQLString ss = SPARQLString.create(createQuery(x, knows, o, aggregation,
+                                                          OrderBy.asc("c"), Limit.of(10)));
+        assertEquals(ss.getVarNames(), Sets.newHashSet("x", "c"));
+        String sparql = ss.getSparql();
+        assertTrue(Pattern.compile("SELECT +\\?x +\\(COUNT\\(\\?o\\) AS \\?c\\) +WHERE")
+                          .matcher(sparql).find(), sparql);
+        Pattern pattern = Pattern.compile("} *GROUP BY \\?x +ORDER BY \\?c +LIMIT 10");
+        assertTrue(pattern.matcher(sparql).find(), sparql);
+        Query parsed = QueryFactory.create(sparql); //throws if invalid syntax
+        assertTrue(parsed.hasGroupBy());
+    }
+
     @Test
     public void testAskWithVars() {
         String str = SPARQLString.create(createQuery(s, knows, o, Ask.INSTANCE)).getSparql();
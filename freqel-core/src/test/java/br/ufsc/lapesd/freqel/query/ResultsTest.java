@@ -10,8 +10,10 @@ import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.Solution;
 import br.ufsc.lapesd.freqel.query.results.impl.*;
 import br.ufsc.lapesd.freqel.util.NamedFunction;
+import org.reactivestreams.Subscription;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
+import reactor.core.publisher.BaseSubscriber;
 import reactor.core.publisher.Flux;
 
 import javax.annotation.Nonnull;
@@ -24,8 +26,7 @@ import java.util.stream.IntStream;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.*;
-import static org.testng.Assert.assertEquals;
-import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.*;
 
 @Test(groups = {"fast"})
 public class ResultsTest implements TestContext {
@@ -79,6 +80,44 @@ public class ResultsTest implements TestContext {
                 coll -> new PublisherResults(Flux.fromIterable(coll), xSet, 10, 1)));
         factories.add(new NamedFunction<>("10-5 Flux-based PublisherResults",
                 coll -> new PublisherResults(Flux.fromIterable(coll), xSet, 10, 5)));
+        factories.add(new NamedFunction<>("FluxResults",
+                coll -> new FluxResults(Flux.fromIterable(coll), xSet)));
+        factories.add(new NamedFunction<>("merged FluxResults",
+                coll -> FluxResults.merge(asList(
+                        new FluxResults(Flux.fromIterable(coll), xSet),
+                        new FluxResults(Flux.empty(), xSet)), xSet)));
+        factories.add(new NamedFunction<>("Tautology SPARQLFilterResults over FluxResults",
+                coll -> new SPARQLFilterResults(new FluxResults(Flux.fromIterable(coll), xSet),
+                                                singleton(tautology))));
+        factories.add(new NamedFunction<>("notified QueueResults with full queue",
+                coll -> {
+                    BlockingQueue<Solution> q = new ArrayBlockingQueue<>(coll.size()+1);
+                    QueueResults results = new QueueResults(xSet, q);
+                    Runnable notifier = results.getEnqueueNotifier();
+                    q.addAll(coll);
+                    q.add(QueueResults.DEFAULT_END);
+                    notifier.run();
+                    return results;
+                }));
+        factories.add(new NamedFunction<>("notified QueueResults with late producer",
+                coll -> {
+                    BlockingQueue<Solution> q = new ArrayBlockingQueue<>(coll.size()+1);
+                    QueueResults results = new QueueResults(xSet, q);
+                    Runnable notifier = results.getEnqueueNotifier();
+                    Thread thread = new Thread(() -> {
+                        for (Solution solution : coll) {
+                            q.add(solution);
+                            notifier.run();
+                        }
+                        q.add(QueueResults.DEFAULT_END);
+                        notifier.run();
+                    });
+                    thread.start();
+                    return results.onClose(() -> {
+                        thread.join();
+                        return null;
+                    });
+                }));
         factories.add(new NamedFunction<>("QueueResults with full queue",
                 coll -> {
                     BlockingQueue<Solution> q = new ArrayBlockingQueue<>(coll.size()+1);
@@ -245,6 +284,40 @@ public class ResultsTest implements TestContext {
         collectionTest(fac, expected10);
     }
 
+    @Test(dataProvider = "factoriesData")
+    public void testFlux(Function<Collection<Solution>, Results> fac) {
+        for (List<Solution> expected : asList(expectedNone, expectedOne, expected10)) {
+            Results results = fac.apply(expected);
+            List<Solution> actual = results.flux().collectList().block();
+            assertNotNull(actual);
+            assertEquals(actual.size(), expected.size());
+            assertEquals(new HashSet<>(actual), new HashSet<>(expected));
+        }
+    }
+
+    @Test(dataProvider = "factoriesData")
+    public void testFluxHonorsDemand(Function<Collection<Solution>, Results> fac)
+            throws InterruptedException {
+        Results results = fac.apply(expected10);
+        List<Solution> actual = synchronizedList(new ArrayList<>());
+        CountDownLatch received = new CountDownLatch(2);
+        results.flux().subscribe(new BaseSubscriber<Solution>() {
+            @Override protected void hookOnSubscribe(@Nonnull Subscription subscription) {
+                request(2);
+            }
+            @Override protected void hookOnNext(@Nonnull Solution value) {
+                actual.add(value);
+                received.countDown();
+                if (actual.size() == 2)
+                    cancel();
+            }
+        });
+        assertTrue(received.await(2, TimeUnit.SECONDS));
+        Thread.sleep(50); // any unrequested solution would arrive now
+        assertEquals(actual.size(), 2);
+        assertTrue(expected10.containsAll(actual));
+    }
+
     @Test(dataProvider = "factoriesData")
     public void testExhaust(Function<Collection<Solution>, Results> fac) {
         try (Results it = fac.apply(expectedTwo)) {
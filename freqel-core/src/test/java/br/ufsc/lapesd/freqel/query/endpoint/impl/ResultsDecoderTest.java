@@ -0,0 +1,334 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import br.ufsc.lapesd.freqel.V;
+import br.ufsc.lapesd.freqel.model.NTParseException;
+import br.ufsc.lapesd.freqel.model.term.Blank;
+import br.ufsc.lapesd.freqel.model.term.Lit;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.URI;
+import br.ufsc.lapesd.freqel.model.term.std.StdBlank;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.thrift.BinRDF;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ResultSetStream;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_16;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class ResultsDecoderTest {
+    private static final String EX = "http://example.org/";
+    private static final List<String> VARS = asList("x", "y", "z");
+    private static final URI DT = new StdURI(EX+"dt?a=1&b=2");
+    private static final StdBlank BLANK = new StdBlank("b1", "b1");
+    private static final List<List<Term>> ROWS = asList(
+            asList(new StdURI(EX+"a"), StdLit.fromUnescaped("plain", V.XSD.xstring),
+                   StdLit.fromUnescaped("23", V.XSD.xint)),
+            asList(new StdURI(EX+"a"), StdLit.fromUnescaped("chat", "fr"), null),
+            asList(null, StdLit.fromUnescaped("a<b>&\"c\"\n\tç ✓", V.XSD.xstring), BLANK),
+            asList(new StdURI(EX+"ç?q=1&r=2"), StdLit.fromUnescaped("", V.XSD.xstring),
+                   StdLit.fromUnescaped("x", DT)),
+            asList(null, null, null),
+            asList(new StdURI(EX+"b"), StdLit.fromUnescaped("color", "en-US"),
+                   new StdURI(EX+"a"))
+    );
+
+    private static class Collector implements ResultsDecoder.Listener {
+        final @Nullable int[] projection;
+        @Nullable List<String> columns;
+        final @Nonnull List<List<Term>> rows = new ArrayList<>();
+        final @Nonnull List<String> badTerms = new ArrayList<>();
+
+        Collector(@Nullable int[] projection) {
+            this.projection = projection;
+        }
+
+        @Override public @Nullable int[] header(@Nonnull List<String> columns) {
+            assertNull(this.columns, "header() called twice");
+            this.columns = columns;
+            return projection;
+        }
+
+        @Override public void row(@Nonnull Term[] row) {
+            assertNotNull(columns, "row() before header()");
+            rows.add(asList(Arrays.copyOf(row, row.length)));
+        }
+
+        @Override public boolean badTerm(@Nonnull String term, @Nonnull NTParseException e) {
+            badTerms.add(term);
+            return true;
+        }
+    }
+
+    private static @Nullable Node toJena(@Nullable Term term) {
+        if (term == null)
+            return null;
+        if (term.isURI())
+            return NodeFactory.createURI(term.asURI().getURI());
+        if (term.isBlank())
+            return NodeFactory.createBlankNode(String.valueOf(term.asBlank().getName()));
+        Lit lit = term.asLiteral();
+        if (lit.getLangTag() != null)
+            return NodeFactory.createLiteral(lit.getLexicalForm(), lit.getLangTag());
+        String dt = lit.getDatatype().getURI();
+        return NodeFactory.createLiteral(lit.getLexicalForm(),
+                                         TypeMapper.getInstance().getSafeTypeByName(dt));
+    }
+
+    private static @Nonnull ResultSet resultSet() {
+        List<Binding> bindings = new ArrayList<>();
+        for (List<Term> row : ROWS) {
+            BindingMap binding = BindingFactory.create();
+            for (int i = 0; i < VARS.size(); i++) {
+                if (row.get(i) != null)
+                    binding.add(Var.alloc(VARS.get(i)), toJena(row.get(i)));
+            }
+            bindings.add(binding);
+        }
+        return new ResultSetStream(VARS, ModelFactory.createDefaultModel(),
+                                   new QueryIterPlainWrapper(bindings.iterator()));
+    }
+
+    private static @Nonnull byte[] serialize(@Nonnull ResultsFormat format) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        switch (format) {
+            case TSV:    ResultSetFormatter.outputAsTSV(out, resultSet());  break;
+            case JSON:   ResultSetFormatter.outputAsJSON(out, resultSet()); break;
+            case XML:    ResultSetFormatter.outputAsXML(out, resultSet());  break;
+            case THRIFT: BinRDF.writeResultSet(out, resultSet(), false);    break;
+        }
+        return out.toByteArray();
+    }
+
+    private static @Nonnull List<ByteBuf> split(@Nonnull byte[] bytes, int chunkSize,
+                                                boolean direct) {
+        List<ByteBuf> list = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            int len = Math.min(chunkSize, bytes.length - i);
+            ByteBuf bb = direct ? Unpooled.directBuffer(len) : Unpooled.buffer(len);
+            list.add(bb.writeBytes(bytes, i, len));
+        }
+        return list;
+    }
+
+    private static @Nonnull Collector decode(@Nonnull ResultsDecoder decoder,
+                                             @Nonnull Collector collector, @Nonnull byte[] bytes,
+                                             @Nonnull Charset charset, int chunkSize,
+                                             boolean direct) {
+        decoder.setCharset(charset);
+        List<ByteBuf> chunks = split(bytes, chunkSize, direct);
+        for (ByteBuf chunk : chunks) {
+            decoder.feed(chunk);
+            assertFalse(chunk.isReadable());
+        }
+        decoder.finish();
+        for (ByteBuf chunk : chunks)
+            assertTrue(chunk.release(), "decoder leaked a reference");
+        return collector;
+    }
+
+    private static @Nonnull Collector decode(@Nonnull ResultsFormat format, @Nonnull String data,
+                                             int chunkSize) {
+        Collector collector = new Collector(null);
+        return decode(format.createDecoder(collector), collector, data.getBytes(UTF_8), UTF_8,
+                      chunkSize, false);
+    }
+
+    /** Blank node labels are not preserved by all formats */
+    private static @Nonnull List<List<Term>> normalizeBlanks(@Nonnull List<List<Term>> rows) {
+        List<List<Term>> normalized = new ArrayList<>();
+        for (List<Term> row : rows) {
+            List<Term> copy = new ArrayList<>();
+            for (Term term : row)
+                copy.add(term instanceof Blank ? BLANK : term);
+            normalized.add(copy);
+        }
+        return normalized;
+    }
+
+    @DataProvider public static @Nonnull Object[][] formatData() {
+        return Stream.of(ResultsFormat.values())
+                .flatMap(f -> Stream.of(1, 3, 64, 4096).map(s -> asList(f, s)))
+                .flatMap(l -> Stream.of(asList(l.get(0), l.get(1), false),
+                                        asList(l.get(0), l.get(1), true)))
+                .map(List::toArray).toArray(Object[][]::new);
+    }
+
+    @Test(dataProvider = "formatData")
+    public void testDecode(ResultsFormat format, int chunkSize, boolean direct) {
+        Collector collector = new Collector(null);
+        decode(format.createDecoder(collector), collector, serialize(format), UTF_8,
+               chunkSize, direct);
+        assertEquals(collector.columns, asList("?x", "?y", "?z"));
+        assertEquals(collector.badTerms, emptyList());
+        assertEquals(normalizeBlanks(collector.rows), ROWS);
+    }
+
+    @Test(dataProvider = "formatData")
+    public void testProject(ResultsFormat format, int chunkSize, boolean direct) {
+        Collector collector = new Collector(new int[]{2, -1, 0});
+        decode(format.createDecoder(collector), collector, serialize(format), UTF_8,
+               chunkSize, direct);
+        List<List<Term>> expected = new ArrayList<>();
+        for (List<Term> row : ROWS)
+            expected.add(asList(row.get(2), null, row.get(0)));
+        assertEquals(normalizeBlanks(collector.rows), expected);
+    }
+
+    @Test
+    public void testReuseAfterReset() {
+        for (ResultsFormat format : ResultsFormat.values()) {
+            Collector collector = new Collector(null);
+            ResultsDecoder decoder = format.createDecoder(collector);
+            byte[] bytes = serialize(format);
+            decode(decoder, collector, bytes, UTF_8, 7, false);
+            decoder.reset();
+            collector.columns = null;
+            decode(decoder, collector, bytes, UTF_8, 5, true);
+            List<List<Term>> expected = new ArrayList<>(ROWS);
+            expected.addAll(ROWS);
+            assertEquals(normalizeBlanks(collector.rows), expected, "format="+format);
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void testTranscodeUTF16() {
+        for (ResultsFormat format : asList(ResultsFormat.JSON, ResultsFormat.XML)) {
+            String text = new String(serialize(format), UTF_8);
+            Collector collector = new Collector(null);
+            decode(format.createDecoder(collector), collector, text.getBytes(UTF_16), UTF_16,
+                   64, false);
+            assertEquals(normalizeBlanks(collector.rows), ROWS, "format="+format);
+        }
+    }
+
+    @DataProvider public static @Nonnull Object[][] askData() {
+        return Stream.of(ResultsFormat.JSON, ResultsFormat.XML)
+                .flatMap(f -> Stream.of(asList(f, true), asList(f, false)))
+                .map(List::toArray).toArray(Object[][]::new);
+    }
+
+    @Test(dataProvider = "askData")
+    public void testAsk(ResultsFormat format, boolean value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (format == ResultsFormat.JSON)
+            ResultSetFormatter.outputAsJSON(out, value);
+        else
+            ResultSetFormatter.outputAsXML(out, value);
+        for (int chunkSize : asList(1, 4096)) {
+            Collector collector = new Collector(null);
+            decode(format.createDecoder(collector), collector, out.toByteArray(), UTF_8,
+                   chunkSize, false);
+            assertEquals(collector.columns, emptyList());
+            assertEquals(collector.rows, value ? singletonList(emptyList()) : emptyList());
+        }
+    }
+
+    @Test
+    public void testJSONLenient() {
+        String json = "{\"head\": {\"link\": [\"http://example.org/\"], \"vars\": [\"x\", \"y\"]}," +
+               "\"extra\": {\"a\": [[], {\"b\": 1}]}, \"results\": {\"distinct\": false, " +
+               "\"bindings\": [\n" +
+               "{\"x\": {\"value\": \""+EX+"a\", \"type\": \"uri\"}, \"w\": {\"type\": \"uri\"," +
+               "\"value\": \"ignored\"}, \"y\": {\"type\": \"typed-literal\", \"value\": \"1\"," +
+               "\"datatype\": \""+V.XSD.integer.getURI()+"\", \"extra\": [1, {}]}}]}}";
+        for (int chunkSize : asList(1, 2, 4096)) {
+            Collector collector = decode(ResultsFormat.JSON, json, chunkSize);
+            assertEquals(collector.columns, asList("?x", "?y"));
+            assertEquals(collector.rows, singletonList(asList(
+                    new StdURI(EX+"a"), StdLit.fromUnescaped("1", V.XSD.integer))));
+        }
+    }
+
+    @Test
+    public void testXMLLenient() {
+        String xml = "\uFEFF<?xml version=\"1.0\"?>\n" +
+                "<!DOCTYPE sparql>\n" +
+                "<!-- <result> in a comment -->\n" +
+                "<s:sparql xmlns:s=\"http://www.w3.org/2005/sparql-results#\">\n" +
+                "<s:head><s:variable name='x'/><s:variable name=\"y\"></s:variable>" +
+                "<s:link href=\"x.html\"/></s:head>\n" +
+                "<s:results>\n" +
+                "  <s:result>\n" +
+                "    <s:binding name=\"x\"><s:uri>"+EX+"a?b=1&amp;c=&#x32;</s:uri></s:binding>\n" +
+                "    <s:binding name=\"w\"><s:uri>"+EX+"ignored</s:uri></s:binding>\n" +
+                "    <s:binding name=\"y\"><s:literal xml:lang=\"en\"><![CDATA[<&>]]>" +
+                "&lt;<!-- c -->&#233;</s:literal></s:binding>\n" +
+                "  </s:result>\n" +
+                "  <s:result><s:binding name=\"y\"><s:literal/></s:binding></s:result>\n" +
+                "</s:results>\n" +
+                "</s:sparql>\n";
+        for (int chunkSize : asList(1, 2, 3, 4096)) {
+            Collector collector = decode(ResultsFormat.XML, xml, chunkSize);
+            assertEquals(collector.columns, asList("?x", "?y"));
+            assertEquals(collector.rows, asList(
+                    asList(new StdURI(EX+"a?b=1&c=2"), StdLit.fromUnescaped("<&><é", "en")),
+                    asList(null, StdLit.fromUnescaped("", V.XSD.xstring))));
+        }
+    }
+
+    @Test
+    public void testMalformed() {
+        expectThrows(ResultsDecoder.DecodeException.class,
+                     () -> decode(ResultsFormat.JSON, "{\"head\": [}", 4096));
+        expectThrows(ResultsDecoder.DecodeException.class,
+                     () -> decode(ResultsFormat.XML, "<sparql><head><variable", 4096));
+        expectThrows(ResultsDecoder.DecodeException.class,
+                     () -> decode(ResultsFormat.THRIFT, "\u0019\u001c", 4096));
+    }
+
+    @Test
+    public void testIRICache() {
+        for (ResultsFormat format : ResultsFormat.values()) {
+            Collector collector = new Collector(null);
+            decode(format.createDecoder(collector), collector, serialize(format), UTF_8,
+                   4096, false);
+            // seen at rows 0 and 1, cached on the second sighting
+            assertSame(collector.rows.get(5).get(2), collector.rows.get(1).get(0),
+                       "format="+format);
+        }
+    }
+
+    @Test
+    public void testFromContentType() {
+        assertEquals(ResultsFormat.fromContentType("text/tab-separated-values; charset=utf-8"),
+                     ResultsFormat.TSV);
+        assertEquals(ResultsFormat.fromContentType("application/sparql-results+json"),
+                     ResultsFormat.JSON);
+        assertEquals(ResultsFormat.fromContentType("Application/JSON ;charset=UTF-8"),
+                     ResultsFormat.JSON);
+        assertEquals(ResultsFormat.fromContentType("text/xml"), ResultsFormat.XML);
+        assertEquals(ResultsFormat.fromContentType("application/sparql-results+thrift"),
+                     ResultsFormat.THRIFT);
+        assertNull(ResultsFormat.fromContentType("text/html"));
+    }
+}
@@ -0,0 +1,82 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import org.testng.annotations.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static br.ufsc.lapesd.freqel.query.endpoint.impl.ResultsFormat.*;
+import static br.ufsc.lapesd.freqel.query.endpoint.impl.ResultsFormatNegotiator.*;
+import static java.util.Arrays.asList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class ResultsFormatNegotiatorTest {
+    @Test
+    public void testAPrioriOrder() {
+        ResultsFormatNegotiator n = new ResultsFormatNegotiator(asList(XML, JSON, TSV));
+        assertEquals(n.getFormats(), asList(TSV, JSON, XML));
+        assertEquals(n.choose(false), TSV);
+        assertEquals(n.choose(true), JSON);
+        assertTrue(Double.isNaN(n.getNsPerRow(TSV)));
+    }
+
+    @Test
+    public void testAccept() {
+        ResultsFormatNegotiator n = new ResultsFormatNegotiator();
+        assertEquals(n.accept(TSV, false),
+                     "text/tab-separated-values; charset=utf-8, " +
+                     "application/sparql-results+thrift; q=0.9, " +
+                     "application/sparql-results+json; q=0.8, " +
+                     "application/sparql-results+xml; q=0.7");
+        assertEquals(n.accept(XML, true),
+                     "application/sparql-results+xml, application/sparql-results+json; q=0.9");
+    }
+
+    @Test
+    public void testUnsupportedIsNotRequested() {
+        ResultsFormatNegotiator n = new ResultsFormatNegotiator();
+        n.report(TSV, JSON, 10, 1000);
+        assertTrue(n.isUnsupported(TSV));
+        assertFalse(n.isUnsupported(JSON));
+        assertTrue(Double.isNaN(n.getNsPerRow(JSON))); // too few rows
+        assertEquals(n.choose(false), THRIFT);
+        assertFalse(n.accept(THRIFT, false).contains(TSV.getMediaType()));
+    }
+
+    @Test
+    public void testLearnsFastest() {
+        ResultsFormatNegotiator n = new ResultsFormatNegotiator();
+        Map<ResultsFormat, Long> nsPerRow = new EnumMap<>(ResultsFormat.class);
+        nsPerRow.put(TSV, 400L);
+        nsPerRow.put(THRIFT, 300L);
+        nsPerRow.put(JSON, 100L);
+        nsPerRow.put(XML, 900L);
+        Map<ResultsFormat, Integer> chosen = new EnumMap<>(ResultsFormat.class);
+        for (int i = 0; i < 40 * EXPLORE_INTERVAL; i++) {
+            ResultsFormat format = n.choose(false);
+            chosen.merge(format, 1, Integer::sum);
+            n.report(format, format, MIN_ROWS, MIN_ROWS * nsPerRow.get(format));
+        }
+        for (ResultsFormat format : ResultsFormat.values())
+            assertEquals(n.getNsPerRow(format), (double)nsPerRow.get(format), 1e-6);
+        assertEquals(n.choose(false), JSON);
+        // exploration is bounded
+        assertTrue(chosen.get(JSON) > 30 * EXPLORE_INTERVAL);
+        assertTrue(chosen.get(XML) <= MIN_SAMPLES);
+        // ASK never explores, and TSV/THRIFT are never used for ASK
+        for (int i = 0; i < 2 * EXPLORE_INTERVAL; i++)
+            assertEquals(n.choose(true), JSON);
+    }
+
+    @Test
+    public void testEWMA() {
+        ResultsFormatNegotiator n = new ResultsFormatNegotiator(asList(TSV, JSON));
+        n.report(TSV, TSV, 1000, 100_000);
+        assertEquals(n.getNsPerRow(TSV), 100.0, 1e-6);
+        n.report(TSV, TSV, 1000, 200_000);
+        assertEquals(n.getNsPerRow(TSV), ALPHA * 200 + (1 - ALPHA) * 100, 1e-6);
+        n.report(TSV, TSV, MIN_ROWS-1, 0);
+        assertEquals(n.getNsPerRow(TSV), ALPHA * 200 + (1 - ALPHA) * 100, 1e-6);
+    }
+}
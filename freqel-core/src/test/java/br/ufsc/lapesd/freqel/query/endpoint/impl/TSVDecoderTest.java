@@ -0,0 +1,216 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import br.ufsc.lapesd.freqel.V;
+import br.ufsc.lapesd.freqel.model.NTParseException;
+import br.ufsc.lapesd.freqel.model.RDFUtils;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdBlank;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdTermFactory;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_16;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class TSVDecoderTest {
+    private static final String EX = "http://example.org/";
+
+    private static class Collector implements ResultsDecoder.Listener {
+        final @Nullable int[] projection;
+        @Nullable List<String> columns;
+        final @Nonnull List<List<Term>> rows = new ArrayList<>();
+        final @Nonnull List<String> badTerms = new ArrayList<>();
+        boolean keepBadRows = true;
+
+        Collector(@Nullable int[] projection) {
+            this.projection = projection;
+        }
+
+        @Override public @Nullable int[] header(@Nonnull List<String> columns) {
+            this.columns = columns;
+            return projection;
+        }
+
+        @Override public void row(@Nonnull Term[] row) {
+            rows.add(asList(Arrays.copyOf(row, row.length)));
+        }
+
+        @Override public boolean badTerm(@Nonnull String nt, @Nonnull NTParseException e) {
+            badTerms.add(nt);
+            return keepBadRows;
+        }
+    }
+
+    private static @Nonnull List<ByteBuf> split(@Nonnull byte[] bytes, int chunkSize,
+                                                boolean direct) {
+        List<ByteBuf> list = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            int len = Math.min(chunkSize, bytes.length - i);
+            ByteBuf bb = direct ? Unpooled.directBuffer(len) : Unpooled.buffer(len);
+            list.add(bb.writeBytes(bytes, i, len));
+        }
+        return list;
+    }
+
+    private static @Nonnull Collector decode(@Nonnull TSVDecoder decoder,
+                                             @Nonnull Collector collector, @Nonnull String tsv,
+                                             @Nonnull Charset charset, int chunkSize,
+                                             boolean direct) {
+        decoder.setCharset(charset);
+        List<ByteBuf> chunks = split(tsv.getBytes(charset), chunkSize, direct);
+        for (ByteBuf chunk : chunks) {
+            decoder.feed(chunk);
+            assertFalse(chunk.isReadable());
+        }
+        decoder.finish();
+        for (ByteBuf chunk : chunks)
+            assertTrue(chunk.release(), "decoder leaked a reference");
+        return collector;
+    }
+
+    private static @Nonnull Collector decode(@Nonnull String tsv, int chunkSize, boolean direct) {
+        Collector collector = new Collector(null);
+        return decode(new TSVDecoder(collector), collector, tsv, UTF_8, chunkSize, direct);
+    }
+
+    @DataProvider public static @Nonnull Object[][] chunkData() {
+        return Stream.of(1, 2, 3, 7, 64, 4096)
+                .flatMap(s -> Stream.of(asList(s, false), asList(s, true)))
+                .map(List::toArray).toArray(Object[][]::new);
+    }
+
+    @Test(dataProvider = "chunkData")
+    public void testTerms(int chunkSize, boolean direct) throws NTParseException {
+        List<String> nts = asList("<" + EX + "a>", "_:b1", "\"plain\"", "\"\"",
+                "\"a\\\"b\\nc\\t\"",
+                "\"23\"^^<http://www.w3.org/2001/XMLSchema#int>",
+                "\"a\\\"b\"^^<http://www.w3.org/2001/XMLSchema#string>",
+                "\"chat\"@fr", "\"color\"@en-US", "\"ção ✓\"@pt-BR",
+                "\"\"\"long\"\"\"^^<http://www.w3.org/2001/XMLSchema#string>",
+                "23", "-1.5", "true", "<" + EX + "ç>");
+        StringBuilder tsv = new StringBuilder("?x\n");
+        for (String nt : nts)
+            tsv.append(nt).append('\n');
+        Collector collector = decode(tsv.toString(), chunkSize, direct);
+        assertEquals(collector.columns, singletonList("?x"));
+        assertEquals(collector.badTerms, emptyStrings());
+        List<List<Term>> expected = new ArrayList<>();
+        for (String nt : nts)
+            expected.add(singletonList(RDFUtils.fromNT(nt, StdTermFactory.INSTANCE)));
+        assertEquals(collector.rows, expected);
+        assertEquals(collector.rows.get(1).get(0), new StdBlank("b1", "b1"));
+        assertEquals(collector.rows.get(4).get(0),
+                     StdLit.fromUnescaped("a\"b\nc\t", V.XSD.xstring));
+        assertEquals(collector.rows.get(6).get(0),
+                     StdLit.fromUnescaped("a\"b", V.XSD.xstring));
+    }
+
+    private static @Nonnull List<String> emptyStrings() {
+        return new ArrayList<>();
+    }
+
+    @Test(dataProvider = "chunkData")
+    public void testRowsAndProjection(int chunkSize, boolean direct) {
+        String tsv = "?x\t?y\t?z\r\n" +
+                "<" + EX + "1>\t\t\"a\"\r\n" +
+                "\t<" + EX + "2>\t\n" +
+                "\n" +
+                "<" + EX + "3>\t<" + EX + "4>\t<" + EX + "5>"; // no final line break
+        Collector all = decode(tsv, chunkSize, direct);
+        assertEquals(all.columns, asList("?x", "?y", "?z"));
+        StdURI u1 = new StdURI(EX + "1"), u2 = new StdURI(EX + "2"), u3 = new StdURI(EX + "3"),
+               u4 = new StdURI(EX + "4"), u5 = new StdURI(EX + "5");
+        StdLit a = StdLit.fromUnescaped("a", V.XSD.xstring);
+        assertEquals(all.rows, asList(asList(u1, null, a), asList(null, u2, null),
+                                      asList(null, null, null), asList(u3, u4, u5)));
+
+        Collector projected = new Collector(new int[]{2, -1, 0});
+        decode(new TSVDecoder(projected), projected, tsv, UTF_8, chunkSize, direct);
+        assertEquals(projected.rows, asList(asList(a, null, u1), asList(null, null, null),
+                                            asList(null, null, null), asList(u5, null, u3)));
+    }
+
+    @Test
+    public void testQuoteAwareLines() {
+        String tsv = "?x\t?y\n\"line\none\"\t\"a\tb\"\n\"two\"\t<" + EX + "2>\n";
+        Collector aware = new Collector(null);
+        TSVDecoder decoder = new TSVDecoder(aware).setQuoteAware(true);
+        decode(decoder, aware, tsv, UTF_8, 5, false);
+        assertEquals(aware.rows.size(), 2);
+        assertEquals(aware.rows.get(1), asList(StdLit.fromUnescaped("two", V.XSD.xstring),
+                                               new StdURI(EX + "2")));
+
+        Collector plain = decode(tsv, 5, false);
+        assertEquals(plain.rows.size(), 3);
+    }
+
+    @Test
+    public void testBadTerms() {
+        String tsv = "?x\t?y\n<" + EX + "1>\t\"bad\n<" + EX + "2>\t\"ok\"\n";
+        Collector keep = decode(tsv, 3, false);
+        assertEquals(keep.badTerms, singletonList("\"bad"));
+        assertEquals(keep.rows.size(), 2);
+        assertEquals(keep.rows.get(0), asList(new StdURI(EX + "1"), null));
+
+        Collector discard = new Collector(null);
+        discard.keepBadRows = false;
+        decode(new TSVDecoder(discard), discard, tsv, UTF_8, 3, false);
+        assertEquals(discard.rows, singletonList(asList(
+                new StdURI(EX + "2"), StdLit.fromUnescaped("ok", V.XSD.xstring))));
+    }
+
+    @Test
+    public void testTranscodeUTF16() {
+        String tsv = "?x\n\"ção\"@pt\n<" + EX + "✓>\n";
+        Collector collector = new Collector(null);
+        decode(new TSVDecoder(collector), collector, tsv, UTF_16, 4096, false);
+        assertEquals(collector.columns, singletonList("?x"));
+        assertEquals(collector.rows, asList(
+                singletonList(StdLit.fromUnescaped("ção", "pt")),
+                singletonList(new StdURI(EX + "✓"))));
+    }
+
+    @Test
+    public void testCachesRepeatedIRIs() {
+        StringBuilder tsv = new StringBuilder("?s\t?p\n");
+        for (int i = 0; i < 4; i++)
+            tsv.append("<").append(EX).append("s").append(i).append(">\t<").append(EX).append("p>\n");
+        Collector collector = decode(tsv.toString(), 4096, false);
+        assertEquals(collector.rows.size(), 4);
+        Term p2 = collector.rows.get(2).get(1), p3 = collector.rows.get(3).get(1);
+        assertEquals(p2, new StdURI(EX + "p"));
+        assertSame(p3, p2);
+        assertNotSame(collector.rows.get(1).get(0), collector.rows.get(0).get(0));
+    }
+
+    @Test
+    public void testReset() {
+        Collector collector = new Collector(null);
+        TSVDecoder decoder = new TSVDecoder(collector);
+        ByteBuf partial = Unpooled.copiedBuffer("?x\n<" + EX + "1", UTF_8);
+        decoder.feed(partial);
+        assertTrue(partial.refCnt() > 1);
+        decoder.reset();
+        assertTrue(partial.release());
+
+        decode(decoder, collector, "?y\n<" + EX + "2>\n", UTF_8, 4096, false);
+        assertEquals(collector.columns, singletonList("?y"));
+        assertEquals(collector.rows, singletonList(singletonList(new StdURI(EX + "2"))));
+    }
+}
@@ -1,6 +1,9 @@
 package br.ufsc.lapesd.freqel.query.impl;
 
 import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.ParallelCartesianResults;
+import br.ufsc.lapesd.freqel.model.term.Term;
 import br.ufsc.lapesd.freqel.model.term.std.StdURI;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.Solution;
@@ -20,14 +23,16 @@ import static br.ufsc.lapesd.freqel.ResultsAssert.assertExpectedResults;
 import static br.ufsc.lapesd.freqel.query.results.impl.CollectionResults.wrapSameVars;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.testng.Assert.*;
 
 @Test(groups = {"fast"})
 public class CartesianResultsTest implements TestContext {
     public static final List<BiFunction<Collection<Results>, Set<String>, Results>> factories =
-            singletonList(
-                    LazyCartesianResults::new
+            asList(
+                    LazyCartesianResults::new,
+                    (in, vars) -> new ParallelCartesianResults(new ArrayList<>(in), vars)
             );
 
     private @Nonnull CollectionResults createResults(int count, String... varNames) {
@@ -251,4 +256,61 @@ public class CartesianResultsTest implements TestContext {
                 MapSolution.builder().put(x, uri("x", 1)).put(y, uri("y", 0)).build()
         ));
     }
-}
\ No newline at end of file
+
+    @Test(dataProvider = "factoriesData")
+    public void testLargeProduct(BiFunction<Collection<Results>, Set<String>, Results> f) {
+        int xSize = 300, ySize = 40, zSize = 3; // 36000 solutions, above PARALLEL_THRESHOLD
+        Results r = f.apply(asList(createResults(xSize, "x"), createResults(ySize, "y"),
+                                   createResults(zSize, "z")),
+                            Sets.newHashSet("x", "y", "z"));
+        Set<Solution> set = new HashSet<>();
+        int count = 0;
+        while (r.hasNext()) {
+            Solution solution = r.next();
+            assertNotNull(solution.get(x));
+            assertNotNull(solution.get(y));
+            assertNotNull(solution.get(z));
+            set.add(solution);
+            ++count;
+        }
+        assertEquals(count, xSize * ySize * zSize);
+        assertEquals(set.size(), count);
+        assertTrue(set.contains(MapSolution.builder().put(x, uri("x", 299))
+                                           .put(y, uri("y", 39)).put(z, uri("z", 2)).build()));
+    }
+
+    @DataProvider
+    public static @Nonnull Object[][] parallelLimitData() {
+        return Stream.of(
+                asList(1, 1000, 1000),
+                asList(7, 1000, 1000),
+                asList(1000, 1000, 1000),
+                asList(10000, 200, 200),
+                asList(40000, 200, 200),
+                asList(40000, 100, 100)
+        ).map(List::toArray).toArray(Object[][]::new);
+    }
+
+    @Test(dataProvider = "parallelLimitData")
+    public void testParallelLimit(int limit, int xSize, int ySize) {
+        List<Solution> ySolutions = createSolutions(ySize, "y");
+        CollectionResults xIn = createResults(xSize, "x");
+        CollectionResults yIn = new CollectionResults(ySolutions, singleton("y"));
+        int expected = Math.min(limit, xSize * ySize);
+        List<Solution> list = new ArrayList<>();
+        try (Results r = new ParallelCartesianResults(asList(xIn, yIn),
+                Sets.newHashSet("x", "y"), limit, PoolJoinExecutorService.getDefault())) {
+            assertEquals(r.getLimit(), limit);
+            r.forEachRemaining(list::add);
+        }
+        assertEquals(list.size(), expected);
+        assertEquals(new HashSet<>(list).size(), expected);
+        // the streamed operand is not consumed beyond what is needed
+        int xConsumed = (int)Math.min(xSize, (limit + (long)ySize - 1) / ySize);
+        Set<Term> allowed = new HashSet<>();
+        for (int i = 0; i < xConsumed; i++)
+            allowed.add(uri("x", i));
+        for (Solution s : list)
+            assertTrue(allowed.contains(s.get(x)), "unexpected x="+s.get(x));
+    }
+}
@@ -5,6 +5,7 @@ import br.ufsc.lapesd.freqel.query.modifiers.filter.SPARQLFilterFactory;
 import br.ufsc.lapesd.freqel.query.modifiers.filter.SPARQLFilter;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SolutionBlock;
 import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
 import br.ufsc.lapesd.freqel.query.results.impl.IteratorResults;
 import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
@@ -76,4 +77,24 @@ public class SPARQLFilterResultsTest implements TestContext {
                             filters, expected);
     }
 
+    @Test(dataProvider = "numbersData")
+    public void testFilterNumbersByBatch(List<Integer> numbers, List<SPARQLFilter> filters,
+                                         List<Integer> expected) {
+        List<Solution> solutions = numbers.stream()
+                .map(i -> MapSolution.build("x", lit(i))).collect(toList());
+        for (int max : asList(1, 2, 256)) {
+            SPARQLFilterResults results = new SPARQLFilterResults(
+                    new CollectionResults(solutions, singleton("x")), filters);
+            SolutionBlock block = new SolutionBlock(singleton("x"), max);
+            List<Integer> actual = new ArrayList<>();
+            for (int n; (n = results.nextBatch(block, max)) > 0; block.clear()) {
+                for (int i = 0; i < n; i++)
+                    actual.add(parseInt(requireNonNull(block.get(i, 0)).asLiteral().getLexicalForm()));
+            }
+            assertEquals(actual, expected, "max="+max);
+            assertEquals(results.getIncluded(), expected.size());
+            assertEquals(results.getExcluded(), numbers.size()-expected.size());
+        }
+    }
+
 }
\ No newline at end of file
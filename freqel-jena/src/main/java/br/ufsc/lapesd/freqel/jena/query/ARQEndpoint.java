@@ -143,6 +143,9 @@ public class ARQEndpoint extends AbstractTPEndpoint implements DQEndpoint {
             case VALUES:
             case OPTIONAL:
             case ASK:
+            case ORDER_BY:
+            case OFFSET:
+            case AGGREGATION:
                 return true;
             default:
                 return false;
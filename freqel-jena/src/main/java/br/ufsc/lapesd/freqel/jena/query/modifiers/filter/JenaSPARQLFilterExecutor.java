@@ -3,6 +3,8 @@ package br.ufsc.lapesd.freqel.jena.query.modifiers.filter;
 import br.ufsc.lapesd.freqel.query.modifiers.filter.SPARQLFilter;
 import br.ufsc.lapesd.freqel.query.modifiers.filter.SPARQLFilterExecutor;
 import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.util.indexed.IndexSet;
 import org.apache.jena.graph.Node;
 import org.apache.jena.query.ARQ;
 import org.apache.jena.query.DatasetFactory;
@@ -16,6 +18,7 @@ import org.apache.jena.sparql.util.Context;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 
 import static br.ufsc.lapesd.freqel.jena.JenaWrappers.toJenaNode;
@@ -35,6 +38,9 @@ public class JenaSPARQLFilterExecutor implements SPARQLFilterExecutor {
 
     private static class BindingWrapper implements Binding {
         private @Nullable Solution solution;
+        /* slot of each Var (same instances across evaluations) in ArraySolutions of slotVars */
+        private @Nullable IndexSet<String> slotVars;
+        private final @Nonnull IdentityHashMap<Var, Integer> slots = new IdentityHashMap<>();
 
         public @Nonnull BindingWrapper setSolution(@Nonnull Solution solution) {
             this.solution = solution;
@@ -52,6 +58,18 @@ public class JenaSPARQLFilterExecutor implements SPARQLFilterExecutor {
         }
 
         @Override public Node get(Var var) {
+            if (solution instanceof ArraySolution) {
+                ArraySolution array = (ArraySolution) solution;
+                IndexSet<String> vars = array.getVarNames();
+                if (vars != slotVars) {
+                    slotVars = vars;
+                    slots.clear();
+                }
+                Integer idx = slots.get(var);
+                if (idx == null)
+                    slots.put(var, idx = vars.indexOf(var.getVarName()));
+                return idx < 0 ? null : toJenaNode(array.getAt(idx));
+            }
             return solution == null ? null : toJenaNode(solution.get(var.getVarName()));
         }
 
@@ -29,13 +29,18 @@ import com.google.common.collect.Sets;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryVisitor;
+import org.apache.jena.query.SortCondition;
 import org.apache.jena.sparql.core.Prologue;
 import org.apache.jena.sparql.core.TriplePath;
 import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.core.VarExprList;
 import org.apache.jena.sparql.engine.binding.Binding;
 import org.apache.jena.sparql.expr.E_Exists;
 import org.apache.jena.sparql.expr.E_NotExists;
 import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprAggregator;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.aggregate.*;
 import org.apache.jena.sparql.path.*;
 import org.apache.jena.sparql.syntax.*;
 import org.slf4j.Logger;
@@ -58,6 +63,7 @@ public class ConvertVisitor implements QueryVisitor {
     private FullIndexSet<String> varsUniverse;
     private IndexSubset<String> tripleVars;
     private IndexSet<String> projectionVars;
+    private Set<String> outputVars;
 
     private int lastHidden = -1;
 
@@ -95,16 +101,90 @@ public class ConvertVisitor implements QueryVisitor {
         if (query.isDistinct())
             outerModifiers.add(Distinct.INSTANCE);
         assert varsUniverse.isEmpty();
-        for (Var v : query.getProjectVars())
-            varsUniverse.add(v.getVarName());
-        projectionVars = varsUniverse.immutableFullSubset();
-        outerModifiers.add(new Projection(projectionVars));
+        if (!SPARQLParserOptions.getEraseGroupBy()
+                && (query.hasGroupBy() || query.hasAggregators())) {
+            visitAggregation(query);
+        } else {
+            for (Var v : query.getProjectVars())
+                varsUniverse.add(v.getVarName());
+            projectionVars = varsUniverse.immutableFullSubset();
+            outputVars = projectionVars;
+            outerModifiers.add(new Projection(projectionVars));
+        }
         List<String> graphs = query.getGraphURIs();
         List<String> namedGraphs = query.getNamedGraphURIs();
         if (hasReasoningGraphURI(namedGraphs) || hasReasoningGraphURI(graphs))
             outerModifiers.add(Reasoning.INSTANCE);
     }
 
+    private void visitAggregation(@Nonnull Query query) {
+        List<String> groupVars = new ArrayList<>();
+        for (Var v : query.getGroupBy().getVars()) {
+            if (query.getGroupBy().getExpr(v) != null)
+                throw new FeatureException("GROUP BY only supports variables");
+            groupVars.add(v.getVarName());
+        }
+        Map<Var, Aggregator> var2aggregator = new HashMap<>();
+        for (ExprAggregator ea : query.getAggregators())
+            var2aggregator.put(ea.getVar(), ea.getAggregator());
+        List<Aggregation.Aggregate> aggregates = new ArrayList<>();
+        VarExprList project = query.getProject();
+        for (Var v : project.getVars()) {
+            Expr expr = project.getExpr(v);
+            if (expr == null) {
+                if (!groupVars.contains(v.getVarName()))
+                    throw new FeatureException("?"+v.getVarName()+" is not a GROUP BY variable");
+                continue;
+            }
+            Aggregator aggregator = null;
+            if (expr instanceof ExprAggregator)
+                aggregator = ((ExprAggregator) expr).getAggregator();
+            else if (expr.isVariable())
+                aggregator = var2aggregator.get(expr.asVar());
+            if (aggregator == null)
+                throw new FeatureException("Only aggregates are supported in SELECT expressions");
+            aggregates.add(convertAggregate(aggregator, v.getVarName()));
+        }
+        Aggregation aggregation = new Aggregation(groupVars, aggregates);
+        outerModifiers.add(aggregation);
+        for (String var : aggregation.getInputVars())
+            varsUniverse.add(var);
+        projectionVars = varsUniverse.immutableFullSubset();
+        boolean countAll = aggregates.stream().anyMatch(a -> a.getInput() == null);
+        if (!countAll && !projectionVars.isEmpty()) // COUNT(*) consumes all variables
+            outerModifiers.add(new Projection(projectionVars));
+        outputVars = aggregation.getResultVars();
+    }
+
+    private static @Nonnull Aggregation.Aggregate
+    convertAggregate(@Nonnull Aggregator aggregator, @Nonnull String output) {
+        Aggregation.Function function;
+        boolean distinct = false;
+        if (aggregator instanceof AggCount || aggregator instanceof AggCountDistinct) {
+            distinct = aggregator instanceof AggCountDistinct;
+            return new Aggregation.Aggregate(Aggregation.Function.COUNT, null, distinct, output);
+        } else if (aggregator instanceof AggCountVar || aggregator instanceof AggCountVarDistinct) {
+            function = Aggregation.Function.COUNT;
+            distinct = aggregator instanceof AggCountVarDistinct;
+        } else if (aggregator instanceof AggSum || aggregator instanceof AggSumDistinct) {
+            function = Aggregation.Function.SUM;
+            distinct = aggregator instanceof AggSumDistinct;
+        } else if (aggregator instanceof AggMin || aggregator instanceof AggMinDistinct) {
+            function = Aggregation.Function.MIN;
+        } else if (aggregator instanceof AggMax || aggregator instanceof AggMaxDistinct) {
+            function = Aggregation.Function.MAX;
+        } else if (aggregator instanceof AggAvg || aggregator instanceof AggAvgDistinct) {
+            function = Aggregation.Function.AVG;
+            distinct = aggregator instanceof AggAvgDistinct;
+        } else {
+            throw new FeatureException("Unsupported aggregate "+aggregator);
+        }
+        ExprList args = aggregator.getExprList();
+        if (args == null || args.size() != 1 || !args.get(0).isVariable())
+            throw new FeatureException("Aggregates only support variables, got "+aggregator);
+        return new Aggregation.Aggregate(function, args.get(0).getVarName(), distinct, output);
+    }
+
     private static final @Nonnull Set<String> NON_REASONING_GRAPH_URIS = Sets.newHashSet(
             V.Freqel.Entailment.Graph.Simple.getURI(),
             V.Freqel.Entailment.Graph.RDF.getURI(),
@@ -157,8 +237,7 @@ public class ConvertVisitor implements QueryVisitor {
     }
     @Override
     public void visitGroupBy(Query query) {
-        if (query.hasGroupBy() && !SPARQLParserOptions.getEraseGroupBy())
-            throw new FeatureException("GROUP BY is not supported");
+        // handled in visitSelectResultForm(), since GROUP BY changes the projection
     }
     @Override
     public void visitHaving(Query query) {
@@ -167,8 +246,20 @@ public class ConvertVisitor implements QueryVisitor {
     }
     @Override
     public void visitOrderBy(Query query) {
-        if (query.hasOrderBy() && !SPARQLParserOptions.getEraseOrderBy())
-            throw new FeatureException("ORDER BY is not supported");
+        if (!query.hasOrderBy() || query.isAskType() || SPARQLParserOptions.getEraseOrderBy())
+            return;
+        List<OrderBy.Key> keys = new ArrayList<>();
+        for (SortCondition condition : query.getOrderBy()) {
+            Expr expr = condition.getExpression();
+            if (!expr.isVariable())
+                throw new FeatureException("ORDER BY only supports variables, got "+expr);
+            String var = expr.getVarName();
+            if (!outputVars.contains(var))
+                throw new FeatureException("ORDER BY on non-projected variable ?"+var);
+            boolean desc = condition.getDirection() == Query.ORDER_DESCENDING;
+            keys.add(desc ? OrderBy.Key.desc(var) : OrderBy.Key.asc(var));
+        }
+        outerModifiers.add(new OrderBy(keys));
     }
     @Override
     public void visitLimit(Query query) {
@@ -177,8 +268,8 @@ public class ConvertVisitor implements QueryVisitor {
     }
     @Override
     public void visitOffset(Query query) {
-        if (query.hasOffset() && !SPARQLParserOptions.getEraseOffset())
-            throw new FeatureException("OFFSET is not supported");
+        if (query.hasOffset() && !SPARQLParserOptions.getEraseOffset() && query.getOffset() > 0)
+            outerModifiers.add(Offset.of((int)query.getOffset()));
     }
     @Override
     public void visitValues(Query query) {
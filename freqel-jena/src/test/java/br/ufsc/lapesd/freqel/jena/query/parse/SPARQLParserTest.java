@@ -31,6 +31,8 @@ import static br.ufsc.lapesd.freqel.query.parse.CQueryContext.createQuery;
 import static br.ufsc.lapesd.freqel.query.parse.CQueryContext.createTolerantQuery;
 import static br.ufsc.lapesd.freqel.query.parse.SPARQLParser.hidden;
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toSet;
 import static org.testng.Assert.*;
 
@@ -322,4 +324,72 @@ public class SPARQLParserTest implements TestContext {
         }
     }
 
-}
\ No newline at end of file
+
+    @Test
+    public void testParseOrderByOffset() throws Exception {
+        String prolog = "PREFIX ex: <"+ TestContext.EX +">\n";
+        Op op = SPARQLParser.strict().parse(prolog + "SELECT * WHERE {?x ex:p ?o.}\n" +
+                                            "ORDER BY ?x DESC(?o) LIMIT 10 OFFSET 20");
+        OrderBy expected = new OrderBy(asList(OrderBy.Key.asc("x"), OrderBy.Key.desc("o")));
+        assertEquals(op.modifiers().orderBy(), expected);
+        assertEquals(op.modifiers().limit(), Limit.of(10));
+        assertEquals(op.modifiers().offset(), Offset.of(20));
+
+        // OFFSET 0 is a no-op
+        op = SPARQLParser.strict().parse(prolog + "SELECT * WHERE {?x ex:p ?o.} OFFSET 0");
+        assertNull(op.modifiers().offset());
+
+        // tolerant parser still erases ORDER BY and OFFSET
+        op = SPARQLParser.tolerant().parse(prolog + "SELECT * WHERE {?x ex:p ?o.}\n" +
+                                           "ORDER BY ?x LIMIT 10 OFFSET 20");
+        assertNull(op.modifiers().orderBy());
+        assertNull(op.modifiers().offset());
+    }
+
+    @Test
+    public void testUnsupportedOrderBy() {
+        String prolog = "PREFIX ex: <"+ TestContext.EX +">\n";
+        expectThrows(UnsupportedSPARQLFeatureException.class, () -> SPARQLParser.strict()
+                .parse(prolog + "SELECT ?x WHERE {?x ex:p ?o.} ORDER BY ?o"));
+        expectThrows(UnsupportedSPARQLFeatureException.class, () -> SPARQLParser.strict()
+                .parse(prolog + "SELECT ?x WHERE {?x ex:p ?o.} ORDER BY STR(?x)"));
+    }
+
+    @Test
+    public void testParseAggregation() throws Exception {
+        String prolog = "PREFIX ex: <"+ TestContext.EX +">\n";
+        Op op = SPARQLParser.strict().parse(prolog +
+                "SELECT ?x (COUNT(*) AS ?c) (SUM(DISTINCT ?o) AS ?s) WHERE {?x ex:p ?o; ex:q ?u.}\n" +
+                "GROUP BY ?x ORDER BY DESC(?c)");
+        Aggregation expected = new Aggregation(singletonList("x"), asList(
+                Aggregation.Aggregate.count(null, "c"),
+                new Aggregation.Aggregate(Aggregation.Function.SUM, "o", true, "s")));
+        assertEquals(op.modifiers().aggregation(), expected);
+        assertEquals(op.modifiers().orderBy(), new OrderBy(singletonList(OrderBy.Key.desc("c"))));
+        assertNull(op.modifiers().projection()); // COUNT(*) consumes all variables
+
+        op = SPARQLParser.strict().parse(prolog +
+                "SELECT (MAX(?o) AS ?m) WHERE {?x ex:p ?o; ex:q ?u.}");
+        expected = new Aggregation(emptyList(), singletonList(
+                new Aggregation.Aggregate(Aggregation.Function.MAX, "o", false, "m")));
+        assertEquals(op.modifiers().aggregation(), expected);
+        assertEquals(op.modifiers().projection(), Projection.of("o"));
+
+        // tolerant parser still erases GROUP BY
+        op = SPARQLParser.tolerant().parse(prolog +
+                "SELECT ?x (COUNT(?o) AS ?c) WHERE {?x ex:p ?o.} GROUP BY ?x");
+        assertNull(op.modifiers().aggregation());
+    }
+
+    @Test
+    public void testUnsupportedAggregation() {
+        String prolog = "PREFIX ex: <"+ TestContext.EX +">\n";
+        expectThrows(UnsupportedSPARQLFeatureException.class, () -> SPARQLParser.strict()
+                .parse(prolog + "SELECT (COUNT(STR(?o)) AS ?c) WHERE {?x ex:p ?o.}"));
+        expectThrows(UnsupportedSPARQLFeatureException.class, () -> SPARQLParser.strict()
+                .parse(prolog + "SELECT ?x (SAMPLE(?o) AS ?c) WHERE {?x ex:p ?o.} GROUP BY ?x"));
+        expectThrows(UnsupportedSPARQLFeatureException.class, () -> SPARQLParser.strict()
+                .parse(prolog + "SELECT ?x (COUNT(?o) AS ?c) WHERE {?x ex:p ?o.} GROUP BY ?x " +
+                                "HAVING (COUNT(?o) > 1)"));
+    }
+}
@@ -196,7 +196,8 @@ public class RDFUtils {
         if (first == '<' && last == '>')
             return termFactory.createURI(string.substring(1, string.length()-1));
         else if (first == '"' && last == '"')
-            return termFactory.createLit(string.substring(1, string.length()-1), V.XSD.xstring);
+            return termFactory.createLit(string.substring(1, string.length()-1),
+                                         V.XSD.xstring, true);
 
         Matcher matcher = LIT_DT_RX.matcher(string);
         if (matcher.find()) {
@@ -57,6 +57,9 @@ public class SPARQLString {
         // honor projection if present, else expose only vars in triple patterns
         Projection p = query.getModifiers().projection();
         Set<String> varNames = p == null ? query.attr().publicTripleVarNames() : p.getVarNames();
+        Aggregation aggregation = query.getModifiers().aggregation();
+        if (aggregation != null && !ask)
+            varNames = aggregation.getResultVars();
 
         // write body to discover which variables in publicTripleVarNames should be removed
         StringBuilder bb = new StringBuilder(query.size()*60);
@@ -73,7 +76,9 @@ public class SPARQLString {
         boolean distinct = op.modifiers().distinct() != null;
         Limit limitMod = op.modifiers().limit();
         int limit = limitMod == null ? 0 : limitMod.getValue();
-        Set<String> resultVars = op.getResultVars();
+        Aggregation aggregation = op.modifiers().aggregation();
+        Set<String> resultVars = aggregation != null && !ask ? aggregation.getResultVars()
+                                                             : op.getResultVars();
         PrefixDict dict = TreeUtils.getPrefixDict(op);
 
         Set<Triple> mt = op.getCachedMatchedTriples();
@@ -92,15 +97,30 @@ public class SPARQLString {
         final @Nonnull String sparql;
         StringBuilder b = new StringBuilder(dict.size()*50 + 60 + bodyBuilder.length());
         writePrefixes(b, dict);
-        writeHeader(b, ask, distinct, varNames);
+        Aggregation aggregation = ask ? null : modifiers.aggregation();
+        if (aggregation == null)
+            writeHeader(b, ask, distinct, varNames);
+        else
+            writeAggregationHeader(b, distinct, aggregation);
         b.append(bodyBuilder); //add the body (appending builder is faster than appending String)
         writeFilters(b, modifiers.filters());
         ValuesModifier values = modifiers.valueModifier();
         if (values != null)
             writeValues(b, values.getVarNames(), values.getAssignments(), dict);
         b.append('}'); // ends SELECT/ASK
+        if (aggregation != null && !aggregation.getGroupVars().isEmpty()) {
+            b.append(" GROUP BY");
+            for (String var : aggregation.getGroupVars())
+                b.append(" ?").append(var);
+        }
+        OrderBy orderBy = modifiers.orderBy();
+        if (orderBy != null && !ask)
+            b.append(' ').append(orderBy);
         if (limit > 0)
             b.append(" LIMIT ").append(limit);
+        Offset offset = modifiers.offset();
+        if (offset != null && !ask)
+            b.append(' ').append(offset);
         sparql = b.toString();
         return sparql;
     }
@@ -200,6 +220,17 @@ public class SPARQLString {
         b.append(ask ? "{" : "WHERE {");
     }
 
+    public static void writeAggregationHeader(@Nonnull StringBuilder b, boolean distinct,
+                                              @Nonnull Aggregation aggregation) {
+        b.append("SELECT ");
+        if (distinct) b.append("DISTINCT ");
+        for (String n : aggregation.getGroupVars())
+            b.append('?').append(n).append(' ');
+        for (Aggregation.Aggregate aggregate : aggregation.getAggregates())
+            b.append(aggregate).append(' ');
+        b.append("WHERE {");
+    }
+
     public static @Nonnull StringBuilder
     writeBody(@Nonnull StringBuilder b, @Nonnull Op op, @Nonnull PrefixDict dict) {
         boolean optional = op.modifiers().contains(Optional.EXPLICIT);
@@ -0,0 +1,115 @@
+package br.ufsc.lapesd.freqel.model.term;
+
+import br.ufsc.lapesd.freqel.V;
+import com.google.common.collect.Sets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Total order of {@link Term}s following the SPARQL 1.1 ORDER BY rules.
+ *
+ * Unbound (null) values come first, followed by blank nodes, IRIs and literals. IRIs are
+ * compared by their string. Numeric literals are compared by value. Other literals and
+ * ties between numeric literals are ordered by lexical form, datatype IRI and language tag,
+ * so that only equal terms compare as equal.
+ *
+ * Note that SPARQL leaves the relative order of literals of different datatypes unspecified,
+ * thus only the order of IRIs and numeric literals is expected to match an arbitrary
+ * SPARQL engine.
+ */
+public class TermOrder implements Comparator<Term> {
+    public static final @Nonnull TermOrder INSTANCE = new TermOrder();
+
+    private static final @Nonnull Set<String> NUMERIC = Sets.newHashSet(
+            V.XSD.integer.getURI(), V.XSD.decimal.getURI(), V.XSD.xfloat.getURI(),
+            V.XSD.xdouble.getURI(), V.XSD.xint.getURI(), V.XSD.xlong.getURI(),
+            V.XSD.xshort.getURI(), V.XSD.xbyte.getURI(), V.XSD.unsignedByte.getURI(),
+            V.XSD.unsignedShort.getURI(), V.XSD.unsignedInt.getURI(),
+            V.XSD.unsignedLong.getURI(), V.XSD.nonPositiveInteger.getURI(),
+            V.XSD.nonNegativeInteger.getURI(), V.XSD.positiveInteger.getURI(),
+            V.XSD.negativeInteger.getURI());
+    private static final @Nonnull Set<String> FLOATING = Sets.newHashSet(
+            V.XSD.xfloat.getURI(), V.XSD.xdouble.getURI());
+
+    /**
+     * Whether the literal has a numeric XSD datatype.
+     */
+    public static boolean isNumeric(@Nonnull Lit lit) {
+        return NUMERIC.contains(lit.getDatatype().getURI());
+    }
+
+    /**
+     * Whether the literal is a xsd:float or a xsd:double.
+     */
+    public static boolean isFloating(@Nonnull Lit lit) {
+        return FLOATING.contains(lit.getDatatype().getURI());
+    }
+
+    private static int rank(@Nullable Term term) {
+        if (term == null) return 0;
+        switch (term.getType()) {
+            case BLANK:   return 1;
+            case URI:     return 2;
+            case LITERAL: return 3;
+            default:      return 4; // vars should not be compared
+        }
+    }
+
+    @Override
+    public int compare(@Nullable Term l, @Nullable Term r) {
+        if (l == r) return 0;
+        int diff = Integer.compare(rank(l), rank(r));
+        if (diff != 0 || l == null)
+            return diff;
+        assert r != null;
+        switch (l.getType()) {
+            case BLANK:
+                return blankName(l.asBlank()).compareTo(blankName(r.asBlank()));
+            case URI:
+                return l.asURI().getURI().compareTo(r.asURI().getURI());
+            case LITERAL:
+                return compareLiterals(l.asLiteral(), r.asLiteral());
+            default:
+                return l.toString().compareTo(r.toString());
+        }
+    }
+
+    private static @Nonnull String blankName(@Nonnull Blank blank) {
+        String name = blank.getName();
+        return name == null ? blank.getId().toString() : name;
+    }
+
+    private static int compareLiterals(@Nonnull Lit l, @Nonnull Lit r) {
+        String lDT = l.getDatatype().getURI(), rDT = r.getDatatype().getURI();
+        if (NUMERIC.contains(lDT) && NUMERIC.contains(rDT)) {
+            int diff = compareNumbers(l.getLexicalForm(), lDT, r.getLexicalForm(), rDT);
+            if (diff != 0)
+                return diff;
+        }
+        int diff = l.getLexicalForm().compareTo(r.getLexicalForm());
+        if (diff != 0) return diff;
+        diff = lDT.compareTo(rDT);
+        if (diff != 0) return diff;
+        String lLang = l.getLangTag(), rLang = r.getLangTag();
+        if (Objects.equals(lLang, rLang)) return 0;
+        if (lLang == null) return -1;
+        if (rLang == null) return  1;
+        return lLang.compareTo(rLang);
+    }
+
+    private static int compareNumbers(@Nonnull String l, @Nonnull String lDT,
+                                      @Nonnull String r, @Nonnull String rDT) {
+        try {
+            if (FLOATING.contains(lDT) || FLOATING.contains(rDT))
+                return Double.compare(Double.parseDouble(l.trim()), Double.parseDouble(r.trim()));
+            return new BigDecimal(l.trim()).compareTo(new BigDecimal(r.trim()));
+        } catch (NumberFormatException e) {
+            return 0; // ill-typed literals fall back to the lexical order
+        }
+    }
+}
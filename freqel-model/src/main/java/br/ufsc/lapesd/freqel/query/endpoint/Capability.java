@@ -14,7 +14,10 @@ public enum  Capability {
     VALUES,
     OPTIONAL,
     CARTESIAN,
-    REASONING;
+    REASONING,
+    ORDER_BY,
+    OFFSET,
+    AGGREGATION;
 
     public boolean isUniqueModifier() {
         switch (this) {
@@ -26,6 +29,9 @@ public enum  Capability {
             case OPTIONAL:
             case CARTESIAN:
             case REASONING:
+            case ORDER_BY:
+            case OFFSET:
+            case AGGREGATION:
                 return true;
             default:
                 return false;
@@ -41,6 +47,9 @@ public enum  Capability {
      * - LIMIT is unsafe as the number of results from the join cannot be foreseen
      * - ASK is unsafe since the receiving query was not under ASK semantics and results are lost
      * - DISTINCT is unsafe since it can cause result eliminations
+     * - ORDER BY is unsafe as the receiving query may not bind the ordering variables
+     * - OFFSET is unsafe for the same reasons as LIMIT
+     * - AGGREGATION is unsafe as it replaces the solutions of the receiving query
      */
     public boolean isMergeUnsafe() {
         switch (this) {
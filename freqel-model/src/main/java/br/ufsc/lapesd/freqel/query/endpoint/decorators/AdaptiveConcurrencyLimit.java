@@ -0,0 +1,237 @@
+package br.ufsc.lapesd.freqel.query.endpoint.decorators;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A limit on concurrent requests that adapts to the latency observed for each request.
+ *
+ * The limit follows TCP Vegas: the lowest latency observed (minRtt) estimates the latency
+ * of an idle endpoint and <code>limit * (1 - minRtt/rtt)</code> estimates how many requests
+ * are queued at the endpoint. If less than {@link #ALPHA} requests are queued, the limit
+ * grows by one, if more than {@link #BETA} are queued it shrinks by one. Failed requests
+ * halve the limit. minRtt is reset every {@link #MIN_RTT_RESET_SAMPLES} samples so that
+ * permanent changes in the endpoint latency are learned.
+ *
+ * Requests that do not get a permit wait in FIFO order for at most the timeout given to
+ * {@link #acquire(long, TimeUnit)}. If more than maxQueued requests are already waiting,
+ * new requests are rejected without waiting.
+ */
+@ThreadSafe
+public class AdaptiveConcurrencyLimit {
+    public static final int DEF_INITIAL_LIMIT = 8;
+    public static final int DEF_MIN_LIMIT = 2;
+    public static final int DEF_MAX_LIMIT = 64;
+    public static final int DEF_MAX_QUEUED = 1024;
+    public static final int ALPHA = 3;
+    public static final int BETA = 6;
+    public static final int MIN_RTT_RESET_SAMPLES = 256;
+
+    private final int minLimit, maxLimit, maxQueued;
+    private final @Nonnull ReentrantLock lock = new ReentrantLock();
+    private final @Nonnull Condition permitFreed = lock.newCondition();
+    private int limit, inFlight = 0, queued = 0, samples = 0;
+    private long minRttNanos = Long.MAX_VALUE;
+    private long rejected = 0, dropped = 0;
+
+    public AdaptiveConcurrencyLimit() {
+        this(DEF_INITIAL_LIMIT, DEF_MIN_LIMIT, DEF_MAX_LIMIT, DEF_MAX_QUEUED);
+    }
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit,
+                                    int maxQueued) {
+        if (minLimit < 1)
+            throw new IllegalArgumentException("minLimit must be >= 1");
+        if (maxLimit < minLimit)
+            throw new IllegalArgumentException("maxLimit must be >= minLimit");
+        if (maxQueued < 0)
+            throw new IllegalArgumentException("maxQueued must be >= 0");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueued = maxQueued;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Gets a permit only if one is available right now and no one is waiting for one.
+     *
+     * Unlike {@link #acquire(long, TimeUnit)} with a zero timeout, a false return is
+     * not counted as a rejection.
+     *
+     * @return true if a permit was acquired and must later be given back with
+     *         {@link #release(long, boolean)}.
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (inFlight < limit && queued == 0) {
+                ++inFlight;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets a permit, waiting at most timeout for one if none is available.
+     *
+     * @return true if a permit was acquired and must later be given back with
+     *         {@link #release(long, boolean)}. false if the request was rejected
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean acquire(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            if (inFlight < limit && queued == 0) {
+                ++inFlight;
+                return true;
+            }
+            if (queued >= maxQueued) {
+                ++rejected;
+                return false;
+            }
+            ++queued;
+            try {
+                long nanos = unit.toNanos(timeout);
+                while (inFlight >= limit) {
+                    if (nanos <= 0) {
+                        ++rejected;
+                        return false;
+                    }
+                    nanos = permitFreed.awaitNanos(nanos);
+                }
+                ++inFlight;
+            } finally {
+                --queued;
+            }
+            if (inFlight < limit)
+                permitFreed.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a permit obtained with {@link #acquire(long, TimeUnit)}.
+     *
+     * @param rttNanos latency of the request, in nanoseconds. Negative values are not
+     *                 used to adjust the limit.
+     * @param failed whether the request failed
+     */
+    public void release(long rttNanos, boolean failed) {
+        lock.lock();
+        try {
+            assert inFlight > 0;
+            --inFlight;
+            if (failed) {
+                ++dropped;
+                limit = Math.max(minLimit, limit / 2);
+            } else if (rttNanos >= 0) {
+                sample(Math.max(1, rttNanos));
+            }
+            for (int i = inFlight; i < limit; i++)
+                permitFreed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sample(long rttNanos) {
+        if (++samples % MIN_RTT_RESET_SAMPLES == 0)
+            minRttNanos = rttNanos;
+        else
+            minRttNanos = Math.min(minRttNanos, rttNanos);
+        double queueSize = limit * (1 - minRttNanos / (double) rttNanos);
+        if (queueSize < ALPHA) {
+            if (2*(inFlight+1) >= limit) // only grow if the limit is being used
+                limit = Math.min(maxLimit, limit + 1);
+        } else if (queueSize > BETA) {
+            limit = Math.max(minLimit, limit - 1);
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * Number of acquired and not yet released permits
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of threads waiting in {@link #acquire(long, TimeUnit)}
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of {@link #acquire(long, TimeUnit)} calls that returned false.
+     */
+    public long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of {@link #release(long, boolean)} calls for failed requests.
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override public @Nonnull String toString() {
+        lock.lock();
+        try {
+            return String.format("AdaptiveConcurrencyLimit{limit=%d, inFlight=%d, queued=%d}",
+                                 limit, inFlight, queued);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
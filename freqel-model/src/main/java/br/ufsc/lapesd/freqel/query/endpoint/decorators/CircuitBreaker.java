@@ -0,0 +1,145 @@
+package br.ufsc.lapesd.freqel.query.endpoint.decorators;
+
+import com.google.common.base.Ticker;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops sending requests to an endpoint after consecutive failures.
+ *
+ * After failureThreshold consecutive failed requests the breaker becomes
+ * {@link State#OPEN} and {@link #tryAcquire()} fails for openTime. After that, a single
+ * probe request is allowed ({@link State#HALF_OPEN}). If the probe succeeds the breaker
+ * closes, if it fails the breaker stays open for another openTime.
+ */
+@ThreadSafe
+public class CircuitBreaker {
+    public static final int DEF_FAILURE_THRESHOLD = 5;
+    public static final long DEF_OPEN_MS = 10000;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * How a request allowed by {@link #tryAcquire()} ended.
+     */
+    public enum Outcome {
+        SUCCESS,
+        FAILURE,
+        /** The request was abandoned (e.g., closed) before it could succeed or fail */
+        ABANDONED
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final @Nonnull Ticker ticker;
+    private @Nonnull State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean probing = false;
+    private long shortCircuited = 0, opened = 0;
+
+    public CircuitBreaker() {
+        this(DEF_FAILURE_THRESHOLD, DEF_OPEN_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public CircuitBreaker(int failureThreshold, long openTime, @Nonnull TimeUnit unit) {
+        this(failureThreshold, openTime, unit, Ticker.systemTicker());
+    }
+
+    public CircuitBreaker(int failureThreshold, long openTime, @Nonnull TimeUnit unit,
+                          @Nonnull Ticker ticker) {
+        if (failureThreshold < 1)
+            throw new IllegalArgumentException("failureThreshold must be >= 1");
+        this.failureThreshold = failureThreshold;
+        this.openNanos = unit.toNanos(openTime);
+        this.ticker = ticker;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getOpenTime(@Nonnull TimeUnit unit) {
+        return unit.convert(openNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized @Nonnull State getState() {
+        return state;
+    }
+
+    /**
+     * Number of {@link #tryAcquire()} calls that returned false.
+     */
+    public synchronized long getShortCircuited() {
+        return shortCircuited;
+    }
+
+    /**
+     * Number of times the breaker went from {@link State#CLOSED} or {@link State#HALF_OPEN}
+     * into {@link State#OPEN}.
+     */
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    /**
+     * Checks whether a request may be sent. If true is returned, {@link #release(Outcome)}
+     * MUST be called once the request completes.
+     *
+     * @return true iff the request should be sent.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && ticker.read() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        } else if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return true;
+        }
+        ++shortCircuited;
+        return false;
+    }
+
+    /**
+     * Reports the outcome of a request allowed by {@link #tryAcquire()}.
+     *
+     * @return the {@link State} after this outcome is considered
+     */
+    public synchronized @Nonnull State release(@Nonnull Outcome outcome) {
+        switch (outcome) {
+            case SUCCESS:
+                consecutiveFailures = 0;
+                if (state == State.HALF_OPEN)
+                    state = State.CLOSED;
+                break;
+            case FAILURE:
+                ++consecutiveFailures;
+                if (state == State.HALF_OPEN
+                        || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                    state = State.OPEN;
+                    openedAt = ticker.read();
+                    ++opened;
+                }
+                break;
+            case ABANDONED:
+                break;
+        }
+        if (state != State.OPEN)
+            probing = false; // an abandoned probe allows another probe
+        return state;
+    }
+
+    @Override public synchronized @Nonnull String toString() {
+        return String.format("CircuitBreaker{%s, failures=%d/%d}",
+                             state, consecutiveFailures, failureThreshold);
+    }
+}
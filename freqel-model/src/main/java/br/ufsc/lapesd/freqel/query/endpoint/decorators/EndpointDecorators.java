@@ -42,4 +42,28 @@ public class EndpointDecorators {
     withDescription(@Nonnull DQEndpoint ep, @Nonnull Description description) {
         return (DQEndpoint) withDescription((TPEndpoint) ep, description);
     }
+
+    /**
+     * Decorates ep so that queries are only sent if admitted by guard. The guard should not
+     * be shared with other endpoints.
+     */
+    public static @Nonnull TPEndpoint
+    guarded(@Nonnull TPEndpoint ep, @Nonnull EndpointGuard guard) {
+        if (ep instanceof DQEndpoint)
+            return new GuardedDQEndpoint((DQEndpoint) ep, guard);
+        else if (ep instanceof CQEndpoint)
+            return new GuardedCQEndpoint((CQEndpoint) ep, guard);
+        else
+            return new GuardedTPEndpoint(ep, guard);
+    }
+
+    public static @Nonnull CQEndpoint
+    guarded(@Nonnull CQEndpoint ep, @Nonnull EndpointGuard guard) {
+        return (CQEndpoint) guarded((TPEndpoint) ep, guard);
+    }
+
+    public static @Nonnull DQEndpoint
+    guarded(@Nonnull DQEndpoint ep, @Nonnull EndpointGuard guard) {
+        return (DQEndpoint) guarded((TPEndpoint) ep, guard);
+    }
 }
@@ -0,0 +1,399 @@
+package br.ufsc.lapesd.freqel.query.endpoint.decorators;
+
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.EndpointRejectedException;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.HTTPStatusException;
+import br.ufsc.lapesd.freqel.query.results.*;
+import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import br.ufsc.lapesd.freqel.query.results.impl.ProjectingResults;
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static br.ufsc.lapesd.freqel.query.endpoint.decorators.CircuitBreaker.Outcome.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Admission control for queries sent to a single endpoint: an optional
+ * {@link CircuitBreaker} and an {@link AdaptiveConcurrencyLimit}.
+ *
+ * A request holds its concurrency permit from the moment the query is sent until the
+ * endpoint starts answering, i.e., until the first {@link Results#hasNext()} returns or
+ * the first solution is emitted by {@link Results#flux()}. That delay is the latency fed
+ * to the limit. The circuit breaker only learns the outcome once the {@link Results} is
+ * exhausted, fails or is closed. {@link HTTPStatusException}s with a 5xx status count as
+ * failures for both, other statuses mean the endpoint is healthy and rejected only that
+ * query.
+ *
+ * Rejected queries throw a {@link EndpointRejectedException}, which must make the
+ * whole federated query fail, since an empty result would be indistinguishable from a
+ * correct answer.
+ */
+@ThreadSafe
+public class EndpointGuard {
+    private static final Logger logger = LoggerFactory.getLogger(EndpointGuard.class);
+    public static final long DEF_QUEUE_TIMEOUT_MS = 30000;
+
+    private final @Nonnull AdaptiveConcurrencyLimit limit;
+    private final @Nullable CircuitBreaker breaker;
+    private final long queueTimeoutNanos;
+    private final @Nonnull Ticker ticker;
+
+    public EndpointGuard() {
+        this(new AdaptiveConcurrencyLimit(), new CircuitBreaker(),
+             DEF_QUEUE_TIMEOUT_MS, MILLISECONDS);
+    }
+
+    public EndpointGuard(@Nonnull AdaptiveConcurrencyLimit limit,
+                         @Nullable CircuitBreaker breaker,
+                         long queueTimeout, @Nonnull TimeUnit unit) {
+        this(limit, breaker, queueTimeout, unit, Ticker.systemTicker());
+    }
+
+    public EndpointGuard(@Nonnull AdaptiveConcurrencyLimit limit,
+                         @Nullable CircuitBreaker breaker,
+                         long queueTimeout, @Nonnull TimeUnit unit, @Nonnull Ticker ticker) {
+        this.limit = limit;
+        this.breaker = breaker;
+        this.queueTimeoutNanos = unit.toNanos(queueTimeout);
+        this.ticker = ticker;
+    }
+
+    public @Nonnull AdaptiveConcurrencyLimit getLimit() {
+        return limit;
+    }
+
+    public @Nullable CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    public long getQueueTimeout(@Nonnull TimeUnit unit) {
+        return unit.convert(queueTimeoutNanos, NANOSECONDS);
+    }
+
+    /* --- --- --- metrics --- --- --- */
+
+    /**
+     * Number of requests sent and not yet completed.
+     */
+    public int getInFlight() {
+        return limit.getInFlight();
+    }
+
+    /**
+     * Number of requests waiting for a concurrency permit.
+     */
+    public int getQueued() {
+        return limit.getQueued();
+    }
+
+    /**
+     * Number of requests that were not sent because no permit became available in time.
+     */
+    public long getRejected() {
+        return limit.getRejected();
+    }
+
+    /**
+     * Number of requests that were not sent because the circuit breaker was open.
+     */
+    public long getShortCircuited() {
+        return breaker == null ? 0 : breaker.getShortCircuited();
+    }
+
+    public @Nonnull CircuitBreaker.State getState() {
+        return breaker == null ? CircuitBreaker.State.CLOSED : breaker.getState();
+    }
+
+    /* --- --- --- admission --- --- --- */
+
+    /**
+     * Runs query once admitted and monitors the {@link Results} it returns.
+     *
+     * If no concurrency permit is available, this blocks for up to the queue timeout.
+     *
+     * @param endpoint the endpoint being guarded, used in messages
+     * @param query sends the query to the actual endpoint
+     * @throws EndpointRejectedException if the circuit breaker is open or if no concurrency
+     *                                   permit became available within the queue timeout.
+     */
+    public @Nonnull Results guard(@Nonnull TPEndpoint endpoint,
+                                  @Nonnull Supplier<? extends Results> query) {
+        checkBreaker(endpoint);
+        acquire(endpoint);
+        return send(endpoint, query);
+    }
+
+    /**
+     * Same as {@link #guard(TPEndpoint, Supplier)}, but never blocks waiting for a
+     * concurrency permit.
+     *
+     * If no permit is available, the returned {@link Results} will wait for one and send
+     * the query only once first consumed. Thus, callers that create more {@link Results}
+     * than the limit before consuming any of them do not stall. If the permit does not
+     * become available within the queue timeout, the {@link EndpointRejectedException}
+     * is thrown from {@link Results#hasNext()}.
+     *
+     * @param varNames the variables that query's {@link Results} will expose. Solutions
+     *                 are projected into these if the {@link Results} disagrees.
+     * @throws EndpointRejectedException if the circuit breaker is open
+     */
+    public @Nonnull Results guard(@Nonnull TPEndpoint endpoint,
+                                  @Nonnull Collection<String> varNames,
+                                  @Nonnull Supplier<? extends Results> query) {
+        checkBreaker(endpoint);
+        if (limit.tryAcquire())
+            return send(endpoint, query);
+        return new DeferredResults(endpoint, varNames, query);
+    }
+
+    private void checkBreaker(@Nonnull TPEndpoint endpoint) {
+        if (breaker != null && !breaker.tryAcquire())
+            throw new EndpointRejectedException(endpoint, "circuit breaker is open", true);
+    }
+
+    private void acquire(@Nonnull TPEndpoint endpoint) {
+        boolean acquired;
+        try {
+            acquired = limit.acquire(queueTimeoutNanos, NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            if (breaker != null)
+                breaker.release(ABANDONED);
+            String msg = String.format("no concurrency permit within %d ms (%s)",
+                                       getQueueTimeout(MILLISECONDS), limit);
+            throw new EndpointRejectedException(endpoint, msg, false);
+        }
+    }
+
+    private @Nonnull GuardedResults send(@Nonnull TPEndpoint endpoint,
+                                         @Nonnull Supplier<? extends Results> query) {
+        Request request = new Request(endpoint);
+        Results results;
+        try {
+            results = query.get();
+        } catch (RuntimeException e) {
+            request.fail(e);
+            throw e;
+        }
+        return new GuardedResults(results, request);
+    }
+
+    private class Request {
+        private final @Nonnull TPEndpoint endpoint;
+        private final long start = ticker.read();
+        private final @Nonnull AtomicBoolean permitHeld = new AtomicBoolean(true);
+        private final @Nonnull AtomicBoolean ended = new AtomicBoolean(false);
+
+        Request(@Nonnull TPEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        /**
+         * The endpoint started answering: give back the concurrency permit.
+         */
+        void answered() {
+            if (permitHeld.compareAndSet(true, false))
+                limit.release(ticker.read() - start, false);
+        }
+
+        void fail(@Nonnull Throwable t) {
+            HTTPStatusException status = HTTPStatusException.find(t);
+            if (status != null && !status.isServerError()) {
+                answered(); // the endpoint is fine, it just refused this query
+                end(SUCCESS);
+            } else {
+                end(FAILURE);
+            }
+        }
+
+        void end(@Nonnull CircuitBreaker.Outcome outcome) {
+            if (!ended.compareAndSet(false, true))
+                return;
+            if (permitHeld.compareAndSet(true, false))
+                limit.release(-1, outcome == FAILURE);
+            else if (outcome == ABANDONED)
+                outcome = SUCCESS; // closed after the endpoint answered
+            if (breaker != null) {
+                CircuitBreaker.State old = breaker.getState();
+                CircuitBreaker.State state = breaker.release(outcome);
+                if (old != state && state == CircuitBreaker.State.OPEN) {
+                    logger.warn("Circuit breaker for {} is open, queries will be rejected " +
+                                "for {} ms", endpoint, breaker.getOpenTime(MILLISECONDS));
+                } else if (old != state && state == CircuitBreaker.State.CLOSED) {
+                    logger.info("Circuit breaker for {} is closed again", endpoint);
+                }
+            }
+        }
+    }
+
+    private static class GuardedResults extends DelegatingResults {
+        private final @Nonnull Request request;
+
+        GuardedResults(@Nonnull Results in, @Nonnull Request request) {
+            super(in.getVarNames(), in);
+            this.request = request;
+        }
+
+        private @Nonnull RuntimeException fail(@Nonnull RuntimeException e) {
+            request.fail(e);
+            return e;
+        }
+
+        @Override public boolean isReactive() {
+            return in.isReactive();
+        }
+
+        @Override public @Nonnull Flux<Solution> flux() {
+            return in.flux().doOnNext(s -> request.answered())
+                            .doOnComplete(() -> {
+                                request.answered();
+                                request.end(SUCCESS);
+                            })
+                            .doOnError(request::fail)
+                            .doOnCancel(() -> request.end(ABANDONED));
+        }
+
+        @Override public boolean hasNext() {
+            try {
+                boolean hasNext = in.hasNext();
+                request.answered();
+                if (!hasNext)
+                    request.end(SUCCESS);
+                return hasNext;
+            } catch (RuntimeException e) {
+                throw fail(e);
+            }
+        }
+
+        @Override public boolean hasNext(int millisecondsTimeout) {
+            try {
+                boolean hasNext = in.hasNext(millisecondsTimeout);
+                if (hasNext) // false may just be a timeout
+                    request.answered();
+                return hasNext;
+            } catch (RuntimeException e) {
+                throw fail(e);
+            }
+        }
+
+        @Override public @Nonnull Solution next() {
+            try {
+                Solution solution = in.next();
+                request.answered();
+                return solution;
+            } catch (RuntimeException e) {
+                throw fail(e);
+            }
+        }
+
+        @Override public void close() throws ResultsCloseException {
+            try {
+                super.close();
+            } finally {
+                request.end(ABANDONED);
+            }
+        }
+    }
+
+    /**
+     * Waits for a concurrency permit and sends the query only once first consumed.
+     */
+    private class DeferredResults extends AbstractResults {
+        private final @Nonnull TPEndpoint endpoint;
+        private @Nullable Supplier<? extends Results> query;
+        private @Nullable Results in;
+        private @Nullable EndpointRejectedException rejection;
+
+        DeferredResults(@Nonnull TPEndpoint endpoint, @Nonnull Collection<String> varNames,
+                        @Nonnull Supplier<? extends Results> query) {
+            super(varNames);
+            this.endpoint = endpoint;
+            this.query = query;
+        }
+
+        private @Nonnull Results start() {
+            if (in != null)
+                return in;
+            if (rejection != null)
+                throw rejection;
+            Supplier<? extends Results> query = this.query;
+            if (query == null)
+                return in = CollectionResults.empty(getVarNames()); // closed
+            this.query = null;
+            try {
+                acquire(endpoint);
+            } catch (EndpointRejectedException e) {
+                throw rejection = e;
+            }
+            Results results = send(endpoint, query);
+            if (!results.getVarNames().equals(getVarNames()))
+                results = new ProjectingResults(results, getVarNames());
+            return in = results;
+        }
+
+        @Override public int getReadyCount() {
+            return in == null ? 0 : in.getReadyCount();
+        }
+
+        @Override public boolean isAsync() {
+            return in != null && in.isAsync();
+        }
+
+        @Override public boolean isDistinct() {
+            return in != null && in.isDistinct();
+        }
+
+        @Override public boolean isOptional() {
+            return super.isOptional() || (in != null && in.isOptional());
+        }
+
+        @Override public boolean isReactive() {
+            return in != null && in.isReactive();
+        }
+
+        @Override public @Nonnull Flux<Solution> flux() {
+            return in == null ? ResultsUtils.iteratingFlux(this) : in.flux();
+        }
+
+        @Override public boolean hasNext() {
+            return start().hasNext();
+        }
+
+        @Override public boolean hasNext(int millisecondsTimeout) {
+            return start().hasNext(millisecondsTimeout);
+        }
+
+        @Override public @Nonnull Solution next() {
+            return start().next();
+        }
+
+        @Override public void close() throws ResultsCloseException {
+            if (query != null) { // never sent: give back what guard() took
+                query = null;
+                if (breaker != null)
+                    breaker.release(ABANDONED);
+            }
+            if (in != null)
+                in.close();
+        }
+    }
+
+    @Override public @Nonnull String toString() {
+        return String.format("EndpointGuard{%s, %s}", limit,
+                             breaker == null ? "no breaker" : breaker);
+    }
+}
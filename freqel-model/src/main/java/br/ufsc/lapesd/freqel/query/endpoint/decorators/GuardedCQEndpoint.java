@@ -0,0 +1,31 @@
+package br.ufsc.lapesd.freqel.query.endpoint.decorators;
+
+import br.ufsc.lapesd.freqel.query.endpoint.CQEndpoint;
+import br.ufsc.lapesd.freqel.query.results.Results;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+
+public class GuardedCQEndpoint extends GuardedTPEndpoint implements CQEndpoint {
+    private final @Nonnull CQEndpoint delegate;
+
+    public GuardedCQEndpoint(@Nonnull CQEndpoint delegate, @Nonnull EndpointGuard guard) {
+        super(delegate, guard);
+        this.delegate = delegate;
+    }
+
+    @Override public boolean canQuerySPARQL() {
+        return delegate.canQuerySPARQL();
+    }
+
+    @Override public @Nonnull Results querySPARQL(@Nonnull String sparqlQuery) {
+        return guard.guard(this, () -> delegate.querySPARQL(sparqlQuery));
+    }
+
+    @Override
+    public @Nonnull Results querySPARQL(@Nonnull String sparqlQuery, boolean isAsk,
+                                        @Nonnull Collection<String> varNames) {
+        return guard.guard(this, varNames,
+                           () -> delegate.querySPARQL(sparqlQuery, isAsk, varNames));
+    }
+}
@@ -0,0 +1,40 @@
+package br.ufsc.lapesd.freqel.query.endpoint.decorators;
+
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.leaf.QueryOp;
+import br.ufsc.lapesd.freqel.query.endpoint.DQEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.DisjunctiveProfile;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.DQEndpointException;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
+import br.ufsc.lapesd.freqel.query.modifiers.Aggregation;
+import br.ufsc.lapesd.freqel.query.results.Results;
+
+import javax.annotation.Nonnull;
+import java.util.Set;
+
+public class GuardedDQEndpoint extends GuardedCQEndpoint implements DQEndpoint {
+    private final @Nonnull DQEndpoint delegate;
+
+    public GuardedDQEndpoint(@Nonnull DQEndpoint delegate, @Nonnull EndpointGuard guard) {
+        super(delegate, guard);
+        this.delegate = delegate;
+    }
+
+    @Override public @Nonnull DisjunctiveProfile getDisjunctiveProfile() {
+        return delegate.getDisjunctiveProfile();
+    }
+
+    @Override public @Nonnull Results
+    query(@Nonnull Op query) throws DQEndpointException, QueryExecutionException {
+        Set<String> varNames;
+        if (query instanceof QueryOp) {
+            varNames = resultVars(((QueryOp) query).getQuery());
+        } else {
+            Aggregation aggregation = query.modifiers().aggregation();
+            boolean ask = query.modifiers().ask() != null;
+            varNames = aggregation != null && !ask ? aggregation.getResultVars()
+                                                   : query.getResultVars();
+        }
+        return guard.guard(this, varNames, () -> delegate.query(query));
+    }
+}
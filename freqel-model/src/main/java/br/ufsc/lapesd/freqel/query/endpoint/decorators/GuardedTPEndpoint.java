@@ -0,0 +1,59 @@
+package br.ufsc.lapesd.freqel.query.endpoint.decorators;
+
+import br.ufsc.lapesd.freqel.model.Triple;
+import br.ufsc.lapesd.freqel.query.CQuery;
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.modifiers.Aggregation;
+import br.ufsc.lapesd.freqel.query.modifiers.Projection;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import org.jetbrains.annotations.Contract;
+
+import javax.annotation.Nonnull;
+import java.util.Set;
+
+/**
+ * Sends queries to the delegate only if admitted by an {@link EndpointGuard}.
+ *
+ * Cardinality estimation is not guarded. Queries whose result variables are known
+ * beforehand do not block waiting for a concurrency permit, see
+ * {@link EndpointGuard#guard(TPEndpoint, java.util.Collection, java.util.function.Supplier)}.
+ */
+public class GuardedTPEndpoint extends AbstractTPEndpointDecorator implements TPEndpoint {
+    private final @Nonnull TPEndpoint delegate;
+    protected final @Nonnull EndpointGuard guard;
+
+    public GuardedTPEndpoint(@Nonnull TPEndpoint delegate, @Nonnull EndpointGuard guard) {
+        super(delegate);
+        this.delegate = delegate;
+        this.guard = guard;
+    }
+
+    public @Nonnull EndpointGuard getGuard() {
+        return guard;
+    }
+
+    @Override @Nonnull @Contract("_ -> new") public Results query(@Nonnull Triple query) {
+        Set<String> varNames = CQuery.from(query).attr().publicTripleVarNames();
+        return guard.guard(this, varNames, () -> delegate.query(query));
+    }
+
+    @Override @Nonnull @Contract("_ -> new") public Results query(@Nonnull CQuery query) {
+        return guard.guard(this, resultVars(query), () -> delegate.query(query));
+    }
+
+    /**
+     * The variables of the {@link Results} of query, same as in
+     * {@link br.ufsc.lapesd.freqel.model.SPARQLString#create(CQuery)}.
+     */
+    protected static @Nonnull Set<String> resultVars(@Nonnull CQuery query) {
+        Aggregation aggregation = query.getModifiers().aggregation();
+        if (aggregation != null && !query.attr().isAsk())
+            return aggregation.getResultVars();
+        Projection p = query.getModifiers().projection();
+        return p == null ? query.attr().publicTripleVarNames() : p.getVarNames();
+    }
+
+    @Override public @Nonnull String toString() {
+        return "guarded("+delegate.toString()+")";
+    }
+}
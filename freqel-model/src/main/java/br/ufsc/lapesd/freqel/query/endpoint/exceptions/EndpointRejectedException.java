@@ -0,0 +1,33 @@
+package br.ufsc.lapesd.freqel.query.endpoint.exceptions;
+
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A query was not sent to the endpoint because its circuit breaker is open or because
+ * no concurrency permit became available in time.
+ */
+public class EndpointRejectedException extends QueryExecutionException {
+    private final @Nonnull TPEndpoint endpoint;
+    private final boolean shortCircuited;
+
+    public EndpointRejectedException(@Nonnull TPEndpoint endpoint, @Nonnull String message,
+                                     boolean shortCircuited) {
+        super(endpoint, message);
+        this.endpoint = endpoint;
+        this.shortCircuited = shortCircuited;
+    }
+
+    public @Nonnull TPEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Whether the query was rejected by an open circuit breaker (as opposed to waiting too
+     * long for a concurrency permit).
+     */
+    public boolean isShortCircuited() {
+        return shortCircuited;
+    }
+}
@@ -0,0 +1,52 @@
+package br.ufsc.lapesd.freqel.query.endpoint.exceptions;
+
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * An endpoint answered a query with a non-2xx HTTP status.
+ */
+public class HTTPStatusException extends QueryExecutionException {
+    private final int status;
+
+    public HTTPStatusException(@Nonnull TPEndpoint endpoint, int status, @Nonnull String message) {
+        super(endpoint, "HTTP "+status+": "+message);
+        this.status = status;
+    }
+
+    public HTTPStatusException(int status, @Nonnull String message) {
+        super("HTTP "+status+": "+message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Whether the server refused the request due to its size (413 or 414).
+     */
+    public boolean isRequestTooLarge() {
+        return status == 413 || status == 414;
+    }
+
+    /**
+     * Whether the status is a 5xx.
+     */
+    public boolean isServerError() {
+        return status >= 500 && status < 600;
+    }
+
+    /**
+     * Get the first {@link HTTPStatusException} in the chain of causes of t, including t.
+     */
+    public static @Nullable HTTPStatusException find(@Nullable Throwable t) {
+        for (Throwable e = t; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e instanceof HTTPStatusException)
+                return (HTTPStatusException) e;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,224 @@
+package br.ufsc.lapesd.freqel.query.modifiers;
+
+import br.ufsc.lapesd.freqel.query.endpoint.Capability;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.errorprone.annotations.Immutable;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * A GROUP BY with aggregate functions in the SELECT clause.
+ *
+ * Like {@link Ask}, this modifier changes the shape of the solutions: the variables of the
+ * node that holds it are the ones consumed by the aggregation ({@link #getInputVars()}),
+ * while its results will have the variables in {@link #getResultVars()}.
+ */
+@Immutable
+public class Aggregation implements Modifier {
+    private final @Nonnull ImmutableList<String> groupVars;
+    private final @Nonnull ImmutableList<Aggregate> aggregates;
+
+    public enum Function {
+        COUNT,
+        SUM,
+        MIN,
+        MAX,
+        AVG;
+
+        /**
+         * The function that combines the partial results of this function computed over
+         * disjoint subsets of the solutions, or null if there is none.
+         */
+        public @Nullable Function getCombiner() {
+            switch (this) {
+                case COUNT:
+                case SUM:
+                    return SUM;
+                case MIN:
+                    return MIN;
+                case MAX:
+                    return MAX;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    @Immutable
+    public static class Aggregate {
+        private final @Nonnull Function function;
+        private final @Nullable String input;
+        private final boolean distinct;
+        private final @Nonnull String output;
+
+        /**
+         * Create an aggregate.
+         *
+         * @param function the aggregate function
+         * @param input the aggregated variable. null is only allowed for COUNT(*)
+         * @param distinct whether only distinct values (or solutions) are aggregated
+         * @param output the variable that will receive the result
+         */
+        public Aggregate(@Nonnull Function function, @Nullable String input, boolean distinct,
+                         @Nonnull String output) {
+            if (input == null && function != Function.COUNT)
+                throw new IllegalArgumentException(function+" requires an input variable");
+            this.function = function;
+            this.input = input;
+            this.distinct = distinct;
+            this.output = output;
+        }
+
+        public static @Nonnull Aggregate count(@Nullable String input, @Nonnull String output) {
+            return new Aggregate(Function.COUNT, input, false, output);
+        }
+
+        public static @Nonnull Aggregate sum(@Nonnull String input, @Nonnull String output) {
+            return new Aggregate(Function.SUM, input, false, output);
+        }
+
+        public @Nonnull Function getFunction() {
+            return function;
+        }
+
+        public @Nullable String getInput() {
+            return input;
+        }
+
+        public boolean isDistinct() {
+            return distinct;
+        }
+
+        public @Nonnull String getOutput() {
+            return output;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (!(o instanceof Aggregate)) return false;
+            Aggregate that = (Aggregate) o;
+            return function == that.function && distinct == that.distinct
+                    && Objects.equals(input, that.input) && output.equals(that.output);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(function, input, distinct, output);
+        }
+
+        @Override
+        public @Nonnull String toString() {
+            return "(" + function + "(" + (distinct ? "DISTINCT " : "")
+                    + (input == null ? "*" : "?"+input) + ") AS ?" + output + ")";
+        }
+    }
+
+    public Aggregation(@Nonnull List<String> groupVars, @Nonnull List<Aggregate> aggregates) {
+        if (groupVars.isEmpty() && aggregates.isEmpty())
+            throw new IllegalArgumentException("Aggregation has no group vars nor aggregates");
+        Set<String> outputs = new HashSet<>(groupVars);
+        if (outputs.size() != groupVars.size())
+            throw new IllegalArgumentException("Repeated group vars in "+groupVars);
+        for (Aggregate aggregate : aggregates) {
+            if (!outputs.add(aggregate.getOutput()))
+                throw new IllegalArgumentException("Output ?"+aggregate.getOutput()+" of "+
+                                                   aggregate+" is already in use");
+        }
+        this.groupVars = ImmutableList.copyOf(groupVars);
+        this.aggregates = ImmutableList.copyOf(aggregates);
+    }
+
+    public @Nonnull List<String> getGroupVars() {
+        return groupVars;
+    }
+
+    public @Nonnull List<Aggregate> getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * Variables that must be bound in solutions fed to the aggregation: the group
+     * variables and the inputs of the aggregates.
+     */
+    public @Nonnull Set<String> getInputVars() {
+        Set<String> set = new LinkedHashSet<>(groupVars);
+        for (Aggregate aggregate : aggregates) {
+            if (aggregate.getInput() != null)
+                set.add(aggregate.getInput());
+        }
+        return set;
+    }
+
+    /**
+     * Variables of the solutions output by the aggregation: the group variables followed by
+     * the outputs of the aggregates.
+     */
+    public @Nonnull Set<String> getResultVars() {
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        builder.addAll(groupVars);
+        for (Aggregate aggregate : aggregates)
+            builder.add(aggregate.getOutput());
+        return builder.build();
+    }
+
+    /**
+     * Whether this aggregation can be computed by applying it to disjoint subsets of the
+     * solutions and then applying {@link #getCombiner()} to the union of the partial results.
+     */
+    public boolean isDecomposable() {
+        for (Aggregate aggregate : aggregates) {
+            if (aggregate.isDistinct() || aggregate.getFunction().getCombiner() == null)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The aggregation that combines partial results of this aggregation.
+     *
+     * @throws IllegalStateException if not {@link #isDecomposable()}
+     */
+    public @Nonnull Aggregation getCombiner() {
+        List<Aggregate> list = new ArrayList<>(aggregates.size());
+        for (Aggregate aggregate : aggregates) {
+            Function combiner = aggregate.getFunction().getCombiner();
+            if (aggregate.isDistinct() || combiner == null)
+                throw new IllegalStateException(aggregate+" cannot be decomposed");
+            list.add(new Aggregate(combiner, aggregate.getOutput(), false, aggregate.getOutput()));
+        }
+        return new Aggregation(groupVars, list);
+    }
+
+    @Override
+    public @Nonnull Capability getCapability() {
+        return Capability.AGGREGATION;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (!(o instanceof Aggregation)) return false;
+        Aggregation that = (Aggregation) o;
+        return groupVars.equals(that.groupVars) && aggregates.equals(that.aggregates);
+    }
+
+    @Override
+    public int hashCode() {
+        return 37*groupVars.hashCode() + aggregates.hashCode();
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        StringBuilder b = new StringBuilder();
+        for (Aggregate aggregate : aggregates)
+            b.append(aggregate).append(' ');
+        if (!groupVars.isEmpty()) {
+            b.append("GROUP BY");
+            for (String var : groupVars)
+                b.append(" ?").append(var);
+        }
+        return b.toString().trim();
+    }
+}
@@ -21,6 +21,9 @@ public class ModifierUtils {
         map.put(Limit.class, Capability.LIMIT);
         map.put(SPARQLFilter.class, Capability.SPARQL_FILTER);
         map.put(ValuesModifier.class, Capability.VALUES);
+        map.put(OrderBy.class, Capability.ORDER_BY);
+        map.put(Offset.class, Capability.OFFSET);
+        map.put(Aggregation.class, Capability.AGGREGATION);
         cls2cap = map;
     }
 
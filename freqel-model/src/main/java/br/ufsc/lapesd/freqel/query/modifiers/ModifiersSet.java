@@ -276,6 +276,15 @@ public class ModifiersSet extends AbstractSet<Modifier> {
             boolean explicit =  (mine != null && mine.isExplicit())
                              || ((Optional)modifier).isExplicit();
             change |= add(explicit ? Optional.EXPLICIT : Optional.IMPLICIT);
+        } else if (modifier instanceof OrderBy) {
+            if (orderBy() == null) // an existing ordering has precedence
+                change |= add(modifier);
+        } else if (modifier instanceof Offset) {
+            if (offset() == null) // an existing offset has precedence
+                change |= add(modifier);
+        } else if (modifier instanceof Aggregation) {
+            if (aggregation() == null) // an existing aggregation has precedence
+                change |= add(modifier);
         } else {
             assert !modifier.getCapability().isUniqueModifier()
                     || !modifier.getCapability().hasParameter();
@@ -318,6 +327,9 @@ public class ModifiersSet extends AbstractSet<Modifier> {
      * - values: join (if there are shared variables) or cartesian product of bindings
      * - limit: minimum value among existing modifiers
      * - ask: only the required flag rules apply
+     * - order by: keeps the existing ordering, if any
+     * - offset: keeps the existing offset, if any
+     * - aggregation: keeps the existing aggregation, if any
      *
      * @param collection the collection of modifiers to add
      * @param fallbackProjection if this set has no projection, consider this to be the
@@ -392,6 +404,15 @@ public class ModifiersSet extends AbstractSet<Modifier> {
     public @Nullable Optional optional() {
         return (Optional) d.uniqueModifiers[Capability.OPTIONAL.ordinal()];
     }
+    public @Nullable OrderBy orderBy() {
+        return (OrderBy) d.uniqueModifiers[Capability.ORDER_BY.ordinal()];
+    }
+    public @Nullable Offset offset() {
+        return (Offset) d.uniqueModifiers[Capability.OFFSET.ordinal()];
+    }
+    public @Nullable Aggregation aggregation() {
+        return (Aggregation) d.uniqueModifiers[Capability.AGGREGATION.ordinal()];
+    }
     public @Nullable Reasoning reasoning() {
         return (Reasoning) d.uniqueModifiers[Capability.REASONING.ordinal()];
     }
@@ -0,0 +1,50 @@
+package br.ufsc.lapesd.freqel.query.modifiers;
+
+import br.ufsc.lapesd.freqel.query.endpoint.Capability;
+import com.google.errorprone.annotations.Immutable;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Skips the given number of solutions. The first solutions are only well-defined if the
+ * query also has an {@link OrderBy}.
+ */
+@Immutable
+public class Offset implements Modifier {
+    private final int value;
+
+    public Offset(int value) {
+        if (value <= 0)
+            throw new IllegalArgumentException("value="+value+" should be >0");
+        this.value = value;
+    }
+
+    public static @Nonnull Offset of(int value) {
+        return new Offset(value);
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public @Nonnull Capability getCapability() {
+        return Capability.OFFSET;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        return o instanceof Offset && ((Offset)o).getValue() == getValue();
+    }
+
+    @Override
+    public int hashCode() {
+        return 37*getClass().hashCode() + getValue();
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return "OFFSET "+value;
+    }
+}
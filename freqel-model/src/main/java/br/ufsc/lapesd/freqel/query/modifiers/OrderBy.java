@@ -0,0 +1,147 @@
+package br.ufsc.lapesd.freqel.query.modifiers;
+
+import br.ufsc.lapesd.freqel.model.term.TermOrder;
+import br.ufsc.lapesd.freqel.query.endpoint.Capability;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.Immutable;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Orders solutions by the values of variables, using the SPARQL ordering of {@link TermOrder}.
+ */
+@Immutable
+public class OrderBy implements Modifier {
+    private final @Nonnull ImmutableList<Key> keys;
+
+    @Immutable
+    public static class Key {
+        private final @Nonnull String var;
+        private final boolean ascending;
+
+        public Key(@Nonnull String var, boolean ascending) {
+            this.var = var;
+            this.ascending = ascending;
+        }
+
+        public static @Nonnull Key asc(@Nonnull String var) {
+            return new Key(var, true);
+        }
+
+        public static @Nonnull Key desc(@Nonnull String var) {
+            return new Key(var, false);
+        }
+
+        public @Nonnull String getVar() {
+            return var;
+        }
+
+        public boolean isAscending() {
+            return ascending;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return ascending == key.ascending && var.equals(key.var);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31*var.hashCode() + (ascending ? 1 : 0);
+        }
+
+        @Override
+        public @Nonnull String toString() {
+            return ascending ? "?"+var : "DESC(?"+var+")";
+        }
+    }
+
+    public OrderBy(@Nonnull List<Key> keys) {
+        if (keys.isEmpty())
+            throw new IllegalArgumentException("ORDER BY requires at least one key");
+        this.keys = ImmutableList.copyOf(keys);
+    }
+
+    /**
+     * Creates an ascending ordering over the given variables.
+     */
+    public static @Nonnull OrderBy asc(@Nonnull Collection<String> vars) {
+        List<Key> keys = new ArrayList<>(vars.size());
+        for (String var : vars)
+            keys.add(Key.asc(var));
+        return new OrderBy(keys);
+    }
+
+    public static @Nonnull OrderBy asc(@Nonnull String... vars) {
+        return asc(Arrays.asList(vars));
+    }
+
+    public @Nonnull List<Key> getKeys() {
+        return keys;
+    }
+
+    public @Nonnull List<String> getVarNames() {
+        List<String> list = new ArrayList<>(keys.size());
+        for (Key key : keys)
+            list.add(key.getVar());
+        return list;
+    }
+
+    /**
+     * Tells whether solutions ordered by this are also ordered by ascending values of
+     * the given vars, in any order among them.
+     */
+    public boolean isAscendingPrefix(@Nonnull Collection<String> vars) {
+        if (vars.size() > keys.size())
+            return false;
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < vars.size(); i++) {
+            Key key = keys.get(i);
+            if (!key.isAscending() || !vars.contains(key.getVar()))
+                return false;
+            seen.add(key.getVar());
+        }
+        return seen.size() == vars.size();
+    }
+
+    /**
+     * A {@link Comparator} that sorts {@link Solution}s according to this ORDER BY.
+     */
+    public @Nonnull Comparator<Solution> comparator() {
+        return (l, r) -> {
+            for (Key key : keys) {
+                int diff = TermOrder.INSTANCE.compare(l.get(key.getVar()), r.get(key.getVar()));
+                if (diff != 0)
+                    return key.isAscending() ? diff : -diff;
+            }
+            return 0;
+        };
+    }
+
+    @Override
+    public @Nonnull Capability getCapability() {
+        return Capability.ORDER_BY;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        return o instanceof OrderBy && ((OrderBy) o).keys.equals(keys);
+    }
+
+    @Override
+    public int hashCode() {
+        return 37*getClass().hashCode() + keys.hashCode();
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return keys.stream().map(Key::toString).collect(joining(" ", "ORDER BY ", ""));
+    }
+}
@@ -1,5 +1,8 @@
 package br.ufsc.lapesd.freqel.query.results;
 
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
@@ -82,6 +85,48 @@ public interface Results extends Iterator<Solution>, AutoCloseable {
 
     void setNodeName(@Nonnull String name);
 
+    /**
+     * Moves up to max solutions into block (bounded by {@link SolutionBlock#remaining()}).
+     *
+     * This blocks until at least one solution is available or this {@link Results} is
+     * exhausted, but once a solution was added, implementations should not block waiting
+     * for more solutions. The default implementation is a loop of {@link #next()} calls.
+     * Implementations that can move many solutions with less overhead than that should
+     * override this method. Calls to this method may be interleaved with calls to
+     * {@link #hasNext()} and {@link #next()}.
+     *
+     * @param block where to append solutions
+     * @param max maximum number of solutions to append
+     * @return number of solutions appended to block. Zero is only returned if this results is
+     *         exhausted or if max or the remaining capacity of block are zero.
+     */
+    default int nextBatch(@Nonnull SolutionBlock block, int max) {
+        return ResultsUtils.nextBatchByRow(this, block, max);
+    }
+
+    /**
+     * Indicates whether {@link #flux()} emits solutions as they arrive, without blocking
+     * any thread while waiting for them.
+     */
+    default boolean isReactive() {
+        return false;
+    }
+
+    /**
+     * Get a {@link Flux} that emits the remaining solutions only as they are requested
+     * and closes this {@link Results} once it completes, fails or is cancelled.
+     *
+     * The {@link Flux} can be subscribed only once and, once subscribed, {@link #hasNext()}
+     * and {@link #next()} must not be called anymore. If {@link #isReactive()} is false,
+     * the {@link Flux} iterates this {@link Results} from a {@link Schedulers#boundedElastic()}
+     * worker, which will remain blocked for as long as {@link #hasNext()} blocks.
+     *
+     * @return a new {@link Flux} of the remaining solutions
+     */
+    default @Nonnull Flux<Solution> flux() {
+        return ResultsUtils.iteratingFlux(this);
+    }
+
     /**
      * Equivalent to {@link #forEachRemaining(Consumer)} followed by a call to {@link #close()}
      *
@@ -39,8 +39,14 @@ public interface ResultsExecutor extends AutoCloseable {
     @Nonnull Results async(@Nonnull Collection<? extends Results> collection,
                            @Nullable Collection<String> namesHint);
 
+    /**
+     * Get a {@link Results} that is either {@link Results#isAsync()} or
+     * {@link Results#isReactive()}, consuming results in background if it is neither.
+     */
     default @Nonnull Results async(@Nonnull Results results) {
-        return results.isAsync() ? results : async(singleton(results), results.getVarNames());
+        if (results.isAsync() || results.isReactive())
+            return results;
+        return async(singleton(results), results.getVarNames());
     }
 
     /**
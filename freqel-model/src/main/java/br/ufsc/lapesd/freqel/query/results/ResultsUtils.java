@@ -1,12 +1,22 @@
 package br.ufsc.lapesd.freqel.query.results;
 
+import br.ufsc.lapesd.freqel.model.term.Term;
 import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
+import br.ufsc.lapesd.freqel.query.modifiers.OrderBy;
+import br.ufsc.lapesd.freqel.query.modifiers.Projection;
 import br.ufsc.lapesd.freqel.query.results.impl.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 
 public class ResultsUtils {
+    private static final Logger logger = LoggerFactory.getLogger(ResultsUtils.class);
+
     public static @Nonnull Results applyModifiers(@Nonnull Results in,
                                                   @Nullable ModifiersSet modifiers) {
         if (modifiers == null)
@@ -19,12 +29,103 @@ public class ResultsUtils {
                                                            @Nullable ModifiersSet modifiers) {
         if (modifiers == null)
             return in;
-        Results r = ProjectingResults.applyIf(in, modifiers);
-        r = HashDistinctResults.applyIf(r, modifiers);
+        Results r;
+        OrderBy orderBy = modifiers.ask() == null ? modifiers.orderBy() : null;
+        if (modifiers.aggregation() != null) {
+            // the aggregation replaces the projection and ORDER BY applies to its output
+            r = HashAggregateResults.applyIf(in, modifiers);
+            r = SpillingDistinctResults.applyIf(r, modifiers);
+            if (orderBy != null)
+                r = TopKResults.applyIf(r, modifiers);
+        } else if (orderBy == null) {
+            r = ProjectingResults.applyIf(in, modifiers);
+            r = SpillingDistinctResults.applyIf(r, modifiers);
+        } else if (modifiers.distinct() != null && isProjected(orderBy, modifiers)) {
+            // the top-K must only see distinct solutions
+            r = ProjectingResults.applyIf(in, modifiers);
+            r = SpillingDistinctResults.applyIf(r, modifiers);
+            r = TopKResults.applyIf(r, modifiers);
+        } else if (modifiers.distinct() != null) {
+            // sort on the ordering variables before they are projected out. Unlike
+            // SpillingDistinctResults, HashDistinctResults preserves the input order
+            r = SortedResults.isSortedBy(in, orderBy) ? in : new ExternalSortResults(in, orderBy);
+            r = ProjectingResults.applyIf(r, modifiers);
+            r = HashDistinctResults.applyIf(r, modifiers);
+        } else {
+            r = TopKResults.applyIf(in, modifiers);
+            r = ProjectingResults.applyIf(r, modifiers);
+        }
+        r = OffsetResults.applyIf(r, modifiers);
         r = LimitResults.applyIf(r, modifiers);
         r = AskResults.applyIf(r, modifiers);
         if (modifiers.optional() != null)
             r.setOptional(true);
         return r;
     }
+
+    private static boolean isProjected(@Nonnull OrderBy orderBy, @Nonnull ModifiersSet modifiers) {
+        Projection projection = modifiers.projection();
+        return projection == null || projection.getVarNames().containsAll(orderBy.getVarNames());
+    }
+
+    /**
+     * Rough estimate of the heap bytes used by the values of vars in a {@link Solution}.
+     */
+    public static long estimateBytes(@Nonnull Solution solution,
+                                     @Nonnull Collection<String> vars) {
+        long bytes = 32 + 8 * vars.size();
+        for (String var : vars)
+            bytes += estimateBytes(solution.get(var));
+        return bytes;
+    }
+
+    private static long estimateBytes(@Nullable Term term) {
+        if (term == null)
+            return 0;
+        if (term.isURI())
+            return 56 + 2 * term.asURI().getURI().length();
+        if (term.isLiteral())
+            return 96 + 2 * term.asLiteral().getLexicalForm().length();
+        return 64;
+    }
+
+    /**
+     * Implements {@link Results#nextBatch(SolutionBlock, int)} with {@link Results#next()}
+     * calls. After the first solution, {@link Results#isAsync()} results are only consumed
+     * while they have {@link Results#getReadyCount()} solutions.
+     */
+    public static int nextBatchByRow(@Nonnull Results results, @Nonnull SolutionBlock block,
+                                     int max) {
+        int limit = Math.min(max, block.remaining()), count = 0;
+        boolean async = results.isAsync();
+        while (count < limit && (count == 0 || !async || results.getReadyCount() > 0)
+                             && results.hasNext()) {
+            block.add(results.next());
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Implements {@link Results#flux()} for non-reactive {@link Results} by calling
+     * {@link Results#hasNext()} and {@link Results#next()} from a
+     * {@link Schedulers#boundedElastic()} worker.
+     */
+    public static @Nonnull Flux<Solution> iteratingFlux(@Nonnull Results results) {
+        return Flux.<Solution>generate(sink -> {
+            if (results.hasNext()) sink.next(results.next());
+            else                   sink.complete();
+        }).subscribeOn(Schedulers.boundedElastic()).doFinally(s -> closeQuietly(results));
+    }
+
+    /**
+     * Calls {@link Results#close()}, logging instead of throwing any exception.
+     */
+    public static void closeQuietly(@Nonnull Results results) {
+        try {
+            results.close();
+        } catch (Throwable t) {
+            logger.error("Failed to close {}", results, t);
+        }
+    }
 }
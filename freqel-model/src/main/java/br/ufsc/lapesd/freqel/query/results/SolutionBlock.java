@@ -0,0 +1,218 @@
+package br.ufsc.lapesd.freqel.query.results;
+
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.util.indexed.FullIndexSet;
+import br.ufsc.lapesd.freqel.util.indexed.IndexSet;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A block of up to {@link #capacity()} solutions stored column-wise: there is one
+ * <code>Term[]</code> per variable and all rows share the same {@link IndexSet} of variables.
+ *
+ * Blocks are filled by {@link Results#nextBatch(SolutionBlock, int)} and are meant to be
+ * {@link #clear()}ed and re-used by the consumer. Values are copied by variable name: columns
+ * of this block that are absent in the source become unbound (null) and source variables
+ * that are not columns of this block are dropped.
+ */
+@NotThreadSafe
+public class SolutionBlock {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final @Nonnull IndexSet<String> vars;
+    private final @Nonnull Term[][] columns;
+    private final int capacity;
+    private int size = 0;
+    private final @Nonnull ArraySolution.SlotResolver resolver;
+    /* column mapping from the last block given to addAll()/addRow() */
+    private @Nullable IndexSet<String> lastSourceVars;
+    private @Nullable int[] lastSourceColumns;
+    private @Nullable ArraySolution rowView;
+
+    public SolutionBlock(@Nonnull Collection<String> vars) {
+        this(vars, DEFAULT_CAPACITY);
+    }
+
+    public SolutionBlock(@Nonnull Collection<String> vars, int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.vars = vars instanceof IndexSet ? (IndexSet<String>) vars
+                                             : FullIndexSet.fromDistinct(vars);
+        this.capacity = capacity;
+        this.columns = new Term[this.vars.size()][capacity];
+        this.resolver = new ArraySolution.SlotResolver(this.vars);
+    }
+
+    /**
+     * Get an empty block with the given vars and at least the given capacity, re-using
+     * block if possible.
+     */
+    public static @Nonnull SolutionBlock reuse(@Nullable SolutionBlock block,
+                                               @Nonnull Collection<String> vars, int capacity) {
+        if (block == null || block.capacity < capacity || block.vars.size() != vars.size()
+                          || !block.vars.containsAll(vars)) {
+            return new SolutionBlock(vars, Math.max(DEFAULT_CAPACITY, capacity));
+        }
+        block.clear();
+        return block;
+    }
+
+    public @Nonnull IndexSet<String> getVarNames() {
+        return vars;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int remaining() {
+        return capacity - size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Removes all rows, releasing references to their {@link Term}s.
+     */
+    public void clear() {
+        truncate(0);
+    }
+
+    /**
+     * Removes all rows at or after the given row index.
+     */
+    public void truncate(int newSize) {
+        Preconditions.checkPositionIndex(newSize, size);
+        for (Term[] column : columns)
+            Arrays.fill(column, newSize, size, null);
+        size = newSize;
+    }
+
+    /**
+     * Direct access to the values of the given column. Only the first {@link #size()}
+     * positions are meaningful.
+     */
+    public @Nonnull Term[] getColumn(int column) {
+        return columns[column];
+    }
+
+    public @Nullable Term get(int row, int column) {
+        Preconditions.checkElementIndex(row, size);
+        return columns[column][row];
+    }
+
+    public void set(int row, int column, @Nullable Term value) {
+        Preconditions.checkElementIndex(row, size);
+        columns[column][row] = value;
+    }
+
+    /**
+     * Appends the values of solution as a new row.
+     *
+     * @throws IllegalStateException if {@link #isFull()}
+     */
+    public void add(@Nonnull Solution solution) {
+        Preconditions.checkState(size < capacity, "SolutionBlock is full");
+        ArraySolution.Slots slots = resolver.resolve(solution);
+        for (int i = 0; i < columns.length; i++)
+            columns[i][size] = slots.get(solution, i);
+        ++size;
+    }
+
+    private @Nonnull int[] sourceColumns(@Nonnull SolutionBlock source) {
+        int[] sourceColumns = this.lastSourceColumns;
+        if (sourceColumns == null || lastSourceVars != source.vars) {
+            sourceColumns = new int[columns.length];
+            for (int i = 0; i < sourceColumns.length; i++)
+                sourceColumns[i] = source.vars.indexOf(vars.get(i));
+            lastSourceVars = source.vars;
+            lastSourceColumns = sourceColumns;
+        }
+        return sourceColumns;
+    }
+
+    /**
+     * Appends the given row of source as a new row.
+     *
+     * @throws IllegalStateException if {@link #isFull()}
+     */
+    public void addRow(@Nonnull SolutionBlock source, int row) {
+        Preconditions.checkState(size < capacity, "SolutionBlock is full");
+        Preconditions.checkElementIndex(row, source.size);
+        int[] sourceColumns = sourceColumns(source);
+        for (int i = 0; i < columns.length; i++) {
+            int j = sourceColumns[i];
+            columns[i][size] = j < 0 ? null : source.columns[j][row];
+        }
+        ++size;
+    }
+
+    /**
+     * Appends as many rows of source as possible, copying whole columns.
+     *
+     * @return the number of rows appended
+     */
+    public int addAll(@Nonnull SolutionBlock source) {
+        int count = Math.min(source.size, remaining());
+        int[] sourceColumns = sourceColumns(source);
+        for (int i = 0; i < columns.length; i++) {
+            int j = sourceColumns[i];
+            if (j < 0)
+                Arrays.fill(columns[i], size, size + count, null);
+            else
+                System.arraycopy(source.columns[j], 0, columns[i], size, count);
+        }
+        size += count;
+        return count;
+    }
+
+    /**
+     * Creates a new {@link ArraySolution} with the values of the given row. All solutions
+     * created by this method share the {@link IndexSet} of this block.
+     */
+    public @Nonnull ArraySolution getSolution(int row) {
+        Preconditions.checkElementIndex(row, size);
+        Term[] values = new Term[columns.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = columns[i][row];
+        return new ArraySolution(vars, values);
+    }
+
+    /**
+     * Get a view of the given row. The view is re-used by subsequent calls to this method,
+     * thus it must not be stored nor outlive changes to this block. Use
+     * {@link #getSolution(int)} or {@link ArraySolution#copy()} to get a persistent
+     * {@link Solution}. As with {@link #getSolution(int)}, the view shares the
+     * {@link IndexSet} of this block, thus code that reads {@link ArraySolution}s by slot
+     * also reads the view by slot.
+     */
+    public @Nonnull ArraySolution viewRow(int row) {
+        Preconditions.checkElementIndex(row, size);
+        ArraySolution view = this.rowView;
+        if (view == null)
+            this.rowView = view = new ArraySolution(vars, new Term[columns.length]);
+        for (int i = 0; i < columns.length; i++)
+            view.setAt(i, columns[i][row]);
+        return view;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return String.format("SolutionBlock{vars=%s, size=%d, capacity=%d}", vars, size, capacity);
+    }
+}
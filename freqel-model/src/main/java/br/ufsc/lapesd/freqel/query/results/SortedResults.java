@@ -0,0 +1,19 @@
+package br.ufsc.lapesd.freqel.query.results;
+
+import br.ufsc.lapesd.freqel.query.modifiers.OrderBy;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link Results} whose solutions are known to be produced in the order of an {@link OrderBy}.
+ */
+public interface SortedResults extends Results {
+    @Nonnull OrderBy getOrderBy();
+
+    /**
+     * Tells whether in is a {@link SortedResults} whose order satisfies orderBy.
+     */
+    static boolean isSortedBy(@Nonnull Results in, @Nonnull OrderBy orderBy) {
+        return in instanceof SortedResults && ((SortedResults) in).getOrderBy().equals(orderBy);
+    }
+}
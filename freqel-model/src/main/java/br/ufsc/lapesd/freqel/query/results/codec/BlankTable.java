@@ -0,0 +1,38 @@
+package br.ufsc.lapesd.freqel.query.results.codec;
+
+import br.ufsc.lapesd.freqel.model.term.Blank;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps {@link Blank} nodes to sequential integer ids and back.
+ *
+ * Blank nodes are compared by {@link Blank#getId()}, which cannot be serialized.
+ * A {@link SolutionWriter} and the {@link SolutionReader}s that read what it wrote must
+ * share the same table, so that blank node identity survives the round trip.
+ *
+ * This class is not thread-safe.
+ */
+public class BlankTable {
+    private final @Nonnull Map<Blank, Integer> blank2id = new HashMap<>();
+    private final @Nonnull List<Blank> id2blank = new ArrayList<>();
+
+    public int toId(@Nonnull Blank blank) {
+        return blank2id.computeIfAbsent(blank, k -> {
+            id2blank.add(k);
+            return id2blank.size() - 1;
+        });
+    }
+
+    public @Nonnull Blank fromId(int id) {
+        return id2blank.get(id);
+    }
+
+    public int size() {
+        return id2blank.size();
+    }
+}
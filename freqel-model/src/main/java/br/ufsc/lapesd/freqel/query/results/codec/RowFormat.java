@@ -0,0 +1,29 @@
+package br.ufsc.lapesd.freqel.query.results.codec;
+
+/**
+ * Constants of the binary row format shared by {@link SolutionWriter} and
+ * {@link SolutionReader}.
+ *
+ * A stream is a sequence of rows with no header. A row is:
+ *
+ * <pre>
+ *   row   := varint(n) (varint(varIndex) ref){n}      -- only non-null values
+ *   ref   := varint(id &lt;&lt; 2 | REF)
+ *          | varint(DEFINE) term                       -- term receives the next id
+ *          | varint(INLINE) term                       -- term is not added to the dictionary
+ *   term  := URI str | TYPED str ref | LANG str str | BLANK varint(blankId) | VAR str
+ *   str   := varint(byteLength) utf8Bytes
+ * </pre>
+ *
+ * The dictionary is implicit: a reader assigns ids to DEFINE'd terms in the order it finds
+ * them, exactly as the writer did. Literal datatypes are themselves refs, so that the
+ * handful of datatype URIs in a result set is written once.
+ */
+final class RowFormat {
+    static final int REF = 0, DEFINE = 1, INLINE = 2;
+    static final int TAG_BITS = 2, TAG_MASK = 0x3;
+
+    static final byte URI = 0, TYPED = 1, LANG = 2, BLANK = 3, VAR = 4;
+
+    private RowFormat() {}
+}
@@ -0,0 +1,224 @@
+package br.ufsc.lapesd.freqel.query.results.codec;
+
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.model.term.std.StdVar;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.util.indexed.IndexSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static br.ufsc.lapesd.freqel.query.results.codec.RowFormat.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads {@link ArraySolution}s written by a {@link SolutionWriter} for the same list of
+ * variables and sharing the same {@link BlankTable}.
+ *
+ * Rows can be read through a refilled buffer from any {@link ReadableByteChannel} or directly
+ * from a memory-mapped file (see {@link #mapped(FileChannel, Collection, BlankTable)}).
+ *
+ * The iterator methods throw {@link UncheckedIOException} on read failures.
+ */
+public class SolutionReader implements Iterator<ArraySolution>, Closeable {
+    private final @Nullable ReadableByteChannel channel;
+    private final @Nonnull ArraySolution.ValueFactory factory;
+    private final @Nonnull BlankTable blanks;
+    private final @Nonnull ArrayList<Term> dictionary = new ArrayList<>();
+    private final int varCount;
+    private @Nonnull ByteBuffer buffer;
+    private boolean eof, closeChannel = true;
+    private long rows = 0;
+
+    public SolutionReader(@Nonnull ReadableByteChannel channel, @Nonnull Collection<String> vars,
+                          @Nonnull BlankTable blanks, int bufferSize) {
+        this(channel, vars, blanks, ByteBuffer.allocateDirect(Math.max(bufferSize, 64)), false);
+        this.buffer.flip(); // starts empty
+    }
+
+    public SolutionReader(@Nonnull ReadableByteChannel channel, @Nonnull Collection<String> vars,
+                          @Nonnull BlankTable blanks) {
+        this(channel, vars, blanks, SolutionWriter.DEFAULT_BUFFER_SIZE);
+    }
+
+    private SolutionReader(@Nullable ReadableByteChannel channel, @Nonnull Collection<String> vars,
+                           @Nonnull BlankTable blanks, @Nonnull ByteBuffer buffer, boolean eof) {
+        this.channel = channel;
+        this.factory = ArraySolution.forVars(vars);
+        this.varCount = factory.getVarNames().size();
+        this.blanks = blanks;
+        this.buffer = buffer;
+        this.eof = eof;
+    }
+
+    /**
+     * Reads from a memory-mapped view of the whole file. Falls back to buffered reads if the
+     * file is too large to be mapped into a single buffer.
+     *
+     * Closing the reader closes the channel, but the mapping is only released by the GC.
+     */
+    public static @Nonnull SolutionReader mapped(@Nonnull FileChannel channel,
+                                                 @Nonnull Collection<String> vars,
+                                                 @Nonnull BlankTable blanks) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE)
+            return new SolutionReader(channel, vars, blanks);
+        ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        return new SolutionReader(channel, vars, blanks, map, true);
+    }
+
+    /**
+     * Whether {@link #close()} also closes the channel (default is true).
+     */
+    public @Nonnull SolutionReader setCloseChannel(boolean closeChannel) {
+        this.closeChannel = closeChannel;
+        return this;
+    }
+
+    public @Nonnull IndexSet<String> getVarNames() {
+        return factory.getVarNames();
+    }
+
+    public long getRowsRead() {
+        return rows;
+    }
+
+    @Override public boolean hasNext() {
+        try {
+            return available(1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override public @Nonnull ArraySolution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        try {
+            Term[] values = new Term[varCount];
+            for (int i = 0, n = getVarint(); i < n; i++) {
+                int index = getVarint();
+                if (index >= varCount)
+                    throw new IOException("Corrupt row: var index "+index+" >= "+varCount);
+                values[index] = getRef();
+            }
+            ++rows;
+            return factory.fromValues(values);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private @Nonnull Term getRef() throws IOException {
+        int head = getVarint();
+        switch (head & TAG_MASK) {
+            case REF:
+                int id = head >>> TAG_BITS;
+                if (id >= dictionary.size())
+                    throw new IOException("Corrupt row: undefined term id "+id);
+                return dictionary.get(id);
+            case DEFINE:
+                Term term = getTerm();
+                dictionary.add(term);
+                return term;
+            case INLINE:
+                return getTerm();
+            default:
+                throw new IOException("Corrupt row: bad ref tag in "+head);
+        }
+    }
+
+    private @Nonnull Term getTerm() throws IOException {
+        require(1);
+        byte type = buffer.get();
+        switch (type) {
+            case URI:   return new StdURI(getString());
+            case TYPED: {
+                String lexical = getString();
+                Term dt = getRef();
+                if (!dt.isURI())
+                    throw new IOException("Corrupt row: datatype "+dt+" is not an URI");
+                return StdLit.fromUnescaped(lexical, dt.asURI());
+            }
+            case LANG:  return StdLit.fromUnescaped(getString(), getString());
+            case BLANK: return blanks.fromId(getVarint());
+            case VAR:   return new StdVar(getString());
+            default: throw new IOException("Corrupt row: bad term type "+type);
+        }
+    }
+
+    private int getVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            require(1);
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt row: varint too long");
+    }
+
+    private @Nonnull String getString() throws IOException {
+        int length = getVarint();
+        require(length);
+        String string;
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            string = new String(buffer.array(), offset, length, UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            string = new String(bytes, UTF_8);
+        }
+        return string;
+    }
+
+    private void require(int bytes) throws IOException {
+        if (!available(bytes))
+            throw new EOFException("Truncated row");
+    }
+
+    private boolean available(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes)
+            return true;
+        if (eof || channel == null)
+            return false;
+        if (buffer.capacity() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(bytes);
+            bigger.put(buffer);
+            buffer = bigger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                eof = true;
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+
+    @Override public void close() throws IOException {
+        eof = true;
+        buffer = ByteBuffer.allocate(0);
+        if (closeChannel && channel != null)
+            channel.close();
+    }
+}
@@ -0,0 +1,227 @@
+package br.ufsc.lapesd.freqel.query.results.codec;
+
+import br.ufsc.lapesd.freqel.model.term.Lit;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.util.indexed.IndexSet;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static br.ufsc.lapesd.freqel.query.results.codec.RowFormat.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes {@link Solution}s over a fixed list of variables in the compact binary format
+ * described in {@link RowFormat}.
+ *
+ * Terms are dictionary-encoded: the first occurrence of a term is written in full and every
+ * repetition is written as a varint id. The dictionary is bounded by
+ * <code>maxDictionarySize</code> and terms longer than {@link #MAX_DICTIONARY_TERM_CHARS}
+ * are never added to it (a matching {@link SolutionReader} keeps a copy of the dictionary).
+ *
+ * Data is staged in a direct buffer and only reaches the channel on {@link #flush()},
+ * on {@link #close()} or when the buffer fills.
+ */
+public class SolutionWriter implements Closeable {
+    public static final int DEFAULT_MAX_DICTIONARY_SIZE = 1 << 16;
+    public static final int MAX_DICTIONARY_TERM_CHARS = 512;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final @Nonnull WritableByteChannel channel;
+    private final @Nonnull IndexSet<String> vars;
+    private final @Nonnull BlankTable blanks;
+    private final @Nonnull Map<Term, Integer> dictionary = new HashMap<>();
+    private final int maxDictionarySize;
+    private final @Nonnull ByteBuffer buffer;
+    private final @Nonnull int[] rowIndices;
+    private final @Nonnull Term[] rowTerms;
+    private long rows = 0, bytes = 0;
+    private boolean closeChannel = true, closed = false;
+
+    public SolutionWriter(@Nonnull WritableByteChannel channel, @Nonnull Collection<String> vars,
+                          @Nonnull BlankTable blanks, int maxDictionarySize, int bufferSize) {
+        this.channel = channel;
+        this.vars = ArraySolution.forVars(vars).getVarNames();
+        this.blanks = blanks;
+        this.maxDictionarySize = Math.min(maxDictionarySize, Integer.MAX_VALUE >>> TAG_BITS);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 64));
+        this.rowIndices = new int[this.vars.size()];
+        this.rowTerms = new Term[this.vars.size()];
+    }
+
+    public SolutionWriter(@Nonnull WritableByteChannel channel, @Nonnull Collection<String> vars,
+                          @Nonnull BlankTable blanks) {
+        this(channel, vars, blanks, DEFAULT_MAX_DICTIONARY_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Whether {@link #close()} also closes the channel (default is true).
+     */
+    public @Nonnull SolutionWriter setCloseChannel(boolean closeChannel) {
+        this.closeChannel = closeChannel;
+        return this;
+    }
+
+    public @Nonnull IndexSet<String> getVarNames() {
+        return vars;
+    }
+
+    /**
+     * Number of rows written so far (including rows still in the buffer).
+     */
+    public long getRowsWritten() {
+        return rows;
+    }
+
+    /**
+     * Number of bytes written so far (including bytes still in the buffer).
+     */
+    public long getBytesWritten() {
+        return bytes + buffer.position();
+    }
+
+    public int getDictionarySize() {
+        return dictionary.size();
+    }
+
+    /**
+     * Writes the values of solution for the variables given in the constructor. Other
+     * variables are silently ignored.
+     */
+    public void write(@Nonnull Solution solution) throws IOException {
+        if (closed)
+            throw new IOException("SolutionWriter closed");
+        int n = 0;
+        for (int i = 0, size = vars.size(); i < size; i++) {
+            Term term = solution.get(vars.get(i));
+            if (term != null) {
+                rowIndices[n] = i;
+                rowTerms[n++] = term;
+            }
+        }
+        putVarint(n);
+        for (int i = 0; i < n; i++) {
+            putVarint(rowIndices[i]);
+            putRef(rowTerms[i]);
+            rowTerms[i] = null;
+        }
+        ++rows;
+    }
+
+    private void putRef(@Nonnull Term term) throws IOException {
+        Integer id = dictionary.get(term);
+        if (id != null) {
+            putVarint(id << TAG_BITS | REF);
+        } else if (dictionary.size() < maxDictionarySize && isDictionaryCandidate(term)) {
+            putVarint(DEFINE);
+            putTerm(term); // may DEFINE a datatype, which must get the lower id
+            dictionary.put(term, dictionary.size());
+        } else {
+            putVarint(INLINE);
+            putTerm(term);
+        }
+    }
+
+    private static boolean isDictionaryCandidate(@Nonnull Term term) {
+        if (term.isURI())
+            return term.asURI().getURI().length() <= MAX_DICTIONARY_TERM_CHARS;
+        if (term.isLiteral())
+            return term.asLiteral().getLexicalForm().length() <= MAX_DICTIONARY_TERM_CHARS;
+        return true;
+    }
+
+    private void putTerm(@Nonnull Term term) throws IOException {
+        if (term.isURI()) {
+            putByte(URI);
+            putString(term.asURI().getURI());
+        } else if (term.isLiteral()) {
+            Lit lit = term.asLiteral();
+            String lang = lit.getLangTag();
+            if (lang != null) {
+                putByte(LANG);
+                putString(lit.getLexicalForm());
+                putString(lang);
+            } else {
+                putByte(TYPED);
+                putString(lit.getLexicalForm());
+                putRef(lit.getDatatype());
+            }
+        } else if (term.isBlank()) {
+            putByte(BLANK);
+            putVarint(blanks.toId(term.asBlank()));
+        } else if (term.isVar()) {
+            putByte(VAR);
+            putString(term.asVar().getName());
+        } else {
+            throw new IllegalArgumentException("Cannot encode "+term);
+        }
+    }
+
+    private void putByte(byte value) throws IOException {
+        ensure(1);
+        buffer.put(value);
+    }
+
+    private void putVarint(int value) throws IOException {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void putString(@Nonnull String string) throws IOException {
+        byte[] utf8 = string.getBytes(UTF_8);
+        putVarint(utf8.length);
+        if (utf8.length <= buffer.capacity()) {
+            ensure(utf8.length);
+            buffer.put(utf8);
+        } else {
+            drain();
+            ByteBuffer wrapped = ByteBuffer.wrap(utf8);
+            while (wrapped.hasRemaining())
+                bytes += channel.write(wrapped);
+        }
+    }
+
+    private void ensure(int required) throws IOException {
+        if (buffer.remaining() < required)
+            drain();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            bytes += channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes all buffered data to the channel.
+     */
+    public void flush() throws IOException {
+        if (!closed)
+            drain();
+    }
+
+    @Override public void close() throws IOException {
+        if (closed)
+            return;
+        try {
+            drain();
+        } finally {
+            closed = true;
+            if (closeChannel)
+                channel.close();
+        }
+    }
+}
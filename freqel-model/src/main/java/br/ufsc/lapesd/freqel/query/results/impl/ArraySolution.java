@@ -30,6 +30,26 @@ public class ArraySolution extends AbstractSolution implements MutableSolution {
         this.values = values;
     }
 
+    /**
+     * Get the value at the given slot, i.e., the value of <code>getVarNames().get(index)</code>.
+     */
+    public @Nullable Term getAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * Set the value at the given slot, i.e., the value of <code>getVarNames().get(index)</code>.
+     *
+     * @return the previous value
+     */
+    @CanIgnoreReturnValue
+    public @Nullable Term setAt(int index, @Nullable Term value) {
+        Term old = values[index];
+        values[index] = value;
+        hashCache = 0;
+        return old;
+    }
+
     @Override
     public Term get(@Nonnull String varName, Term fallback) {
         int idx = vars.indexOf(varName);
@@ -43,12 +63,14 @@ public class ArraySolution extends AbstractSolution implements MutableSolution {
             throw new IllegalArgumentException(varName+" is not a variable of this ArraySolution");
         Term old = values[idx];
         values[idx] = value;
+        hashCache = 0;
         return old;
     }
 
     @Override
     public @CanIgnoreReturnValue @Contract(" -> this") @Nonnull ArraySolution clear() {
         Arrays.fill(values, null);
+        hashCache = 0;
         return this;
     }
 
@@ -69,7 +91,7 @@ public class ArraySolution extends AbstractSolution implements MutableSolution {
     }
 
     @Override
-    public @Nonnull Set<String> getVarNames() {
+    public @Nonnull IndexSet<String> getVarNames() {
         return vars;
     }
 
@@ -99,11 +121,121 @@ public class ArraySolution extends AbstractSolution implements MutableSolution {
         return new ValueFactory(indexSet);
     }
 
+    /**
+     * The slots of some variables within all {@link ArraySolution}s that share the same
+     * {@link IndexSet} instance (which usually holds for all solutions of a
+     * {@link br.ufsc.lapesd.freqel.query.results.Results}).
+     *
+     * Reading a value by slot avoids the {@link IndexSet#indexOf(Object)} lookup done by
+     * {@link ArraySolution#get(String)}. Solutions that do not share the {@link IndexSet}
+     * given at creation are read by name.
+     */
+    public static final class Slots {
+        private final @Nullable IndexSet<String> source;
+        private final @Nonnull String[] names;
+        private final @Nonnull int[] indices;
+
+        private Slots(@Nullable IndexSet<String> source, @Nonnull String[] names) {
+            this.source = source;
+            this.names = names;
+            this.indices = new int[names.length];
+            for (int i = 0; i < names.length; i++)
+                indices[i] = source == null ? -1 : source.indexOf(names[i]);
+        }
+
+        public static @Nonnull Slots resolve(@Nonnull IndexSet<String> source,
+                                             @Nonnull Collection<String> names) {
+            return new Slots(source, names.toArray(new String[0]));
+        }
+
+        public @Nullable IndexSet<String> getSource() {
+            return source;
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        /**
+         * Slot of the i-th variable in solutions of {@link #getSource()}, or -1 if absent.
+         */
+        public int getIndex(int i) {
+            return indices[i];
+        }
+
+        public @Nonnull String getName(int i) {
+            return names[i];
+        }
+
+        /**
+         * Whether values of solution can be read by slot.
+         */
+        public boolean matches(@Nonnull Solution solution) {
+            return source != null && solution instanceof ArraySolution
+                    && ((ArraySolution) solution).vars == source;
+        }
+
+        /**
+         * Get the value of the i-th variable in solution.
+         */
+        public @Nullable Term get(@Nonnull Solution solution, int i) {
+            if (matches(solution)) {
+                int idx = indices[i];
+                return idx < 0 ? null : ((ArraySolution) solution).values[idx];
+            }
+            return solution.get(names[i]);
+        }
+    }
+
+    /**
+     * Provides {@link Slots} of a fixed list of variables for any solution, re-using the
+     * last two {@link Slots} resolved. Two entries are enough for the usual alternation
+     * between the left and right solutions of a join.
+     *
+     * This class is safe to use from multiple threads.
+     */
+    public static final class SlotResolver {
+        private final @Nonnull String[] names;
+        private final @Nonnull Slots byName;
+        private @Nullable Slots last = null, previous = null;
+
+        public SlotResolver(@Nonnull Collection<String> names) {
+            this.names = names.toArray(new String[0]);
+            this.byName = new Slots(null, this.names);
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        /**
+         * Get {@link Slots} that can read solution by slot, if possible.
+         */
+        public @Nonnull Slots resolve(@Nonnull Solution solution) {
+            if (!(solution instanceof ArraySolution))
+                return byName;
+            IndexSet<String> vars = ((ArraySolution) solution).vars;
+            // Slots is immutable, thus races below at most cause redundant resolutions
+            Slots slots = last;
+            if (slots != null && slots.source == vars)
+                return slots;
+            slots = previous;
+            if (slots != null && slots.source == vars)
+                return slots;
+            slots = new Slots(vars, names);
+            previous = last;
+            last = slots;
+            return slots;
+        }
+    }
+
     public static class ValueFactory  {
         private final @Nonnull IndexSet<String> vars;
+        private final @Nonnull SlotResolver resolver;
 
         public ValueFactory(@Nonnull IndexSet<String> vars) {
             this.vars = vars;
+            this.resolver = new SlotResolver(vars);
         }
 
         @CheckReturnValue
@@ -138,23 +270,41 @@ public class ArraySolution extends AbstractSolution implements MutableSolution {
         public @Nonnull ArraySolution fromSolution(@Nonnull Solution solution) {
             int size = vars.size();
             Term[] values = new Term[size];
-            for (int i = 0; i < size; i++)
-                values[i] = solution.get(vars.get(i));
+            if (solution instanceof ArraySolution && ((ArraySolution) solution).vars == vars) {
+                System.arraycopy(((ArraySolution) solution).values, 0, values, 0, size);
+            } else {
+                Slots slots = resolver.resolve(solution);
+                for (int i = 0; i < size; i++)
+                    values[i] = slots.get(solution, i);
+            }
             return new ArraySolution(vars, values);
         }
 
+        /**
+         * Same as {@link #fromSolutions(Solution...)}, but without allocating an array.
+         */
         @CheckReturnValue
-        public @Nonnull ArraySolution fromSolutions(@Nonnull Solution... solutions) {
+        public @Nonnull ArraySolution fromSolutions(@Nonnull Solution first,
+                                                    @Nonnull Solution second) {
             int size = vars.size();
             Term[] values = new Term[size];
+            Slots firstSlots = resolver.resolve(first), secondSlots = resolver.resolve(second);
             for (int i = 0; i < size; i++) {
-                String var = vars.get(i);
-                for (Solution solution : solutions) {
-                    Term term = solution.get(var);
-                    if (term != null) {
-                        values[i] = term;
-                        break;
-                    }
+                Term term = firstSlots.get(first, i);
+                values[i] = term != null ? term : secondSlots.get(second, i);
+            }
+            return new ArraySolution(vars, values);
+        }
+
+        @CheckReturnValue
+        public @Nonnull ArraySolution fromSolutions(@Nonnull Solution... solutions) {
+            int size = vars.size();
+            Term[] values = new Term[size];
+            for (Solution solution : solutions) {
+                Slots slots = resolver.resolve(solution);
+                for (int i = 0; i < size; i++) {
+                    if (values[i] == null)
+                        values[i] = slots.get(solution, i);
                 }
             }
             return new ArraySolution(vars, values);
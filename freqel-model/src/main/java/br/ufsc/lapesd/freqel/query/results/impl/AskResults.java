@@ -5,6 +5,7 @@ import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
 import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.Solution;
+import reactor.core.publisher.Flux;
 
 import javax.annotation.Nonnull;
 import java.util.Collections;
@@ -29,6 +30,20 @@ public class AskResults extends DelegatingResults implements Results {
         return in;
     }
 
+    @Override
+    public boolean isReactive() {
+        return in.isReactive();
+    }
+
+    @Override
+    public @Nonnull Flux<Solution> flux() {
+        if (answered) {
+            close();
+            return answer ? Flux.just(ArraySolution.EMPTY) : Flux.empty();
+        }
+        return in.flux().take(1, true).map(s -> ArraySolution.EMPTY);
+    }
+
     @Override
     public boolean hasNext() {
         if (answered) return answer;
@@ -1,5 +1,6 @@
 package br.ufsc.lapesd.freqel.query.results.impl;
 
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
 import br.ufsc.lapesd.freqel.query.results.*;
 import br.ufsc.lapesd.freqel.util.indexed.FullIndexSet;
 import org.slf4j.Logger;
@@ -195,6 +196,12 @@ public class BufferedResultsExecutor implements ResultsExecutor {
                 if (next == null) {
                     activeTasks.set(m.getTaskId(), false);
                     exhausted = activeTasks.isEmpty();
+                    RuntimeException failure = tasks.get(m.getTaskId()).failure;
+                    if (failure != null) {
+                        if (interrupted)
+                            Thread.currentThread().interrupt();
+                        throw failure;
+                    }
                 } else {
                     break; //has a result
                 }
@@ -240,6 +247,7 @@ public class BufferedResultsExecutor implements ResultsExecutor {
         private final int scheduleThreshold;
         private boolean active = false;
         private boolean exhausted = false;
+        private volatile @Nullable RuntimeException failure;
 
         public class Message {
             private @Nullable final Solution solution;
@@ -326,8 +334,10 @@ public class BufferedResultsExecutor implements ResultsExecutor {
                     try {
                         if (in.hasNext())
                             solution = in.next();
-                    } catch (Throwable t) {
-                        logger.error("Problem with in.hasNext()/next() for in={}", in, t);
+                    } catch (Throwable t) { // re-thrown by the consumer
+                        logger.debug("Problem with in.hasNext()/next() for in={}", in, t);
+                        failure = t instanceof RuntimeException ? (RuntimeException) t
+                                                                : new QueryExecutionException(t);
                     }
                     if (solution == null) { //only notify actual state changes
                         exhausted = true;
@@ -0,0 +1,443 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
+import br.ufsc.lapesd.freqel.query.results.*;
+import br.ufsc.lapesd.freqel.util.indexed.FullIndexSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * A {@link ResultsExecutor} that moves solutions from producer threads to the consumer in
+ * chunks, instead of one message per solution (as {@link BufferedResultsExecutor} does).
+ *
+ * Each input {@link Results} has a single-producer/single-consumer ring of
+ * {@link #CHUNKS_PER_INPUT} re-usable <code>Solution[]</code> chunks that together hold
+ * bufferSize solutions. A task in the {@link ExecutorService} fills free chunks and becomes
+ * inactive once the ring is full. The consumer merges the rings of all inputs by taking,
+ * from a single queue, one notification per published chunk. Thus, queue operations,
+ * synchronization and task re-scheduling happen once per chunk, not once per solution.
+ *
+ * A chunk is published before it is full if the input is {@link Results#isAsync()} and has
+ * no {@link Results#getReadyCount()} solutions or if filling it took more than
+ * {@link #MAX_CHUNK_DELAY_MS}, thus slow inputs do not delay solutions.
+ *
+ * Exceptions thrown by an input end that input and are re-thrown by the consumer once it
+ * reaches the end of that input (non-{@link RuntimeException}s are wrapped in a
+ * {@link QueryExecutionException}). A failed input is never taken as a complete one.
+ */
+public class ChunkedResultsExecutor implements ResultsExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedResultsExecutor.class);
+    public static final int DEFAULT_PER_INPUT_BUFFER = 256;
+    public static final int CHUNKS_PER_INPUT = 4;
+    public static final int MAX_CHUNK_DELAY_MS = 1;
+    private static final long MAX_CHUNK_DELAY_NS
+            = TimeUnit.MILLISECONDS.toNanos(MAX_CHUNK_DELAY_MS);
+
+    private final @Nonnull ExecutorService executorService;
+    private final int perInputBufferSize;
+    private boolean closed;
+
+    @Inject
+    public ChunkedResultsExecutor(@Named("resultsExecutor") @Nonnull ExecutorService service,
+                                  @Named("resultsExecutorBufferSize") int perInputBufferSize) {
+        this.executorService = service;
+        this.perInputBufferSize = perInputBufferSize;
+    }
+
+    public ChunkedResultsExecutor(int perInputBufferSize) {
+        this(Executors.newCachedThreadPool(), perInputBufferSize);
+    }
+
+    public ChunkedResultsExecutor() {
+        this(DEFAULT_PER_INPUT_BUFFER);
+    }
+
+    @Override
+    public @Nonnull Results async(@Nonnull Collection<? extends Results> coll,
+                                  @Nullable Collection<String> namesHint) {
+        return async(coll, namesHint, perInputBufferSize);
+    }
+
+    @Override
+    public @Nonnull Results async(@Nonnull Collection<? extends Results> coll,
+                                  @Nullable Collection<String> namesHint, int buffer) {
+        Collection<String> names = namesHint != null ? namesHint
+                : coll.stream().flatMap(r -> r.getVarNames().stream()).collect(toSet());
+        if (closed) {
+            logger.error("Calling async() after close()! Will return empty results");
+            return CollectionResults.empty(names);
+        }
+        if (coll.isEmpty())
+            return CollectionResults.empty(names);
+
+        int chunks = Math.max(1, Math.min(CHUNKS_PER_INPUT, buffer));
+        int chunkSize = Math.max(1, (buffer + chunks - 1) / chunks);
+        // at most one notification per chunk plus the exhaustion notification: never blocks
+        BlockingQueue<Feeder> queue = new ArrayBlockingQueue<>(coll.size() * (chunks + 1));
+        AtomicInteger ready = new AtomicInteger();
+        List<Feeder> feeders = new ArrayList<>(coll.size());
+        boolean distinct = coll.size() == 1 && coll.iterator().next().isDistinct();
+        for (Results results : coll)
+            feeders.add(new Feeder(results, queue, ready, chunks, chunkSize));
+        for (Feeder feeder : feeders)
+            feeder.schedule();
+        if (closed)
+            logger.error("Race: close() called during async()! Will discard solutions");
+        boolean projecting = false;
+        if (namesHint != null) {
+            Set<String> set = names instanceof Set ? (Set<String>)names : FullIndexSet.from(names);
+            projecting = coll.stream().anyMatch(r -> !r.getVarNames().equals(set));
+            names = set;
+        }
+        return new ConsumingResults(feeders, queue, ready, names, projecting, distinct);
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        // Feeders still executing will be closed when their schedule() is rejected
+        for (Runnable runnable : executorService.shutdownNow()) {
+            Feeder feeder = (Feeder) runnable;
+            try {
+                feeder.close(true);
+            } catch (ResultsCloseException e) {
+                logger.error("Problem closing {} from its Feeder at close(). Ignoring.",
+                             feeder.in);
+            }
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout,
+                                    @Nonnull TimeUnit unit) throws InterruptedException {
+        return executorService.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkedResultsExecutor(" + perInputBufferSize + ")";
+    }
+
+    protected static class ConsumingResults extends AbstractResults {
+        private final @Nonnull List<Feeder> feeders;
+        private final @Nonnull BlockingQueue<Feeder> queue;
+        private final @Nonnull AtomicInteger ready;
+        private final boolean distinct;
+        private final @Nullable ArraySolution.ValueFactory projector;
+        private int activeFeeders;
+        /* chunk being consumed */
+        private @Nullable Feeder current;
+        private @Nonnull Solution[] chunk = new Solution[0];
+        private int chunkSize = 0, position = 0;
+
+        public ConsumingResults(@Nonnull List<Feeder> feeders, @Nonnull BlockingQueue<Feeder> queue,
+                                @Nonnull AtomicInteger ready, @Nonnull Collection<String> varNames,
+                                boolean projecting, boolean distinct) {
+            super(varNames);
+            this.feeders = feeders;
+            this.queue = queue;
+            this.ready = ready;
+            this.activeFeeders = feeders.size();
+            this.projector = projecting ? ArraySolution.forVars(varNames) : null;
+            this.distinct = distinct;
+        }
+
+        @Override
+        public boolean isAsync() {
+            return true;
+        }
+
+        @Override
+        public boolean isDistinct() {
+            return distinct;
+        }
+
+        @Override
+        public int getReadyCount() {
+            return chunkSize - position + ready.get();
+        }
+
+        private void releaseChunk() {
+            Feeder feeder = this.current;
+            if (feeder != null) {
+                this.current = null;
+                chunkSize = position = 0;
+                feeder.release();
+            }
+        }
+
+        /**
+         * Handles a notification from the given feeder.
+         *
+         * @return true iff a new chunk is now being consumed
+         */
+        private boolean onNotification(@Nonnull Feeder feeder) {
+            if (feeder.consumed == feeder.published) { // feeder is exhausted
+                --activeFeeders;
+                if (feeder.failure != null)
+                    throw feeder.failure;
+                return false;
+            }
+            int index = feeder.consumed % feeder.chunks.length;
+            current = feeder;
+            chunk = feeder.chunks[index];
+            chunkSize = feeder.sizes[index];
+            position = 0;
+            ready.addAndGet(-chunkSize);
+            return true;
+        }
+
+        /**
+         * Starts consuming an already published chunk, without blocking.
+         */
+        private boolean acquireReadyChunk() {
+            for (Feeder feeder; activeFeeders > 0 && (feeder = queue.poll()) != null; ) {
+                if (onNotification(feeder))
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext(Integer.MAX_VALUE);
+        }
+
+        @Override
+        public boolean hasNext(int millisecondsTimeout) {
+            if (position < chunkSize)
+                return true;
+            releaseChunk();
+            boolean interrupted = false;
+            try {
+                while (activeFeeders > 0) {
+                    Feeder feeder;
+                    try {
+                        feeder = queue.poll(millisecondsTimeout, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        continue;
+                    }
+                    if (feeder == null)
+                        return false; // timed out
+                    if (onNotification(feeder))
+                        return true;
+                }
+                return false; //exhausted
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt(); // restore interrupt flag
+            }
+        }
+
+        @Override
+        public @Nonnull Solution next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Solution next = chunk[position++];
+            return projector == null ? next : projector.fromSolution(next);
+        }
+
+        @Override
+        public int nextBatch(@Nonnull SolutionBlock block, int max) {
+            int limit = Math.min(max, block.remaining()), count = 0;
+            if (limit <= 0 || !hasNext())
+                return 0;
+            while (count < limit) {
+                if (position == chunkSize) {
+                    releaseChunk();
+                    if (!acquireReadyChunk())
+                        break;
+                }
+                int end = Math.min(chunkSize, position + limit - count);
+                for (; position < end; ++count)
+                    block.add(chunk[position++]); // block does the projection, if needed
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws ResultsCloseException {
+            releaseChunk();
+            List<ResultsCloseException> exceptions = new ArrayList<>();
+            for (Feeder feeder : feeders) {
+                try {
+                    feeder.close(false);
+                } catch (ResultsCloseException e) { exceptions.add(e); }
+            }
+            if (exceptions.size() == 1) {
+                throw exceptions.get(0);
+            } else if (exceptions.size() > 1) {
+                ResultsCloseException e;
+                e = new ResultsCloseException(this, "Exceptions when closing child Results");
+                exceptions.forEach(e::addSuppressed);
+                throw e;
+            }
+        }
+    }
+
+    protected class Feeder implements Runnable {
+        private final @Nonnull Results in;
+        private final @Nonnull BlockingQueue<Feeder> queue;
+        private final @Nonnull AtomicInteger ready;
+        private final @Nonnull Solution[][] chunks;
+        private final @Nonnull int[] sizes;
+        /* number of chunks published by the producer and released by the consumer.
+         * Each has a single writer, thus ++ on the volatile is safe */
+        private volatile int published = 0, consumed = 0;
+        private volatile @Nullable RuntimeException failure;
+        /* guarded by this */
+        private boolean active = false, closed = false, exhausted = false;
+
+        public Feeder(@Nonnull Results in, @Nonnull BlockingQueue<Feeder> queue,
+                      @Nonnull AtomicInteger ready, int chunks, int chunkSize) {
+            this.in = in;
+            this.queue = queue;
+            this.ready = ready;
+            this.chunks = new Solution[chunks][chunkSize];
+            this.sizes = new int[chunks];
+        }
+
+        private boolean hasFreeChunk() {
+            return published - consumed < chunks.length;
+        }
+
+        /**
+         * Called by the consumer once it is done with the oldest published chunk.
+         */
+        void release() {
+            ++consumed;
+            schedule();
+        }
+
+        public synchronized void schedule() {
+            if (active || closed || exhausted || !hasFreeChunk())
+                return; // ensure that this is "enqueued or running" at most once
+            active = true;
+            try {
+                executorService.execute(this);
+            } catch (RejectedExecutionException e) {
+                logger.error("RejectedExecutionException when scheduling execution over {}. " +
+                             "This indicates a race condition with close() being called " +
+                             "concurrently with async() or with consumption of async() " +
+                             "Results.", in);
+                active = false;
+                try {
+                    close(false);
+                } catch (ResultsCloseException e2) {
+                    logger.error("Ignoring exception while handling " +
+                                 "RejectedExecutionException", e2);
+                }
+            }
+        }
+
+        private synchronized boolean continueRunning() {
+            if (closed || exhausted || !hasFreeChunk()) {
+                active = false;
+                notifyAll(); // close() waits for !active
+                return false;
+            }
+            return true;
+        }
+
+        /* must be called with the lock held */
+        private void notifyExhausted() {
+            if (!exhausted) {
+                exhausted = true;
+                queue.add(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean async = in.isAsync();
+                while (continueRunning()) {
+                    int index = published % chunks.length, count = 0;
+                    Solution[] chunk = chunks[index];
+                    boolean end = false;
+                    long start = System.nanoTime();
+                    try {
+                        while (count < chunk.length) {
+                            if (count > 0 && (async ? in.getReadyCount() <= 0
+                                                    : System.nanoTime()-start > MAX_CHUNK_DELAY_NS))
+                                break; // publish what we have instead of blocking
+                            if (!in.hasNext()) {
+                                end = true;
+                                break;
+                            }
+                            chunk[count++] = in.next();
+                        }
+                    } catch (Throwable t) {
+                        logger.debug("Problem with in.hasNext()/next() for in={}", in, t);
+                        fail(t);
+                        end = true;
+                    }
+                    if (count > 0) {
+                        sizes[index] = count;
+                        ready.addAndGet(count);
+                        ++published;
+                        queue.add(this);
+                    }
+                    if (end) {
+                        synchronized (this) {
+                            notifyExhausted();
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                logger.error("Unexpected exception", t);
+                fail(t);
+                synchronized (this) {
+                    active = false;
+                    notifyExhausted();
+                    notifyAll();
+                }
+            }
+        }
+
+        private void fail(@Nonnull Throwable t) {
+            if (failure == null) {
+                failure = t instanceof RuntimeException ? (RuntimeException) t
+                                                        : new QueryExecutionException(t);
+            }
+        }
+
+        public void close(boolean forceInactive) throws ResultsCloseException {
+            boolean interrupted = false;
+            synchronized (this) {
+                closed = true; // disallow new production
+                if (forceInactive) {
+                    active = false;
+                    notifyAll();
+                }
+                while (active) { // wait until the task is not running
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                notifyExhausted();
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt(); // restore suppressed interrupt
+            in.close();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Feeder(%d/%d, %s)", published, consumed, in);
+        }
+    }
+}
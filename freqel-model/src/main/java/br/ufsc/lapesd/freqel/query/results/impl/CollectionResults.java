@@ -4,6 +4,7 @@ import br.ufsc.lapesd.freqel.query.results.AbstractResults;
 import br.ufsc.lapesd.freqel.query.results.BufferedResults;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SolutionBlock;
 import com.google.errorprone.annotations.concurrent.LazyInit;
 
 import javax.annotation.Nonnull;
@@ -93,6 +94,16 @@ public class CollectionResults extends AbstractResults implements BufferedResult
         return solution;
     }
 
+    @Override
+    public int nextBatch(@Nonnull SolutionBlock block, int max) {
+        Iterator<? extends Solution> it = getIterator();
+        int limit = Math.min(max, block.remaining()), count = 0;
+        for (; count < limit && it.hasNext(); ++count)
+            block.add(it.next());
+        size -= count;
+        return count;
+    }
+
     @Override
     public void close() { }
 }
@@ -0,0 +1,298 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.query.modifiers.OrderBy;
+import br.ufsc.lapesd.freqel.query.results.*;
+import br.ufsc.lapesd.freqel.query.results.codec.BlankTable;
+import br.ufsc.lapesd.freqel.query.results.codec.SolutionReader;
+import br.ufsc.lapesd.freqel.query.results.codec.SolutionWriter;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.*;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Sorts all solutions of the input according to an {@link OrderBy}, keeping at most
+ * a memory budget worth of solutions on the heap.
+ *
+ * Solutions are buffered until the budget is exceeded. Then the buffer is sorted and
+ * written as a run on disk. Once the input is exhausted, the runs and the last buffer
+ * are merged. If all solutions fit the budget, nothing is written to disk.
+ *
+ * All work is done by the consumer thread in {@link #hasNext()}.
+ */
+public class ExternalSortResults extends DelegatingResults implements SortedResults {
+    private static final Logger logger = LoggerFactory.getLogger(ExternalSortResults.class);
+    public static final int DEFAULT_MEMORY_BUDGET_MB = 64;
+    private static final int ENTRY_OVERHEAD = 16;
+    private static final int MIN_RUN_ROWS = 1024;
+    private static final int MAX_RUNS = 64;
+    private static final int BUFFER_SIZE = 16384; // there may be MAX_RUNS files open
+
+    private final @Nonnull OrderBy orderBy;
+    private final @Nonnull Comparator<Solution> comparator;
+    private final @Nonnull List<String> vars;
+    private final @Nonnull File parentDir;
+    private final long budgetBytes;
+    private final @Nonnull BlankTable blanks = new BlankTable();
+    private final @Nonnull ArrayList<Solution> buffer = new ArrayList<>();
+    private long bufferBytes = 0;
+    private final @Nonnull List<File> runs = new ArrayList<>();
+    private int spilledRuns = 0, nextFileId = 0;
+    private @Nullable File spillDir;
+    private @Nullable Merger merger;
+
+    public ExternalSortResults(@Nonnull Results in, @Nonnull OrderBy orderBy) {
+        this(in, orderBy, new File(System.getProperty("java.io.tmpdir")),
+             DEFAULT_MEMORY_BUDGET_MB * 1024L * 1024L);
+    }
+
+    /**
+     * Creates the sort. No solution is consumed until {@link #hasNext()} is called.
+     *
+     * @param tempDir directory under which a directory for runs will be created if needed
+     * @param budgetBytes estimated heap size of buffered solutions above which they are
+     *                    sorted and spilled into tempDir
+     */
+    public ExternalSortResults(@Nonnull Results in, @Nonnull OrderBy orderBy,
+                               @Nonnull File tempDir, long budgetBytes) {
+        super(in.getVarNames(), in);
+        Preconditions.checkArgument(budgetBytes > 0, "budgetBytes must be positive");
+        this.orderBy = orderBy;
+        this.comparator = orderBy.comparator();
+        this.vars = new ArrayList<>(in.getVarNames());
+        this.parentDir = tempDir;
+        this.budgetBytes = budgetBytes;
+    }
+
+    @Override
+    public @Nonnull OrderBy getOrderBy() {
+        return orderBy;
+    }
+
+    /**
+     * Number of runs written to disk so far. Zero if all solutions fit the budget.
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    /* --- --- --- internals --- --- --- */
+
+    /**
+     * A sorted source of solutions: either a run on disk or the final in-memory buffer.
+     */
+    private static final class Cursor {
+        final @Nullable File file;
+        final @Nonnull Iterator<? extends Solution> it;
+        final @Nullable SolutionReader reader;
+        final int index;
+        @Nullable Solution head;
+
+        Cursor(@Nullable File file, @Nonnull Iterator<? extends Solution> it,
+               @Nullable SolutionReader reader, int index) {
+            this.file = file;
+            this.it = it;
+            this.reader = reader;
+            this.index = index;
+        }
+
+        boolean advance() {
+            head = it.hasNext() ? it.next() : null;
+            return head != null;
+        }
+
+        void close() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close run {}", file, e);
+                }
+            }
+            if (file != null && file.exists() && !file.delete())
+                logger.warn("Failed to delete run {}", file);
+        }
+    }
+
+    /**
+     * K-way merge of sorted cursors. Ties are resolved in favor of earlier cursors, making
+     * the sort stable.
+     */
+    private final class Merger {
+        final @Nonnull PriorityQueue<Cursor> queue;
+        final @Nonnull List<Cursor> cursors = new ArrayList<>();
+
+        Merger(@Nonnull List<File> runs, @Nonnull List<Solution> last) throws IOException {
+            Comparator<Cursor> order = (l, r) -> {
+                assert l.head != null && r.head != null;
+                int diff = comparator.compare(l.head, r.head);
+                return diff != 0 ? diff : Integer.compare(l.index, r.index);
+            };
+            queue = new PriorityQueue<>(runs.size() + 1, order);
+            try {
+                for (File run : runs) {
+                    SolutionReader reader = new SolutionReader(
+                            FileChannel.open(run.toPath(), READ), vars, blanks, BUFFER_SIZE);
+                    add(new Cursor(run, reader, reader, cursors.size()));
+                }
+                if (!last.isEmpty())
+                    add(new Cursor(null, last.iterator(), null, cursors.size()));
+            } catch (IOException|RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private void add(@Nonnull Cursor cursor) {
+            cursors.add(cursor);
+            if (cursor.advance())
+                queue.add(cursor);
+        }
+
+        @Nullable Solution poll() {
+            Cursor cursor = queue.poll();
+            if (cursor == null)
+                return null;
+            Solution solution = cursor.head;
+            if (cursor.advance())
+                queue.add(cursor);
+            return solution;
+        }
+
+        void close() {
+            for (Cursor cursor : cursors)
+                cursor.close();
+            cursors.clear();
+            queue.clear();
+        }
+    }
+
+    private @Nonnull File writeRun(@Nonnull Iterator<? extends Solution> it) throws IOException {
+        if (spillDir == null)
+            spillDir = Files.createTempDirectory(parentDir.toPath(), "freqel-sort").toFile();
+        File file = new File(spillDir, (nextFileId++) + ".bin");
+        FileChannel channel = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING);
+        try (SolutionWriter writer = new SolutionWriter(channel, vars, blanks,
+                SolutionWriter.DEFAULT_MAX_DICTIONARY_SIZE, BUFFER_SIZE)) {
+            while (it.hasNext())
+                writer.write(it.next());
+        }
+        ++spilledRuns;
+        return file;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.sort(comparator);
+        runs.add(writeRun(buffer.iterator()));
+        buffer.clear();
+        bufferBytes = 0;
+        if (runs.size() > MAX_RUNS)
+            compact();
+    }
+
+    /**
+     * Merges the oldest half of the runs into a single run. Older runs come first, so
+     * that the merge remains stable.
+     */
+    private void compact() throws IOException {
+        List<File> selected = new ArrayList<>(runs.subList(0, runs.size()/2));
+        runs.subList(0, selected.size()).clear();
+        Merger merger = new Merger(selected, Collections.emptyList());
+        File file;
+        try {
+            file = writeRun(new Iterator<Solution>() {
+                Solution next = merger.poll();
+                @Override public boolean hasNext() {
+                    return next != null;
+                }
+                @Override public Solution next() {
+                    Solution current = next;
+                    next = merger.poll();
+                    return current;
+                }
+            });
+        } finally {
+            merger.close();
+        }
+        runs.add(0, file);
+    }
+
+    private void consumeInput() throws IOException {
+        while (in.hasNext()) {
+            Solution solution = in.next();
+            buffer.add(solution);
+            bufferBytes += ResultsUtils.estimateBytes(solution, vars) + ENTRY_OVERHEAD;
+            if (bufferBytes > budgetBytes && buffer.size() >= MIN_RUN_ROWS) {
+                logger.debug("{}: buffered solutions exceeded {} bytes, spilling to disk",
+                             this, budgetBytes);
+                flushBuffer();
+            }
+        }
+        buffer.sort(comparator);
+        merger = new Merger(runs, buffer);
+        runs.clear();
+    }
+
+    /* --- --- --- interface implementation --- --- --- */
+
+    @Override
+    public int getReadyCount() {
+        return merger != null && !merger.queue.isEmpty() ? 1 : 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (merger == null) {
+            try {
+                consumeInput();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        assert merger != null;
+        return !merger.queue.isEmpty();
+    }
+
+    @Override
+    public @Nonnull Solution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        assert merger != null;
+        Solution solution = merger.poll();
+        assert solution != null;
+        return solution;
+    }
+
+    @Override
+    public void close() throws ResultsCloseException {
+        try {
+            if (merger != null)
+                merger.close();
+            for (File run : runs) {
+                if (run.exists() && !run.delete())
+                    logger.warn("Failed to delete run {}", run);
+            }
+            runs.clear();
+            buffer.clear();
+            if (spillDir != null && !spillDir.delete()) // all runs were deleted
+                logger.warn("Failed to delete spill dir {}", spillDir);
+        } finally {
+            super.close();
+        }
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return String.format("ExternalSortResults@%x", System.identityHashCode(this));
+    }
+}
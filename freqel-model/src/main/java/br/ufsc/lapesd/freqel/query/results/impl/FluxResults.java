@@ -0,0 +1,122 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.query.results.*;
+import reactor.core.publisher.Flux;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * A {@link Results} over a {@link Flux} that is only subscribed once consumption starts.
+ *
+ * If {@link #flux()} is called first, the {@link Flux} is handed as-is to the caller.
+ * Otherwise, the first {@link #hasNext()} (or similar) subscribes a {@link PublisherResults}.
+ */
+public class FluxResults extends AbstractResults implements Results {
+    private @Nullable Flux<Solution> flux;
+    private @Nullable PublisherResults blocking;
+    private final @Nonnull List<Results> sources;
+    private boolean closed = false;
+
+    public FluxResults(@Nonnull Flux<Solution> flux, @Nonnull Collection<String> varNames) {
+        this(flux, varNames, Collections.emptyList());
+    }
+
+    /**
+     * Create a {@link FluxResults}.
+     *
+     * @param flux the solutions
+     * @param varNames the var names of the solutions
+     * @param sources {@link Results} that produce flux. These will be closed if this
+     *                {@link FluxResults} is closed before subscribing the flux.
+     */
+    public FluxResults(@Nonnull Flux<Solution> flux, @Nonnull Collection<String> varNames,
+                       @Nonnull Collection<? extends Results> sources) {
+        super(varNames);
+        this.flux = flux;
+        this.sources = new ArrayList<>(sources);
+    }
+
+    /**
+     * Merges the {@link Results#flux()} of all inputs.
+     *
+     * This is a non-blocking alternative to {@link ResultsExecutor#async(Collection, Collection)}
+     * when all inputs are {@link Results#isReactive()}.
+     */
+    public static @Nonnull FluxResults merge(@Nonnull Collection<? extends Results> inputs,
+                                             @Nullable Collection<String> namesHint) {
+        Collection<String> names = namesHint != null ? namesHint
+                : inputs.stream().flatMap(r -> r.getVarNames().stream()).collect(toSet());
+        List<Flux<Solution>> fluxes = new ArrayList<>(inputs.size());
+        for (Results input : inputs)
+            fluxes.add(input.flux());
+        return new FluxResults(Flux.merge(fluxes), names, inputs);
+    }
+
+    private @Nonnull PublisherResults blocking() {
+        if (blocking == null) {
+            if (flux == null)
+                throw new IllegalStateException("flux() already called");
+            blocking = new PublisherResults(flux, getVarNames());
+            flux = null;
+        }
+        return blocking;
+    }
+
+    @Override public boolean isAsync() {
+        return true;
+    }
+
+    @Override public boolean isReactive() {
+        return true;
+    }
+
+    @Override public @Nonnull Flux<Solution> flux() {
+        if (blocking != null)
+            return blocking.flux();
+        if (flux == null)
+            throw new IllegalStateException("flux() already called");
+        Flux<Solution> flux = this.flux;
+        this.flux = null;
+        return flux;
+    }
+
+    @Override public int getReadyCount() {
+        return blocking == null ? 0 : blocking.getReadyCount();
+    }
+
+    @Override public boolean hasNext() {
+        return blocking().hasNext();
+    }
+
+    @Override public boolean hasNext(int millisecondsTimeout) {
+        return blocking().hasNext(millisecondsTimeout);
+    }
+
+    @Override public @Nonnull Solution next() {
+        return blocking().next();
+    }
+
+    @Override public int nextBatch(@Nonnull SolutionBlock block, int max) {
+        return blocking().nextBatch(block, max);
+    }
+
+    @Override public void close() throws ResultsCloseException {
+        if (closed)
+            return;
+        closed = true;
+        if (blocking != null) {
+            blocking.close();
+        } else if (flux != null) {
+            flux = null;
+            for (Results source : sources)
+                ResultsUtils.closeQuietly(source);
+        }
+    }
+}
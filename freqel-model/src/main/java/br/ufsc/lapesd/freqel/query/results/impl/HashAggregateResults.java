@@ -0,0 +1,286 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.V;
+import br.ufsc.lapesd.freqel.model.term.Lit;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.TermOrder;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.query.modifiers.Aggregation;
+import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
+import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/**
+ * Evaluates an {@link Aggregation} by grouping all input solutions in a hash table.
+ *
+ * The input is fully consumed on the first {@link #hasNext()}. Memory usage is proportional
+ * to the number of groups (and to the number of distinct values for DISTINCT aggregates).
+ * Groups are output in the order they were first seen.
+ *
+ * Unbound inputs are ignored by all aggregates. If a SUM or AVG input is not a numeric
+ * literal, the result of that aggregate for the group is unbound. If there are no group
+ * variables, a single solution is output even if the input is empty.
+ */
+public class HashAggregateResults extends DelegatingResults {
+    private final @Nonnull Aggregation aggregation;
+    private final @Nonnull List<Aggregation.Aggregate> aggregates;
+    private final @Nonnull String[] groupVars;
+    private final @Nonnull ArraySolution.ValueFactory factory;
+    private @Nullable Iterator<Map.Entry<List<Term>, Accumulator[]>> it;
+
+    public static @Nonnull Results applyIf(@Nonnull Results in, @Nonnull ModifiersSet modifiers) {
+        Aggregation aggregation = modifiers.aggregation();
+        return aggregation == null ? in : new HashAggregateResults(in, aggregation);
+    }
+
+    public HashAggregateResults(@Nonnull Results in, @Nonnull Aggregation aggregation) {
+        super(aggregation.getResultVars(), in);
+        this.aggregation = aggregation;
+        this.aggregates = aggregation.getAggregates();
+        this.groupVars = aggregation.getGroupVars().toArray(new String[0]);
+        this.factory = ArraySolution.forVars(getVarNames());
+    }
+
+    public @Nonnull Aggregation getAggregation() {
+        return aggregation;
+    }
+
+    /* --- --- --- accumulators --- --- --- */
+
+    private interface Accumulator {
+        void add(@Nonnull Solution solution);
+        @Nullable Term get();
+    }
+
+    private static final class Count implements Accumulator {
+        private final @Nullable String input;
+        private final @Nullable Set<Object> seen;
+        private long count = 0;
+
+        Count(@Nullable String input, boolean distinct) {
+            this.input = input;
+            this.seen = distinct ? new HashSet<>() : null;
+        }
+
+        @Override
+        public void add(@Nonnull Solution solution) {
+            Object value;
+            if (input == null) {
+                value = seen == null ? solution : MapSolution.builder(solution).build();
+            } else {
+                value = solution.get(input);
+                if (value == null) return;
+            }
+            if (seen == null || seen.add(value))
+                ++count;
+        }
+
+        @Override
+        public @Nonnull Term get() {
+            return StdLit.fromUnescaped(String.valueOf(count), V.XSD.integer);
+        }
+    }
+
+    /**
+     * Sums numeric literals, promoting the result datatype from xsd:integer to xsd:decimal
+     * and then to xsd:double as required by the inputs.
+     */
+    private static class Sum implements Accumulator {
+        private static final int INTEGER = 0, DECIMAL = 1, DOUBLE = 2;
+        private final @Nonnull String input;
+        private final @Nullable Set<Term> seen;
+        private int type = INTEGER;
+        private boolean error = false;
+        protected long count = 0;
+        protected @Nonnull BigDecimal sum = BigDecimal.ZERO;
+        protected double doubleSum = 0;
+
+        Sum(@Nonnull String input, boolean distinct) {
+            this.input = input;
+            this.seen = distinct ? new HashSet<>() : null;
+        }
+
+        @Override
+        public void add(@Nonnull Solution solution) {
+            Term term = solution.get(input);
+            if (term == null || error || (seen != null && !seen.add(term)))
+                return;
+            if (!term.isLiteral() || !TermOrder.isNumeric(term.asLiteral())) {
+                error = true;
+                return;
+            }
+            Lit lit = term.asLiteral();
+            try {
+                String lexical = lit.getLexicalForm().trim();
+                if (TermOrder.isFloating(lit)) {
+                    type = DOUBLE;
+                    doubleSum += Double.parseDouble(lexical);
+                } else {
+                    if (type == INTEGER && lit.getDatatype().equals(V.XSD.decimal))
+                        type = DECIMAL;
+                    BigDecimal value = new BigDecimal(lexical);
+                    sum = sum.add(value);
+                    doubleSum += value.doubleValue();
+                }
+                ++count;
+            } catch (NumberFormatException e) {
+                error = true;
+            }
+        }
+
+        protected @Nonnull Term toTerm(@Nonnull BigDecimal value, double doubleValue,
+                                       boolean forceDecimal) {
+            if (type == DOUBLE)
+                return StdLit.fromUnescaped(String.valueOf(doubleValue), V.XSD.xdouble);
+            if (type == DECIMAL || forceDecimal)
+                return StdLit.fromUnescaped(value.toPlainString(), V.XSD.decimal);
+            return StdLit.fromUnescaped(value.toBigInteger().toString(), V.XSD.integer);
+        }
+
+        @Override
+        public @Nullable Term get() {
+            return error ? null : toTerm(sum, doubleSum, false);
+        }
+
+        boolean hasError() {
+            return error;
+        }
+    }
+
+    private static final class Avg extends Sum {
+        Avg(@Nonnull String input, boolean distinct) {
+            super(input, distinct);
+        }
+
+        @Override
+        public @Nullable Term get() {
+            if (hasError())
+                return null;
+            if (count == 0)
+                return StdLit.fromUnescaped("0", V.XSD.integer);
+            BigDecimal avg = sum.divide(BigDecimal.valueOf(count), 20, RoundingMode.HALF_EVEN)
+                                .stripTrailingZeros();
+            return toTerm(avg, doubleSum / count, true);
+        }
+    }
+
+    private static final class Extreme implements Accumulator {
+        private final @Nonnull String input;
+        private final int signal;
+        private @Nullable Term best;
+
+        Extreme(@Nonnull String input, boolean max) {
+            this.input = input;
+            this.signal = max ? -1 : 1;
+        }
+
+        @Override
+        public void add(@Nonnull Solution solution) {
+            Term term = solution.get(input);
+            if (term != null && (best == null || signal*TermOrder.INSTANCE.compare(term, best) < 0))
+                best = term;
+        }
+
+        @Override
+        public @Nullable Term get() {
+            return best;
+        }
+    }
+
+    private @Nonnull Accumulator[] createAccumulators() {
+        Accumulator[] array = new Accumulator[aggregates.size()];
+        for (int i = 0; i < array.length; i++) {
+            Aggregation.Aggregate agg = aggregates.get(i);
+            String input = agg.getInput();
+            switch (agg.getFunction()) {
+                case COUNT:
+                    array[i] = new Count(input, agg.isDistinct());
+                    break;
+                case SUM:
+                    array[i] = new Sum(Objects.requireNonNull(input), agg.isDistinct());
+                    break;
+                case AVG:
+                    array[i] = new Avg(Objects.requireNonNull(input), agg.isDistinct());
+                    break;
+                case MIN:
+                case MAX:
+                    boolean max = agg.getFunction() == Aggregation.Function.MAX;
+                    array[i] = new Extreme(Objects.requireNonNull(input), max);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unexpected "+agg.getFunction());
+            }
+        }
+        return array;
+    }
+
+    private void consumeInput() {
+        Map<List<Term>, Accumulator[]> groups = new LinkedHashMap<>();
+        while (in.hasNext()) {
+            Solution solution = in.next();
+            Term[] key = new Term[groupVars.length];
+            for (int i = 0; i < key.length; i++)
+                key[i] = solution.get(groupVars[i]);
+            Accumulator[] accumulators = groups.computeIfAbsent(Arrays.asList(key),
+                                                                k -> createAccumulators());
+            for (Accumulator accumulator : accumulators)
+                accumulator.add(solution);
+        }
+        if (groups.isEmpty() && groupVars.length == 0)
+            groups.put(Collections.emptyList(), createAccumulators());
+        it = groups.entrySet().iterator();
+    }
+
+    /* --- --- --- interface implementation --- --- --- */
+
+    @Override
+    public int getReadyCount() {
+        return it != null && it.hasNext() ? 1 : 0;
+    }
+
+    @Override
+    public int getLimit() {
+        return -1;
+    }
+
+    @Override
+    public boolean isDistinct() {
+        return true; // each group is output only once
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (it == null)
+            consumeInput();
+        assert it != null;
+        return it.hasNext();
+    }
+
+    @Override
+    public @Nonnull Solution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        assert it != null;
+        Map.Entry<List<Term>, Accumulator[]> e = it.next();
+        Term[] values = new Term[groupVars.length + aggregates.size()];
+        List<Term> key = e.getKey();
+        for (int i = 0; i < groupVars.length; i++)
+            values[i] = key.get(i);
+        Accumulator[] accumulators = e.getValue();
+        for (int i = 0; i < accumulators.length; i++)
+            values[groupVars.length + i] = accumulators[i].get();
+        return factory.fromValues(values);
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return String.format("HashAggregateResults(%s, %s)", aggregation, in);
+    }
+}
@@ -5,15 +5,15 @@ import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
 import br.ufsc.lapesd.freqel.query.results.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
 
 import javax.annotation.Nonnull;
-import java.util.HashSet;
 import java.util.NoSuchElementException;
 
 public class HashDistinctResults extends DelegatingResults implements BufferedResults {
     private static final Logger logger = LoggerFactory.getLogger(HashDistinctResults.class);
 
-    private final @Nonnull HashSet<Solution> set = new HashSet<>();
+    private final @Nonnull SolutionHashTable table;
     private final @Nonnull Results original;
     private Solution next = null;
     private boolean wasReset = false;
@@ -23,6 +23,7 @@ public class HashDistinctResults extends DelegatingResults implements BufferedRe
     public HashDistinctResults(@Nonnull Results input) {
         super(input.getVarNames(), input);
         this.original = input;
+        this.table = new SolutionHashTable(input.getVarNames(), 256);
     }
 
     public static @Nonnull Results applyIf(@Nonnull Results in, @Nonnull ModifiersSet modifiers) {
@@ -52,7 +53,7 @@ public class HashDistinctResults extends DelegatingResults implements BufferedRe
     public void reset(boolean close) throws ResultsCloseException {
         if (!wasReset && original.hasNext())
             logger.warn("Input iterator {} still has results, reset() will discard them", original);
-        in = new CollectionResults(set, original.getVarNames());
+        in = new CollectionResults(table.toList(), original.getVarNames());
         if (close && !wasReset)
             original.close();
         wasReset = true;
@@ -63,11 +64,26 @@ public class HashDistinctResults extends DelegatingResults implements BufferedRe
         return in.getReadyCount() + (next != null ? 1 : 0);
     }
 
+    @Override
+    public boolean isReactive() {
+        return in.isReactive();
+    }
+
+    @Override
+    public @Nonnull Flux<Solution> flux() {
+        Flux<Solution> flux = in.flux().filter(s -> wasReset || table.addIfAbsent(s));
+        if (next == null)
+            return flux;
+        Solution previous = next;
+        next = null;
+        return Flux.just(previous).concatWith(flux);
+    }
+
     @Override
     public boolean hasNext() {
         while (this.next == null && in.hasNext()) {
             Solution next = in.next();
-            if (wasReset || set.add(next))
+            if (wasReset || table.addIfAbsent(next))
                 this.next = next;
         }
         return this.next != null;
@@ -82,6 +98,28 @@ public class HashDistinctResults extends DelegatingResults implements BufferedRe
         return current;
     }
 
+    @Override
+    public int nextBatch(@Nonnull SolutionBlock block, int max) {
+        int limit = Math.min(max, block.remaining()), count = 0;
+        if (limit > 0 && next != null) {
+            block.add(next);
+            next = null;
+            ++count;
+        }
+        // Pulls solutions from in one by one: a SolutionBlock from in.nextBatch() would
+        // require copying every novel solution into the table
+        boolean async = in.isAsync();
+        while (count < limit && (count == 0 || !async || in.getReadyCount() > 0)
+                             && in.hasNext()) {
+            Solution solution = in.next();
+            if (wasReset || table.addIfAbsent(solution)) {
+                block.add(solution);
+                ++count;
+            }
+        }
+        return count;
+    }
+
     @Override
     public void close() throws ResultsCloseException {
         super.close();
@@ -7,8 +7,10 @@ import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
 import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SolutionBlock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
 
 import javax.annotation.Nonnull;
 import java.util.NoSuchElementException;
@@ -36,6 +38,20 @@ public class LimitResults extends DelegatingResults {
         this.limit = limit;
     }
 
+    @Override
+    public boolean isReactive() {
+        return in.isReactive();
+    }
+
+    @Override
+    public @Nonnull Flux<Solution> flux() {
+        if (consumed >= limit) {
+            closeInput();
+            return Flux.empty();
+        }
+        return in.flux().take(limit - consumed, true);
+    }
+
     @Override
     public boolean hasNext() {
         return consumed < limit && in.hasNext();
@@ -51,17 +67,31 @@ public class LimitResults extends DelegatingResults {
         if (!hasNext()) throw new NoSuchElementException();
         ++consumed;
         Solution solution = in.next();
-        if (consumed >= limit) {
-            try {
-                in.close();
-            } catch (ResultsCloseException e) {
-                logger.warn("{}: Failed to close input {}", this, in, e);
-                closeException = e;
-            }
-        }
+        if (consumed >= limit)
+            closeInput();
         return solution;
     }
 
+    @Override
+    public int nextBatch(@Nonnull SolutionBlock block, int max) {
+        if (consumed >= limit)
+            return 0;
+        int count = in.nextBatch(block, Math.min(max, limit - consumed));
+        consumed += count;
+        if (consumed >= limit)
+            closeInput();
+        return count;
+    }
+
+    private void closeInput() {
+        try {
+            in.close();
+        } catch (ResultsCloseException e) {
+            logger.warn("{}: Failed to close input {}", this, in, e);
+            closeException = e;
+        }
+    }
+
     @Override
     public void close() throws ResultsCloseException {
         if (closeException != null) {
@@ -0,0 +1,123 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.query.modifiers.OrderBy;
+import br.ufsc.lapesd.freqel.query.results.*;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Merges {@link Results} that are each sorted by the same {@link OrderBy} into a single
+ * sorted {@link Results}.
+ *
+ * Only the head solution of each input is kept in memory. Inputs are trusted to be
+ * sorted (e.g., by a remote ORDER BY). Ties are resolved in favor of earlier inputs.
+ */
+public class MergeSortedResults extends AbstractResults implements SortedResults {
+    private static final Logger logger = LoggerFactory.getLogger(MergeSortedResults.class);
+
+    private final @Nonnull OrderBy orderBy;
+    private final @Nonnull List<Results> inputs;
+    private final @Nonnull ArraySolution.ValueFactory factory;
+    private final @Nonnull PriorityQueue<Head> queue;
+    private boolean started = false;
+
+    private static final class Head {
+        final @Nonnull Results results;
+        final int index;
+        @Nullable Solution solution;
+
+        Head(@Nonnull Results results, int index) {
+            this.results = results;
+            this.index = index;
+        }
+
+        boolean advance() {
+            solution = results.hasNext() ? results.next() : null;
+            return solution != null;
+        }
+    }
+
+    public MergeSortedResults(@Nonnull List<? extends Results> inputs,
+                              @Nonnull Collection<String> varNames, @Nonnull OrderBy orderBy) {
+        super(varNames);
+        Preconditions.checkArgument(!inputs.isEmpty(), "No inputs to merge");
+        this.orderBy = orderBy;
+        this.inputs = new ArrayList<>(inputs);
+        this.factory = ArraySolution.forVars(getVarNames());
+        Comparator<Solution> comparator = orderBy.comparator();
+        this.queue = new PriorityQueue<>(inputs.size(), (l, r) -> {
+            assert l.solution != null && r.solution != null;
+            int diff = comparator.compare(l.solution, r.solution);
+            return diff != 0 ? diff : Integer.compare(l.index, r.index);
+        });
+    }
+
+    @Override
+    public @Nonnull OrderBy getOrderBy() {
+        return orderBy;
+    }
+
+    @Override
+    public boolean isAsync() {
+        for (Results input : inputs) {
+            if (input.isAsync()) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int getReadyCount() {
+        return started && !queue.isEmpty() ? 1 : 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!started) {
+            started = true;
+            for (int i = 0; i < inputs.size(); i++) {
+                Head head = new Head(inputs.get(i), i);
+                if (head.advance())
+                    queue.add(head);
+            }
+        }
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public @Nonnull Solution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Head head = queue.remove();
+        Solution solution = head.solution;
+        assert solution != null;
+        if (head.advance())
+            queue.add(head);
+        return factory.fromSolution(solution);
+    }
+
+    @Override
+    public void close() throws ResultsCloseException {
+        queue.clear();
+        ResultsCloseException exception = null;
+        for (Results results : inputs) {
+            try {
+                results.close();
+            } catch (ResultsCloseException e) {
+                if (exception == null) exception = e;
+                else logger.error("Suppressing additional exception on close()", e);
+            }
+        }
+        if (exception != null)
+            throw exception;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return String.format("MergeSortedResults(%s, %s)", orderBy, inputs);
+    }
+}
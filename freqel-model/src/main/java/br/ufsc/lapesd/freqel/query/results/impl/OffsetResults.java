@@ -0,0 +1,48 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
+import br.ufsc.lapesd.freqel.query.modifiers.Offset;
+import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+
+import javax.annotation.Nonnull;
+import java.util.NoSuchElementException;
+
+/**
+ * Discards the first solutions of the input.
+ */
+public class OffsetResults extends DelegatingResults {
+    private int skip;
+
+    public static @Nonnull Results applyIf(@Nonnull Results in, @Nonnull ModifiersSet modifiers) {
+        Offset offset = modifiers.offset();
+        return offset == null ? in : new OffsetResults(in, offset.getValue());
+    }
+
+    public OffsetResults(@Nonnull Results in, int offset) {
+        super(in.getVarNames(), in);
+        this.skip = offset;
+    }
+
+    @Override
+    public int getReadyCount() {
+        return skip > 0 ? 0 : in.getReadyCount();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (skip > 0 && in.hasNext()) {
+            in.next();
+            --skip;
+        }
+        return skip == 0 && in.hasNext();
+    }
+
+    @Override
+    public @Nonnull Solution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return in.next();
+    }
+}
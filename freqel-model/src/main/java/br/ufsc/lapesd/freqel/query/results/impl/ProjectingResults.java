@@ -5,7 +5,10 @@ import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
 import br.ufsc.lapesd.freqel.query.modifiers.Projection;
 import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
 import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsUtils;
 import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SolutionBlock;
+import reactor.core.publisher.Flux;
 
 import javax.annotation.Nonnull;
 import java.util.Set;
@@ -29,8 +32,26 @@ public class ProjectingResults extends DelegatingResults implements Results {
         return applyIf(in, query.getModifiers());
     }
 
+    @Override
+    public boolean isReactive() {
+        return in.isReactive();
+    }
+
+    @Override
+    public @Nonnull Flux<Solution> flux() {
+        return in.flux().map(factory::fromSolution);
+    }
+
     @Override
     public @Nonnull Solution next() {
         return factory.fromSolution(in.next());
     }
+
+    @Override
+    public int nextBatch(@Nonnull SolutionBlock block, int max) {
+        // block only copies its own columns, thus it already does the projection
+        if (getVarNames().containsAll(block.getVarNames()))
+            return in.nextBatch(block, max);
+        return ResultsUtils.nextBatchByRow(this, block, max);
+    }
 }
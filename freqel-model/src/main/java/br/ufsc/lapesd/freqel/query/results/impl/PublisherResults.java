@@ -1,10 +1,12 @@
 package br.ufsc.lapesd.freqel.query.results.impl;
 
 import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
 import br.ufsc.lapesd.freqel.query.results.AbstractResults;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
 import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SolutionBlock;
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
@@ -35,7 +37,9 @@ public class PublisherResults extends AbstractResults implements Results {
     private int requested = 0;
     private Subscription subscription;
     private @Nullable Solution next;
+    private volatile @Nullable RuntimeException failure;
     private final @Nonnull List<Canceller> cancellerList = new ArrayList<>();
+    private final @Nonnull QueueDrainer drainer;
 
     public PublisherResults(@Nonnull Publisher<Solution> flux, @Nonnull Collection<String> varNames) {
         this(flux, varNames, 2048);
@@ -60,6 +64,10 @@ public class PublisherResults extends AbstractResults implements Results {
         this.queue = new ArrayBlockingQueue<>(queueSize+2);
         this.requestSize = requestSize;
         this.completed = false;
+        this.drainer = new QueueDrainer(queue, END, s -> {
+            tryRequest();
+            return s;
+        }, () -> failure);
         subscribe(publisher);
     }
 
@@ -82,6 +90,7 @@ public class PublisherResults extends AbstractResults implements Results {
                     if (--requested == 0)
                         tryRequest();
                 }
+                drainer.drain();
             }
 
             public void onEnd(@Nullable Throwable t) {
@@ -92,11 +101,15 @@ public class PublisherResults extends AbstractResults implements Results {
                     cancellerList.clear();
                 }
                 try {
-                    if (t != null)
-                        logger.error("{}: Error from {}: {}", this, publisher, t, t);
-                    else
+                    if (t != null) {
+                        logger.debug("{}: Error from {}: {}", this, publisher, t, t);
+                        failure = t instanceof RuntimeException ? (RuntimeException) t
+                                : new QueryExecutionException(t);
+                    } else {
                         logger.debug("{}: {} completed", this, publisher);
+                    }
                     queue.add(END);
+                    drainer.drain();
                 } finally {
                     for (Canceller c : copy) c.notifyEnd();
                 }
@@ -173,6 +186,16 @@ public class PublisherResults extends AbstractResults implements Results {
         return true;
     }
 
+    @Override public boolean isReactive() {
+        return true;
+    }
+
+    @Override public @Nonnull Flux<Solution> flux() {
+        if (next != null)
+            throw new IllegalStateException("flux() called after hasNext()");
+        return drainer.flux(this::close);
+    }
+
     @Override public boolean hasNext() {
         boolean interrupted = false;
         try {
@@ -182,7 +205,7 @@ public class PublisherResults extends AbstractResults implements Results {
                         next = queue.take();
                         tryRequest();
                     }
-                    return next != END;
+                    return checkEnd();
                 } catch (InterruptedException e) {
                     interrupted = true;
                 }
@@ -199,13 +222,22 @@ public class PublisherResults extends AbstractResults implements Results {
                 if ((next = queue.poll(millisecondsTimeout, TimeUnit.MILLISECONDS)) != null)
                     tryRequest();
             }
-            return next != null && next != END;
+            return next != null && checkEnd();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             return false;
         }
     }
 
+    private boolean checkEnd() {
+        if (next != END)
+            return true;
+        RuntimeException failure = this.failure;
+        if (failure != null)
+            throw failure;
+        return false;
+    }
+
     @Override public @Nonnull Solution next() {
         if (!hasNext())
             throw new NoSuchElementException();
@@ -215,6 +247,27 @@ public class PublisherResults extends AbstractResults implements Results {
         return solution;
     }
 
+    @Override public int nextBatch(@Nonnull SolutionBlock block, int max) {
+        int limit = Math.min(max, block.remaining()), count = 0;
+        if (limit <= 0 || !hasNext())
+            return 0;
+        assert next != null;
+        block.add(next);
+        next = null;
+        for (++count; count < limit; ++count) {
+            Solution solution = queue.poll();
+            if (solution == null)
+                break;
+            if (solution == END) {
+                next = solution;
+                break;
+            }
+            block.add(solution);
+        }
+        tryRequest();
+        return count;
+    }
+
     @Override public void close() throws ResultsCloseException {
         subscription.cancel();
     }
@@ -0,0 +1,121 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Operators;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Moves solutions from a queue into the subscriber of {@link #flux(Runnable)}, only as
+ * requested and never blocking.
+ *
+ * Producers must call {@link #drain()} after each addition to the queue. Calls to drain()
+ * from multiple threads are serialized without locks.
+ */
+public class QueueDrainer {
+    private static final AtomicLongFieldUpdater<QueueDrainer> REQUESTED
+            = AtomicLongFieldUpdater.newUpdater(QueueDrainer.class, "requested");
+
+    private final @Nonnull Queue<? extends Solution> queue;
+    private final @Nonnull Solution end;
+    private final @Nonnull Function<Solution, Solution> onPoll;
+    private final @Nullable Supplier<? extends Throwable> failure;
+    private final @Nonnull AtomicInteger wip = new AtomicInteger();
+    private volatile long requested;
+    private volatile @Nullable FluxSink<Solution> sink;
+    private boolean done = false, subscribed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param queue where producers place solutions
+     * @param end marker placed by the producer after its last solution
+     * @param onPoll called for every solution removed from the queue (except end),
+     *               its result is what the subscriber will receive
+     */
+    public QueueDrainer(@Nonnull Queue<? extends Solution> queue, @Nonnull Solution end,
+                        @Nonnull Function<Solution, Solution> onPoll) {
+        this(queue, end, onPoll, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param failure queried once end is polled. If it yields non-null, the subscriber
+     *                receives it as an error instead of a completion.
+     */
+    public QueueDrainer(@Nonnull Queue<? extends Solution> queue, @Nonnull Solution end,
+                        @Nonnull Function<Solution, Solution> onPoll,
+                        @Nullable Supplier<? extends Throwable> failure) {
+        this.queue = queue;
+        this.end = end;
+        this.onPoll = onPoll;
+        this.failure = failure;
+    }
+
+    /**
+     * Create the {@link Flux}. This may be called only once.
+     *
+     * @param onTerminate called once the {@link Flux} completes, fails or is cancelled
+     */
+    public synchronized @Nonnull Flux<Solution> flux(@Nonnull Runnable onTerminate) {
+        if (subscribed)
+            throw new IllegalStateException("flux() already called");
+        subscribed = true;
+        return Flux.create(s -> {
+            s.onRequest(n -> {
+                Operators.addCap(REQUESTED, this, n);
+                drain();
+            });
+            s.onDispose(onTerminate::run);
+            sink = s;
+            drain();
+        });
+    }
+
+    public void drain() {
+        FluxSink<Solution> sink = this.sink;
+        if (sink == null || wip.getAndIncrement() != 0)
+            return;
+        int missed = 1;
+        do {
+            long r = requested, e = 0;
+            while (e != r && !done && !sink.isCancelled()) {
+                Solution solution = queue.poll();
+                if (solution == null)
+                    break;
+                if (solution == end) {
+                    complete(sink);
+                    break;
+                }
+                sink.next(onPoll.apply(solution));
+                ++e;
+            }
+            // completion does not need demand
+            if (!done && !sink.isCancelled() && queue.peek() == end) {
+                queue.poll();
+                complete(sink);
+            }
+            if (e != 0 && r != Long.MAX_VALUE)
+                REQUESTED.addAndGet(this, -e);
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void complete(@Nonnull FluxSink<Solution> sink) {
+        done = true;
+        Throwable t = failure == null ? null : failure.get();
+        if (t != null)
+            sink.error(t);
+        else
+            sink.complete();
+    }
+}
@@ -4,9 +4,12 @@ import br.ufsc.lapesd.freqel.model.term.std.StdLit;
 import br.ufsc.lapesd.freqel.query.results.AbstractResults;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
+import br.ufsc.lapesd.freqel.query.results.ResultsUtils;
 import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SolutionBlock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -28,6 +31,8 @@ public class QueueResults extends AbstractResults implements Results {
     private boolean closed = false;
     private final @Nonnull Solution endSolution;
     private @Nullable Solution next;
+    private @Nullable QueueDrainer drainer;
+    private volatile @Nullable RuntimeException failure;
 
     public QueueResults(@Nonnull Collection<String> varNames,
                         @Nonnull BlockingQueue<? extends Solution> queue) {
@@ -61,6 +66,59 @@ public class QueueResults extends AbstractResults implements Results {
         return this;
     }
 
+    /**
+     * Get a {@link Runnable} that producers must run after each addition to the queue.
+     *
+     * Once a producer obtains this, {@link #flux()} becomes reactive: it emits solutions
+     * when notified instead of blocking on the queue.
+     *
+     * @return the notification callback
+     */
+    public synchronized @Nonnull Runnable getEnqueueNotifier() {
+        if (drainer == null)
+            drainer = new QueueDrainer(queue, endSolution, this::project, () -> failure);
+        return drainer::drain;
+    }
+
+    @Override public synchronized boolean isReactive() {
+        return drainer != null;
+    }
+
+    @Override public @Nonnull Flux<Solution> flux() {
+        QueueDrainer drainer;
+        synchronized (this) {
+            drainer = this.drainer;
+        }
+        if (drainer == null)
+            return ResultsUtils.iteratingFlux(this);
+        if (next != null)
+            throw new IllegalStateException("flux() called after hasNext()");
+        return drainer.flux(this::close);
+    }
+
+    /**
+     * Make the consumer receive the given exception instead of the end of the results.
+     *
+     * Producers must call this before adding the end solution to the queue. Subsequent
+     * calls replace the exception.
+     */
+    public void fail(@Nonnull RuntimeException failure) {
+        this.failure = failure;
+    }
+
+    public @Nullable RuntimeException getFailure() {
+        return failure;
+    }
+
+    private boolean checkEnd() {
+        if (next != endSolution)
+            return true;
+        RuntimeException failure = this.failure;
+        if (failure != null)
+            throw failure;
+        return false;
+    }
+
     public @Nonnull Solution getEndSolution() {
         return endSolution;
     }
@@ -91,7 +149,7 @@ public class QueueResults extends AbstractResults implements Results {
                     interrupted = true;
                 }
             }
-            return next != endSolution;
+            return checkEnd();
         } finally {
             if (interrupted)
                 Thread.currentThread().interrupt();
@@ -110,7 +168,7 @@ public class QueueResults extends AbstractResults implements Results {
                     interrupted = true;
                 }
             }
-            return next != endSolution;
+            return checkEnd();
         } finally {
             if (interrupted)
                 Thread.currentThread().interrupt();
@@ -126,6 +184,29 @@ public class QueueResults extends AbstractResults implements Results {
         return next;
     }
 
+    @Override public int nextBatch(@Nonnull SolutionBlock block, int max) {
+        int limit = Math.min(max, block.remaining()), count = 0;
+        if (limit <= 0 || !hasNext())
+            return 0;
+        assert next != null;
+        block.add(next);
+        next = null;
+        // block copies only its columns, thus there is no need to project() the solutions
+        for (++count; count < limit; ++count) {
+            Solution solution = queue.poll();
+            if (solution == null)
+                break;
+            if (afterConsume != null)
+                afterConsume.run();
+            if (solution == endSolution) {
+                next = solution;
+                break;
+            }
+            block.add(solution);
+        }
+        return count;
+    }
+
     @Override public void close() throws ResultsCloseException {
         if (closed)
             return;
@@ -6,14 +6,14 @@ import br.ufsc.lapesd.freqel.query.modifiers.filter.SPARQLFilterExecutor;
 import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SolutionBlock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
 
 import javax.annotation.Nonnull;
-import java.util.ArrayDeque;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+import java.util.*;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -24,6 +24,7 @@ public class SPARQLFilterResults extends DelegatingResults implements Results {
     private final @Nonnull SPARQLFilterExecutor filterExecutor = SPARQLFilterFactory.createExecutor();
     private final @Nonnull ArrayDeque<Solution> ready = new ArrayDeque<>();
     private int included = 0, excluded = 0;
+    private @Nullable SolutionBlock inBlock;
 
     public static @Nonnull Results applyIf(@Nonnull Results in,
                                            @Nonnull Collection<SPARQLFilter> filters) {
@@ -61,6 +62,32 @@ public class SPARQLFilterResults extends DelegatingResults implements Results {
         return ready.size();
     }
 
+    @Override
+    public boolean isReactive() {
+        return in.isReactive();
+    }
+
+    @Override
+    public @Nonnull Flux<Solution> flux() {
+        Flux<Solution> flux = in.flux().filter(this::accept);
+        if (ready.isEmpty())
+            return flux;
+        List<Solution> previous = new ArrayList<>(ready);
+        ready.clear();
+        return Flux.fromIterable(previous).concatWith(flux);
+    }
+
+    private boolean accept(@Nonnull Solution solution) {
+        for (SPARQLFilter filter : filters) {
+            if (!filterExecutor.evaluate(filter, solution)) {
+                ++excluded;
+                return false;
+            }
+        }
+        ++included;
+        return true;
+    }
+
     /**
      * Consumes items from the underlying {@link Results} object until it is exhausted or
      * a result is found. If the {@link Results} object has
@@ -72,18 +99,12 @@ public class SPARQLFilterResults extends DelegatingResults implements Results {
      */
     private int filter() {
         int found = 0, minConsumption = in.getReadyCount();
-        outer:
         for (int i = 0; in.hasNext() && (i < minConsumption || found == 0); i++) {
             Solution solution = in.next();
-            for (SPARQLFilter filter : filters) {
-                if (!filterExecutor.evaluate(filter, solution)) {
-                    ++excluded;
-                    continue outer;
-                }
+            if (accept(solution)) {
+                ready.add(solution);
+                ++found;
             }
-            ++included;
-            ready.add(solution);
-            ++found;
         }
         return found;
     }
@@ -99,6 +120,26 @@ public class SPARQLFilterResults extends DelegatingResults implements Results {
         return ready.remove();
     }
 
+    @Override
+    public int nextBatch(@Nonnull SolutionBlock block, int max) {
+        int limit = Math.min(max, block.remaining()), count = 0;
+        for (; count < limit && !ready.isEmpty(); ++count)
+            block.add(ready.remove());
+        if (count > 0 || limit <= 0)
+            return count;
+        inBlock = SolutionBlock.reuse(inBlock, in.getVarNames(), limit);
+        while (count == 0 && in.nextBatch(inBlock, limit) > 0) {
+            for (int i = 0, size = inBlock.size(); i < size; i++) {
+                if (accept(inBlock.viewRow(i))) {
+                    block.addRow(inBlock, i);
+                    ++count;
+                }
+            }
+            inBlock.clear();
+        }
+        return count;
+    }
+
     @Override
     public String toString() {
         return String.format("SPARQLFilterResults@%x{node=%s, incl=%d, exc=%d, filters=%s, in=%s}",
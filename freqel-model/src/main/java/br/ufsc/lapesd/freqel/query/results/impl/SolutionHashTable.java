@@ -0,0 +1,310 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * An open-addressing multimap from the values of some key variables to {@link Solution}s,
+ * used by hash joins and by {@link HashDistinctResults}.
+ *
+ * Solutions are stored, in insertion order, in a dense array. Each distinct key occupies a
+ * single slot of a linear-probing table that holds the hash of the key and the first and
+ * last solutions with that key. Solutions sharing a key are chained through an int[], thus
+ * growing the table never re-hashes a solution and solutions are only compared when the
+ * cached hashes are equal.
+ *
+ * Key values of {@link ArraySolution}s are read by slot (see
+ * {@link ArraySolution.SlotResolver}), other solutions are read with
+ * {@link Solution#get(String)}.
+ *
+ * This class is not thread-safe.
+ */
+public class SolutionHashTable {
+    private static final int MIN_CAPACITY = 16;
+
+    private final @Nonnull String[] keyVars;
+    private final int initialCapacity;
+    /* 1 + index of the first and last solution with the key of the slot. 0 if slot is free */
+    private int[] slotHeads, slotTails;
+    private int[] slotHashes;
+    private int slotMask, usedSlots;
+    /* solutions in insertion order and 1 + index of the next solution with the same key */
+    private Solution[] solutions;
+    private int[] next;
+    private int size;
+    private @Nullable BitSet fetched = null;
+    private final @Nonnull ArraySolution.SlotResolver slotResolver;
+
+    public SolutionHashTable(@Nonnull Collection<String> keyVars, int expectedValues) {
+        this.keyVars = keyVars.toArray(new String[0]);
+        this.slotResolver = new ArraySolution.SlotResolver(keyVars);
+        this.initialCapacity = Math.max(MIN_CAPACITY, expectedValues);
+        allocate(initialCapacity);
+    }
+
+    private void allocate(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(MIN_CAPACITY, capacity) - 1) << 2;
+        slotHeads = new int[slots];
+        slotTails = new int[slots];
+        slotHashes = new int[slots];
+        slotMask = slots - 1;
+        usedSlots = 0;
+        solutions = new Solution[capacity];
+        next = new int[capacity];
+        size = 0;
+    }
+
+    public @Nonnull List<String> getKeyVars() {
+        return Arrays.asList(keyVars);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Starts tracking which solutions were returned by probes (see {@link #forEachNotFetched}).
+     */
+    public void recordFetches() {
+        Preconditions.checkState(fetched == null, "Already recording!");
+        fetched = new BitSet(size);
+    }
+
+    public boolean isRecordingFetches() {
+        return fetched != null;
+    }
+
+    /**
+     * Marks the solution at the given index (as returned by {@link #add(Solution)})
+     * as fetched. Does nothing if {@link #recordFetches()} was not called.
+     */
+    public void markFetched(int index) {
+        if (fetched != null)
+            fetched.set(index);
+    }
+
+    /**
+     * Removes all solutions. Memory allocated beyond the expected size is released.
+     */
+    public void clear() {
+        if (fetched != null)
+            fetched.clear();
+        if (solutions.length > 4 * initialCapacity) {
+            allocate(initialCapacity);
+        } else {
+            Arrays.fill(slotHeads, 0);
+            Arrays.fill(solutions, 0, size, null);
+            usedSlots = 0;
+            size = 0;
+        }
+    }
+
+    /* --- hashing --- */
+
+    private int hash(@Nonnull Solution solution) {
+        ArraySolution.Slots slots = slotResolver.resolve(solution);
+        int h = 17;
+        for (int i = 0; i < keyVars.length; i++) {
+            Term term = slots.get(solution, i);
+            h = 37*h + (term == null ? 17 : term.hashCode());
+        }
+        // MurmurHash3 finalizer: slots are chosen by the low bits
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean keyEquals(@Nonnull Solution a, @Nonnull Solution b) {
+        ArraySolution.Slots as = slotResolver.resolve(a), bs = slotResolver.resolve(b);
+        for (int i = 0; i < keyVars.length; i++) {
+            if (!Objects.equals(as.get(a, i), bs.get(b, i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the slot for the key of reference: either a free slot or the one holding that key.
+     */
+    private int findSlot(@Nonnull Solution reference, int hash) {
+        for (int i = hash & slotMask; ; i = (i + 1) & slotMask) {
+            int head = slotHeads[i];
+            if (head == 0 || (slotHashes[i] == hash && keyEquals(solutions[head-1], reference)))
+                return i;
+        }
+    }
+
+    private void growSlots() {
+        int[] oldHeads = slotHeads, oldTails = slotTails, oldHashes = slotHashes;
+        int slots = oldHeads.length * 2;
+        slotHeads = new int[slots];
+        slotTails = new int[slots];
+        slotHashes = new int[slots];
+        slotMask = slots - 1;
+        for (int i = 0; i < oldHeads.length; i++) {
+            if (oldHeads[i] == 0)
+                continue;
+            int j = oldHashes[i] & slotMask;
+            while (slotHeads[j] != 0)
+                j = (j + 1) & slotMask;
+            slotHeads[j] = oldHeads[i];
+            slotTails[j] = oldTails[i];
+            slotHashes[j] = oldHashes[i];
+        }
+    }
+
+    private int insert(int slot, int hash, @Nonnull Solution solution) {
+        if (size == solutions.length) {
+            int capacity = size + (size >> 1);
+            solutions = Arrays.copyOf(solutions, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        int index = size++;
+        solutions[index] = solution;
+        next[index] = 0;
+        if (slotHeads[slot] == 0) {
+            slotHeads[slot] = slotTails[slot] = index + 1;
+            slotHashes[slot] = hash;
+            if (++usedSlots > (slotMask + 1) >> 1)
+                growSlots();
+        } else {
+            next[slotTails[slot] - 1] = index + 1;
+            slotTails[slot] = index + 1;
+        }
+        return index;
+    }
+
+    /* --- insertion --- */
+
+    /**
+     * Adds a solution, even if there are other solutions with the same key.
+     *
+     * @return index of the solution, to be used with {@link #markFetched(int)}
+     */
+    public int add(@Nonnull Solution solution) {
+        int hash = hash(solution);
+        return insert(findSlot(solution, hash), hash, solution);
+    }
+
+    /**
+     * Adds the solution only if there is no solution with the same key.
+     *
+     * @return true iff the solution was added
+     */
+    public boolean addIfAbsent(@Nonnull Solution solution) {
+        int hash = hash(solution);
+        int slot = findSlot(solution, hash);
+        if (slotHeads[slot] != 0)
+            return false;
+        insert(slot, hash, solution);
+        return true;
+    }
+
+    /**
+     * Same as {@link #addIfAbsent(Solution)}, but stores <code>copier.apply(reference)</code>
+     * instead of reference. This allows probing with a transient solution (e.g., a
+     * {@link br.ufsc.lapesd.freqel.query.results.SolutionBlock#viewRow(int)}) that is only
+     * copied if absent.
+     *
+     * @return true iff the copy was added
+     */
+    public <T extends Solution> boolean
+    addIfAbsent(@Nonnull T reference, @Nonnull Function<? super T, ? extends Solution> copier) {
+        int hash = hash(reference);
+        int slot = findSlot(reference, hash);
+        if (slotHeads[slot] != 0)
+            return false;
+        insert(slot, hash, copier.apply(reference));
+        return true;
+    }
+
+    /* --- probing --- */
+
+    /**
+     * An iterator over the solutions with the same key as a reference solution. Instances
+     * can be reused for several probes with {@link #reset(Solution)}, thus a probe does not
+     * allocate memory. If {@link #recordFetches()} was called, solutions are marked as
+     * fetched when returned by {@link #next()}.
+     */
+    public final class Cursor implements Iterator<Solution> {
+        private int nextIndex = 0;
+
+        private Cursor() { }
+
+        public @Nonnull Cursor reset(@Nonnull Solution reference) {
+            nextIndex = size == 0 ? 0 : slotHeads[findSlot(reference, hash(reference))];
+            return this;
+        }
+
+        @Override public boolean hasNext() {
+            return nextIndex != 0;
+        }
+
+        @Override public @Nonnull Solution next() {
+            if (nextIndex == 0)
+                throw new NoSuchElementException();
+            int index = nextIndex - 1;
+            nextIndex = next[index];
+            if (fetched != null)
+                fetched.set(index);
+            return solutions[index];
+        }
+    }
+
+    public @Nonnull Cursor cursor() {
+        return new Cursor();
+    }
+
+    public boolean contains(@Nonnull Solution reference) {
+        return size > 0 && slotHeads[findSlot(reference, hash(reference))] != 0;
+    }
+
+    /**
+     * Get a list of all solutions with the same key as reference, marking them as fetched.
+     * Prefer a reused {@link Cursor} when the list itself is not needed.
+     */
+    public @Nonnull List<Solution> getAll(@Nonnull Solution reference) {
+        if (size == 0)
+            return Collections.emptyList();
+        int index = slotHeads[findSlot(reference, hash(reference))];
+        if (index == 0)
+            return Collections.emptyList();
+        List<Solution> list = new ArrayList<>();
+        for (; index != 0; index = next[index-1]) {
+            list.add(solutions[index-1]);
+            if (fetched != null)
+                fetched.set(index-1);
+        }
+        return list;
+    }
+
+    /* --- whole-table iteration --- */
+
+    public void forEachNotFetched(@Nonnull Consumer<Solution> consumer) {
+        Preconditions.checkState(fetched != null, "Fetches not recorded");
+        for (int i = fetched.nextClearBit(0); i < size; i = fetched.nextClearBit(i+1))
+            consumer.accept(solutions[i]);
+    }
+
+    public void forEach(@Nonnull Consumer<Solution> consumer) {
+        for (int i = 0; i < size; i++)
+            consumer.accept(solutions[i]);
+    }
+
+    public @Nonnull List<Solution> toList() {
+        return new ArrayList<>(Arrays.asList(solutions).subList(0, size));
+    }
+}
@@ -0,0 +1,603 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.query.CQuery;
+import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
+import br.ufsc.lapesd.freqel.query.results.*;
+import br.ufsc.lapesd.freqel.query.results.codec.BlankTable;
+import br.ufsc.lapesd.freqel.query.results.codec.SolutionReader;
+import br.ufsc.lapesd.freqel.query.results.codec.SolutionWriter;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.*;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An exact DISTINCT that keeps at most a memory budget worth of state on the heap.
+ *
+ * While the distinct solutions fit the budget, this behaves as {@link HashDistinctResults}.
+ * Once the budget is exceeded, solutions in memory are replaced by their 128-bit
+ * fingerprints, kept in a primitive hash set:
+ * <ul>
+ *     <li>A solution with a novel fingerprint is certainly novel and is output
+ *         immediately.</li>
+ *     <li>A solution with a known fingerprint is very likely a duplicate. Since fingerprints
+ *         may collide, it is set aside as pending.</li>
+ * </ul>
+ * Output and pending solutions are written to runs on disk, sorted by fingerprint. Once the
+ * input is exhausted, the runs are merged and every pending solution not equal to an output
+ * solution with the same fingerprint is output. If the fingerprint set alone reaches its
+ * share of the budget, it stops growing and every further solution is pending.
+ *
+ * All work is done by the consumer thread in {@link #hasNext()}. If the input
+ * {@link Results#isReactive()}, {@link #flux()} is also reactive: solutions are handled
+ * (and spilled, if needed) in the thread that emits them and the final merge runs in the
+ * thread that signals the completion of the input.
+ */
+public class SpillingDistinctResults extends DelegatingResults implements Results {
+    private static final Logger logger = LoggerFactory.getLogger(SpillingDistinctResults.class);
+    public static final int DEFAULT_MEMORY_BUDGET_MB = 64;
+    private static final int ENTRY_OVERHEAD = 48;
+    private static final int MIN_RUN_ROWS = 1024;
+    private static final int MAX_RUNS = 64;
+    private static final int BUFFER_SIZE = 16384; // there may be MAX_RUNS files open
+    private static final @Nonnull HashFunction HASH = Hashing.murmur3_128();
+    private static final @Nonnull Comparator<Fingerprinted> ORDER
+            = Comparator.<Fingerprinted>comparingLong(f -> f.hi)
+                        .thenComparingLong(f -> f.lo)
+                        .thenComparing(f -> f.pending); // output solutions come first
+
+    private final @Nonnull List<String> vars;
+    private final @Nonnull File parentDir;
+    private final long budgetBytes;
+    private final @Nonnull BlankTable blanks = new BlankTable();
+    private @Nullable SolutionHashTable table;
+    private long tableBytes = 0;
+    private @Nullable FingerprintSet fingerprints;
+    private boolean frozen = false, hasPending = false, exhausted = false;
+    private final @Nonnull ArrayList<Fingerprinted> buffer = new ArrayList<>();
+    private long bufferBytes = 0;
+    private final @Nonnull List<Run> runs = new ArrayList<>();
+    private int spilledRuns = 0, nextFileId = 0;
+    private @Nullable File spillDir;
+    private @Nullable Merger merger;
+    private @Nullable Solution next;
+
+    public SpillingDistinctResults(@Nonnull Results in) {
+        this(in, new File(System.getProperty("java.io.tmpdir")),
+             DEFAULT_MEMORY_BUDGET_MB * 1024L * 1024L);
+    }
+
+    /**
+     * Creates the DISTINCT. No solution is consumed until {@link #hasNext()} is called.
+     *
+     * @param tempDir directory under which a directory for runs will be created if needed
+     * @param budgetBytes estimated heap size of distinct solutions (or their fingerprints
+     *                    and buffered runs) above which solutions are spilled into tempDir
+     */
+    public SpillingDistinctResults(@Nonnull Results in, @Nonnull File tempDir,
+                                   long budgetBytes) {
+        super(in.getVarNames(), in);
+        Preconditions.checkArgument(budgetBytes > 0, "budgetBytes must be positive");
+        this.vars = new ArrayList<>(in.getVarNames());
+        this.parentDir = tempDir;
+        this.budgetBytes = budgetBytes;
+        this.table = new SolutionHashTable(vars, 256);
+    }
+
+    public static @Nonnull Results applyIf(@Nonnull Results in, @Nonnull ModifiersSet modifiers) {
+        if (modifiers.distinct() != null && !in.isDistinct())
+            return new SpillingDistinctResults(in);
+        return in;
+    }
+    public static @Nonnull Results applyIf(@Nonnull Results in, @Nonnull CQuery query) {
+        return applyIf(in, query.getModifiers());
+    }
+
+    public static @Nonnull Results applyIfNotDistinct(@Nonnull Results in) {
+        return in.isDistinct() ? in : new SpillingDistinctResults(in);
+    }
+
+    /**
+     * Number of runs written to disk so far. Zero if all distinct solutions fit the budget.
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    /* --- --- --- internals --- --- --- */
+
+    private static class Fingerprinted {
+        long hi, lo;
+        boolean pending;
+        Solution solution;
+    }
+
+    private static final class Run {
+        final @Nonnull File file;
+        final boolean pending;
+        final int rows;
+
+        Run(@Nonnull File file, boolean pending, int rows) {
+            this.file = file;
+            this.pending = pending;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Open-addressing set of non-zero 128-bit fingerprints. The zero fingerprint is
+     * tracked separately.
+     */
+    private static final class FingerprintSet {
+        private long[] keys;
+        private int size = 0;
+        private boolean hasZero = false;
+
+        FingerprintSet(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected, 512) * 2 - 1) << 1;
+            keys = new long[2 * capacity];
+        }
+
+        long getBytes() {
+            return 16 + keys.length * 8L;
+        }
+
+        boolean add(long hi, long lo) {
+            if (hi == 0 && lo == 0) {
+                boolean added = !hasZero;
+                hasZero = true;
+                return added;
+            }
+            if (size+1 > keys.length/4) // keep load factor <= 0.5
+                grow();
+            return put(keys, hi, lo);
+        }
+
+        private boolean put(@Nonnull long[] keys, long hi, long lo) {
+            int mask = keys.length/2 - 1;
+            for (int i = (int)(hi ^ (hi >>> 32)) & mask; ; i = (i+1) & mask) {
+                long h = keys[2*i], l = keys[2*i+1];
+                if (h == 0 && l == 0) {
+                    keys[2*i] = hi;
+                    keys[2*i+1] = lo;
+                    ++size;
+                    return true;
+                } else if (h == hi && l == lo) {
+                    return false;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] old = keys;
+            keys = new long[old.length*2];
+            size = 0;
+            for (int i = 0; i < old.length; i += 2) {
+                if (old[i] != 0 || old[i+1] != 0)
+                    put(keys, old[i], old[i+1]);
+            }
+        }
+    }
+
+    /**
+     * Reads solutions from a {@link Run}, in fingerprint order.
+     */
+    private final class RunCursor extends Fingerprinted {
+        final @Nonnull Run run;
+        final @Nonnull SolutionReader reader;
+
+        RunCursor(@Nonnull Run run) throws IOException {
+            this.run = run;
+            this.pending = run.pending;
+            this.reader = new SolutionReader(FileChannel.open(run.file.toPath(), READ),
+                                             vars, blanks, BUFFER_SIZE);
+        }
+
+        boolean advance() {
+            if (!reader.hasNext())
+                return false;
+            fingerprint(solution = reader.next(), this);
+            return true;
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close run {}", run.file, e);
+            }
+            if (run.file.exists() && !run.file.delete())
+                logger.warn("Failed to delete run {}", run.file);
+        }
+    }
+
+    /**
+     * Merges runs, yielding solutions in fingerprint order.
+     */
+    private final class Merger {
+        final @Nonnull PriorityQueue<RunCursor> queue;
+        final @Nonnull List<RunCursor> cursors = new ArrayList<>();
+        final @Nonnull SolutionHashTable group = new SolutionHashTable(vars, 16);
+        final @Nonnull ArrayDeque<Solution> ready = new ArrayDeque<>();
+
+        Merger(@Nonnull List<Run> runs) throws IOException {
+            queue = new PriorityQueue<>(Math.max(runs.size(), 1), ORDER);
+            try {
+                for (Run run : runs) {
+                    RunCursor cursor = new RunCursor(run);
+                    cursors.add(cursor);
+                    if (cursor.advance())
+                        queue.add(cursor);
+                }
+            } catch (IOException|RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Removes the head of the merge. The returned cursor must be {@link #push(RunCursor)}ed
+         * back after its current solution is no longer needed.
+         */
+        @Nullable RunCursor poll() {
+            return queue.poll();
+        }
+
+        void push(@Nonnull RunCursor cursor) {
+            if (cursor.advance())
+                queue.add(cursor);
+        }
+
+        /**
+         * Get the next pending solution that is not equal to an output solution.
+         */
+        @Nullable Solution nextNovel() {
+            while (ready.isEmpty() && !queue.isEmpty()) {
+                RunCursor head = queue.peek();
+                long hi = head.hi, lo = head.lo;
+                group.clear();
+                while (head != null && head.hi == hi && head.lo == lo) {
+                    RunCursor cursor = queue.remove();
+                    if (!cursor.pending)
+                        group.add(cursor.solution);
+                    else if (group.addIfAbsent(cursor.solution))
+                        ready.add(cursor.solution);
+                    push(cursor);
+                    head = queue.peek();
+                }
+            }
+            return ready.poll();
+        }
+
+        void close() {
+            for (RunCursor cursor : cursors)
+                cursor.close();
+            cursors.clear();
+            queue.clear();
+        }
+    }
+
+    private static void fingerprint(@Nonnull Solution solution, @Nonnull List<String> vars,
+                                    @Nonnull Fingerprinted out) {
+        Hasher hasher = HASH.newHasher();
+        for (String var : vars) {
+            Term term = solution.get(var);
+            if (term == null) {
+                hasher.putByte((byte)0);
+            } else if (term.isURI()) {
+                String uri = term.asURI().getURI();
+                hasher.putByte((byte)1).putInt(uri.length()).putUnencodedChars(uri);
+            } else if (term.isLiteral()) {
+                String nt = term.asLiteral().toNT();
+                hasher.putByte((byte)2).putInt(nt.length()).putUnencodedChars(nt);
+            } else {
+                hasher.putByte((byte)3).putInt(term.hashCode());
+            }
+        }
+        HashCode code = hasher.hash();
+        byte[] bytes = code.asBytes();
+        out.hi = Longs.fromBytes(bytes[0], bytes[1], bytes[2], bytes[3],
+                                 bytes[4], bytes[5], bytes[6], bytes[7]);
+        out.lo = Longs.fromBytes(bytes[8], bytes[9], bytes[10], bytes[11],
+                                 bytes[12], bytes[13], bytes[14], bytes[15]);
+    }
+
+    private void fingerprint(@Nonnull Solution solution, @Nonnull Fingerprinted out) {
+        fingerprint(solution, vars, out);
+    }
+
+    private @Nonnull File createRunFile() throws IOException {
+        if (spillDir == null)
+            spillDir = Files.createTempDirectory(parentDir.toPath(), "freqel-distinct").toFile();
+        return new File(spillDir, (nextFileId++) + ".bin");
+    }
+
+    private @Nonnull SolutionWriter createWriter(@Nonnull File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING);
+        return new SolutionWriter(channel, vars, blanks,
+                                  SolutionWriter.DEFAULT_MAX_DICTIONARY_SIZE, BUFFER_SIZE);
+    }
+
+    private void addToBuffer(@Nonnull Solution solution, @Nonnull Fingerprinted f,
+                             boolean pending) throws IOException {
+        f.solution = solution;
+        f.pending = pending;
+        buffer.add(f);
+        bufferBytes += ResultsUtils.estimateBytes(solution, vars) + ENTRY_OVERHEAD;
+        if (bufferBytes > budgetBytes/4 && buffer.size() >= MIN_RUN_ROWS)
+            flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffer.isEmpty())
+            return;
+        buffer.sort(ORDER);
+        File outFile = null, pendingFile = null;
+        int outRows = 0, pendingRows = 0;
+        SolutionWriter out = null, pending = null;
+        try {
+            for (Fingerprinted f : buffer) {
+                if (f.pending) {
+                    if (pending == null)
+                        pending = createWriter(pendingFile = createRunFile());
+                    pending.write(f.solution);
+                    ++pendingRows;
+                } else {
+                    if (out == null)
+                        out = createWriter(outFile = createRunFile());
+                    out.write(f.solution);
+                    ++outRows;
+                }
+            }
+        } finally {
+            if (out != null) out.close();
+            if (pending != null) pending.close();
+        }
+        if (outFile != null)
+            addRun(new Run(outFile, false, outRows));
+        if (pendingFile != null)
+            addRun(new Run(pendingFile, true, pendingRows));
+        buffer.clear();
+        bufferBytes = 0;
+    }
+
+    private void addRun(@Nonnull Run run) throws IOException {
+        runs.add(run);
+        ++spilledRuns;
+        if (runs.size() > MAX_RUNS)
+            compact();
+    }
+
+    /**
+     * Merges the smallest half of the runs of one kind into a single run
+     */
+    private void compact() throws IOException {
+        long pendingRuns = runs.stream().filter(r -> r.pending).count();
+        boolean pending = pendingRuns > runs.size() - pendingRuns;
+        List<Run> selected = new ArrayList<>();
+        for (Run run : runs) {
+            if (run.pending == pending) selected.add(run);
+        }
+        selected.sort(Comparator.comparingInt(r -> r.rows));
+        selected = selected.subList(0, Math.max(2, selected.size()/2));
+        runs.removeAll(selected);
+
+        File file = createRunFile();
+        int rows = 0;
+        Merger merger = new Merger(selected);
+        try (SolutionWriter writer = createWriter(file)) {
+            for (RunCursor cursor; (cursor = merger.poll()) != null; merger.push(cursor)) {
+                writer.write(cursor.solution);
+                ++rows;
+            }
+        } finally {
+            merger.close();
+        }
+        runs.add(new Run(file, pending, rows));
+        ++spilledRuns;
+    }
+
+    /**
+     * Replaces the in-memory table with fingerprints and a run of its solutions.
+     */
+    private void startSpilling() throws IOException {
+        assert table != null;
+        logger.debug("{}: distinct solutions exceeded {} bytes, spilling to disk",
+                     this, budgetBytes);
+        fingerprints = new FingerprintSet(table.size());
+        for (Solution solution : table.toList()) {
+            Fingerprinted f = new Fingerprinted();
+            fingerprint(solution, f);
+            fingerprints.add(f.hi, f.lo);
+            f.solution = solution;
+            buffer.add(f);
+        }
+        table.clear();
+        table = null;
+        flushBuffer();
+        checkFingerprintsBudget();
+    }
+
+    private void checkFingerprintsBudget() {
+        assert fingerprints != null;
+        if (!frozen && fingerprints.getBytes() > budgetBytes*3/4) {
+            frozen = true;
+            logger.debug("{}: fingerprints exceeded {} bytes, all further solutions will be " +
+                         "checked only after the input is exhausted", this, budgetBytes*3/4);
+        }
+    }
+
+    /**
+     * Handles a solution from the input, returning it if it should be output now.
+     */
+    private @Nullable Solution accept(@Nonnull Solution solution) throws IOException {
+        if (table != null) {
+            if (!table.addIfAbsent(solution))
+                return null;
+            tableBytes += ResultsUtils.estimateBytes(solution, vars) + ENTRY_OVERHEAD;
+            if (tableBytes > budgetBytes)
+                startSpilling();
+            return solution;
+        }
+        assert fingerprints != null;
+        Fingerprinted f = new Fingerprinted();
+        fingerprint(solution, f);
+        boolean novel = !frozen && fingerprints.add(f.hi, f.lo);
+        if (novel)
+            checkFingerprintsBudget();
+        else
+            hasPending = true;
+        addToBuffer(solution, f, !novel);
+        return novel ? solution : null;
+    }
+
+    private void finishInput() throws IOException {
+        exhausted = true;
+        if (hasPending) {
+            flushBuffer();
+            while (runs.size() > MAX_RUNS)
+                compact();
+            merger = new Merger(runs);
+            runs.clear();
+        } else {
+            buffer.clear();
+            deleteRuns();
+        }
+        fingerprints = null;
+    }
+
+    private void deleteRuns() {
+        for (Run run : runs) {
+            if (run.file.exists() && !run.file.delete())
+                logger.warn("Failed to delete run {}", run.file);
+        }
+        runs.clear();
+    }
+
+    /* --- --- --- interface implementation --- --- --- */
+
+    @Override
+    public boolean isDistinct() {
+        return true;
+    }
+
+    @Override
+    public int getReadyCount() {
+        int count = next != null ? 1 : 0;
+        if (merger != null)
+            return count + merger.ready.size();
+        return count + (exhausted ? 0 : in.getReadyCount());
+    }
+
+    @Override
+    public boolean isReactive() {
+        return !exhausted && in.isReactive();
+    }
+
+    @Override
+    public @Nonnull Flux<Solution> flux() {
+        if (exhausted)
+            return ResultsUtils.iteratingFlux(this);
+        Flux<Solution> flux = in.flux().<Solution>handle((solution, sink) -> {
+            try {
+                Solution novel = accept(solution);
+                if (novel != null)
+                    sink.next(novel);
+            } catch (IOException e) {
+                sink.error(new UncheckedIOException(e));
+            }
+        }).concatWith(Flux.defer(() -> {
+            try {
+                finishInput();
+            } catch (IOException e) {
+                return Flux.error(new UncheckedIOException(e));
+            }
+            return Flux.<Solution>generate(sink -> {
+                if (hasNext()) sink.next(next());
+                else           sink.complete();
+            });
+        }));
+        if (next != null) {
+            Solution previous = next;
+            next = null;
+            flux = Flux.just(previous).concatWith(flux);
+        }
+        return flux.doFinally(s -> ResultsUtils.closeQuietly(this));
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null) {
+                if (merger != null) {
+                    next = merger.nextNovel();
+                    if (next == null) {
+                        merger.close();
+                        merger = null;
+                    }
+                    break;
+                } else if (exhausted) {
+                    break;
+                } else if (in.hasNext()) {
+                    next = accept(in.next());
+                } else {
+                    finishInput();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return next != null;
+    }
+
+    @Override
+    public @Nonnull Solution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Solution current = this.next;
+        this.next = null;
+        return current;
+    }
+
+    @Override
+    public void close() throws ResultsCloseException {
+        try {
+            if (merger != null) {
+                merger.close();
+                merger = null;
+            }
+            deleteRuns();
+            buffer.clear();
+            if (table != null)
+                table.clear();
+            fingerprints = null;
+            if (spillDir != null && !spillDir.delete()) // all runs were deleted
+                logger.warn("Failed to delete spill dir {}", spillDir);
+            spillDir = null;
+        } finally {
+            super.close();
+        }
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return String.format("SpillingDistinctResults@%x", System.identityHashCode(this));
+    }
+}
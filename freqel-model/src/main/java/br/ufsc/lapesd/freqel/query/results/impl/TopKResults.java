@@ -0,0 +1,127 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.query.modifiers.Limit;
+import br.ufsc.lapesd.freqel.query.modifiers.ModifiersSet;
+import br.ufsc.lapesd.freqel.query.modifiers.Offset;
+import br.ufsc.lapesd.freqel.query.modifiers.OrderBy;
+import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SortedResults;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Outputs the first k solutions of the input according to an {@link OrderBy}.
+ *
+ * The whole input is consumed on the first {@link #hasNext()} call, but at most k solutions
+ * are kept in memory, in a bounded max-heap. Ties are broken by arrival order.
+ */
+public class TopKResults extends DelegatingResults implements SortedResults {
+    private final @Nonnull OrderBy orderBy;
+    private final int k;
+    private @Nullable Iterator<Solution> sorted;
+
+    public TopKResults(@Nonnull Results in, @Nonnull OrderBy orderBy, int k) {
+        super(in.getVarNames(), in);
+        Preconditions.checkArgument(k > 0, "k must be positive");
+        this.orderBy = orderBy;
+        this.k = k;
+    }
+
+    /**
+     * Sorts in if modifiers have an {@link OrderBy} and in is not already sorted by it.
+     *
+     * If there is a {@link Limit}, only the first LIMIT+OFFSET solutions will be kept,
+     * else an {@link ExternalSortResults} is returned.
+     */
+    public static @Nonnull Results applyIf(@Nonnull Results in, @Nonnull ModifiersSet modifiers) {
+        OrderBy orderBy = modifiers.orderBy();
+        if (orderBy == null || SortedResults.isSortedBy(in, orderBy))
+            return in;
+        Limit limit = modifiers.limit();
+        if (limit == null)
+            return new ExternalSortResults(in, orderBy);
+        Offset offset = modifiers.offset();
+        long k = limit.getValue() + (offset == null ? 0L : offset.getValue());
+        return new TopKResults(in, orderBy, (int)Math.min(k, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public @Nonnull OrderBy getOrderBy() {
+        return orderBy;
+    }
+
+    /* --- --- --- internals --- --- --- */
+
+    private static final class Entry {
+        final @Nonnull Solution solution;
+        final long seq;
+
+        Entry(@Nonnull Solution solution, long seq) {
+            this.solution = solution;
+            this.seq = seq;
+        }
+    }
+
+    private @Nonnull Iterator<Solution> sort() {
+        Comparator<Solution> solutionOrder = orderBy.comparator();
+        Comparator<Entry> order = (l, r) -> {
+            int diff = solutionOrder.compare(l.solution, r.solution);
+            return diff != 0 ? diff : Long.compare(l.seq, r.seq);
+        };
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.min(k, 1024), order.reversed());
+        long seq = 0;
+        while (in.hasNext()) {
+            Entry entry = new Entry(in.next(), seq++);
+            if (heap.size() < k) {
+                heap.add(entry);
+            } else if (order.compare(entry, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        ArrayList<Solution> list = new ArrayList<>(heap.size());
+        Entry[] entries = heap.toArray(new Entry[0]);
+        Arrays.sort(entries, order);
+        for (Entry entry : entries)
+            list.add(entry.solution);
+        return list.iterator();
+    }
+
+    /* --- --- --- interface implementation --- --- --- */
+
+    @Override
+    public int getReadyCount() {
+        return sorted != null && sorted.hasNext() ? 1 : 0;
+    }
+
+    @Override
+    public int getLimit() {
+        int inLimit = in.getLimit();
+        return inLimit < 0 ? k : Math.min(k, inLimit);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (sorted == null)
+            sorted = sort();
+        return sorted.hasNext();
+    }
+
+    @Override
+    public @Nonnull Solution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        assert sorted != null;
+        return sorted.next();
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return String.format("TopKResults(%d, %s, %s)", k, orderBy, in);
+    }
+}
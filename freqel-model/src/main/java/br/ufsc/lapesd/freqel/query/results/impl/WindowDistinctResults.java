@@ -13,6 +13,12 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.NoSuchElementException;
 
+/**
+ * An approximate DISTINCT that only remembers the last windowSize distinct solutions.
+ *
+ * Duplicates older than the window are output again. Use {@link SpillingDistinctResults}
+ * for an exact DISTINCT with bounded memory.
+ */
 public class WindowDistinctResults extends DelegatingResults {
     private static final Logger logger = LoggerFactory.getLogger(WindowDistinctResults.class);
     private static final int DEF_WINDOW_SIZE = 250000; // >= 20MiB, depends on solution contents
@@ -0,0 +1,94 @@
+package br.ufsc.lapesd.freqel.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (JDK 21+) from code compiled for Java 8.
+ *
+ * All methods return null (or false) if the running JVM does not support virtual threads,
+ * letting callers fall back to platform thread pools.
+ */
+public class VirtualThreads {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static class Holder {
+        private static final @Nullable Method ofVirtual, name, factory, newPerTaskExecutor;
+
+        static {
+            Method ofVirtualM = null, nameM = null, factoryM = null, perTaskM = null;
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                ofVirtualM = Thread.class.getMethod("ofVirtual");
+                nameM = builderClass.getMethod("name", String.class, long.class);
+                factoryM = builderClass.getMethod("factory");
+                perTaskM = Executors.class.getMethod("newThreadPerTaskExecutor",
+                                                     ThreadFactory.class);
+                factoryM.invoke(ofVirtualM.invoke(null)); // throws if preview is disabled
+            } catch (ClassNotFoundException | NoSuchMethodException e) {
+                ofVirtualM = null;
+                logger.debug("Virtual threads not available on Java {}",
+                             System.getProperty("java.version"));
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                ofVirtualM = null;
+                logger.debug("Virtual threads not usable on Java {}",
+                             System.getProperty("java.version"), e);
+            }
+            ofVirtual = ofVirtualM;
+            name = nameM;
+            factory = factoryM;
+            newPerTaskExecutor = perTaskM;
+        }
+    }
+
+    /**
+     * Whether the running JVM can create virtual threads.
+     */
+    public static boolean isSupported() {
+        return Holder.ofVirtual != null;
+    }
+
+    /**
+     * Get a {@link ThreadFactory} of virtual threads named namePrefix followed by a counter.
+     *
+     * @return the factory or null if virtual threads are not supported
+     */
+    public static @Nullable ThreadFactory factory(@Nonnull String namePrefix) {
+        if (!isSupported())
+            return null;
+        try {
+            Object builder = Holder.ofVirtual.invoke(null);
+            builder = Holder.name.invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) Holder.factory.invoke(builder);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            logger.error("Failed to create virtual ThreadFactory, assuming unsupported", e);
+            return null;
+        }
+    }
+
+    /**
+     * Get an {@link ExecutorService} that starts a new virtual thread for each task.
+     *
+     * @param namePrefix prefix of the name of the threads, followed by a counter
+     * @return the {@link ExecutorService} or null if virtual threads are not supported
+     */
+    public static @Nullable ExecutorService newPerTaskExecutor(@Nonnull String namePrefix) {
+        ThreadFactory threadFactory = factory(namePrefix);
+        if (threadFactory == null)
+            return null;
+        try {
+            return (ExecutorService) Holder.newPerTaskExecutor.invoke(null, threadFactory);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            logger.error("Failed to create virtual thread-per-task executor", e);
+            return null;
+        }
+    }
+}
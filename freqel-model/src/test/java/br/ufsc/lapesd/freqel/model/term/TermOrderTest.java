@@ -0,0 +1,73 @@
+package br.ufsc.lapesd.freqel.model.term;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.V;
+import br.ufsc.lapesd.freqel.model.term.std.StdBlank;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = {"fast"})
+public class TermOrderTest implements TestContext {
+    private static final TermOrder order = TermOrder.INSTANCE;
+
+    @Test
+    public void testKindOrder() {
+        Term blank = new StdBlank("b1");
+        Term uri = new StdURI("http://example.org/a");
+        Term lit = StdLit.fromUnescaped("a");
+        List<Term> expected = asList(null, blank, uri, lit);
+        List<Term> actual = new ArrayList<>(asList(lit, uri, null, blank));
+        actual.sort(order);
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testNumericByValue() {
+        Term two = StdLit.fromUnescaped("2", V.XSD.xint);
+        Term ten = StdLit.fromUnescaped("10", V.XSD.integer);
+        Term half = StdLit.fromUnescaped("0.5", V.XSD.decimal);
+        Term big = StdLit.fromUnescaped("1.5e3", V.XSD.xdouble);
+        List<Term> actual = new ArrayList<>(asList(big, ten, two, half));
+        actual.sort(order);
+        assertEquals(actual, asList(half, two, ten, big));
+    }
+
+    @Test
+    public void testOnlyEqualTermsAreEqual() {
+        Term intOne = StdLit.fromUnescaped("1", V.XSD.xint);
+        Term integerOne = StdLit.fromUnescaped("1", V.XSD.integer);
+        Term plain = StdLit.fromUnescaped("1");
+        Term lang = StdLit.fromUnescaped("1", "en");
+        List<Term> terms = asList(intOne, integerOne, plain, lang);
+        for (Term l : terms) {
+            for (Term r : terms) {
+                int diff = order.compare(l, r);
+                assertEquals(diff == 0, l.equals(r), l+" vs "+r);
+                assertEquals(Integer.signum(diff), -Integer.signum(order.compare(r, l)));
+            }
+        }
+    }
+
+    @Test
+    public void testURIsByString() {
+        List<Term> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            expected.add(new StdURI(String.format("http://example.org/%03d", i)));
+        List<Term> actual = new ArrayList<>(expected);
+        Collections.shuffle(actual, new Random(79));
+        actual.sort(order);
+        assertEquals(actual, expected);
+        assertTrue(order.compare(new StdURI("http://example.org/B"),
+                                 new StdURI("http://example.org/a")) < 0);
+    }
+}
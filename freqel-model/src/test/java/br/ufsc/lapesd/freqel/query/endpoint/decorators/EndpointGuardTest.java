@@ -0,0 +1,320 @@
+package br.ufsc.lapesd.freqel.query.endpoint.decorators;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.model.Triple;
+import br.ufsc.lapesd.freqel.query.CQuery;
+import br.ufsc.lapesd.freqel.query.endpoint.CQEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.EndpointRejectedException;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.HTTPStatusException;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.EmptyEndpoint;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.ChunkedResultsExecutor;
+import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
+import br.ufsc.lapesd.freqel.query.results.impl.QueueResults;
+import com.google.common.base.Ticker;
+import org.testng.annotations.Test;
+import reactor.core.publisher.Flux;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static br.ufsc.lapesd.freqel.query.endpoint.decorators.CircuitBreaker.Outcome.*;
+import static br.ufsc.lapesd.freqel.query.endpoint.decorators.CircuitBreaker.State.*;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class EndpointGuardTest implements TestContext {
+    private static final @Nonnull CQuery QUERY = CQuery.from(new Triple(Alice, knows, x));
+
+    private static class ManualTicker extends Ticker {
+        final @Nonnull AtomicLong nanos = new AtomicLong(0);
+
+        @Override public long read() {
+            return nanos.get();
+        }
+
+        void advance(long ms) {
+            nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+        }
+    }
+
+    private static class FailingEndpoint extends EmptyEndpoint {
+        volatile boolean fail = true;
+        final @Nonnull AtomicLong queries = new AtomicLong();
+
+        @Override public @Nonnull Results query(@Nonnull CQuery query) {
+            queries.incrementAndGet();
+            if (fail)
+                throw new QueryExecutionException("endpoint is down");
+            return super.query(query);
+        }
+    }
+
+    /**
+     * Answers with two solutions or with error, through a reactive {@link QueueResults}.
+     */
+    private static class ReactiveEndpoint extends EmptyEndpoint {
+        volatile @Nullable RuntimeException error;
+
+        @Override public @Nonnull Results query(@Nonnull CQuery query) {
+            QueueResults results = new QueueResults(singleton("x"), new LinkedBlockingQueue<>());
+            Runnable notifier = results.getEnqueueNotifier();
+            @SuppressWarnings("unchecked") BlockingQueue<Solution> queue
+                    = (BlockingQueue<Solution>) results.getQueue();
+            RuntimeException error = this.error;
+            if (error == null) {
+                queue.add(MapSolution.build(x, Bob));
+                queue.add(MapSolution.build(x, Bob));
+            } else {
+                results.fail(error);
+            }
+            queue.add(results.getEndSolution());
+            notifier.run();
+            return results;
+        }
+    }
+
+    private static void fill(@Nonnull AdaptiveConcurrencyLimit limit) throws Exception {
+        while (limit.getInFlight() < limit.getLimit())
+            assertTrue(limit.acquire(0, MILLISECONDS));
+    }
+
+    @Test
+    public void testLimitGrowsWhileLatencyIsStable() throws Exception {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 16, 0);
+        for (int i = 0; i < 64; i++) {
+            fill(limit);
+            limit.release(MILLISECONDS.toNanos(10), false);
+        }
+        assertEquals(limit.getLimit(), 16);
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyGrows() throws Exception {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(16, 2, 16, 0);
+        fill(limit);
+        limit.release(MILLISECONDS.toNanos(10), false);
+        for (int i = 0; i < 64; i++) {
+            fill(limit);
+            limit.release(MILLISECONDS.toNanos(100), false);
+        }
+        // shrinks until at most BETA requests are estimated to be queued at the endpoint
+        assertEquals(limit.getLimit(), 6);
+        assertTrue(6 * (1 - 10 / 100.0) <= AdaptiveConcurrencyLimit.BETA);
+    }
+
+    @Test
+    public void testFailureHalvesLimit() throws Exception {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(16, 2, 16, 0);
+        fill(limit);
+        limit.release(-1, true);
+        assertEquals(limit.getLimit(), 8);
+        limit.release(-1, true);
+        limit.release(-1, true);
+        limit.release(-1, true);
+        assertEquals(limit.getLimit(), 2);
+        assertEquals(limit.getDropped(), 4);
+    }
+
+    @Test
+    public void testQueueDeadline() throws Exception {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 1, 1);
+        assertTrue(limit.acquire(0, MILLISECONDS));
+        assertFalse(limit.acquire(20, MILLISECONDS));
+        assertEquals(limit.getRejected(), 1);
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<Boolean> waiting = executor.submit(() -> limit.acquire(10, TimeUnit.SECONDS));
+            while (limit.getQueued() == 0)
+                Thread.yield();
+            assertFalse(limit.acquire(0, MILLISECONDS)); // maxQueued=1
+            assertEquals(limit.getRejected(), 2);
+
+            limit.release(MILLISECONDS.toNanos(1), false);
+            assertTrue(waiting.get());
+            assertEquals(limit.getInFlight(), 1);
+            assertEquals(limit.getQueued(), 0);
+        } finally {
+            executor.shutdownNow();
+            assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testBreaker() {
+        ManualTicker ticker = new ManualTicker();
+        CircuitBreaker breaker = new CircuitBreaker(2, 100, MILLISECONDS, ticker);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(breaker.release(FAILURE), CLOSED);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(breaker.release(SUCCESS), CLOSED);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(breaker.release(FAILURE), CLOSED);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(breaker.release(FAILURE), OPEN);
+
+        assertFalse(breaker.tryAcquire());
+        ticker.advance(99);
+        assertFalse(breaker.tryAcquire());
+        ticker.advance(1);
+        assertTrue(breaker.tryAcquire()); // probe
+        assertEquals(breaker.getState(), HALF_OPEN);
+        assertFalse(breaker.tryAcquire()); // only one probe at a time
+        assertEquals(breaker.release(FAILURE), OPEN);
+        assertFalse(breaker.tryAcquire());
+
+        ticker.advance(100);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(breaker.release(ABANDONED), HALF_OPEN);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(breaker.release(SUCCESS), CLOSED);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(breaker.getShortCircuited(), 4);
+        assertEquals(breaker.getOpened(), 2);
+    }
+
+    @Test
+    public void testPermitReleasedWhenAnswered() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 1, 8);
+        EndpointGuard guard = new EndpointGuard(limit, null, 10, MILLISECONDS);
+        FailingEndpoint counting = new FailingEndpoint();
+        counting.fail = false;
+        CQEndpoint ep = EndpointDecorators.guarded(counting, guard);
+        assertTrue(ep instanceof GuardedCQEndpoint);
+
+        Results first = ep.query(QUERY);
+        assertEquals(guard.getInFlight(), 1);
+        Results second = ep.query(QUERY); // does not block nor reject
+        assertEquals(counting.queries.get(), 1);
+        assertEquals(second.getVarNames(), singleton("x"));
+        expectThrows(EndpointRejectedException.class, second::hasNext);
+        expectThrows(EndpointRejectedException.class, second::hasNext); // does not end
+        assertEquals(guard.getRejected(), 1);
+        assertEquals(counting.queries.get(), 1);
+        second.close();
+
+        assertFalse(first.hasNext()); // the answer releases the permit
+        assertEquals(guard.getInFlight(), 0);
+        first.close();
+        assertEquals(guard.getInFlight(), 0);
+
+        try (Results third = ep.query(QUERY);
+             Results fourth = ep.query(QUERY)) {
+            assertEquals(guard.getInFlight(), 1);
+            assertEquals(counting.queries.get(), 2);
+            assertFalse(third.hasNext());
+            assertFalse(fourth.hasNext()); // sent only now
+            assertEquals(counting.queries.get(), 3);
+        }
+        try (Results fifth = ep.query(QUERY)) {
+            assertEquals(guard.getInFlight(), 1);
+        }
+        assertEquals(guard.getInFlight(), 0); // closing also releases
+        assertEquals(guard.getRejected(), 1);
+    }
+
+    @Test
+    public void testRejectionFailsParallelConsumer() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 1, 8);
+        EndpointGuard guard = new EndpointGuard(limit, null, 10, MILLISECONDS);
+        CQEndpoint ep = EndpointDecorators.guarded(new EmptyEndpoint(), guard);
+        ChunkedResultsExecutor executor = new ChunkedResultsExecutor();
+        try (Results holder = ep.query(QUERY);
+             Results union = executor.async(asList(ep.query(QUERY), ep.query(QUERY)),
+                                          singleton("x"))) {
+            expectThrows(EndpointRejectedException.class, union::hasNext);
+            assertEquals(guard.getInFlight(), 1);
+            assertFalse(holder.hasNext());
+        } finally {
+            executor.close();
+        }
+        assertEquals(guard.getInFlight(), 0);
+    }
+
+    @Test
+    public void testServerErrorsAreFailures() {
+        ManualTicker ticker = new ManualTicker();
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000, MILLISECONDS, ticker);
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(16, 2, 16, 0);
+        EndpointGuard guard = new EndpointGuard(limit, breaker, 10, MILLISECONDS, ticker);
+        ReactiveEndpoint reactive = new ReactiveEndpoint();
+        CQEndpoint ep = EndpointDecorators.guarded(reactive, guard);
+
+        reactive.error = new HTTPStatusException(400, "bad query");
+        try (Results results = ep.query(QUERY)) {
+            expectThrows(HTTPStatusException.class, results::hasNext);
+        }
+        assertEquals(guard.getState(), CLOSED); // the endpoint is healthy
+        assertEquals(limit.getLimit(), 16);
+        assertEquals(limit.getDropped(), 0);
+
+        reactive.error = new HTTPStatusException(503, "overloaded");
+        try (Results results = ep.query(QUERY)) {
+            expectThrows(HTTPStatusException.class, results::hasNext);
+        }
+        assertEquals(guard.getState(), OPEN);
+        assertEquals(limit.getLimit(), 8);
+        assertEquals(limit.getDropped(), 1);
+        assertEquals(guard.getInFlight(), 0);
+    }
+
+    @Test
+    public void testFluxIsDelegated() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(16, 2, 16, 0);
+        EndpointGuard guard = new EndpointGuard(limit, null, 10, MILLISECONDS);
+        ReactiveEndpoint reactive = new ReactiveEndpoint();
+        CQEndpoint ep = EndpointDecorators.guarded(reactive, guard);
+
+        Results results = ep.query(QUERY);
+        assertTrue(results.isReactive());
+        assertEquals(guard.getInFlight(), 1);
+        List<Solution> list = results.flux().collectList().block();
+        assertEquals(list, asList(MapSolution.build(x, Bob), MapSolution.build(x, Bob)));
+        assertEquals(guard.getInFlight(), 0);
+
+        reactive.error = new HTTPStatusException(503, "overloaded");
+        Flux<Solution> failing = ep.query(QUERY).flux();
+        assertEquals(guard.getInFlight(), 1);
+        expectThrows(HTTPStatusException.class, failing::blockLast);
+        assertEquals(guard.getInFlight(), 0);
+        assertEquals(limit.getDropped(), 1);
+    }
+
+    @Test
+    public void testShortCircuitFailingEndpoint() {
+        ManualTicker ticker = new ManualTicker();
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000, MILLISECONDS, ticker);
+        EndpointGuard guard = new EndpointGuard(new AdaptiveConcurrencyLimit(), breaker,
+                                                10, MILLISECONDS, ticker);
+        FailingEndpoint failing = new FailingEndpoint();
+        CQEndpoint ep = EndpointDecorators.guarded(failing, guard);
+        for (int i = 0; i < 3; i++)
+            expectThrows(QueryExecutionException.class, () -> ep.query(QUERY));
+        assertEquals(guard.getState(), OPEN);
+        assertEquals(guard.getInFlight(), 0);
+
+        EndpointRejectedException e = expectThrows(EndpointRejectedException.class,
+                                                   () -> ep.query(QUERY));
+        assertTrue(e.isShortCircuited());
+        assertSame(e.getEndpoint(), ep);
+        assertEquals(failing.queries.get(), 3);
+        assertEquals(guard.getShortCircuited(), 1);
+
+        failing.fail = false;
+        ticker.advance(1000);
+        try (Results results = ep.query(QUERY)) {
+            assertFalse(results.hasNext());
+        }
+        assertEquals(guard.getState(), CLOSED);
+        assertEquals(failing.queries.get(), 4);
+    }
+}
@@ -6,14 +6,18 @@ import br.ufsc.lapesd.freqel.model.term.std.StdURI;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.Solution;
 import br.ufsc.lapesd.freqel.query.results.impl.*;
+import org.apache.commons.io.FileUtils;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
+import reactor.core.publisher.Flux;
 
 import javax.annotation.Nonnull;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
 import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static com.google.common.collect.Sets.newHashSet;
 import static java.util.Arrays.asList;
@@ -23,11 +27,16 @@ import static org.testng.Assert.*;
 
 @Test(groups = {"fast"})
 public class DistinctResultsTest {
+    private static final File TEMP_DIR = new File(System.getProperty("java.io.tmpdir"));
     private static final List<NamedFunction<Results, Results>> factories = asList(
             new NamedFunction<>("HashDistinctResults",
                                 HashDistinctResults::applyIfNotDistinct),
             new NamedFunction<>("WindowDistinctResults",
-                                WindowDistinctResults::applyIfNotDistinct)
+                                WindowDistinctResults::applyIfNotDistinct),
+            new NamedFunction<>("SpillingDistinctResults",
+                                SpillingDistinctResults::applyIfNotDistinct),
+            new NamedFunction<>("SpillingDistinctResults with 1-byte budget",
+                                r -> new SpillingDistinctResults(r, TEMP_DIR, 1))
     );
 
     private static @Nonnull StdURI ex(int local) {
@@ -103,4 +112,66 @@ public class DistinctResultsTest {
         CollectionResults in = new CollectionResults(list, singleton("x"));
         ResultsAssert.assertExpectedResults(factory.apply(in), expected);
     }
-}
\ No newline at end of file
+
+    @DataProvider
+    public static @Nonnull Object[][] spillData() {
+        return Stream.of(16*1024L, 256*1024L, 4*1024*1024L)
+                .flatMap(b -> Stream.of(1, 2, 5).map(r -> new Object[]{b, r}))
+                .toArray(Object[][]::new);
+    }
+
+    @Test(dataProvider = "spillData")
+    public void testSpillIsExact(long budgetBytes, int repetitions) throws IOException {
+        ArraySolution.ValueFactory solFac = ArraySolution.forVars(asList("x", "y"));
+        List<Solution> list = new ArrayList<>(), expected = new ArrayList<>();
+        for (int i = 0; i < 20000; i++)
+            expected.add(solFac.fromValues(ex(i), ex(i % 7)));
+        for (int r = 0; r < repetitions; r++)
+            list.addAll(expected);
+        Collections.shuffle(list, new Random(budgetBytes + repetitions));
+
+        File dir = Files.createTempDirectory("freqel-test").toFile();
+        try {
+            CollectionResults in = new CollectionResults(list, asList("x", "y"));
+            SpillingDistinctResults distinct = new SpillingDistinctResults(in, dir, budgetBytes);
+            List<Solution> actual = new ArrayList<>();
+            distinct.forEachRemainingThenClose(actual::add);
+            assertEquals(actual.size(), expected.size());
+            ResultsAssert.assertExpectedResults(actual, expected);
+            if (budgetBytes < 4*1024*1024)
+                assertTrue(distinct.getSpilledRuns() > 0);
+            assertEquals(Objects.requireNonNull(dir.list()).length, 0);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test(dataProvider = "spillData")
+    public void testSpillFluxIsReactiveAndExact(long budgetBytes,
+                                                int repetitions) throws IOException {
+        ArraySolution.ValueFactory solFac = ArraySolution.forVars(asList("x", "y"));
+        List<Solution> list = new ArrayList<>(), expected = new ArrayList<>();
+        for (int i = 0; i < 20000; i++)
+            expected.add(solFac.fromValues(ex(i), ex(i % 7)));
+        for (int r = 0; r < repetitions; r++)
+            list.addAll(expected);
+        Collections.shuffle(list, new Random(budgetBytes + repetitions));
+
+        File dir = Files.createTempDirectory("freqel-test").toFile();
+        try {
+            FluxResults in = new FluxResults(Flux.fromIterable(list), asList("x", "y"));
+            assertTrue(in.isReactive());
+            SpillingDistinctResults distinct = new SpillingDistinctResults(in, dir, budgetBytes);
+            assertTrue(distinct.isReactive());
+            List<Solution> actual = distinct.flux().collectList().block();
+            assertNotNull(actual);
+            assertEquals(actual.size(), expected.size());
+            ResultsAssert.assertExpectedResults(actual, expected);
+            if (budgetBytes < 4*1024*1024)
+                assertTrue(distinct.getSpilledRuns() > 0);
+            assertEquals(Objects.requireNonNull(dir.list()).length, 0);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import br.ufsc.lapesd.freqel.TestContext;
 import br.ufsc.lapesd.freqel.util.NamedSupplier;
 import br.ufsc.lapesd.freqel.model.term.Term;
 import br.ufsc.lapesd.freqel.query.results.impl.BufferedResultsExecutor;
+import br.ufsc.lapesd.freqel.query.results.impl.ChunkedResultsExecutor;
 import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
 import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
 import br.ufsc.lapesd.freqel.query.results.impl.SequentialResultsExecutor;
@@ -25,14 +26,19 @@ import static org.testng.Assert.*;
 
 public class ResultsExecutorTest implements TestContext {
     private static final List<Class<? extends ResultsExecutor>> classes
-            = asList(BufferedResultsExecutor.class, SequentialResultsExecutor.class);
+            = asList(BufferedResultsExecutor.class, ChunkedResultsExecutor.class,
+                     SequentialResultsExecutor.class);
 
     private static final List<NamedSupplier<? extends ResultsExecutor>> suppliers =
             Arrays.asList(
                     new NamedSupplier<>("BufferedAsyncResultsExecutor+singleThread",
                             () -> new BufferedResultsExecutor(Executors.newSingleThreadExecutor(), 2)),
                     new NamedSupplier<>("BufferedAsyncResultsExecutor+singleThread",
-                            () -> new BufferedResultsExecutor(Executors.newSingleThreadExecutor(), 1))
+                            () -> new BufferedResultsExecutor(Executors.newSingleThreadExecutor(), 1)),
+                    new NamedSupplier<>("ChunkedResultsExecutor+singleThread",
+                            () -> new ChunkedResultsExecutor(Executors.newSingleThreadExecutor(), 1)),
+                    new NamedSupplier<>("ChunkedResultsExecutor+singleThread(8)",
+                            () -> new ChunkedResultsExecutor(Executors.newSingleThreadExecutor(), 8))
             );
 
     @DataProvider
@@ -167,6 +173,29 @@ public class ResultsExecutorTest implements TestContext {
         assertEquals(actual, expected(columns, rows));
     }
 
+    @Test(dataProvider = "inputData")
+    public void testConsumeByBatch(Supplier<ResultsExecutor> supplier,
+                                   int columns, int rows) {
+        ResultsExecutor executor = supplier.get();
+        List<MockResults> inputs = generateInput(generateInputLists(columns, rows));
+        BitSet actual = new BitSet(columns);
+
+        int count = 0;
+        try (Results results = executor.async(inputs, null)) {
+            SolutionBlock block = new SolutionBlock(results.getVarNames(), 7);
+            for (int n; (n = results.nextBatch(block, 7)) > 0; block.clear()) {
+                assertEquals(block.size(), n);
+                for (int i = 0; i < n; i++)
+                    store(actual, block.viewRow(i));
+                count += n;
+            }
+        }
+
+        assertTrue(inputs.stream().allMatch(MockResults::isClosed));
+        assertEquals(count, columns * rows);
+        assertEquals(actual, expected(columns, rows));
+    }
+
     @Test(dataProvider = "suppliersData")
     public void testConsumeProjecting(Supplier<ResultsExecutor> supplier) {
         ResultsExecutor executor = supplier.get();
@@ -281,4 +310,34 @@ public class ResultsExecutorTest implements TestContext {
         outer.shutdown();
         assertTrue(outer.awaitTermination(1, SECONDS));
     }
-}
\ No newline at end of file
+
+    @Test(dataProvider = "suppliersData", groups = {"fast"}, timeOut = 10000)
+    public void testInputFailureIsThrown(Supplier<ResultsExecutor> supplier) {
+        ResultsExecutor executor = supplier.get();
+        MockResults ok = new MockResults(singletonList(MapSolution.build(x, lit(1))),
+                                         singleton("x"), "ok");
+        MockResults failing = new MockResults(asList(MapSolution.build(x, lit(2)),
+                                                     MapSolution.build(x, lit(3))),
+                                              singleton("x"), "failing") {
+            private int consumed = 0;
+            @Override public boolean hasNext() {
+                if (consumed > 0)
+                    throw new IllegalStateException("injected failure");
+                return super.hasNext();
+            }
+            @Override public @Nonnull Solution next() {
+                ++consumed;
+                return super.next();
+            }
+        };
+        List<MockResults> inputs = asList(ok, failing);
+        Set<Solution> actual = new HashSet<>();
+        try (Results results = executor.async(inputs, null)) {
+            // a failed input must not pass as an exhausted one
+            expectThrows(IllegalStateException.class, () -> results.forEachRemaining(actual::add));
+        }
+        assertTrue(inputs.stream().allMatch(MockResults::isClosed));
+        assertTrue(actual.contains(MapSolution.build(x, lit(2))));
+        assertFalse(actual.contains(MapSolution.build(x, lit(3))));
+    }
+}
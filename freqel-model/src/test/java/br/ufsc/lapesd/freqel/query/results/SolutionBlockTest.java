@@ -0,0 +1,213 @@
+package br.ufsc.lapesd.freqel.query.results;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.query.results.impl.*;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class SolutionBlockTest implements TestContext {
+
+    private static @Nonnull List<Solution> drainByBatch(@Nonnull Results results, int max) {
+        List<Solution> list = new ArrayList<>();
+        SolutionBlock block = new SolutionBlock(results.getVarNames(), max);
+        try (Results r = results) {
+            for (int n; (n = r.nextBatch(block, max)) > 0; block.clear()) {
+                assertEquals(block.size(), n);
+                for (int i = 0; i < n; i++)
+                    list.add(block.getSolution(i));
+            }
+        }
+        return list;
+    }
+
+    private static @Nonnull List<Solution> drainByRow(@Nonnull Results results) {
+        List<Solution> list = new ArrayList<>();
+        results.forEachRemainingThenClose(list::add);
+        return list;
+    }
+
+    private @Nonnull List<Solution> xyRows(int count, int distinct) {
+        ArraySolution.ValueFactory fac = ArraySolution.forVars(asList("x", "y"));
+        List<Solution> list = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            list.add(fac.fromValues(integer(i % distinct), integer(-(i % distinct))));
+        return list;
+    }
+
+    @Test
+    public void testAddAndGet() {
+        SolutionBlock block = new SolutionBlock(asList("x", "y"), 4);
+        assertTrue(block.isEmpty());
+        block.add(MapSolution.builder().put(x, integer(1)).put(y, integer(2)).build());
+        block.add(ArraySolution.forVars(asList("y", "z")).fromValues(integer(3), integer(4)));
+        block.add(MapSolution.build(z, integer(5)));
+        assertEquals(block.size(), 3);
+        assertEquals(block.remaining(), 1);
+        assertEquals(block.get(0, 0), integer(1));
+        assertEquals(block.get(0, 1), integer(2));
+        assertNull(block.get(1, 0));
+        assertEquals(block.get(1, 1), integer(3));
+        assertNull(block.get(2, 0));
+        assertNull(block.get(2, 1));
+
+        assertEquals(block.getSolution(0),
+                     MapSolution.builder().put(x, integer(1)).put(y, integer(2)).build());
+        assertEquals(block.getSolution(1), MapSolution.build(y, integer(3)));
+        assertSame(block.getSolution(0).getVarNames(), block.getVarNames());
+
+        block.add(MapSolution.build(x, integer(6)));
+        assertTrue(block.isFull());
+        expectThrows(IllegalStateException.class, () -> block.add(MapSolution.build(x, integer(7))));
+
+        block.truncate(1);
+        assertEquals(block.size(), 1);
+        expectThrows(IndexOutOfBoundsException.class, () -> block.get(1, 0));
+        block.clear();
+        assertTrue(block.isEmpty());
+        assertNull(block.getColumn(0)[0]);
+    }
+
+    @Test
+    public void testAddAllAndAddRowMapByName() {
+        SolutionBlock source = new SolutionBlock(asList("z", "x", "y"), 8);
+        ArraySolution.ValueFactory fac = ArraySolution.forVars(asList("z", "x", "y"));
+        for (int i = 0; i < 5; i++)
+            source.add(fac.fromValues(integer(100+i), integer(i), integer(-i)));
+
+        SolutionBlock dest = new SolutionBlock(asList("x", "w"), 4);
+        assertEquals(dest.addAll(source), 4);
+        assertTrue(dest.isFull());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(dest.get(i, 0), integer(i));
+            assertNull(dest.get(i, 1));
+        }
+
+        dest.clear();
+        dest.addRow(source, 4);
+        dest.addRow(source, 0);
+        assertEquals(dest.getSolution(0), MapSolution.build(x, integer(4)));
+        assertEquals(dest.getSolution(1), MapSolution.build(x, integer(0)));
+    }
+
+    @Test
+    public void testViewRow() {
+        SolutionBlock block = new SolutionBlock(asList("x", "y"), 4);
+        block.add(MapSolution.builder().put(x, integer(1)).put(y, integer(2)).build());
+        block.add(MapSolution.build(x, integer(3)));
+        Solution view = block.viewRow(0);
+        assertEquals(view, block.getSolution(0));
+        assertEquals(view.hashCode(), block.getSolution(0).hashCode());
+        assertSame(block.viewRow(1), view);
+        assertEquals(view, MapSolution.build(x, integer(3)));
+        assertEquals(view.hashCode(), MapSolution.build(x, integer(3)).hashCode());
+        assertNull(view.get(y));
+        assertNull(view.get("z"));
+    }
+
+    @Test
+    public void testReuse() {
+        SolutionBlock block = SolutionBlock.reuse(null, asList("x", "y"), 8);
+        assertEquals(block.capacity(), SolutionBlock.DEFAULT_CAPACITY);
+        block.add(MapSolution.build(x, integer(1)));
+        SolutionBlock same = SolutionBlock.reuse(block, asList("y", "x"), 16);
+        assertSame(same, block);
+        assertTrue(same.isEmpty());
+        assertNotSame(SolutionBlock.reuse(block, singletonList("x"), 16), block);
+        assertNotSame(SolutionBlock.reuse(block, asList("x", "y"), 1024), block);
+    }
+
+    @DataProvider
+    public static Object[][] pipelineData() {
+        List<Function<Results, Results>> pipelines = asList(
+                r -> r,
+                r -> new ProjectingResults(r, Collections.singleton("x")),
+                r -> new LimitResults(r, 7),
+                r -> new LimitResults(r, 1000),
+                HashDistinctResults::new,
+                r -> new LimitResults(new HashDistinctResults(r), 9),
+                r -> new HashDistinctResults(new ProjectingResults(r, Collections.singleton("y"))),
+                r -> new LimitResults(new ProjectingResults(new HashDistinctResults(r),
+                                                            Collections.singleton("x")), 5)
+        );
+        List<Object[]> rows = new ArrayList<>();
+        for (Function<Results, Results> pipeline : pipelines) {
+            for (int max : asList(1, 3, 256))
+                rows.add(new Object[] {pipeline, max});
+        }
+        return rows.toArray(new Object[0][]);
+    }
+
+    @Test(dataProvider = "pipelineData")
+    public void testBatchSameAsByRow(@Nonnull Function<Results, Results> pipeline, int max) {
+        List<Solution> input = xyRows(600, 13);
+        Set<String> vars = new HashSet<>(asList("x", "y"));
+        List<Solution> expected = drainByRow(pipeline.apply(
+                new IteratorResults(input.iterator(), vars)));
+        assertEquals(drainByBatch(pipeline.apply(new CollectionResults(input, vars)), max),
+                     expected);
+        assertEquals(drainByBatch(pipeline.apply(new IteratorResults(input.iterator(), vars)), max),
+                     expected);
+    }
+
+    @Test
+    public void testInterleaveBatchAndRows() {
+        List<Solution> input = xyRows(40, 40);
+        Results results = new HashDistinctResults(new CollectionResults(input, asList("x", "y")));
+        SolutionBlock block = new SolutionBlock(asList("x", "y"), 64);
+        assertTrue(results.hasNext()); // next is buffered by HashDistinctResults
+        assertEquals(results.nextBatch(block, 10), 10);
+        assertEquals(results.next(), input.get(10));
+        assertEquals(results.nextBatch(block, 64), 29);
+        assertEquals(results.nextBatch(block, 64), 0);
+        List<Solution> actual = new ArrayList<>();
+        for (int i = 0; i < block.size(); i++)
+            actual.add(block.getSolution(i));
+        List<Solution> expected = new ArrayList<>(input);
+        expected.remove(10);
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testLimitClosesInput() {
+        boolean[] closed = {false};
+        Results in = new CollectionResults(xyRows(10, 10), asList("x", "y")) {
+            @Override public void close() {
+                closed[0] = true;
+            }
+        };
+        LimitResults limit = new LimitResults(in, 4);
+        SolutionBlock block = new SolutionBlock(asList("x", "y"), 8);
+        assertEquals(limit.nextBatch(block, 8), 4);
+        assertTrue(closed[0]);
+        assertEquals(limit.nextBatch(block, 8), 0);
+        assertFalse(limit.hasNext());
+    }
+
+    @Test
+    public void testQueueResultsDoesNotBlockAfterFirst() {
+        BlockingQueue<Solution> queue = new ArrayBlockingQueue<>(16);
+        QueueResults results = new QueueResults(asList("x", "y"), queue);
+        List<Solution> input = xyRows(3, 3);
+        queue.addAll(input);
+        SolutionBlock block = new SolutionBlock(asList("x", "y"), 8);
+        assertEquals(results.nextBatch(block, 8), 3); // would block if poll()ing for more
+        queue.add(input.get(0));
+        queue.add(QueueResults.DEFAULT_END);
+        assertEquals(results.nextBatch(block, 8), 1);
+        assertEquals(results.nextBatch(block, 8), 0);
+        assertFalse(results.hasNext());
+        assertEquals(block.size(), 4);
+        assertEquals(block.getSolution(3), input.get(0));
+    }
+}
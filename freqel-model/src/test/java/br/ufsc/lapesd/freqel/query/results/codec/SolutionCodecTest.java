@@ -0,0 +1,150 @@
+package br.ufsc.lapesd.freqel.query.results.codec;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdBlank;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.model.term.std.StdVar;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
+import com.google.common.base.Strings;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Arrays.asList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class SolutionCodecTest implements TestContext {
+    private static final List<String> VARS = asList("x", "y", "z");
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = Files.createTempFile("freqel", ".bin").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        assertTrue(file.delete());
+    }
+
+    private static @Nonnull List<Solution> sample(int rows) {
+        List<Solution> list = new ArrayList<>();
+        Term blank = new StdBlank();
+        for (int i = 0; i < rows; i++) {
+            MapSolution.Builder b = MapSolution.builder().put("x", new StdURI(EX + (i % 7)));
+            if (i % 3 == 0)
+                b.put("y", StdLit.fromUnescaped(String.valueOf(i), xsdInt));
+            else if (i % 3 == 1)
+                b.put("y", StdLit.fromUnescaped("\"línea\"\n"+i, "pt"));
+            else
+                b.put("y", StdLit.fromUnescaped("plain " + i));
+            if (i % 5 == 0)
+                b.put("z", i % 2 == 0 ? blank : new StdBlank());
+            else if (i % 5 == 1)
+                b.put("z", new StdVar("v" + i));
+            list.add(b.build());
+        }
+        list.add(MapSolution.build("z", StdLit.fromUnescaped(Strings.repeat("long", 1000))));
+        list.add(MapSolution.EMPTY);
+        return list;
+    }
+
+    private void write(@Nonnull List<Solution> solutions, @Nonnull BlankTable blanks,
+                       int dictionarySize, int bufferSize) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), WRITE, TRUNCATE_EXISTING);
+        try (SolutionWriter writer = new SolutionWriter(channel, VARS, blanks,
+                                                        dictionarySize, bufferSize)) {
+            for (Solution solution : solutions)
+                writer.write(solution);
+            assertEquals(writer.getRowsWritten(), solutions.size());
+            writer.flush();
+            assertEquals(writer.getBytesWritten(), channel.size());
+            assertTrue(writer.getDictionarySize() <= dictionarySize + 1);
+        }
+    }
+
+    private @Nonnull List<Solution> read(@Nonnull SolutionReader reader) throws IOException {
+        List<Solution> list = new ArrayList<>();
+        try (SolutionReader r = reader) {
+            while (r.hasNext())
+                list.add(MapSolution.builder(r.next()).build());
+        }
+        return list;
+    }
+
+    private @Nonnull List<Solution> normalize(@Nonnull List<Solution> list) {
+        List<Solution> normalized = new ArrayList<>();
+        for (Solution solution : list) {
+            MapSolution.Builder b = MapSolution.builder();
+            for (String var : VARS) {
+                Term term = solution.get(var);
+                if (term != null) b.put(var, term);
+            }
+            normalized.add(b.build());
+        }
+        return normalized;
+    }
+
+    @DataProvider
+    public static @Nonnull Object[][] roundTripData() {
+        return new Object[][] {
+                new Object[] {SolutionWriter.DEFAULT_MAX_DICTIONARY_SIZE, 64, false},
+                new Object[] {SolutionWriter.DEFAULT_MAX_DICTIONARY_SIZE, 64*1024, false},
+                new Object[] {SolutionWriter.DEFAULT_MAX_DICTIONARY_SIZE, 64*1024, true},
+                new Object[] {4, 128, false},
+                new Object[] {4, 128, true},
+                new Object[] {0, 64, false},
+        };
+    }
+
+    @Test(dataProvider = "roundTripData")
+    public void testRoundTrip(int dictionarySize, int bufferSize,
+                              boolean mapped) throws IOException {
+        List<Solution> expected = sample(200);
+        BlankTable blanks = new BlankTable();
+        write(expected, blanks, dictionarySize, bufferSize);
+        FileChannel channel = FileChannel.open(file.toPath(), READ);
+        SolutionReader reader = mapped ? SolutionReader.mapped(channel, VARS, blanks)
+                                       : new SolutionReader(channel, VARS, blanks, bufferSize);
+        List<Solution> actual = read(reader);
+        assertEquals(actual, normalize(expected));
+        assertEquals(reader.getRowsRead(), expected.size());
+    }
+
+    @Test
+    public void testDictionaryShrinksRepeatedTerms() throws IOException {
+        List<Solution> list = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            list.add(MapSolution.builder().put("x", new StdURI(EX + "subject"))
+                                          .put("y", StdLit.fromUnescaped("23", xsdInt)).build());
+        write(list, new BlankTable(), SolutionWriter.DEFAULT_MAX_DICTIONARY_SIZE, 1024);
+        // 1 byte count + 2*(1 byte index + 1 byte ref) per repeated row
+        assertTrue(file.length() < 5 * 1000 + 200, "file.length()="+file.length());
+    }
+
+    @Test
+    public void testTruncatedFileFails() throws IOException {
+        BlankTable blanks = new BlankTable();
+        write(sample(10), blanks, SolutionWriter.DEFAULT_MAX_DICTIONARY_SIZE, 1024);
+        try (FileChannel channel = FileChannel.open(file.toPath(), WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        SolutionReader reader = new SolutionReader(FileChannel.open(file.toPath(), READ),
+                                                   VARS, blanks);
+        expectThrows(RuntimeException.class, () -> read(reader));
+    }
+}
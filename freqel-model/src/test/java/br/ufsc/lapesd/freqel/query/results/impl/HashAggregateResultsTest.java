@@ -0,0 +1,161 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.V;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.URI;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.modifiers.*;
+import br.ufsc.lapesd.freqel.query.modifiers.Aggregation.Aggregate;
+import br.ufsc.lapesd.freqel.query.modifiers.Aggregation.Function;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsUtils;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class HashAggregateResultsTest {
+    private static final @Nonnull List<String> VARS = asList("x", "y");
+
+    private static @Nonnull Term ex(int i) {
+        return new StdURI("http://example.org/" + i);
+    }
+
+    private static @Nonnull Term lit(@Nonnull String lexical, @Nonnull URI datatype) {
+        return StdLit.fromUnescaped(lexical, datatype);
+    }
+
+    private static @Nonnull Term integer(long value) {
+        return lit(String.valueOf(value), V.XSD.integer);
+    }
+
+    private static @Nonnull Solution row(@Nonnull Term x, Term y) {
+        return MapSolution.builder().put("x", x).put("y", y).build();
+    }
+
+    private static @Nonnull List<Solution> drain(@Nonnull Results results) {
+        List<Solution> list = new ArrayList<>();
+        try (Results r = results) {
+            while (r.hasNext())
+                list.add(MapSolution.builder(r.next()).build());
+        }
+        return list;
+    }
+
+    private static @Nonnull List<Solution> aggregate(@Nonnull List<Solution> in,
+                                                     @Nonnull Aggregation aggregation) {
+        return drain(new HashAggregateResults(new CollectionResults(in, VARS), aggregation));
+    }
+
+    @Test
+    public void testCountAndSumByGroup() {
+        List<Solution> in = asList(row(ex(1), integer(1)), row(ex(2), integer(10)),
+                                   row(ex(1), integer(2)), row(ex(1), null),
+                                   row(ex(2), integer(10)));
+        Aggregation aggregation = new Aggregation(singletonList("x"), asList(
+                Aggregate.count(null, "all"), Aggregate.count("y", "c"),
+                new Aggregate(Function.COUNT, "y", true, "dc"), Aggregate.sum("y", "s")));
+        assertEquals(aggregate(in, aggregation), asList(
+                MapSolution.builder().put("x", ex(1)).put("all", integer(3))
+                        .put("c", integer(2)).put("dc", integer(2)).put("s", integer(3)).build(),
+                MapSolution.builder().put("x", ex(2)).put("all", integer(2))
+                        .put("c", integer(2)).put("dc", integer(1)).put("s", integer(20)).build()));
+    }
+
+    @Test
+    public void testSumPromotesDatatype() {
+        List<Solution> in = asList(row(ex(1), lit("1", V.XSD.xint)),
+                                   row(ex(1), lit("0.5", V.XSD.decimal)),
+                                   row(ex(2), lit("1", V.XSD.xint)),
+                                   row(ex(2), lit("1.5e0", V.XSD.xdouble)),
+                                   row(ex(3), ex(7)));
+        Aggregation aggregation = new Aggregation(singletonList("x"),
+                                                  singletonList(Aggregate.sum("y", "s")));
+        assertEquals(aggregate(in, aggregation), asList(
+                MapSolution.builder().put("x", ex(1)).put("s", lit("1.5", V.XSD.decimal)).build(),
+                MapSolution.builder().put("x", ex(2)).put("s", lit("2.5", V.XSD.xdouble)).build(),
+                MapSolution.build("x", ex(3))));
+    }
+
+    @Test
+    public void testMinMaxAvg() {
+        List<Solution> in = asList(row(ex(1), integer(7)), row(ex(1), integer(-3)),
+                                   row(ex(1), integer(2)), row(ex(1), null));
+        Aggregation aggregation = new Aggregation(emptyList(), asList(
+                new Aggregate(Function.MIN, "y", false, "min"),
+                new Aggregate(Function.MAX, "y", false, "max"),
+                new Aggregate(Function.AVG, "y", false, "avg")));
+        assertEquals(aggregate(in, aggregation), singletonList(
+                MapSolution.builder().put("min", integer(-3)).put("max", integer(7))
+                        .put("avg", lit("2", V.XSD.decimal)).build()));
+    }
+
+    @Test
+    public void testEmptyInput() {
+        Aggregation noGroups = new Aggregation(emptyList(), asList(
+                Aggregate.count(null, "c"), Aggregate.sum("y", "s"),
+                new Aggregate(Function.MAX, "y", false, "m")));
+        assertEquals(aggregate(emptyList(), noGroups), singletonList(
+                MapSolution.builder().put("c", integer(0)).put("s", integer(0)).build()));
+
+        Aggregation grouped = new Aggregation(singletonList("x"),
+                                              singletonList(Aggregate.count(null, "c")));
+        assertEquals(aggregate(emptyList(), grouped), emptyList());
+    }
+
+    @Test
+    public void testCombiningPartialAggregates() {
+        Random random = new Random(131);
+        List<Solution> all = new ArrayList<>();
+        for (int i = 0; i < 3000; i++)
+            all.add(row(ex(random.nextInt(20)), integer(random.nextInt(1000))));
+        Aggregation aggregation = new Aggregation(singletonList("x"), asList(
+                Aggregate.count("y", "c"), Aggregate.sum("y", "s"),
+                new Aggregate(Function.MIN, "y", false, "min"),
+                new Aggregate(Function.MAX, "y", false, "max")));
+        assertTrue(aggregation.isDecomposable());
+
+        List<Solution> partials = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            partials.addAll(aggregate(all.subList(i * 1000, (i + 1) * 1000), aggregation));
+        List<String> partialVars = new ArrayList<>(aggregation.getResultVars());
+        Results combined = new HashAggregateResults(
+                new CollectionResults(partials, partialVars), aggregation.getCombiner());
+        assertEquals(new HashSet<>(drain(combined)), new HashSet<>(aggregate(all, aggregation)));
+    }
+
+    @Test
+    public void testApplyModifiers() {
+        List<Solution> in = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            in.add(row(ex(i % 10), integer(i)));
+        ModifiersSet modifiers = new ModifiersSet();
+        modifiers.add(new Aggregation(singletonList("x"),
+                                      singletonList(Aggregate.sum("y", "s"))));
+        modifiers.add(new OrderBy(singletonList(OrderBy.Key.desc("s"))));
+        modifiers.add(Limit.of(2));
+        Results results = ResultsUtils.applyModifiers(new CollectionResults(in, VARS), modifiers);
+        assertEquals(results.getVarNames(), new HashSet<>(asList("x", "s")));
+        assertEquals(drain(results), asList(
+                MapSolution.builder().put("x", ex(9)).put("s", integer(540)).build(),
+                MapSolution.builder().put("x", ex(8)).put("s", integer(530)).build()));
+    }
+
+    @Test
+    public void testDistinctAggregationIsNotDecomposable() {
+        Aggregation aggregation = new Aggregation(singletonList("x"), singletonList(
+                new Aggregate(Function.COUNT, "y", true, "c")));
+        assertFalse(aggregation.isDecomposable());
+        expectThrows(IllegalStateException.class, aggregation::getCombiner);
+        expectThrows(IllegalArgumentException.class, () -> new Aggregation(
+                singletonList("x"), singletonList(Aggregate.count("y", "x"))));
+    }
+}
@@ -0,0 +1,160 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.*;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class SolutionHashTableTest implements TestContext {
+
+    @Test
+    public void testEmpty() {
+        SolutionHashTable table = new SolutionHashTable(singleton("x"), 0);
+        assertEquals(table.getAll(MapSolution.build(x, integer(1))), emptyList());
+        assertFalse(table.cursor().reset(MapSolution.build(x, integer(1))).hasNext());
+        table.clear();
+        assertTrue(table.isEmpty());
+        assertEquals(table.getAll(MapSolution.build(x, integer(1))), emptyList());
+    }
+
+    @Test
+    public void testAddMoreThanExpected() {
+        SolutionHashTable table = new SolutionHashTable(singleton("y"), 4);
+        ArraySolution.ValueFactory fac = ArraySolution.forVars(asList("x", "y"));
+        for (int i = 0; i < 4096; i++)
+            table.add(fac.fromValues(integer(i), integer(i+1)));
+        assertEquals(table.size(), 4096);
+        for (int i = 0; i < 4096; i++) {
+            ArraySolution solution = fac.fromValues(integer(i), integer(i + 1));
+            assertEquals(table.getAll(solution), singletonList(solution), "i="+i);
+            assertTrue(table.contains(MapSolution.build(y, integer(i+1))));
+        }
+        assertFalse(table.contains(MapSolution.build(y, integer(0))));
+    }
+
+    @Test
+    public void testDuplicateKeysInInsertionOrder() {
+        SolutionHashTable table = new SolutionHashTable(singleton("x"), 16);
+        ArraySolution.ValueFactory fac = ArraySolution.forVars(asList("x", "y"));
+        for (int j = 0; j < 8; j++) {
+            for (int i = 0; i < 64; i++)
+                table.add(fac.fromValues(integer(i), integer(j)));
+        }
+        SolutionHashTable.Cursor cursor = table.cursor();
+        for (int i = 0; i < 64; i++) {
+            List<Solution> actual = new ArrayList<>();
+            cursor.reset(MapSolution.build(x, integer(i))).forEachRemaining(actual::add);
+            List<Solution> expected = new ArrayList<>();
+            for (int j = 0; j < 8; j++)
+                expected.add(fac.fromValues(integer(i), integer(j)));
+            assertEquals(actual, expected);
+        }
+    }
+
+    @Test
+    public void testMixedSolutionImplementations() {
+        SolutionHashTable table = new SolutionHashTable(asList("x", "y"), 8);
+        ArraySolution.ValueFactory xy = ArraySolution.forVars(asList("x", "y"));
+        ArraySolution.ValueFactory zyx = ArraySolution.forVars(asList("z", "y", "x"));
+        ArraySolution.ValueFactory xz = ArraySolution.forVars(asList("x", "z"));
+        for (int i = 0; i < 32; i++)
+            table.add(xy.fromValues(integer(i), integer(-i)));
+        table.add(xz.fromValues(integer(100), integer(200))); // y is unbound
+
+        for (int i = 0; i < 32; i++) {
+            List<Solution> expected = singletonList(xy.fromValues(integer(i), integer(-i)));
+            assertEquals(table.getAll(zyx.fromValues(lit("a"), integer(-i), integer(i))), expected);
+            assertEquals(table.getAll(MapSolution.builder().put(x, integer(i))
+                                                           .put(y, integer(-i)).build()), expected);
+            assertEquals(table.getAll(xy.fromValues(integer(i), integer(i+1))), emptyList());
+        }
+        assertEquals(table.getAll(MapSolution.build(x, integer(100))),
+                     singletonList(xz.fromValues(integer(100), integer(200))));
+        assertEquals(table.getAll(zyx.fromValues(null, null, integer(100))),
+                     singletonList(xz.fromValues(integer(100), integer(200))));
+    }
+
+    @Test
+    public void testAddIfAbsent() {
+        SolutionHashTable table = new SolutionHashTable(asList("x", "y"), 4);
+        ArraySolution.ValueFactory fac = ArraySolution.forVars(asList("x", "y"));
+        for (int i = 0; i < 256; i++)
+            assertTrue(table.addIfAbsent(fac.fromValues(integer(i), integer(i % 3))));
+        for (int i = 0; i < 256; i++) {
+            assertFalse(table.addIfAbsent(fac.fromValues(integer(i), integer(i % 3))));
+            assertFalse(table.addIfAbsent(MapSolution.builder().put(x, integer(i))
+                                                               .put(y, integer(i % 3)).build()));
+        }
+        assertTrue(table.addIfAbsent(fac.fromValues(integer(0), null)));
+        assertFalse(table.addIfAbsent(MapSolution.build(x, integer(0))));
+        assertEquals(table.size(), 257);
+    }
+
+    @Test
+    public void testRecordFetches() {
+        SolutionHashTable table = new SolutionHashTable(singleton("x"), 4);
+        table.recordFetches();
+        for (int i = 0; i < 256; i++)
+            table.add(MapSolution.builder().put(x, integer(i)).put(y, integer(0)).build());
+        SolutionHashTable.Cursor cursor = table.cursor();
+        for (int i = 0; i < 256; i += 2) {
+            assertTrue(cursor.reset(MapSolution.build(x, integer(i))).hasNext());
+            assertEquals(cursor.next(),
+                         MapSolution.builder().put(x, integer(i)).put(y, integer(0)).build());
+            assertFalse(cursor.hasNext());
+        }
+        int index = table.add(MapSolution.builder().put(x, integer(1)).put(y, integer(1)).build());
+        table.markFetched(index);
+
+        List<Solution> notFetched = new ArrayList<>();
+        table.forEachNotFetched(notFetched::add);
+        Set<Solution> expected = new HashSet<>();
+        for (int i = 1; i < 256; i += 2)
+            expected.add(MapSolution.builder().put(x, integer(i)).put(y, integer(0)).build());
+        assertEquals(notFetched.size(), 128);
+        assertEquals(new HashSet<>(notFetched), expected);
+
+        table.clear();
+        notFetched.clear();
+        table.forEachNotFetched(notFetched::add);
+        assertEquals(notFetched, emptyList());
+    }
+
+    @Test
+    public void testNoVars() {
+        SolutionHashTable table = new SolutionHashTable(emptySet(), 16);
+        List<Solution> expected = new ArrayList<>();
+        for (int i = 0; i < 1024; i++) {
+            MapSolution solution = MapSolution.build(x, integer(i));
+            table.add(solution);
+            expected.add(solution);
+        }
+        assertEquals(table.getAll(MapSolution.build(y, integer(1))), expected);
+        assertEquals(table.getAll(MapSolution.build(x, integer(1))), expected);
+        assertEquals(table.toList(), expected);
+        assertFalse(table.addIfAbsent(MapSolution.build(x, integer(-1))));
+    }
+
+    @Test
+    public void testClearReleasesAndReuses() {
+        SolutionHashTable table = new SolutionHashTable(singleton("x"), 16);
+        for (int round = 0; round < 3; round++) {
+            int n = round == 1 ? 1024 : 8;
+            for (int i = 0; i < n; i++)
+                table.add(MapSolution.build(x, integer(i)));
+            assertEquals(table.size(), n);
+            assertEquals(table.getAll(MapSolution.build(x, integer(n-1))),
+                         singletonList(MapSolution.build(x, integer(n-1))));
+            assertEquals(table.getAll(MapSolution.build(x, integer(n))), emptyList());
+            table.clear();
+            assertEquals(table.size(), 0);
+            assertEquals(table.getAll(MapSolution.build(x, integer(0))), emptyList());
+        }
+    }
+}
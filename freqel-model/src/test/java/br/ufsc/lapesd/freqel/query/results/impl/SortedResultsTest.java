@@ -0,0 +1,187 @@
+package br.ufsc.lapesd.freqel.query.results.impl;
+
+import br.ufsc.lapesd.freqel.V;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.modifiers.*;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsUtils;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SortedResults;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class SortedResultsTest {
+    private static final File TEMP_DIR = new File(System.getProperty("java.io.tmpdir"));
+    private static final OrderBy X_DESC_Y = new OrderBy(asList(OrderBy.Key.desc("x"),
+                                                               OrderBy.Key.asc("y")));
+
+    private static @Nonnull Term ex(int i) {
+        return new StdURI(String.format("http://example.org/%03d", i));
+    }
+
+    private static @Nonnull Term integer(int i) {
+        return StdLit.fromUnescaped(String.valueOf(i), V.XSD.xint);
+    }
+
+    /**
+     * Creates solutions with x in [0, 100) and y in [-size/100, size/100], in random order.
+     */
+    private static @Nonnull List<Solution> createInput(int size, int seed) {
+        List<Solution> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(MapSolution.builder().put("x", ex(i % 100))
+                                          .put("y", integer(size/200 - i/100)).build());
+        }
+        Collections.shuffle(list, new Random(seed));
+        return list;
+    }
+
+    private static @Nonnull List<Solution> sorted(@Nonnull List<Solution> in,
+                                                  @Nonnull OrderBy orderBy) {
+        List<Solution> list = new ArrayList<>(in);
+        list.sort(orderBy.comparator());
+        return list;
+    }
+
+    private static @Nonnull List<Solution> drain(@Nonnull Results results) {
+        List<Solution> list = new ArrayList<>();
+        try (Results r = results) {
+            while (r.hasNext())
+                list.add(MapSolution.builder(r.next()).build());
+        }
+        return list;
+    }
+
+    @DataProvider
+    public static @Nonnull Object[][] sizeData() {
+        return new Object[][] {{0}, {1}, {7}, {100}, {2000}, {20000}};
+    }
+
+    @Test(dataProvider = "sizeData")
+    public void testTopK(int size) {
+        List<Solution> in = createInput(size, 79);
+        List<Solution> expected = sorted(in, X_DESC_Y);
+        for (int k : asList(1, 10, size, size + 10)) {
+            if (k <= 0) continue;
+            TopKResults results = new TopKResults(new CollectionResults(in, asList("x", "y")),
+                                                  X_DESC_Y, k);
+            assertEquals(drain(results), expected.subList(0, Math.min(k, size)), "k="+k);
+        }
+    }
+
+    @Test(dataProvider = "sizeData")
+    public void testExternalSortInMemory(int size) {
+        List<Solution> in = createInput(size, 83);
+        ExternalSortResults results = new ExternalSortResults(
+                new CollectionResults(in, asList("x", "y")), X_DESC_Y);
+        assertEquals(drain(results), sorted(in, X_DESC_Y));
+        assertEquals(results.getSpilledRuns(), 0);
+    }
+
+    @Test(dataProvider = "sizeData")
+    public void testExternalSortSpilling(int size) {
+        List<Solution> in = createInput(size, 89);
+        ExternalSortResults results = new ExternalSortResults(
+                new CollectionResults(in, asList("x", "y")), X_DESC_Y, TEMP_DIR, 1);
+        assertEquals(drain(results), sorted(in, X_DESC_Y));
+        assertEquals(results.getSpilledRuns() > 0, size >= 1024);
+    }
+
+    @Test
+    public void testExternalSortCompactsRuns() {
+        List<Solution> in = createInput(70000, 113);
+        ExternalSortResults results = new ExternalSortResults(
+                new CollectionResults(in, asList("x", "y")), X_DESC_Y, TEMP_DIR, 1);
+        assertEquals(drain(results), sorted(in, X_DESC_Y));
+        assertTrue(results.getSpilledRuns() > 64);
+    }
+
+    @Test
+    public void testMergeSorted() {
+        List<Solution> all = createInput(3000, 97);
+        List<Results> inputs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            List<Solution> part = sorted(all.subList(i * 1000, (i + 1) * 1000), X_DESC_Y);
+            inputs.add(new CollectionResults(part, asList("x", "y")));
+        }
+        inputs.add(CollectionResults.empty(asList("x", "y")));
+        MergeSortedResults results = new MergeSortedResults(inputs, asList("x", "y"), X_DESC_Y);
+        assertEquals(drain(results), sorted(all, X_DESC_Y));
+    }
+
+    @Test
+    public void testApplyModifiers() {
+        List<Solution> in = createInput(2000, 101);
+        ModifiersSet modifiers = new ModifiersSet();
+        modifiers.add(X_DESC_Y);
+        modifiers.add(Offset.of(15));
+        modifiers.add(Limit.of(10));
+        Results results = ResultsUtils.applyModifiers(
+                new CollectionResults(in, asList("x", "y")), modifiers);
+        assertEquals(drain(results), sorted(in, X_DESC_Y).subList(15, 25));
+    }
+
+    @Test
+    public void testApplyModifiersDistinctProjected() {
+        List<Solution> in = createInput(2000, 103);
+        ModifiersSet modifiers = new ModifiersSet();
+        modifiers.add(OrderBy.asc("x"));
+        modifiers.add(Projection.of("x"));
+        modifiers.add(Distinct.INSTANCE);
+        modifiers.add(Offset.of(5));
+        modifiers.add(Limit.of(3));
+        Results results = ResultsUtils.applyModifiers(
+                new CollectionResults(in, asList("x", "y")), modifiers);
+        assertEquals(drain(results), asList(MapSolution.build("x", ex(5)),
+                                            MapSolution.build("x", ex(6)),
+                                            MapSolution.build("x", ex(7))));
+    }
+
+    @Test
+    public void testApplyModifiersDistinctNotProjected() {
+        List<Solution> in = createInput(2000, 107);
+        ModifiersSet modifiers = new ModifiersSet();
+        modifiers.add(OrderBy.asc("y"));
+        modifiers.add(Projection.of("x"));
+        modifiers.add(Distinct.INSTANCE);
+        Results results = ResultsUtils.applyModifiers(
+                new CollectionResults(in, asList("x", "y")), modifiers);
+        List<Solution> actual = drain(results);
+        assertEquals(new HashSet<>(actual).size(), 100);
+        assertEquals(actual.size(), 100);
+    }
+
+    @Test
+    public void testSkipSortOfSortedInput() {
+        Results in = new ExternalSortResults(CollectionResults.empty(asList("x", "y")), X_DESC_Y);
+        ModifiersSet modifiers = new ModifiersSet();
+        modifiers.add(X_DESC_Y);
+        modifiers.add(Limit.of(10));
+        assertSame(TopKResults.applyIf(in, modifiers), in);
+        modifiers.add(OrderBy.asc("x"));
+        Results sorted = TopKResults.applyIf(in, modifiers);
+        assertTrue(sorted instanceof TopKResults);
+        assertTrue(SortedResults.isSortedBy(sorted, OrderBy.asc("x")));
+    }
+
+    @Test
+    public void testOffsetBeyondInput() {
+        List<Solution> in = createInput(10, 109);
+        assertEquals(drain(new OffsetResults(new CollectionResults(in, asList("x", "y")), 9)),
+                     in.subList(9, 10));
+        assertEquals(drain(new OffsetResults(new CollectionResults(in, asList("x", "y")), 10)),
+                     Collections.emptyList());
+        assertEquals(drain(new OffsetResults(new CollectionResults(in, asList("x", "y")), 20)),
+                     Collections.emptyList());
+    }
+}
@@ -0,0 +1,63 @@
+package br.ufsc.lapesd.freqel.util;
+
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class VirtualThreadsTest {
+    private static boolean jvmHasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static boolean isVirtual(Thread thread) throws Exception {
+        Method method = Thread.class.getMethod("isVirtual");
+        return (Boolean) method.invoke(thread);
+    }
+
+    @Test
+    public void testSupportMatchesJVM() {
+        if (!jvmHasVirtualThreads())
+            assertFalse(VirtualThreads.isSupported());
+        assertEquals(VirtualThreads.factory("test-") != null, VirtualThreads.isSupported());
+    }
+
+    @Test
+    public void testFactory() throws Exception {
+        ThreadFactory factory = VirtualThreads.factory("test-factory-");
+        if (factory == null)
+            return; // checked by testSupportMatchesJVM
+        Thread[] ran = {null};
+        Thread thread = factory.newThread(() -> ran[0] = Thread.currentThread());
+        assertTrue(thread.getName().startsWith("test-factory-"));
+        assertTrue(isVirtual(thread));
+        thread.start();
+        thread.join(5000);
+        assertSame(ran[0], thread);
+    }
+
+    @Test
+    public void testPerTaskExecutor() throws Exception {
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor("test-executor-");
+        assertEquals(executor != null, VirtualThreads.isSupported());
+        if (executor == null)
+            return;
+        Future<Thread> f1 = executor.submit(Thread::currentThread);
+        Future<Thread> f2 = executor.submit(Thread::currentThread);
+        assertTrue(isVirtual(f1.get(5, TimeUnit.SECONDS)));
+        assertNotSame(f1.get(), f2.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
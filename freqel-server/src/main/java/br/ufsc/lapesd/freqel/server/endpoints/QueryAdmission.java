@@ -0,0 +1,118 @@
+package br.ufsc.lapesd.freqel.server.endpoints;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits how many queries are concurrently active, keeping a bounded queue of waiting queries.
+ *
+ * Nothing blocks: {@link #acquire()} returns a {@link Mono} that completes once a slot is
+ * available and fails with a 503 {@link SPARQLEndpoint.RequestException} if the
+ * queue is full.
+ */
+public class QueryAdmission {
+    private final int maxActive, maxQueued;
+    private int active = 0;
+    private final @Nonnull ArrayDeque<Waiter> queue = new ArrayDeque<>();
+
+    private static final class Waiter {
+        final @Nonnull MonoSink<Runnable> sink;
+        @Nullable Runnable release;
+
+        Waiter(@Nonnull MonoSink<Runnable> sink) {
+            this.sink = sink;
+        }
+    }
+
+    public QueryAdmission(int maxActive, int maxQueued) {
+        if (maxActive < 1)
+            throw new IllegalArgumentException("maxActive="+maxActive+" must be positive");
+        if (maxQueued < 0)
+            throw new IllegalArgumentException("maxQueued="+maxQueued+" must be non-negative");
+        this.maxActive = maxActive;
+        this.maxQueued = maxQueued;
+    }
+
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Get a {@link Mono} that will emit a {@link Runnable} that releases the acquired slot.
+     *
+     * The {@link Runnable} is idempotent. If the subscription is cancelled while waiting in
+     * the queue, no slot will be acquired.
+     */
+    public @Nonnull Mono<Runnable> acquire() {
+        return Mono.create(sink -> {
+            boolean acquired = false;
+            String rejection = null;
+            synchronized (this) {
+                if (active < maxActive) {
+                    ++active;
+                    acquired = true;
+                } else if (queue.size() < maxQueued) {
+                    Waiter waiter = new Waiter(sink);
+                    queue.add(waiter);
+                    sink.onCancel(() -> cancel(waiter));
+                } else {
+                    rejection = "Too many queries: "+active+" running and "
+                              + queue.size()+" queued";
+                }
+            }
+            if (acquired)
+                sink.success(createRelease());
+            else if (rejection != null)
+                sink.error(new SPARQLEndpoint.RequestException(503, rejection));
+        });
+    }
+
+    private @Nonnull Runnable createRelease() {
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true))
+                release();
+        };
+    }
+
+    private void cancel(@Nonnull Waiter waiter) {
+        Runnable release;
+        synchronized (this) {
+            if (queue.remove(waiter))
+                return;
+            release = waiter.release;
+        }
+        if (release != null)
+            release.run(); // cancelled while the slot was being handed over
+    }
+
+    private void release() {
+        Waiter next;
+        synchronized (this) {
+            next = queue.poll();
+            if (next == null)
+                --active; // else: the slot is handed over to next
+            else
+                next.release = createRelease();
+        }
+        if (next != null)
+            next.sink.success(next.release);
+    }
+}
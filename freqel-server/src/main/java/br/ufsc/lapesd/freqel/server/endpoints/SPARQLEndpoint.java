@@ -3,6 +3,7 @@ package br.ufsc.lapesd.freqel.server.endpoints;
 import br.ufsc.lapesd.freqel.V;
 import br.ufsc.lapesd.freqel.algebra.Op;
 import br.ufsc.lapesd.freqel.federation.Federation;
+import br.ufsc.lapesd.freqel.federation.FreqelConfig;
 import br.ufsc.lapesd.freqel.jena.model.vocab.SPARQLSD;
 import br.ufsc.lapesd.freqel.jena.rs.ModelMessageBodyWriter;
 import br.ufsc.lapesd.freqel.query.modifiers.Reasoning;
@@ -34,7 +35,10 @@ import org.apache.jena.vocabulary.RDF;
 import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 import reactor.netty.http.server.HttpServerRequest;
 import reactor.netty.http.server.HttpServerResponse;
 
@@ -51,6 +55,8 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static br.ufsc.lapesd.freqel.federation.FreqelConfig.Key.ADVERTISED_REASONING;
+import static br.ufsc.lapesd.freqel.federation.FreqelConfig.Key.SERVER_MAX_CONCURRENT_QUERIES;
+import static br.ufsc.lapesd.freqel.federation.FreqelConfig.Key.SERVER_QUERY_QUEUE_SIZE;
 import static br.ufsc.lapesd.freqel.reason.regimes.EntailmentEvidences.CROSS_SOURCE;
 import static br.ufsc.lapesd.freqel.reason.regimes.W3CEntailmentRegimes.SIMPLE;
 import static com.google.common.net.MediaType.parse;
@@ -99,6 +105,8 @@ public class SPARQLEndpoint {
     private final @Nonnull ChunkedEncoderRegistry encoderRegistry;
     private final SPARQLParser parser = SPARQLParser.tolerant();
     private final @Nonnull List<MediaType> resultTypes;
+    private final @Nonnull QueryAdmission admission;
+    private final @Nonnull Scheduler scheduler;
 
     public SPARQLEndpoint(@Nonnull Federation federation) {
         this(federation, ChunkedEncoderRegistry.get());
@@ -121,6 +129,24 @@ public class SPARQLEndpoint {
             list.add(0, mt);
         }
         this.resultTypes = list;
+        FreqelConfig config = federation.getFreqelConfig();
+        int maxQueries = config.get(SERVER_MAX_CONCURRENT_QUERIES, Integer.class);
+        int queueSize = config.get(SERVER_QUERY_QUEUE_SIZE, Integer.class);
+        this.admission = new QueryAdmission(maxQueries, queueSize);
+        // admission ensures no more than maxQueries tasks are ever queued or running
+        this.scheduler = Schedulers.newBoundedElastic(maxQueries, maxQueries, "freqel-query",
+                                                      60, true);
+    }
+
+    public @Nonnull QueryAdmission getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Stops the threads used for planning. The {@link Federation} is not closed.
+     */
+    public void close() {
+        scheduler.dispose();
     }
 
     private static @Nonnull String getReasoningGraphIRI(@Nonnull SourcedEntailmentRegime sr) {
@@ -188,26 +214,15 @@ public class SPARQLEndpoint {
         final @Nonnull List<String> namedGraphURIs = new ArrayList<>();
         @Nonnull String query = "";
 
-        public Params(@Nonnull HttpServerRequest request) {
-            if (request.method() == HttpMethod.GET) {
-                parseURI(request.uri());
-            } else if (request.method() == HttpMethod.POST) {
-                String ct = request.requestHeaders().get(CONTENT_TYPE, QUERY_TYPE);
-                Charset reqCharset = MediaType.parse(ct).charset().or(UTF_8);
-                String data = request.receive().aggregate().asString(reqCharset).block();
-                if (data == null) {
-                    throw new RequestException(400, "POST without request body!");
-                } else if (request.isFormUrlencoded()) {
-                    parse(data, 0);
-                } else if (ct.equals(QUERY_TYPE)) {
-                    query = unescape(data, 0, data.length());
-                } else {
-                    throw new RequestException(400, "POST requests body must be either "+
-                            FORM_TYPE+" or "+QUERY_TYPE+". Cannot process Content-Type \""+ct+"\"");
-                }
+        void parseBody(@Nonnull HttpServerRequest request, @Nonnull String ct,
+                       @Nonnull String data) {
+            if (request.isFormUrlencoded()) {
+                parse(data, 0);
+            } else if (ct.equals(QUERY_TYPE)) {
+                query = unescape(data, 0, data.length());
             } else {
-                throw new RequestException(406, "Method "+request.method()+" is not allowed " +
-                        "in SPARQL protocol. Use GET or POST");
+                throw new RequestException(400, "POST requests body must be either "+
+                        FORM_TYPE+" or "+QUERY_TYPE+". Cannot process Content-Type \""+ct+"\"");
             }
         }
 
@@ -239,34 +254,86 @@ public class SPARQLEndpoint {
 
     }
 
+    /**
+     * Reads the SPARQL protocol parameters without blocking while the request body arrives.
+     */
+    private @Nonnull Mono<Params> readParams(@Nonnull HttpServerRequest request) {
+        if (request.method() == HttpMethod.GET) {
+            return Mono.fromCallable(() -> {
+                Params params = new Params();
+                params.parseURI(request.uri());
+                return params;
+            });
+        } else if (request.method() == HttpMethod.POST) {
+            String ct = request.requestHeaders().get(CONTENT_TYPE, QUERY_TYPE);
+            Charset reqCharset;
+            try {
+                reqCharset = MediaType.parse(ct).charset().or(UTF_8);
+            } catch (IllegalArgumentException e) {
+                return Mono.error(new RequestException(400, "Bad Content-Type: "+ct));
+            }
+            return request.receive().aggregate().asString(reqCharset)
+                    .switchIfEmpty(Mono.error(() ->
+                            new RequestException(400, "POST without request body!")))
+                    .map(data -> {
+                        Params params = new Params();
+                        params.parseBody(request, ct, data);
+                        return params;
+                    });
+        } else {
+            return Mono.error(new RequestException(406, "Method "+request.method()+" is not " +
+                    "allowed in SPARQL protocol. Use GET or POST"));
+        }
+    }
+
     public @Nonnull Publisher<Void> handle(@Nonnull HttpServerRequest request,
                                            @Nonnull HttpServerResponse response) {
-        Publisher<? extends ByteBuf> content;
-        try {
-            Params params = new Params(request);
-            if (params.query.isEmpty()) {
-                content = serviceDescription(request, response);
-            } else {
-                MediaType mt = chooseMediaType(request, resultTypes);
-                ChunkedEncoder encoder = encoderRegistry.get(mt);
-                if (encoder == null)
-                    throw new RequestException(500, "No encoder for " + mt);
-                Op query = parseQuery(params);
-                Results results = federation.query(query);
-                content = encoder.encode(response.alloc(), results,
-                                         query.modifiers().ask() != null,
-                                          mt.charset().orNull());
-                response.chunkedTransfer(true).header(CONTENT_TYPE, mt.toString())
-                        .status(HttpResponseStatus.OK);
-            }
-        } catch (RequestException |SPARQLParseException e) {
-            content = createError(response, HttpResponseStatus.BAD_REQUEST,
-                    null, "%s", e.getMessage());
-        } catch (Throwable t) {
-            content = createError(response, HttpResponseStatus.INTERNAL_SERVER_ERROR, t,
-                                 "Unexpected exception while processing request");
+        return readParams(request)
+                .flatMap(params -> params.query.isEmpty()
+                        ? Mono.fromCallable(() -> serviceDescription(request, response))
+                        : query(request, response, params))
+                .onErrorResume(t -> Mono.just(createError(response, t)))
+                .flatMap(content -> Mono.from(response.send(content)));
+    }
+
+    /**
+     * Parses, plans and starts executing a query once {@link QueryAdmission} allows it.
+     *
+     * Parsing and planning run on the query scheduler, keeping the event loop free. The
+     * admission slot is held until the results are fully sent (or the client goes away).
+     */
+    private @Nonnull Mono<Publisher<? extends ByteBuf>>
+    query(@Nonnull HttpServerRequest request, @Nonnull HttpServerResponse response,
+          @Nonnull Params params) {
+        MediaType mt = chooseMediaType(request, resultTypes);
+        ChunkedEncoder encoder = encoderRegistry.get(mt);
+        if (encoder == null)
+            return Mono.error(new RequestException(500, "No encoder for " + mt));
+        return admission.acquire().flatMap(release -> Mono.fromCallable(() -> {
+            Op query = parseQuery(params);
+            Results results = federation.query(query);
+            Publisher<? extends ByteBuf> content = encoder.encode(response.alloc(), results,
+                    query.modifiers().ask() != null, mt.charset().orNull());
+            response.chunkedTransfer(true).header(CONTENT_TYPE, mt.toString())
+                    .status(HttpResponseStatus.OK);
+            return (Publisher<? extends ByteBuf>) Flux.from(content)
+                                                      .doFinally(s -> release.run());
+        }).subscribeOn(scheduler).doOnError(t -> release.run()).doOnCancel(release));
+    }
+
+    private @Nonnull Publisher<? extends ByteBuf>
+    createError(@Nonnull HttpServerResponse response, @Nonnull Throwable t) {
+        if (t instanceof RequestException && ((RequestException) t).status == 503) {
+            response.header(HttpHeaderNames.RETRY_AFTER, "1");
+            return createError(response, HttpResponseStatus.SERVICE_UNAVAILABLE,
+                               null, "%s", t.getMessage());
+        } else if (t instanceof RequestException || t instanceof SPARQLParseException) {
+            return createError(response, HttpResponseStatus.BAD_REQUEST,
+                               null, "%s", t.getMessage());
         }
-        return response.send(content);
+        logger.error("Unexpected exception while processing request", t);
+        return createError(response, HttpResponseStatus.INTERNAL_SERVER_ERROR, t,
+                           "Unexpected exception while processing request");
     }
 
     @Nonnull private Op parseQuery(Params params) throws SPARQLParseException {
@@ -17,6 +17,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.function.Function;
 
+import static br.ufsc.lapesd.freqel.server.results.ChunkedEncoderUtils.ask;
 import static br.ufsc.lapesd.freqel.server.results.ChunkedEncoderUtils.toFlux;
 import static reactor.core.publisher.Mono.just;
 
@@ -40,8 +41,10 @@ public abstract class AbstractSVChunkedEncoder implements ChunkedEncoder {
                                               @Nullable Charset cs) {
         if (cs == null)
             cs = StandardCharsets.UTF_8;
-        if (isAsk)
-            return just(Unpooled.wrappedBuffer((results.hasNext() ? eol+eol : eol).getBytes(cs)));
+        if (isAsk) {
+            byte[] yes = (eol+eol).getBytes(cs), no = eol.getBytes(cs);
+            return ask(results).map(b -> Unpooled.wrappedBuffer(b ? yes : no));
+        }
         List<String> vars = FullIndexSet.fromDistinct(results.getVarNames());
         Encoder encoder = new Encoder(allocator, vars, cs);
         return Flux.concat(just(encoder.createHeader()), toFlux(results).map(encoder));
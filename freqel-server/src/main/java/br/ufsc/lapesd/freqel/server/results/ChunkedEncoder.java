@@ -33,7 +33,9 @@ public interface ChunkedEncoder {
      * (e.g., application/sparql-results+json), and thus the charset parameter will be ignored.
      *
      * @param allocator where to get clean {@link ByteBuf}s
-     * @param results sequence of {@link Solution}s to be serialized
+     * @param results sequence of {@link Solution}s to be serialized. It is consumed through
+     *                {@link Results#flux()}, thus it will be closed once the returned
+     *                publisher terminates or is cancelled.
      * @param isAsk if true, will use special syntax for representing boolean results
      * @param charset Override UTF-8 as the charset used to encode the serialization.
      * @return a non-null and non-empty Flux of non-null and non-empty {@link ByteBuf}s that
@@ -3,16 +3,25 @@ package br.ufsc.lapesd.freqel.server.results;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.Solution;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.Nonnull;
-import java.util.Iterator;
 
 public class ChunkedEncoderUtils {
+    /**
+     * Get the solutions of results as a {@link Flux} that never blocks the subscriber thread.
+     *
+     * See {@link Results#flux()}: if results is not {@link Results#isReactive()}, one worker
+     * thread will be used per subscription.
+     */
     public static @Nonnull Flux<Solution> toFlux(@Nonnull Results results) {
-        return Flux.fromIterable(new Iterable<Solution>() {
-            @Override public @Nonnull Iterator<Solution> iterator() {
-                return results;
-            }
-        });
+        return results.flux();
+    }
+
+    /**
+     * Get a {@link Mono} that evaluates to whether there is at least one solution.
+     */
+    public static @Nonnull Mono<Boolean> ask(@Nonnull Results results) {
+        return results.flux().hasElements();
     }
 }
@@ -20,6 +20,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.function.Function;
 
+import static br.ufsc.lapesd.freqel.server.results.ChunkedEncoderUtils.ask;
 import static br.ufsc.lapesd.freqel.server.results.ChunkedEncoderUtils.toFlux;
 import static io.netty.buffer.Unpooled.wrappedBuffer;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -49,7 +50,7 @@ public class JSONChunkedEncoder implements ChunkedEncoder {
                                               @Nonnull Results results, boolean isAsk,
                                               @Nullable Charset ignored) {
         if (isAsk)
-            return just(wrappedBuffer(ASK_PROLOGUE, results.hasNext() ? ASK_TRUE : ASK_FALSE));
+            return ask(results).map(b -> wrappedBuffer(ASK_PROLOGUE, b ? ASK_TRUE : ASK_FALSE));
         int capacityGuess = results.getVarNames().size()*128;
         capacityGuess &= 1 << (32-Integer.numberOfLeadingZeros(capacityGuess));
         return Flux.concat(just(createPrologue(allocator, results.getVarNames())),
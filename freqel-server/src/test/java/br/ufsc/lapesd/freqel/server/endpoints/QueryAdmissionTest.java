@@ -0,0 +1,81 @@
+package br.ufsc.lapesd.freqel.server.endpoints;
+
+import org.testng.annotations.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class QueryAdmissionTest {
+
+    @Test
+    public void testAcquireAndRelease() {
+        QueryAdmission admission = new QueryAdmission(2, 0);
+        Runnable r1 = admission.acquire().block();
+        Runnable r2 = admission.acquire().block();
+        assertNotNull(r1);
+        assertNotNull(r2);
+        assertEquals(admission.getActive(), 2);
+
+        r1.run();
+        r1.run(); // idempotent
+        assertEquals(admission.getActive(), 1);
+        r2.run();
+        assertEquals(admission.getActive(), 0);
+    }
+
+    @Test
+    public void testRejectWhenQueueFull() {
+        QueryAdmission admission = new QueryAdmission(1, 0);
+        Runnable release = admission.acquire().block();
+        assertNotNull(release);
+        try {
+            admission.acquire().block();
+            fail("Expected RequestException");
+        } catch (SPARQLEndpoint.RequestException e) {
+            assertEquals(e.getStatus(), 503);
+        }
+        release.run();
+        Runnable again = admission.acquire().block();
+        assertNotNull(again);
+        again.run();
+        assertEquals(admission.getActive(), 0);
+    }
+
+    @Test
+    public void testQueuedGetsSlotOnRelease() {
+        QueryAdmission admission = new QueryAdmission(1, 1);
+        Runnable first = admission.acquire().block();
+        assertNotNull(first);
+        AtomicReference<Runnable> second = new AtomicReference<>();
+        Disposable subscription = admission.acquire().subscribe(second::set);
+        assertNull(second.get());
+        assertEquals(admission.getQueued(), 1);
+
+        first.run();
+        assertNotNull(second.get());
+        assertEquals(admission.getQueued(), 0);
+        assertEquals(admission.getActive(), 1);
+        second.get().run();
+        assertEquals(admission.getActive(), 0);
+        subscription.dispose();
+    }
+
+    @Test
+    public void testCancelWhileQueued() {
+        QueryAdmission admission = new QueryAdmission(1, 1);
+        Runnable first = admission.acquire().block();
+        assertNotNull(first);
+        Mono<Runnable> queued = admission.acquire();
+        Disposable subscription = queued.subscribe(r -> fail("Should not get a slot"));
+        assertEquals(admission.getQueued(), 1);
+
+        subscription.dispose();
+        assertEquals(admission.getQueued(), 0);
+        first.run();
+        assertEquals(admission.getActive(), 0);
+    }
+}
@@ -4,6 +4,7 @@ import br.ufsc.lapesd.freqel.TestContext;
 import br.ufsc.lapesd.freqel.description.SelectDescription;
 import br.ufsc.lapesd.freqel.federation.Federation;
 import br.ufsc.lapesd.freqel.federation.Freqel;
+import br.ufsc.lapesd.freqel.federation.FreqelConfig;
 import br.ufsc.lapesd.freqel.jena.model.vocab.SPARQLSD;
 import br.ufsc.lapesd.freqel.jena.query.ARQEndpoint;
 import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
@@ -26,6 +27,8 @@ import org.apache.jena.sparql.vocabulary.FOAF;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
 import reactor.netty.DisposableServer;
 import reactor.netty.http.client.HttpClient;
 import reactor.netty.http.client.HttpClientResponse;
@@ -47,6 +50,7 @@ import static org.testng.Assert.*;
 public class SPARQLEndpointTest implements TestContext {
 
     private Federation federation;
+    private SPARQLEndpoint endpoint;
     private DisposableServer server;
     private final String query1 = "PREFIX ex: <"+EX+">\n" +
             "PREFIX foaf: <"+ FOAF.NS +">\n" +
@@ -78,7 +82,7 @@ public class SPARQLEndpointTest implements TestContext {
     public void setUp() {
         federation = Freqel.createFederation();
         federation.addSource(createSource("rdf-1.nt", Lang.NT));
-        SPARQLEndpoint endpoint = new SPARQLEndpoint(federation);
+        endpoint = new SPARQLEndpoint(federation);
         server = HttpServer.create().host("127.0.0.1").route(routes ->
                 routes.get("/sparql", endpoint::handle)
                         .post("/sparql", endpoint::handle)
@@ -104,6 +108,8 @@ public class SPARQLEndpointTest implements TestContext {
     @AfterClass(timeOut = 30000)
     public void tearDown() {
         server.disposeNow();
+        if (endpoint != null)
+            endpoint.close();
         if (federation != null)
             federation.close();
     }
@@ -133,6 +139,65 @@ public class SPARQLEndpointTest implements TestContext {
     }
 
 
+    @Test
+    public void testQueryPostFormTSVResults() throws IOException {
+        String tsv = HttpClient.create()
+                .headers(b -> b.set(HttpHeaderNames.ACCEPT, "text/tab-separated-values")
+                               .set(HttpHeaderNames.CONTENT_TYPE,
+                                    "application/x-www-form-urlencoded"))
+                .post().uri(uri())
+                .send(ByteBufFlux.fromString(Mono.just("query="+PercentEncoder.encode(query1))))
+                .responseContent().aggregate().asString(UTF_8).block();
+        assertNotNull(tsv);
+        Set<Map<String, String>> solutions = parseTSV(tsv, Sets.newHashSet("?x", "?name"));
+        assertEquals(solutions, results1TSV);
+    }
+
+    @Test
+    public void testQueryPostQueryTSVResults() throws IOException {
+        String tsv = HttpClient.create()
+                .headers(b -> b.set(HttpHeaderNames.ACCEPT, "text/tab-separated-values")
+                               .set(HttpHeaderNames.CONTENT_TYPE, "application/sparql-query"))
+                .post().uri(uri())
+                .send(ByteBufFlux.fromString(Mono.just(query1)))
+                .responseContent().aggregate().asString(UTF_8).block();
+        assertNotNull(tsv);
+        Set<Map<String, String>> solutions = parseTSV(tsv, Sets.newHashSet("?x", "?name"));
+        assertEquals(solutions, results1TSV);
+    }
+
+    @Test
+    public void testShedWhenOverloaded() {
+        FreqelConfig config = FreqelConfig.fromHardCodedDefaults()
+                .set(FreqelConfig.Key.SERVER_MAX_CONCURRENT_QUERIES, 1)
+                .set(FreqelConfig.Key.SERVER_QUERY_QUEUE_SIZE, 0);
+        Federation federation = Freqel.createFederation(config,
+                                                        createSource("rdf-1.nt", Lang.NT));
+        SPARQLEndpoint endpoint = new SPARQLEndpoint(federation);
+        DisposableServer server = HttpServer.create().host("127.0.0.1")
+                .route(routes -> routes.get("/sparql", endpoint::handle)).bindNow();
+        try {
+            String uri = "http://127.0.0.1:" + server.port() + "/sparql?query="
+                       + PercentEncoder.encode(query1);
+            Runnable release = endpoint.getAdmission().acquire().block();
+            assertNotNull(release);
+            HttpClientResponse response = HttpClient.create().get().uri(uri)
+                    .response().block();
+            assertNotNull(response);
+            assertEquals(response.status().code(), 503);
+            assertNotNull(response.responseHeaders().get(HttpHeaderNames.RETRY_AFTER));
+
+            release.run();
+            String tsv = get(uri, "text/tab-separated-values");
+            assertTrue(tsv.startsWith("?"));
+            assertEquals(endpoint.getAdmission().getActive(), 0);
+        } finally {
+            server.disposeNow();
+            endpoint.close();
+            federation.close();
+        }
+    }
+
     @Test
     public void testQueryGetJsonResults() throws IOException {
         String json = get(uri("query", query1),
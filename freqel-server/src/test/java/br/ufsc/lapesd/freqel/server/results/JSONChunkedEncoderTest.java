@@ -2,8 +2,10 @@ package br.ufsc.lapesd.freqel.server.results;
 
 import br.ufsc.lapesd.freqel.TestContext;
 import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.query.results.Solution;
 import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
 import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import br.ufsc.lapesd.freqel.query.results.impl.QueueResults;
 import io.netty.buffer.ByteBuf;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -11,6 +13,9 @@ import reactor.core.publisher.Flux;
 
 import javax.annotation.Nonnull;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -79,4 +84,27 @@ public class JSONChunkedEncoderTest implements TestContext {
         assertEquals(actual, expected);
     }
 
-}
\ No newline at end of file
+
+    @Test(dataProvider = "testData")
+    public void testReactive(@Nonnull List<String> vars, @Nonnull List<List<Term>> rows,
+                             boolean isAsk, @Nonnull String expected) throws Exception {
+        ArrayBlockingQueue<Solution> queue = new ArrayBlockingQueue<>(rows.size() + 1);
+        QueueResults results = new QueueResults(vars, queue);
+        Runnable notifier = results.getEnqueueNotifier();
+        CompletableFuture<String> future = Flux.from(encoder.encode(DEFAULT, results, isAsk,
+                                                                    UTF_8))
+                .map(bb -> bb.toString(UTF_8)).reduce(String::concat).toFuture();
+        assertFalse(future.isDone()); // subscribe() did not block waiting for solutions
+
+        ArraySolution.ValueFactory factory = ArraySolution.forVars(vars);
+        for (List<Term> terms : rows) {
+            queue.add(factory.fromValues(terms));
+            notifier.run();
+        }
+        if (!isAsk || rows.isEmpty())
+            assertFalse(future.isDone()); // ASK completes on the first solution
+        queue.add(QueueResults.DEFAULT_END);
+        notifier.run();
+        assertEquals(future.get(5, TimeUnit.SECONDS), expected);
+    }
+}
@@ -0,0 +1,81 @@
+package br.ufsc.lapesd.freqel;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Generates (and caches on disk) large text/tab-separated-values SPARQL results.
+ *
+ * Rows have the ?s ?p ?o ?label columns: a unique subject IRI, a predicate out of 50, an
+ * object that is either a typed literal or one out of 1000 IRIs and a lang-tagged label
+ * that is sometimes unbound. Output is deterministic for a given size, so the file in
+ * java.io.tmpdir can be reused across runs.
+ */
+public class TSVFixture {
+    public static final @Nonnull String HEADER = "?s\t?p\t?o\t?label\n";
+    private static final @Nonnull String EX = "http://example.org/fixture/";
+    private static final @Nonnull String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+    /**
+     * Get a file with at least the given size in bytes, creating it if necessary.
+     */
+    public static @Nonnull File get(long minBytes) throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"),
+                             "freqel-fixture-" + minBytes + ".tsv");
+        if (file.exists() && file.length() >= minBytes)
+            return file;
+        File tmp = Files.createTempFile(file.getParentFile().toPath(), "freqel-fixture", ".tsv")
+                        .toFile();
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                                                                  UTF_8), 1 << 20)) {
+            write(w, minBytes);
+        }
+        if (!tmp.renameTo(file)) {
+            if (!tmp.delete())
+                tmp.deleteOnExit();
+            throw new IOException("Could not rename "+tmp+" to "+file);
+        }
+        return file;
+    }
+
+    /**
+     * Writes rows until at least minChars characters were written.
+     */
+    public static void write(@Nonnull Writer w, long minChars) throws IOException {
+        Random random = new Random(79);
+        StringBuilder b = new StringBuilder(256);
+        long written = HEADER.length();
+        w.write(HEADER);
+        for (long row = 0; written < minChars; ++row) {
+            b.setLength(0);
+            b.append('<').append(EX).append("resource/").append(row).append(">\t");
+            b.append('<').append(EX).append("p").append(random.nextInt(50)).append(">\t");
+            switch (random.nextInt(4)) {
+                case 0:
+                    b.append('"').append(random.nextInt()).append("\"^^<").append(XSD)
+                     .append("int>");
+                    break;
+                case 1:
+                    b.append('"').append(random.nextDouble()).append("\"^^<").append(XSD)
+                     .append("double>");
+                    break;
+                default:
+                    b.append('<').append(EX).append("o").append(random.nextInt(1000))
+                     .append('>');
+                    break;
+            }
+            b.append('\t');
+            if (random.nextInt(3) > 0) {
+                b.append("\"Resource \\\"").append(row).append("\\\" çà\"@")
+                 .append(random.nextBoolean() ? "pt-BR" : "en");
+            }
+            b.append('\n');
+            w.append(b);
+            written += b.length();
+        }
+    }
+}
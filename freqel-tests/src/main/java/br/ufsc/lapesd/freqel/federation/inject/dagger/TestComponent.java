@@ -4,6 +4,7 @@ import br.ufsc.lapesd.freqel.algebra.util.CardinalityAdder;
 import br.ufsc.lapesd.freqel.cardinality.*;
 import br.ufsc.lapesd.freqel.federation.FreqelConfig;
 import br.ufsc.lapesd.freqel.federation.PerformanceListener;
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
 import br.ufsc.lapesd.freqel.federation.concurrent.PlanningExecutorService;
 import br.ufsc.lapesd.freqel.federation.decomp.agglutinator.Agglutinator;
 import br.ufsc.lapesd.freqel.federation.decomp.match.MatchingStrategy;
@@ -72,9 +73,21 @@ public interface TestComponent extends FederationComponent {
         @BindsInstance Builder overrideEmptyOpExecutor(@Named("override") @Nullable EmptyOpExecutor e);
         @BindsInstance Builder overridePipeOpExecutor(@Named("override") @Nullable PipeOpExecutor e);
         @BindsInstance Builder overrideResultsExecutor(@Named("override") @Nullable ResultsExecutor e);
+        @BindsInstance Builder overrideVirtualThreads(@Named("virtualThreadsOverride") @Nullable Boolean b);
         @BindsInstance Builder overrideHashJoinResultsFactory(@Named("override") @Nullable HashJoinResultsFactory f);
+        @BindsInstance Builder overrideHashJoinMemoryBudgetMB(@Named("hashJoinMemoryBudgetMBOverride") @Nullable Integer i);
+        @BindsInstance Builder overrideJoinExecutorService(@Named("override") @Nullable JoinExecutorService s);
+        @BindsInstance Builder overrideJoinMaxThreads(@Named("joinMaxThreadsOverride") @Nullable Integer i);
         @BindsInstance Builder overrideBindJoinResultsFactory(@Named("override") @Nullable BindJoinResultsFactory f);
+        @BindsInstance Builder overrideBindJoinMaxInFlight(@Named("bindJoinMaxInFlightOverride") @Nullable Integer i);
+        @BindsInstance Builder overrideBindJoinMaxInFlightPerEndpoint(@Named("bindJoinMaxInFlightPerEndpointOverride") @Nullable Integer i);
+        @BindsInstance Builder overrideBindJoinValuesTargetMs(@Named("bindJoinValuesTargetMsOverride") @Nullable Integer i);
+        @BindsInstance Builder overrideBindJoinValuesMaxRows(@Named("bindJoinValuesMaxRowsOverride") @Nullable Integer i);
+        @BindsInstance Builder overrideBindJoinCacheSize(@Named("bindJoinCacheSizeOverride") @Nullable Integer i);
+        @BindsInstance Builder overrideBindJoinCacheTtlSeconds(@Named("bindJoinCacheTtlSecondsOverride") @Nullable Integer i);
         @BindsInstance Builder overrideJoinOpExecutor(@Named("override") @Nullable JoinOpExecutor e);
+        @BindsInstance Builder overrideAdaptiveJoinThreshold(@Named("adaptiveJoinThresholdOverride") @Nullable Integer i);
+        @BindsInstance Builder overrideMergeJoin(@Named("mergeJoinOverride") @Nullable Boolean b);
 
         /* --- --- --- Stuff from FreqelConfigModule --- --- --- */
 
@@ -24,6 +24,7 @@ import br.ufsc.lapesd.freqel.federation.decomp.match.SourcesListMatchingStrategy
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.DefaultHashJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.FixedBindJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.FixedHashJoinOpExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.ParallelValuesBindJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.SimpleBindJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.InMemoryHashJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.ParallelInMemoryHashJoinResults;
@@ -693,6 +694,10 @@ public class FederationTest extends JerseyTestNg.ContainerPerClassTest
             f -> {
                 f.set(JOIN_OP_EXECUTOR, FixedBindJoinOpExecutor.class);
                 f.set(BIND_JOIN_RESULTS_FACTORY, SimpleBindJoinResults.Factory.class);
+            },
+            f -> {
+                f.set(JOIN_OP_EXECUTOR, FixedBindJoinOpExecutor.class);
+                f.set(BIND_JOIN_RESULTS_FACTORY, ParallelValuesBindJoinResults.Factory.class);
             }
     );
     private static final @Nonnull List<FederationFactory> factoryList;
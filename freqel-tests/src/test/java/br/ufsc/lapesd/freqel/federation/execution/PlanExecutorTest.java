@@ -12,14 +12,19 @@ import br.ufsc.lapesd.freqel.description.molecules.Molecule;
 import br.ufsc.lapesd.freqel.description.molecules.annotations.AtomAnnotation;
 import br.ufsc.lapesd.freqel.description.molecules.annotations.AtomInputAnnotation;
 import br.ufsc.lapesd.freqel.federation.FreqelConfig;
+import br.ufsc.lapesd.freqel.federation.PerformanceListener;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.AdaptiveJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.DefaultHashJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.DefaultJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.FixedBindJoinOpExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.FixedHashJoinOpExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.ParallelValuesBindJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.SimpleBindJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.InMemoryHashJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.ParallelInMemoryHashJoinResults;
 import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerTestComponent;
+import br.ufsc.lapesd.freqel.federation.performance.ThreadedPerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.metrics.Metrics;
 import br.ufsc.lapesd.freqel.jena.model.term.JenaRes;
 import br.ufsc.lapesd.freqel.jena.query.ARQEndpoint;
 import br.ufsc.lapesd.freqel.jena.rs.ModelMessageBodyWriter;
@@ -81,8 +86,22 @@ public class PlanExecutorTest extends JerseyTestNg.ContainerPerClassTest impleme
             fromHardCodedDefaults().set(JOIN_OP_EXECUTOR, DefaultHashJoinOpExecutor.class),
             fromHardCodedDefaults().set(JOIN_OP_EXECUTOR, DefaultJoinOpExecutor.class)
                            .set(BIND_JOIN_RESULTS_FACTORY, SimpleBindJoinResults.Factory.class),
+            fromHardCodedDefaults().set(JOIN_OP_EXECUTOR, FixedBindJoinOpExecutor.class)
+                           .set(BIND_JOIN_RESULTS_FACTORY, SimpleBindJoinResults.Factory.class),
+            fromHardCodedDefaults().set(JOIN_OP_EXECUTOR, FixedBindJoinOpExecutor.class)
+                           .set(BIND_JOIN_RESULTS_FACTORY, ParallelValuesBindJoinResults.Factory.class),
+            fromHardCodedDefaults().set(JOIN_OP_EXECUTOR, FixedBindJoinOpExecutor.class)
+                           .set(BIND_JOIN_RESULTS_FACTORY, ParallelValuesBindJoinResults.Factory.class)
+                           .set(BIND_JOIN_MAX_IN_FLIGHT, 1),
             fromHardCodedDefaults().set(JOIN_OP_EXECUTOR, FixedBindJoinOpExecutor.class)
                            .set(BIND_JOIN_RESULTS_FACTORY, SimpleBindJoinResults.Factory.class)
+                           .set(BIND_JOIN_CACHE_SIZE, 1024),
+            fromHardCodedDefaults().set(JOIN_OP_EXECUTOR, FixedBindJoinOpExecutor.class)
+                           .set(BIND_JOIN_RESULTS_FACTORY, ParallelValuesBindJoinResults.Factory.class)
+                           .set(BIND_JOIN_CACHE_SIZE, 1024),
+            fromHardCodedDefaults().set(JOIN_OP_EXECUTOR, AdaptiveJoinOpExecutor.class),
+            fromHardCodedDefaults().set(JOIN_OP_EXECUTOR, AdaptiveJoinOpExecutor.class)
+                           .set(ADAPTIVE_JOIN_THRESHOLD, 1)
     );
 
     @DataProvider
@@ -98,6 +117,14 @@ public class PlanExecutorTest extends JerseyTestNg.ContainerPerClassTest impleme
                 .map(m -> new Object[]{m}).toArray(Object[][]::new);
     }
 
+    @DataProvider
+    public static @Nonnull Object[][] adaptiveThresholdData() {
+        return new Object[][] {
+                new Object[] {2, "BIND_THEN_HASH"},
+                new Object[] {1024, "BIND"},
+        };
+    }
+
     /* ~~~ service ~~~ */
 
     @Path("/")
@@ -423,6 +450,27 @@ public class PlanExecutorTest extends JerseyTestNg.ContainerPerClassTest impleme
         ));
     }
 
+    @Test(dataProvider = "adaptiveThresholdData")
+    public void testAdaptiveJoinDecision(int threshold, @Nonnull String strategy) {
+        EndpointQueryOp l = new EndpointQueryOp(joinsEp, createQuery(x, type, ex("Order")));
+        EndpointQueryOp r = new EndpointQueryOp(joinsEp, createQuery(x, ex("hasConsumer"), y));
+        FreqelConfig config = fromHardCodedDefaults()
+                .set(JOIN_OP_EXECUTOR, AdaptiveJoinOpExecutor.class)
+                .set(ADAPTIVE_JOIN_THRESHOLD, threshold);
+        try (PerformanceListener perf = new ThreadedPerformanceListener()) {
+            PlanExecutor executor = DaggerTestComponent.builder().overrideFreqelConfig(config)
+                    .overridePerformanceListener(perf).build().planExecutor();
+            Set<Solution> actual = new HashSet<>();
+            executor.executeNode(JoinOp.create(l, r)).forEachRemainingThenClose(actual::add);
+            assertEquals(actual.size(), 9);
+            perf.sync();
+            assertEquals(perf.getValue(Metrics.ADAPTIVE_JOIN_STRATEGY), strategy);
+            Integer smallerRows = perf.getValue(Metrics.ADAPTIVE_JOIN_SMALLER_ROWS);
+            assertNotNull(smallerRows);
+            assertTrue(smallerRows <= threshold);
+        }
+    }
+
     @Test(dataProvider = "modulesData")
     public void testGetOrderAndPremiumConsumer(@Nonnull FreqelConfig config) {
         EndpointQueryOp l = new EndpointQueryOp(joinsEp, createQuery(x, type, ex("Order")));
@@ -4,25 +4,38 @@ import br.ufsc.lapesd.freqel.ResultsAssert;
 import br.ufsc.lapesd.freqel.TestContext;
 import br.ufsc.lapesd.freqel.algebra.Op;
 import br.ufsc.lapesd.freqel.algebra.leaf.EndpointQueryOp;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
 import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.SimpleBindJoinResults;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.GraceHashJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.InMemoryHashJoinResults;
 import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.ParallelInMemoryHashJoinResults;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.PartitionedHashJoinResults;
 import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerTestComponent;
 import br.ufsc.lapesd.freqel.jena.query.ARQEndpoint;
 import br.ufsc.lapesd.freqel.model.term.Lit;
 import br.ufsc.lapesd.freqel.model.term.std.StdLit;
 import br.ufsc.lapesd.freqel.query.endpoint.Capability;
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.decorators.AdaptiveConcurrencyLimit;
+import br.ufsc.lapesd.freqel.query.endpoint.decorators.EndpointDecorators;
+import br.ufsc.lapesd.freqel.query.endpoint.decorators.EndpointGuard;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.EndpointRejectedException;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
 import br.ufsc.lapesd.freqel.query.modifiers.Optional;
 import br.ufsc.lapesd.freqel.query.parse.SPARQLParser;
+import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
 import br.ufsc.lapesd.freqel.query.results.Solution;
 import br.ufsc.lapesd.freqel.query.results.impl.BufferedResultsExecutor;
+import br.ufsc.lapesd.freqel.query.results.impl.ChunkedResultsExecutor;
+import br.ufsc.lapesd.freqel.query.results.impl.FluxResults;
 import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
 import br.ufsc.lapesd.freqel.query.results.impl.SequentialResultsExecutor;
 import br.ufsc.lapesd.freqel.reason.tbox.TBoxSpec;
 import br.ufsc.lapesd.freqel.util.CollectionUtils;
+import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryExecutionFactory;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.sparql.vocabulary.FOAF;
@@ -35,6 +48,7 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import javax.annotation.Nonnull;
+import java.io.File;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.BiFunction;
@@ -45,6 +59,7 @@ import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
 
 public class JoinResultsTest implements TestContext {
 
@@ -67,6 +82,11 @@ public class JoinResultsTest implements TestContext {
             assertEquals(results.isOptional(), op.modifiers().optional() != null);
             return results;
         }
+        protected @Nonnull Results reactive(@Nonnull Results in) {
+            Results results = new FluxResults(in.flux(), in.getVarNames());
+            results.setOptional(in.isOptional());
+            return results;
+        }
         public @Nonnull Set<String> joinVars(@Nonnull Op left, @Nonnull Op right) {
             return CollectionUtils.intersect(left.getPublicVars(), right.getPublicVars());
         }
@@ -99,6 +119,51 @@ public class JoinResultsTest implements TestContext {
                                                                resultVars(l, r));
                 }
             },
+            new JoinFactory("ParallelInMemoryHashJoinResults over reactive inputs") {
+                @Override
+                public Results apply(EndpointQueryOp l, EndpointQueryOp r) {
+                    return new ParallelInMemoryHashJoinResults(reactive(ex(l)), reactive(ex(r)),
+                                                               joinVars(l, r), resultVars(l, r));
+                }
+            },
+            new JoinFactory("ParallelInMemoryHashJoinResults.flux() over reactive inputs") {
+                @Override
+                public Results apply(EndpointQueryOp l, EndpointQueryOp r) {
+                    Results join = new ParallelInMemoryHashJoinResults(
+                            reactive(ex(l)), reactive(ex(r)), joinVars(l, r), resultVars(l, r));
+                    assertTrue(join.isReactive());
+                    return new FluxResults(join.flux(), join.getVarNames());
+                }
+            },
+            new JoinFactory("PartitionedHashJoinResults") {
+                @Override
+                public Results apply(EndpointQueryOp l, EndpointQueryOp r) {
+                    return new PartitionedHashJoinResults(ex(l), ex(r), joinVars(l, r),
+                                                          resultVars(l, r));
+                }
+            },
+            new JoinFactory("PartitionedHashJoinResults with 1 partition") {
+                @Override
+                public Results apply(EndpointQueryOp l, EndpointQueryOp r) {
+                    return new PartitionedHashJoinResults(ex(l), ex(r), joinVars(l, r),
+                            resultVars(l, r), PoolJoinExecutorService.getDefault(), 1);
+                }
+            },
+            new JoinFactory("GraceHashJoinResults") {
+                @Override
+                public Results apply(EndpointQueryOp l, EndpointQueryOp r) {
+                    return new GraceHashJoinResults(ex(l), ex(r), joinVars(l, r),
+                                                    resultVars(l, r));
+                }
+            },
+            new JoinFactory("GraceHashJoinResults always spilling") {
+                @Override
+                public Results apply(EndpointQueryOp l, EndpointQueryOp r) {
+                    File tempDir = new File(System.getProperty("java.io.tmpdir"));
+                    return new GraceHashJoinResults(ex(l), ex(r), joinVars(l, r),
+                                                    resultVars(l, r), tempDir, 1);
+                }
+            },
             new JoinFactory("SimpleBindJoinResults + SequentialResultsExecutor") {
                 @Override
                 public Results apply(EndpointQueryOp l, EndpointQueryOp r) {
@@ -125,6 +190,24 @@ public class JoinResultsTest implements TestContext {
                     };
                 }
 
+                @Override public boolean canLeftOptional() {
+                    return false;
+                }
+            },
+            new JoinFactory("SimpleBindJoinResults + ChunkedResultsExecutor") {
+                @Override
+                public Results apply(EndpointQueryOp l, EndpointQueryOp r) {
+                    ChunkedResultsExecutor resultsExecutor = new ChunkedResultsExecutor();
+                    return new SimpleBindJoinResults(planExecutor, ex(l), r, joinVars(l, r),
+                                                     resultVars(l, r), resultsExecutor,
+                                                     SimpleBindJoinResults.DEF_VALUES_ROWS) {
+                        @Override public void close() throws ResultsCloseException {
+                            super.close();
+                            resultsExecutor.close();
+                        }
+                    };
+                }
+
                 @Override public boolean canLeftOptional() {
                     return false;
                 }
@@ -132,6 +215,27 @@ public class JoinResultsTest implements TestContext {
 
     );
 
+    private static class FailingResults extends DelegatingResults {
+        private int consumed = 0;
+
+        public FailingResults(@Nonnull Results in) {
+            super(in.getVarNames(), in);
+        }
+
+        @Override public boolean hasNext() {
+            if (consumed > 0)
+                throw new QueryExecutionException("Injected failure after first solution");
+            return super.hasNext();
+        }
+
+        @Override public @Nonnull Solution next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            ++consumed;
+            return in.next();
+        }
+    }
+
     private List<ARQEndpoint> eps;
     private ExecutorService executor;
 
@@ -150,6 +254,14 @@ public class JoinResultsTest implements TestContext {
                 return super.hasRemoteCapability(capability);
             }
         });
+        eps.add(new ARQEndpoint("join-1[fails]",
+                q -> QueryExecutionFactory.create(q, join1), null,
+                () -> {}, true) {
+            @Override public @Nonnull Results doQuery(@Nonnull Query query, boolean isAsk,
+                                                      @Nonnull Set<String> vars) {
+                return new FailingResults(super.doQuery(query, isAsk, vars));
+            }
+        });
         executor = Executors.newFixedThreadPool(4);
     }
 
@@ -278,4 +390,56 @@ public class JoinResultsTest implements TestContext {
                      @Nonnull Collection<Solution> expected) throws Exception {
         doTest(f, ep, leftSparql, rightSparql, optionalBitmap, expected, 128);
     }
+
+    @DataProvider public static @Nonnull Object[][] failureData() {
+        return factories.stream()
+                .flatMap(f -> Stream.of(new Object[]{f, false}, new Object[]{f, true}))
+                .toArray(Object[][]::new);
+    }
+
+    @Test(dataProvider = "failureData", groups = {"fast"}, timeOut = 20000)
+    public void testInputFailsMidStream(@Nonnull JoinFactory f,
+                                        boolean failRight) throws Exception {
+        SPARQLParser parser = SPARQLParser.strict();
+        String prolog = "PREFIX ex: <"+EX+">\n";
+        ARQEndpoint ok = eps.get(0), failing = eps.get(2);
+        EndpointQueryOp l = new EndpointQueryOp(failRight ? ok : failing,
+                parser.parseConjunctive(prolog+"SELECT * WHERE {ex:l1 ex:p1 ?x}"));
+        EndpointQueryOp r = new EndpointQueryOp(failRight ? failing : ok,
+                parser.parseConjunctive(prolog+"SELECT * WHERE {ex:r2 ex:p1 ?x ; ex:p2 ?y.}"));
+        // neither hang nor pass a truncated join as complete
+        try (Results results = f.apply(l, r)) {
+            expectThrows(QueryExecutionException.class, () -> {
+                while (results.hasNext())
+                    results.next();
+            });
+        }
+    }
+
+    @DataProvider public static @Nonnull Object[][] factoriesData() {
+        return factories.stream().map(f -> new Object[]{f}).toArray(Object[][]::new);
+    }
+
+    @Test(dataProvider = "factoriesData", groups = {"fast"}, timeOut = 20000)
+    public void testDeferredRejectionFailsJoin(@Nonnull JoinFactory f) throws Exception {
+        // no queueing: once the only permit is taken, deferred requests are rejected
+        EndpointGuard guard = new EndpointGuard(new AdaptiveConcurrencyLimit(1, 1, 1, 0),
+                                                null, 1, TimeUnit.SECONDS);
+        TPEndpoint ep = EndpointDecorators.guarded(eps.get(0), guard);
+        SPARQLParser parser = SPARQLParser.strict();
+        String prolog = "PREFIX ex: <"+EX+">\n";
+        EndpointQueryOp l = new EndpointQueryOp(ep,
+                parser.parseConjunctive(prolog+"SELECT * WHERE {ex:l1 ex:p1 ?x}"));
+        EndpointQueryOp r = new EndpointQueryOp(ep,
+                parser.parseConjunctive(prolog+"SELECT * WHERE {ex:r2 ex:p1 ?x ; ex:p2 ?y.}"));
+        assertTrue(guard.getLimit().tryAcquire()); // inputs will be deferred
+        try (Results results = f.apply(l, r)) {
+            expectThrows(EndpointRejectedException.class, () -> {
+                while (results.hasNext())
+                    results.next();
+            });
+        } finally {
+            guard.getLimit().release(-1, false);
+        }
+    }
 }
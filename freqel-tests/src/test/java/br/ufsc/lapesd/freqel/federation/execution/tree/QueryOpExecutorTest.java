@@ -15,6 +15,7 @@ import br.ufsc.lapesd.freqel.jena.query.modifiers.filter.JenaSPARQLFilter;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.ResultsExecutor;
 import br.ufsc.lapesd.freqel.query.results.impl.BufferedResultsExecutor;
+import br.ufsc.lapesd.freqel.query.results.impl.ChunkedResultsExecutor;
 import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
 import br.ufsc.lapesd.freqel.query.results.impl.SequentialResultsExecutor;
 import br.ufsc.lapesd.freqel.reason.tbox.TBoxSpec;
@@ -70,7 +71,13 @@ public class QueryOpExecutorTest implements TestContext {
                             saveExecutor(new BufferedResultsExecutor(Executors.newSingleThreadExecutor(), 10)))),
             new NamedSupplier<>("SimpleQueryNodeExecutor+BufferedResultsExecutor",
                     () -> new SimpleQueryOpExecutor(failExecutor,
-                            saveExecutor(new BufferedResultsExecutor())))
+                            saveExecutor(new BufferedResultsExecutor()))),
+            new NamedSupplier<>("SimpleQueryNodeExecutor+ChunkedResultsExecutor(single, 1)",
+                    () -> new SimpleQueryOpExecutor(failExecutor,
+                            saveExecutor(new ChunkedResultsExecutor(Executors.newSingleThreadExecutor(), 1)))),
+            new NamedSupplier<>("SimpleQueryNodeExecutor+ChunkedResultsExecutor",
+                    () -> new SimpleQueryOpExecutor(failExecutor,
+                            saveExecutor(new ChunkedResultsExecutor())))
     );
 
     private static final @Nonnull Queue<ResultsExecutor> resultExecutors;
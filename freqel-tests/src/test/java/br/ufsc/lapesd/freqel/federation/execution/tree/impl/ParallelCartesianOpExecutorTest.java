@@ -0,0 +1,104 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.algebra.inner.CartesianOp;
+import br.ufsc.lapesd.freqel.algebra.leaf.EndpointQueryOp;
+import br.ufsc.lapesd.freqel.cardinality.impl.ThresholdCardinalityComparator;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerTestComponent;
+import br.ufsc.lapesd.freqel.jena.query.ARQEndpoint;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.modifiers.Limit;
+import br.ufsc.lapesd.freqel.query.modifiers.Offset;
+import br.ufsc.lapesd.freqel.query.modifiers.OrderBy;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static br.ufsc.lapesd.freqel.query.parse.CQueryContext.createQuery;
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+
+@Test(groups = {"fast"})
+public class ParallelCartesianOpExecutorTest implements TestContext {
+    private static final int SIZE = 10;
+    private ARQEndpoint ep;
+    private ParallelCartesianOpExecutor executor;
+
+    @BeforeClass
+    public void setUp() {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < SIZE; i++) {
+            model.add(model.createResource(EX+"a"+i), model.createProperty(p1.getURI()),
+                      model.createResource(EX+"b"+i));
+            model.add(model.createResource(EX+"c"+i), model.createProperty(p2.getURI()),
+                      model.createResource(EX+"d"+i));
+        }
+        ep = ARQEndpoint.forModel(model);
+        PlanExecutor planExecutor = DaggerTestComponent.builder().build().planExecutor();
+        executor = new ParallelCartesianOpExecutor(() -> planExecutor,
+                                                   ThresholdCardinalityComparator.DEFAULT,
+                                                   PoolJoinExecutorService.getDefault());
+    }
+
+    @AfterClass
+    public void tearDown() {
+        ep.close();
+    }
+
+    private @Nonnull CartesianOp createProduct() {
+        return new CartesianOp(asList(new EndpointQueryOp(ep, createQuery(x, p1, y)),
+                                      new EndpointQueryOp(ep, createQuery(z, p2, w))));
+    }
+
+    private static @Nonnull List<Solution> drain(@Nonnull Results results) {
+        List<Solution> list = new ArrayList<>();
+        results.forEachRemainingThenClose(list::add);
+        return list;
+    }
+
+    private static @Nonnull Solution solution(int a, int c) {
+        return MapSolution.builder().put(x, new StdURI(EX+"a"+a)).put(y, new StdURI(EX+"b"+a))
+                                    .put(z, new StdURI(EX+"c"+c)).put(w, new StdURI(EX+"d"+c))
+                                    .build();
+    }
+
+    @Test
+    public void testLimit() {
+        CartesianOp op = createProduct();
+        op.modifiers().add(Limit.of(3));
+        List<Solution> list = drain(executor.execute(op));
+        assertEquals(list.size(), 3);
+        assertEquals(new HashSet<>(list).size(), 3);
+    }
+
+    @Test
+    public void testOrderByLimit() {
+        CartesianOp op = createProduct();
+        op.modifiers().add(new OrderBy(asList(OrderBy.Key.desc("x"), OrderBy.Key.desc("z"))));
+        op.modifiers().add(Limit.of(3));
+        List<Solution> list = drain(executor.execute(op));
+        assertEquals(list, asList(solution(9, 9), solution(9, 8), solution(9, 7)));
+    }
+
+    @Test
+    public void testOffsetLimit() {
+        CartesianOp op = createProduct();
+        op.modifiers().add(Offset.of(SIZE*SIZE - 2));
+        op.modifiers().add(Limit.of(3));
+        List<Solution> list = drain(executor.execute(op));
+        assertEquals(list.size(), 2);
+        assertEquals(new HashSet<>(list).size(), 2);
+    }
+}
@@ -0,0 +1,104 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.algebra.Cardinality;
+import br.ufsc.lapesd.freqel.algebra.inner.JoinOp;
+import br.ufsc.lapesd.freqel.algebra.leaf.EndpointQueryOp;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind.SimpleBindJoinResults;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.merge.MergeJoinResults;
+import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerTestComponent;
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfile;
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfiler;
+import br.ufsc.lapesd.freqel.federation.performance.NoOpPerformanceListener;
+import br.ufsc.lapesd.freqel.jena.query.ARQEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.CQEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.EmptyEndpoint;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.impl.SequentialResultsExecutor;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+
+import static br.ufsc.lapesd.freqel.algebra.Cardinality.guess;
+import static br.ufsc.lapesd.freqel.federation.performance.EndpointProfilerTest.Sampler.sample;
+import static br.ufsc.lapesd.freqel.query.parse.CQueryContext.createQuery;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class DefaultJoinOpExecutorTest implements TestContext {
+    private static @Nonnull EndpointQueryOp left(@Nonnull CQEndpoint ep,
+                                                 @Nonnull Cardinality cardinality) {
+        EndpointQueryOp op = new EndpointQueryOp(ep, createQuery(Alice, knows, x));
+        op.setCardinality(cardinality);
+        return op;
+    }
+
+    private static @Nonnull EndpointQueryOp right(@Nonnull CQEndpoint ep,
+                                                  @Nonnull Cardinality cardinality) {
+        EndpointQueryOp op = new EndpointQueryOp(ep, createQuery(x, age, y));
+        op.setCardinality(cardinality);
+        return op;
+    }
+
+    @Test
+    public void testHashFasterThanManyBindRequestsToSlowSource() {
+        EmptyEndpoint fast = new EmptyEndpoint(), slow = new EmptyEndpoint();
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        for (int i = 0; i < EndpointProfile.MIN_SAMPLES; i++) {
+            sample(profiler, fast,  10, 101, 10); // 10000 rows/s
+            sample(profiler, slow, 500, 101, 10);
+        }
+        // hash: max(10+200, 500+200)=700ms, bind: 210 + 50*500 ms
+        assertTrue(DefaultJoinOpExecutor.isHashFaster(left(fast, guess(2000)),
+                                                      right(slow, guess(2000)), profiler));
+        // bind: 11 + 500ms
+        assertFalse(DefaultJoinOpExecutor.isHashFaster(left(fast, guess(10)),
+                                                       right(slow, guess(2000)), profiler));
+        // cardinalities must be known
+        assertFalse(DefaultJoinOpExecutor.isHashFaster(left(fast, Cardinality.UNSUPPORTED),
+                                                       right(slow, guess(2000)), profiler));
+    }
+
+    @Test
+    public void testMergeJoinIsOptIn() {
+        PlanExecutor planExecutor = DaggerTestComponent.builder().build().planExecutor();
+        SimpleBindJoinResults.Factory bindFactory = new SimpleBindJoinResults.Factory(
+                () -> planExecutor, new SequentialResultsExecutor());
+        ARQEndpoint ep1 = ARQEndpoint.forModel(ModelFactory.createDefaultModel());
+        ARQEndpoint ep2 = ARQEndpoint.forModel(ModelFactory.createDefaultModel());
+        try {
+            for (boolean mergeJoin : new boolean[]{false, true}) {
+                EndpointQueryOp l = new EndpointQueryOp(ep1, createQuery(x, knows, y));
+                EndpointQueryOp r = new EndpointQueryOp(ep2, createQuery(x, age, z));
+                l.setCardinality(guess(2000));
+                r.setCardinality(guess(2000));
+                DefaultJoinOpExecutor executor
+                        = new DefaultJoinOpExecutor(planExecutor, bindFactory, mergeJoin);
+                try (Results results = executor.innerExecute(JoinOp.create(l, r))) {
+                    assertEquals(results instanceof MergeJoinResults, mergeJoin);
+                    assertFalse(results.hasNext());
+                }
+            }
+        } finally {
+            ep1.close();
+            ep2.close();
+        }
+    }
+
+    @Test
+    public void testNoProfileKeepsBind() {
+        EmptyEndpoint fast = new EmptyEndpoint(), unknown = new EmptyEndpoint();
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        for (int i = 0; i < EndpointProfile.MIN_SAMPLES; i++) {
+            sample(profiler, fast, 10, 101, 10);
+            sample(profiler, unknown, 500); // no throughput
+        }
+        assertFalse(DefaultJoinOpExecutor.isHashFaster(left(fast, guess(2000)),
+                                                       right(unknown, guess(2000)), profiler));
+        assertFalse(DefaultJoinOpExecutor.isHashFaster(left(fast, guess(2000)),
+                                                       right(new EmptyEndpoint(), guess(2000)),
+                                                       profiler));
+    }
+}
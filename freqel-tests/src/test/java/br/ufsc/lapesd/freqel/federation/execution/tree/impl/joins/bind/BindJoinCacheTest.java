@@ -0,0 +1,337 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.leaf.EndpointQueryOp;
+import br.ufsc.lapesd.freqel.algebra.leaf.SPARQLValuesTemplateOp;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerTestComponent;
+import br.ufsc.lapesd.freqel.federation.performance.ThreadedPerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.metrics.Metrics;
+import br.ufsc.lapesd.freqel.jena.query.ARQEndpoint;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.modifiers.Optional;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
+import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
+import br.ufsc.lapesd.freqel.query.results.impl.SequentialResultsExecutor;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static br.ufsc.lapesd.freqel.query.parse.CQueryContext.createQuery;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class BindJoinCacheTest implements TestContext {
+    private static final int ROWS = 100;
+    private static final @Nonnull PlanExecutor planExecutor
+            = DaggerTestComponent.builder().build().planExecutor();
+
+    private ThreadedPerformanceListener perf;
+    private ARQEndpoint ep;
+
+    @BeforeMethod
+    public void setUp() {
+        perf = new ThreadedPerformanceListener();
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < ROWS; i++) {
+            model.add(model.createResource(EX + "s" + i), model.createProperty(p1.getURI()),
+                      model.createResource(EX + "o" + i));
+        }
+        ep = ARQEndpoint.forModel(model);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        perf.close();
+        ep.close();
+    }
+
+    /**
+     * Counts requests and VALUES rows sent to the endpoint.
+     */
+    private static class CountingPlanExecutor implements PlanExecutor {
+        private static final Pattern SUBJECT_RX = Pattern.compile("<"+EX+"s\\d+>");
+        final AtomicInteger requests = new AtomicInteger(), rows = new AtomicInteger();
+
+        @Override public @Nonnull Results executePlan(@Nonnull Op plan) {
+            return planExecutor.executePlan(plan);
+        }
+
+        @Override public @Nonnull Results executeNode(@Nonnull Op node) {
+            requests.incrementAndGet();
+            if (node instanceof SPARQLValuesTemplateOp) {
+                Matcher m = SUBJECT_RX.matcher(((SPARQLValuesTemplateOp) node).createSPARQL());
+                while (m.find()) rows.incrementAndGet();
+            }
+            return planExecutor.executeNode(node);
+        }
+    }
+
+    /**
+     * Yields the first solution of each request, fails once and then reports the end.
+     */
+    private static class FailingPlanExecutor extends CountingPlanExecutor {
+        @Override public @Nonnull Results executeNode(@Nonnull Op node) {
+            Results in = super.executeNode(node);
+            return new DelegatingResults(in.getVarNames(), in) {
+                private boolean served = false, failed = false;
+
+                @Override public boolean hasNext() {
+                    if (failed)
+                        return false;
+                    if (served) {
+                        failed = true;
+                        throw new QueryExecutionException("Connection reset");
+                    }
+                    return in.hasNext();
+                }
+
+                @Override public @Nonnull Solution next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    served = true;
+                    return in.next();
+                }
+            };
+        }
+    }
+
+    private interface JoinFactory {
+        @Nonnull Results create(@Nonnull PlanExecutor executor, @Nonnull Results left,
+                                @Nonnull Op right, @Nonnull BindJoinCache cache);
+    }
+
+    @DataProvider
+    public static @Nonnull Object[][] factoryData() {
+        JoinFactory simple = (executor, left, right, cache) -> new SimpleBindJoinResults(
+                executor, left, right, singletonList("x"), asList("x", "y"),
+                new SequentialResultsExecutor(), 10, null, cache);
+        JoinFactory parallel = (executor, left, right, cache) -> new ParallelValuesBindJoinResults(
+                executor, left, right, singletonList("x"), asList("x", "y"),
+                new SequentialResultsExecutor(), PoolJoinExecutorService.getDefault(),
+                BindJoinEndpointLimiter.getDefault(), 4, 10, null, cache);
+        return new Object[][] {new Object[] {simple}, new Object[] {parallel}};
+    }
+
+    private static @Nonnull Results left(int begin, int end) {
+        List<Solution> list = new ArrayList<>();
+        for (int i = begin; i < end; i++)
+            list.add(MapSolution.build(x, new StdURI(EX + "s" + i)));
+        return new CollectionResults(list, singletonList("x"));
+    }
+
+    private static @Nonnull Set<Solution> expected(int begin, int end, boolean optional) {
+        Set<Solution> set = new HashSet<>();
+        for (int i = begin; i < end; i++) {
+            MapSolution.Builder b = MapSolution.builder().put(x, new StdURI(EX + "s" + i));
+            if (i < ROWS)
+                set.add(b.put(y, new StdURI(EX + "o" + i)).build());
+            else if (optional)
+                set.add(b.build());
+        }
+        return set;
+    }
+
+    private static @Nonnull Set<Solution> consume(@Nonnull Results results) {
+        Set<Solution> set = new HashSet<>();
+        try (Results r = results) {
+            while (r.hasNext())
+                assertTrue(set.add(MapSolution.builder(r.next()).build()));
+        }
+        return set;
+    }
+
+    private @Nonnull Op right() {
+        return new EndpointQueryOp(ep, createQuery(x, p1, y));
+    }
+
+    @Test(dataProvider = "factoryData")
+    public void testRepeatedJoinIsLocal(@Nonnull JoinFactory factory) {
+        BindJoinCache cache = new BindJoinCache(perf, 1000, 60);
+        CountingPlanExecutor executor = new CountingPlanExecutor();
+        assertEquals(consume(factory.create(executor, left(0, 50), right(), cache)),
+                     expected(0, 50, false));
+        assertEquals(executor.rows.get(), 50);
+        int requests = executor.requests.get();
+        assertTrue(requests > 0);
+
+        assertEquals(consume(factory.create(executor, left(0, 50), right(), cache)),
+                     expected(0, 50, false));
+        assertEquals(executor.requests.get(), requests);
+        assertEquals(cache.getHits(), 50);
+        assertEquals(cache.getMisses(), 50);
+        perf.sync();
+        assertEquals(perf.getValue(Metrics.BIND_JOIN_CACHE_HIT_RATE), 0.5);
+    }
+
+    @Test(dataProvider = "factoryData")
+    public void testOnlyMissesAreSent(@Nonnull JoinFactory factory) {
+        BindJoinCache cache = new BindJoinCache(perf, 1000, 60);
+        CountingPlanExecutor executor = new CountingPlanExecutor();
+        consume(factory.create(executor, left(0, 60), right(), cache));
+        assertEquals(executor.rows.get(), 60);
+        assertEquals(consume(factory.create(executor, left(40, ROWS+20), right(), cache)),
+                     expected(40, ROWS+20, false));
+        assertEquals(executor.rows.get(), 60 + (ROWS+20-60));
+        assertEquals(cache.getHits(), 20);
+    }
+
+    @Test(dataProvider = "factoryData")
+    public void testOptionalRightFromCache(@Nonnull JoinFactory factory) {
+        BindJoinCache cache = new BindJoinCache(perf, 1000, 60);
+        CountingPlanExecutor executor = new CountingPlanExecutor();
+        Op right = right();
+        right.modifiers().add(Optional.EXPLICIT);
+        assertEquals(consume(factory.create(executor, left(ROWS-10, ROWS+10), right, cache)),
+                     expected(ROWS-10, ROWS+10, true));
+        int requests = executor.requests.get();
+
+        right = right();
+        right.modifiers().add(Optional.EXPLICIT);
+        assertEquals(consume(factory.create(executor, left(ROWS-10, ROWS+10), right, cache)),
+                     expected(ROWS-10, ROWS+10, true));
+        assertEquals(executor.requests.get(), requests);
+    }
+
+    @Test
+    public void testDifferentRightIsNotShared() {
+        BindJoinCache cache = new BindJoinCache(perf, 1000, 60);
+        CountingPlanExecutor executor = new CountingPlanExecutor();
+        Op other = new EndpointQueryOp(ep, createQuery(x, p2, y));
+        JoinFactory simple = (JoinFactory) factoryData()[0][0];
+        consume(simple.create(executor, left(0, 10), right(), cache));
+        assertEquals(consume(simple.create(executor, left(0, 10), other, cache)),
+                     Collections.emptySet());
+        assertEquals(executor.rows.get(), 20);
+        assertEquals(cache.getHits(), 0);
+    }
+
+    @Test
+    public void testEarlyCloseDoesNotCache() {
+        BindJoinCache cache = new BindJoinCache(perf, 1000, 60);
+        CountingPlanExecutor executor = new CountingPlanExecutor();
+        JoinFactory simple = (JoinFactory) factoryData()[0][0];
+        try (Results results = simple.create(executor, left(0, 10), right(), cache)) {
+            assertTrue(results.hasNext());
+            results.next();
+        }
+        assertEquals(consume(simple.create(executor, left(0, 10), right(), cache)),
+                     expected(0, 10, false));
+        assertEquals(cache.getHits(), 0);
+    }
+
+    @Test(dataProvider = "factoryData")
+    public void testFailedRightDoesNotCache(@Nonnull JoinFactory factory) {
+        BindJoinCache cache = new BindJoinCache(perf, 1000, 60);
+        try {
+            consume(factory.create(new FailingPlanExecutor(), left(0, 10), right(), cache));
+        } catch (RuntimeException ignored) { /* the join may or may not propagate */ }
+        CountingPlanExecutor executor = new CountingPlanExecutor();
+        assertEquals(consume(factory.create(executor, left(0, 10), right(), cache)),
+                     expected(0, 10, false));
+        assertEquals(executor.rows.get(), 10);
+        assertEquals(cache.getHits(), 0);
+    }
+
+    @Test(dataProvider = "factoryData")
+    public void testErrorFallbackDoesNotCache(@Nonnull JoinFactory factory) {
+        BindJoinCache cache = new BindJoinCache(perf, 1000, 60);
+        Model model = ModelFactory.createDefaultModel();
+        ARQEndpoint failing = new ARQEndpoint("fails",
+                q -> QueryExecutionFactory.create(q, model), null, () -> {}, true) {
+            @Override public @Nonnull Results doQuery(@Nonnull Query query, boolean isAsk,
+                                                      @Nonnull Set<String> vars) {
+                throw new QueryExecutionException("HTTP 503");
+            }
+        };
+        try {
+            Op right = new EndpointQueryOp(failing, createQuery(x, p1, y));
+            // the executor replaces the failed request with an empty result
+            assertEquals(consume(factory.create(planExecutor, left(0, 10), right, cache)),
+                         Collections.emptySet());
+            List<Solution> bound = new ArrayList<>();
+            for (int i = 0; i < 10; i++)
+                bound.add(MapSolution.build(x, new StdURI(EX + "s" + i)));
+            assertEquals(cache.lookup(BindJoinCache.createRightKey(right), bound),
+                         Collections.emptyMap());
+        } finally {
+            failing.close();
+        }
+    }
+
+    @Test
+    public void testRecordAfterFailureDoesNotCommit() {
+        BindJoinCache cache = new BindJoinCache(perf, 1000, 60);
+        BindJoinCache.RightKey key = BindJoinCache.createRightKey(right());
+        List<Solution> bound = new ArrayList<>();
+        for (int i = 0; i < 2; i++)
+            bound.add(MapSolution.build(x, new StdURI(EX + "s" + i)));
+        Results results = cache.record(new FailingPlanExecutor().executeNode(right()), key,
+                                       singletonList("x"), bound);
+        assertTrue(results.hasNext());
+        results.next();
+        expectThrows(QueryExecutionException.class, results::hasNext);
+        assertFalse(results.hasNext());
+        results.close();
+        assertEquals(cache.lookup(key, new ArrayList<>(bound)), Collections.emptyMap());
+    }
+
+    @Test
+    public void testCloseBeforeEndDoesNotCommit() {
+        BindJoinCache cache = new BindJoinCache(perf, 1000, 60);
+        BindJoinCache.RightKey key = BindJoinCache.createRightKey(right());
+        List<Solution> bound = singletonList(MapSolution.build(x, new StdURI(EX + "s0")));
+        Solution answer = MapSolution.builder().put(x, new StdURI(EX + "s0"))
+                                               .put(y, new StdURI(EX + "o0")).build();
+        Results results = cache.record(new CollectionResults(asList(answer, answer),
+                                                             asList("x", "y")),
+                                       key, singletonList("x"), bound);
+        assertTrue(results.hasNext());
+        results.next();
+        results.close();
+        results.next(); // a careless consumer keeps going after close()
+        assertFalse(results.hasNext());
+        assertEquals(cache.lookup(key, new ArrayList<>(bound)), Collections.emptyMap());
+    }
+
+    @Test
+    public void testTooManySolutionsNotCached() {
+        BindJoinCache cache = new BindJoinCache(perf, 5, 60);
+        CountingPlanExecutor executor = new CountingPlanExecutor();
+        JoinFactory simple = (JoinFactory) factoryData()[0][0];
+        consume(simple.create(executor, left(0, 10), right(), cache));
+        consume(simple.create(executor, left(0, 10), right(), cache));
+        assertEquals(executor.rows.get(), 20);
+    }
+
+    @Test
+    public void testDisabled() {
+        BindJoinCache cache = new BindJoinCache(perf, 0, 60);
+        assertFalse(cache.isEnabled());
+        assertFalse(BindJoinCache.getDefault().isEnabled());
+        CountingPlanExecutor executor = new CountingPlanExecutor();
+        JoinFactory simple = (JoinFactory) factoryData()[0][0];
+        consume(simple.create(executor, left(0, 10), right(), cache));
+        consume(simple.create(executor, left(0, 10), right(), cache));
+        assertEquals(executor.rows.get(), 20);
+    }
+}
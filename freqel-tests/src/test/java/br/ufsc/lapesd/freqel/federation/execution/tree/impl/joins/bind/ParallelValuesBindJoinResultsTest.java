@@ -0,0 +1,167 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.algebra.leaf.EndpointQueryOp;
+import br.ufsc.lapesd.freqel.federation.concurrent.JoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerTestComponent;
+import br.ufsc.lapesd.freqel.jena.query.ARQEndpoint;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
+import br.ufsc.lapesd.freqel.query.results.DelegatingResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
+import br.ufsc.lapesd.freqel.query.results.impl.SequentialResultsExecutor;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static br.ufsc.lapesd.freqel.query.parse.CQueryContext.createQuery;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class ParallelValuesBindJoinResultsTest implements TestContext {
+    private static final @Nonnull PlanExecutor planExecutor
+            = DaggerTestComponent.builder().build().planExecutor();
+
+    @Test
+    public void testInterruptedWaitingForPermitsFails() {
+        Model model = ModelFactory.createDefaultModel();
+        model.add(model.createResource(EX + "s0"), model.createProperty(p1.getURI()),
+                  model.createResource(EX + "o0"));
+        ARQEndpoint ep = ARQEndpoint.forModel(model);
+        BindJoinEndpointLimiter limiter = new BindJoinEndpointLimiter(1);
+        assertTrue(limiter.tryAcquire(singleton(ep))); // held by some other join
+        List<Solution> left = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            left.add(MapSolution.build(x, new StdURI(EX + "s" + i)));
+        try (Results results = new ParallelValuesBindJoinResults(
+                planExecutor, new CollectionResults(left, singletonList("x")),
+                new EndpointQueryOp(ep, createQuery(x, p1, y)), singletonList("x"),
+                asList("x", "y"), new SequentialResultsExecutor(),
+                PoolJoinExecutorService.getDefault(), limiter, 4, 2)) {
+            Thread.currentThread().interrupt();
+            expectThrows(RuntimeException.class, results::hasNext);
+            assertTrue(Thread.interrupted()); // flag restored and cleared
+            expectThrows(RuntimeException.class, results::hasNext); // does not end silently
+        } finally {
+            limiter.release(singleton(ep));
+            ep.close();
+        }
+    }
+
+    private static @Nonnull Model createModel() {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < 4; i++) {
+            model.add(model.createResource(EX + "s" + i), model.createProperty(p1.getURI()),
+                      model.createResource(EX + "o" + i));
+        }
+        return model;
+    }
+
+    private static @Nonnull Results createLeft() {
+        List<Solution> left = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            left.add(MapSolution.build(x, new StdURI(EX + "s" + i)));
+        return new CollectionResults(left, singletonList("x"));
+    }
+
+    private static @Nonnull Results createJoin(@Nonnull ARQEndpoint ep,
+                                               @Nonnull JoinExecutorService executor,
+                                               @Nonnull BindJoinEndpointLimiter limiter) {
+        return new ParallelValuesBindJoinResults(
+                planExecutor, createLeft(), new EndpointQueryOp(ep, createQuery(x, p1, y)),
+                singletonList("x"), asList("x", "y"), new SequentialResultsExecutor(),
+                executor, limiter, 4, 2);
+    }
+
+    @Test(timeOut = 10000)
+    public void testWaitForPermitsReleasedByOtherJoin() throws Exception {
+        ARQEndpoint ep = ARQEndpoint.forModel(createModel());
+        BindJoinEndpointLimiter limiter = new BindJoinEndpointLimiter(1);
+        assertTrue(limiter.tryAcquire(singleton(ep))); // held by some other join
+        Thread other = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) { }
+            limiter.release(singleton(ep));
+        });
+        other.start();
+        int count = 0;
+        try (Results results = createJoin(ep, PoolJoinExecutorService.getDefault(), limiter)) {
+            for (; results.hasNext(); ++count)
+                results.next();
+        } finally {
+            other.join();
+            ep.close();
+        }
+        assertEquals(count, 4);
+        assertEquals(limiter.getAvailable(ep), 1);
+    }
+
+    @Test(timeOut = 10000)
+    public void testBatchFailureIsThrown() throws InterruptedException {
+        Model model = createModel();
+        ARQEndpoint ep = new ARQEndpoint("fails",
+                q -> QueryExecutionFactory.create(q, model), null, () -> {}, true) {
+            @Override public @Nonnull Results doQuery(@Nonnull Query query, boolean isAsk,
+                                                      @Nonnull Set<String> vars) {
+                Results in = super.doQuery(query, isAsk, vars);
+                return new DelegatingResults(in.getVarNames(), in) {
+                    @Override public boolean hasNext() {
+                        throw new QueryExecutionException("connection reset");
+                    }
+
+                    @Override public @Nonnull Solution next() {
+                        throw new NoSuchElementException();
+                    }
+                };
+            }
+        };
+        BindJoinEndpointLimiter limiter = new BindJoinEndpointLimiter(2);
+        try (Results results = createJoin(ep, PoolJoinExecutorService.getDefault(), limiter)) {
+            expectThrows(QueryExecutionException.class, results::hasNext);
+            expectThrows(QueryExecutionException.class, results::hasNext); // not silently ended
+        } finally {
+            ep.close();
+        }
+        while (limiter.getAvailable(ep) < 2)
+            Thread.sleep(10); // the other batch may still be running, times out if leaked
+    }
+
+    @Test(timeOut = 10000)
+    public void testRejectedBatchReleasesPermits() {
+        ARQEndpoint ep = ARQEndpoint.forModel(createModel());
+        BindJoinEndpointLimiter limiter = new BindJoinEndpointLimiter(2);
+        PoolJoinExecutorService rejecting = new PoolJoinExecutorService(1) {
+            @Override public @Nonnull Future<?> submit(@Nonnull Object lane,
+                                                       @Nonnull Runnable task) {
+                throw new RejectedExecutionException("rejected "+task);
+            }
+        };
+        try (Results results = createJoin(ep, rejecting, limiter)) {
+            expectThrows(RejectedExecutionException.class, results::hasNext);
+            assertEquals(limiter.getAvailable(ep), 2);
+            expectThrows(RejectedExecutionException.class, results::hasNext);
+        } finally {
+            ep.close();
+        }
+        assertEquals(limiter.getAvailable(ep), 2);
+    }
+}
@@ -0,0 +1,217 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.bind;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.leaf.EndpointQueryOp;
+import br.ufsc.lapesd.freqel.algebra.leaf.SPARQLValuesTemplateOp;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerTestComponent;
+import br.ufsc.lapesd.freqel.federation.performance.ThreadedPerformanceListener;
+import br.ufsc.lapesd.freqel.federation.performance.metrics.Metrics;
+import br.ufsc.lapesd.freqel.jena.query.ARQEndpoint;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.NettySPARQLServer;
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.HTTPStatusException;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.NettyCompliantTSVSPARQLClient;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
+import br.ufsc.lapesd.freqel.query.results.impl.SequentialResultsExecutor;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+import static br.ufsc.lapesd.freqel.query.parse.CQueryContext.createQuery;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class ValuesBatchSizeControllerTest implements TestContext {
+    private static final int ROWS = 200;
+    private static final @Nonnull PlanExecutor planExecutor
+            = DaggerTestComponent.builder().build().planExecutor();
+
+    private ThreadedPerformanceListener perf;
+    private Model model;
+    private ARQEndpoint ep;
+
+    @BeforeMethod
+    public void setUp() {
+        perf = new ThreadedPerformanceListener();
+        model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < ROWS; i++) {
+            Resource subj = model.createResource(EX + "s" + i);
+            model.add(subj, model.createProperty(p1.getURI()), model.createResource(EX + "o" + i));
+        }
+        ep = ARQEndpoint.forModel(model);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        perf.close();
+        ep.close();
+    }
+
+    private @Nonnull Set<TPEndpoint> eps() {
+        return singleton(ep);
+    }
+
+    @Test
+    public void testGrowUpToMax() {
+        ValuesBatchSizeController controller = new ValuesBatchSizeController(perf, 1000, 100);
+        assertEquals(controller.getBatchSize(eps()), SimpleBindJoinResults.DEF_VALUES_ROWS);
+        for (int i = 0; i < 10; i++)
+            controller.onSuccess(eps(), controller.getBatchSize(ep), 1, 10);
+        assertEquals(controller.getBatchSize(ep), 100);
+        perf.sync();
+        assertEquals(perf.getValue(Metrics.VALUES_BATCH_SIZE), Integer.valueOf(100));
+    }
+
+    @Test
+    public void testPartialBatchDoesNotGrow() {
+        ValuesBatchSizeController controller = new ValuesBatchSizeController(perf, 1000, 100);
+        controller.onSuccess(eps(), 3, 1, 3);
+        assertEquals(controller.getBatchSize(ep), SimpleBindJoinResults.DEF_VALUES_ROWS);
+    }
+
+    @Test
+    public void testShrinkWhenSlowOrLarge() {
+        ValuesBatchSizeController controller = new ValuesBatchSizeController(perf, 100, 400);
+        controller.onSuccess(eps(), 40, 500, 10);
+        assertEquals(controller.getBatchSize(ep), 20);
+        controller.onSuccess(eps(), 20, 1, ValuesBatchSizeController.MAX_BATCH_RESULTS+1);
+        assertEquals(controller.getBatchSize(ep), 10);
+        controller.onSuccess(eps(), 10, 150, 10); // within target: keep
+        assertEquals(controller.getBatchSize(ep), 10);
+    }
+
+    @Test
+    public void testTooLargeSetsCeiling() {
+        ValuesBatchSizeController controller = new ValuesBatchSizeController(perf, 1000, 400);
+        QueryExecutionException other = new QueryExecutionException("Connection refused");
+        assertFalse(controller.onFailure(eps(), 40, other));
+        assertEquals(controller.getBatchSize(ep), 40);
+        // only the status matters, not the message
+        QueryExecutionException text = new QueryExecutionException("HTTP 414 URI Too Long");
+        assertFalse(controller.onFailure(eps(), 40, text));
+        HTTPStatusException serverError = new HTTPStatusException(500, "Request too large");
+        assertFalse(controller.onFailure(eps(), 40, serverError));
+        assertEquals(controller.getBatchSize(ep), 40);
+
+        QueryExecutionException cause = new QueryExecutionException(
+                "Failed", new HTTPStatusException(ep, 414, "URI Too Long"));
+        assertTrue(ValuesBatchSizeController.isRequestTooLarge(cause));
+        assertTrue(controller.onFailure(eps(), 40, cause));
+        assertEquals(controller.getBatchSize(ep), 20);
+        for (int i = 0; i < 10; i++)
+            controller.onSuccess(eps(), 20, 1, 10);
+        assertEquals(controller.getBatchSize(ep), 20);
+    }
+
+    @Test
+    public void testNotAdaptive() {
+        ValuesBatchSizeController controller = new ValuesBatchSizeController(perf, 0, 400);
+        assertFalse(controller.isAdaptive());
+        controller.onSuccess(eps(), 40, 1, 10);
+        controller.onSuccess(eps(), 40, 10000, 10);
+        assertEquals(controller.getBatchSize(ep), SimpleBindJoinResults.DEF_VALUES_ROWS);
+    }
+
+    @Test
+    public void testNotAdaptiveByDefault() {
+        ValuesBatchSizeController controller = ValuesBatchSizeController.getDefault();
+        assertFalse(controller.isAdaptive());
+        for (int i = 0; i < 10; i++)
+            controller.onSuccess(eps(), 40, 1, 0); // fast and empty, e.g., a swallowed error
+        assertEquals(controller.getBatchSize(ep), SimpleBindJoinResults.DEF_VALUES_ROWS);
+    }
+
+    private @Nonnull List<Solution> leftSolutions() {
+        List<Solution> list = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++)
+            list.add(MapSolution.build(x, new StdURI(EX + "s" + i)));
+        return list;
+    }
+
+    /**
+     * Length of the query sent for rows VALUES rows with the longest subjects.
+     */
+    private int queryLength(int rows) {
+        EndpointQueryOp right = new EndpointQueryOp(ep, createQuery(x, p1, y));
+        List<String> joinVars = singletonList("x");
+        SPARQLValuesTemplateOp template = SimpleBindJoinResults.createValuesTemplate(right, joinVars);
+        List<Solution> values = leftSolutions().subList(ROWS - rows, ROWS);
+        Op bound = SimpleBindJoinResults.bindValues(right, template, joinVars, values, true);
+        return ((SPARQLValuesTemplateOp) bound).createSPARQL().length();
+    }
+
+    /**
+     * A remote endpoint that answers 414 to VALUES batches with more than maxRows rows.
+     */
+    private @Nonnull NettySPARQLServer createServer(int maxRows) {
+        Dataset ds = DatasetFactory.createTxnMem();
+        ds.getDefaultModel().add(model);
+        return new NettySPARQLServer(ds, false).setMaxQueryLength(queryLength(maxRows));
+    }
+
+    private void checkJoin(@Nonnull Results results) {
+        Set<Solution> actual = new HashSet<>();
+        try (Results r = results) {
+            while (r.hasNext())
+                assertTrue(actual.add(MapSolution.builder(r.next()).build()));
+        }
+        Set<Solution> expected = new HashSet<>();
+        for (int i = 0; i < ROWS; i++) {
+            expected.add(MapSolution.builder().put(x, new StdURI(EX + "s" + i))
+                                              .put(y, new StdURI(EX + "o" + i)).build());
+        }
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testSimpleBindRetriesSmallerBatches() {
+        ValuesBatchSizeController controller = new ValuesBatchSizeController(perf, 1000, 400);
+        try (NettySPARQLServer server = createServer(15);
+             NettyCompliantTSVSPARQLClient client = new NettyCompliantTSVSPARQLClient(server.uri)) {
+            EndpointQueryOp right = new EndpointQueryOp(client, createQuery(x, p1, y));
+            Results left = new CollectionResults(leftSolutions(), singletonList("x"));
+            checkJoin(new SimpleBindJoinResults(planExecutor, left, right, singletonList("x"),
+                                                asList("x", "y"), new SequentialResultsExecutor(),
+                                                SimpleBindJoinResults.DEF_VALUES_ROWS, controller,
+                                                null));
+            assertEquals(server.getTooLarge(), 2); // 40 and 20 rows
+            assertEquals(controller.getBatchSize(client), 10);
+        }
+    }
+
+    @Test
+    public void testParallelBindRetriesSmallerBatches() {
+        ValuesBatchSizeController controller = new ValuesBatchSizeController(perf, 1000, 400);
+        try (NettySPARQLServer server = createServer(15);
+             NettyCompliantTSVSPARQLClient client = new NettyCompliantTSVSPARQLClient(server.uri)) {
+            EndpointQueryOp right = new EndpointQueryOp(client, createQuery(x, p1, y));
+            Results left = new CollectionResults(leftSolutions(), singletonList("x"));
+            checkJoin(new ParallelValuesBindJoinResults(
+                    planExecutor, left, right, singletonList("x"), asList("x", "y"),
+                    new SequentialResultsExecutor(), PoolJoinExecutorService.getDefault(),
+                    BindJoinEndpointLimiter.getDefault(), 4,
+                    SimpleBindJoinResults.DEF_VALUES_ROWS, controller, null));
+            assertTrue(server.getTooLarge() > 0);
+            assertTrue(controller.getBatchSize(client) <= 15);
+        }
+    }
+}
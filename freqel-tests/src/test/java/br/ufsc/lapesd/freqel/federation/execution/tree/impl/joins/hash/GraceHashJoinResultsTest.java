@@ -0,0 +1,110 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdBlank;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class GraceHashJoinResultsTest implements TestContext {
+    private File tempDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("freqel").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    private static @Nonnull Term ex(int i) {
+        return new StdURI("http://example.org/"+i);
+    }
+
+    private @Nonnull Set<Solution> consume(@Nonnull Results results) {
+        Set<Solution> set = new HashSet<>();
+        try (Results r = results) {
+            while (r.hasNext())
+                assertTrue(set.add(MapSolution.builder(r.next()).build()));
+        }
+        return set;
+    }
+
+    @Test
+    public void testSpillAndRepartition() {
+        List<Solution> left = new ArrayList<>(), right = new ArrayList<>();
+        Set<Solution> expected = new HashSet<>();
+        for (int i = 0; i < 2000; i++) {
+            Term lit = StdLit.fromUnescaped("v"+i, "en");
+            left.add(MapSolution.builder().put("x", ex(i)).put("y", lit).build());
+            right.add(MapSolution.builder().put("x", ex(i)).put("z", ex(-i)).build());
+            expected.add(MapSolution.builder().put("x", ex(i)).put("y", lit)
+                                              .put("z", ex(-i)).build());
+        }
+        GraceHashJoinResults results = new GraceHashJoinResults(
+                new CollectionResults(left, asList("x", "y")),
+                new CollectionResults(right, asList("x", "z")),
+                singletonList("x"), asList("x", "y", "z"), tempDir, 4096);
+        assertEquals(consume(results), expected);
+        assertTrue(results.getSpilledPartitions() > 32); // at least one repartition
+        assertEquals(tempDir.listFiles(), new File[0]);
+    }
+
+    @Test
+    public void testSpillOptionalAndBlanks() {
+        List<Solution> left = new ArrayList<>(), right = new ArrayList<>();
+        Set<Solution> expected = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            Term blank = new StdBlank();
+            left.add(MapSolution.builder().put("x", ex(i)).put("y", blank).build());
+            if (i % 2 == 0) {
+                right.add(MapSolution.builder().put("x", ex(i)).put("z", ex(-i)).build());
+                expected.add(MapSolution.builder().put("x", ex(i)).put("y", blank)
+                                                  .put("z", ex(-i)).build());
+            } else {
+                expected.add(MapSolution.builder().put("x", ex(i)).put("y", blank).build());
+            }
+        }
+        CollectionResults rightResults = new CollectionResults(right, asList("x", "z"));
+        rightResults.setOptional(true);
+        GraceHashJoinResults results = new GraceHashJoinResults(
+                new CollectionResults(left, asList("x", "y")), rightResults,
+                singletonList("x"), asList("x", "y", "z"), tempDir, 1);
+        assertEquals(consume(results), expected);
+        assertTrue(results.getSpilledPartitions() > 0);
+    }
+
+    @Test
+    public void testFitsInMemory() {
+        List<Solution> left = singletonList(MapSolution.build("x", ex(1)));
+        List<Solution> right = asList(MapSolution.build("x", ex(1)),
+                                      MapSolution.build("x", ex(2)));
+        GraceHashJoinResults results = new GraceHashJoinResults(
+                new CollectionResults(left, singletonList("x")),
+                new CollectionResults(right, singletonList("x")),
+                singletonList("x"), singletonList("x"), tempDir, 1024*1024);
+        assertEquals(consume(results), Collections.singleton(MapSolution.build("x", ex(1))));
+        assertEquals(results.getSpilledPartitions(), 0);
+    }
+}
@@ -0,0 +1,190 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.results.AbstractResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsCloseException;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.Objects.requireNonNull;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+@Test(groups = {"fast"})
+public class PartitionedHashJoinResultsTest implements TestContext {
+    private static @Nonnull Term ex(int i) {
+        return new StdURI("http://example.org/"+i);
+    }
+
+    /**
+     * Never reports an empty buffer, so that join sides keep their last chunk until they
+     * complete, and only ends once the other side is also ending.
+     */
+    private static class SimultaneousEndResults extends CollectionResults {
+        private final @Nonnull CyclicBarrier barrier;
+        private boolean ended = false;
+
+        SimultaneousEndResults(@Nonnull Collection<? extends Solution> collection,
+                               @Nonnull Collection<String> varNames,
+                               @Nonnull CyclicBarrier barrier) {
+            super(collection, varNames);
+            this.barrier = barrier;
+        }
+
+        @Override public int getReadyCount() {
+            return super.getReadyCount() + 1;
+        }
+
+        @Override public boolean hasNext() {
+            if (super.hasNext())
+                return true;
+            if (!ended) {
+                ended = true;
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return false;
+        }
+    }
+
+    @Test
+    public void testBothSidesCompleteTogether() {
+        PoolJoinExecutorService executor = new PoolJoinExecutorService(2);
+        int size = 40; // less than a chunk
+        List<Solution> left = new ArrayList<>(), right = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            left.add(MapSolution.builder().put("x", ex(i)).put("y", ex(-i)).build());
+            right.add(MapSolution.builder().put("x", ex(i)).put("z", ex(i+size)).build());
+        }
+        for (int round = 0; round < 500; round++) {
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            int count = 0;
+            try (Results results = new PartitionedHashJoinResults(
+                    new SimultaneousEndResults(left, asList("x", "y"), barrier),
+                    new SimultaneousEndResults(right, asList("x", "z"), barrier),
+                    singletonList("x"), asList("x", "y", "z"), executor, 4)) {
+                for (; results.hasNext(); results.next())
+                    ++count;
+            }
+            assertEquals(count, size, "round="+round);
+        }
+    }
+
+    /**
+     * Creates its input on the first hasNext(), like the right side of a bind join. If a
+     * join is created, it will be created from within a fetch task of the consuming join.
+     */
+    private static class LazyResults extends AbstractResults {
+        private final @Nonnull Supplier<Results> supplier;
+        private @Nullable Results in;
+
+        LazyResults(@Nonnull Collection<String> varNames, @Nonnull Supplier<Results> supplier) {
+            super(varNames);
+            this.supplier = supplier;
+        }
+
+        @Override public boolean hasNext() {
+            if (in == null)
+                in = supplier.get();
+            return in.hasNext();
+        }
+
+        @Override public @Nonnull Solution next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return requireNonNull(in).next();
+        }
+
+        @Override public void close() throws ResultsCloseException {
+            if (in != null)
+                in.close();
+        }
+    }
+
+    /**
+     * Join of the leaves [first, first + 2^depth), each with size solutions for x and y_i.
+     */
+    private static @Nonnull Results createLazyJoin(@Nonnull PoolJoinExecutorService executor,
+                                                   int depth, int first, int size) {
+        if (depth == 0) {
+            String y = "y" + first;
+            List<Solution> solutions = new ArrayList<>();
+            for (int i = 0; i < size; i++)
+                solutions.add(MapSolution.builder().put("x", ex(i)).put(y, ex(-i)).build());
+            return new CollectionResults(solutions, asList("x", y));
+        }
+        int half = 1 << (depth-1);
+        Results left  = new LazyResults(lazyJoinVars(first, half),
+                () -> createLazyJoin(executor, depth-1, first, size));
+        Results right = new LazyResults(lazyJoinVars(first+half, half),
+                () -> createLazyJoin(executor, depth-1, first+half, size));
+        return new PartitionedHashJoinResults(left, right, singletonList("x"),
+                                              lazyJoinVars(first, 2*half), executor, 4);
+    }
+
+    private static @Nonnull List<String> lazyJoinVars(int first, int leaves) {
+        List<String> vars = new ArrayList<>(singletonList("x"));
+        for (int i = first; i < first+leaves; i++)
+            vars.add("y"+i);
+        return vars;
+    }
+
+    @Test(timeOut = 20000)
+    public void testNestedJoinsDeeperThanPool() {
+        // the 2 workers block on nested joins whose fetch tasks are submitted afterwards
+        PoolJoinExecutorService executor = new PoolJoinExecutorService(2);
+        int size = 200, count = 0;
+        try (Results results = createLazyJoin(executor, 3, 0, size)) {
+            for (; results.hasNext(); results.next())
+                ++count;
+        }
+        assertEquals(count, size);
+    }
+
+    @Test(timeOut = 10000)
+    public void testCloseBeforeStartEndsConsumer() throws Exception {
+        PoolJoinExecutorService executor = new PoolJoinExecutorService(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> { // keeps both fetch tasks queued
+            try {
+                release.await();
+            } catch (InterruptedException ignored) { }
+        });
+        List<Solution> left = singletonList(MapSolution.build("x", ex(1)));
+        List<Solution> right = singletonList(MapSolution.build("x", ex(1)));
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        try {
+            Results results = new PartitionedHashJoinResults(
+                    new CollectionResults(left, singletonList("x")),
+                    new CollectionResults(right, singletonList("x")),
+                    singletonList("x"), singletonList("x"), executor, 4);
+            Future<Boolean> hasNext = consumer.submit(() -> results.hasNext());
+            Thread.sleep(100);
+            results.close(); // cancels both fetch tasks before they start
+            assertFalse(hasNext.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            consumer.shutdown();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.merge;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.algebra.Cardinality;
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.inner.JoinOp;
+import br.ufsc.lapesd.freqel.algebra.leaf.EndpointQueryOp;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.MergeJoinOpExecutor;
+import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerTestComponent;
+import br.ufsc.lapesd.freqel.jena.query.ARQEndpoint;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdBlank;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.modifiers.Limit;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+import static br.ufsc.lapesd.freqel.query.parse.CQueryContext.createQuery;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class MergeJoinResultsTest implements TestContext {
+    private static @Nonnull Term ex(int i) {
+        return new StdURI(String.format("http://example.org/%05d", i));
+    }
+
+    private @Nonnull Set<Solution> consume(@Nonnull Results results) {
+        Set<Solution> set = new HashSet<>();
+        try (Results r = results) {
+            while (r.hasNext())
+                assertTrue(set.add(MapSolution.builder(r.next()).build()));
+        }
+        return set;
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+        List<Solution> left = new ArrayList<>(), right = new ArrayList<>();
+        Set<Solution> expected = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            for (int j = 0; j < i % 3; j++)
+                left.add(MapSolution.builder().put(x, ex(i)).put(y, ex(j)).build());
+            if (i % 2 == 0) {
+                for (int j = 0; j < i % 4; j++)
+                    right.add(MapSolution.builder().put(x, ex(i)).put(z, ex(-j)).build());
+            }
+        }
+        for (Solution l : left) {
+            for (Solution r : right) {
+                if (Objects.equals(l.get(x), r.get(x)))
+                    expected.add(MapSolution.builder(l).put(z, r.get(z)).build());
+            }
+        }
+        assertFalse(expected.isEmpty());
+        MergeJoinResults results = new MergeJoinResults(
+                new CollectionResults(left, asList("x", "y")),
+                new CollectionResults(right, asList("x", "z")),
+                singletonList("x"), asList("x", "y", "z"));
+        assertEquals(consume(results), expected);
+    }
+
+    @Test
+    public void testBlankNodesMatchOnlyThemselves() {
+        Term b1 = new StdBlank("b1"), b2 = new StdBlank("b2");
+        // labels need not follow the source order
+        List<Solution> left = asList(MapSolution.build(x, b2), MapSolution.build(x, b1),
+                                     MapSolution.build(x, ex(1)));
+        List<Solution> right = asList(MapSolution.builder().put(x, b1).put(y, ex(10)).build(),
+                                      MapSolution.builder().put(x, ex(1)).put(y, ex(11)).build());
+        MergeJoinResults results = new MergeJoinResults(
+                new CollectionResults(left, singletonList("x")),
+                new CollectionResults(right, asList("x", "y")),
+                singletonList("x"), asList("x", "y"));
+        assertEquals(consume(results), new HashSet<>(asList(
+                MapSolution.builder().put(x, b1).put(y, ex(10)).build(),
+                MapSolution.builder().put(x, ex(1)).put(y, ex(11)).build())));
+    }
+
+    @Test
+    public void testUnorderedInputFails() {
+        List<Solution> left = asList(MapSolution.build(x, ex(2)), MapSolution.build(x, ex(1)));
+        List<Solution> right = asList(MapSolution.build(x, ex(1)), MapSolution.build(x, ex(2)));
+        MergeJoinResults results = new MergeJoinResults(
+                new CollectionResults(left, singletonList("x")),
+                new CollectionResults(right, singletonList("x")),
+                singletonList("x"), singletonList("x"));
+        expectThrows(IllegalStateException.class, () -> consume(results));
+    }
+
+    private @Nonnull ARQEndpoint createEndpoint(@Nonnull String predicate, int count, int step) {
+        Model model = ModelFactory.createDefaultModel();
+        Property p = model.createProperty(EX + predicate);
+        for (int i = count-1; i >= 0; i--) {
+            Resource subject = model.createResource(String.format("%s%05d", EX, i * step));
+            model.add(subject, p, model.createTypedLiteral(i));
+        }
+        return ARQEndpoint.forModel(model);
+    }
+
+    @Test
+    public void testMergeJoinOverEndpoints() {
+        ARQEndpoint ep1 = createEndpoint("p1", 2000, 2), ep2 = createEndpoint("p2", 2000, 3);
+        Term p1 = new StdURI(EX + "p1");
+        Term p2 = new StdURI(EX + "p2");
+        EndpointQueryOp left = new EndpointQueryOp(ep1, createQuery(x, p1, y));
+        EndpointQueryOp right = new EndpointQueryOp(ep2, createQuery(x, p2, z));
+        left.setCardinality(Cardinality.guess(2000));
+        right.setCardinality(Cardinality.guess(2000));
+        JoinOp join = JoinOp.create(left, right);
+        assertTrue(MergeJoinOpExecutor.canMergeJoin(join));
+
+        PlanExecutor executor = DaggerTestComponent.builder().build().planExecutor();
+        Set<Solution> actual = consume(executor.executeNode(join));
+        assertEquals(actual.size(), 667); // multiples of 6 below 4000
+        for (Solution solution : actual) {
+            String uri = Objects.requireNonNull(solution.get(x)).asURI().getURI();
+            int value = Integer.parseInt(uri.substring(EX.length()));
+            assertEquals(value % 6, 0);
+            assertNotNull(solution.get(y));
+            assertNotNull(solution.get(z));
+        }
+        Set<Solution> merged = consume(new MergeJoinOpExecutor(executor).execute(join));
+        assertEquals(merged, actual);
+    }
+
+    @Test
+    public void testCannotMergeJoin() {
+        ARQEndpoint ep = createEndpoint("p1", 10, 1);
+        Term p1 = new StdURI(EX + "p1");
+        Op byObject = new EndpointQueryOp(ep, createQuery(y, p1, x));
+        Op bySubject = new EndpointQueryOp(ep, createQuery(x, p1, z));
+        Op limited = new EndpointQueryOp(ep, createQuery(x, p1, y, Limit.of(5)));
+        assertFalse(MergeJoinOpExecutor.canMergeJoin(JoinOp.create(byObject, bySubject)));
+        assertFalse(MergeJoinOpExecutor.canMergeJoin(JoinOp.create(limited, bySubject)));
+    }
+}
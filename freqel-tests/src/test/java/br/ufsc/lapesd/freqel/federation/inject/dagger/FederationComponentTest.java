@@ -82,7 +82,18 @@ public class FederationComponentTest {
 
     @Test(dataProvider = "queryData")
     public void testCreateDefault(@Nonnull String queryName) {
-        Federation federation = DaggerFederationComponent.builder().build().federation();
+        checkQuery(DaggerFederationComponent.builder().build().federation(), queryName);
+    }
+
+    @Test(dataProvider = "queryData")
+    public void testVirtualThreads(@Nonnull String queryName) {
+        // if the JVM has no virtual threads, this falls back to the default thread pools
+        Federation federation = DaggerFederationComponent.builder()
+                .overrideVirtualThreads(true).build().federation();
+        checkQuery(federation, queryName);
+    }
+
+    private void checkQuery(@Nonnull Federation federation, @Nonnull String queryName) {
         Set<Map.Entry<String, Model>> modelEntries = queryName.startsWith("query")
                                                    ? bsbmModels.entrySet() : lrbModels.entrySet();
         for (Map.Entry<String, Model> e : modelEntries)
@@ -0,0 +1,311 @@
+package br.ufsc.lapesd.freqel.federation.performance;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.federation.spec.source.SourceCache;
+import br.ufsc.lapesd.freqel.query.endpoint.CQEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.decorators.EndpointDecorators;
+import br.ufsc.lapesd.freqel.query.endpoint.decorators.EndpointGuard;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.EndpointRejectedException;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.HTTPStatusException;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.QueryExecutionException;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.EmptyEndpoint;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import br.ufsc.lapesd.freqel.query.results.impl.FluxResults;
+import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Ticker;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import reactor.core.publisher.Flux;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static br.ufsc.lapesd.freqel.federation.performance.EndpointProfilerTest.Sampler.sample;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class EndpointProfilerTest implements TestContext {
+    private static final String ID = "http://example.org/sparql";
+    private File dir;
+
+    private static class ManualTicker extends Ticker {
+        final @Nonnull AtomicLong nanos = new AtomicLong(0);
+
+        @Override public long read() {
+            return nanos.get();
+        }
+
+        void advance(double ms) {
+            nanos.addAndGet((long)(ms * 1000000));
+        }
+    }
+
+    /**
+     * Feeds an {@link EndpointProfiler} with simulated queries.
+     */
+    public static class Sampler {
+        /**
+         * Simulates a query to ep that answers after firstRowMs and delivers rows solutions
+         * in the following transferMs milliseconds.
+         */
+        public static void sample(@Nonnull EndpointProfiler profiler, @Nonnull TPEndpoint ep,
+                                  double firstRowMs, int rows, double transferMs) {
+            List<Solution> list = new ArrayList<>();
+            for (int i = 0; i < rows; i++)
+                list.add(MapSolution.build(x, Alice));
+            ManualTicker ticker = new ManualTicker();
+            Stopwatch sw = Stopwatch.createStarted(ticker);
+            Results answering = new CollectionResults(list, singletonList("x")) {
+                private boolean answered = false;
+
+                @Override public boolean hasNext() {
+                    if (!answered) { // the consumer waits for the endpoint
+                        answered = true;
+                        ticker.advance(firstRowMs);
+                    }
+                    return super.hasNext();
+                }
+            };
+            try (Results results = profiler.monitor(answering, ep, sw)) {
+                boolean hasNext = results.hasNext();
+                ticker.advance(transferMs);
+                while (hasNext) {
+                    results.next();
+                    hasNext = results.hasNext();
+                }
+            }
+        }
+
+        public static void sample(@Nonnull EndpointProfiler profiler, @Nonnull TPEndpoint ep,
+                                  double firstRowMs) {
+            sample(profiler, ep, firstRowMs, 1, 0);
+        }
+    }
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("freqel").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (dir != null)
+            FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testLatencyUnknownUntilMinSamples() {
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        EmptyEndpoint ep = new EmptyEndpoint();
+        assertNull(profiler.getProfile(ep));
+        assertTrue(Double.isNaN(profiler.getFirstRowMs(ep)));
+
+        sample(profiler, ep, 100);
+        sample(profiler, ep, 100);
+        assertTrue(Double.isNaN(profiler.getFirstRowMs(ep)));
+        sample(profiler, ep, 200);
+        assertEquals(profiler.getFirstRowMs(ep), 100 + EndpointProfile.ALPHA*100, 0.01);
+
+        EndpointProfile profile = profiler.getProfile(ep);
+        assertNotNull(profile);
+        assertEquals(profile.getRequests(), 3);
+        assertEquals(profile.getFailureRate(), 0.0);
+        assertTrue(Double.isNaN(profile.getRowsPerSecond())); // too few rows
+    }
+
+    @Test
+    public void testRowsPerSecond() {
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        EmptyEndpoint ep = new EmptyEndpoint();
+        for (int i = 0; i < EndpointProfile.MIN_SAMPLES; i++)
+            sample(profiler, ep, 10, 101, 1000);
+        assertEquals(profiler.getRowsPerSecond(ep), 100, 0.01);
+        assertEquals(profiler.getFirstRowMs(ep), 10, 0.01);
+    }
+
+    @Test
+    public void testFailuresPenalizeLatency() {
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        EmptyEndpoint ep = new EmptyEndpoint();
+        for (int i = 0; i < EndpointProfile.MIN_SAMPLES; i++)
+            sample(profiler, ep, 100);
+        profiler.onFailure(ep, new QueryExecutionException("HTTP 500"));
+        EndpointProfile profile = profiler.getProfile(ep);
+        assertNotNull(profile);
+        assertEquals(profile.getFailureRate(), EndpointProfile.ALPHA, 0.001);
+        assertEquals(profiler.getFirstRowMs(ep), 100 / (1 - EndpointProfile.ALPHA), 0.01);
+
+        // rejected queries never reached the endpoint
+        profiler.onFailure(ep, new EndpointRejectedException(ep, "rejected", true));
+        assertEquals(profile.getRequests(), EndpointProfile.MIN_SAMPLES + 1);
+    }
+
+    @Test
+    public void testFailureWhileIterating() {
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        EmptyEndpoint ep = new EmptyEndpoint();
+        Results failing = new CollectionResults(singletonList(MapSolution.build(x, Alice)),
+                                                singletonList("x")) {
+            @Override public boolean hasNext() {
+                throw new QueryExecutionException("connection reset");
+            }
+        };
+        try (Results results = profiler.monitor(failing, ep, Stopwatch.createStarted())) {
+            expectThrows(QueryExecutionException.class, results::hasNext);
+        }
+        EndpointProfile profile = profiler.getProfile(ep);
+        assertNotNull(profile);
+        assertEquals(profile.getRequests(), 1);
+    }
+
+    @Test
+    public void testCompareLatency() {
+        assertEquals(EndpointProfiler.compareLatency(10, 500), -1);
+        assertEquals(EndpointProfiler.compareLatency(500, 10), 1);
+        assertEquals(EndpointProfiler.compareLatency(10, 25), 0); // below LATENCY_FLOOR_MS
+        assertEquals(EndpointProfiler.compareLatency(1000, 1500), 0); // same doubling
+        assertEquals(EndpointProfiler.compareLatency(Double.NaN, 500), 0);
+        assertEquals(EndpointProfiler.compareLatency(10, Double.NaN), 0);
+    }
+
+    @Test
+    public void testCompareLatencyIsTransitive() {
+        double[] ms = {0, 10, 40, 49.9, 50, 70, 99.9, 100, 130, 199, 200, 1000, 1500, 1e6};
+        for (double a : ms) {
+            for (double b : ms) {
+                int ab = EndpointProfiler.compareLatency(a, b);
+                assertEquals(EndpointProfiler.compareLatency(b, a), -ab);
+                for (double c : ms) {
+                    int bc = EndpointProfiler.compareLatency(b, c);
+                    int ac = EndpointProfiler.compareLatency(a, c);
+                    if (ab <= 0 && bc <= 0)
+                        assertTrue(ac <= 0, a+" <= "+b+" <= "+c);
+                    if (ab == 0 && bc == 0)
+                        assertEquals(ac, 0, a+" ~ "+b+" ~ "+c);
+                }
+            }
+        }
+        assertEquals(EndpointProfiler.compareLatency(40, 70), -1);
+        assertEquals(EndpointProfiler.compareLatency(70, 130), -1);
+    }
+
+    @Test
+    public void testIdleConsumerNotCharged() {
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        EmptyEndpoint eager = new EmptyEndpoint(), lazy = new EmptyEndpoint();
+        for (int i = 0; i < EndpointProfile.MIN_SAMPLES; i++) {
+            ManualTicker ticker = new ManualTicker();
+            Results answered = new FluxResults(Flux.just(MapSolution.build(x, Alice)),
+                                               singletonList("x"));
+            try (Results results = profiler.monitor(answered, eager,
+                                                    Stopwatch.createStarted(ticker))) {
+                ticker.advance(500); // the solution arrived at some point in these 500ms
+                assertTrue(results.hasNext());
+                results.next();
+                assertFalse(results.hasNext());
+            }
+
+            // only starts working once asked
+            ticker = new ManualTicker();
+            Results iterated = new CollectionResults(singletonList(MapSolution.build(x, Alice)),
+                                                     singletonList("x"));
+            try (Results results = profiler.monitor(iterated, lazy,
+                                                    Stopwatch.createStarted(ticker))) {
+                ticker.advance(500);
+                assertTrue(results.hasNext());
+                results.next();
+                assertFalse(results.hasNext());
+            }
+        }
+        EndpointProfile profile = profiler.getProfile(eager);
+        assertNotNull(profile);
+        assertEquals(profile.getRequests(), EndpointProfile.MIN_SAMPLES);
+        assertTrue(Double.isNaN(profile.getFirstRowMs()));
+        assertEquals(profiler.getFirstRowMs(lazy), 0, 0.01);
+    }
+
+    @Test
+    public void testFluxIsDelegated() {
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        EmptyEndpoint ep = new EmptyEndpoint();
+        Solution solution = MapSolution.build(x, Alice);
+        Results results = profiler.monitor(new FluxResults(Flux.just(solution, solution),
+                                                           singletonList("x")),
+                                           ep, Stopwatch.createStarted());
+        assertTrue(results.isReactive());
+        assertEquals(results.flux().collectList().block(), asList(solution, solution));
+        EndpointProfile profile = profiler.getProfile(ep);
+        assertNotNull(profile);
+        assertEquals(profile.getRequests(), 1);
+        assertEquals(profile.toState().failureRate, 0.0);
+
+        Flux<Solution> failing = Flux.error(new HTTPStatusException(503, "overloaded"));
+        results = profiler.monitor(new FluxResults(failing, singletonList("x")),
+                                   ep, Stopwatch.createStarted());
+        expectThrows(HTTPStatusException.class, results.flux()::blockLast);
+        assertEquals(profile.getRequests(), 2);
+        assertEquals(profile.toState().failureRate, EndpointProfile.ALPHA, 0.001);
+    }
+
+    @Test
+    public void testRequestTooLargeIsNotFailure() {
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        EmptyEndpoint ep = new EmptyEndpoint();
+        profiler.onFailure(ep, new HTTPStatusException(413, "Payload Too Large"));
+        assertNull(profiler.getProfile(ep));
+        profiler.onFailure(ep, new QueryExecutionException(new HTTPStatusException(503, "")));
+        EndpointProfile profile = profiler.getProfile(ep);
+        assertNotNull(profile);
+        assertEquals(profile.getRequests(), 1);
+        assertEquals(profile.toState().failureRate, 1.0);
+    }
+
+    @Test
+    public void testDecoratorsShareProfile() {
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        EmptyEndpoint ep = new EmptyEndpoint();
+        CQEndpoint guarded = EndpointDecorators.guarded(ep, new EndpointGuard());
+        for (int i = 0; i < EndpointProfile.MIN_SAMPLES; i++)
+            sample(profiler, guarded, 100);
+        assertSame(profiler.getProfile(ep), profiler.getProfile(guarded));
+        assertEquals(profiler.getFirstRowMs(ep), 100, 0.01);
+    }
+
+    @Test
+    public void testPersistInSourceCache() throws IOException {
+        SourceCache cache = new SourceCache(dir);
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        EmptyEndpoint ep = new EmptyEndpoint(), idle = new EmptyEndpoint();
+        profiler.bind(ep, cache, ID);
+        profiler.bind(idle, cache, ID+"/idle");
+        for (int i = 0; i < EndpointProfile.MIN_SAMPLES; i++)
+            sample(profiler, ep, 100, 101, 1000);
+        profiler.save();
+        assertNotNull(cache.getFile(EndpointProfiler.FILE_TYPE, ID));
+        assertNull(cache.getFile(EndpointProfiler.FILE_TYPE, ID+"/idle"));
+
+        SourceCache cache2 = new SourceCache(dir);
+        EndpointProfiler profiler2 = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        EmptyEndpoint ep2 = new EmptyEndpoint();
+        profiler2.bind(ep2, cache2, ID);
+        assertEquals(profiler2.getFirstRowMs(ep2), 100, 0.01);
+        assertEquals(profiler2.getRowsPerSecond(ep2), 100, 0.01);
+        EndpointProfile profile = profiler2.getProfile(ep2);
+        assertNotNull(profile);
+        assertEquals(profile.getRequests(), EndpointProfile.MIN_SAMPLES);
+        assertFalse(profile.isDirty());
+    }
+}
@@ -11,6 +11,8 @@ import br.ufsc.lapesd.freqel.cardinality.JoinCardinalityEstimator;
 import br.ufsc.lapesd.freqel.cardinality.impl.*;
 import br.ufsc.lapesd.freqel.description.molecules.Atom;
 import br.ufsc.lapesd.freqel.description.molecules.annotations.AtomInputAnnotation;
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfile;
+import br.ufsc.lapesd.freqel.federation.performance.EndpointProfiler;
 import br.ufsc.lapesd.freqel.federation.performance.NoOpPerformanceListener;
 import br.ufsc.lapesd.freqel.federation.planner.equiv.DefaultEquivCleaner;
 import br.ufsc.lapesd.freqel.model.Triple;
@@ -37,6 +39,7 @@ import java.util.stream.Stream;
 
 import static br.ufsc.lapesd.freqel.algebra.Cardinality.*;
 import static br.ufsc.lapesd.freqel.algebra.util.TreeUtils.streamPreOrder;
+import static br.ufsc.lapesd.freqel.federation.performance.EndpointProfilerTest.Sampler.sample;
 import static java.util.Arrays.asList;
 import static java.util.Collections.*;
 import static java.util.stream.Collectors.toSet;
@@ -354,4 +357,56 @@ public class GreedyJoinOrderConjunctivePlannerTest implements TestContext {
         assertSame(j1.getRight(), Scenario1.modalities);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testLatencyBreaksCardinalityTies() {
+        GreedyJoinOrderPlanner.OrderTuple fast, slow;
+        fast = new GreedyJoinOrderPlanner.OrderTuple(guess(100), 0, false, 10);
+        slow = new GreedyJoinOrderPlanner.OrderTuple(guess(100), 0, false, 500);
+        assertEquals(fast.compareTo(slow), -1);
+        assertEquals(slow.compareTo(fast),  1);
+
+        // latency does not override cardinality nor pending inputs
+        slow = new GreedyJoinOrderPlanner.OrderTuple(guess(10), 0, false, 500);
+        assertEquals(slow.compareTo(fast), -1);
+        slow = new GreedyJoinOrderPlanner.OrderTuple(guess(100), 0, false, 500);
+        fast = new GreedyJoinOrderPlanner.OrderTuple(guess(100), 1, false, 10);
+        assertEquals(slow.compareTo(fast), -1);
+
+        // but takes priority over web APIs
+        fast = new GreedyJoinOrderPlanner.OrderTuple(guess(100), 0, false, 10);
+        slow = new GreedyJoinOrderPlanner.OrderTuple(guess(100), 0, true, 500);
+        assertEquals(fast.compareTo(slow), -1);
+
+        // unknown or insignificant differences are ignored
+        slow = new GreedyJoinOrderPlanner.OrderTuple(guess(100), 0, false, Double.NaN);
+        assertEquals(fast.compareTo(slow), 0);
+        slow = new GreedyJoinOrderPlanner.OrderTuple(guess(100), 0, false, 15);
+        assertEquals(fast.compareTo(slow), 0);
+    }
+
+    @Test
+    public void testFastSourceDrivesJoin() {
+        EmptyEndpoint fastEp = new EmptyEndpoint(), slowEp = new EmptyEndpoint();
+        EndpointProfiler profiler = new EndpointProfiler(NoOpPerformanceListener.INSTANCE);
+        for (int i = 0; i < EndpointProfile.MIN_SAMPLES; i++) {
+            sample(profiler, fastEp, 10);
+            sample(profiler, slowEp, 500);
+        }
+        GreedyJoinOrderPlanner planner
+                = new GreedyJoinOrderPlanner(NoOpPerformanceListener.INSTANCE,
+                                             NoCardinalityEnsemble.INSTANCE,
+                                             RelativeCardinalityAdder.DEFAULT,
+                                             new AverageJoinCardinalityEstimator(
+                                                     ThresholdCardinalityComparator.DEFAULT),
+                                             DefaultEquivCleaner.INSTANCE, profiler);
+        EndpointQueryOp fast = n(fastEp, guess(100), x, p1, y);
+        EndpointQueryOp slow = n(slowEp, guess(100), Alice, p1, x);
+        for (List<Op> nodes : asList(asList((Op)fast, slow), asList((Op)slow, fast))) {
+            JoinGraph graph = new ArrayJoinGraph(RefIndexSet.fromRefDistinct(nodes));
+            Op root = planner.plan(graph, nodes);
+            assertTrue(root instanceof JoinOp);
+            assertSame(((JoinOp) root).getLeft(), fast);
+            assertSame(((JoinOp) root).getRight(), slow);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package br.ufsc.lapesd.freqel.federation.planner.post.steps;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.V;
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.inner.JoinOp;
+import br.ufsc.lapesd.freqel.algebra.inner.PipeOp;
+import br.ufsc.lapesd.freqel.algebra.inner.UnionOp;
+import br.ufsc.lapesd.freqel.algebra.leaf.EndpointQueryOp;
+import br.ufsc.lapesd.freqel.algebra.util.TreeUtils;
+import br.ufsc.lapesd.freqel.description.SelectDescription;
+import br.ufsc.lapesd.freqel.federation.Federation;
+import br.ufsc.lapesd.freqel.federation.Freqel;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerTestComponent;
+import br.ufsc.lapesd.freqel.jena.query.ARQEndpoint;
+import br.ufsc.lapesd.freqel.jena.query.modifiers.filter.JenaSPARQLFilter;
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.EmptyEndpoint;
+import br.ufsc.lapesd.freqel.query.modifiers.Aggregation;
+import br.ufsc.lapesd.freqel.query.modifiers.Aggregation.Aggregate;
+import br.ufsc.lapesd.freqel.query.modifiers.Aggregation.Function;
+import br.ufsc.lapesd.freqel.query.parse.CQueryContext;
+import br.ufsc.lapesd.freqel.query.parse.SPARQLParseException;
+import br.ufsc.lapesd.freqel.query.parse.SPARQLParser;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
+import br.ufsc.lapesd.freqel.util.ref.EmptyRefSet;
+import br.ufsc.lapesd.freqel.util.ref.IdentityHashSet;
+import br.ufsc.lapesd.freqel.util.ref.RefSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.*;
+
+@Test(groups = {"fast"})
+public class PushAggregationStepTest implements TestContext {
+    private static final EmptyEndpoint ep = new EmptyEndpoint();
+    private static final Aggregation COUNT = new Aggregation(
+            singletonList("x"), singletonList(Aggregate.count("y", "c")));
+    private static final Aggregation COUNT_COMBINER = new Aggregation(
+            singletonList("x"), singletonList(Aggregate.sum("c", "c")));
+
+    private static @Nonnull EndpointQueryOp q(Object... args) {
+        return new EndpointQueryOp(ep, CQueryContext.createQuery(args));
+    }
+
+    @DataProvider
+    public static @Nonnull Object[][] testData() {
+        EndpointQueryOp xKnowsY = q(x, knows, y);
+        PipeOp xKnowsYPipe = new PipeOp(xKnowsY);
+        xKnowsYPipe.modifiers().add(COUNT);
+        Aggregation countDistinct = new Aggregation(singletonList("x"), singletonList(
+                new Aggregate(Function.COUNT, "y", true, "c")));
+        return Stream.of(
+                // no aggregation: nothing to push
+                asList(UnionOp.builder().add(q(x, knows, y)).add(q(x, likes, y)).build(),
+                       EmptyRefSet.emptySet(), null),
+                // COUNT(DISTINCT) is not decomposable
+                asList(UnionOp.builder().add(q(x, knows, y)).add(q(x, likes, y))
+                                        .add(countDistinct).build(),
+                       EmptyRefSet.emptySet(), null),
+                // filters must be evaluated before the aggregation
+                asList(UnionOp.builder().add(q(x, age, y)).add(q(x, knows, y))
+                                        .add(COUNT).add(JenaSPARQLFilter.build("?y > 23"))
+                                        .build(),
+                       EmptyRefSet.emptySet(), null),
+                // no child is evaluated by an endpoint
+                asList(UnionOp.builder()
+                                .add(JoinOp.create(q(x, knows, y), q(y, knows, Bob)))
+                                .add(JoinOp.create(q(x, likes, y), q(y, knows, Bob)))
+                                .add(COUNT).build(),
+                       EmptyRefSet.emptySet(), null),
+                // push partial aggregation and combine on the union
+                asList(UnionOp.builder().add(q(x, knows, y)).add(q(x, likes, y))
+                                        .add(COUNT).build(),
+                       EmptyRefSet.emptySet(),
+                       UnionOp.builder().add(q(x, knows, y, COUNT)).add(q(x, likes, y, COUNT))
+                                        .add(COUNT_COMBINER).build()),
+                // add pipe if shared
+                asList(UnionOp.builder().add(xKnowsY).add(q(x, likes, y)).add(COUNT).build(),
+                       IdentityHashSet.of(xKnowsY),
+                       UnionOp.builder().add(xKnowsYPipe).add(q(x, likes, y, COUNT))
+                                        .add(COUNT_COMBINER).build())
+        ).map(List::toArray).toArray(Object[][]::new);
+    }
+
+    @Test(dataProvider = "testData")
+    public void test(@Nonnull Op in, @Nonnull RefSet<Op> shared, @Nullable Op expected) {
+        if (expected == null)
+            expected = in;
+        boolean expectSame = expected == in;
+        expected = TreeUtils.deepCopy(expected);
+        Op actual = new PushAggregationStep().plan(in, shared);
+        assertEquals(actual, expected);
+        if (expectSame)
+            assertSame(actual, in);
+    }
+
+    private static @Nonnull ARQEndpoint createEndpoint(int first, int count) {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = first; i < first + count; i++) {
+            Resource subject = model.createResource(String.format("%s%05d", EX, i));
+            subject.addLiteral(model.createProperty(EX + "p"), i);
+            subject.addProperty(model.createProperty(EX + "g"),
+                                model.createResource(EX + "group" + (i % 3)));
+        }
+        return ARQEndpoint.forModel(model);
+    }
+
+    private static @Nonnull Op createUnion(@Nonnull ARQEndpoint ep1, @Nonnull ARQEndpoint ep2,
+                                           @Nonnull Aggregation aggregation) {
+        StdURI p = new StdURI(EX + "p"), g = new StdURI(EX + "g");
+        return UnionOp.builder()
+                .add(new EndpointQueryOp(ep1, CQueryContext.createQuery(x, p, y, x, g, z)))
+                .add(new EndpointQueryOp(ep2, CQueryContext.createQuery(x, p, y, x, g, z)))
+                .add(aggregation).build();
+    }
+
+    private static @Nonnull Set<Solution> drain(@Nonnull Results results) {
+        Set<Solution> set = new HashSet<>();
+        try (Results r = results) {
+            while (r.hasNext())
+                assertTrue(set.add(MapSolution.builder(r.next()).build()));
+        }
+        return set;
+    }
+
+    private static @Nonnull Set<Solution> expectedGroups(boolean withMax) {
+        Set<Solution> expected = new HashSet<>();
+        for (int group = 0; group < 3; group++) {
+            long sum = 0, count = 0, max = 0;
+            for (int i = group; i < 2000; i += 3) {
+                sum += i;
+                ++count;
+                max = i;
+            }
+            MapSolution.Builder builder = MapSolution.builder()
+                    .put("z", new StdURI(EX + "group" + group))
+                    .put("c", StdLit.fromUnescaped(String.valueOf(count), xsdInteger))
+                    .put("s", StdLit.fromUnescaped(String.valueOf(sum), xsdInteger));
+            if (withMax)
+                builder.put("m", StdLit.fromUnescaped(String.valueOf(max), V.XSD.xlong));
+            expected.add(builder.build());
+        }
+        return expected;
+    }
+
+    @Test
+    public void testOnDefaultFederation() throws SPARQLParseException {
+        try (Federation federation = Freqel.createFederation()) {
+            for (ARQEndpoint ep : asList(createEndpoint(0, 1000), createEndpoint(1000, 1000)))
+                federation.addSource(ep.setDescription(new SelectDescription(ep)));
+            Op query = SPARQLParser.strict().parse("PREFIX ex: <" + EX + ">\n" +
+                    "SELECT ?z (COUNT(*) AS ?c) (SUM(?y) AS ?s) WHERE {\n" +
+                    "  ?x ex:p ?y ; ex:g ?z .\n" +
+                    "} GROUP BY ?z");
+            Op plan = federation.plan(query);
+            assertEquals(drain(federation.execute(plan)), expectedGroups(false));
+        }
+    }
+
+    @Test
+    public void testExecuteCombiningPartials() {
+        // ep1 has subjects in [0, 1000) and ep2 in [1000, 2000)
+        ARQEndpoint ep1 = createEndpoint(0, 1000), ep2 = createEndpoint(1000, 1000);
+        Aggregation aggregation = new Aggregation(singletonList("z"), asList(
+                Aggregate.count(null, "c"), Aggregate.sum("y", "s"),
+                new Aggregate(Function.MAX, "y", false, "m")));
+        Op plan = new PushAggregationStep().plan(createUnion(ep1, ep2, aggregation),
+                                                 EmptyRefSet.emptySet());
+        assertEquals(plan.modifiers().aggregation(), aggregation.getCombiner());
+        assertEquals(plan.getChildren().get(0).modifiers().aggregation(), aggregation);
+
+        PlanExecutor executor = DaggerTestComponent.builder().build().planExecutor();
+        Set<Solution> actual = drain(executor.executeNode(plan));
+        Set<Solution> local = drain(executor.executeNode(createUnion(ep1, ep2, aggregation)));
+        assertEquals(actual, local);
+        assertEquals(actual, expectedGroups(true));
+    }
+}
@@ -67,6 +67,23 @@ public class PushLimitStepTest implements TestContext {
                                .add(q(y, knows, Alice, Limit.of(23)))
                                .add(Limit.of(23)).build()
                 ),
+                // push LIMIT+OFFSET into union
+                asList(UnionOp.builder()
+                                .add(q(x, knows, Alice))
+                                .add(q(x, knows, Bob))
+                                .add(Limit.of(23)).add(Offset.of(10)).build(),
+                       EmptyRefSet.emptySet(),
+                       UnionOp.builder()
+                               .add(q(x, knows, Alice, Limit.of(33)))
+                               .add(q(x, knows, Bob, Limit.of(33)))
+                               .add(Limit.of(23)).add(Offset.of(10)).build()
+                ),
+                // LIMIT under ORDER BY is not pushed (see PushOrderStep)
+                asList(UnionOp.builder()
+                                .add(q(x, knows, Alice))
+                                .add(q(x, knows, Bob))
+                                .add(Limit.of(23)).add(OrderBy.asc("x")).build(),
+                       EmptyRefSet.emptySet(), null),
                 //push into cartesian
                 asList(CartesianOp.builder()
                                 .add(xKnowsY)
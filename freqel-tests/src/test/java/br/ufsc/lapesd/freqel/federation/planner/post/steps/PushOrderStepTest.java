@@ -0,0 +1,139 @@
+package br.ufsc.lapesd.freqel.federation.planner.post.steps;
+
+import br.ufsc.lapesd.freqel.TestContext;
+import br.ufsc.lapesd.freqel.algebra.Op;
+import br.ufsc.lapesd.freqel.algebra.inner.CartesianOp;
+import br.ufsc.lapesd.freqel.algebra.inner.PipeOp;
+import br.ufsc.lapesd.freqel.algebra.inner.UnionOp;
+import br.ufsc.lapesd.freqel.algebra.leaf.EndpointQueryOp;
+import br.ufsc.lapesd.freqel.algebra.util.TreeUtils;
+import br.ufsc.lapesd.freqel.federation.execution.PlanExecutor;
+import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerTestComponent;
+import br.ufsc.lapesd.freqel.jena.query.ARQEndpoint;
+import br.ufsc.lapesd.freqel.jena.query.modifiers.filter.JenaSPARQLFilter;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.EmptyEndpoint;
+import br.ufsc.lapesd.freqel.query.modifiers.*;
+import br.ufsc.lapesd.freqel.query.parse.CQueryContext;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.util.ref.EmptyRefSet;
+import br.ufsc.lapesd.freqel.util.ref.IdentityHashSet;
+import br.ufsc.lapesd.freqel.util.ref.RefSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+@Test(groups = {"fast"})
+public class PushOrderStepTest implements TestContext {
+    private static final EmptyEndpoint ep = new EmptyEndpoint();
+
+    private static @Nonnull EndpointQueryOp q(Object... args) {
+        return new EndpointQueryOp(ep, CQueryContext.createQuery(args));
+    }
+
+    @DataProvider
+    public static @Nonnull Object[][] testData() {
+        OrderBy orderBy = OrderBy.asc("x");
+        EndpointQueryOp xKnowsAlice = q(x, knows, Alice);
+        PipeOp xKnowsAlicePipe = new PipeOp(xKnowsAlice);
+        xKnowsAlicePipe.modifiers().add(orderBy);
+        xKnowsAlicePipe.modifiers().add(Limit.of(10));
+        return Stream.of(
+                // no LIMIT: nothing to push
+                asList(UnionOp.builder().add(q(x, knows, Alice)).add(q(x, knows, Bob))
+                                        .add(orderBy).build(),
+                       EmptyRefSet.emptySet(), null),
+                // do not push into cartesian
+                asList(CartesianOp.builder().add(q(x, knows, Alice)).add(q(y, knows, Bob))
+                                            .add(orderBy).add(Limit.of(10)).build(),
+                       EmptyRefSet.emptySet(), null),
+                // do not push with DISTINCT or filters
+                asList(UnionOp.builder().add(q(x, knows, Alice)).add(q(x, knows, Bob))
+                                        .add(orderBy).add(Limit.of(10))
+                                        .add(Distinct.INSTANCE).build(),
+                       EmptyRefSet.emptySet(), null),
+                asList(UnionOp.builder().add(q(x, age, u)).add(q(x, knows, Bob))
+                                        .add(orderBy).add(Limit.of(10))
+                                        .add(JenaSPARQLFilter.build("?u > 23")).build(),
+                       EmptyRefSet.emptySet(), null),
+                // push ORDER BY and LIMIT+OFFSET
+                asList(UnionOp.builder().add(q(x, knows, Alice)).add(q(x, knows, Bob))
+                                        .add(orderBy).add(Limit.of(10))
+                                        .add(Offset.of(5)).build(),
+                       EmptyRefSet.emptySet(),
+                       UnionOp.builder().add(q(x, knows, Alice, orderBy, Limit.of(15)))
+                                        .add(q(x, knows, Bob, orderBy, Limit.of(15)))
+                                        .add(orderBy).add(Limit.of(10))
+                                        .add(Offset.of(5)).build()),
+                // add pipe if shared
+                asList(UnionOp.builder().add(xKnowsAlice).add(q(x, knows, Bob))
+                                        .add(orderBy).add(Limit.of(10)).build(),
+                       IdentityHashSet.of(xKnowsAlice),
+                       UnionOp.builder().add(xKnowsAlicePipe)
+                                        .add(q(x, knows, Bob, orderBy, Limit.of(10)))
+                                        .add(orderBy).add(Limit.of(10)).build())
+        ).map(List::toArray).toArray(Object[][]::new);
+    }
+
+    @Test(dataProvider = "testData")
+    public void test(@Nonnull Op in, @Nonnull RefSet<Op> shared, @Nullable Op expected) {
+        if (expected == null)
+            expected = in;
+        boolean expectSame = expected == in;
+        expected = TreeUtils.deepCopy(expected);
+        Op actual = new PushOrderStep().plan(in, shared);
+        assertEquals(actual, expected);
+        if (expectSame)
+            assertSame(actual, in);
+    }
+
+    private static @Nonnull ARQEndpoint createEndpoint(int first, int count) {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = first; i < first + count; i++) {
+            model.createResource(String.format("%s%05d", EX, i))
+                 .addLiteral(model.createProperty(EX + "p"), i);
+        }
+        return ARQEndpoint.forModel(model);
+    }
+
+    @Test
+    public void testExecuteMergingChildren() {
+        // ep1 has subjects in [0, 1000) and ep2 in [1000, 2000)
+        ARQEndpoint ep1 = createEndpoint(0, 1000), ep2 = createEndpoint(1000, 1000);
+        StdURI p = new StdURI(EX + "p");
+        OrderBy orderBy = new OrderBy(asList(OrderBy.Key.desc("x")));
+        Op union = UnionOp.builder()
+                .add(new EndpointQueryOp(ep1, CQueryContext.createQuery(x, p, y)))
+                .add(new EndpointQueryOp(ep2, CQueryContext.createQuery(x, p, y)))
+                .add(orderBy).add(Limit.of(10)).add(Offset.of(995)).build();
+        Op plan = new PushOrderStep().plan(union, EmptyRefSet.emptySet());
+        assertEquals(plan.getChildren().get(0).modifiers().limit(), Limit.of(1005));
+
+        PlanExecutor executor = DaggerTestComponent.builder().build().planExecutor();
+        List<String> actual = new ArrayList<>();
+        try (Results results = executor.executeNode(plan)) {
+            while (results.hasNext()) {
+                Solution solution = results.next();
+                String uri = Objects.requireNonNull(solution.get("x")).asURI().getURI();
+                actual.add(uri.substring(EX.length()));
+            }
+        }
+        List<String> expected = new ArrayList<>();
+        for (int i = 1999 - 995; i > 1999 - 1005; i--)
+            expected.add(String.format("%05d", i));
+        assertEquals(actual, expected);
+    }
+}
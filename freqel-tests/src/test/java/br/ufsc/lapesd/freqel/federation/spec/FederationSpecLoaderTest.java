@@ -7,6 +7,9 @@ import br.ufsc.lapesd.freqel.federation.Federation;
 import br.ufsc.lapesd.freqel.model.term.Term;
 import br.ufsc.lapesd.freqel.query.CQuery;
 import br.ufsc.lapesd.freqel.query.TPEndpointTest;
+import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
+import br.ufsc.lapesd.freqel.query.endpoint.decorators.EndpointGuard;
+import br.ufsc.lapesd.freqel.query.endpoint.decorators.GuardedTPEndpoint;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import com.google.common.base.Stopwatch;
 import org.apache.commons.io.FileUtils;
@@ -21,6 +24,7 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import javax.annotation.Nonnull;
 import java.io.*;
 import java.nio.file.Files;
 import java.util.HashSet;
@@ -98,4 +102,51 @@ public class FederationSpecLoaderTest implements TestContext {
         }
     }
 
-}
\ No newline at end of file
+    private @Nonnull File writeGuardedConfig(@Nonnull String guard) throws IOException {
+        File rdfFile = new File(dir, "rdf-1.ttl");
+        try (FileOutputStream out = new FileOutputStream(rdfFile)) {
+            RDFDataMgr.write(out, rdf1, Lang.TTL);
+        }
+        File config = new File(dir, "config.yaml");
+        try (PrintStream out = new PrintStream(new FileOutputStream(config))) {
+            out.print("sources:\n" +
+                      "  - loader: rdf-file\n" +
+                      "    file: rdf-1.ttl\n" +
+                      "    guard:\n" + guard);
+        }
+        return config;
+    }
+
+    @Test
+    public void testGuardedSource() throws Exception {
+        File config = writeGuardedConfig("      initialLimit: 4\n" +
+                                         "      maxLimit: 4\n" +
+                                         "      failureThreshold: 0\n" +
+                                         "      queueTimeoutMs: 1000\n");
+        try (Federation federation = new FederationSpecLoader().load(config)) {
+            assertEquals(federation.getSources().size(), 1);
+            TPEndpoint source = federation.getSources().iterator().next();
+            assertTrue(source instanceof GuardedTPEndpoint);
+            EndpointGuard guard = ((GuardedTPEndpoint) source).getGuard();
+            assertEquals(guard.getLimit().getLimit(), 4);
+            assertEquals(guard.getLimit().getMaxLimit(), 4);
+            assertNull(guard.getBreaker());
+            assertEquals(guard.getQueueTimeout(TimeUnit.MILLISECONDS), 1000);
+
+            Set<Term> actual = new HashSet<>();
+            try (Results results = federation.query(createQuery(x, knows, Bob))) {
+                results.forEachRemainingThenClose(s -> actual.add(s.get(x)));
+            }
+            assertEquals(actual, singleton(Alice));
+            assertEquals(guard.getInFlight(), 0);
+            assertEquals(guard.getRejected(), 0);
+        }
+    }
+
+    @Test
+    public void testBadGuardSpec() throws Exception {
+        File config = writeGuardedConfig("      minLimit: 8\n" +
+                                         "      maxLimit: 4\n");
+        expectThrows(FederationSpecException.class, () -> new FederationSpecLoader().load(config));
+    }
+}
@@ -0,0 +1,317 @@
+package br.ufsc.lapesd.freqel.query;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http2.*;
+import org.apache.jena.query.*;
+import org.apache.jena.riot.thrift.BinRDF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A SPARQL endpoint over a Jena {@link Dataset} served by Netty, to stand in for remote
+ * endpoints in tests and request/s measurements of clients.
+ *
+ * Connections may speak HTTP/1.1 or, if enabled, h2c with prior knowledge. Queries are
+ * accepted via GET, POST with application/sparql-query and POST with a form. Results are
+ * serialized as TSV, JSON, XML or Thrift, according to the Accept header.
+ */
+public class NettySPARQLServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(NettySPARQLServer.class);
+    private static final int MAX_CONTENT = 4*1024*1024;
+    private static final String TSV = "text/tab-separated-values";
+    private static final String JSON = "application/sparql-results+json";
+    private static final String XML = "application/sparql-results+xml";
+    private static final String THRIFT = "application/sparql-results+thrift";
+
+    private final @Nonnull Dataset dataset;
+    private final boolean h2c;
+    private final @Nonnull EventLoopGroup acceptGroup, workerGroup;
+    private final @Nonnull ExecutorService executor = Executors.newCachedThreadPool();
+    private final @Nonnull Channel serverChannel;
+    private final @Nonnull SPARQLHandler handler = new SPARQLHandler();
+    private final @Nonnull AtomicInteger gets = new AtomicInteger(), posts = new AtomicInteger();
+    private final @Nonnull AtomicInteger h2Requests = new AtomicInteger();
+    private final @Nonnull AtomicInteger active = new AtomicInteger();
+    private final @Nonnull AtomicInteger maxActive = new AtomicInteger();
+    private final @Nonnull AtomicInteger connections = new AtomicInteger();
+    private final @Nonnull AtomicInteger tooLarge = new AtomicInteger();
+    private volatile long delayMs = 0;
+    private volatile int maxQueryLength = Integer.MAX_VALUE;
+    public final @Nonnull String uri;
+
+    public NettySPARQLServer(@Nonnull Dataset dataset, boolean h2c) {
+        this.dataset = dataset;
+        this.h2c = h2c;
+        acceptGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup();
+        serverChannel = new ServerBootstrap().group(acceptGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override protected void initChannel(SocketChannel ch) {
+                        connections.incrementAndGet();
+                        ch.pipeline().addLast(new ProtocolDetector());
+                    }
+                })
+                .bind(InetAddress.getLoopbackAddress(), 0).syncUninterruptibly().channel();
+        int port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+        uri = "http://localhost:"+port+"/sparql";
+    }
+
+    /**
+     * Delay every response by the given amount, holding it as an active request.
+     */
+    public @Nonnull NettySPARQLServer setDelay(long delay, @Nonnull TimeUnit unit) {
+        delayMs = TimeUnit.MILLISECONDS.convert(delay, unit);
+        return this;
+    }
+
+    /**
+     * Reject queries longer than the given number of characters with 414 (GET) or 413 (POST),
+     * as servers with request size limits do.
+     */
+    public @Nonnull NettySPARQLServer setMaxQueryLength(int maxQueryLength) {
+        this.maxQueryLength = maxQueryLength;
+        return this;
+    }
+
+    public int getGETs() { return gets.get(); }
+    public int getPOSTs() { return posts.get(); }
+    public int getH2Requests() { return h2Requests.get(); }
+    public int getMaxActive() { return maxActive.get(); }
+    public int getConnections() { return connections.get(); }
+    public int getTooLarge() { return tooLarge.get(); }
+
+    public void resetStats() {
+        gets.set(0);
+        posts.set(0);
+        h2Requests.set(0);
+        maxActive.set(active.get());
+        connections.set(0);
+        tooLarge.set(0);
+    }
+
+    @Override public void close() {
+        serverChannel.close().syncUninterruptibly();
+        acceptGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        executor.shutdownNow();
+    }
+
+    @Override public @Nonnull String toString() {
+        return "NettySPARQLServer{"+uri+(h2c ? ", h2c" : "")+"}";
+    }
+
+    /**
+     * Chooses between HTTP/1.1 and h2c from the first bytes sent by the client.
+     */
+    private class ProtocolDetector extends ByteToMessageDecoder {
+        @Override protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            ByteBuf preface = Http2CodecUtil.connectionPrefaceBuf();
+            try {
+                int n = Math.min(in.readableBytes(), preface.readableBytes());
+                boolean h2 = h2c && ByteBufUtil.equals(in, in.readerIndex(), preface, 0, n);
+                if (h2 && n < preface.readableBytes())
+                    return; // wait for the whole preface
+                ChannelPipeline p = ctx.pipeline();
+                if (h2) {
+                    p.addAfter(ctx.name(), "h2", Http2FrameCodecBuilder.forServer().build());
+                    p.addAfter("h2", "h2mux", new Http2MultiplexHandler(
+                            new ChannelInitializer<Http2StreamChannel>() {
+                                @Override protected void initChannel(Http2StreamChannel ch) {
+                                    ch.pipeline()
+                                      .addLast(new Http2StreamFrameToHttpObjectCodec(true))
+                                      .addLast(new HttpObjectAggregator(MAX_CONTENT))
+                                      .addLast(handler);
+                                }
+                            }));
+                } else {
+                    p.addAfter(ctx.name(), "handler", handler);
+                    p.addAfter(ctx.name(), "aggregator", new HttpObjectAggregator(MAX_CONTENT));
+                    p.addAfter(ctx.name(), "http", new HttpServerCodec());
+                }
+                p.remove(this); // forwards whatever was already read
+            } finally {
+                preface.release();
+            }
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private class SPARQLHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        @Override protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest req) {
+            boolean h2 = ctx.channel() instanceof Http2StreamChannel;
+            boolean keepAlive = h2 || HttpUtil.isKeepAlive(req);
+            if (h2)
+                h2Requests.incrementAndGet();
+            String query = null;
+            QueryStringDecoder uriDecoder = new QueryStringDecoder(req.uri());
+            if (req.decoderResult().isFailure()) {
+                respond(ctx, false, BAD_REQUEST, "text/plain", "Bad request");
+                return;
+            } else if (req.method().equals(HttpMethod.GET)) {
+                gets.incrementAndGet();
+                query = first(uriDecoder.parameters().get("query"));
+            } else if (req.method().equals(HttpMethod.POST)) {
+                posts.incrementAndGet();
+                String type = req.headers().get(HttpHeaderNames.CONTENT_TYPE, "");
+                String body = req.content().toString(UTF_8);
+                if (type.startsWith("application/sparql-query")) {
+                    query = body;
+                } else if (type.startsWith("application/x-www-form-urlencoded")) {
+                    QueryStringDecoder d = new QueryStringDecoder(body, UTF_8, false);
+                    query = first(d.parameters().get("query"));
+                }
+            } else {
+                respond(ctx, false, METHOD_NOT_ALLOWED, "text/plain", "Unsupported method");
+                return;
+            }
+            if (query == null) {
+                respond(ctx, keepAlive, BAD_REQUEST, "text/plain", "Missing query");
+                return;
+            }
+            if (query.length() > maxQueryLength) {
+                tooLarge.incrementAndGet();
+                boolean get = req.method().equals(HttpMethod.GET);
+                respond(ctx, keepAlive, get ? REQUEST_URI_TOO_LONG : REQUEST_ENTITY_TOO_LARGE,
+                        "text/plain", "Query too long");
+                return;
+            }
+            String sparql = query;
+            String accept = req.headers().get(HttpHeaderNames.ACCEPT, "*/*");
+            executor.execute(() -> execute(ctx, keepAlive, sparql, accept));
+        }
+
+        @Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.error("Exception on {} at {}", ctx.channel(), NettySPARQLServer.this, cause);
+            ctx.close();
+        }
+    }
+
+    private static @Nullable String first(@Nullable List<String> list) {
+        return list == null || list.isEmpty() ? null : list.get(0);
+    }
+
+    private void execute(@Nonnull ChannelHandlerContext ctx, boolean keepAlive,
+                         @Nonnull String sparql, @Nonnull String accept) {
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try {
+            if (delayMs > 0)
+                Thread.sleep(delayMs);
+            Query query = QueryFactory.create(sparql);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            String type;
+            dataset.begin(ReadWrite.READ);
+            try (QueryExecution exec = QueryExecutionFactory.create(query, dataset)) {
+                if (query.isAskType()) {
+                    boolean result = exec.execAsk();
+                    type = chooseType(accept, true);
+                    if (type.equals(TSV))
+                        ResultSetFormatter.outputAsTSV(out, result);
+                    else if (type.equals(XML))
+                        ResultSetFormatter.outputAsXML(out, result);
+                    else
+                        ResultSetFormatter.outputAsJSON(out, result);
+                } else if (query.isSelectType()) {
+                    ResultSet rs = exec.execSelect();
+                    type = chooseType(accept, false);
+                    switch (type) {
+                        case TSV:    ResultSetFormatter.outputAsTSV(out, rs); break;
+                        case XML:    ResultSetFormatter.outputAsXML(out, rs); break;
+                        case THRIFT: BinRDF.writeResultSet(out, rs, false);  break;
+                        default:     ResultSetFormatter.outputAsJSON(out, rs); break;
+                    }
+                } else {
+                    respond(ctx, keepAlive, BAD_REQUEST, "text/plain", "Only SELECT and ASK");
+                    return;
+                }
+            } finally {
+                dataset.end();
+            }
+            respond(ctx, keepAlive, OK, type, out.toByteArray());
+        } catch (QueryException e) {
+            respond(ctx, keepAlive, BAD_REQUEST, "text/plain", e.getMessage());
+        } catch (InterruptedException e) {
+            ctx.close();
+        } catch (Throwable t) {
+            logger.error("Failed to answer {} at {}", sparql, this, t);
+            respond(ctx, false, INTERNAL_SERVER_ERROR, "text/plain", t.toString());
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    private static @Nonnull String chooseType(@Nonnull String accept, boolean ask) {
+        String best = JSON;
+        double bestQ = -1;
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            String type = parts[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q="))
+                    q = Double.parseDouble(param.substring(2));
+            }
+            switch (type) {
+                case "application/json": type = JSON; break;
+                case "application/xml": case "text/xml": type = XML; break;
+                case "*/*": type = JSON; break;
+            }
+            boolean supported = type.equals(JSON) || type.equals(XML)
+                                || type.equals(TSV) || (!ask && type.equals(THRIFT));
+            if (supported && q > bestQ) {
+                best = type;
+                bestQ = q;
+            }
+        }
+        return best;
+    }
+
+    private static void respond(@Nonnull ChannelHandlerContext ctx, boolean keepAlive,
+                                @Nonnull HttpResponseStatus status, @Nonnull String type,
+                                @Nonnull String body) {
+        respond(ctx, keepAlive, status, type, body.getBytes(UTF_8));
+    }
+
+    private static void respond(@Nonnull ChannelHandlerContext ctx, boolean keepAlive,
+                                @Nonnull HttpResponseStatus status, @Nonnull String type,
+                                @Nonnull byte[] body) {
+        FullHttpResponse res = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status,
+                                                           Unpooled.wrappedBuffer(body));
+        HttpHeaders headers = res.headers();
+        headers.set(HttpHeaderNames.CONTENT_TYPE, type.equals(TSV) ? TSV+"; charset=utf-8"
+                                                                   : type);
+        headers.setInt(HttpHeaderNames.CONTENT_LENGTH, body.length);
+        if (!(ctx.channel() instanceof Http2StreamChannel)) {
+            headers.set(HttpHeaderNames.CONNECTION,
+                        keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+        }
+        ChannelFuture future = ctx.writeAndFlush(res);
+        if (!keepAlive)
+            future.addListener(ChannelFutureListener.CLOSE);
+    }
+}
@@ -295,4 +295,79 @@ public class SolutionTest implements TestContext {
         MapSolution a = MapSolution.builder().put("x", TestContext.Alice).put("y", TestContext.Bob).build();
         assertNotEquals(supplier.get(), a);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSlots() {
+        ArraySolution.ValueFactory fac = ArraySolution.forVars(Arrays.asList("x", "y", "z"));
+        ArraySolution solution = fac.fromValues(TestContext.Alice, TestContext.Bob, null);
+        ArraySolution.Slots slots = ArraySolution.Slots.resolve(fac.getVarNames(),
+                                                                Arrays.asList("z", "w", "x"));
+        assertEquals(slots.getIndex(0), 2);
+        assertEquals(slots.getIndex(1), -1);
+        assertEquals(slots.getIndex(2), 0);
+        assertTrue(slots.matches(solution));
+        assertNull(slots.get(solution, 0));
+        assertNull(slots.get(solution, 1));
+        assertEquals(slots.get(solution, 2), TestContext.Alice);
+
+        // other solutions are read by name
+        MapSolution map = MapSolution.builder().put("z", TestContext.Bob).build();
+        assertFalse(slots.matches(map));
+        assertEquals(slots.get(map, 0), TestContext.Bob);
+        assertNull(slots.get(map, 2));
+
+        assertNull(solution.setAt(2, TestContext.Charlie));
+        assertEquals(solution.getAt(2), TestContext.Charlie);
+        assertEquals(solution.get("z"), TestContext.Charlie);
+    }
+
+    @Test
+    public void testSlotResolverReusesSlots() {
+        ArraySolution.SlotResolver resolver = new ArraySolution.SlotResolver(singleton("x"));
+        ArraySolution.ValueFactory f1 = ArraySolution.forVars(Arrays.asList("y", "x"));
+        ArraySolution.ValueFactory f2 = ArraySolution.forVars(singletonList("x"));
+        ArraySolution.Slots s1 = resolver.resolve(f1.fromValues(TestContext.Alice, TestContext.Bob));
+        ArraySolution.Slots s2 = resolver.resolve(f2.fromValues(TestContext.Bob));
+        assertSame(resolver.resolve(f1.fromValues(null, TestContext.Bob)), s1);
+        assertSame(resolver.resolve(f2.fromValues(TestContext.Alice)), s2);
+        assertEquals(s1.getIndex(0), 1);
+        assertEquals(s2.getIndex(0), 0);
+        assertNull(resolver.resolve(MapSolution.build("x", TestContext.Bob)).getSource());
+    }
+
+    @Test
+    public void testFromSolutionsBySlots() {
+        ArraySolution.ValueFactory left = ArraySolution.forVars(Arrays.asList("x", "y"));
+        ArraySolution.ValueFactory right = ArraySolution.forVars(Arrays.asList("z", "y"));
+        ArraySolution.ValueFactory out = ArraySolution.forVars(Arrays.asList("y", "z", "x", "w"));
+        Solution l = left.fromValues(TestContext.Alice, TestContext.Bob);
+        Solution r = right.fromValues(TestContext.Charlie, TestContext.Dave);
+        Solution expected = MapSolution.builder().put("x", TestContext.Alice)
+                                                 .put("y", TestContext.Bob)
+                                                 .put("z", TestContext.Charlie).build();
+        Solution rMap = MapSolution.builder().put("z", TestContext.Charlie)
+                                             .put("y", TestContext.Dave).build();
+        for (int i = 0; i < 2; i++) { // second iteration uses cached slots
+            assertEquals(out.fromSolutions(l, r), expected);
+            assertEquals(out.fromSolutions(l, rMap), expected);
+            assertEquals(out.fromSolutions(new Solution[]{l, r}), expected);
+            assertEquals(out.fromSolutions(new Solution[]{l, rMap}), expected);
+        }
+        Solution expectedSwapped = MapSolution.builder().put("x", TestContext.Alice)
+                                                        .put("y", TestContext.Dave)
+                                                        .put("z", TestContext.Charlie).build();
+        assertEquals(out.fromSolutions(r, l), expectedSwapped);
+        assertEquals(out.fromSolutions(new Solution[]{rMap, l}), expectedSwapped);
+    }
+
+    @Test
+    public void testFromSolutionCopiesSameVars() {
+        ArraySolution.ValueFactory fac = ArraySolution.forVars(Arrays.asList("x", "y"));
+        ArraySolution original = fac.fromValues(TestContext.Alice, TestContext.Bob);
+        ArraySolution copy = fac.fromSolution(original);
+        assertEquals(copy, original);
+        copy.setAt(0, TestContext.Charlie);
+        assertEquals(original.get("x"), TestContext.Alice);
+        assertEquals(copy.get("x"), TestContext.Charlie);
+    }
+}
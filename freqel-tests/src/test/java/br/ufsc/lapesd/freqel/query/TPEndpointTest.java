@@ -8,11 +8,14 @@ import br.ufsc.lapesd.freqel.query.endpoint.TPEndpoint;
 import br.ufsc.lapesd.freqel.query.endpoint.impl.CompliantTSVSPARQLClient;
 import br.ufsc.lapesd.freqel.query.endpoint.impl.EmptyEndpoint;
 import br.ufsc.lapesd.freqel.query.endpoint.impl.NettyCompliantTSVSPARQLClient;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.NettyHttpClient;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.ResultsFormat;
 import br.ufsc.lapesd.freqel.query.endpoint.impl.SPARQLClient;
 import br.ufsc.lapesd.freqel.query.modifiers.*;
 import br.ufsc.lapesd.freqel.query.modifiers.filter.SPARQLFilterFactory;
 import br.ufsc.lapesd.freqel.query.results.Results;
 import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SolutionBlock;
 import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
 import br.ufsc.lapesd.freqel.util.NamedFunction;
 import com.github.lapesd.rdfit.RIt;
@@ -60,6 +63,7 @@ public class TPEndpointTest extends EndpointTestBase {
     public static final @Nonnull List<NamedFunction<String, Fixture<TPEndpoint>>> endpoints;
     private static final @Nonnull Map<String, HDTSSProcess> hdtssServers = new ConcurrentHashMap<>();
     private static final @Nonnull Map<String, FusekiEndpoint> fusekiServers = new ConcurrentHashMap<>();
+    private static final @Nonnull Map<String, NettySPARQLServer> nettyServers = new ConcurrentHashMap<>();
 
     public static class FusekiEndpoint implements AutoCloseable {
         public @Nonnull FusekiServer server;
@@ -111,6 +115,14 @@ public class TPEndpointTest extends EndpointTestBase {
         });
     }
 
+    private static @Nonnull NettySPARQLServer cachedNettyServer(@Nonnull String resourcePath) {
+        return nettyServers.computeIfAbsent(resourcePath, p -> {
+            Dataset ds = DatasetFactory.createTxnMem();
+            RDFDataMgr.read(ds, new TestContext(){}.open(resourcePath), Lang.TTL);
+            return new NettySPARQLServer(ds, true);
+        });
+    }
+
     private static @Nonnull HDTSSProcess cachedHDTSS(@Nonnull String resourcePath) {
         return hdtssServers.computeIfAbsent(resourcePath,
                 p -> HDTSSProcess.forRDF(new TestContext(){}.open(p), Lang.TTL));
@@ -140,6 +152,39 @@ public class TPEndpointTest extends EndpointTestBase {
                 @Override public void close() { client.close(); }
             };
         }));
+        endpoints.add(new NamedFunction<>("Fuseki+JSON NettyCompliantTSVSPARQLClient", path -> {
+            NettyCompliantTSVSPARQLClient client;
+            client = new NettyCompliantTSVSPARQLClient(cachedFuseki(path).uri);
+            client.setResultsFormats(ResultsFormat.JSON);
+            return new Fixture<TPEndpoint>(client) {
+                @Override public void close() { client.close(); }
+            };
+        }));
+        endpoints.add(new NamedFunction<>("Fuseki+XML NettyCompliantTSVSPARQLClient", path -> {
+            NettyCompliantTSVSPARQLClient client;
+            client = new NettyCompliantTSVSPARQLClient(cachedFuseki(path).uri);
+            client.setResultsFormats(ResultsFormat.XML);
+            return new Fixture<TPEndpoint>(client) {
+                @Override public void close() { client.close(); }
+            };
+        }));
+        endpoints.add(new NamedFunction<>("Fuseki+THRIFT NettyCompliantTSVSPARQLClient", path -> {
+            NettyCompliantTSVSPARQLClient client;
+            client = new NettyCompliantTSVSPARQLClient(cachedFuseki(path).uri);
+            client.setResultsFormats(ResultsFormat.THRIFT);
+            return new Fixture<TPEndpoint>(client) {
+                @Override public void close() { client.close(); }
+            };
+        }));
+        endpoints.add(new NamedFunction<>("NettySPARQLServer+h2c NettyCompliantTSVSPARQLClient",
+                                          path -> {
+            NettyCompliantTSVSPARQLClient client;
+            client = new NettyCompliantTSVSPARQLClient(cachedNettyServer(path).uri);
+            client.setProtocol(NettyHttpClient.Protocol.HTTP_2);
+            return new Fixture<TPEndpoint>(client) {
+                @Override public void close() { client.close(); }
+            };
+        }));
         endpoints.add(new NamedFunction<>("HDTEndpoint[in-memory]", path -> {
             InputStream stream = new TestContext(){}.open(path);
             HDT hdt;
@@ -208,7 +253,8 @@ public class TPEndpointTest extends EndpointTestBase {
 
     @AfterClass
     public void afterClass() throws Throwable {
-        List<Throwable> causes = Stream.of(hdtssServers.values(), fusekiServers.values())
+        List<Throwable> causes = Stream.of(hdtssServers.values(), fusekiServers.values(),
+                                                   nettyServers.values())
                 .flatMap(Collection::stream)
                 .map(c -> {
                     try {
@@ -377,6 +423,26 @@ public class TPEndpointTest extends EndpointTestBase {
                            MapSolution.builder().put(TestContext.s, TestContext.Bob).put(TestContext.o, EndpointTestBase.B_NAME2).build()));
     }
 
+    @Test(dataProvider = "fixtureFactories", groups = {"endpointTest"})
+    public void testQuerySubjectObjectByBatch(Function<String, Fixture<TPEndpoint>> f) {
+        Set<Solution> expected = newHashSet(
+                MapSolution.builder().put(TestContext.s, TestContext.Alice).put(TestContext.o, EndpointTestBase.A_NAME).build(),
+                MapSolution.builder().put(TestContext.s, TestContext.Bob).put(TestContext.o, EndpointTestBase.B_NAME1).build(),
+                MapSolution.builder().put(TestContext.s, TestContext.Bob).put(TestContext.o, EndpointTestBase.B_NAME2).build());
+        try (Fixture<TPEndpoint> fixture = f.apply("rdf-1.nt");
+             Results results = fixture.endpoint.query(new Triple(TestContext.s, TestContext.name, TestContext.o))) {
+            SolutionBlock block = new SolutionBlock(results.getVarNames(), 2);
+            List<Solution> actual = new ArrayList<>();
+            for (int n; (n = results.nextBatch(block, 2)) > 0; block.clear()) {
+                assertTrue(n <= 2);
+                for (int i = 0; i < n; i++)
+                    actual.add(block.getSolution(i));
+            }
+            assertEquals(actual.size(), expected.size());
+            assertEquals(new HashSet<>(actual), expected);
+        }
+    }
+
     @Test(dataProvider = "fixtureFactories", groups = {"endpointTest"})
     public void testQueryDistinctPredicates(Function<String, Fixture<TPEndpoint>> f) {
         queryResourceTest(f, "rdf-1.nt", new Triple(TestContext.s, TestContext.p, TestContext.o),
@@ -0,0 +1,201 @@
+package br.ufsc.lapesd.freqel.query.endpoint.impl;
+
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.URI;
+import br.ufsc.lapesd.freqel.query.NettySPARQLServer;
+import br.ufsc.lapesd.freqel.query.endpoint.exceptions.HTTPStatusException;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import com.google.common.base.Stopwatch;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static br.ufsc.lapesd.freqel.query.endpoint.impl.NettyHttpClient.Protocol.HTTP_1_1;
+import static br.ufsc.lapesd.freqel.query.endpoint.impl.NettyHttpClient.Protocol.HTTP_2;
+import static java.util.Collections.singleton;
+import static org.testng.Assert.*;
+
+public class NettyCompliantTSVSPARQLClientTest {
+    private static final Logger logger
+            = LoggerFactory.getLogger(NettyCompliantTSVSPARQLClientTest.class);
+    private static final String EX = "http://example.org/";
+    private static final int SUBJECTS = 64;
+
+    private NettySPARQLServer h2cServer, h1Server;
+
+    @BeforeClass(groups = {"fast"})
+    public void beforeClass() {
+        Dataset ds = DatasetFactory.createTxnMem();
+        Model model = ds.getDefaultModel();
+        Property p = ResourceFactory.createProperty(EX+"p");
+        for (int i = 0; i < SUBJECTS; i++)
+            model.add(model.createResource(EX+"s"+i), p, model.createResource(EX+"o"+i));
+        h2cServer = new NettySPARQLServer(ds, true);
+        h1Server = new NettySPARQLServer(ds, false);
+    }
+
+    @AfterClass(groups = {"fast"})
+    public void afterClass() {
+        h2cServer.close();
+        h1Server.close();
+    }
+
+    private static @Nonnull NettyCompliantTSVSPARQLClient
+    createClient(@Nonnull NettySPARQLServer server, @Nonnull NettyHttpClient.Protocol protocol) {
+        return new NettyCompliantTSVSPARQLClient(server.uri).setProtocol(protocol);
+    }
+
+    private static @Nonnull String objectQuery(int subject) {
+        return "SELECT ?o WHERE { <"+EX+"s"+subject+"> <"+EX+"p> ?o }";
+    }
+
+    private static @Nonnull Set<String> objects(@Nonnull Results results) {
+        Set<String> set = new HashSet<>();
+        try {
+            while (results.hasNext()) {
+                Term term = results.next().get("o");
+                set.add(term instanceof URI ? ((URI) term).getURI() : String.valueOf(term));
+            }
+        } finally {
+            results.close();
+        }
+        return set;
+    }
+
+    @DataProvider public @Nonnull Object[][] protocolsData() {
+        return new Object[][] {{HTTP_1_1}, {HTTP_2}};
+    }
+
+    @Test(dataProvider = "protocolsData", groups = {"fast"})
+    public void testQuery(@Nonnull NettyHttpClient.Protocol protocol) {
+        h2cServer.resetStats();
+        try (NettyCompliantTSVSPARQLClient client = createClient(h2cServer, protocol)) {
+            for (int i = 0; i < 4; i++)
+                assertEquals(objects(client.querySPARQL(objectQuery(i))), singleton(EX+"o"+i));
+            assertEquals(client.getProtocol(), protocol);
+        }
+        assertEquals(h2cServer.getGETs(), 4);
+        assertEquals(h2cServer.getH2Requests(), protocol == HTTP_2 ? 4 : 0);
+    }
+
+    @Test(dataProvider = "protocolsData", groups = {"fast"})
+    public void testParallelQueries(@Nonnull NettyHttpClient.Protocol protocol) throws Exception {
+        h2cServer.resetStats();
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        try (NettyCompliantTSVSPARQLClient client = createClient(h2cServer, protocol)) {
+            List<Future<Set<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < 4*SUBJECTS; i++) {
+                String query = objectQuery(i % SUBJECTS);
+                futures.add(executor.submit(() -> objects(client.querySPARQL(query))));
+            }
+            for (int i = 0; i < futures.size(); i++)
+                assertEquals(futures.get(i).get(), singleton(EX+"o"+(i % SUBJECTS)));
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        if (protocol == HTTP_2) {
+            assertEquals(h2cServer.getH2Requests(), 4*SUBJECTS);
+            assertTrue(h2cServer.getConnections() <= NettyHttpClient.DEF_MAX_H2_CONNECTIONS);
+        }
+    }
+
+    @Test(dataProvider = "protocolsData", groups = {"fast"})
+    public void testPOSTFallback(@Nonnull NettyHttpClient.Protocol protocol) {
+        h2cServer.resetStats();
+        StringBuilder b = new StringBuilder("SELECT ?o WHERE { ?s <"+EX+"p> ?o VALUES ?s {");
+        for (int i = 0; i < SUBJECTS; i++)
+            b.append(" <").append(EX).append("s").append(i).append('>');
+        String longQuery = b.append(" } }").toString();
+        try (NettyCompliantTSVSPARQLClient client = createClient(h2cServer, protocol)) {
+            client.setMaxGETPathLength(longQuery.length());
+            assertEquals(objects(client.querySPARQL(objectQuery(0))), singleton(EX+"o0"));
+            assertEquals(h2cServer.getGETs(), 1);
+            assertEquals(h2cServer.getPOSTs(), 0);
+            assertEquals(objects(client.querySPARQL(longQuery)).size(), SUBJECTS);
+            assertEquals(h2cServer.getGETs(), 1);
+            assertEquals(h2cServer.getPOSTs(), 1);
+        }
+    }
+
+    @Test(dataProvider = "protocolsData", groups = {"fast"})
+    public void testBadStatusFails(@Nonnull NettyHttpClient.Protocol protocol) {
+        try (NettyCompliantTSVSPARQLClient client = createClient(h2cServer, protocol)) {
+            String construct = "CONSTRUCT WHERE { ?s <"+EX+"p> ?o }"; // server rejects with 400
+            Results results = client.querySPARQL(construct, false, singleton("o"));
+            HTTPStatusException e = expectThrows(HTTPStatusException.class, () -> objects(results));
+            assertEquals(e.getStatus(), 400);
+            // the connection remains usable
+            assertEquals(objects(client.querySPARQL(objectQuery(1))), singleton(EX+"o1"));
+        }
+    }
+
+    @Test(dataProvider = "protocolsData", groups = {"fast"})
+    public void testConcurrencyLimit(@Nonnull NettyHttpClient.Protocol protocol) throws Exception {
+        Dataset empty = DatasetFactory.createTxnMem();
+        try (NettySPARQLServer server = new NettySPARQLServer(empty, true);
+             NettyCompliantTSVSPARQLClient client = createClient(server, protocol)) {
+            server.setDelay(20, TimeUnit.MILLISECONDS);
+            client.setMaxConcurrency(3);
+            List<Results> list = new ArrayList<>();
+            for (int i = 0; i < 12; i++)
+                list.add(client.querySPARQL(objectQuery(i)));
+            for (Results results : list)
+                assertEquals(objects(results), Collections.emptySet());
+            assertTrue(server.getMaxActive() <= 3, "maxActive="+server.getMaxActive());
+            assertEquals(server.getGETs(), 12);
+        }
+    }
+
+    @Test(groups = {"fast"})
+    public void testFallbackToHTTP1() {
+        h1Server.resetStats();
+        try (NettyCompliantTSVSPARQLClient client = createClient(h1Server, HTTP_2)) {
+            for (int i = 0; i < 4; i++)
+                assertEquals(objects(client.querySPARQL(objectQuery(i))), singleton(EX+"o"+i));
+            assertEquals(client.getProtocol(), HTTP_1_1);
+        }
+        assertEquals(h1Server.getH2Requests(), 0);
+    }
+
+    @Test(dataProvider = "protocolsData")
+    public void testRequestsPerSecond(@Nonnull NettyHttpClient.Protocol protocol) throws Exception {
+        int threads = 64, queries = 4000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (NettyCompliantTSVSPARQLClient client = createClient(h2cServer, protocol)) {
+            for (int i = 0; i < 2*threads; i++) // warm up
+                objects(client.querySPARQL(objectQuery(i % SUBJECTS)));
+            h2cServer.resetStats();
+            List<Future<Set<String>>> futures = new ArrayList<>();
+            Stopwatch sw = Stopwatch.createStarted();
+            for (int i = 0; i < queries; i++) {
+                String query = objectQuery(i % SUBJECTS);
+                futures.add(executor.submit(() -> objects(client.querySPARQL(query))));
+            }
+            for (Future<Set<String>> future : futures)
+                assertEquals(future.get().size(), 1);
+            double seconds = sw.elapsed(TimeUnit.MICROSECONDS)/1000000.0;
+            logger.info("{}: {} requests/s from {} threads, {} connections opened",
+                        protocol, String.format("%.1f", queries/seconds), threads,
+                        h2cServer.getConnections());
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package br.ufsc.lapesd.freqel;
+
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.modifiers.filter.SPARQLFilterFactory;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SolutionBlock;
+import br.ufsc.lapesd.freqel.query.results.impl.*;
+import org.openjdk.jmh.annotations.*;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+
+/**
+ * Compares draining a filter, projection, DISTINCT and LIMIT pipeline with
+ * {@link Results#next()} against {@link Results#nextBatch(SolutionBlock, int)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchResultsBenchmarks {
+    private static final String EX = "http://example.org/ns#";
+
+    @Param({"100000"})
+    private int rows;
+
+    @Param({"256"})
+    private int batchSize;
+
+    /** Operators in the pipeline, in the order FILTER, PROJECT, DISTINCT and LIMIT */
+    @Param({"FILTER", "PROJECT", "DISTINCT", "FILTER+PROJECT+DISTINCT+LIMIT"})
+    private String operators;
+
+    private List<Solution> input;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ArraySolution.ValueFactory fac = ArraySolution.forVars(asList("x", "y", "z"));
+        input = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            input.add(fac.fromValues(new StdURI(EX + "x-" + (i % (rows / 4))),
+                                     new StdURI(EX + "y-" + i),
+                                     new StdURI(EX + "z-" + (i % 7))));
+        }
+    }
+
+    private @Nonnull Results pipeline() {
+        List<String> ops = asList(operators.split("\\+"));
+        Results r = new CollectionResults(input, asList("x", "y", "z"));
+        if (ops.contains("FILTER")) {
+            r = new SPARQLFilterResults(r, singletonList(
+                    SPARQLFilterFactory.parseFilter("?z != <" + EX + "z-0>")));
+        }
+        if (ops.contains("PROJECT"))
+            r = new ProjectingResults(r, singleton("x"));
+        if (ops.contains("DISTINCT"))
+            r = new HashDistinctResults(r);
+        if (ops.contains("LIMIT"))
+            r = new LimitResults(r, rows);
+        return r;
+    }
+
+    @Benchmark
+    public int byRow() {
+        int count = 0;
+        try (Results results = pipeline()) {
+            while (results.hasNext()) {
+                results.next();
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int byBatch() {
+        int count = 0;
+        try (Results results = pipeline()) {
+            SolutionBlock block = new SolutionBlock(results.getVarNames(), batchSize);
+            for (int n; (n = results.nextBatch(block, batchSize)) > 0; block.clear())
+                count += n;
+        }
+        return count;
+    }
+}
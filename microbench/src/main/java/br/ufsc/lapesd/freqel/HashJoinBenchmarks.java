@@ -0,0 +1,77 @@
+package br.ufsc.lapesd.freqel;
+
+import br.ufsc.lapesd.freqel.federation.concurrent.PoolJoinExecutorService;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.HashJoinResultsFactory;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.ParallelInMemoryHashJoinResults;
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.PartitionedHashJoinResults;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+/**
+ * Consumes a 1:1 hash join between two in-memory operands of rowsPerSide solutions each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class HashJoinBenchmarks {
+    private static final String EX = "http://example.org/ns#";
+
+    @Param({"100000", "1000000"})
+    private int rowsPerSide;
+
+    @Param({"ParallelInMemoryHashJoinResults", "PartitionedHashJoinResults"})
+    private String implementation;
+
+    private List<Solution> left, right;
+    private HashJoinResultsFactory factory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ArraySolution.ValueFactory leftFac = ArraySolution.forVars(asList("x", "l"));
+        ArraySolution.ValueFactory rightFac = ArraySolution.forVars(asList("x", "r"));
+        left = new ArrayList<>(rowsPerSide);
+        right = new ArrayList<>(rowsPerSide);
+        for (int i = 0; i < rowsPerSide; i++) {
+            Term x = new StdURI(EX + "x-" + i);
+            left.add(leftFac.fromValues(x, new StdURI(EX + "l-" + i)));
+            right.add(rightFac.fromValues(x, new StdURI(EX + "r-" + i)));
+        }
+        PoolJoinExecutorService executor = PoolJoinExecutorService.getDefault();
+        if (implementation.equals("PartitionedHashJoinResults"))
+            factory = new PartitionedHashJoinResults.Factory(executor);
+        else
+            factory = new ParallelInMemoryHashJoinResults.Factory(executor);
+    }
+
+    @Benchmark
+    public int join() {
+        Results l = new CollectionResults(left, asList("x", "l"));
+        Results r = new CollectionResults(right, asList("x", "r"));
+        int count = 0;
+        try (Results results = factory.createResults(l, r, singletonList("x"),
+                                                     asList("x", "l", "r"))) {
+            while (results.hasNext()) {
+                results.next();
+                ++count;
+            }
+        }
+        if (count != rowsPerSide)
+            throw new AssertionError("Expected "+rowsPerSide+" solutions, got "+count);
+        return count;
+    }
+}
@@ -8,6 +8,7 @@ import br.ufsc.lapesd.freqel.model.term.Term;
 import br.ufsc.lapesd.freqel.model.term.URI;
 import br.ufsc.lapesd.freqel.model.term.std.StdLit;
 import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
 import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
 import br.ufsc.lapesd.freqel.query.results.impl.MapSolution;
 import br.ufsc.lapesd.freqel.query.results.impl.ProjectingResults;
@@ -22,6 +23,7 @@ import org.openjdk.jmh.annotations.*;
 import java.util.ArrayList;
 import java.util.List;
 
+import static java.util.Arrays.asList;
 import static org.apache.jena.rdf.model.ResourceFactory.*;
 
 @BenchmarkMode(Mode.Throughput)
@@ -35,10 +37,13 @@ public class ProjectingResultsBenchmark {
     private List<JenaSolution> jenaSolutions;
     private List<JenaBindingSolution> bindingSolutions;
     private List<MapSolution> mapSolutions;
+    private List<ArraySolution> arraySolutions;
 
     @Setup(Level.Trial)
     public void setUp() {
         mapSolutions = new ArrayList<>(ROWS);
+        arraySolutions = new ArrayList<>(ROWS);
+        ArraySolution.ValueFactory arrayFactory = ArraySolution.forVars(asList("x", "y", "z"));
         Model model = ModelFactory.createDefaultModel();
         for (int i = 0; i < ROWS; i++) {
             Resource uri = createResource(EX + i);
@@ -48,6 +53,7 @@ public class ProjectingResultsBenchmark {
             StdLit stdLit = StdLit.fromUnescaped(String.valueOf(i), xsdInt);
             mapSolutions.add(MapSolution.builder().put("x", new StdURI(EX+i))
                                                   .put("y", stdLit).build());
+            arraySolutions.add(arrayFactory.fromValues(new StdURI(EX+i), stdLit, null));
         }
         jenaSolutions = new ArrayList<>(ROWS);
         String queryStr = "PREFIX ex: <" + EX + ">\n" +
@@ -119,4 +125,23 @@ public class ProjectingResultsBenchmark {
         projected.forEachRemainingThenClose(s -> terms.add(s.get("x")));
         return terms;
     }
+
+    @Benchmark
+    public List<Term> projectArraySolutionByName() {
+        List<Term> terms = new ArrayList<>(ROWS);
+        ArraySolution.ValueFactory factory = ArraySolution.forVars(asList("y", "x"));
+        for (ArraySolution solution : arraySolutions)
+            terms.add(factory.fromFunction(solution::get).get("x"));
+        return terms;
+    }
+
+    @Benchmark
+    public List<Term> projectArraySolution() {
+        List<Term> terms = new ArrayList<>(ROWS);
+        CollectionResults results = new CollectionResults(arraySolutions,
+                                                          ImmutableSet.of("x", "y", "z"));
+        ProjectingResults projected = new ProjectingResults(results, ImmutableSet.of("y", "x"));
+        projected.forEachRemainingThenClose(s -> terms.add(s.get("x")));
+        return terms;
+    }
 }
@@ -0,0 +1,110 @@
+package br.ufsc.lapesd.freqel;
+
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsExecutor;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.SolutionBlock;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.query.results.impl.BufferedResultsExecutor;
+import br.ufsc.lapesd.freqel.query.results.impl.ChunkedResultsExecutor;
+import br.ufsc.lapesd.freqel.query.results.impl.CollectionResults;
+import org.openjdk.jmh.annotations.*;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Rows per second that a single consumer drains from
+ * {@link ResultsExecutor#async(Collection, Collection)}
+ * with 2, 16 and 128 concurrent inputs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultsExecutorBenchmarks {
+    private static final String EX = "http://example.org/ns#";
+    private static final int ROWS = 128 * 1024;
+
+    @Param({"2", "16", "128"})
+    private int inputs;
+
+    @Param({"BUFFERED", "CHUNKED"})
+    private String executorType;
+
+    @Param({"256"})
+    private int bufferSize;
+
+    private List<List<Solution>> inputLists;
+    private ResultsExecutor executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ArraySolution.ValueFactory fac = ArraySolution.forVars(asList("x", "y"));
+        inputLists = new ArrayList<>(inputs);
+        for (int i = 0; i < inputs; i++) {
+            List<Solution> list = new ArrayList<>(ROWS / inputs);
+            for (int j = 0; j < ROWS / inputs; j++) {
+                list.add(fac.fromValues(new StdURI(EX + "x-" + i),
+                                        new StdURI(EX + "y-" + j)));
+            }
+            inputLists.add(list);
+        }
+        switch (executorType) {
+            case "BUFFERED":
+                executor = new BufferedResultsExecutor(bufferSize);
+                break;
+            case "CHUNKED":
+                executor = new ChunkedResultsExecutor(bufferSize);
+                break;
+            default:
+                throw new IllegalArgumentException("Bad executorType=" + executorType);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        executor.close();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private @Nonnull Results start() {
+        List<Results> list = new ArrayList<>(inputs);
+        for (List<Solution> solutions : inputLists)
+            list.add(new CollectionResults(solutions, asList("x", "y")));
+        return executor.async(list, null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int byRow() {
+        int count = 0;
+        try (Results results = start()) {
+            while (results.hasNext()) {
+                results.next();
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int byBatch() {
+        int count = 0;
+        try (Results results = start()) {
+            SolutionBlock block = new SolutionBlock(results.getVarNames());
+            for (int n; (n = results.nextBatch(block, block.capacity())) > 0; block.clear())
+                count += n;
+        }
+        return count;
+    }
+}
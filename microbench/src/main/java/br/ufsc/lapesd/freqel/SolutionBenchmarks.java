@@ -70,6 +70,8 @@ public class SolutionBenchmarks {
     private List<ImmutablePair<Term, Term>> stdSolutions;
     private List<ImmutablePair<RDFNode, RDFNode>> jenaSolutionsTerms;
     private ArraySolution.ValueFactory arraySolutionFactory;
+    private List<ArraySolution> leftSolutions, rightSolutions;
+    private ArraySolution.ValueFactory joinFactory;
 
     @Setup(Level.Trial)
     public void setUp() {
@@ -98,6 +100,16 @@ public class SolutionBenchmarks {
                                               StdLit.fromUnescaped(String.valueOf(i), xsdInt)));
         }
         arraySolutionFactory = ArraySolution.forVars(asList("x", "y"));
+
+        ArraySolution.ValueFactory leftFac = ArraySolution.forVars(asList("x", "y", "l"));
+        ArraySolution.ValueFactory rightFac = ArraySolution.forVars(asList("r", "y"));
+        leftSolutions = new ArrayList<>(ROWS);
+        rightSolutions = new ArrayList<>(ROWS);
+        for (ImmutablePair<Term, Term> pair : stdSolutions) {
+            leftSolutions.add(leftFac.fromValues(pair.left, pair.right, new StdURI(EX+"l")));
+            rightSolutions.add(rightFac.fromValues(new StdURI(EX+"r"), pair.right));
+        }
+        joinFactory = ArraySolution.forVars(asList("x", "y", "l", "r"));
     }
 
     @TearDown(Level.Trial)
@@ -158,4 +170,25 @@ public class SolutionBenchmarks {
             set.add(arraySolutionFactory.fromFunction(n -> fromJena(jenaSolution.get(n))));
         return set;
     }
+
+    @Benchmark
+    public List<Solution> joinArraySolutionsByName() {
+        List<Solution> list = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            ArraySolution left = leftSolutions.get(i), right = rightSolutions.get(i);
+            list.add(joinFactory.fromFunction(n -> {
+                Term term = left.get(n);
+                return term != null ? term : right.get(n);
+            }));
+        }
+        return list;
+    }
+
+    @Benchmark
+    public List<Solution> joinArraySolutionsBySlots() {
+        List<Solution> list = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++)
+            list.add(joinFactory.fromSolutions(leftSolutions.get(i), rightSolutions.get(i)));
+        return list;
+    }
 }
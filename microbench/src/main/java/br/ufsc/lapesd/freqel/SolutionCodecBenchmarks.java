@@ -0,0 +1,123 @@
+package br.ufsc.lapesd.freqel;
+
+import br.ufsc.lapesd.freqel.model.term.std.StdLit;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.codec.BlankTable;
+import br.ufsc.lapesd.freqel.query.results.codec.SolutionReader;
+import br.ufsc.lapesd.freqel.query.results.codec.SolutionWriter;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Arrays.asList;
+
+/**
+ * Writes and reads back rowsPerFile solutions with {@link SolutionWriter}/{@link SolutionReader}.
+ *
+ * Solutions have an unique subject, a predicate out of 20 and an xsd:int object. The
+ * {@link Size} counters report the encoded bytes per row and the retained heap of the
+ * {@link ArraySolution}s (measured as the heap growth while building them).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class SolutionCodecBenchmarks {
+    private static final String EX = "http://example.org/ns#";
+    private static final StdURI xsdInt = new StdURI("http://www.w3.org/2001/XMLSchema#int");
+    private static final List<String> VARS = asList("s", "p", "o");
+
+    @Param({"100000"})
+    private int rowsPerFile;
+
+    @Param({"false", "true"})
+    private boolean mapped;
+
+    private List<Solution> solutions;
+    private double heapBytesPerRow;
+    private BlankTable blanks;
+    private File file;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Size {
+        public double encodedBytesPerRow;
+        public double heapBytesPerRow;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ArraySolution.ValueFactory fac = ArraySolution.forVars(VARS);
+        long before = usedHeap();
+        solutions = new ArrayList<>(rowsPerFile);
+        for (int i = 0; i < rowsPerFile; i++) {
+            solutions.add(fac.fromValues(new StdURI(EX + "s-" + i),
+                                         new StdURI(EX + "p-" + (i % 20)),
+                                         StdLit.fromUnescaped(String.valueOf(i), xsdInt)));
+        }
+        heapBytesPerRow = (usedHeap() - before) / (double) rowsPerFile;
+        blanks = new BlankTable();
+        file = Files.createTempFile("freqel-codec", ".bin").toFile();
+        file.deleteOnExit();
+        write(null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (!file.delete())
+            throw new RuntimeException("Could not delete "+file);
+    }
+
+    private long write(Size size) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), WRITE, TRUNCATE_EXISTING);
+        try (SolutionWriter writer = new SolutionWriter(channel, VARS, blanks)) {
+            for (Solution solution : solutions)
+                writer.write(solution);
+            writer.flush();
+            if (size != null) {
+                size.encodedBytesPerRow = writer.getBytesWritten() / (double) rowsPerFile;
+                size.heapBytesPerRow = heapBytesPerRow;
+            }
+            return writer.getBytesWritten();
+        }
+    }
+
+    @Benchmark
+    public long encode(Size size) throws IOException {
+        return write(size);
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), READ);
+        int count = 0;
+        try (SolutionReader reader = mapped ? SolutionReader.mapped(channel, VARS, blanks)
+                                            : new SolutionReader(channel, VARS, blanks)) {
+            while (reader.hasNext()) {
+                reader.next();
+                ++count;
+            }
+        }
+        if (count != rowsPerFile)
+            throw new AssertionError("Expected "+rowsPerFile+" solutions, got "+count);
+        return count;
+    }
+}
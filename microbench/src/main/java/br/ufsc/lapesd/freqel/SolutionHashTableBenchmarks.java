@@ -0,0 +1,97 @@
+package br.ufsc.lapesd.freqel;
+
+import br.ufsc.lapesd.freqel.federation.execution.tree.impl.joins.hash.CrudeSolutionHashTable;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import br.ufsc.lapesd.freqel.query.results.impl.SolutionHashTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+/**
+ * Compares {@link SolutionHashTable} against {@link CrudeSolutionHashTable} (build and probe
+ * of a hash join) and against a {@link HashSet} (DISTINCT).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class SolutionHashTableBenchmarks {
+    private static final String EX = "http://example.org/ns#";
+
+    @Param({"10000", "1000000"})
+    private int rows;
+
+    /** Each key of the build side is repeated this many times */
+    @Param({"1", "4"})
+    private int duplicates;
+
+    private List<Solution> build, probe, distinctInput;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ArraySolution.ValueFactory buildFac = ArraySolution.forVars(asList("x", "l"));
+        ArraySolution.ValueFactory probeFac = ArraySolution.forVars(asList("r", "x"));
+        build = new ArrayList<>(rows);
+        probe = new ArrayList<>(rows);
+        distinctInput = new ArrayList<>(rows);
+        int keys = rows / duplicates;
+        for (int i = 0; i < rows; i++) {
+            Term x = new StdURI(EX + "x-" + (i % keys));
+            build.add(buildFac.fromValues(x, new StdURI(EX + "l-" + i)));
+            probe.add(probeFac.fromValues(new StdURI(EX + "r-" + i), x));
+            distinctInput.add(buildFac.fromValues(x, new StdURI(EX + "l-" + (i % keys))));
+        }
+    }
+
+    @Benchmark
+    public int crudeJoin() {
+        CrudeSolutionHashTable table = new CrudeSolutionHashTable(singletonList("x"), rows);
+        for (Solution solution : build)
+            table.add(solution);
+        int count = 0;
+        for (Solution solution : probe)
+            count += table.getAll(solution).size();
+        return count;
+    }
+
+    @Benchmark
+    public int openAddressingJoin() {
+        SolutionHashTable table = new SolutionHashTable(singletonList("x"), rows);
+        for (Solution solution : build)
+            table.add(solution);
+        SolutionHashTable.Cursor cursor = table.cursor();
+        int count = 0;
+        for (Solution solution : probe) {
+            for (cursor.reset(solution); cursor.hasNext(); cursor.next())
+                ++count;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int hashSetDistinct() {
+        HashSet<Solution> set = new HashSet<>();
+        for (Solution solution : distinctInput)
+            set.add(solution);
+        return set.size();
+    }
+
+    @Benchmark
+    public int openAddressingDistinct() {
+        SolutionHashTable table = new SolutionHashTable(asList("x", "l"), 256);
+        for (Solution solution : distinctInput)
+            table.addIfAbsent(solution);
+        return table.size();
+    }
+}
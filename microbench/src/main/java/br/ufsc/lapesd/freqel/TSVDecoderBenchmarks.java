@@ -0,0 +1,108 @@
+package br.ufsc.lapesd.freqel;
+
+import br.ufsc.lapesd.freqel.deprecated.StringTSVParser;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.ResultsDecoder;
+import br.ufsc.lapesd.freqel.query.endpoint.impl.TSVDecoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Parses a large TSV file generated by {@link TSVFixture}, feeding it in chunks of
+ * chunkKiB, as they would arrive from Netty.
+ *
+ * The string parser is the previous implementation in NettyCompliantTSVSPARQLClient.
+ * The file is read into pooled direct buffers in all cases.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@State(Scope.Thread)
+public class TSVDecoderBenchmarks {
+    @Param({"2048"})
+    private int fixtureMiB;
+
+    @Param({"64"})
+    private int chunkKiB;
+
+    @Param({"bytes", "bytes-quote-aware", "string"})
+    private String parser;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = TSVFixture.get(fixtureMiB * 1024L * 1024L);
+    }
+
+    private static class Listener implements ResultsDecoder.Listener {
+        private final @Nonnull Blackhole bh;
+        long rows;
+
+        public Listener(@Nonnull Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override public @Nullable int[] header(@Nonnull List<String> columns) {
+            return null;
+        }
+
+        @Override public void row(@Nonnull Term[] row) {
+            ++rows;
+            bh.consume(row[0]);
+            bh.consume(row[2]);
+        }
+    }
+
+    private void read(@Nonnull Consumer<ByteBuf> consumer) throws IOException {
+        int chunkSize = chunkKiB * 1024;
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            for (long position = 0, size = channel.size(); position < size; ) {
+                ByteBuf chunk = PooledByteBufAllocator.DEFAULT.directBuffer(chunkSize);
+                try {
+                    position += chunk.writeBytes(channel, position, chunkSize);
+                    consumer.accept(chunk);
+                } finally {
+                    chunk.release();
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public long parse(Blackhole bh) throws IOException {
+        if (parser.equals("string")) {
+            long[] rows = {0};
+            StringTSVParser stringParser = new StringTSVParser(UTF_8, terms -> {
+                ++rows[0];
+                bh.consume(terms.get(0));
+                bh.consume(terms.get(2));
+            });
+            read(stringParser::feed);
+            return rows[0];
+        }
+        Listener listener = new Listener(bh);
+        try (TSVDecoder decoder = new TSVDecoder(listener)) {
+            decoder.setQuoteAware(parser.equals("bytes-quote-aware"));
+            read(decoder::feed);
+            decoder.finish();
+        }
+        return listener.rows;
+    }
+}
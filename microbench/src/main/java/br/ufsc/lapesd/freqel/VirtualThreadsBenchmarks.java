@@ -0,0 +1,129 @@
+package br.ufsc.lapesd.freqel;
+
+import br.ufsc.lapesd.freqel.federation.inject.dagger.DaggerTestComponent;
+import br.ufsc.lapesd.freqel.model.term.std.StdURI;
+import br.ufsc.lapesd.freqel.query.results.AbstractResults;
+import br.ufsc.lapesd.freqel.query.results.Results;
+import br.ufsc.lapesd.freqel.query.results.ResultsExecutor;
+import br.ufsc.lapesd.freqel.query.results.Solution;
+import br.ufsc.lapesd.freqel.query.results.impl.ArraySolution;
+import org.openjdk.jmh.annotations.*;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Load test of the {@link ResultsExecutor} built with and without VIRTUAL_THREADS: each
+ * operation runs several concurrent queries that merge many slow sources, where every
+ * solution of a source takes delayMs of blocking wait.
+ *
+ * Run with a JVM that supports virtual threads (21+), otherwise VIRTUAL falls back to
+ * platform threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class VirtualThreadsBenchmarks {
+    private static final String EX = "http://example.org/ns#";
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    private String threads;
+
+    @Param({"128"})
+    private int sources;
+
+    @Param({"1", "16"})
+    private int queries;
+
+    @Param({"10"})
+    private int rowsPerSource;
+
+    @Param({"2"})
+    private int delayMs;
+
+    private ResultsExecutor executor;
+    private ExecutorService clients;
+    private ArraySolution.ValueFactory factory;
+
+    private class SlowResults extends AbstractResults {
+        private int remaining = rowsPerSource;
+
+        public SlowResults() {
+            super(asList("x", "y"));
+        }
+
+        @Override public int getReadyCount() {
+            return 0;
+        }
+
+        @Override public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override public @Nonnull Solution next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            --remaining;
+            return factory.fromValues(new StdURI(EX+"x"), new StdURI(EX+"y-"+remaining));
+        }
+
+        @Override public void close() { }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        factory = ArraySolution.forVars(asList("x", "y"));
+        executor = DaggerTestComponent.builder()
+                .overrideVirtualThreads(threads.equals("VIRTUAL"))
+                .build().resultsExecutor();
+        clients = Executors.newFixedThreadPool(queries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        clients.shutdown();
+        clients.awaitTermination(10, TimeUnit.SECONDS);
+        executor.close();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private int runQuery() {
+        List<Results> inputs = new ArrayList<>(sources);
+        for (int i = 0; i < sources; i++)
+            inputs.add(new SlowResults());
+        int count = 0;
+        try (Results results = executor.async(inputs, null)) {
+            while (results.hasNext()) {
+                results.next();
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int concurrentQueries() throws ExecutionException, InterruptedException {
+        List<Future<Integer>> futures = new ArrayList<>(queries);
+        for (int i = 0; i < queries; i++)
+            futures.add(clients.submit(this::runQuery));
+        int total = 0;
+        for (Future<Integer> future : futures)
+            total += future.get();
+        if (total != queries * sources * rowsPerSource)
+            throw new AssertionError("Missing solutions");
+        return total;
+    }
+}
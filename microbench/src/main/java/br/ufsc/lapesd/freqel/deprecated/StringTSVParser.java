@@ -0,0 +1,70 @@
+package br.ufsc.lapesd.freqel.deprecated;
+
+import br.ufsc.lapesd.freqel.model.NTParseException;
+import br.ufsc.lapesd.freqel.model.term.Term;
+import br.ufsc.lapesd.freqel.model.term.std.StdTermFactory;
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static br.ufsc.lapesd.freqel.model.RDFUtils.fromNT;
+
+/**
+ * TSV parsing as done by NettyCompliantTSVSPARQLClient before TSVDecoder: each chunk
+ * becomes a String, concatenated to the incomplete line of the previous chunk.
+ */
+public class StringTSVParser {
+    private final @Nonnull Charset charset;
+    private final @Nonnull Consumer<List<Term>> consumer;
+    private final @Nonnull List<Term> terms = new ArrayList<>();
+    private @Nullable String carry;
+    private boolean header = false;
+
+    public StringTSVParser(@Nonnull Charset charset, @Nonnull Consumer<List<Term>> consumer) {
+        this.charset = charset;
+        this.consumer = consumer;
+    }
+
+    public void feed(@Nonnull ByteBuf chunk) {
+        String str = chunk.toString(charset);
+        if (carry != null) {
+            str = carry + str;
+            carry = null;
+        }
+        int b = 0, e = str.indexOf('\n');
+        if (e < 0) {
+            carry = str;
+            return;
+        }
+        if (!header) {
+            header = true;
+            e = str.indexOf('\n', b = e+1);
+        }
+        while (e >= 0) {
+            parseRow(str, b, e);
+            e = str.indexOf('\n', b = e+1);
+        }
+        if (b < str.length())
+            carry = str.substring(b);
+    }
+
+    private void parseRow(@Nonnull String str, int begin, int end) {
+        terms.clear();
+        for (int pos = begin; pos <= end; ) {
+            int sep = Math.min(str.indexOf('\t', pos), end);
+            String nt = str.substring(pos, sep < 0 ? sep = end : sep);
+            try {
+                terms.add(nt.isEmpty() ? null : fromNT(nt, StdTermFactory.INSTANCE));
+            } catch (NTParseException e) {
+                terms.add(null);
+            }
+            pos = sep+1;
+        }
+        consumer.accept(terms);
+    }
+}